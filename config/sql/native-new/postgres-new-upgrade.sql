@@ -44,6 +44,262 @@ CREATE TRIGGER m_org_mark_refresh_trunc_tr
     FOR EACH STATEMENT EXECUTE FUNCTION mark_org_closure_for_refresh_org();
 $aa$);
 
+-- changes for 4.5
+
+-- work bucket store for distributed activities
+call apply_change(2, $aa$
+CREATE TYPE WorkBucketStateType AS ENUM ('READY', 'DELEGATED', 'COMPLETE');
+
+CREATE TABLE m_work_bucket (
+    coordinatorOid UUID NOT NULL REFERENCES m_object_oid(oid) ON DELETE CASCADE,
+    activityPath TEXT NOT NULL,
+    sequentialNumber INTEGER NOT NULL,
+    state WorkBucketStateType NOT NULL,
+    workerOid UUID,
+    leaseExpiration TIMESTAMPTZ,
+    content BYTEA,
+
+    PRIMARY KEY (coordinatorOid, activityPath, sequentialNumber)
+);
+
+CREATE INDEX m_work_bucket_state_idx ON m_work_bucket (coordinatorOid, activityPath, state);
+$aa$);
+
+-- org closure maintained incrementally instead of the materialized view refreshed on demand
+call apply_change(3, $aa$
+DROP TRIGGER m_ref_object_parent_mark_refresh_tr ON m_ref_object_parent_org;
+DROP TRIGGER m_ref_object_parent_mark_refresh_trunc_tr ON m_ref_object_parent_org;
+DROP TRIGGER m_org_mark_refresh_tr ON m_org;
+DROP TRIGGER m_org_mark_refresh_trunc_tr ON m_org;
+DROP FUNCTION mark_org_closure_for_refresh();
+DROP FUNCTION mark_org_closure_for_refresh_org();
+DROP MATERIALIZED VIEW m_org_closure;
+/*
+Org closure table is maintained incrementally by triggers on m_ref_object_parent_org and m_org.
+Each parent-org reference of an org is an edge, the trigger applies the change of this edge
+to the closure in the same transaction, there is no need to refresh it before org queries.
+Closure contains also identity (org = org) entries because:
+* It makes the incremental maintenance easier, see m_org_closure_apply_edge().
+* It actually makes some query easier and requires AND instead of OR conditions.
+* While the table shows that o => o (=> means "is parent of"), this is not the semantics
+of isParent/ChildOf searches and they never return parameter OID as a result.
+Column paths contains the number of different paths from the ancestor to the descendant,
+which is necessary when an edge is removed from the hierarchy that is not a tree (org with more parents).
+Identity rows have paths = 1 and are created for every org, even for the ones not in any hierarchy.
+Cycles in the org hierarchy are not supported.
+*/
+CREATE TABLE m_org_closure (
+    ancestor_oid UUID NOT NULL,
+    descendant_oid UUID NOT NULL,
+    paths INTEGER NOT NULL,
+
+    PRIMARY KEY (ancestor_oid, descendant_oid)
+);
+
+CREATE INDEX m_org_closure_desc_asc_idx
+    ON m_org_closure (descendant_oid, ancestor_oid);
+
+-- Computes the closure from scratch, used for the full rebuild and for the consistency check.
+CREATE OR REPLACE FUNCTION m_org_closure_compute()
+    RETURNS TABLE (ancestor_oid UUID, descendant_oid UUID, paths INTEGER)
+    LANGUAGE sql
+    STABLE
+AS $$
+WITH RECURSIVE org_h (
+    ancestor_oid, -- ref.targetoid
+    descendant_oid --ref.ownerOid
+) AS (
+    -- non-recursive term: parent-org refs of orgs (edges)
+    SELECT r.targetOid, r.ownerOid FROM m_ref_object_parent_org r
+        WHERE r.ownerType = 'ORG'
+    UNION ALL
+    -- recursive (iterative) term:
+    -- Generate their parents (anc => desc, that is target => owner), => means "is parent of".
+    -- UNION ALL (not just UNION) is used, because each row stands for one path.
+    SELECT par.targetOid, chi.descendant_oid -- leaving original child there generates closure
+        FROM m_ref_object_parent_org as par, org_h as chi
+        WHERE par.ownerOid = chi.ancestor_oid AND par.ownerType = 'ORG'
+)
+SELECT o.oid, o.oid, 1 FROM m_org o
+UNION ALL
+SELECT ancestor_oid, descendant_oid, count(*)::integer FROM org_h
+    GROUP BY ancestor_oid, descendant_oid;
+$$;
+
+-- Adds (delta = 1) or removes (delta = -1) the edge parent => child to/from the closure.
+-- Every ancestor of the parent (including the parent) gets every descendant of the child
+-- (including the child), the number of paths is the product of paths parts.
+-- Identity rows are not used here, so it does not matter whether the org rows already exist.
+CREATE OR REPLACE FUNCTION m_org_closure_apply_edge(parent_oid UUID, child_oid UUID, delta INTEGER)
+    RETURNS void
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    -- Changes of the closure are serialized (until the end of the transaction), otherwise
+    -- two concurrent transactions adding connected edges would both miss the paths over the other edge.
+    -- The same lock number is used by m_refresh_org_closure().
+    PERFORM pg_advisory_xact_lock(47);
+
+    IF delta > 0 THEN
+        INSERT INTO m_org_closure (ancestor_oid, descendant_oid, paths)
+        SELECT a.oid, d.oid, a.paths * d.paths * delta
+            FROM (SELECT parent_oid AS oid, 1 AS paths
+                    UNION ALL
+                    SELECT oc.ancestor_oid, oc.paths FROM m_org_closure oc
+                        WHERE oc.descendant_oid = parent_oid AND oc.ancestor_oid != parent_oid) a,
+                (SELECT child_oid AS oid, 1 AS paths
+                    UNION ALL
+                    SELECT oc.descendant_oid, oc.paths FROM m_org_closure oc
+                        WHERE oc.ancestor_oid = child_oid AND oc.descendant_oid != child_oid) d
+        ON CONFLICT (ancestor_oid, descendant_oid)
+            DO UPDATE SET paths = m_org_closure.paths + excluded.paths;
+    ELSE
+        WITH delta_rows AS (
+            SELECT a.oid AS ancestor_oid, d.oid AS descendant_oid, -a.paths * d.paths * delta AS paths
+                FROM (SELECT parent_oid AS oid, 1 AS paths
+                        UNION ALL
+                        SELECT oc.ancestor_oid, oc.paths FROM m_org_closure oc
+                            WHERE oc.descendant_oid = parent_oid AND oc.ancestor_oid != parent_oid) a,
+                    (SELECT child_oid AS oid, 1 AS paths
+                        UNION ALL
+                        SELECT oc.descendant_oid, oc.paths FROM m_org_closure oc
+                            WHERE oc.ancestor_oid = child_oid AND oc.descendant_oid != child_oid) d
+        ), deleted AS (
+            -- rows with no path left are deleted...
+            DELETE FROM m_org_closure oc USING delta_rows dr
+                WHERE oc.ancestor_oid = dr.ancestor_oid AND oc.descendant_oid = dr.descendant_oid
+                    AND oc.paths <= dr.paths
+        )
+        -- ...the rest just loses the paths over the removed edge
+        UPDATE m_org_closure oc SET paths = oc.paths - dr.paths
+            FROM delta_rows dr
+            WHERE oc.ancestor_oid = dr.ancestor_oid AND oc.descendant_oid = dr.descendant_oid
+                AND oc.paths > dr.paths;
+    END IF;
+END $$;
+
+-- The trigger for m_ref_object_parent_org that applies edge changes to the closure.
+CREATE OR REPLACE FUNCTION update_org_closure()
+    RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF TG_OP = 'TRUNCATE' THEN
+        -- no edges left, only identity rows remain
+        DELETE FROM m_org_closure WHERE ancestor_oid != descendant_oid;
+        RETURN NULL;
+    END IF;
+
+    IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.ownerType = 'ORG' THEN
+        PERFORM m_org_closure_apply_edge(OLD.targetOid, OLD.ownerOid, -1);
+    END IF;
+    IF TG_OP IN ('UPDATE', 'INSERT') AND NEW.ownerType = 'ORG' THEN
+        PERFORM m_org_closure_apply_edge(NEW.targetOid, NEW.ownerOid, 1);
+    END IF;
+
+    -- after trigger returns null
+    RETURN NULL;
+END $$;
+
+CREATE TRIGGER m_ref_object_parent_org_closure_tr
+    AFTER INSERT OR UPDATE OR DELETE ON m_ref_object_parent_org
+    FOR EACH ROW EXECUTE FUNCTION update_org_closure();
+CREATE TRIGGER m_ref_object_parent_org_closure_trunc_tr
+    AFTER TRUNCATE ON m_ref_object_parent_org
+    FOR EACH STATEMENT EXECUTE FUNCTION update_org_closure();
+
+-- The trigger that maintains identity rows of the closure after m_org changes.
+CREATE OR REPLACE FUNCTION update_org_closure_identity()
+    RETURNS trigger
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO m_org_closure VALUES (NEW.oid, NEW.oid, 1)
+            ON CONFLICT (ancestor_oid, descendant_oid) DO NOTHING;
+    ELSIF TG_OP = 'DELETE' THEN
+        -- Other rows of the deleted org are removed with its parent-org refs.
+        -- Refs of its children to the deleted org stay, and so do their closure rows.
+        DELETE FROM m_org_closure WHERE ancestor_oid = OLD.oid AND descendant_oid = OLD.oid;
+    ELSE -- TRUNCATE
+        DELETE FROM m_org_closure WHERE ancestor_oid = descendant_oid;
+    END IF;
+
+    -- after trigger returns null
+    RETURN NULL;
+END $$;
+
+-- Update is not necessary, it does not change relations between orgs.
+-- If it does, it is handled by trigger on m_ref_object_parent_org.
+CREATE TRIGGER m_org_closure_identity_tr
+    AFTER INSERT OR DELETE ON m_org
+    FOR EACH ROW EXECUTE FUNCTION update_org_closure_identity();
+CREATE TRIGGER m_org_closure_identity_trunc_tr
+    AFTER TRUNCATE ON m_org
+    FOR EACH STATEMENT EXECUTE FUNCTION update_org_closure_identity();
+
+-- This procedure rebuilds the whole closure, it is not necessary during normal operation.
+-- The rebuild is done when forced or when flagged by orgClosureRefreshNeeded in m_global_metadata,
+-- e.g. after many changes with triggers off (or just to be sure).
+CREATE OR REPLACE PROCEDURE m_refresh_org_closure(force boolean = false)
+    LANGUAGE plpgsql
+AS $$
+DECLARE
+    flag_val text;
+BEGIN
+    SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
+    IF flag_val = 'true' OR force THEN
+        -- The same lock number is used by the incremental maintenance, so concurrent changes
+        -- of the hierarchy wait for the rebuild (and vice versa).
+        PERFORM pg_advisory_xact_lock(47);
+        SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
+        IF flag_val = 'true' OR force THEN
+            DELETE FROM m_org_closure;
+            INSERT INTO m_org_closure SELECT * FROM m_org_closure_compute();
+            DELETE FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
+        END IF;
+    END IF;
+END; $$;
+
+-- initial fill of the closure table
+CALL m_refresh_org_closure(true);
+$aa$);
+
+-- serialized container values for storage outside of the owner's fullObject
+call apply_change(4, $aa$
+ALTER TABLE m_assignment ADD COLUMN fullObject BYTEA;
+ALTER TABLE m_operation_execution ADD COLUMN fullObject BYTEA;
+$aa$);
+
+-- activity statistics store
+call apply_change(5, $aa$
+CREATE TABLE m_activity_statistics (
+    id BIGSERIAL NOT NULL PRIMARY KEY,
+    taskOid UUID NOT NULL REFERENCES m_object_oid(oid) ON DELETE CASCADE,
+    activityPath TEXT NOT NULL,
+    intervalStart TIMESTAMPTZ NOT NULL,
+    intervalEnd TIMESTAMPTZ NOT NULL,
+    statistics BYTEA NOT NULL
+);
+
+CREATE INDEX m_activity_statistics_task_idx ON m_activity_statistics (taskOid, activityPath);
+$aa$);
+
+-- notification outbox
+call apply_change(6, $aa$
+CREATE TABLE m_notification_outbox (
+    id BIGSERIAL NOT NULL PRIMARY KEY,
+    transportName TEXT NOT NULL,
+    message BYTEA NOT NULL,
+    attempts INTEGER NOT NULL DEFAULT 0,
+    nextAttempt TIMESTAMPTZ NOT NULL,
+    lastError TEXT,
+    createTimestamp TIMESTAMPTZ NOT NULL DEFAULT current_timestamp
+);
+
+CREATE INDEX m_notification_outbox_nextAttempt_idx ON m_notification_outbox (nextAttempt);
+$aa$);
+
 -- WRITE CHANGES ABOVE ^^
 -- IMPORTANT: update apply_change number at the end of postgres-new.sql
 -- to match the number used in the last change here!
@@ -143,6 +143,8 @@ CREATE TYPE TaskWaitingReasonType AS ENUM ('OTHER_TASKS', 'OTHER');
 CREATE TYPE ThreadStopActionType AS ENUM ('RESTART', 'RESCHEDULE', 'SUSPEND', 'CLOSE');
 
 CREATE TYPE TimeIntervalStatusType AS ENUM ('BEFORE', 'IN', 'AFTER');
+
+CREATE TYPE WorkBucketStateType AS ENUM ('READY', 'DELEGATED', 'COMPLETE');
 -- endregion
 
 -- region OID-pool table
@@ -703,72 +705,155 @@ CREATE INDEX m_ref_object_parent_org_targetOidRelationId_idx
 
 -- region org-closure
 /*
-Trigger on m_ref_object_parent_org marks this view for refresh in one m_global_metadata row.
+Org closure table is maintained incrementally by triggers on m_ref_object_parent_org and m_org.
+Each parent-org reference of an org is an edge, the trigger applies the change of this edge
+to the closure in the same transaction, there is no need to refresh it before org queries.
 Closure contains also identity (org = org) entries because:
-* It's easier to do optimized matrix-multiplication based refresh with them later.
+* It makes the incremental maintenance easier, see m_org_closure_apply_edge().
 * It actually makes some query easier and requires AND instead of OR conditions.
 * While the table shows that o => o (=> means "is parent of"), this is not the semantics
 of isParent/ChildOf searches and they never return parameter OID as a result.
+Column paths contains the number of different paths from the ancestor to the descendant,
+which is necessary when an edge is removed from the hierarchy that is not a tree (org with more parents).
+Identity rows have paths = 1 and are created for every org, even for the ones not in any hierarchy.
+Cycles in the org hierarchy are not supported.
 */
-CREATE MATERIALIZED VIEW m_org_closure AS
+CREATE TABLE m_org_closure (
+    ancestor_oid UUID NOT NULL,
+    descendant_oid UUID NOT NULL,
+    paths INTEGER NOT NULL,
+
+    PRIMARY KEY (ancestor_oid, descendant_oid)
+);
+
+CREATE INDEX m_org_closure_desc_asc_idx
+    ON m_org_closure (descendant_oid, ancestor_oid);
+
+-- Computes the closure from scratch, used for the full rebuild and for the consistency check.
+CREATE OR REPLACE FUNCTION m_org_closure_compute()
+    RETURNS TABLE (ancestor_oid UUID, descendant_oid UUID, paths INTEGER)
+    LANGUAGE sql
+    STABLE
+AS $$
 WITH RECURSIVE org_h (
     ancestor_oid, -- ref.targetoid
     descendant_oid --ref.ownerOid
-    -- paths -- number of different paths, not used for materialized view version
-    -- depth -- possible later, but cycle detected must be added to the recursive term
 ) AS (
-    -- non-recursive term:
-    -- Gather all organization oids from parent-org refs and initialize identity lines (o => o).
-    -- We don't want the orgs not in org hierarchy, that would require org triggers too.
-    SELECT o.oid, o.oid FROM m_org o
-        WHERE EXISTS(
-            SELECT 1 FROM m_ref_object_parent_org r
-                WHERE r.targetOid = o.oid OR r.ownerOid = o.oid)
-    UNION
+    -- non-recursive term: parent-org refs of orgs (edges)
+    SELECT r.targetOid, r.ownerOid FROM m_ref_object_parent_org r
+        WHERE r.ownerType = 'ORG'
+    UNION ALL
     -- recursive (iterative) term:
     -- Generate their parents (anc => desc, that is target => owner), => means "is parent of".
-    SELECT par.targetoid, chi.descendant_oid -- leaving original child there generates closure
+    -- UNION ALL (not just UNION) is used, because each row stands for one path.
+    SELECT par.targetOid, chi.descendant_oid -- leaving original child there generates closure
         FROM m_ref_object_parent_org as par, org_h as chi
-        WHERE par.ownerOid = chi.ancestor_oid
+        WHERE par.ownerOid = chi.ancestor_oid AND par.ownerType = 'ORG'
 )
-SELECT * FROM org_h;
+SELECT o.oid, o.oid, 1 FROM m_org o
+UNION ALL
+SELECT ancestor_oid, descendant_oid, count(*)::integer FROM org_h
+    GROUP BY ancestor_oid, descendant_oid;
+$$;
 
--- unique index is like PK if it was table
-CREATE UNIQUE INDEX m_org_closure_asc_desc_idx
-    ON m_org_closure (ancestor_oid, descendant_oid);
-CREATE INDEX m_org_closure_desc_asc_idx
-    ON m_org_closure (descendant_oid, ancestor_oid);
+-- Adds (delta = 1) or removes (delta = -1) the edge parent => child to/from the closure.
+-- Every ancestor of the parent (including the parent) gets every descendant of the child
+-- (including the child), the number of paths is the product of paths parts.
+-- Identity rows are not used here, so it does not matter whether the org rows already exist.
+CREATE OR REPLACE FUNCTION m_org_closure_apply_edge(parent_oid UUID, child_oid UUID, delta INTEGER)
+    RETURNS void
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    -- Changes of the closure are serialized (until the end of the transaction), otherwise
+    -- two concurrent transactions adding connected edges would both miss the paths over the other edge.
+    -- The same lock number is used by m_refresh_org_closure().
+    PERFORM pg_advisory_xact_lock(47);
+
+    IF delta > 0 THEN
+        INSERT INTO m_org_closure (ancestor_oid, descendant_oid, paths)
+        SELECT a.oid, d.oid, a.paths * d.paths * delta
+            FROM (SELECT parent_oid AS oid, 1 AS paths
+                    UNION ALL
+                    SELECT oc.ancestor_oid, oc.paths FROM m_org_closure oc
+                        WHERE oc.descendant_oid = parent_oid AND oc.ancestor_oid != parent_oid) a,
+                (SELECT child_oid AS oid, 1 AS paths
+                    UNION ALL
+                    SELECT oc.descendant_oid, oc.paths FROM m_org_closure oc
+                        WHERE oc.ancestor_oid = child_oid AND oc.descendant_oid != child_oid) d
+        ON CONFLICT (ancestor_oid, descendant_oid)
+            DO UPDATE SET paths = m_org_closure.paths + excluded.paths;
+    ELSE
+        WITH delta_rows AS (
+            SELECT a.oid AS ancestor_oid, d.oid AS descendant_oid, -a.paths * d.paths * delta AS paths
+                FROM (SELECT parent_oid AS oid, 1 AS paths
+                        UNION ALL
+                        SELECT oc.ancestor_oid, oc.paths FROM m_org_closure oc
+                            WHERE oc.descendant_oid = parent_oid AND oc.ancestor_oid != parent_oid) a,
+                    (SELECT child_oid AS oid, 1 AS paths
+                        UNION ALL
+                        SELECT oc.descendant_oid, oc.paths FROM m_org_closure oc
+                            WHERE oc.ancestor_oid = child_oid AND oc.descendant_oid != child_oid) d
+        ), deleted AS (
+            -- rows with no path left are deleted...
+            DELETE FROM m_org_closure oc USING delta_rows dr
+                WHERE oc.ancestor_oid = dr.ancestor_oid AND oc.descendant_oid = dr.descendant_oid
+                    AND oc.paths <= dr.paths
+        )
+        -- ...the rest just loses the paths over the removed edge
+        UPDATE m_org_closure oc SET paths = oc.paths - dr.paths
+            FROM delta_rows dr
+            WHERE oc.ancestor_oid = dr.ancestor_oid AND oc.descendant_oid = dr.descendant_oid
+                AND oc.paths > dr.paths;
+    END IF;
+END $$;
 
--- The trigger for m_ref_object_parent_org that flags the view for refresh.
-CREATE OR REPLACE FUNCTION mark_org_closure_for_refresh()
+-- The trigger for m_ref_object_parent_org that applies edge changes to the closure.
+CREATE OR REPLACE FUNCTION update_org_closure()
     RETURNS trigger
     LANGUAGE plpgsql
 AS $$
 BEGIN
-    IF TG_OP = 'TRUNCATE' OR OLD.ownerType = 'ORG' OR NEW.ownerType = 'ORG' THEN
-        INSERT INTO m_global_metadata VALUES ('orgClosureRefreshNeeded', 'true')
-            ON CONFLICT (name) DO UPDATE SET value = 'true';
+    IF TG_OP = 'TRUNCATE' THEN
+        -- no edges left, only identity rows remain
+        DELETE FROM m_org_closure WHERE ancestor_oid != descendant_oid;
+        RETURN NULL;
+    END IF;
+
+    IF TG_OP IN ('UPDATE', 'DELETE') AND OLD.ownerType = 'ORG' THEN
+        PERFORM m_org_closure_apply_edge(OLD.targetOid, OLD.ownerOid, -1);
+    END IF;
+    IF TG_OP IN ('UPDATE', 'INSERT') AND NEW.ownerType = 'ORG' THEN
+        PERFORM m_org_closure_apply_edge(NEW.targetOid, NEW.ownerOid, 1);
     END IF;
 
     -- after trigger returns null
     RETURN NULL;
 END $$;
 
-CREATE TRIGGER m_ref_object_parent_mark_refresh_tr
+CREATE TRIGGER m_ref_object_parent_org_closure_tr
     AFTER INSERT OR UPDATE OR DELETE ON m_ref_object_parent_org
-    FOR EACH ROW EXECUTE FUNCTION mark_org_closure_for_refresh();
-CREATE TRIGGER m_ref_object_parent_mark_refresh_trunc_tr
+    FOR EACH ROW EXECUTE FUNCTION update_org_closure();
+CREATE TRIGGER m_ref_object_parent_org_closure_trunc_tr
     AFTER TRUNCATE ON m_ref_object_parent_org
-    FOR EACH STATEMENT EXECUTE FUNCTION mark_org_closure_for_refresh();
+    FOR EACH STATEMENT EXECUTE FUNCTION update_org_closure();
 
--- The trigger that flags the view for refresh after m_org changes.
-CREATE OR REPLACE FUNCTION mark_org_closure_for_refresh_org()
+-- The trigger that maintains identity rows of the closure after m_org changes.
+CREATE OR REPLACE FUNCTION update_org_closure_identity()
     RETURNS trigger
     LANGUAGE plpgsql
 AS $$
 BEGIN
-    INSERT INTO m_global_metadata VALUES ('orgClosureRefreshNeeded', 'true')
-        ON CONFLICT (name) DO UPDATE SET value = 'true';
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO m_org_closure VALUES (NEW.oid, NEW.oid, 1)
+            ON CONFLICT (ancestor_oid, descendant_oid) DO NOTHING;
+    ELSIF TG_OP = 'DELETE' THEN
+        -- Other rows of the deleted org are removed with its parent-org refs.
+        -- Refs of its children to the deleted org stay, and so do their closure rows.
+        DELETE FROM m_org_closure WHERE ancestor_oid = OLD.oid AND descendant_oid = OLD.oid;
+    ELSE -- TRUNCATE
+        DELETE FROM m_org_closure WHERE ancestor_oid = descendant_oid;
+    END IF;
 
     -- after trigger returns null
     RETURN NULL;
@@ -776,15 +861,16 @@ END $$;
 
 -- Update is not necessary, it does not change relations between orgs.
 -- If it does, it is handled by trigger on m_ref_object_parent_org.
-CREATE TRIGGER m_org_mark_refresh_tr
+CREATE TRIGGER m_org_closure_identity_tr
     AFTER INSERT OR DELETE ON m_org
-    FOR EACH ROW EXECUTE FUNCTION mark_org_closure_for_refresh_org();
-CREATE TRIGGER m_org_mark_refresh_trunc_tr
+    FOR EACH ROW EXECUTE FUNCTION update_org_closure_identity();
+CREATE TRIGGER m_org_closure_identity_trunc_tr
     AFTER TRUNCATE ON m_org
-    FOR EACH STATEMENT EXECUTE FUNCTION mark_org_closure_for_refresh_org();
+    FOR EACH STATEMENT EXECUTE FUNCTION update_org_closure_identity();
 
--- This procedure for conditional refresh when needed is called from the application code.
--- The refresh can be forced, e.g. after many changes with triggers off (or just to be sure).
+-- This procedure rebuilds the whole closure, it is not necessary during normal operation.
+-- The rebuild is done when forced or when flagged by orgClosureRefreshNeeded in m_global_metadata,
+-- e.g. after many changes with triggers off (or just to be sure).
 CREATE OR REPLACE PROCEDURE m_refresh_org_closure(force boolean = false)
     LANGUAGE plpgsql
 AS $$
@@ -793,22 +879,15 @@ DECLARE
 BEGIN
     SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
     IF flag_val = 'true' OR force THEN
-        -- We use advisory session lock only for the check + refresh, then release it immediately.
-        -- This can still dead-lock two transactions in a single thread on the select/delete combo,
-        -- (I mean, who would do that?!) but works fine for parallel transactions.
-        PERFORM pg_advisory_lock(47);
-        BEGIN
-            SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
-            IF flag_val = 'true' OR force THEN
-                REFRESH MATERIALIZED VIEW m_org_closure;
-                DELETE FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
-            END IF;
-            PERFORM pg_advisory_unlock(47);
-        EXCEPTION WHEN OTHERS THEN
-            -- Whatever happens we definitely want to release the lock.
-            PERFORM pg_advisory_unlock(47);
-            RAISE;
-        END;
+        -- The same lock number is used by the incremental maintenance, so concurrent changes
+        -- of the hierarchy wait for the rebuild (and vice versa).
+        PERFORM pg_advisory_xact_lock(47);
+        SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
+        IF flag_val = 'true' OR force THEN
+            DELETE FROM m_org_closure;
+            INSERT INTO m_org_closure SELECT * FROM m_org_closure_compute();
+            DELETE FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
+        END IF;
     END IF;
 END; $$;
 -- endregion
@@ -1248,6 +1327,39 @@ CREATE INDEX m_task_ext_idx ON m_task USING gin(ext);
 CREATE INDEX m_task_fullTextInfo_idx ON m_task USING gin (fullTextInfo gin_trgm_ops);
 CREATE INDEX m_task_createTimestamp_idx ON m_task (createTimestamp);
 CREATE INDEX m_task_modifyTimestamp_idx ON m_task (modifyTimestamp);
+
+-- Work buckets of distributed activities, used when the activity is configured to keep its buckets
+-- in the repository instead of the coordinator task (WorkAllocationDefinitionType.store).
+-- Buckets are claimed by workers using SELECT ... FOR UPDATE SKIP LOCKED; delegated buckets are held
+-- under a lease that the worker renews while it is alive. Buckets are deleted with the coordinator task.
+CREATE TABLE m_work_bucket (
+    coordinatorOid UUID NOT NULL REFERENCES m_object_oid(oid) ON DELETE CASCADE,
+    activityPath TEXT NOT NULL, -- ActivityPath, identifiers joined by "/", empty for the root
+    sequentialNumber INTEGER NOT NULL,
+    state WorkBucketStateType NOT NULL,
+    workerOid UUID,
+    leaseExpiration TIMESTAMPTZ,
+    content BYTEA, -- serialized WorkBucketType without state and workerRef
+
+    PRIMARY KEY (coordinatorOid, activityPath, sequentialNumber)
+);
+
+CREATE INDEX m_work_bucket_state_idx ON m_work_bucket (coordinatorOid, activityPath, state);
+
+-- Activity statistics increments, used when the activity is configured to keep its statistics
+-- in the repository instead of the task (ActivityReportingDefinitionType.statisticsStore).
+-- Each task (e.g. each worker) appends one row per statistics flush interval, rows are summed on read
+-- and merged into a single row from time to time. Rows are deleted with the task.
+CREATE TABLE m_activity_statistics (
+    id BIGSERIAL NOT NULL PRIMARY KEY,
+    taskOid UUID NOT NULL REFERENCES m_object_oid(oid) ON DELETE CASCADE,
+    activityPath TEXT NOT NULL, -- ActivityPath, identifiers joined by "/", empty for the root
+    intervalStart TIMESTAMPTZ NOT NULL,
+    intervalEnd TIMESTAMPTZ NOT NULL,
+    statistics BYTEA NOT NULL -- serialized ActivityStatisticsType with the increments for the interval
+);
+
+CREATE INDEX m_activity_statistics_task_idx ON m_activity_statistics (taskOid, activityPath);
 -- endregion
 
 -- region cases
@@ -1691,6 +1803,8 @@ CREATE TABLE m_assignment (
     modifierRefRelationId INTEGER REFERENCES m_uri(id),
     modifyChannelId INTEGER REFERENCES m_uri(id),
     modifyTimestamp TIMESTAMPTZ,
+    -- serialized value, only used when assignments are not stored in the owner's fullObject
+    fullObject BYTEA,
 
     PRIMARY KEY (ownerOid, cid)
 )
@@ -1779,6 +1893,8 @@ CREATE TABLE m_operation_execution (
     taskRefTargetType ObjectType,
     taskRefRelationId INTEGER REFERENCES m_uri(id),
     timestamp TIMESTAMPTZ,
+    -- serialized value, only used when operation executions are not stored in the owner's fullObject
+    fullObject BYTEA,
 
     PRIMARY KEY (ownerOid, cid)
 )
@@ -1793,6 +1909,24 @@ CREATE INDEX m_operation_execution_timestamp_idx ON m_operation_execution (times
 -- TODO: index for status is questionable, don't we want WHERE status = ... to another index instead?
 -- endregion
 
+-- region Notification outbox
+-- Notification messages waiting for delivery by the background dispatcher, used when the transport
+-- is configured to send asynchronously (e.g. MailConfigurationType.sendAsynchronously).
+-- Rows are claimed by setting nextAttempt to the end of the lease (so messages of a crashed node
+-- are picked up again) and deleted after successful delivery or after the last attempt.
+CREATE TABLE m_notification_outbox (
+    id BIGSERIAL NOT NULL PRIMARY KEY,
+    transportName TEXT NOT NULL,
+    message BYTEA NOT NULL, -- serialized NotificationMessageType
+    attempts INTEGER NOT NULL DEFAULT 0, -- number of failed delivery attempts
+    nextAttempt TIMESTAMPTZ NOT NULL,
+    lastError TEXT,
+    createTimestamp TIMESTAMPTZ NOT NULL DEFAULT current_timestamp
+);
+
+CREATE INDEX m_notification_outbox_nextAttempt_idx ON m_notification_outbox (nextAttempt);
+-- endregion
+
 -- region Extension support
 -- Catalog table of known indexed extension items.
 -- While itemName and valueType are both Q-names they are not cached via m_uri because this
@@ -1864,5 +1998,5 @@ END $$;
 -- endregion
 
 -- Initializing the last change number used in postgres-new-upgrade.sql.
-call apply_change(1, $$ SELECT 1 $$, true);
+call apply_change(6, $$ SELECT 1 $$, true);
 
@@ -42,6 +42,8 @@ public interface MidpointConfiguration {
     String WEB_APP_CONFIGURATION = "midpoint.webApplication";
     String WORKFLOW_CONFIGURATION = "midpoint.workflow";
     String INTERNALS_CONFIGURATION = "midpoint.internals";
+    String GROOVY_CONFIGURATION = "midpoint.groovy";
+    String PROVISIONING_CONFIGURATION = "midpoint.provisioning";
     /**
      * Reference to midpoint-system.properties generated in system-init component.
      * It is generated during the build.
@@ -251,6 +251,7 @@ public class CacheConfigurationManager {
         addCacheSettings(aggregate, CacheType.LOCAL_SHADOW_CONSTRAINT_CHECKER_CACHE, profile.getLocalShadowConstraintCheckerCache());
         addCacheSettings(aggregate, CacheType.LOCAL_ASSOCIATION_TARGET_SEARCH_EVALUATOR_CACHE, profile.getLocalAssociationTargetSearchEvaluatorCache());
         //addCacheSettings(aggregate, CacheType.LOCAL_DEFAULT_SEARCH_EVALUATOR_CACHE, profile.getLocalDefaultSearchEvaluatorCache());
+        addCacheSettings(aggregate, CacheType.GLOBAL_PRINCIPAL_CACHE, profile.getGlobalPrincipalCache());
     }
 
     private void addCacheSettings(Map<CacheType, CacheConfiguration> aggregate, CacheType cacheType, CacheSettingsType settings)
@@ -181,17 +181,47 @@ public class ActivityStatisticsUtil {
         Stream<TaskType> tasks = TaskTreeUtil.getAllTasksStream(root);
         tasks.forEach(task -> {
             ActivityStateType localState = ActivityStateUtil.getActivityState(task, path);
-            if (localState != null && localState.getStatistics() != null) {
-                ActivityStatisticsType localStatistics = localState.getStatistics();
-                ActivityItemProcessingStatisticsUtil.addTo(aggregate.getItemProcessing(), localStatistics.getItemProcessing());
-                ActivitySynchronizationStatisticsUtil.addTo(aggregate.getSynchronization(), localStatistics.getSynchronization());
-                ActionsExecutedInformationUtil.addTo(aggregate.getActionsExecuted(), localStatistics.getActionsExecuted());
-                ActivityBucketManagementStatisticsUtil.addTo(aggregate.getBucketManagement(), localStatistics.getBucketManagement());
+            if (localState != null) {
+                addTo(aggregate, localState.getStatistics());
             }
         });
         return aggregate;
     }
 
+    /**
+     * Adds statistics (e.g. from another task, or an increment) to the sum.
+     * Parts missing in the sum are created when needed.
+     */
+    public static void addTo(@NotNull ActivityStatisticsType sum, @Nullable ActivityStatisticsType delta) {
+        if (delta == null) {
+            return;
+        }
+        if (delta.getItemProcessing() != null) {
+            if (sum.getItemProcessing() == null) {
+                sum.setItemProcessing(new ActivityItemProcessingStatisticsType(PrismContext.get()));
+            }
+            ActivityItemProcessingStatisticsUtil.addTo(sum.getItemProcessing(), delta.getItemProcessing());
+        }
+        if (delta.getSynchronization() != null) {
+            if (sum.getSynchronization() == null) {
+                sum.setSynchronization(new ActivitySynchronizationStatisticsType(PrismContext.get()));
+            }
+            ActivitySynchronizationStatisticsUtil.addTo(sum.getSynchronization(), delta.getSynchronization());
+        }
+        if (delta.getActionsExecuted() != null) {
+            if (sum.getActionsExecuted() == null) {
+                sum.setActionsExecuted(new ActivityActionsExecutedType());
+            }
+            ActionsExecutedInformationUtil.addTo(sum.getActionsExecuted(), delta.getActionsExecuted());
+        }
+        if (delta.getBucketManagement() != null) {
+            if (sum.getBucketManagement() == null) {
+                sum.setBucketManagement(new ActivityBucketManagementStatisticsType());
+            }
+            ActivityBucketManagementStatisticsUtil.addTo(sum.getBucketManagement(), delta.getBucketManagement());
+        }
+    }
+
     public static String format(@Nullable ActivityStatisticsType statistics) {
         if (statistics == null) {
             return "";
@@ -143,44 +143,63 @@ public class AccCertCloserHelper {
 
     void closeStage(AccessCertificationCampaignType campaign, Task task, OperationResult result)
             throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
-        ModificationsToExecute modifications = getDeltasForStageClose(campaign, result);
+        XMLGregorianCalendar now = clock.currentTimeXMLGregorianCalendar();
+        updateCasesOnStageClose(campaign, now, task, result);
+        ModificationsToExecute modifications = getDeltasForStageClose(campaign, now);
         updateHelper.modifyCampaignPreAuthorized(campaign.getOid(), modifications, task, result);
         afterStageClose(campaign.getOid(), task, result);
     }
 
-    private ModificationsToExecute getDeltasForStageClose(AccessCertificationCampaignType campaign, OperationResult result)
+    private ModificationsToExecute getDeltasForStageClose(AccessCertificationCampaignType campaign, XMLGregorianCalendar now)
             throws SchemaException {
-        XMLGregorianCalendar now = clock.currentTimeXMLGregorianCalendar();
         ModificationsToExecute rv = new ModificationsToExecute();
-        List<AccessCertificationResponseType> outcomesToStopOn = computationHelper.getOutcomesToStopOn(campaign);
-        createCaseDeltasOnStageClose(campaign, rv, now, outcomesToStopOn, result);
-        rv.createNewBatch();
-        createWorkItemsCloseDeltas(campaign, rv, now, result);
-        rv.createNewBatch();
         rv.add(updateHelper.createStateDelta(REVIEW_STAGE_DONE));
         rv.add(createStageEndTimeDelta(campaign, now));
         rv.add(updateHelper.createTriggerDeleteDelta());
         return rv;
     }
 
-    // computes cases outcomes (stage-level and overall) at stage close and creates appropriate deltas
-    private void createCaseDeltasOnStageClose(AccessCertificationCampaignType campaign,
-            ModificationsToExecute modifications, XMLGregorianCalendar now,
-            List<AccessCertificationResponseType> outcomesToStopOn,
-            OperationResult result) throws SchemaException {
+    /**
+     * Computes cases outcomes (stage-level and overall) at stage close, and closes the open work items.
+     * Cases are processed in buckets and the changes are written as each bucket is done, see {@link BucketProcessor}.
+     */
+    private void updateCasesOnStageClose(AccessCertificationCampaignType campaign, XMLGregorianCalendar now,
+            Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
         LOGGER.debug("Updating current outcome for cases in {}", toShortStringLazy(campaign));
-        List<AccessCertificationCaseType> caseList = queryHelper.getAllCurrentIterationCases(campaign.getOid(), norm(campaign.getIteration()), null, result);
-        for (AccessCertificationCaseType aCase : caseList) {
-            long caseId = aCase.getId();
-            if (aCase.getReviewFinishedTimestamp() != null) {
-                LOGGER.trace("Review process of case {} has already finished, skipping to the next one", caseId);
-                continue;
-            }
+        List<AccessCertificationResponseType> outcomesToStopOn = computationHelper.getOutcomesToStopOn(campaign);
+        BucketProcessor<AccessCertificationCaseType> processor = updateHelper.createBucketProcessor("certification-stage-close",
+                (cases, bucketResult) -> {
+                    ModificationsToExecute modifications = new ModificationsToExecute();
+                    for (AccessCertificationCaseType aCase : cases) {
+                        createCaseDeltasOnStageClose(aCase, campaign, modifications, now, outcomesToStopOn);
+                    }
+                    updateHelper.modifyCampaignPreAuthorized(campaign.getOid(), modifications, task, bucketResult);
+                },
+                result);
+        try {
+            queryHelper.iterateCurrentIterationCases(campaign.getOid(), norm(campaign.getIteration()), processor::add, result);
+        } catch (Throwable t) {
+            processor.abort();
+            throw t;
+        }
+        processor.finish();
+    }
+
+    // computes case outcomes (stage-level and overall) at stage close and creates appropriate deltas, closing the work items
+    private void createCaseDeltasOnStageClose(AccessCertificationCaseType aCase, AccessCertificationCampaignType campaign,
+            ModificationsToExecute modifications, XMLGregorianCalendar now,
+            List<AccessCertificationResponseType> outcomesToStopOn) throws SchemaException {
+        long caseId = aCase.getId();
+        List<ItemDelta<?, ?>> deltas = new ArrayList<>();
+        if (aCase.getReviewFinishedTimestamp() != null) {
+            LOGGER.trace("Review process of case {} has already finished, not updating its outcome", caseId);
+        } else {
             LOGGER.trace("Updating current outcome for case {}", caseId);
             AccessCertificationResponseType newStageOutcome = computationHelper.computeOutcomeForStage(aCase, campaign, campaign.getStageNumber());
             String newStageOutcomeUri = toUri(newStageOutcome);
             String newOverallOutcomeUri = toUri(computationHelper.computeOverallOutcome(aCase, campaign, campaign.getStageNumber(), newStageOutcome));
-            List<ItemDelta<?, ?>> deltas = new ArrayList<>(
+            deltas.addAll(
                     prismContext.deltaFor(AccessCertificationCampaignType.class)
                             .item(F_CASE, caseId, F_CURRENT_STAGE_OUTCOME).replace(newStageOutcomeUri)
                             .item(F_CASE, caseId, F_OUTCOME).replace(newOverallOutcomeUri)
@@ -198,8 +217,15 @@ public class AccCertCloserHelper {
                         .asItemDelta());
                 LOGGER.debug("Marking case {} as review-finished because stage outcome = {}", caseId, newStageOutcome);
             }
-            modifications.add(deltas);
         }
+        for (AccessCertificationWorkItemType workItem : aCase.getWorkItem()) {
+            if (workItem.getCloseTimestamp() == null) {
+                deltas.add(prismContext.deltaFor(AccessCertificationCampaignType.class)
+                        .item(F_CASE, caseId, F_WORK_ITEM, workItem.getId(), F_CLOSE_TIMESTAMP).replace(now)
+                        .asItemDelta());
+            }
+        }
+        modifications.add(deltas);
     }
 
     private ItemDelta createStageEndTimeDelta(AccessCertificationCampaignType campaign, XMLGregorianCalendar now) throws SchemaException {
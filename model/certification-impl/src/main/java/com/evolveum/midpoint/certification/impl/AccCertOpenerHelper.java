@@ -8,6 +8,7 @@
 package com.evolveum.midpoint.certification.impl;
 
 import com.evolveum.midpoint.certification.api.OutcomeUtils;
+import com.evolveum.midpoint.certification.impl.AccCertReviewersHelper.ReviewersCache;
 import com.evolveum.midpoint.certification.impl.handlers.CertificationHandler;
 import com.evolveum.midpoint.common.Clock;
 import com.evolveum.midpoint.prism.PrismContainerValue;
@@ -51,6 +52,7 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.*;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.evolveum.midpoint.certification.api.OutcomeUtils.*;
 import static com.evolveum.midpoint.schema.util.CertCampaignTypeUtil.norm;
@@ -211,9 +213,10 @@ public class AccCertOpenerHelper {
 
     //region ================================ Stage open ================================
 
-    private class OpeningContext {
-        int casesEnteringStage;
-        int workItemsCreated;
+    private static class OpeningContext {
+        private final AtomicInteger casesEnteringStage = new AtomicInteger();
+        private final AtomicInteger workItemsCreated = new AtomicInteger();
+        private final ReviewersCache reviewersCache = new ReviewersCache();
     }
 
     void openNextStage(AccessCertificationCampaignType campaign, CertificationHandler handler, Task task,
@@ -223,8 +226,10 @@ public class AccCertOpenerHelper {
         for (;;) {
             OpeningContext openingContext = new OpeningContext();
             AccessCertificationStageType stage = createStage(campaign, requestedStageNumber);
-            ModificationsToExecute modifications = getDeltasForStageOpen(campaign, stage, handler, openingContext, task, result);
-            if (!skipEmptyStages || openingContext.casesEnteringStage > 0) {
+            // Cases are written to the repository as they are processed. If no case enters the stage, nothing is written.
+            processCasesForStageOpen(campaign, stage, handler, openingContext, task, result);
+            if (!skipEmptyStages || openingContext.casesEnteringStage.get() > 0) {
+                ModificationsToExecute modifications = getDeltasForStageOpen(campaign, stage);
                 updateHelper.modifyCampaignPreAuthorized(campaign.getOid(), modifications, task, result);
                 afterStageOpen(campaign.getOid(), stage, task, result);       // notifications, bookkeeping, ...
                 return;
@@ -238,29 +243,26 @@ public class AccCertOpenerHelper {
         }
     }
 
-    private ModificationsToExecute getDeltasForStageOpen(AccessCertificationCampaignType campaign,
-            AccessCertificationStageType stage, CertificationHandler handler,
-            OpeningContext openingContext, final Task task, OperationResult result)
-            throws SchemaException, ObjectNotFoundException {
-
-        int stageNumber = campaign.getStageNumber();
-        int newStageNumber = stage.getNumber();
-
-        LOGGER.trace("getDeltasForStageOpen starting; campaign = {}, stage number = {}, new stage number = {}, iteration = {}",
-                ObjectTypeUtil.toShortStringLazy(campaign), stageNumber, newStageNumber, norm(campaign.getIteration()));
-
-        ModificationsToExecute rv = new ModificationsToExecute();
-        if (stageNumber == 0 && norm(campaign.getIteration()) == 1) {
-            getDeltasToCreateCases(campaign, stage, handler, rv, openingContext, task, result);
+    private void processCasesForStageOpen(AccessCertificationCampaignType campaign, AccessCertificationStageType stage,
+            CertificationHandler handler, OpeningContext openingContext, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        LOGGER.trace("processCasesForStageOpen starting; campaign = {}, stage number = {}, new stage number = {}, iteration = {}",
+                ObjectTypeUtil.toShortStringLazy(campaign), campaign.getStageNumber(), stage.getNumber(), norm(campaign.getIteration()));
+        if (campaign.getStageNumber() == 0 && norm(campaign.getIteration()) == 1) {
+            createCases(campaign, stage, handler, openingContext, task, result);
         } else {
-            getDeltasToUpdateCases(campaign, stage, rv, openingContext, task, result);
+            updateCases(campaign, stage, openingContext, task, result);
         }
-        rv.createNewBatch();
+    }
+
+    private ModificationsToExecute getDeltasForStageOpen(AccessCertificationCampaignType campaign,
+            AccessCertificationStageType stage) throws SchemaException {
+        ModificationsToExecute rv = new ModificationsToExecute();
         rv.add(createStageAddDelta(stage));
         rv.add(createDeltasToRecordStageOpen(campaign, stage));
         rv.add(updateHelper.getDeltasToCreateTriggersForTimedActions(campaign.getOid(), 0,
                 XmlTypeConverter.toDate(stage.getStartTimestamp()), XmlTypeConverter.toDate(stage.getDeadline()),
-                CertCampaignTypeUtil.findStageDefinition(campaign, newStageNumber).getTimedActions()));
+                CertCampaignTypeUtil.findStageDefinition(campaign, stage.getNumber()).getTimedActions()));
 
         if (LOGGER.isTraceEnabled()) {
             List<ItemDelta<?, ?>> allDeltas = rv.getAllDeltas();
@@ -271,12 +273,14 @@ public class AccCertOpenerHelper {
     }
 
     /**
-     *  Creates certification cases (in the form of delta list) on first stage opening.
+     * Creates certification cases on first stage opening.
+     *
+     * Objects in scope are processed in buckets by worker threads (see {@link BucketProcessor}), and the cases
+     * are stored as soon as each bucket is done. So the memory needed does not depend on the size of the campaign.
      */
-    private <F extends FocusType> void getDeltasToCreateCases(AccessCertificationCampaignType campaign,
-            AccessCertificationStageType stage,
-            CertificationHandler handler, ModificationsToExecute modifications, OpeningContext openingContext, Task task,
-            OperationResult result) throws SchemaException, ObjectNotFoundException {
+    private <F extends FocusType> void createCases(AccessCertificationCampaignType campaign,
+            AccessCertificationStageType stage, CertificationHandler handler, OpeningContext openingContext, Task task,
+            OperationResult result) throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
         String campaignShortName = toShortString(campaign);
 
         AccessCertificationScopeType scope = campaign.getScopeDefinition();
@@ -290,54 +294,70 @@ public class AccCertOpenerHelper {
 
         TypedObjectQuery<F> typedQuery = prepareObjectQuery(objectBasedScope, handler, campaignShortName);
 
-        List<AccessCertificationCaseType> caseList = new ArrayList<>();
-
-        // create certification cases by executing the query and caseExpression on its results
-        // here the subclasses of this class come into play
-        repositoryService.searchObjectsIterative(typedQuery.getObjectClass(), typedQuery.getObjectQuery(),
-                (object, parentResult) -> {
-                    try {
-                        caseList.addAll(handler.createCasesForObject(object, campaign, task, parentResult));
-                    } catch (CommonException | RuntimeException e) {
-                        // TODO process the exception more intelligently
-                        throw new SystemException("Cannot create certification case for object " + toShortString(object.asObjectable()) + ": " + e.getMessage(), e);
-                    }
-                    return true;
-                }, null, true, result);
-
         AccessCertificationReviewerSpecificationType reviewerSpec =
                 reviewersHelper.findReviewersSpecification(campaign, 1);
 
         assert norm(campaign.getIteration()) == 1;
 
-        for (AccessCertificationCaseType acase : caseList) {
-            ContainerDelta<AccessCertificationCaseType> caseDelta = prismContext.deltaFactory().container().createDelta(F_CASE,
-                    AccessCertificationCampaignType.class);
-            acase.setIteration(1);
-            acase.setStageNumber(1);
-            acase.setCurrentStageCreateTimestamp(stage.getStartTimestamp());
-            acase.setCurrentStageDeadline(stage.getDeadline());
-
-            List<ObjectReferenceType> reviewers = reviewersHelper.getReviewersForCase(acase, campaign, reviewerSpec, task, result);
-            acase.getWorkItem().addAll(createWorkItems(reviewers, 1, 1, acase));
-
-            openingContext.workItemsCreated += acase.getWorkItem().size();
-            openingContext.casesEnteringStage++;
-
-            AccessCertificationResponseType currentStageOutcome = computationHelper.computeOutcomeForStage(acase, campaign, 1);
-            acase.setCurrentStageOutcome(toUri(currentStageOutcome));
-            acase.setOutcome(toUri(computationHelper.computeOverallOutcome(acase, campaign, 1, currentStageOutcome)));
-
-            @SuppressWarnings({ "raw", "unchecked" })
-            PrismContainerValue<AccessCertificationCaseType> caseCVal = acase.asPrismContainerValue();
-            caseDelta.addValueToAdd(caseCVal);
-            LOGGER.trace("Adding certification case:\n{}", caseCVal.debugDumpLazily());
-            modifications.add(caseDelta);
+        // create certification cases by executing the query and caseExpression on its results
+        // here the subclasses of this class come into play
+        BucketProcessor<PrismObject<F>> processor = updateHelper.createBucketProcessor("certification-case-creation",
+                (objects, bucketResult) ->
+                        createCasesForObjects(objects, campaign, stage, handler, reviewerSpec, openingContext, task, bucketResult),
+                result);
+        try {
+            repositoryService.searchObjectsIterative(typedQuery.getObjectClass(), typedQuery.getObjectQuery(),
+                    (object, parentResult) -> processor.add(object), null, true, result);
+        } catch (Throwable t) {
+            processor.abort();
+            throw t;
         }
+        processor.finish();
 
-        LOGGER.trace("Created {} deltas (in {} batches) to create {} cases ({} work items) for campaign {}",
-                modifications.getTotalDeltasCount(), modifications.batches.size(), caseList.size(),
-                openingContext.workItemsCreated, campaignShortName);
+        LOGGER.debug("Created {} cases ({} work items) for campaign {}",
+                openingContext.casesEnteringStage.get(), openingContext.workItemsCreated.get(), campaignShortName);
+    }
+
+    private <F extends FocusType> void createCasesForObjects(List<PrismObject<F>> objects,
+            AccessCertificationCampaignType campaign, AccessCertificationStageType stage, CertificationHandler handler,
+            AccessCertificationReviewerSpecificationType reviewerSpec, OpeningContext openingContext, Task task,
+            OperationResult result) throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        ModificationsToExecute modifications = new ModificationsToExecute();
+        for (PrismObject<F> object : objects) {
+            List<AccessCertificationCaseType> cases;
+            try {
+                cases = handler.createCasesForObject(object, campaign, task, result);
+            } catch (CommonException | RuntimeException e) {
+                // TODO process the exception more intelligently
+                throw new SystemException("Cannot create certification case for object " + toShortString(object.asObjectable()) + ": " + e.getMessage(), e);
+            }
+            for (AccessCertificationCaseType acase : cases) {
+                ContainerDelta<AccessCertificationCaseType> caseDelta = prismContext.deltaFactory().container().createDelta(F_CASE,
+                        AccessCertificationCampaignType.class);
+                acase.setIteration(1);
+                acase.setStageNumber(1);
+                acase.setCurrentStageCreateTimestamp(stage.getStartTimestamp());
+                acase.setCurrentStageDeadline(stage.getDeadline());
+
+                List<ObjectReferenceType> reviewers = reviewersHelper.getReviewersForCase(acase, campaign, reviewerSpec,
+                        openingContext.reviewersCache, task, result);
+                acase.getWorkItem().addAll(createWorkItems(reviewers, 1, 1, acase));
+
+                openingContext.workItemsCreated.addAndGet(acase.getWorkItem().size());
+                openingContext.casesEnteringStage.incrementAndGet();
+
+                AccessCertificationResponseType currentStageOutcome = computationHelper.computeOutcomeForStage(acase, campaign, 1);
+                acase.setCurrentStageOutcome(toUri(currentStageOutcome));
+                acase.setOutcome(toUri(computationHelper.computeOverallOutcome(acase, campaign, 1, currentStageOutcome)));
+
+                @SuppressWarnings({ "raw", "unchecked" })
+                PrismContainerValue<AccessCertificationCaseType> caseCVal = acase.asPrismContainerValue();
+                caseDelta.addValueToAdd(caseCVal);
+                LOGGER.trace("Adding certification case:\n{}", caseCVal.debugDumpLazily());
+                modifications.add(caseDelta);
+            }
+        }
+        updateHelper.modifyCampaignPreAuthorized(campaign.getOid(), modifications, task, result);
     }
 
     // create a query to find target objects from which certification cases will be created
@@ -417,22 +437,44 @@ public class AccCertOpenerHelper {
     }
 
     /**
-     * Deltas to advance cases to next stage when opening it.
+     * Advances cases to next stage when opening it. Cases are processed in buckets just like when creating them.
      */
-    private void getDeltasToUpdateCases(AccessCertificationCampaignType campaign, AccessCertificationStageType stage,
-            ModificationsToExecute modifications, OpeningContext openingContext,
-            Task task, OperationResult result) throws SchemaException, ObjectNotFoundException {
+    private void updateCases(AccessCertificationCampaignType campaign, AccessCertificationStageType stage,
+            OpeningContext openingContext, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
 
         int stageToBe = stage.getNumber();
         int iteration = norm(campaign.getIteration());
         LOGGER.trace("Updating cases in {}; current stage = {}, stageToBe = {}, iteration = {}", toShortStringLazy(campaign),
                 campaign.getStageNumber(), stageToBe, iteration);
-        List<AccessCertificationCaseType> caseList = queryHelper.getAllCurrentIterationCases(campaign.getOid(), iteration, null, result);
 
         AccessCertificationReviewerSpecificationType reviewerSpec =
                 reviewersHelper.findReviewersSpecification(campaign, stageToBe);
+        LOGGER.trace("reviewerSpec: {}", reviewerSpec);
+
+        BucketProcessor<AccessCertificationCaseType> processor = updateHelper.createBucketProcessor("certification-case-update",
+                (cases, bucketResult) ->
+                        advanceCases(cases, campaign, stage, reviewerSpec, openingContext, task, bucketResult),
+                result);
+        try {
+            queryHelper.iterateCurrentIterationCases(campaign.getOid(), iteration, processor::add, result);
+        } catch (Throwable t) {
+            processor.abort();
+            throw t;
+        }
+        processor.finish();
 
-        LOGGER.trace("cases: {}, reviewerSpec: {}", caseList.size(), reviewerSpec);
+        LOGGER.debug("Advanced {} cases for campaign {}; work items created: {}",
+                openingContext.casesEnteringStage.get(), toShortString(campaign), openingContext.workItemsCreated.get());
+    }
+
+    private void advanceCases(List<AccessCertificationCaseType> caseList, AccessCertificationCampaignType campaign,
+            AccessCertificationStageType stage, AccessCertificationReviewerSpecificationType reviewerSpec,
+            OpeningContext openingContext, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        int stageToBe = stage.getNumber();
+        int iteration = norm(campaign.getIteration());
+        ModificationsToExecute modifications = new ModificationsToExecute();
         for (AccessCertificationCaseType aCase : caseList) {
             LOGGER.trace("----------------------------------------------------------------------------------------");
             LOGGER.trace("Considering case: {}", aCase);
@@ -449,10 +491,11 @@ public class AccCertOpenerHelper {
                 continue;
             }
 
-            List<ObjectReferenceType> reviewers = reviewersHelper.getReviewersForCase(aCase, campaign, reviewerSpec, task, result);
+            List<ObjectReferenceType> reviewers = reviewersHelper.getReviewersForCase(aCase, campaign, reviewerSpec,
+                    openingContext.reviewersCache, task, result);
             List<AccessCertificationWorkItemType> workItems = createWorkItems(reviewers, stageToBe, iteration, aCase);
-            openingContext.workItemsCreated += workItems.size();
-            openingContext.casesEnteringStage++;
+            openingContext.workItemsCreated.addAndGet(workItems.size());
+            openingContext.casesEnteringStage.incrementAndGet();
             aCase.getWorkItem().addAll(CloneUtil.cloneCollectionMembers(workItems));
             AccessCertificationResponseType currentStageOutcome = computationHelper.computeOutcomeForStage(aCase, campaign, stageToBe);
             AccessCertificationResponseType overallOutcome = computationHelper.computeOverallOutcome(aCase, campaign, stageToBe, currentStageOutcome);
@@ -470,10 +513,7 @@ public class AccCertOpenerHelper {
                     .item(F_CASE, caseId, F_ITERATION).replace(iteration)
                     .asItemDeltas());
         }
-
-        LOGGER.debug("Created {} deltas (in {} batches) to advance {} out of {} cases for campaign {}; work items created: {}",
-                modifications.getTotalDeltasCount(), modifications.batches.size(), openingContext.casesEnteringStage,
-                caseList.size(), toShortString(campaign), openingContext.workItemsCreated);
+        updateHelper.modifyCampaignPreAuthorized(campaign.getOid(), modifications, task, result);
     }
 
     // some bureaucracy... stage#, state, start time, triggers
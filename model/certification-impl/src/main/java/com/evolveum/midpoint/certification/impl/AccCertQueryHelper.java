@@ -7,6 +7,7 @@
 
 package com.evolveum.midpoint.certification.impl;
 
+import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.query.*;
 import com.evolveum.midpoint.repo.api.RepositoryService;
@@ -27,6 +28,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkItemOutputType.F_OUTCOME;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCaseType.F_WORK_ITEM;
@@ -41,6 +43,9 @@ public class AccCertQueryHelper {
     @SuppressWarnings("unused")
     private static final Trace LOGGER = TraceManager.getTrace(AccCertQueryHelper.class);
 
+    /** Number of cases fetched at once by {@link #iterateCurrentIterationCases}. */
+    private static final int CASES_PAGE_SIZE = 100;
+
     @Autowired private PrismContext prismContext;
     @Autowired private RelationRegistry relationRegistry;
     @Autowired protected AccCertGeneralHelper helper;
@@ -64,6 +69,44 @@ public class AccCertQueryHelper {
         return repositoryService.searchContainers(AccessCertificationCaseType.class, query, options, result);
     }
 
+    /**
+     * Feeds all the cases of given campaign iteration to the handler, until it returns false. The cases are not loaded
+     * into memory at once: the native repository allows us to fetch them in pages ordered by case ID, so the handler
+     * can even modify the cases it has received. Other repositories get all the cases in a single search.
+     */
+    void iterateCurrentIterationCases(String campaignOid, int iteration, Predicate<AccessCertificationCaseType> handler,
+            OperationResult result) throws SchemaException {
+        if (!repositoryService.isNative()) {
+            for (AccessCertificationCaseType aCase : getAllCurrentIterationCases(campaignOid, iteration, null, result)) {
+                if (!handler.test(aCase)) {
+                    return;
+                }
+            }
+            return;
+        }
+        long lastId = 0;
+        for (;;) {
+            ObjectQuery query = prismContext.queryFor(AccessCertificationCaseType.class)
+                    .ownerId(campaignOid)
+                    .and().item(AccessCertificationCaseType.F_ITERATION).eq(iteration)
+                    .and().item(PrismConstants.T_ID).gt(lastId)
+                    .asc(PrismConstants.T_ID)
+                    .maxSize(CASES_PAGE_SIZE)
+                    .build();
+            List<AccessCertificationCaseType> cases =
+                    repositoryService.searchContainers(AccessCertificationCaseType.class, query, null, result);
+            for (AccessCertificationCaseType aCase : cases) {
+                if (!handler.test(aCase)) {
+                    return;
+                }
+                lastId = aCase.getId();
+            }
+            if (cases.size() < CASES_PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
     private ObjectQuery addFilter(ObjectQuery query, ObjectFilter additionalFilter) {
         ObjectQuery newQuery;
         QueryFactory queryFactory = prismContext.queryFactory();
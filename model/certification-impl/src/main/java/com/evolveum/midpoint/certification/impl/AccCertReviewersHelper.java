@@ -35,6 +35,7 @@ import org.springframework.stereotype.Component;
 
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -59,18 +60,24 @@ public class AccCertReviewersHelper {
         return stageDef.getReviewerSpecification();
     }
 
+    /**
+     * Determines reviewers for given case.
+     *
+     * @param cache Cache of reviewers shared by cases processed in the same operation (e.g. stage opening), if any.
+     */
     List<ObjectReferenceType> getReviewersForCase(AccessCertificationCaseType _case, AccessCertificationCampaignType campaign,
-            AccessCertificationReviewerSpecificationType reviewerSpec, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException {
+            AccessCertificationReviewerSpecificationType reviewerSpec, ReviewersCache cache, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException {
         if (reviewerSpec == null) {
             return Collections.emptyList();     // TODO issue a warning here?
         }
 
         List<ObjectReferenceType> reviewers = new ArrayList<>();
         if (Boolean.TRUE.equals(reviewerSpec.isUseTargetOwner())) {
-            cloneAndMerge(reviewers, getTargetObjectOwners(_case, result));
+            cloneAndMerge(reviewers, getTargetObjectOwners(_case, cache, result));
         }
         if (Boolean.TRUE.equals(reviewerSpec.isUseTargetApprover())) {
-            cloneAndMerge(reviewers, getTargetObjectApprovers(_case, result));
+            cloneAndMerge(reviewers, getTargetObjectApprovers(_case, cache, result));
         }
         if (Boolean.TRUE.equals(reviewerSpec.isUseObjectOwner())) {
             cloneAndMerge(reviewers, getObjectOwners(_case, result));
@@ -91,18 +98,18 @@ public class AccCertReviewersHelper {
                     .evaluateRefExpressionChecked(reviewerExpression, variables, "reviewer expression", task, result);
             cloneAndMerge(reviewers, refList);
         }
-        resolveRoleReviewers(reviewers, result);
+        resolveRoleReviewers(reviewers, cache, result);
         if (reviewers.isEmpty()) {
             cloneAndMerge(reviewers, reviewerSpec.getDefaultReviewerRef());
         }
         cloneAndMerge(reviewers, reviewerSpec.getAdditionalReviewerRef());
-        resolveRoleReviewers(reviewers, result);
+        resolveRoleReviewers(reviewers, cache, result);
 
         return reviewers;
     }
 
-    private void resolveRoleReviewers(List<ObjectReferenceType> reviewers, OperationResult result)
-            throws SchemaException {
+    private void resolveRoleReviewers(List<ObjectReferenceType> reviewers, ReviewersCache cache, OperationResult result)
+            throws SchemaException, ObjectNotFoundException {
         List<ObjectReferenceType> resolved = new ArrayList<>();
         for (Iterator<ObjectReferenceType> iterator = reviewers.iterator(); iterator.hasNext(); ) {
             ObjectReferenceType reviewer = iterator.next();
@@ -110,12 +117,12 @@ public class AccCertReviewersHelper {
                     QNameUtil.match(reviewer.getType(), OrgType.COMPLEX_TYPE) ||
                     QNameUtil.match(reviewer.getType(), ServiceType.COMPLEX_TYPE)) {
                 iterator.remove();
-                resolved.addAll(getMembers(reviewer, result));
+                resolved.addAll(getCached(cache, "members:" + reviewer.getOid(), () -> getMembers(reviewer, result)));
             }
         }
         for (ObjectReferenceType ref : resolved) {
             if (!containsOid(reviewers, ref.getOid())) {
-                reviewers.add(ref);
+                reviewers.add(ref.clone());
             }
         }
     }
@@ -190,11 +197,16 @@ public class AccCertReviewersHelper {
         }
     }
 
-    private List<ObjectReferenceType> getTargetObjectOwners(AccessCertificationCaseType _case, OperationResult result)
-            throws SchemaException, ObjectNotFoundException {
+    private Collection<ObjectReferenceType> getTargetObjectOwners(AccessCertificationCaseType _case, ReviewersCache cache,
+            OperationResult result) throws SchemaException, ObjectNotFoundException {
         if (_case.getTargetRef() == null) {
             return null;
         }
+        return getCached(cache, "targetOwners:" + _case.getTargetRef().getOid(), () -> getTargetObjectOwners(_case, result));
+    }
+
+    private List<ObjectReferenceType> getTargetObjectOwners(AccessCertificationCaseType _case, OperationResult result)
+            throws SchemaException, ObjectNotFoundException {
         ObjectType target = resolveReference(_case.getTargetRef(), ObjectType.class, result);
         if (target instanceof AbstractRoleType) {
             return getAssignees((AbstractRoleType) target, RelationKindType.OWNER, result);
@@ -241,10 +253,15 @@ public class AccCertReviewersHelper {
     }
 
     private Collection<ObjectReferenceType> getTargetObjectApprovers(AccessCertificationCaseType _case,
-            OperationResult result) throws SchemaException, ObjectNotFoundException {
+            ReviewersCache cache, OperationResult result) throws SchemaException, ObjectNotFoundException {
         if (_case.getTargetRef() == null) {
             return null;
         }
+        return getCached(cache, "targetApprovers:" + _case.getTargetRef().getOid(), () -> getTargetObjectApprovers(_case, result));
+    }
+
+    private Collection<ObjectReferenceType> getTargetObjectApprovers(AccessCertificationCaseType _case,
+            OperationResult result) throws SchemaException, ObjectNotFoundException {
         ObjectType target = resolveReference(_case.getTargetRef(), ObjectType.class, result);
         if (target instanceof AbstractRoleType) {
             return getAssignees((AbstractRoleType) target, RelationKindType.APPROVER, result);
@@ -284,4 +301,45 @@ public class AccCertReviewersHelper {
         PrismObject<? extends ObjectType> object = repositoryService.getObject(objectTypeClass, objectRef.getOid(), null, result);
         return object.asObjectable();
     }
+
+    private Collection<ObjectReferenceType> getCached(ReviewersCache cache, String key, ReviewersSupplier supplier)
+            throws SchemaException, ObjectNotFoundException {
+        if (cache == null) {
+            return supplier.get();
+        }
+        Collection<ObjectReferenceType> cached = cache.entries.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        Collection<ObjectReferenceType> computed = supplier.get();
+        // Concurrent computation of the same entry is harmless, so we do not lock anything here.
+        cache.put(key, computed != null ? computed : Collections.emptyList());
+        return computed;
+    }
+
+    @FunctionalInterface
+    private interface ReviewersSupplier {
+        Collection<ObjectReferenceType> get() throws SchemaException, ObjectNotFoundException;
+    }
+
+    /**
+     * Reviewers derived from case targets (their owners and approvers) and members of abstract roles acting as reviewers.
+     * These are usually shared by a lot of cases, so it is wasteful to look them up for each case again.
+     *
+     * Meant to be used within a single operation, like stage opening; values are not refreshed. Returned references
+     * must not be modified by the clients. Thread safe.
+     */
+    static class ReviewersCache {
+
+        /** The number of distinct targets is usually small, but let us not rely on that. */
+        private static final int MAX_ENTRIES = 10_000;
+
+        private final Map<String, Collection<ObjectReferenceType>> entries = new ConcurrentHashMap<>();
+
+        private void put(String key, Collection<ObjectReferenceType> value) {
+            if (entries.size() < MAX_ENTRIES) {
+                entries.put(key, value);
+            }
+        }
+    }
 }
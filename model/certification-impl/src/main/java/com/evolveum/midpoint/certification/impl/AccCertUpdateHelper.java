@@ -68,6 +68,15 @@ public class AccCertUpdateHelper {
     private static final String OPERATION_CLEANUP_CAMPAIGNS_BY_NUMBER = CLASS_DOT + "cleanupCampaignsByNumber";
     private static final String OPERATION_CLEANUP_CAMPAIGNS_BY_AGE = CLASS_DOT + "cleanupCampaignsByAge";
 
+    /**
+     * Threads processing cases when opening or closing a stage. Only for the native repository: the generic one
+     * does not cope well with concurrent modifications of the same campaign object.
+     */
+    private static final int CASE_PROCESSING_THREADS = 4;
+
+    /** Objects (or cases) processed and written at once when opening or closing a stage. */
+    private static final int CASE_PROCESSING_BUCKET_SIZE = 100;
+
     //region ================================ Triggers ================================
 
     // see also MidpointUtil.createTriggersForTimedActions (in workflow-impl)
@@ -161,6 +170,15 @@ public class AccCertUpdateHelper {
          */
     }
 
+    /**
+     * Creates a processor for objects or cases, whose handler is expected to write the changes to the campaign
+     * for each bucket by itself (using {@link #modifyCampaignPreAuthorized}).
+     */
+    <T> BucketProcessor<T> createBucketProcessor(String name, BucketProcessor.BucketHandler<T> handler, OperationResult result) {
+        int threads = repositoryService.isNative() ? CASE_PROCESSING_THREADS : 1;
+        return new BucketProcessor<>(name, threads, CASE_PROCESSING_BUCKET_SIZE, handler, securityContextManager, result);
+    }
+
     void modifyCampaignPreAuthorized(String campaignOid, ModificationsToExecute modifications, Task task, OperationResult result)
             throws ObjectAlreadyExistsException, SchemaException, ObjectNotFoundException {
         for (List<ItemDelta<?, ?>> batch : modifications.batches) {
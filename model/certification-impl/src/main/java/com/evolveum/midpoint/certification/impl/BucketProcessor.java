@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.certification.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.security.core.Authentication;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.SecurityContextManager;
+import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Processes a (potentially very large) stream of items - objects to create certification cases for,
+ * or existing cases - in buckets of limited size, using a pool of worker threads.
+ *
+ * Items are supplied by the caller, typically from an iterative search, and handed over to the workers bucket
+ * by bucket. Each bucket is processed independently, including writing its results into the repository,
+ * so nothing is accumulated in memory: when there are too many buckets waiting, the caller is blocked.
+ *
+ * Worker threads run under the security context of the caller. Each bucket gets its own operation result,
+ * as these are not thread safe; the unsuccessful ones are attached to the caller's result at the end.
+ * The processing stops at the first bucket that fails.
+ *
+ * If only one thread is requested, buckets are processed directly by the caller.
+ *
+ * Not thread safe itself: items must be supplied from a single thread.
+ */
+class BucketProcessor<T> {
+
+    private static final Trace LOGGER = TraceManager.getTrace(BucketProcessor.class);
+
+    private static final String OP_PROCESS_BUCKET = BucketProcessor.class.getName() + ".processBucket";
+
+    /** How many buckets can wait for a worker (per thread). */
+    private static final int QUEUED_BUCKETS_PER_THREAD = 2;
+
+    /** At most this number of bucket results are attached to the caller's result. */
+    private static final int MAX_REPORTED_RESULTS = 20;
+
+    @FunctionalInterface
+    interface BucketHandler<T> {
+        void process(@NotNull List<T> bucket, @NotNull OperationResult result) throws CommonException;
+    }
+
+    @NotNull private final String name;
+    private final int bucketSize;
+    @NotNull private final BucketHandler<T> handler;
+    @NotNull private final OperationResult parentResult;
+
+    /** Null if buckets are processed by the caller. */
+    @Nullable private final ExecutorService executor;
+
+    /** Limits the number of buckets submitted but not processed yet. */
+    @Nullable private final Semaphore freeSlots;
+
+    @NotNull private final SecurityContextManager securityContextManager;
+    @Nullable private final Authentication authentication;
+
+    @NotNull private List<T> currentBucket;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final ConcurrentLinkedQueue<OperationResult> resultsToReport = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger resultsNotReported = new AtomicInteger();
+
+    BucketProcessor(@NotNull String name, int threads, int bucketSize, @NotNull BucketHandler<T> handler,
+            @NotNull SecurityContextManager securityContextManager, @NotNull OperationResult parentResult) {
+        this.name = name;
+        this.bucketSize = bucketSize;
+        this.handler = handler;
+        this.parentResult = parentResult;
+        this.securityContextManager = securityContextManager;
+        this.authentication = securityContextManager.getAuthentication();
+        this.currentBucket = new ArrayList<>(bucketSize);
+        if (threads > 1) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            freeSlots = new Semaphore(threads * (1 + QUEUED_BUCKETS_PER_THREAD));
+        } else {
+            executor = null;
+            freeSlots = null;
+        }
+    }
+
+    /**
+     * Adds an item for processing.
+     *
+     * @return false if the processing failed, so no more items should be supplied
+     * (the failure is reported by {@link #finish()})
+     */
+    boolean add(@NotNull T item) {
+        if (failure.get() != null) {
+            return false;
+        }
+        currentBucket.add(item);
+        if (currentBucket.size() >= bucketSize) {
+            submitCurrentBucket();
+        }
+        return failure.get() == null;
+    }
+
+    /**
+     * Processes the remaining items and waits for all the buckets to be processed.
+     * Re-throws the exception that stopped the processing, if there was any.
+     */
+    void finish() throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        try {
+            if (!currentBucket.isEmpty() && failure.get() == null) {
+                submitCurrentBucket();
+            }
+            if (executor != null) {
+                executor.shutdown();
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOGGER.debug("Waiting for workers of {} to finish", name);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            resultsToReport.forEach(parentResult::addSubresult);
+            if (resultsNotReported.get() > 0) {
+                LOGGER.warn("{} more bucket(s) of {} were not processed successfully; see the log for details",
+                        resultsNotReported.get(), name);
+            }
+        }
+        throwFailureIfAny();
+    }
+
+    /** Stops the processing without waiting for the buckets in progress, e.g. when the caller has failed. */
+    void abort() {
+        failure.compareAndSet(null, new IllegalStateException("Processing of " + name + " was aborted"));
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void throwFailureIfAny() throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        } else if (t instanceof SchemaException) {
+            throw (SchemaException) t;
+        } else if (t instanceof ObjectNotFoundException) {
+            throw (ObjectNotFoundException) t;
+        } else if (t instanceof ObjectAlreadyExistsException) {
+            throw (ObjectAlreadyExistsException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else {
+            throw new SystemException("Couldn't process " + name + ": " + t.getMessage(), t);
+        }
+    }
+
+    private void submitCurrentBucket() {
+        List<T> bucket = currentBucket;
+        currentBucket = new ArrayList<>(bucketSize);
+        if (executor == null) {
+            processBucket(bucket);
+            return;
+        }
+        assert freeSlots != null;
+        try {
+            freeSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    // The threads are private to this processor, so there is no need to clean the context up.
+                    securityContextManager.setupPreAuthenticatedSecurityContext(authentication);
+                    processBucket(bucket);
+                } finally {
+                    freeSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            freeSlots.release();
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private void processBucket(List<T> bucket) {
+        if (failure.get() != null) {
+            LOGGER.trace("Skipping bucket of {} item(s) in {} because the processing has already failed", bucket.size(), name);
+            return;
+        }
+        OperationResult result = new OperationResult(OP_PROCESS_BUCKET);
+        result.addParam("name", name);
+        result.addParam("size", bucket.size());
+        try {
+            handler.process(bucket, result);
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            failure.compareAndSet(null, t);
+        } finally {
+            result.computeStatusIfUnknown();
+            if (!result.isSuccess()) {
+                if (resultsToReport.size() < MAX_REPORTED_RESULTS) {
+                    resultsToReport.add(result);
+                } else {
+                    resultsNotReported.incrementAndGet();
+                    LOGGER.debug("Result of a bucket of {} that is not reported:\n{}", name, result.debugDumpLazily());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.certification.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.impl.SecurityContextManagerImpl;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Tests {@link BucketProcessor} in isolation: distribution of items into buckets, processing by worker threads
+ * under the caller's security context, and stopping at the first failed bucket.
+ */
+public class TestBucketProcessor extends AbstractUnitTest {
+
+    private static final String OP_TEST = TestBucketProcessor.class.getName() + ".test";
+    private static final int BUCKET_SIZE = 10;
+
+    private final SecurityContextManagerImpl securityContextManager = new SecurityContextManagerImpl();
+    private Authentication authentication;
+
+    @BeforeMethod
+    public void login() {
+        authentication = new UsernamePasswordAuthenticationToken("administrator", null);
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+    }
+
+    @AfterMethod
+    public void logout() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void test100MultipleThreads() throws Exception {
+        given("processor with 4 threads");
+        OperationResult result = new OperationResult(OP_TEST);
+        Collection<Integer> processed = new ConcurrentLinkedQueue<>();
+        Collection<Integer> bucketSizes = new ConcurrentLinkedQueue<>();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        Set<Object> authentications = ConcurrentHashMap.newKeySet();
+        BucketProcessor<Integer> processor = new BucketProcessor<>("test", 4, BUCKET_SIZE,
+                (bucket, bucketResult) -> {
+                    threads.add(Thread.currentThread());
+                    authentications.add(Objects.requireNonNull(securityContextManager.getAuthentication()));
+                    bucketSizes.add(bucket.size());
+                    processed.addAll(bucket);
+                    sleep(20);
+                },
+                securityContextManager, result);
+
+        when("95 items are processed");
+        for (int i = 0; i < 95; i++) {
+            assertThat(processor.add(i)).as("add result").isTrue();
+        }
+        processor.finish();
+
+        then("each item is processed exactly once, in buckets of expected sizes");
+        assertThat(processed).containsExactlyInAnyOrderElementsOf(range(95));
+        assertThat(bucketSizes).containsExactlyInAnyOrder(10, 10, 10, 10, 10, 10, 10, 10, 10, 5);
+
+        and("buckets are processed by worker threads, under the caller's authentication");
+        assertThat(threads).doesNotContain(Thread.currentThread());
+        assertThat(threads.size()).isGreaterThan(1);
+        assertThat(authentications).containsExactly(authentication);
+
+        and("no bucket results are reported");
+        result.computeStatus();
+        assertThat(result.isSuccess()).isTrue();
+        assertThat(result.getSubresults()).isEmpty();
+    }
+
+    @Test
+    public void test110SingleThread() throws Exception {
+        given("processor with a single thread");
+        OperationResult result = new OperationResult(OP_TEST);
+        List<Integer> processed = new ArrayList<>();
+        Set<Thread> threads = new HashSet<>();
+        BucketProcessor<Integer> processor = new BucketProcessor<>("test", 1, BUCKET_SIZE,
+                (bucket, bucketResult) -> {
+                    threads.add(Thread.currentThread());
+                    processed.addAll(bucket);
+                },
+                securityContextManager, result);
+
+        when("25 items are processed");
+        for (int i = 0; i < 25; i++) {
+            processor.add(i);
+        }
+
+        then("full buckets are processed by the caller immediately");
+        assertThat(processed).containsExactlyElementsOf(range(20));
+
+        when("processing is finished");
+        processor.finish();
+
+        then("the rest is processed as well");
+        assertThat(processed).containsExactlyElementsOf(range(25));
+        assertThat(threads).containsExactly(Thread.currentThread());
+    }
+
+    @Test
+    public void test200StopAtFailedBucket() {
+        given("processor with 4 threads, failing on the first bucket");
+        OperationResult result = new OperationResult(OP_TEST);
+        Collection<Integer> processed = new ConcurrentLinkedQueue<>();
+        BucketProcessor<Integer> processor = new BucketProcessor<>("test", 4, BUCKET_SIZE,
+                (bucket, bucketResult) -> {
+                    if (bucket.contains(0)) {
+                        throw new SchemaException("Failing on purpose");
+                    }
+                    processed.addAll(bucket);
+                    sleep(20);
+                },
+                securityContextManager, result);
+
+        when("items are supplied until the processor refuses them");
+        int supplied = 0;
+        while (supplied < 10_000 && processor.add(supplied)) {
+            supplied++;
+            if (supplied % BUCKET_SIZE == 0) {
+                sleep(1);
+            }
+        }
+
+        then("supplying is stopped long before the end");
+        assertThat(supplied).isLessThan(10_000);
+
+        and("finishing re-throws the exception");
+        assertThatThrownBy(processor::finish)
+                .isInstanceOf(SchemaException.class)
+                .hasMessage("Failing on purpose");
+
+        and("failed bucket is reported and not processed");
+        assertThat(processed).doesNotContain(0);
+        assertThat(processed.size()).isLessThan(supplied);
+        assertThat(result.getSubresults()).hasSize(1);
+        assertThat(result.getSubresults().get(0).isFatalError()).isTrue();
+    }
+
+    @Test
+    public void test210StopAtFailedBucketSingleThread() {
+        given("processor with a single thread, failing on the second bucket");
+        OperationResult result = new OperationResult(OP_TEST);
+        List<Integer> processed = new ArrayList<>();
+        BucketProcessor<Integer> processor = new BucketProcessor<>("test", 1, BUCKET_SIZE,
+                (bucket, bucketResult) -> {
+                    if (bucket.contains(BUCKET_SIZE)) {
+                        throw new IllegalStateException("Failing on purpose");
+                    }
+                    processed.addAll(bucket);
+                },
+                securityContextManager, result);
+
+        when("items are supplied until the processor refuses them");
+        int supplied = 0;
+        while (supplied < 100 && processor.add(supplied)) {
+            supplied++;
+        }
+
+        then("the processor refuses the item that completed the failed bucket");
+        assertThat(supplied).isEqualTo(2 * BUCKET_SIZE - 1);
+        assertThat(processor.add(1000)).isFalse();
+
+        and("finishing re-throws the exception, only the first bucket is processed");
+        assertThatThrownBy(processor::finish)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Failing on purpose");
+        assertThat(processed).containsExactlyElementsOf(range(BUCKET_SIZE));
+        assertThat(result.getSubresults()).hasSize(1);
+    }
+
+    @Test
+    public void test300Abort() {
+        given("processor with 4 threads");
+        OperationResult result = new OperationResult(OP_TEST);
+        Collection<Integer> processed = new ConcurrentLinkedQueue<>();
+        BucketProcessor<Integer> processor = new BucketProcessor<>("test", 4, BUCKET_SIZE,
+                (bucket, bucketResult) -> processed.addAll(bucket),
+                securityContextManager, result);
+
+        when("processing is aborted");
+        processor.add(1);
+        processor.abort();
+
+        then("no more items are accepted and finishing reports the abort");
+        assertThat(processor.add(2)).isFalse();
+        assertThatThrownBy(processor::finish)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("aborted");
+        assertThat(processed).isEmpty();
+    }
+
+    private List<Integer> range(int count) {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.certification.test;
+
+import static org.testng.AssertJUnit.*;
+
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignStateType.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Tests opening and closing stages of a campaign that has more cases than fit into a single bucket,
+ * so they are created, advanced and closed bucket by bucket (by multiple threads on the native repository).
+ * Also checks that the processing stops when a bucket fails.
+ */
+@ContextConfiguration(locations = { "classpath:ctx-certification-test-main.xml" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class TestCertificationBuckets extends AbstractCertificationTest {
+
+    private static final File TEST_DIR = new File("src/test/resources/buckets");
+
+    private static final File ROLE_BUCKET_FILE = new File(TEST_DIR, "role-bucket.xml");
+    private static final String ROLE_BUCKET_OID = "f4d46c4c-4f4e-4b0c-9c1e-1a0a7c5b0001";
+
+    private static final File CERT_DEF_BUCKETS_FILE = new File(TEST_DIR, "certification-buckets.xml");
+    private static final File CERT_DEF_BUCKETS_FAILING_FILE = new File(TEST_DIR, "certification-buckets-failing.xml");
+
+    /** Lower than OIDs of all the other users in scope (except for administrator), so it is in the first bucket. */
+    private static final String USER_FAIL_OID = "00000000-0000-0000-0000-0000000b0001";
+    private static final String USER_FAIL_NAME = "bucket-user-fail";
+
+    /** Two and half buckets (of 100 cases). */
+    private static final int USERS = 250;
+
+    private AccessCertificationDefinitionType certificationDefinition;
+    private String campaignOid;
+
+    @Override
+    public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+        super.initSystem(initTask, initResult);
+
+        repoAddObjectFromFile(ROLE_BUCKET_FILE, RoleType.class, initResult);
+        for (int i = 0; i < USERS; i++) {
+            repoAddObject(createUserWithBucketRole(String.format("bucket-user-%04d", i)).asPrismObject(), initResult);
+        }
+        certificationDefinition = repoAddObjectFromFile(CERT_DEF_BUCKETS_FILE,
+                AccessCertificationDefinitionType.class, initResult).asObjectable();
+
+        displayValue("Native repository (cases processed by multiple threads)", repositoryService.isNative());
+    }
+
+    @Test
+    public void test100OpenFirstStage() throws Exception {
+        // GIVEN
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        AccessCertificationCampaignType campaign =
+                certificationManager.createCampaign(certificationDefinition.getOid(), task, result);
+        campaignOid = campaign.getOid();
+
+        // WHEN
+        when();
+        certificationManager.openNextStage(campaignOid, task, result);
+
+        // THEN
+        then();
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        campaign = getCampaignWithCases(campaignOid);
+        assertSanityAfterCampaignStart(campaign, certificationDefinition, USERS);
+        assertCases(campaign, 1, 1, 1);
+    }
+
+    @Test
+    public void test110CloseFirstStage() throws Exception {
+        // GIVEN
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        // WHEN
+        when();
+        certificationManager.closeCurrentStage(campaignOid, task, result);
+
+        // THEN
+        then();
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+        assertStateAndStage(campaign, REVIEW_STAGE_DONE, 1);
+        assertCases(campaign, 1, 1, 0);
+    }
+
+    @Test
+    public void test120OpenSecondStage() throws Exception {
+        // GIVEN
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        // WHEN
+        when();
+        certificationManager.openNextStage(campaignOid, task, result);
+
+        // THEN
+        then();
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+        assertSanityAfterStageOpen(campaign, certificationDefinition, 2);
+        assertCases(campaign, 2, 2, 1);
+    }
+
+    @Test
+    public void test130CloseSecondStage() throws Exception {
+        // GIVEN
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        // WHEN
+        when();
+        certificationManager.closeCurrentStage(campaignOid, task, result);
+
+        // THEN
+        then();
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+        assertStateAndStage(campaign, REVIEW_STAGE_DONE, 2);
+        assertCases(campaign, 2, 2, 0);
+    }
+
+    @Test
+    public void test200FailingBucketStopsOpening() throws Exception {
+        // GIVEN
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        UserType failingUser = createUserWithBucketRole(USER_FAIL_NAME);
+        failingUser.setOid(USER_FAIL_OID);
+        repoAddObject(failingUser.asPrismObject(), result);
+
+        AccessCertificationDefinitionType failingDefinition = repoAddObjectFromFile(CERT_DEF_BUCKETS_FAILING_FILE,
+                AccessCertificationDefinitionType.class, result).asObjectable();
+        String failingCampaignOid =
+                certificationManager.createCampaign(failingDefinition.getOid(), task, result).getOid();
+
+        // WHEN
+        when();
+        try {
+            certificationManager.openNextStage(failingCampaignOid, task, result);
+            fail("unexpected success");
+        } catch (SystemException e) {
+            System.out.println("Got expected exception: " + e.getMessage());
+            assertTrue("Failing user not mentioned in the exception: " + e.getMessage(),
+                    e.getMessage().contains(USER_FAIL_NAME));
+        }
+
+        // THEN
+        then();
+        AccessCertificationCampaignType campaign = getCampaignWithCases(failingCampaignOid);
+        display("campaign", campaign);
+        assertStateAndStage(campaign, CREATED, 0);
+        int cases = campaign.getCase().size();
+        if (repositoryService.isNative()) {
+            // Other buckets might have been processed concurrently; but not the failed one.
+            assertTrue("Expected less than " + (USERS + 1) + " cases, got " + cases, cases < USERS + 1);
+        } else {
+            assertEquals("Expected no cases, as the first bucket failed", 0, cases);
+        }
+    }
+
+    private UserType createUserWithBucketRole(String name) {
+        return new UserType(prismContext)
+                .name(name)
+                .assignment(new AssignmentType(prismContext)
+                        .targetRef(ROLE_BUCKET_OID, RoleType.COMPLEX_TYPE));
+    }
+
+    /** Checks that all cases are in given stage, with expected number of all and open work items. */
+    private void assertCases(AccessCertificationCampaignType campaign, int stageNumber, int workItems,
+            int openWorkItems) {
+        List<AccessCertificationCaseType> cases = campaign.getCase();
+        assertEquals("Wrong # of cases", USERS, cases.size());
+        for (AccessCertificationCaseType aCase : cases) {
+            assertEquals("Wrong target of " + aCase, ROLE_BUCKET_OID, aCase.getTargetRef().getOid());
+            assertEquals("Wrong stage number of " + aCase, stageNumber, aCase.getStageNumber());
+            assertEquals("Wrong # of work items in " + aCase, workItems, aCase.getWorkItem().size());
+            long open = aCase.getWorkItem().stream()
+                    .filter(wi -> wi.getCloseTimestamp() == null)
+                    .count();
+            assertEquals("Wrong # of open work items in " + aCase, openWorkItems, open);
+            for (AccessCertificationWorkItemType workItem : aCase.getWorkItem()) {
+                assertEquals("Wrong assignee of " + workItem, USER_ADMINISTRATOR_OID,
+                        workItem.getAssigneeRef().get(0).getOid());
+            }
+        }
+    }
+}
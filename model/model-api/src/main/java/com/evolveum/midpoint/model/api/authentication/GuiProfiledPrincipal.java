@@ -51,6 +51,17 @@ public class GuiProfiledPrincipal extends MidPointPrincipal {
         return clone;
     }
 
+    /**
+     * Semi-shallow clone for another instance (typically a newer one) of the same focus object.
+     * The compiled values (authorizations, delegations, security policy, GUI profile) are taken
+     * from this principal, so the caller is responsible for them to be still valid for the focus.
+     */
+    public GuiProfiledPrincipal cloneWithFocus(@NotNull FocusType focus) {
+        GuiProfiledPrincipal clone = new GuiProfiledPrincipal(focus);
+        copyValues(clone);
+        return clone;
+    }
+
     protected void copyValues(GuiProfiledPrincipal clone) {
         super.copyValues(clone);
         // No need to clone user profile here. It is essentially read-only.
@@ -6,6 +6,13 @@ package com.evolveum.midpoint.model.api.util;
 public class ClusterServiceConsts {
 
     public static final String EVENT_INVALIDATION = "/event/invalidation/";
+    public static final String EVENT_INVALIDATION_BATCH = "/event/invalidationBatch";
+
+    /**
+     * Entry of {@link #EVENT_INVALIDATION_BATCH} body (one per line) meaning "invalidate everything".
+     * Other entries are in the form of "type" or "type/oid", with REST type names, like for {@link #EVENT_INVALIDATION}.
+     */
+    public static final String INVALIDATION_BATCH_ALL = "*";
     public static final String EVENT_TERMINATE_SESSION = "/event/terminateSession/";
     public static final String EVENT_LIST_USER_SESSION = "/event/listUserSession";
 }
@@ -28,6 +28,7 @@ import com.evolveum.midpoint.schema.util.ExceptionUtil;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
 
 /**
  * Expression evaluator that is using javax.script (JSR-223) engine.
@@ -155,20 +156,21 @@ public abstract class AbstractCachingScriptEvaluator<I, C> extends AbstractScrip
     }
 
     private C getCompiledScript(String codeString, ScriptExpressionEvaluationContext context) throws ExpressionEvaluationException, SecurityViolationException {
-        C compiledScript = scriptCache.getCode(context.getExpressionProfile(), codeString);
-        if (compiledScript != null) {
-            return compiledScript;
-        }
-        InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
-        try {
-            compiledScript = compileScript(codeString, context);
-        } catch (ExpressionEvaluationException | SecurityViolationException e) {
-            throw e;
-        } catch (Exception e) {
-            throw new ExpressionEvaluationException(e.getMessage() + " while compiling " + context.getContextDescription(), e);
-        }
-        scriptCache.putCode(context.getExpressionProfile(), codeString, compiledScript);
-        return compiledScript;
+        return scriptCache.getOrCompile(context.getExpressionProfile(), codeString, () -> {
+            InternalMonitor.recordCount(InternalCounters.SCRIPT_COMPILE_COUNT);
+            try {
+                return compileScript(codeString, context);
+            } catch (ExpressionEvaluationException | SecurityViolationException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new ExpressionEvaluationException(e.getMessage() + " while compiling " + context.getContextDescription(), e);
+            }
+        });
+    }
+
+    /** Compiled script cache state, see {@link ScriptCache#getStateInformation(PrismContext, String)}. */
+    public SingleCacheStateInformationType getScriptCacheStateInformation() {
+        return scriptCache.getStateInformation(getPrismContext(), getClass().getName() + ".scriptCache");
     }
 
     protected abstract C compileScript(String codeString, ScriptExpressionEvaluationContext context) throws Exception;
@@ -6,59 +6,207 @@
  */
 package com.evolveum.midpoint.model.common.expression.script;
 
-import java.util.HashMap;
+import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLevel.PER_CACHE;
+
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.jetbrains.annotations.NotNull;
 
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.schema.expression.ExpressionProfile;
+import com.evolveum.midpoint.util.caching.CachePerformanceCollector;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
 
 /**
  * Cache for compiled scripts and interpreters, aware of expression profiles.
  *
+ * Compiled code is kept in a bounded cache, the weight of the entry is the length of the source code
+ * (plus a constant for the compiled class overhead).
+ * The code is compiled only once for each (profile, source) key: concurrent requests for the same
+ * new script wait for the first one to compile it.
+ *
+ * Hits and misses are reported to {@link CachePerformanceCollector}, compilation count and time
+ * are available as {@link #getStateInformation(PrismContext, String)}.
+ *
  * @param <C> compiled code
  * @author Radovan Semancik
  */
-public class ScriptCache<I,C> {
+public class ScriptCache<I, C> {
+
+    /** Maximum total weight (approx. source code characters) of the compiled code cache. */
+    public static final long DEFAULT_MAX_WEIGHT = 20_000_000;
 
-    private final Map<String, I> interpreterCache = new HashMap<>();
-    private final Map<String, Map<String, C>> codeCache = new HashMap<>();
+    /** Weight added to each entry, so a lot of tiny scripts are also limited. */
+    private static final int ENTRY_WEIGHT_OVERHEAD = 2_000;
 
-    public synchronized I getInterpreter(ExpressionProfile profile) {
+    /** Profile key used for null expression profile (concurrent maps do not support null keys). */
+    private static final String NO_PROFILE_KEY = "";
+
+    private final Map<String, I> interpreterCache = new ConcurrentHashMap<>();
+    private final Cache<CodeKey, C> codeCache;
+
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong compilationTimeNanos = new AtomicLong();
+
+    public ScriptCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    public ScriptCache(long maxWeight) {
+        codeCache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .<CodeKey, C>weigher((key, code) -> key.sourceCode.length() + ENTRY_WEIGHT_OVERHEAD)
+                .build();
+    }
+
+    public I getInterpreter(ExpressionProfile profile) {
         return interpreterCache.get(getProfileKey(profile));
     }
 
-    public synchronized void putInterpreter(ExpressionProfile profile, I interpreter) {
+    public void putInterpreter(ExpressionProfile profile, I interpreter) {
         interpreterCache.put(getProfileKey(profile), interpreter);
     }
 
-    public synchronized C getCode(ExpressionProfile profile, String sourceCodeKey) {
-        String profileKey = getProfileKey(profile);
-        Map<String, C> profileCache = codeCache.get(profileKey);
-        if (profileCache == null) {
-            return null;
-        }
-        return profileCache.get(sourceCodeKey);
+    public C getCode(ExpressionProfile profile, String sourceCodeKey) {
+        return codeCache.getIfPresent(new CodeKey(getProfileKey(profile), sourceCodeKey));
     }
 
-    public synchronized void putCode(ExpressionProfile profile, String sourceCodeKey, C compiledCode) {
-        String profileKey = getProfileKey(profile);
-        Map<String, C> profileCache = codeCache.get(profileKey);
-        if (profileCache == null) {
-            profileCache = new HashMap<>();
-            codeCache.put(profileKey, profileCache);
+    public void putCode(ExpressionProfile profile, String sourceCodeKey, C compiledCode) {
+        codeCache.put(new CodeKey(getProfileKey(profile), sourceCodeKey), compiledCode);
+    }
+
+    /**
+     * Returns compiled code from the cache, or compiles it using the compiler.
+     * Concurrent calls for the same key wait for a single compilation.
+     * Exceptions thrown by the compiler are propagated to all waiting callers and nothing is cached.
+     */
+    public C getOrCompile(ExpressionProfile profile, String sourceCode, @NotNull Compiler<C> compiler)
+            throws ExpressionEvaluationException, SecurityViolationException {
+        CodeKey key = new CodeKey(getProfileKey(profile), sourceCode);
+        C cached = codeCache.getIfPresent(key);
+        if (cached != null) {
+            CachePerformanceCollector.INSTANCE.registerHit(ScriptCache.class, ScriptExpressionEvaluatorType.class, PER_CACHE);
+            return cached;
+        }
+
+        AtomicBoolean compiledHere = new AtomicBoolean();
+        try {
+            C compiled = codeCache.get(key, () -> {
+                compiledHere.set(true);
+                long start = System.nanoTime();
+                try {
+                    return compiler.compile();
+                } finally {
+                    compilations.incrementAndGet();
+                    compilationTimeNanos.addAndGet(System.nanoTime() - start);
+                }
+            });
+            // Waiting for a compilation in another thread is a hit from the compilation point of view.
+            if (compiledHere.get()) {
+                CachePerformanceCollector.INSTANCE.registerMiss(ScriptCache.class, ScriptExpressionEvaluatorType.class, PER_CACHE);
+            } else {
+                CachePerformanceCollector.INSTANCE.registerHit(ScriptCache.class, ScriptExpressionEvaluatorType.class, PER_CACHE);
+            }
+            return compiled;
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            CachePerformanceCollector.INSTANCE.registerMiss(ScriptCache.class, ScriptExpressionEvaluatorType.class, PER_CACHE);
+            Throwable cause = e.getCause();
+            if (cause instanceof ExpressionEvaluationException) {
+                throw (ExpressionEvaluationException) cause;
+            } else if (cause instanceof SecurityViolationException) {
+                throw (SecurityViolationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new SystemException("Unexpected exception while compiling script: " + cause.getMessage(), cause);
+            }
         }
-        profileCache.put(sourceCodeKey, compiledCode);
     }
 
     private String getProfileKey(ExpressionProfile profile) {
         if (profile == null) {
-            return null;
+            return NO_PROFILE_KEY;
         } else {
             return profile.getIdentifier();
         }
     }
 
-    public synchronized void clear() {
-        codeCache.clear();
+    public void clear() {
+        codeCache.invalidateAll();
     }
 
+    public long size() {
+        return codeCache.size();
+    }
+
+    public long getCompilations() {
+        return compilations.get();
+    }
+
+    public long getCompilationTimeMillis() {
+        return compilationTimeNanos.get() / 1_000_000;
+    }
+
+    /**
+     * Size is the number of cached compiled scripts, secondary size is the number of compilations.
+     * Compilation time (ms) is provided as a component.
+     */
+    public SingleCacheStateInformationType getStateInformation(PrismContext prismContext, String name) {
+        SingleCacheStateInformationType info = new SingleCacheStateInformationType(prismContext)
+                .name(name)
+                .size((int) size())
+                .secondarySize((int) Math.min(getCompilations(), Integer.MAX_VALUE));
+        info.beginComponent()
+                .name("compilationTimeMs")
+                .size((int) Math.min(getCompilationTimeMillis(), Integer.MAX_VALUE));
+        return info;
+    }
+
+    /** Compiles the code, called at most once for concurrent requests for the same script. */
+    @FunctionalInterface
+    public interface Compiler<C> {
+        C compile() throws ExpressionEvaluationException, SecurityViolationException;
+    }
+
+    private static class CodeKey {
+        @NotNull private final String profileKey;
+        @NotNull private final String sourceCode;
+
+        private CodeKey(@NotNull String profileKey, @NotNull String sourceCode) {
+            this.profileKey = profileKey;
+            this.sourceCode = sourceCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CodeKey)) {
+                return false;
+            }
+            CodeKey codeKey = (CodeKey) o;
+            return profileKey.equals(codeKey.profileKey) && sourceCode.equals(codeKey.sourceCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(profileKey, sourceCode);
+        }
+    }
 }
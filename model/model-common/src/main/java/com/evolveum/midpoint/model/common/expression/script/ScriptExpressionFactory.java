@@ -235,9 +235,17 @@ public class ScriptExpressionFactory implements Cache {
     @NotNull
     @Override
     public Collection<SingleCacheStateInformationType> getStateInformation() {
-        return Collections.singleton(new SingleCacheStateInformationType(prismContext)
+        List<SingleCacheStateInformationType> rv = new ArrayList<>();
+        rv.add(new SingleCacheStateInformationType(prismContext)
                 .name(ScriptExpressionFactory.class.getName())
                 .size(customFunctionLibraryCache.size()));
+        // one evaluator can be registered for more languages
+        for (ScriptEvaluator evaluator : new HashSet<>(evaluatorMap.values())) {
+            if (evaluator instanceof AbstractCachingScriptEvaluator) {
+                rv.add(((AbstractCachingScriptEvaluator<?, ?>) evaluator).getScriptCacheStateInformation());
+            }
+        }
+        return rv;
     }
 
     @Override
@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.common.expression.script.groovy;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+
+import groovy.lang.GroovySystem;
+import org.apache.commons.configuration2.Configuration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.schema.expression.ExpressionPermissionProfile;
+import com.evolveum.midpoint.schema.expression.ScriptExpressionProfile;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionPermissionClassProfileType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionPermissionMethodProfileType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ExpressionPermissionPackageProfileType;
+
+/**
+ * Optional on-disk store of compiled Groovy script classes, so the scripts need not be compiled
+ * again after the node restart.
+ *
+ * Each script is stored as a bundle of all classes generated for it (script class and its closures).
+ * The file name is a hash of the script source and the fingerprint of the script expression profile,
+ * so any change of the sandbox/type checking configuration leads to a different file and the script
+ * is compiled again with the new configuration.
+ * Bundles are stored in a sub-directory named by a hash of midPoint, Groovy and Java versions;
+ * sub-directories for other versions are deleted on initialization.
+ *
+ * Nothing is read at startup, bundles are read lazily when the script is first needed.
+ * Unreadable bundles are deleted and the script is compiled as usual.
+ *
+ * Configured in `config.xml`, e.g.:
+ *
+ * ----
+ * <groovy>
+ *     <compiledScriptCache>
+ *         <enabled>true</enabled>
+ *         <directory>/opt/midpoint/var/groovy-cache</directory> <!-- default: ${midpoint.home}/groovy-cache -->
+ *     </compiledScriptCache>
+ * </groovy>
+ * ----
+ */
+public class GroovyCompiledScriptStore {
+
+    private static final Trace LOGGER = TraceManager.getTrace(GroovyCompiledScriptStore.class);
+
+    private static final String KEY_ENABLED = "compiledScriptCache.enabled";
+    private static final String KEY_DIRECTORY = "compiledScriptCache.directory";
+    private static final String DEFAULT_DIRECTORY_NAME = "groovy-cache";
+
+    /** Change when the bundle format or the key computation changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String BUNDLE_SUFFIX = ".bundle";
+    private static final String SCRIPT_CLASS_NAME_PREFIX = "MidPointScript_";
+    private static final Pattern VERSION_DIRECTORY_PATTERN = Pattern.compile("[0-9a-f]{16}");
+
+    private MidpointConfiguration midpointConfiguration;
+
+    private Path directory;
+
+    private final AtomicLong loaded = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public GroovyCompiledScriptStore() {
+    }
+
+    /** For tests and programmatic use, enabled store in specified root directory. */
+    public GroovyCompiledScriptStore(@NotNull Path rootDirectory) {
+        initialize(rootDirectory);
+    }
+
+    public void setMidpointConfiguration(MidpointConfiguration midpointConfiguration) {
+        this.midpointConfiguration = midpointConfiguration;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (midpointConfiguration == null) {
+            return;
+        }
+        Configuration c = midpointConfiguration.getConfiguration(MidpointConfiguration.GROOVY_CONFIGURATION);
+        if (!c.getBoolean(KEY_ENABLED, false)) {
+            LOGGER.debug("Persistent cache of compiled Groovy scripts is disabled");
+            return;
+        }
+        String configuredDirectory = c.getString(KEY_DIRECTORY, null);
+        Path rootDirectory = configuredDirectory != null
+                ? Paths.get(configuredDirectory)
+                : Paths.get(midpointConfiguration.getMidpointHome(), DEFAULT_DIRECTORY_NAME);
+        initialize(rootDirectory);
+    }
+
+    private void initialize(Path rootDirectory) {
+        Path versionDirectory = rootDirectory.resolve(computeEnvironmentHash());
+        try {
+            Files.createDirectories(versionDirectory);
+            deleteOtherVersions(rootDirectory, versionDirectory);
+            directory = versionDirectory;
+            LOGGER.info("Persistent cache of compiled Groovy scripts is enabled, directory: {}", directory);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Couldn't initialize persistent cache of compiled Groovy scripts in {}, it will be disabled: {}",
+                    rootDirectory, e.getMessage(), e);
+        }
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Returns class name to be used for the script with given key. It must be deterministic,
+     * because it is stored in the bundle.
+     */
+    @NotNull String getScriptClassName(@NotNull String key) {
+        return SCRIPT_CLASS_NAME_PREFIX + key.substring(0, 32);
+    }
+
+    /** Returns the key of the script, it reflects the source and all settings that influence the compilation. */
+    @NotNull String computeKey(@NotNull String source, @Nullable ScriptExpressionProfile profile) {
+        return sha256(profileFingerprint(profile) + "\n" + source);
+    }
+
+    /** Returns stored classes of the script or null if there are none (or they are not readable). */
+    @Nullable CompiledScriptBundle load(@NotNull String key) {
+        Path file = getFile(key);
+        if (!Files.isRegularFile(file)) {
+            missing.incrementAndGet();
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            CompiledScriptBundle bundle = CompiledScriptBundle.read(in);
+            loaded.incrementAndGet();
+            LOGGER.trace("Loaded compiled script {} from {}", bundle.getScriptClassName(), file);
+            return bundle;
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.warn("Couldn't read compiled script from {}, deleting it and compiling the script again: {}",
+                    file, e.getMessage(), e);
+            deleteQuietly(file);
+            return null;
+        }
+    }
+
+    /** Stores the classes. Any problems are only logged, the script is usable anyway. */
+    void store(@NotNull String key, @NotNull CompiledScriptBundle bundle) {
+        Path file = getFile(key);
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                bundle.write(out);
+            }
+            // Concurrent stores of the same script by more nodes write the same content, so the last one wins.
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stored.incrementAndGet();
+            LOGGER.trace("Stored compiled script {} to {}", bundle.getScriptClassName(), file);
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            LOGGER.warn("Couldn't store compiled script to {}: {}", file, e.getMessage(), e);
+            if (tempFile != null) {
+                deleteQuietly(tempFile);
+            }
+        }
+    }
+
+    private Path getFile(String key) {
+        return directory.resolve(key + BUNDLE_SUFFIX);
+    }
+
+    private void deleteOtherVersions(Path rootDirectory, Path versionDirectory) throws IOException {
+        try (Stream<Path> children = Files.list(rootDirectory)) {
+            // Only our version directories are deleted, in case the cache root is shared with something else.
+            children.filter(child -> !child.equals(versionDirectory) && Files.isDirectory(child)
+                            && VERSION_DIRECTORY_PATTERN.matcher(child.getFileName().toString()).matches())
+                    .forEach(child -> {
+                        LOGGER.info("Deleting compiled Groovy scripts for different midPoint/Groovy version: {}", child);
+                        deleteRecursively(child);
+                    });
+        }
+    }
+
+    private void deleteRecursively(Path path) {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .forEach(this::deleteQuietly);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't delete {}: {}", path, e.getMessage(), e);
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't delete {}: {}", path, e.getMessage(), e);
+        }
+    }
+
+    private static String computeEnvironmentHash() {
+        return sha256(FORMAT_VERSION
+                + "|" + getMidPointVersion()
+                + "|" + GroovySystem.getVersion()
+                + "|" + System.getProperty("java.specification.version"))
+                .substring(0, 16);
+    }
+
+    /**
+     * Version and build from midpoint-system.properties; for development environments without it
+     * the time of the build of this module is used, so the sandbox code changes also lead to recompilation.
+     */
+    private static String getMidPointVersion() {
+        try (InputStream in = GroovyCompiledScriptStore.class.getClassLoader()
+                .getResourceAsStream(MidpointConfiguration.MIDPOINT_SYSTEM_PROPERTIES_BASE_PATH + ".properties")) {
+            if (in != null) {
+                Properties properties = new Properties();
+                properties.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+                return properties.getProperty("midpoint.system.version")
+                        + "/" + properties.getProperty("midpoint.system.build")
+                        + "/" + properties.getProperty("midpoint.system.buildTimestamp");
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Couldn't read midPoint system properties: {}", e.getMessage(), e);
+        }
+        try {
+            CodeSource codeSource = GroovyCompiledScriptStore.class.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null) {
+                return "dev-" + Files.getLastModifiedTime(Paths.get(codeSource.getLocation().toURI())).toMillis();
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Couldn't determine last modification time of the code source: {}", e.getMessage(), e);
+        }
+        return "unknown";
+    }
+
+    /** Fingerprint of all profile settings that are used during the compilation. */
+    private static String profileFingerprint(@Nullable ScriptExpressionProfile profile) {
+        if (profile == null) {
+            return "-";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(profile.getLanguage())
+                .append('|').append(profile.getDecision())
+                .append('|').append(profile.isTypeChecking());
+        ExpressionPermissionProfile permissionProfile = profile.getPermissionProfile();
+        if (permissionProfile != null) {
+            sb.append("|permissions:").append(permissionProfile.getIdentifier())
+                    .append('|').append(permissionProfile.getDecision());
+            for (ExpressionPermissionPackageProfileType packageProfile : permissionProfile.getPackageProfiles()) {
+                sb.append("|package:").append(packageProfile.getName())
+                        .append('=').append(packageProfile.getDecision());
+            }
+            for (ExpressionPermissionClassProfileType classProfile : permissionProfile.getClassProfiles()) {
+                sb.append("|class:").append(classProfile.getName())
+                        .append('=').append(classProfile.getDecision());
+                for (ExpressionPermissionMethodProfileType methodProfile : classProfile.getMethod()) {
+                    sb.append("|method:").append(methodProfile.getName())
+                            .append('=').append(methodProfile.getDecision());
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SystemException("SHA-256 is not available: " + e.getMessage(), e);
+        }
+    }
+
+    public long getLoaded() {
+        return loaded.get();
+    }
+
+    public long getMissing() {
+        return missing.get();
+    }
+
+    public long getStored() {
+        return stored.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public String toString() {
+        return "GroovyCompiledScriptStore{" +
+                "directory=" + directory +
+                ", loaded=" + loaded +
+                ", missing=" + missing +
+                ", stored=" + stored +
+                ", failed=" + failed +
+                '}';
+    }
+
+    /** All classes generated for a single script. */
+    static class CompiledScriptBundle {
+
+        private static final int MAGIC = 0x4D504753; // "MPGS"
+
+        @NotNull private final String scriptClassName;
+        @NotNull private final Map<String, byte[]> classes;
+
+        CompiledScriptBundle(@NotNull String scriptClassName, @NotNull Map<String, byte[]> classes) {
+            this.scriptClassName = scriptClassName;
+            this.classes = classes;
+        }
+
+        @NotNull String getScriptClassName() {
+            return scriptClassName;
+        }
+
+        @NotNull Map<String, byte[]> getClasses() {
+            return classes;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(scriptClassName);
+            out.writeInt(classes.size());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+
+        static CompiledScriptBundle read(DataInputStream in) throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a compiled script bundle or unsupported format version");
+            }
+            String scriptClassName = in.readUTF();
+            int count = in.readInt();
+            Map<String, byte[]> classes = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            if (!classes.containsKey(scriptClassName)) {
+                throw new IOException("Script class " + scriptClassName + " is missing in the bundle");
+            }
+            return new CompiledScriptBundle(scriptClassName, classes);
+        }
+    }
+
+    /**
+     * Defines classes of a single script bundle, other classes are delegated to the parent
+     * (Groovy class loader for the expression profile), just like for scripts compiled in memory.
+     */
+    static class BundleClassLoader extends ClassLoader {
+
+        static {
+            registerAsParallelCapable();
+        }
+
+        private final Map<String, byte[]> classes;
+
+        BundleClassLoader(ClassLoader parent, CompiledScriptBundle bundle) {
+            super(parent);
+            this.classes = bundle.getClasses();
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loadedClass = findLoadedClass(name);
+                if (loadedClass == null) {
+                    loadedClass = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(loadedClass);
+                }
+                return loadedClass;
+            }
+        }
+    }
+}
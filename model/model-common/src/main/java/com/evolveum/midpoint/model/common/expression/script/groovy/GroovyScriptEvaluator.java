@@ -7,6 +7,7 @@
 package com.evolveum.midpoint.model.common.expression.script.groovy;
 
 import java.lang.reflect.Method;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -17,17 +18,22 @@ import groovy.lang.GroovyRuntimeException;
 import groovy.lang.Script;
 import groovy.transform.CompileStatic;
 import org.apache.commons.lang3.BooleanUtils;
+import org.codehaus.groovy.control.CompilationUnit;
 import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.MultipleCompilationErrorsException;
+import org.codehaus.groovy.control.Phases;
 import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
 import org.codehaus.groovy.control.customizers.SecureASTCustomizer;
 import org.codehaus.groovy.control.messages.SyntaxErrorMessage;
 import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.tools.GroovyClass;
 import org.codehaus.groovy.syntax.SyntaxException;
 
 import com.evolveum.midpoint.common.LocalizationService;
 import com.evolveum.midpoint.model.common.expression.script.AbstractCachingScriptEvaluator;
 import com.evolveum.midpoint.model.common.expression.script.ScriptExpressionEvaluationContext;
+import com.evolveum.midpoint.model.common.expression.script.groovy.GroovyCompiledScriptStore.BundleClassLoader;
+import com.evolveum.midpoint.model.common.expression.script.groovy.GroovyCompiledScriptStore.CompiledScriptBundle;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.crypto.Protector;
 import com.evolveum.midpoint.schema.AccessDecision;
@@ -61,12 +67,19 @@ public class GroovyScriptEvaluator extends AbstractCachingScriptEvaluator<Groovy
      */
     private static final ScriptExpressionProfile BUILTIN_SCRIPT_EXPRESSION_PROFILE = new ScriptExpressionProfile(BUILTIN_EXPRESSION_PROFILE_NAME);
 
+    private GroovyCompiledScriptStore compiledScriptStore;
+
     public GroovyScriptEvaluator(PrismContext prismContext, Protector protector, LocalizationService localizationService) {
         super(prismContext, protector, localizationService);
 
         // No initialization here. Compilers/interpreters are initialized on demand.
     }
 
+    /** Optional persistent store of compiled scripts; if not set (or disabled), scripts are compiled in memory only. */
+    public void setCompiledScriptStore(GroovyCompiledScriptStore compiledScriptStore) {
+        this.compiledScriptStore = compiledScriptStore;
+    }
+
     /* (non-Javadoc)
      * @see com.evolveum.midpoint.common.expression.ExpressionEvaluator#getLanguageName()
      */
@@ -100,7 +113,12 @@ public class GroovyScriptEvaluator extends AbstractCachingScriptEvaluator<Groovy
     @Override
     protected Class<?> compileScript(String codeString, ScriptExpressionEvaluationContext context) throws ExpressionEvaluationException, SecurityViolationException {
         try {
-            return getGroovyLoader(context).parseClass(codeString, context.getContextDescription());
+            GroovyClassLoader groovyLoader = getGroovyLoader(context);
+            if (compiledScriptStore != null && compiledScriptStore.isEnabled()) {
+                return getOrCompileStoredScript(groovyLoader, codeString, context);
+            } else {
+                return groovyLoader.parseClass(codeString, context.getContextDescription());
+            }
         } catch (MultipleCompilationErrorsException e) {
             String sandboxErrorMessage = getSandboxError(e);
             if (sandboxErrorMessage == null) {
@@ -113,6 +131,43 @@ public class GroovyScriptEvaluator extends AbstractCachingScriptEvaluator<Groovy
         }
     }
 
+    /**
+     * Loads the script classes from the persistent store or compiles them (and stores them there).
+     * The classes are always defined in a new class loader, child of the profile-specific Groovy loader.
+     */
+    private Class<?> getOrCompileStoredScript(GroovyClassLoader groovyLoader, String codeString,
+            ScriptExpressionEvaluationContext context) throws SecurityViolationException, ClassNotFoundException {
+        ScriptExpressionProfile scriptExpressionProfile = context.getScriptExpressionProfile();
+        String key = compiledScriptStore.computeKey(codeString, scriptExpressionProfile);
+        CompiledScriptBundle bundle = compiledScriptStore.load(key);
+        if (bundle == null) {
+            bundle = compileToBundle(groovyLoader, codeString, compiledScriptStore.getScriptClassName(key),
+                    scriptExpressionProfile, context);
+            compiledScriptStore.store(key, bundle);
+        }
+        return new BundleClassLoader(groovyLoader, bundle).loadClass(bundle.getScriptClassName());
+    }
+
+    private CompiledScriptBundle compileToBundle(GroovyClassLoader groovyLoader, String codeString, String scriptClassName,
+            ScriptExpressionProfile scriptExpressionProfile, ScriptExpressionEvaluationContext context)
+            throws SecurityViolationException {
+        CompilationUnit compilationUnit = new CompilationUnit(
+                createCompilerConfiguration(scriptExpressionProfile, context), null, groovyLoader);
+        // The name of the source determines the name of the script class.
+        compilationUnit.addSource(scriptClassName, codeString);
+        compilationUnit.compile(Phases.CLASS_GENERATION);
+
+        Map<String, byte[]> classes = new HashMap<>();
+        for (GroovyClass groovyClass : compilationUnit.getClasses()) {
+            classes.put(groovyClass.getName(), groovyClass.getBytes());
+        }
+        if (!classes.containsKey(scriptClassName)) {
+            throw new IllegalStateException("Script class " + scriptClassName + " was not generated, generated classes: "
+                    + classes.keySet());
+        }
+        return new CompiledScriptBundle(scriptClassName, classes);
+    }
+
     private GroovyClassLoader getGroovyLoader(ScriptExpressionEvaluationContext context) throws SecurityViolationException {
         GroovyClassLoader groovyClassLoader = getScriptCache().getInterpreter(context.getExpressionProfile());
         if (groovyClassLoader != null) {
@@ -125,9 +180,14 @@ public class GroovyScriptEvaluator extends AbstractCachingScriptEvaluator<Groovy
     }
 
     private GroovyClassLoader createGroovyLoader(ScriptExpressionProfile expressionProfile, ScriptExpressionEvaluationContext context) throws SecurityViolationException {
+        return new GroovyClassLoader(GroovyScriptEvaluator.class.getClassLoader(),
+                createCompilerConfiguration(expressionProfile, context));
+    }
+
+    private CompilerConfiguration createCompilerConfiguration(ScriptExpressionProfile expressionProfile, ScriptExpressionEvaluationContext context) throws SecurityViolationException {
         CompilerConfiguration compilerConfiguration = new CompilerConfiguration(CompilerConfiguration.DEFAULT);
         configureCompiler(compilerConfiguration, expressionProfile, context);
-        return new GroovyClassLoader(GroovyScriptEvaluator.class.getClassLoader(), compilerConfiguration);
+        return compilerConfiguration;
     }
 
     private void configureCompiler(CompilerConfiguration compilerConfiguration, ScriptExpressionProfile scriptExpressionProfile, ScriptExpressionEvaluationContext context) throws SecurityViolationException {
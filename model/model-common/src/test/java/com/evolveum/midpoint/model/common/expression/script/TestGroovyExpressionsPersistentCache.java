@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.common.expression.script;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.common.expression.script.groovy.GroovyCompiledScriptStore;
+import com.evolveum.midpoint.model.common.expression.script.groovy.GroovyScriptEvaluator;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.crypto.Protector;
+
+/**
+ * Runs all Groovy expression tests with compiled scripts stored in (and loaded from) the persistent store.
+ */
+public class TestGroovyExpressionsPersistentCache extends TestGroovyExpressions {
+
+    private GroovyCompiledScriptStore compiledScriptStore;
+
+    @Override
+    protected ScriptEvaluator createEvaluator(PrismContext prismContext, Protector protector) {
+        try {
+            compiledScriptStore = new GroovyCompiledScriptStore(
+                    Files.createTempDirectory(Paths.get("target"), "groovy-cache"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        GroovyScriptEvaluator groovyScriptEvaluator = new GroovyScriptEvaluator(prismContext, protector, localizationService);
+        groovyScriptEvaluator.setCompiledScriptStore(compiledScriptStore);
+        return groovyScriptEvaluator;
+    }
+
+    @Test
+    public void testReloadFromPersistentCache() throws Exception {
+        // GIVEN: the script is compiled and stored
+        String code = "expression-simple.xml";
+        evaluateAndAssertStringScalarExpression(code, "testReloadFromPersistentCache-1", null, "foobar");
+        long stored = compiledScriptStore.getStored();
+        long loaded = compiledScriptStore.getLoaded();
+
+        // WHEN: in-memory cache is lost, just like after node restart
+        ((AbstractCachingScriptEvaluator<?, ?>) evaluator).getScriptCache().clear();
+        evaluateAndAssertStringScalarExpression(code, "testReloadFromPersistentCache-2", null, "foobar");
+
+        // THEN: the script is loaded from the store, not compiled again
+        assertEquals("Wrong number of scripts loaded from the store", loaded + 1, compiledScriptStore.getLoaded());
+        assertEquals("Wrong number of scripts stored", stored, compiledScriptStore.getStored());
+        assertEquals("Unexpected failures in the store", 0, compiledScriptStore.getFailed());
+    }
+}
@@ -16,6 +16,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.namespace.QName;
 
 import org.testng.AssertJUnit;
@@ -122,6 +126,61 @@ public class TestScriptCaching extends AbstractUnitTest
         assertTrue("Even Horatio was wrong! " + horatio1Time + " -> " + horatio2Time, horatio2Time <= horatio1Time);
     }
 
+    @Test
+    public void testConcurrentCompilation() throws Exception {
+        // GIVEN: a script that was not compiled yet
+        InternalMonitor.reset();
+        int threads = 10;
+        ScriptExpressionEvaluatorType scriptType = new ScriptExpressionEvaluatorType()
+                .language(evaluator.getLanguageUrl())
+                .code("foo + ' ' + bar + ' concurrently'");
+
+        // WHEN: it is evaluated by more threads at once
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    return asScalarString(evaluateScript(scriptType, "concurrent-" + index));
+                }));
+            }
+            startLatch.countDown();
+
+            // THEN: all threads get the result, but the script is compiled only once
+            for (Future<String> future : futures) {
+                assertEquals("Wrong script result", "FOO BAR concurrently", future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertScriptMonitor(1, threads, "concurrent evaluation");
+    }
+
+    @Test
+    public void testCompiledScriptEviction() throws Exception {
+        // GIVEN: a small script cache
+        ScriptCache<Object, String> cache = new ScriptCache<>(10_000);
+
+        // WHEN: more scripts are compiled than fit into the cache
+        for (int i = 0; i < 100; i++) {
+            String source = "script" + i;
+            cache.getOrCompile(null, source, () -> "compiled " + source);
+        }
+
+        // THEN: cache is bounded and the compilations are counted
+        assertTrue("Cache is not bounded: " + cache.size(), cache.size() < 100);
+        assertEquals("Wrong number of compilations", 100, cache.getCompilations());
+
+        // AND: recently compiled script is returned without compilation
+        String compiled = cache.getOrCompile(null, "script99", () -> {
+            throw new AssertionError("Should not compile cached script again");
+        });
+        assertEquals("Wrong compiled script", "compiled script99", compiled);
+    }
+
     private void assertScriptMonitor(int expCompilations, int expExecutions, String desc) {
         assertEquals("Unexpected number of script compilations after " + desc, expCompilations, InternalMonitor.getCount(InternalCounters.SCRIPT_COMPILE_COUNT));
         assertEquals("Unexpected number of script executions after " + desc, expExecutions, InternalMonitor.getCount(InternalCounters.SCRIPT_EXECUTION_COUNT));
@@ -130,9 +189,28 @@ public class TestScriptCaching extends AbstractUnitTest
     private long executeScript(String filname, String expectedResult, String desc)
             throws SchemaException, SecurityViolationException, ExpressionEvaluationException,
             ObjectNotFoundException, CommunicationException, ConfigurationException, IOException {
-        // GIVEN
-        OperationResult result = createOperationResult(desc);
         ScriptExpressionEvaluatorType scriptType = parseScriptType(filname);
+
+        // WHEN
+        long startTime = System.currentTimeMillis();
+        List<PrismPropertyValue<String>> scripResults = evaluateScript(scriptType, desc);
+        long endTime = System.currentTimeMillis();
+
+        // THEN
+        displayValue(
+                "Script results " + desc + ", etime: " + (endTime - startTime) + " ms",
+                scripResults);
+
+        String scriptResult = asScalarString(scripResults);
+        assertEquals("Wrong script " + desc + " result", expectedResult, scriptResult);
+
+        return (endTime - startTime);
+    }
+
+    private List<PrismPropertyValue<String>> evaluateScript(ScriptExpressionEvaluatorType scriptType, String desc)
+            throws SchemaException, SecurityViolationException, ExpressionEvaluationException,
+            ObjectNotFoundException, CommunicationException, ConfigurationException {
+        OperationResult result = new OperationResult(TestScriptCaching.class.getName() + "." + desc);
         ItemDefinition outputDefinition = getPrismContext().definitionFactory().createPropertyDefinition(PROPERTY_NAME, DOMUtil.XSD_STRING);
 
         ScriptExpression scriptExpression = createScriptExpression(scriptType, outputDefinition);
@@ -142,9 +220,6 @@ public class TestScriptCaching extends AbstractUnitTest
                 "bar", "BAR", PrimitiveType.STRING
         );
 
-        // WHEN
-        long startTime = System.currentTimeMillis();
-
         ScriptExpressionEvaluationContext context = new ScriptExpressionEvaluationContext();
         context.setVariables(variables);
         context.setEvaluateNew(false);
@@ -152,18 +227,7 @@ public class TestScriptCaching extends AbstractUnitTest
         context.setContextDescription(desc);
         context.setResult(result);
 
-        List<PrismPropertyValue<String>> scripResults = scriptExpression.evaluate(context);
-        long endTime = System.currentTimeMillis();
-
-        // THEN
-        displayValue(
-                "Script results " + desc + ", etime: " + (endTime - startTime) + " ms",
-                scripResults);
-
-        String scriptResult = asScalarString(scripResults);
-        assertEquals("Wrong script " + desc + " result", expectedResult, scriptResult);
-
-        return (endTime - startTime);
+        return scriptExpression.evaluate(context);
     }
 
     private ScriptExpression createScriptExpression(
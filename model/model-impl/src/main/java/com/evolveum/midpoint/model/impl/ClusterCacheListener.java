@@ -6,10 +6,10 @@
  */
 package com.evolveum.midpoint.model.impl;
 
+import java.util.Collection;
+import java.util.Collections;
 import javax.annotation.PostConstruct;
-import javax.ws.rs.core.Response;
-
-import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import javax.annotation.PreDestroy;
 
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,29 +19,43 @@ import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.CacheInvalidationContext;
 import com.evolveum.midpoint.authentication.api.config.NodeAuthenticationToken;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.repo.api.Cache;
 import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.CacheListener;
-import com.evolveum.midpoint.schema.constants.ObjectTypes;
-import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.repo.api.CacheRegistry;
 import com.evolveum.midpoint.task.api.ClusterExecutionHelper;
-import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
 
+/**
+ * Sends cluster-wide cache invalidations to other nodes (via {@link ClusterInvalidationBus}).
+ *
+ * It is registered also as a {@link Cache}, although it caches nothing, in order to provide the statistics
+ * of the invalidations sent in the cache state information.
+ */
 @Component
-public class ClusterCacheListener implements CacheListener {
+public class ClusterCacheListener implements CacheListener, Cache {
 
     private static final Trace LOGGER = TraceManager.getTrace(ClusterCacheListener.class);
+    private static final Trace LOGGER_CONTENT = TraceManager.getTrace(ClusterCacheListener.class.getName() + ".content");
 
     @Autowired private TaskManager taskManager;
     @Autowired private CacheDispatcher cacheDispatcher;
+    @Autowired private CacheRegistry cacheRegistry;
     @Autowired private ClusterExecutionHelper clusterExecutionHelper;
+    @Autowired private PrismContext prismContext;
+
+    private ClusterInvalidationBus invalidationBus;
 
     @PostConstruct
     public void addListener() {
+        invalidationBus = new ClusterInvalidationBus(clusterExecutionHelper);
         cacheDispatcher.registerCacheListener(this);
+        cacheRegistry.registerCache(this);
     }
 
     @Override
@@ -52,42 +66,59 @@ public class ClusterCacheListener implements CacheListener {
             return;
         }
 
-        Task task = taskManager.createTaskInstance("invalidate");
-        OperationResult result = task.getResult();
-
         LOGGER.trace("Cache invalidation context {}", context);
 
         // Regular cache invalidation can be skipped for nodes not checking in. Cache entries will expire on such nodes
         // eventually. (We can revisit this design decision if needed.)
-        clusterExecutionHelper.execute((client, node, result1) -> {
-            client.path(getInvalidationRestPath(type, oid));
-            Response response = client.post(null);
-            Response.StatusType statusInfo = response.getStatusInfo();
-            if (statusInfo.getFamily() != Response.Status.Family.SUCCESSFUL) {
-                LOGGER.warn("Cluster-wide cache clearance finished on {} with status {}, {}", node.getNodeIdentifier(),
-                        statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
-            } else {
-                LOGGER.debug("Cluster-wide cache clearance finished on {} with status {}, {}", node.getNodeIdentifier(),
-                        statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
-            }
-            response.close();
-        }, null, "cache invalidation", result);
+        // The invalidations are sent asynchronously in batches, see ClusterInvalidationBus.
+        if (type == null && oid != null) {
+            LOGGER.warn("Cannot invalidate object type null with specific OID. Converting to global invalidation (type=null, oid=null).");
+        }
+        invalidationBus.submit(type, type != null ? oid : null);
     }
 
-    @NotNull
-    private <O extends ObjectType> String getInvalidationRestPath(Class<O> type, String oid) {
-        StringBuilder sb = new StringBuilder(ClusterServiceConsts.EVENT_INVALIDATION);
-        if (type != null) {
-            sb.append(ObjectTypes.getRestTypeFromClass(type));
-            if (oid != null) {
-                sb.append("/").append(oid);
-            }
-        } else {
-            if (oid != null) {
-                LOGGER.warn("Cannot invalidate object type null with specific OID. Converting to global invalidation (type=null, oid=null).");
-            }
-        }
-        return sb.toString();
+    @PreDestroy
+    public void shutdown() {
+        cacheRegistry.unregisterCache(this);
+        cacheDispatcher.unregisterCacheListener(this);
+        invalidationBus.shutdown();
+    }
+
+    @Override
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+        // Nothing is cached here.
+    }
+
+    /**
+     * Size is the number of invalidations waiting to be sent. Components contain statistics of the invalidations
+     * sent to other nodes, including events per batch and propagation lag (in milliseconds).
+     */
+    @Override
+    public @NotNull Collection<SingleCacheStateInformationType> getStateInformation() {
+        SingleCacheStateInformationType info = new SingleCacheStateInformationType(prismContext)
+                .name(ClusterInvalidationBus.class.getName())
+                .size(invalidationBus.getPendingCount());
+        addComponent(info, "submitted", invalidationBus.getSubmitted());
+        addComponent(info, "coalesced", invalidationBus.getCoalesced());
+        addComponent(info, "overflows", invalidationBus.getOverflows());
+        addComponent(info, "batches", invalidationBus.getBatches());
+        addComponent(info, "sentEvents", invalidationBus.getSentEvents());
+        addComponent(info, "avgEventsPerBatch", Math.round(invalidationBus.getAverageEventsPerBatch()));
+        addComponent(info, "maxEventsPerBatch", invalidationBus.getMaxEventsPerBatch());
+        addComponent(info, "avgLag", Math.round(invalidationBus.getAverageLag()));
+        addComponent(info, "maxLag", invalidationBus.getMaxLag());
+        return Collections.singleton(info);
+    }
+
+    private void addComponent(SingleCacheStateInformationType info, String name, long value) {
+        info.beginComponent()
+                .name(name)
+                .size((int) Math.min(value, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public void dumpContent() {
+        LOGGER_CONTENT.info("Cluster invalidation statistics: {}", invalidationBus);
     }
 
     private <O extends ObjectType> boolean canExecute(Class<O> type, String oid, boolean clusterwide, CacheInvalidationContext context) {
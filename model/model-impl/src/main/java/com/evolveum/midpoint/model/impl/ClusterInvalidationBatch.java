@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Body of {@link ClusterServiceConsts#EVENT_INVALIDATION_BATCH} requests: one invalidation per line,
+ * either "type/oid", "type" (the whole type), or {@link ClusterServiceConsts#INVALIDATION_BATCH_ALL} (everything).
+ * Types are REST type names, like for {@link ClusterServiceConsts#EVENT_INVALIDATION}.
+ *
+ * Written by {@link ClusterInvalidationBus}, parsed by the cluster REST controller.
+ */
+public class ClusterInvalidationBatch {
+
+    /** Creates the line for given invalidation. Null type means invalidation of everything. */
+    static @NotNull String formatEntry(@Nullable Class<? extends ObjectType> type, @Nullable String oid) {
+        if (type == null) {
+            return ClusterServiceConsts.INVALIDATION_BATCH_ALL;
+        }
+        String restType = ObjectTypes.getRestTypeFromClass(type);
+        return oid != null ? restType + "/" + oid : restType;
+    }
+
+    /**
+     * Parses the request body, ignoring empty lines.
+     *
+     * @throws IllegalArgumentException if an entry refers to an unknown type
+     */
+    public static @NotNull List<Entry> parse(@Nullable String body) {
+        List<Entry> entries = new ArrayList<>();
+        for (String line : StringUtils.split(StringUtils.defaultString(body), '\n')) {
+            String entry = line.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            if (ClusterServiceConsts.INVALIDATION_BATCH_ALL.equals(entry)) {
+                entries.add(new Entry(null, null));
+            } else {
+                entries.add(new Entry(
+                        ObjectTypes.getClassFromRestType(StringUtils.substringBefore(entry, "/")),
+                        entry.contains("/") ? StringUtils.substringAfter(entry, "/") : null));
+            }
+        }
+        return entries;
+    }
+
+    /** Single invalidation. Null type means invalidation of everything, null OID means the whole type. */
+    public static class Entry {
+
+        @Nullable private final Class<? extends ObjectType> type;
+        @Nullable private final String oid;
+
+        public Entry(@Nullable Class<? extends ObjectType> type, @Nullable String oid) {
+            this.type = type;
+            this.oid = oid;
+        }
+
+        public @Nullable Class<? extends ObjectType> getType() {
+            return type;
+        }
+
+        public @Nullable String getOid() {
+            return oid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return Objects.equals(type, entry.type) && Objects.equals(oid, entry.oid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, oid);
+        }
+
+        @Override
+        public String toString() {
+            return formatEntry(type, oid);
+        }
+    }
+}
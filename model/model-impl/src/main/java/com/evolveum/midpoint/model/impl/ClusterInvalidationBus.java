@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.ClusterExecutionHelper;
+import com.evolveum.midpoint.task.api.ClusterExecutionOptions;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Collects cluster-wide cache invalidations and sends them to other nodes in batches
+ * from a background thread, so the modifying threads don't wait for the remote calls.
+ *
+ * - Invalidations coming during {@link #batchWindow} after the first one are sent together.
+ * - Duplicate invalidations are sent only once, invalidations covered by a broader one
+ * (whole type, or everything) are dropped.
+ * - If there are more than {@link #maxBatchSize} invalidations in the batch, the type of the new
+ * invalidation is invalidated as a whole; and if it still does not help, everything is invalidated.
+ *
+ * The batch is sent to {@link ClusterServiceConsts#EVENT_INVALIDATION_BATCH} (see {@link ClusterInvalidationBatch}
+ * for the format) reusing the clients for the nodes.
+ * Nodes not supporting batches (older versions) get the invalidations one by one.
+ */
+class ClusterInvalidationBus {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ClusterInvalidationBus.class);
+
+    private static final String OP_SEND = ClusterInvalidationBus.class.getName() + ".send";
+
+    private static final long DEFAULT_BATCH_WINDOW = 100;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    private final ClusterExecutionHelper clusterExecutionHelper;
+
+    /** How long (in ms) to wait for more invalidations before sending the batch. */
+    private volatile long batchWindow = DEFAULT_BATCH_WINDOW;
+
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /** Pending invalidations, guarded by this object's monitor. */
+    private final Set<Invalidation> pending = new LinkedHashSet<>();
+    private boolean pendingAll;
+    private long oldestPendingTimestamp;
+
+    private final Thread senderThread;
+    private volatile boolean running = true;
+
+    /** Node identifiers that don't support batch invalidation endpoint. */
+    private final Set<String> nodesWithoutBatchSupport = Collections.synchronizedSet(new HashSet<>());
+
+    // statistics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong sentEvents = new AtomicLong();
+    private final AtomicLong maxEventsPerBatch = new AtomicLong();
+    private final AtomicLong lagTotal = new AtomicLong();
+    private final AtomicLong lagMax = new AtomicLong();
+
+    ClusterInvalidationBus(@NotNull ClusterExecutionHelper clusterExecutionHelper) {
+        this.clusterExecutionHelper = clusterExecutionHelper;
+        senderThread = new Thread(this::senderLoop, "cluster-invalidation-sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+
+    /**
+     * Queues the invalidation to be sent to other nodes.
+     * Null type means invalidation of everything, null OID means invalidation of the whole type.
+     */
+    synchronized <O extends ObjectType> void submit(Class<O> type, String oid) {
+        submitted.incrementAndGet();
+        if (pending.isEmpty() && !pendingAll) {
+            oldestPendingTimestamp = System.currentTimeMillis();
+        }
+
+        if (pendingAll) {
+            coalesced.incrementAndGet();
+        } else if (type == null) {
+            setPendingAll();
+        } else if (pending.contains(new Invalidation(type, null))) {
+            coalesced.incrementAndGet();
+        } else if (oid == null) {
+            pending.removeIf(i -> i.type == type);
+            pending.add(new Invalidation(type, null));
+        } else if (!pending.add(new Invalidation(type, oid))) {
+            coalesced.incrementAndGet();
+        }
+
+        if (pending.size() > maxBatchSize) {
+            overflows.incrementAndGet();
+            if (type != null) {
+                LOGGER.debug("Invalidation batch overflow, invalidating whole type {}", type.getSimpleName());
+                pending.removeIf(i -> i.type == type);
+                pending.add(new Invalidation(type, null));
+            }
+            if (pending.size() > maxBatchSize) {
+                LOGGER.debug("Invalidation batch overflow, invalidating everything");
+                setPendingAll();
+            }
+        }
+        notifyAll();
+    }
+
+    private void setPendingAll() {
+        pendingAll = true;
+        pending.clear();
+    }
+
+    private void senderLoop() {
+        while (running || hasPending()) {
+            try {
+                Batch batch = takeBatch();
+                if (batch != null) {
+                    send(batch);
+                }
+            } catch (InterruptedException e) {
+                if (running) {
+                    LOGGER.debug("Cluster invalidation sender interrupted, continuing");
+                }
+            } catch (Throwable t) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't send cluster cache invalidations", t);
+            }
+        }
+    }
+
+    private synchronized boolean hasPending() {
+        return pendingAll || !pending.isEmpty();
+    }
+
+    /**
+     * Waits for the first invalidation, then for the batch window (unless shutting down),
+     * and returns the batch, or null if there's nothing to send.
+     */
+    private synchronized Batch takeBatch() throws InterruptedException {
+        while (running && !hasPending()) {
+            wait(1000);
+        }
+        if (running) {
+            long windowEnd = oldestPendingTimestamp + batchWindow;
+            long remaining;
+            while (running && (remaining = windowEnd - System.currentTimeMillis()) > 0) {
+                wait(remaining);
+            }
+        }
+        if (!hasPending()) {
+            return null;
+        }
+        Batch batch = new Batch(pendingAll, new ArrayList<>(pending), oldestPendingTimestamp);
+        pendingAll = false;
+        pending.clear();
+        return batch;
+    }
+
+    private void send(Batch batch) {
+        OperationResult result = new OperationResult(OP_SEND);
+
+        String body = batch.toRequestBody();
+        LOGGER.trace("Sending invalidation batch with {} events: {}", batch.size(), body);
+        clusterExecutionHelper.execute((client, node, result1) -> {
+            String nodeIdentifier = node.getNodeIdentifier();
+            if (!nodesWithoutBatchSupport.contains(nodeIdentifier)) {
+                client.path(ClusterServiceConsts.EVENT_INVALIDATION_BATCH);
+                client.type(MediaType.TEXT_PLAIN);
+                Response response = client.post(body);
+                Response.StatusType statusInfo = response.getStatusInfo();
+                response.close();
+                if (statusInfo.getStatusCode() != Response.Status.NOT_FOUND.getStatusCode()) {
+                    logResponse(nodeIdentifier, statusInfo);
+                    return;
+                }
+                LOGGER.info("Node {} does not support batch cache invalidation, sending invalidations one by one",
+                        nodeIdentifier);
+                nodesWithoutBatchSupport.add(nodeIdentifier);
+            }
+            for (String path : batch.toSingleEventPaths()) {
+                client.back(true);
+                client.path(path);
+                Response response = client.post(null);
+                logResponse(nodeIdentifier, response.getStatusInfo());
+                response.close();
+            }
+        }, new ClusterExecutionOptions().reuseClient(), "cache invalidation", result);
+
+        long lag = System.currentTimeMillis() - batch.oldestTimestamp;
+        batches.incrementAndGet();
+        sentEvents.addAndGet(batch.size());
+        maxEventsPerBatch.accumulateAndGet(batch.size(), Math::max);
+        lagTotal.addAndGet(lag);
+        lagMax.accumulateAndGet(lag, Math::max);
+        LOGGER.debug("Sent invalidation batch with {} events, lag {} ms; statistics: {}", batch.size(), lag, this);
+    }
+
+    private void logResponse(String nodeIdentifier, Response.StatusType statusInfo) {
+        if (statusInfo.getFamily() != Response.Status.Family.SUCCESSFUL) {
+            LOGGER.warn("Cluster-wide cache clearance finished on {} with status {}, {}", nodeIdentifier,
+                    statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
+        } else {
+            LOGGER.debug("Cluster-wide cache clearance finished on {} with status {}, {}", nodeIdentifier,
+                    statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
+        }
+    }
+
+    /** Stops the sender thread after sending the pending invalidations (waiting up to a few seconds). */
+    void shutdown() {
+        running = false;
+        senderThread.interrupt();
+        try {
+            senderThread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (hasPending()) {
+            LOGGER.warn("Cluster invalidation bus stopped with unsent invalidations");
+        }
+    }
+
+    void setBatchWindow(long batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /** Number of invalidations waiting to be sent. */
+    synchronized int getPendingCount() {
+        return pendingAll ? 1 : pending.size();
+    }
+
+    long getSubmitted() {
+        return submitted.get();
+    }
+
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    long getOverflows() {
+        return overflows.get();
+    }
+
+    long getBatches() {
+        return batches.get();
+    }
+
+    long getSentEvents() {
+        return sentEvents.get();
+    }
+
+    double getAverageEventsPerBatch() {
+        long count = batches.get();
+        return count > 0 ? (double) sentEvents.get() / count : 0;
+    }
+
+    long getMaxEventsPerBatch() {
+        return maxEventsPerBatch.get();
+    }
+
+    /** Average time (ms) from the first invalidation in the batch to the batch being sent to all nodes. */
+    double getAverageLag() {
+        long count = batches.get();
+        return count > 0 ? (double) lagTotal.get() / count : 0;
+    }
+
+    long getMaxLag() {
+        return lagMax.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterInvalidationBus{" +
+                "submitted=" + getSubmitted() +
+                ", coalesced=" + getCoalesced() +
+                ", overflows=" + getOverflows() +
+                ", batches=" + getBatches() +
+                ", sentEvents=" + getSentEvents() +
+                ", avgEventsPerBatch=" + getAverageEventsPerBatch() +
+                ", maxEventsPerBatch=" + getMaxEventsPerBatch() +
+                ", avgLagMs=" + getAverageLag() +
+                ", maxLagMs=" + getMaxLag() +
+                '}';
+    }
+
+    private static class Invalidation {
+        @NotNull private final Class<? extends ObjectType> type;
+        private final String oid;
+
+        private Invalidation(@NotNull Class<? extends ObjectType> type, String oid) {
+            this.type = type;
+            this.oid = oid;
+        }
+
+        private String toPath() {
+            return ClusterInvalidationBatch.formatEntry(type, oid);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Invalidation)) {
+                return false;
+            }
+            Invalidation that = (Invalidation) o;
+            return type.equals(that.type) && Objects.equals(oid, that.oid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, oid);
+        }
+    }
+
+    private static class Batch {
+        private final boolean all;
+        private final List<Invalidation> invalidations;
+        private final long oldestTimestamp;
+
+        private Batch(boolean all, List<Invalidation> invalidations, long oldestTimestamp) {
+            this.all = all;
+            this.invalidations = invalidations;
+            this.oldestTimestamp = oldestTimestamp;
+        }
+
+        private int size() {
+            return all ? 1 : invalidations.size();
+        }
+
+        private String toRequestBody() {
+            return all
+                    ? ClusterInvalidationBatch.formatEntry(null, null)
+                    : invalidations.stream()
+                            .map(Invalidation::toPath)
+                            .collect(Collectors.joining("\n"));
+        }
+
+        private List<String> toSingleEventPaths() {
+            return all
+                    ? List.of(ClusterServiceConsts.EVENT_INVALIDATION)
+                    : invalidations.stream()
+                            .map(i -> ClusterServiceConsts.EVENT_INVALIDATION + i.toPath())
+                            .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl.security;
+
+import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLevel.PER_CACHE;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.common.Clock;
+import com.evolveum.midpoint.model.api.authentication.GuiProfiledPrincipal;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.repo.api.Cache;
+import com.evolveum.midpoint.repo.api.CacheRegistry;
+import com.evolveum.midpoint.schema.cache.CacheConfigurationManager;
+import com.evolveum.midpoint.schema.cache.CacheType;
+import com.evolveum.midpoint.security.api.DelegatorWithOtherPrivilegesLimitations;
+import com.evolveum.midpoint.util.caching.CacheConfiguration;
+import com.evolveum.midpoint.util.caching.CacheConfiguration.CacheObjectTypeConfiguration;
+import com.evolveum.midpoint.util.caching.CachePerformanceCollector;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Keeps compiled principals (authorizations, delegations, security policy and GUI profile), so they do not
+ * have to be compiled on each authentication. This matters for stateless channels like REST, where each call
+ * is authenticated separately, often using the same (service) account.
+ *
+ * Entries are keyed by focus OID and are valid only for the focus version they were compiled for. Changes of
+ * the focus itself are therefore detected even if the invalidation event does not come. Compiled principals
+ * depend also on other objects (roles, archetypes, system configuration, security policies, ...): changes of these
+ * invalidate the whole cache, and they are requested to be invalidated on all cluster nodes. Anything else
+ * (e.g. changes of delegators on other nodes, or time-based validity of assignments) is covered by the time to live.
+ * The time is taken from {@link Clock}, so that moving the clock (in tests) expires the entries.
+ *
+ * The cached principals are never given out: callers get their clones bound to their own focus object,
+ * see {@link GuiProfiledPrincipal#cloneWithFocus(FocusType)}.
+ *
+ * Configured as {@link CacheType#GLOBAL_PRINCIPAL_CACHE}; if there is no configuration, or the max size is 0,
+ * nothing is cached.
+ */
+@Component
+public class GuiProfiledPrincipalCache implements Cache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(GuiProfiledPrincipalCache.class);
+    private static final Trace LOGGER_CONTENT = TraceManager.getTrace(GuiProfiledPrincipalCache.class.getName() + ".content");
+
+    private static final int DEFAULT_TIME_TO_LIVE = 30; // see also default-caching-profile.xml in resources
+
+    /**
+     * Changes of objects of these types may influence any compiled principal, so they invalidate the whole cache.
+     * (Focus objects are treated separately.)
+     */
+    private static final List<Class<? extends ObjectType>> INVALIDATING_TYPES = List.of(
+            AbstractRoleType.class,
+            SystemConfigurationType.class,
+            SecurityPolicyType.class,
+            ValuePolicyType.class,
+            ObjectCollectionType.class,
+            DashboardType.class);
+
+    @Autowired private PrismContext prismContext;
+    @Autowired private Clock clock;
+    @Autowired private CacheRegistry cacheRegistry;
+    @Autowired private CacheConfigurationManager cacheConfigurationManager;
+
+    private final Map<String, CachedPrincipal> cache = new ConcurrentHashMap<>();
+
+    /** Incremented on each invalidation, except for removal of the entry for the focus being changed. */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void register() {
+        cacheRegistry.registerCache(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        cacheRegistry.unregisterCache(this);
+    }
+
+    /**
+     * Returns a principal for given (already recomputed) focus, if there is a compiled one for its current version.
+     */
+    @Nullable GuiProfiledPrincipal get(@NotNull PrismObject<? extends FocusType> focus) {
+        if (!isCacheable(focus)) {
+            return null;
+        }
+        CachedPrincipal cached = cache.get(focus.getOid());
+        if (cached != null && cached.version.equals(focus.getVersion()) && !cached.isExpired(clock.currentTimeMillis())) {
+            hits.incrementAndGet();
+            CachePerformanceCollector.INSTANCE.registerHit(GuiProfiledPrincipalCache.class, FocusType.class, PER_CACHE);
+            LOGGER.trace("Using cached principal for {}", focus);
+            return cached.principal.cloneWithFocus(focus.asObjectable());
+        }
+        misses.incrementAndGet();
+        CachePerformanceCollector.INSTANCE.registerMiss(GuiProfiledPrincipalCache.class, FocusType.class, PER_CACHE);
+        return null;
+    }
+
+    /**
+     * Stores a principal that was freshly compiled for its focus.
+     */
+    void put(@NotNull GuiProfiledPrincipal principal) {
+        PrismObject<? extends FocusType> focus = principal.getFocus().asPrismObject();
+        if (!isCacheable(focus)) {
+            return;
+        }
+        CacheConfiguration configuration = cacheConfigurationManager.getConfiguration(CacheType.GLOBAL_PRINCIPAL_CACHE);
+        CacheObjectTypeConfiguration typeConfiguration =
+                configuration != null ? configuration.getForObjectType(focus.getCompileTimeClass()) : null;
+        if (typeConfiguration == null) {
+            return;
+        }
+        long now = clock.currentTimeMillis();
+        Integer maxSize = configuration.getMaxSize();
+        if (maxSize != null && cache.size() >= maxSize && !cache.containsKey(focus.getOid())) {
+            cache.values().removeIf(cached -> cached.isExpired(now));
+            if (cache.size() >= maxSize) {
+                LOGGER.trace("Principal cache is full ({} entries), not caching principal for {}", cache.size(), focus);
+                return;
+            }
+        }
+        Integer timeToLive = typeConfiguration.getEffectiveTimeToLive();
+        long expiresAt = now + (timeToLive != null ? timeToLive : DEFAULT_TIME_TO_LIVE) * 1000L;
+        cache.put(focus.getOid(), new CachedPrincipal(focus.getVersion(), principal.clone(), now, expiresAt));
+    }
+
+    /**
+     * Called before the focus is modified in a way that does not influence the compiled principal
+     * (e.g. recording of a successful login). The modification invalidates the entry; if it was the only
+     * change, the entry can be put back for the new focus version, see {@link #commitVersionChange}.
+     */
+    @Nullable PendingVersionChange prepareVersionChange(@NotNull String oid) {
+        CachedPrincipal cached = cache.get(oid);
+        return cached != null ? new PendingVersionChange(oid, cached, generation.get()) : null;
+    }
+
+    void commitVersionChange(@NotNull PendingVersionChange change, @NotNull String oldVersion, @NotNull String newVersion) {
+        CachedPrincipal cached = change.entryBefore;
+        // Any other invalidation in the meantime makes the entry suspicious, so we rather let it go.
+        if (cached.version.equals(oldVersion) && generation.get() == change.generation) {
+            cache.putIfAbsent(change.oid, new CachedPrincipal(newVersion, cached.principal, cached.createdAt, cached.expiresAt));
+        }
+    }
+
+    private boolean isCacheable(PrismObject<? extends FocusType> focus) {
+        return focus.getOid() != null && focus.getVersion() != null && isEnabled();
+    }
+
+    private boolean isEnabled() {
+        CacheConfiguration configuration = cacheConfigurationManager.getConfiguration(CacheType.GLOBAL_PRINCIPAL_CACHE);
+        return configuration != null && (configuration.getMaxSize() == null || configuration.getMaxSize() > 0);
+    }
+
+    @Override
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+        if (type == null || isInvalidatingType(type)) {
+            generation.incrementAndGet();
+            cache.clear();
+        } else if (FocusType.class.isAssignableFrom(type)) {
+            if (oid != null) {
+                cache.remove(oid);
+                // The focus can be a delegator of some cached principals.
+                if (cache.values().removeIf(cached -> cached.hasDelegator(oid))) {
+                    generation.incrementAndGet();
+                }
+            } else {
+                generation.incrementAndGet();
+                cache.clear();
+            }
+        }
+    }
+
+    private boolean isInvalidatingType(Class<?> type) {
+        return INVALIDATING_TYPES.stream().anyMatch(t -> t.isAssignableFrom(type));
+    }
+
+    /**
+     * Focus changes are not needed here, because they change the focus version. Other relevant changes are.
+     */
+    @Override
+    public boolean isClusterwideInvalidationNeeded(@NotNull Class<?> type) {
+        return isInvalidatingType(type) && isEnabled();
+    }
+
+    /**
+     * Size is the number of cached principals; hits and misses are reported as components.
+     */
+    @NotNull
+    @Override
+    public Collection<SingleCacheStateInformationType> getStateInformation() {
+        SingleCacheStateInformationType info = new SingleCacheStateInformationType(prismContext)
+                .name(GuiProfiledPrincipalCache.class.getName())
+                .size(cache.size());
+        info.beginComponent()
+                .name("hits")
+                .size((int) Math.min(hits.get(), Integer.MAX_VALUE));
+        info.beginComponent()
+                .name("misses")
+                .size((int) Math.min(misses.get(), Integer.MAX_VALUE));
+        return Collections.singleton(info);
+    }
+
+    @Override
+    public void dumpContent() {
+        if (LOGGER_CONTENT.isInfoEnabled()) {
+            cache.forEach((oid, cached) ->
+                    LOGGER_CONTENT.info("Cached principal: {} ({}) v{}: {} authorizations, expires at {}",
+                            cached.principal.getUsername(), oid, cached.version,
+                            cached.principal.getAuthorities().size(), cached.expiresAt));
+        }
+    }
+
+    static class PendingVersionChange {
+
+        @NotNull private final String oid;
+        @NotNull private final CachedPrincipal entryBefore;
+        private final long generation;
+
+        private PendingVersionChange(@NotNull String oid, @NotNull CachedPrincipal entryBefore, long generation) {
+            this.oid = oid;
+            this.entryBefore = entryBefore;
+            this.generation = generation;
+        }
+    }
+
+    private static class CachedPrincipal {
+
+        @NotNull private final String version;
+        @NotNull private final GuiProfiledPrincipal principal;
+        private final long createdAt;
+        private final long expiresAt;
+
+        private CachedPrincipal(@NotNull String version, @NotNull GuiProfiledPrincipal principal, long createdAt,
+                long expiresAt) {
+            this.version = version;
+            this.principal = principal;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+
+        /** The clock can be moved backwards in tests; the validity of assignments could be different then. */
+        private boolean isExpired(long now) {
+            return now < createdAt || now >= expiresAt;
+        }
+
+        private boolean hasDelegator(String oid) {
+            for (DelegatorWithOtherPrivilegesLimitations delegator :
+                    principal.getDelegatorWithOtherPrivilegesLimitationsCollection()) {
+                if (oid.equals(delegator.getDelegator().getOid())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
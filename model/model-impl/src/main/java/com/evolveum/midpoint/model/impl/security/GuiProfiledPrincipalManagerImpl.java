@@ -32,11 +32,14 @@ import com.evolveum.midpoint.model.api.authentication.GuiProfiledPrincipal;
 import com.evolveum.midpoint.model.api.authentication.GuiProfiledPrincipalManager;
 import com.evolveum.midpoint.model.common.ArchetypeManager;
 import com.evolveum.midpoint.model.impl.FocusComputer;
+import com.evolveum.midpoint.model.impl.security.GuiProfiledPrincipalCache.PendingVersionChange;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.ModifyObjectResult;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
@@ -63,6 +66,12 @@ public class GuiProfiledPrincipalManagerImpl implements GuiProfiledPrincipalMana
 
     private static final Trace LOGGER = TraceManager.getTrace(GuiProfiledPrincipalManagerImpl.class);
 
+    private static final List<ItemPath> PATHS_IRRELEVANT_FOR_COMPILED_PRINCIPAL = List.of(
+            ItemPath.create(FocusType.F_CREDENTIALS),
+            ItemPath.create(FocusType.F_BEHAVIOR),
+            ItemPath.create(FocusType.F_ACTIVATION, ActivationType.F_LOCKOUT_STATUS),
+            ItemPath.create(FocusType.F_ACTIVATION, ActivationType.F_LOCKOUT_EXPIRATION_TIMESTAMP));
+
     @Autowired
     @Qualifier("cacheRepositoryService")
     private RepositoryService repositoryService;
@@ -77,6 +86,8 @@ public class GuiProfiledPrincipalManagerImpl implements GuiProfiledPrincipalMana
     private TaskManager taskManager;
     @Autowired
     private SecurityContextManager securityContextManager;
+    @Autowired
+    private GuiProfiledPrincipalCache principalCache;
 
     // registry is not available e.g. during tests
     @Autowired(required = false)
@@ -133,8 +144,17 @@ public class GuiProfiledPrincipalManagerImpl implements GuiProfiledPrincipalMana
             LifecycleStateModelType lifecycleModel = getLifecycleModel(focus, systemConfiguration);
 
             focusComputer.recompute(focus, lifecycleModel);
+            if (authorizationTransformer == null) {
+                GuiProfiledPrincipal cached = principalCache.get(focus);
+                if (cached != null) {
+                    return cached;
+                }
+            }
             GuiProfiledPrincipal principal = new GuiProfiledPrincipal(focus.asObjectable());
-            initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer);
+            boolean compiled = initializePrincipalFromAssignments(principal, systemConfiguration, authorizationTransformer);
+            if (compiled && authorizationTransformer == null) {
+                principalCache.put(principal);
+            }
             return principal;
         } finally {
             securityContextManager.clearTemporaryPrincipalOid();
@@ -252,23 +272,49 @@ public class GuiProfiledPrincipalManagerImpl implements GuiProfiledPrincipalMana
         return list.get(0);
     }
 
-    private void initializePrincipalFromAssignments(GuiProfiledPrincipal principal, PrismObject<SystemConfigurationType> systemConfiguration, AuthorizationTransformer authorizationTransformer) {
+    /**
+     * @return false if the profile could not be compiled (so the principal is incomplete)
+     */
+    private boolean initializePrincipalFromAssignments(GuiProfiledPrincipal principal, PrismObject<SystemConfigurationType> systemConfiguration, AuthorizationTransformer authorizationTransformer) {
         Task task = taskManager.createTaskInstance(GuiProfiledPrincipalManagerImpl.class.getName() + ".initializePrincipalFromAssignments");
         OperationResult result = task.getResult();
         try {
             guiProfileCompiler.compileFocusProfile(principal, systemConfiguration, authorizationTransformer, task, result);
+            return true;
         } catch (Throwable e) {
             // Do not let any error stop processing here. This code is used during user login. An error here can stop login procedure. We do not
             // want that. E.g. wrong adminGuiConfig may prohibit login on administrator, therefore ruining any chance of fixing the situation.
             LOGGER.error("Error compiling user profile for {}: {}", principal, e.getMessage(), e);
             // Do NOT re-throw the exception here. Just go on.
+            return false;
         }
     }
 
     private void save(MidPointPrincipal person, Collection<? extends ItemDelta<?, ?>> itemDeltas,
             OperationResult result) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
         LOGGER.trace("Updating user {} with deltas:\n{}", person.getFocus(), DebugUtil.debugDumpLazily(itemDeltas));
-        repositoryService.modifyObject(FocusType.class, person.getFocus().getOid(), itemDeltas, result);
+        String oid = person.getFocus().getOid();
+        PendingVersionChange versionChange =
+                isIrrelevantForCompiledPrincipal(itemDeltas) ? principalCache.prepareVersionChange(oid) : null;
+        ModifyObjectResult<FocusType> modifyResult =
+                repositoryService.modifyObject(FocusType.class, oid, itemDeltas, result);
+        if (versionChange != null) {
+            PrismObject<FocusType> before = modifyResult.getObjectBefore();
+            PrismObject<FocusType> after = modifyResult.getObjectAfter();
+            if (before != null && before.getVersion() != null && after != null && after.getVersion() != null) {
+                principalCache.commitVersionChange(versionChange, before.getVersion(), after.getVersion());
+            }
+        }
+    }
+
+    /**
+     * Modifications done e.g. when recording successful or failed logins do not influence the compiled principal,
+     * so they should not make the cached principal unusable.
+     */
+    private boolean isIrrelevantForCompiledPrincipal(Collection<? extends ItemDelta<?, ?>> itemDeltas) {
+        return itemDeltas.stream()
+                .allMatch(delta -> PATHS_IRRELEVANT_FOR_COMPILED_PRINCIPAL.stream()
+                        .anyMatch(path -> path.isSuperPathOrEquivalent(delta.getPath())));
     }
 
     private FocusType getUserByOid(String oid, Class<? extends FocusType> clazz, OperationResult result) throws ObjectNotFoundException, SchemaException {
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.sync.tasks.recon;
+
+import java.util.*;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.model.impl.ModelBeans;
+import com.evolveum.midpoint.model.impl.sync.tasks.ResourceObjectClass;
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeDefinition;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Checks existence of remaining shadows on the resource in batches, in order to avoid one connector
+ * round trip per shadow.
+ *
+ * When asked about a shadow that was not checked yet, it reads this and the following shadows from the repository
+ * (using the query of the current bucket, ordered by OID, as the shadows are processed) and looks up all of them
+ * on the resource by a single search with multi-valued equality filter on the primary identifier. The connector
+ * gets such a filter as a disjunction of equality filters.
+ *
+ * Only the existence is confirmed this way. Shadows that were not found, as well as all shadows after the batch search
+ * has failed, are retrieved individually by the caller. So the treatment of objects that are really gone is not affected.
+ */
+class BatchedShadowExistenceChecker {
+
+    private static final Trace LOGGER = TraceManager.getTrace(BatchedShadowExistenceChecker.class);
+
+    private static final String OP_CHECK_BATCH = BatchedShadowExistenceChecker.class.getName() + ".checkBatch";
+
+    private static final ItemPath OID_PATH = ItemPath.create(PrismConstants.T_ID);
+
+    @NotNull private final RemainingShadowsActivityRun activityRun;
+    @NotNull private final ResourceObjectClass resourceObjectClass;
+    @NotNull private final ResourceAttributeDefinition<?> primaryIdentifierDefinition;
+    private final int batchSize;
+    @NotNull private final ModelBeans beans;
+
+    /**
+     * Shadows checked in a batch but not asked for yet. The value tells if the object was found on the resource.
+     * Only shadows of the current bucket are here: the batches are read using the bucket query,
+     * and the map is cleared when the next bucket is started.
+     */
+    @NotNull private final Map<String, Boolean> checkedShadows = new HashMap<>();
+
+    /** Set when the batch search failed or it is not usable. All shadows are then checked individually. */
+    private boolean disabled;
+
+    BatchedShadowExistenceChecker(@NotNull RemainingShadowsActivityRun activityRun,
+            @NotNull ResourceObjectClass resourceObjectClass,
+            @NotNull ResourceAttributeDefinition<?> primaryIdentifierDefinition, int batchSize,
+            @NotNull ModelBeans beans) {
+        this.activityRun = activityRun;
+        this.resourceObjectClass = resourceObjectClass;
+        this.primaryIdentifierDefinition = primaryIdentifierDefinition;
+        this.batchSize = batchSize;
+        this.beans = beans;
+    }
+
+    /**
+     * Forgets shadows checked in the previous bucket but not asked for (e.g. the ones not matching the objects filter).
+     * The batches are then read using the query of the new bucket.
+     */
+    synchronized void startBucket() {
+        checkedShadows.clear();
+    }
+
+    /**
+     * Returns true if the object was found on the resource by the batch search.
+     * False means that the caller has to retrieve the object individually.
+     */
+    synchronized boolean isKnownToExist(@NotNull ShadowType shadow, @NotNull Task task,
+            @NotNull OperationResult result) {
+        if (disabled) {
+            return false;
+        }
+        String oid = shadow.getOid();
+        if (!checkedShadows.containsKey(oid)) {
+            checkBatch(oid, task, result);
+        }
+        return Boolean.TRUE.equals(checkedShadows.remove(oid));
+    }
+
+    private void checkBatch(@NotNull String firstOid, @NotNull Task task, @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(OP_CHECK_BATCH)
+                .setMinor()
+                .addParam("firstOid", firstOid)
+                .build();
+        try {
+            List<PrismObject<ShadowType>> shadows = getShadowsFromRepository(firstOid, result);
+            Set<Object> identifierValues = new HashSet<>();
+            for (PrismObject<ShadowType> shadow : shadows) {
+                // Dead shadows and the ones without identifier are left to individual retrieval.
+                checkedShadows.put(shadow.getOid(), false);
+                List<Object> values = ShadowUtil.getAttributeValues(shadow, primaryIdentifierDefinition.getItemName());
+                if (!ShadowUtil.isDead(shadow.asObjectable()) && values != null && values.size() == 1) {
+                    identifierValues.add(values.get(0));
+                }
+            }
+            // Just to be sure: the shadow being asked for is the first one, unless it was deleted in the meanwhile.
+            checkedShadows.putIfAbsent(firstOid, false);
+
+            if (!identifierValues.isEmpty()) {
+                int found = searchOnResource(identifierValues, task, result);
+                result.addReturn("found", found);
+            }
+            result.addReturn("shadows", shadows.size());
+            result.recordSuccess();
+        } catch (CommonException | RuntimeException e) {
+            LoggingUtils.logException(LOGGER, "Couldn't check existence of shadows on {} in batch, "
+                    + "they will be checked individually", e, resourceObjectClass.getResource());
+            disabled = true;
+            result.recordHandledError(e);
+        }
+    }
+
+    private List<PrismObject<ShadowType>> getShadowsFromRepository(String firstOid, OperationResult result)
+            throws CommonException {
+        // The query is already narrowed to the current bucket.
+        ObjectQuery query = ObjectQueryUtil.addConjunctions(activityRun.getQuery(), beans.prismContext,
+                beans.prismContext.queryFor(ShadowType.class)
+                        .item(OID_PATH).ge(firstOid)
+                        .buildFilter());
+        query.setPaging(
+                beans.prismContext.queryFactory().createPaging(0, batchSize, OID_PATH, OrderDirection.ASCENDING));
+        return beans.cacheRepositoryService.searchObjects(ShadowType.class, query,
+                beans.schemaService.getOperationOptionsBuilder().readOnly().build(), result);
+    }
+
+    /** Returns the number of objects found. Found shadows are marked in {@link #checkedShadows}. */
+    private int searchOnResource(Set<Object> identifierValues, Task task, OperationResult result)
+            throws CommonException {
+        ObjectQuery query = beans.prismContext.queryFor(ShadowType.class)
+                .item(ShadowType.F_RESOURCE_REF).ref(resourceObjectClass.getResourceOid())
+                .and().item(ShadowType.F_OBJECT_CLASS).eq(resourceObjectClass.getObjectClassName())
+                .and().itemWithDef(primaryIdentifierDefinition,
+                        ShadowType.F_ATTRIBUTES, primaryIdentifierDefinition.getItemName())
+                        .eq(identifierValues.toArray())
+                .build();
+        int[] found = { 0 };
+        beans.provisioningService.searchObjectsIterative(ShadowType.class, query,
+                beans.schemaService.getOperationOptionsBuilder()
+                        .doNotDiscovery()
+                        .readOnly()
+                        .build(),
+                (object, lResult) -> {
+                    if (++found[0] > identifierValues.size()) {
+                        LOGGER.warn("Search on {} returned more objects than requested ({}). The connector probably "
+                                + "ignores the filter, switching the batch existence checking off.",
+                                resourceObjectClass.getResource(), identifierValues.size());
+                        disabled = true;
+                        return false;
+                    }
+                    checkedShadows.replace(object.getOid(), true);
+                    return true;
+                },
+                task, result);
+        return found[0];
+    }
+}
@@ -9,7 +9,10 @@ package com.evolveum.midpoint.model.impl.sync.tasks.recon;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetQueryApplicationModeType.APPEND;
 
+import javax.xml.datatype.Duration;
+
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.repo.common.activity.definition.AbstractWorkDefinition;
 import com.evolveum.midpoint.repo.common.activity.definition.ResourceObjectSetSpecificationProvider;
@@ -18,6 +21,8 @@ import com.evolveum.midpoint.schema.util.task.work.ResourceObjectSetUtil;
 import com.evolveum.midpoint.schema.util.task.work.WorkDefinitionSource;
 import com.evolveum.midpoint.schema.util.task.work.WorkDefinitionWrapper.TypedWorkDefinitionWrapper;
 import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ReconciliationRemainingShadowsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ReconciliationUnchangedObjectsType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ReconciliationWorkDefinitionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectSetType;
 
@@ -25,13 +30,21 @@ public class ReconciliationWorkDefinition extends AbstractWorkDefinition impleme
 
     @NotNull private final ResourceObjectSetType resourceObjects;
 
+    @Nullable private final ReconciliationUnchangedObjectsType unchangedObjects;
+
+    @Nullable private final ReconciliationRemainingShadowsType remainingShadows;
+
     ReconciliationWorkDefinition(WorkDefinitionSource source) {
         if (source instanceof LegacyWorkDefinitionSource) {
             resourceObjects = ResourceObjectSetUtil.fromLegacySource((LegacyWorkDefinitionSource) source);
+            unchangedObjects = null;
+            remainingShadows = null;
         } else {
             ReconciliationWorkDefinitionType typedDefinition = (ReconciliationWorkDefinitionType)
                     ((TypedWorkDefinitionWrapper) source).getTypedDefinition();
             resourceObjects = ResourceObjectSetUtil.fromConfiguration(typedDefinition.getResourceObjects());
+            unchangedObjects = typedDefinition.getUnchangedObjects();
+            remainingShadows = typedDefinition.getRemainingShadows();
         }
         ResourceObjectSetUtil.setDefaultQueryApplicationMode(resourceObjects, APPEND);
     }
@@ -41,8 +54,24 @@ public class ReconciliationWorkDefinition extends AbstractWorkDefinition impleme
         return resourceObjects;
     }
 
+    /** Returns true if resource objects not changed since their last full synchronization should be skipped. */
+    boolean isSkipUnchangedObjects() {
+        return unchangedObjects != null && Boolean.TRUE.equals(unchangedObjects.isSkip());
+    }
+
+    @Nullable Duration getFullSynchronizationInterval() {
+        return unchangedObjects != null ? unchangedObjects.getFullSynchronizationInterval() : null;
+    }
+
+    /** Returns the batch size for checking existence of remaining shadows, or null if they should be checked one by one. */
+    @Nullable Integer getExistenceCheckBatchSize() {
+        return remainingShadows != null ? remainingShadows.getExistenceCheckBatchSize() : null;
+    }
+
     @Override
     protected void debugDumpContent(StringBuilder sb, int indent) {
         DebugUtil.debugDumpWithLabelLn(sb, "resourceObjects", resourceObjects, indent+1);
+        DebugUtil.debugDumpWithLabelLn(sb, "unchangedObjects", unchangedObjects, indent+1);
+        DebugUtil.debugDumpWithLabelLn(sb, "remainingShadows", remainingShadows, indent+1);
     }
 }
@@ -11,6 +11,7 @@ import static com.evolveum.midpoint.util.MiscUtil.stateCheck;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ReconciliationWorkStateType.F_RESOURCE_OBJECTS_RECONCILIATION_START_TIMESTAMP;
 
 import java.util.Collection;
+import java.util.List;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowLifecycleStateType;
@@ -23,6 +24,7 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.provisioning.api.ResourceObjectShadowChangeDescription;
+import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunInstantiationContext;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityState;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityReportingCharacteristics;
@@ -32,6 +34,8 @@ import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SchemaService;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.task.api.RunningTask;
@@ -52,6 +56,9 @@ final class RemainingShadowsActivityRun
 
     private static final Trace LOGGER = TraceManager.getTrace(RemainingShadowsActivityRun.class);
 
+    /** Checks existence of shadows on the resource in batches. Null if the shadows are checked one by one. */
+    private BatchedShadowExistenceChecker existenceChecker;
+
     RemainingShadowsActivityRun(
             @NotNull ActivityRunInstantiationContext<ReconciliationWorkDefinition, ReconciliationActivityHandler> context,
             String shortNameCapitalized) {
@@ -59,6 +66,36 @@ final class RemainingShadowsActivityRun
         setInstanceReady();
     }
 
+    @Override
+    public void beforeRun(OperationResult result) throws CommonException, ActivityRunException {
+        super.beforeRun(result);
+        existenceChecker = createExistenceChecker();
+    }
+
+    private BatchedShadowExistenceChecker createExistenceChecker() {
+        Integer batchSize = getWorkDefinition().getExistenceCheckBatchSize();
+        if (batchSize == null || batchSize <= 1) {
+            return null;
+        }
+        ResourceObjectDefinition objectDefinition = resourceObjectClass.getResourceObjectDefinition();
+        Collection<? extends ResourceAttributeDefinition<?>> primaryIdentifiers =
+                objectDefinition != null ? objectDefinition.getPrimaryIdentifiers() : List.of();
+        if (primaryIdentifiers.size() != 1) {
+            LOGGER.info("Shadows will be checked individually, as there is no single primary identifier for {}",
+                    resourceObjectClass);
+            return null;
+        }
+        return new BatchedShadowExistenceChecker(
+                this, resourceObjectClass, primaryIdentifiers.iterator().next(), batchSize, getModelBeans());
+    }
+
+    @Override
+    public void beforeBucketProcessing(OperationResult result) {
+        if (existenceChecker != null) {
+            existenceChecker.startBucket();
+        }
+    }
+
     @Override
     public boolean doesRequireDirectRepositoryAccess() {
         return true;
@@ -140,10 +177,35 @@ final class RemainingShadowsActivityRun
             return true;
         }
 
+        if (existenceChecker != null && existenceChecker.isKnownToExist(shadow, workerTask, result)) {
+            LOGGER.trace("Shadow {} was found on the resource by batch search, no need to retrieve it", shadow);
+            refreshShadowIfNeeded(shadow, workerTask, result);
+            return true;
+        }
+
         reconcileShadow(shadow, workerTask, result);
         return true;
     }
 
+    /**
+     * The individual retrieval refreshes the shadow (unless in dry run), finishing or updating its pending operations.
+     * For shadows confirmed by the batch search we do the same, without fetching the object again.
+     * Shadows without pending operations are left as they are; the batch search has already updated them,
+     * and dead ones (whose expiration is checked by the refresh) are always retrieved individually.
+     */
+    private void refreshShadowIfNeeded(ShadowType shadow, Task task, OperationResult result)
+            throws CommonException {
+        if (isDryRun() || shadow.getPendingOperation().isEmpty()) {
+            return;
+        }
+        LOGGER.trace("Refreshing shadow {} with pending operations", shadow);
+        try {
+            getModelBeans().provisioningService.refreshShadow(shadow.asPrismObject(), null, task, result);
+        } catch (ObjectNotFoundException e) {
+            handleObjectNotFoundException(shadow, e, task, result);
+        }
+    }
+
     /**
      * Originally we relied on provisioning discovery mechanism to handle objects that couldn't be found on the resource.
      * However, in order to detect errors in the processing, we need to have more strict control over the process:
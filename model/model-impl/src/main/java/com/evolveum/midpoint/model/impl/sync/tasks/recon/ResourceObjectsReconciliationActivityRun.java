@@ -23,10 +23,14 @@ import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.task.api.RunningTask;
 import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FetchErrorReportingMethodType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationExclusionReasonType;
 
 /**
  * Execution of resource objects reconciliation (the main part of reconciliation).
@@ -34,8 +38,13 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 public final class ResourceObjectsReconciliationActivityRun
         extends PartialReconciliationActivityRun {
 
+    private static final Trace LOGGER = TraceManager.getTrace(ResourceObjectsReconciliationActivityRun.class);
+
     private Synchronizer synchronizer;
 
+    /** Present only if unchanged objects are to be skipped. */
+    private ShadowFingerprintChecker fingerprintChecker;
+
     ResourceObjectsReconciliationActivityRun(
             @NotNull ActivityRunInstantiationContext<ReconciliationWorkDefinition, ReconciliationActivityHandler> context,
             String shortNameCapitalized) {
@@ -47,6 +56,7 @@ public final class ResourceObjectsReconciliationActivityRun
     public void beforeRun(OperationResult result) throws CommonException, ActivityRunException {
         super.beforeRun(result);
         synchronizer = createSynchronizer();
+        fingerprintChecker = createFingerprintChecker();
     }
 
     @Override
@@ -67,6 +77,23 @@ public final class ResourceObjectsReconciliationActivityRun
                 false);
     }
 
+    /**
+     * Unchanged objects are skipped only in full execution. In preview and dry run the synchronization
+     * is not executed, so no fingerprints are stored.
+     */
+    private ShadowFingerprintChecker createFingerprintChecker() {
+        ReconciliationWorkDefinition workDefinition = getWorkDefinition();
+        if (!workDefinition.isSkipUnchangedObjects()) {
+            return null;
+        } else if (!isFullExecution()) {
+            LOGGER.info("Skipping of unchanged objects is not applied, as this is not a full execution");
+            return null;
+        } else {
+            return new ShadowFingerprintChecker(
+                    resourceObjectClass.getResource(), workDefinition.getFullSynchronizationInterval(), getModelBeans());
+        }
+    }
+
     // Ignoring configured search options. TODO ok?
     @Override
     public Collection<SelectorOptions<GetOperationOptions>> customizeSearchOptions(
@@ -87,7 +114,33 @@ public final class ResourceObjectsReconciliationActivityRun
     public boolean processItem(@NotNull ShadowType object,
             @NotNull ItemProcessingRequest<ShadowType> request, RunningTask workerTask, OperationResult result)
             throws CommonException, ActivityRunException {
+        if (fingerprintChecker == null) {
+            synchronizer.synchronize(object.asPrismObject(), request.getIdentifier(), workerTask, result);
+            return true;
+        }
+
+        String fingerprint = fingerprintChecker.computeFingerprint(object);
+        if (fingerprintChecker.isUnchanged(object, fingerprint)) {
+            LOGGER.trace("Skipping {} because it has not changed since the last full synchronization", object);
+            fingerprintChecker.markSynchronized(object, result);
+            workerTask.onSynchronizationExclusion(request.getIdentifier(), SynchronizationExclusionReasonType.UNCHANGED);
+            result.recordStatus(OperationResultStatus.NOT_APPLICABLE,
+                    "Skipped because it has not changed since the last full synchronization");
+            return true;
+        }
+
         synchronizer.synchronize(object.asPrismObject(), request.getIdentifier(), workerTask, result);
+
+        // Errors of the synchronization are indicated only in the result.
+        if (result.isUnknown()) {
+            result.computeStatus(true);
+        }
+        if (result.isSuccess() || result.isWarning()) {
+            fingerprintChecker.storeFingerprint(object, fingerprint, result);
+        } else {
+            // Failed or excluded objects must be processed the next time.
+            fingerprintChecker.removeFingerprint(object, result);
+        }
         return true;
     }
 
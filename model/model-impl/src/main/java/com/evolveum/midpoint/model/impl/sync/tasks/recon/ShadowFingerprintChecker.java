@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.model.impl.sync.tasks.recon;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import javax.xml.datatype.Duration;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.model.impl.ModelBeans;
+import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.delta.builder.S_ValuesEntry;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowSynchronizationFingerprintType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationSituationType;
+
+/**
+ * Detects resource objects that have not changed since their last full synchronization, so the reconciliation
+ * can skip them.
+ *
+ * The fingerprint is a hash of attributes, associations and activation of the resource object, along with
+ * the resource OID and version (so any change of the resource definition makes all fingerprints obsolete).
+ * It is stored in the shadow after successful synchronization, see {@link #storeFingerprint}.
+ *
+ * Changes on midPoint side are not visible in the fingerprint. This is why the objects are synchronized
+ * fully at least once in the configured interval. Moreover, only linked shadows are skipped: for shadows
+ * in any other synchronization situation the reaction (e.g. linking or creating the owner) may still be pending.
+ */
+class ShadowFingerprintChecker {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ShadowFingerprintChecker.class);
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    @NotNull private final ResourceType resource;
+    @Nullable private final Duration fullSynchronizationInterval;
+    @NotNull private final ModelBeans beans;
+
+    ShadowFingerprintChecker(@NotNull ResourceType resource, @Nullable Duration fullSynchronizationInterval,
+            @NotNull ModelBeans beans) {
+        this.resource = resource;
+        this.fullSynchronizationInterval = fullSynchronizationInterval;
+        this.beans = beans;
+    }
+
+    @NotNull String computeFingerprint(@NotNull ShadowType shadow) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(resource.getOid()).append(':').append(resource.getVersion()).append('\n');
+        PrismObject<ShadowType> object = shadow.asPrismObject();
+        appendItem(sb, object.findItem(ShadowType.F_ATTRIBUTES));
+        appendItem(sb, object.findItem(ShadowType.F_ASSOCIATION));
+        appendItem(sb, object.findItem(ShadowType.F_ACTIVATION));
+        return hash(sb.toString());
+    }
+
+    /**
+     * Returns true if the shadow is linked, the fingerprint stored in it matches the current one,
+     * and the full synchronization interval has not elapsed yet.
+     */
+    boolean isUnchanged(@NotNull ShadowType shadow, @NotNull String currentFingerprint) {
+        if (shadow.getSynchronizationSituation() != SynchronizationSituationType.LINKED) {
+            return false;
+        }
+        ShadowSynchronizationFingerprintType stored = shadow.getSynchronizationFingerprint();
+        if (stored == null || stored.getTimestamp() == null || !currentFingerprint.equals(stored.getValue())) {
+            return false;
+        }
+        return fullSynchronizationInterval == null
+                || !XmlTypeConverter.isAfterInterval(
+                        stored.getTimestamp(), fullSynchronizationInterval, beans.clock.currentTimeXMLGregorianCalendar());
+    }
+
+    /**
+     * Updates synchronization timestamps of the skipped shadow, as the synchronization would do.
+     * This is necessary for the remaining shadows activity not to process the shadow.
+     */
+    void markSynchronized(@NotNull ShadowType shadow, @NotNull OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        XMLGregorianCalendar now = beans.clock.currentTimeXMLGregorianCalendar();
+        beans.cacheRepositoryService.modifyObject(ShadowType.class, shadow.getOid(),
+                beans.prismContext.deltaFor(ShadowType.class)
+                        .item(ShadowType.F_SYNCHRONIZATION_TIMESTAMP).replace(now)
+                        .item(ShadowType.F_FULL_SYNCHRONIZATION_TIMESTAMP).replace(now)
+                        .asItemDeltas(),
+                result);
+    }
+
+    /**
+     * Stores the fingerprint after the shadow was synchronized. Failures are only logged, the worst thing
+     * that can happen is that the object is synchronized fully the next time.
+     */
+    void storeFingerprint(@NotNull ShadowType shadow, @NotNull String fingerprint, @NotNull OperationResult result) {
+        setFingerprint(shadow,
+                new ShadowSynchronizationFingerprintType()
+                        .value(fingerprint)
+                        .timestamp(beans.clock.currentTimeXMLGregorianCalendar()),
+                result);
+    }
+
+    /** Removes the fingerprint, e.g. when the synchronization failed, so the object is not skipped the next time. */
+    void removeFingerprint(@NotNull ShadowType shadow, @NotNull OperationResult result) {
+        if (shadow.getSynchronizationFingerprint() != null) {
+            setFingerprint(shadow, null, result);
+        }
+    }
+
+    private void setFingerprint(@NotNull ShadowType shadow, @Nullable ShadowSynchronizationFingerprintType fingerprint,
+            @NotNull OperationResult result) {
+        try {
+            S_ValuesEntry entry = beans.prismContext.deltaFor(ShadowType.class)
+                    .item(ShadowType.F_SYNCHRONIZATION_FINGERPRINT);
+            beans.cacheRepositoryService.modifyObject(ShadowType.class, shadow.getOid(),
+                    (fingerprint != null ? entry.replace(fingerprint) : entry.replace()).asItemDeltas(),
+                    result);
+        } catch (ObjectNotFoundException e) {
+            // The shadow may be deleted by the synchronization.
+            LOGGER.debug("Couldn't update synchronization fingerprint, shadow {} does not exist any more", shadow.getOid());
+            result.muteLastSubresultError();
+        } catch (SchemaException | ObjectAlreadyExistsException | RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't update synchronization fingerprint for {}", e, shadow);
+            result.muteLastSubresultError();
+        }
+    }
+
+    /** Values are sorted, because their order is not guaranteed by the resource. */
+    private void appendItem(StringBuilder sb, Item<?, ?> item) {
+        if (item == null || item.hasNoValues()) {
+            return;
+        }
+        List<String> values = new ArrayList<>();
+        for (PrismValue value : item.getValues()) {
+            values.add(valueToString(value));
+        }
+        Collections.sort(values);
+        sb.append(item.getElementName()).append('[');
+        for (String value : values) {
+            // length prefix makes the representation unambiguous
+            sb.append(value.length()).append(':').append(value);
+        }
+        sb.append(']');
+    }
+
+    private String valueToString(PrismValue value) {
+        if (value instanceof PrismPropertyValue) {
+            Object realValue = value.getRealValue();
+            if (realValue instanceof byte[]) {
+                return Base64.getEncoder().encodeToString((byte[]) realValue);
+            } else if (realValue instanceof PolyString) {
+                return ((PolyString) realValue).getOrig();
+            } else {
+                return String.valueOf(realValue);
+            }
+        } else if (value instanceof PrismReferenceValue) {
+            return String.valueOf(((PrismReferenceValue) value).getOid());
+        } else if (value instanceof PrismContainerValue) {
+            StringBuilder sb = new StringBuilder();
+            List<Item<?, ?>> items = new ArrayList<>(((PrismContainerValue<?>) value).getItems());
+            items.sort(Comparator.comparing(i -> i.getElementName().toString()));
+            for (Item<?, ?> item : items) {
+                appendItem(sb, item);
+            }
+            return sb.toString();
+        } else {
+            return String.valueOf(value);
+        }
+    }
+
+    private String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            return Base64.getEncoder().encodeToString(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new SystemException("Couldn't compute synchronization fingerprint: " + e.getMessage(), e);
+        }
+    }
+}
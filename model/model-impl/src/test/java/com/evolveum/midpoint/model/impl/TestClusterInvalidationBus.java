@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.ClusterExecutionHelper;
+import com.evolveum.midpoint.task.api.ClusterExecutionOptions;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Tests batching and coalescing of cluster-wide invalidations by {@link ClusterInvalidationBus},
+ * sending them to simulated nodes (HTTP servers), and parsing of the batches by the receiving node
+ * (see {@link ClusterInvalidationBatch}).
+ */
+public class TestClusterInvalidationBus extends AbstractUnitTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private final List<SimulatedNode> nodes = new ArrayList<>();
+    private ClusterInvalidationBus bus;
+
+    @BeforeMethod
+    public void createBus() {
+        bus = new ClusterInvalidationBus(new SimulatedClusterExecutionHelper());
+    }
+
+    @AfterMethod
+    public void shutdownBusAndNodes() {
+        bus.shutdown();
+        nodes.forEach(SimulatedNode::stop);
+        nodes.clear();
+    }
+
+    @Test
+    public void test100CoalescingWithinBatchWindow() throws Exception {
+        given("node supporting batches");
+        SimulatedNode node = startNode("node1", true);
+
+        when("invalidations (with duplicates and ones covered by type-wide invalidation) come within 100 ms");
+        bus.submit(UserType.class, "a");
+        bus.submit(UserType.class, "a");
+        bus.submit(RoleType.class, "b");
+        bus.submit(OrgType.class, null);
+        bus.submit(OrgType.class, "c");
+
+        then("they are sent in a single batch, without the duplicate and covered ones, not before the window ends");
+        assertThat(node.nextRequest()).isEqualTo(batchRequest("users/a", "roles/b", "orgs"));
+        assertThat(node.nextRequest(300)).as("another request").isNull();
+        assertThat(bus.getSubmitted()).isEqualTo(5);
+        assertThat(bus.getCoalesced()).isEqualTo(2);
+        assertThat(bus.getBatches()).isEqualTo(1);
+        assertThat(bus.getSentEvents()).isEqualTo(3);
+        assertThat(bus.getMaxLag()).isGreaterThanOrEqualTo(100);
+        assertThat(bus.getPendingCount()).isZero();
+
+        when("another invalidation comes after the batch was sent");
+        bus.submit(UserType.class, "a");
+
+        then("it is sent in a new batch");
+        assertThat(node.nextRequest()).isEqualTo(batchRequest("users/a"));
+        assertThat(bus.getBatches()).isEqualTo(2);
+    }
+
+    @Test
+    public void test200OverflowDegradesToTypeWideInvalidation() throws Exception {
+        given("node supporting batches and bus with maximal batch size of 3");
+        SimulatedNode node = startNode("node1", true);
+        bus.setMaxBatchSize(3);
+        bus.setBatchWindow(500);
+
+        when("four users and one role are invalidated");
+        for (int i = 1; i <= 4; i++) {
+            bus.submit(UserType.class, "u" + i);
+        }
+        bus.submit(RoleType.class, "r1");
+
+        then("users are invalidated as a whole");
+        assertThat(node.nextRequest()).isEqualTo(batchRequest("users", "roles/r1"));
+        assertThat(bus.getOverflows()).isEqualTo(1);
+    }
+
+    @Test
+    public void test210OverflowDegradesToGlobalInvalidation() throws Exception {
+        given("node supporting batches and bus with maximal batch size of 3");
+        SimulatedNode node = startNode("node1", true);
+        bus.setMaxBatchSize(3);
+        bus.setBatchWindow(500);
+
+        when("objects of four types are invalidated");
+        bus.submit(UserType.class, "u1");
+        bus.submit(RoleType.class, "r1");
+        bus.submit(OrgType.class, "o1");
+        bus.submit(ServiceType.class, "s1");
+
+        then("everything is invalidated, as invalidating the type as a whole does not help");
+        assertThat(node.nextRequest()).isEqualTo(batchRequest(ClusterServiceConsts.INVALIDATION_BATCH_ALL));
+        assertThat(bus.getOverflows()).isEqualTo(1);
+
+        when("more invalidations come while everything is to be invalidated");
+        bus.submit(null, null);
+        bus.submit(UserType.class, "u2");
+        bus.submit(UserType.class, "u3");
+
+        then("they are coalesced into the global invalidation");
+        assertThat(node.nextRequest()).isEqualTo(batchRequest(ClusterServiceConsts.INVALIDATION_BATCH_ALL));
+    }
+
+    @Test
+    public void test300SingleEventsForNodesWithoutBatchSupport() throws Exception {
+        given("one node supporting batches and one not supporting them (returning 404)");
+        SimulatedNode newNode = startNode("new-node", true);
+        SimulatedNode oldNode = startNode("old-node", false);
+
+        when("user and all roles are invalidated");
+        bus.submit(UserType.class, "a");
+        bus.submit(RoleType.class, null);
+
+        then("new node gets the batch, old node gets the events one by one after trying the batch");
+        assertThat(newNode.nextRequest()).isEqualTo(batchRequest("users/a", "roles"));
+        assertThat(oldNode.nextRequest()).isEqualTo(batchRequest("users/a", "roles"));
+        assertThat(oldNode.nextRequest()).isEqualTo(singleRequest("users/a"));
+        assertThat(oldNode.nextRequest()).isEqualTo(singleRequest("roles"));
+
+        when("everything is invalidated");
+        bus.submit(null, null);
+
+        then("old node gets the single event without trying the batch again");
+        assertThat(newNode.nextRequest()).isEqualTo(batchRequest(ClusterServiceConsts.INVALIDATION_BATCH_ALL));
+        assertThat(oldNode.nextRequest()).isEqualTo(singleRequest(""));
+        assertThat(oldNode.nextRequest(300)).as("another request").isNull();
+    }
+
+    @Test
+    public void test400ParseBatch() {
+        expect("entries are parsed, ignoring empty lines and surrounding whitespace");
+        assertThat(ClusterInvalidationBatch.parse("users/a\n\n roles \r\n*\n"))
+                .containsExactly(
+                        new ClusterInvalidationBatch.Entry(UserType.class, "a"),
+                        new ClusterInvalidationBatch.Entry(RoleType.class, null),
+                        new ClusterInvalidationBatch.Entry(null, null));
+        assertThat(ClusterInvalidationBatch.parse(null)).isEmpty();
+        assertThat(ClusterInvalidationBatch.parse("")).isEmpty();
+
+        and("formatted entries are parsed back");
+        assertThat(ClusterInvalidationBatch.parse(String.join("\n",
+                ClusterInvalidationBatch.formatEntry(ShadowType.class, "s1"),
+                ClusterInvalidationBatch.formatEntry(SystemConfigurationType.class, null),
+                ClusterInvalidationBatch.formatEntry(null, null))))
+                .containsExactly(
+                        new ClusterInvalidationBatch.Entry(ShadowType.class, "s1"),
+                        new ClusterInvalidationBatch.Entry(SystemConfigurationType.class, null),
+                        new ClusterInvalidationBatch.Entry(null, null));
+
+        and("unknown type is refused");
+        assertThatThrownBy(() -> ClusterInvalidationBatch.parse("users/a\nunknownType/b"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private String batchRequest(String... entries) {
+        return ClusterServiceConsts.EVENT_INVALIDATION_BATCH + ": " + String.join("\n", entries);
+    }
+
+    private String singleRequest(String entry) {
+        return ClusterServiceConsts.EVENT_INVALIDATION + entry;
+    }
+
+    private SimulatedNode startNode(String identifier, boolean supportsBatches) throws IOException {
+        SimulatedNode node = new SimulatedNode(identifier, supportsBatches);
+        nodes.add(node);
+        return node;
+    }
+
+    /** HTTP server recording the invalidation requests, as "path: body" for batches and "path" for single events. */
+    private static class SimulatedNode {
+
+        private final NodeType node;
+        private final boolean supportsBatches;
+        private final HttpServer server;
+        private final BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+
+        private SimulatedNode(String identifier, boolean supportsBatches) throws IOException {
+            this.node = new NodeType().nodeIdentifier(identifier);
+            this.supportsBatches = supportsBatches;
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.createContext("/", this::handle);
+            server.start();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            if (path.equals(ClusterServiceConsts.EVENT_INVALIDATION_BATCH)) {
+                requests.add(path + ": " + body);
+                exchange.sendResponseHeaders(supportsBatches ? 200 : 404, -1);
+            } else {
+                requests.add(path);
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        }
+
+        private String nextRequest() throws InterruptedException {
+            return nextRequest(TIMEOUT);
+        }
+
+        private String nextRequest(long timeout) throws InterruptedException {
+            return requests.poll(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        private String getUrl() {
+            return "http://localhost:" + server.getAddress().getPort();
+        }
+
+        private void stop() {
+            server.stop(0);
+        }
+    }
+
+    /** Executes the client code for all simulated nodes. */
+    private class SimulatedClusterExecutionHelper implements ClusterExecutionHelper {
+
+        @Override
+        public void execute(@NotNull ClientCode code, ClusterExecutionOptions options, String context,
+                OperationResult parentResult) {
+            for (SimulatedNode node : nodes) {
+                WebClient client = WebClient.create(node.getUrl());
+                try {
+                    code.execute(client, node.node, parentResult);
+                } finally {
+                    client.close();
+                }
+            }
+        }
+
+        @Override
+        public void execute(@NotNull String nodeOid, @NotNull ClientCode code, ClusterExecutionOptions options,
+                String context, OperationResult parentResult) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public PrismObject<NodeType> executeWithFallback(@Nullable String nodeOid, @NotNull ClientCode code,
+                ClusterExecutionOptions options, String context, OperationResult parentResult) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public OperationResult execute(@NotNull NodeType node, @NotNull ClientCode code,
+                ClusterExecutionOptions options, String context, OperationResult parentResult) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T extractResult(Response response, Class<T> expectedClass) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
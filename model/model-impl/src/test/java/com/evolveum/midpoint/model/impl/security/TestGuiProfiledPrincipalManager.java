@@ -7,6 +7,7 @@
 
 package com.evolveum.midpoint.model.impl.security;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.testng.AssertJUnit.assertEquals;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType.DISABLED;
@@ -21,13 +22,16 @@ import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.test.AbstractIntegrationTest;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import com.evolveum.midpoint.model.api.authentication.GuiProfiledPrincipal;
 import com.evolveum.midpoint.model.impl.AbstractInternalModelIntegrationTest;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.security.api.DelegatorWithOtherPrivilegesLimitations;
 import com.evolveum.midpoint.security.api.MidPointPrincipal;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -38,6 +42,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 @DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
 public class TestGuiProfiledPrincipalManager extends AbstractInternalModelIntegrationTest {
 
+    @Autowired private GuiProfiledPrincipalCache principalCache;
+
     @Test
     public void test100DeputyNoLimits() throws Exception {
         executeDeputyLimitationsTest(Collections.emptyList(), null);
@@ -73,6 +79,95 @@ public class TestGuiProfiledPrincipalManager extends AbstractInternalModelIntegr
                 (a) -> a.limitOtherPrivileges(new OtherPrivilegesLimitationType()));
     }
 
+    @Test
+    public void test200PrincipalIsCached() throws Exception {
+        given("administrator's principal was compiled");
+        OperationResult result = getTestOperationResult();
+        GuiProfiledPrincipal first = focusProfileService.getPrincipal(
+                getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+        long hitsBefore = getCacheCounter("hits");
+
+        when("the principal is requested again");
+        GuiProfiledPrincipal second = focusProfileService.getPrincipal(
+                getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+
+        then("compiled values are taken from the cache, the focus is not");
+        assertThat(getCacheCounter("hits")).isEqualTo(hitsBefore + 1);
+        assertThat(second).isNotSameAs(first);
+        assertThat(second.getFocus()).isNotSameAs(first.getFocus());
+        assertThat(second.getAuthorities()).containsExactlyInAnyOrderElementsOf(first.getAuthorities());
+        assertThat(second.getCompiledGuiProfile()).isSameAs(first.getCompiledGuiProfile());
+    }
+
+    @Test
+    public void test210LoginRecordingKeepsCachedPrincipal() throws Exception {
+        given("administrator's principal is cached");
+        OperationResult result = getTestOperationResult();
+        GuiProfiledPrincipal principal = focusProfileService.getPrincipal(
+                getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+        long hitsBefore = getCacheCounter("hits");
+
+        when("authentication behavior is recorded (changing the focus version)");
+        focusProfileService.updateFocus(principal,
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_BEHAVIOR, BehaviorType.F_AUTHENTICATION,
+                                AuthenticationBehavioralDataType.F_FAILED_LOGINS)
+                        .replace(0)
+                        .asItemDeltas());
+        focusProfileService.getPrincipal(getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+
+        then("the principal is still taken from the cache");
+        assertThat(getCacheCounter("hits")).isEqualTo(hitsBefore + 1);
+    }
+
+    @Test
+    public void test220FocusChangeRecompilesPrincipal() throws Exception {
+        given("administrator's principal is cached");
+        OperationResult result = getTestOperationResult();
+        focusProfileService.getPrincipal(getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+        long missesBefore = getCacheCounter("misses");
+
+        when("administrator is modified");
+        repositoryService.modifyObject(UserType.class, USER_ADMINISTRATOR_OID,
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("modified")
+                        .asItemDeltas(),
+                result);
+        focusProfileService.getPrincipal(getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+
+        then("the principal is compiled again");
+        assertThat(getCacheCounter("misses")).isEqualTo(missesBefore + 1);
+    }
+
+    @Test
+    public void test230RoleChangeRecompilesPrincipal() throws Exception {
+        given("administrator's principal is cached");
+        OperationResult result = getTestOperationResult();
+        focusProfileService.getPrincipal(getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+        long missesBefore = getCacheCounter("misses");
+
+        when("superuser role is modified");
+        repositoryService.modifyObject(RoleType.class, ROLE_SUPERUSER_OID,
+                prismContext.deltaFor(RoleType.class)
+                        .item(RoleType.F_DESCRIPTION).replace("modified")
+                        .asItemDeltas(),
+                result);
+        focusProfileService.getPrincipal(getUserFromRepo(USER_ADMINISTRATOR_OID), null, result);
+
+        then("the principal is compiled again");
+        assertThat(getCacheCounter("misses")).isEqualTo(missesBefore + 1);
+        assertThat(principalCache.isClusterwideInvalidationNeeded(RoleType.class)).isTrue();
+        assertThat(principalCache.isClusterwideInvalidationNeeded(UserType.class)).isFalse();
+    }
+
+    private long getCacheCounter(String name) {
+        return principalCache.getStateInformation().iterator().next().getComponent().stream()
+                .filter(component -> name.equals(component.getName()))
+                .findFirst()
+                .orElseThrow()
+                .getSize();
+    }
+
     private void executeDeputyLimitationsTest(
             List<OtherPrivilegesLimitationType> expectedLimitations,
             Consumer<AssignmentType> assignmentModifier)
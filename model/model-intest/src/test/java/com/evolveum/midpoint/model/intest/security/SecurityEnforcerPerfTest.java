@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.intest.security;
+
+import org.javasimon.Split;
+import org.javasimon.Stopwatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.api.ModelAuthorizationAction;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.security.enforcer.api.AuthorizationParameters;
+import com.evolveum.midpoint.security.enforcer.impl.CompiledAuthorizationsCache;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.tools.testng.PerformanceTestClassMixin;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Compares authorization evaluation with compiled authorizations reused (normal operation)
+ * with evaluation where they are compiled for each call (close to the evaluation before
+ * authorizations were compiled and security filters cached).
+ * The test is not part of automatically run tests (it is not mentioned in suite XMLs).
+ * Use `-DautzCount=...` to change the number of principal authorizations
+ * and `-Diterations=...` to change the number of evaluations.
+ */
+@ContextConfiguration(locations = { "classpath:ctx-model-intest-test-main.xml" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class SecurityEnforcerPerfTest extends AbstractSecurityTest implements PerformanceTestClassMixin {
+
+    public static final int AUTZ_COUNT = Integer.parseInt(System.getProperty("autzCount", "500"));
+    public static final int ITERATIONS = Integer.parseInt(System.getProperty("iterations", "2000"));
+
+    private static final String[] ACTIONS = {
+            ModelAuthorizationAction.READ.getUrl(),
+            ModelAuthorizationAction.MODIFY.getUrl(),
+            ModelAuthorizationAction.ADD.getUrl(),
+            ModelAuthorizationAction.DELETE.getUrl(),
+            ModelAuthorizationAction.ASSIGN.getUrl()
+    };
+
+    @Autowired private CompiledAuthorizationsCache compiledAuthorizationsCache;
+
+    @Test
+    public void test100IsAuthorizedCompiled() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        login(createPrincipal());
+
+        Stopwatch stopwatch = stopwatch("isAuthorized.compiled", "isAuthorized, compiled authorizations reused");
+        for (int i = 0; i < ITERATIONS; i++) {
+            try (Split ignored = stopwatch.start()) {
+                securityEnforcer.isAuthorized(AUTZ_LOOT_URL, AuthorizationPhaseType.REQUEST,
+                        AuthorizationParameters.EMPTY, null, task, result);
+            }
+        }
+    }
+
+    @Test
+    public void test110IsAuthorizedRecompiled() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        login(createPrincipal());
+
+        Stopwatch stopwatch = stopwatch("isAuthorized.recompiled", "isAuthorized, authorizations compiled for each call");
+        for (int i = 0; i < ITERATIONS; i++) {
+            compiledAuthorizationsCache.invalidate(null, null, null);
+            try (Split ignored = stopwatch.start()) {
+                securityEnforcer.isAuthorized(AUTZ_LOOT_URL, AuthorizationPhaseType.REQUEST,
+                        AuthorizationParameters.EMPTY, null, task, result);
+            }
+        }
+    }
+
+    @Test
+    public void test200SecurityFilterCompiled() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        login(createPrincipal());
+
+        Stopwatch stopwatch = stopwatch("filter.compiled", "Search security filter, filters cached");
+        for (int i = 0; i < ITERATIONS; i++) {
+            try (Split ignored = stopwatch.start()) {
+                preProcessRoleFilter(task, result);
+            }
+        }
+    }
+
+    @Test
+    public void test210SecurityFilterRecompiled() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        login(createPrincipal());
+
+        Stopwatch stopwatch = stopwatch("filter.recompiled", "Search security filter, computed for each call");
+        for (int i = 0; i < ITERATIONS; i++) {
+            compiledAuthorizationsCache.invalidate(null, null, null);
+            try (Split ignored = stopwatch.start()) {
+                preProcessRoleFilter(task, result);
+            }
+        }
+    }
+
+    private void preProcessRoleFilter(Task task, OperationResult result) throws Exception {
+        securityEnforcer.preProcessObjectFilter(new String[] { ModelAuthorizationAction.READ.getUrl() },
+                null, RoleType.class, null, null, null, null, task, result);
+    }
+
+    /**
+     * Creates principal with many authorizations for various actions and phases,
+     * every tenth is for reading roles with a filter.
+     */
+    private MidPointPrincipal createPrincipal() throws Exception {
+        MidPointPrincipal principal = focusProfileService.getPrincipal(USER_JACK_USERNAME, UserType.class);
+        principal.getAuthorities().clear();
+        for (int i = 0; i < AUTZ_COUNT; i++) {
+            AuthorizationType autz = new AuthorizationType()
+                    .action(ACTIONS[i % ACTIONS.length])
+                    .phase(i % 3 == 0 ? null : i % 3 == 1 ? AuthorizationPhaseType.REQUEST : AuthorizationPhaseType.EXECUTION);
+            if (i % 10 == 0) {
+                autz.object(new OwnedObjectSelectorType()
+                        .type(RoleType.COMPLEX_TYPE)
+                        .filter(prismContext.getQueryConverter().createSearchFilterType(
+                                prismContext.queryFor(RoleType.class)
+                                        .item(RoleType.F_SUBTYPE).eq("subtype-" + i)
+                                        .buildFilter())));
+            }
+            principal.getAuthorities().add(new Authorization(autz));
+        }
+        // the one we look for in isAuthorized tests is the last one
+        principal.getAuthorities().add(new Authorization(new AuthorizationType().action(AUTZ_LOOT_URL)));
+        display("Principal authorizations: " + principal.getAuthorities().size());
+        return principal;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.intest.security;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.api.ModelAuthorizationAction;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.NoneFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.security.enforcer.api.AuthorizationParameters;
+import com.evolveum.midpoint.security.enforcer.impl.CompiledAuthorizationsCache;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
+
+/**
+ * Tests caching of compiled authorizations and authorization security filters
+ * (see {@link CompiledAuthorizationsCache}) with principals having specific authorizations.
+ * Results must be the same as without the cache, filters depending on anything else than
+ * the authorization and the object type must not be cached.
+ */
+@ContextConfiguration(locations = { "classpath:ctx-model-intest-test-main.xml" })
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class TestSecurityCompiledAuthorizations extends AbstractSecurityTest {
+
+    private static final String READ_URL = ModelAuthorizationAction.READ.getUrl();
+
+    @Autowired private CompiledAuthorizationsCache compiledAuthorizationsCache;
+
+    @BeforeMethod
+    public void clearCompiledAuthorizations() {
+        compiledAuthorizationsCache.invalidate(null, null, null);
+    }
+
+    @Test
+    public void test100SecurityFilterReusedAcrossSearches() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("principal allowed to read application roles by a static filter");
+        MidPointPrincipal principal = principalWithAuthorization(new AuthorizationType()
+                .action(READ_URL)
+                .object(new OwnedObjectSelectorType()
+                        .type(RoleType.COMPLEX_TYPE)
+                        .filter(subtypeFilter("application"))));
+        login(principal);
+        List<String> expectedOids = searchRoleOidsInRepo("application", result);
+        assertThat(expectedOids).isNotEmpty();
+
+        when("roles are searched for the first time");
+        List<String> firstOids = searchRoleOids(task, result);
+
+        then("result is the same as without security and the security filter is cached");
+        assertThat(firstOids).containsExactlyInAnyOrderElementsOf(expectedOids);
+        int cachedFilters = getCachedSecurityFilters();
+        assertThat(cachedFilters).isPositive();
+        long hitsBefore = getCacheHits();
+
+        when("roles are searched again");
+        List<String> secondOids = searchRoleOids(task, result);
+
+        then("the same result is returned using the cached compiled authorizations and filters");
+        assertThat(secondOids).containsExactlyInAnyOrderElementsOf(expectedOids);
+        assertThat(getCachedSecurityFilters()).isEqualTo(cachedFilters);
+        assertThat(getCacheHits()).isGreaterThan(hitsBefore);
+    }
+
+    @Test
+    public void test110ExpressionFilterIsNotCached() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("principal allowed to read roles with subtype taken from its cost center");
+        PrismObject<RoleType> expressionRole = parseObject(ROLE_EXPRESSION_READ_ROLES_FILE);
+        MidPointPrincipal principal = principalWithAuthorization(
+                expressionRole.asObjectable().getAuthorization().get(0).clone());
+        ((UserType) principal.getFocus()).setCostCenter("application");
+        login(principal);
+
+        when("roles are searched");
+        List<String> applicationOids = searchRoleOids(task, result);
+
+        then("roles matching the expression are returned and the filter is not cached");
+        assertThat(applicationOids).containsExactlyInAnyOrderElementsOf(searchRoleOidsInRepo("application", result));
+        assertThat(getCachedSecurityFilters()).isZero();
+
+        when("the expression input is changed and roles are searched again");
+        ((UserType) principal.getFocus()).setCostCenter("business");
+        List<String> businessOids = searchRoleOids(task, result);
+
+        then("the filter is evaluated again");
+        assertThat(businessOids).containsExactlyInAnyOrderElementsOf(searchRoleOidsInRepo("business", result));
+        assertThat(getCachedSecurityFilters()).isZero();
+    }
+
+    @Test
+    public void test120RoleRelationFilterIsNotCached() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("principal allowed to read members of its roles, being member of business role 1");
+        MidPointPrincipal principal = principalWithAuthorization(new AuthorizationType()
+                .action(READ_URL)
+                .object(new OwnedObjectSelectorType()
+                        .type(UserType.COMPLEX_TYPE)
+                        .roleRelation(new RoleRelationObjectSpecificationType()
+                                .subjectRelation(SchemaConstants.ORG_DEFAULT))));
+        principal.getFocus().getRoleMembershipRef().add(new ObjectReferenceType()
+                .oid(ROLE_BUSINESS_1_OID)
+                .type(RoleType.COMPLEX_TYPE)
+                .relation(SchemaConstants.ORG_DEFAULT));
+        login(principal);
+
+        when("members of the principal's role are searched");
+        ObjectFilter ownRoleFilter = preProcessUserFilter(roleMembersFilter(ROLE_BUSINESS_1_OID), task, result);
+
+        then("search is allowed, but the filter depending on the search filter is not cached");
+        assertThat(ownRoleFilter).isNotInstanceOf(NoneFilter.class);
+        assertThat(getCachedSecurityFilters()).isZero();
+
+        when("members of another role are searched");
+        ObjectFilter otherRoleFilter = preProcessUserFilter(roleMembersFilter(ROLE_BUSINESS_2_OID), task, result);
+
+        then("search is not allowed");
+        assertThat(otherRoleFilter).isInstanceOf(NoneFilter.class);
+        assertThat(getCachedSecurityFilters()).isZero();
+    }
+
+    @Test
+    public void test130TenantFilterIsNotCached() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("principal allowed to read users of its tenant");
+        MidPointPrincipal principal = principalWithAuthorization(new AuthorizationType()
+                .action(READ_URL)
+                .object(new OwnedObjectSelectorType()
+                        .type(UserType.COMPLEX_TYPE)
+                        .tenant(new TenantSelectorType()
+                                .sameAsSubject(true)
+                                .includeTenantOrg(true))));
+        String tenant1Oid = "a6bb7c08-4f58-4b14-9d2d-0f2b93b0f6a1";
+        String tenant2Oid = "e1c1f4a9-0dc7-4d9d-8a0f-53c7b0b0f6a2";
+        principal.getFocus().setTenantRef(new ObjectReferenceType().oid(tenant1Oid).type(OrgType.COMPLEX_TYPE));
+        login(principal);
+
+        when("users are searched");
+        ObjectFilter tenant1Filter = preProcessUserFilter(null, task, result);
+
+        then("filter uses the subject tenant and is not cached");
+        assertThat(tenant1Filter).isNotNull();
+        assertThat(tenant1Filter.toString()).contains(tenant1Oid);
+        assertThat(getCachedSecurityFilters()).isZero();
+
+        when("tenant of the subject is changed and users are searched again");
+        principal.getFocus().setTenantRef(new ObjectReferenceType().oid(tenant2Oid).type(OrgType.COMPLEX_TYPE));
+        ObjectFilter tenant2Filter = preProcessUserFilter(null, task, result);
+
+        then("filter uses the new tenant");
+        assertThat(tenant2Filter.toString()).contains(tenant2Oid).doesNotContain(tenant1Oid);
+    }
+
+    @Test
+    public void test140OrgRelationFilterIsNotCached() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("principal allowed to read users in the subtree of its org");
+        MidPointPrincipal principal = principalWithAuthorization(new AuthorizationType()
+                .action(READ_URL)
+                .object(new OwnedObjectSelectorType()
+                        .type(UserType.COMPLEX_TYPE)
+                        .orgRelation(new OrgRelationObjectSpecificationType()
+                                .subjectRelation(SchemaConstants.ORG_DEFAULT))));
+        String org1Oid = "3c1d6b0e-8f1a-4a55-b1f0-6e7d2a9c0b41";
+        String org2Oid = "9f2e7c1d-4b3a-4e6f-a2d1-7c8b9e0f1a42";
+        principal.getFocus().getParentOrgRef().clear();
+        principal.getFocus().getParentOrgRef().add(new ObjectReferenceType()
+                .oid(org1Oid).type(OrgType.COMPLEX_TYPE).relation(SchemaConstants.ORG_DEFAULT));
+        login(principal);
+
+        when("users are searched");
+        ObjectFilter org1Filter = preProcessUserFilter(null, task, result);
+
+        then("filter uses the org of the subject and is not cached");
+        assertThat(org1Filter).isNotNull();
+        assertThat(org1Filter.toString()).contains(org1Oid);
+        assertThat(getCachedSecurityFilters()).isZero();
+
+        when("the subject is moved to another org and users are searched again");
+        principal.getFocus().getParentOrgRef().clear();
+        principal.getFocus().getParentOrgRef().add(new ObjectReferenceType()
+                .oid(org2Oid).type(OrgType.COMPLEX_TYPE).relation(SchemaConstants.ORG_DEFAULT));
+        ObjectFilter org2Filter = preProcessUserFilter(null, task, result);
+
+        then("filter uses the new org");
+        assertThat(org2Filter.toString()).contains(org2Oid).doesNotContain(org1Oid);
+        assertThat(getCachedSecurityFilters()).isZero();
+    }
+
+    @Test
+    public void test200RecompiledWhenPrincipalAuthorizationsChange() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("principal without loot authorization, its authorizations compiled by the first check");
+        MidPointPrincipal principal = principalWithAuthorization(new AuthorizationType()
+                .action(READ_URL));
+        login(principal);
+        assertThat(securityEnforcer.isAuthorized(AUTZ_LOOT_URL, null, AuthorizationParameters.EMPTY,
+                null, task, result)).isFalse();
+
+        when("loot authorization is added to the principal");
+        principal.getAuthorities().add(new Authorization(new AuthorizationType().action(AUTZ_LOOT_URL)));
+
+        then("the new authorization is used");
+        assertThat(securityEnforcer.isAuthorized(AUTZ_LOOT_URL, null, AuthorizationParameters.EMPTY,
+                null, task, result)).isTrue();
+
+        when("the authorization is removed again");
+        principal.getAuthorities().removeIf(a -> a.getAction().contains(AUTZ_LOOT_URL));
+
+        then("the authorization is not used anymore");
+        assertThat(securityEnforcer.isAuthorized(AUTZ_LOOT_URL, null, AuthorizationParameters.EMPTY,
+                null, task, result)).isFalse();
+    }
+
+    private MidPointPrincipal principalWithAuthorization(AuthorizationType authorization) throws Exception {
+        MidPointPrincipal principal = focusProfileService.getPrincipal(USER_JACK_USERNAME, UserType.class);
+        principal.getAuthorities().clear();
+        principal.getAuthorities().add(new Authorization(authorization));
+        return principal;
+    }
+
+    private SearchFilterType subtypeFilter(String subtype) throws Exception {
+        return prismContext.getQueryConverter().createSearchFilterType(
+                prismContext.queryFor(RoleType.class)
+                        .item(RoleType.F_SUBTYPE).eq(subtype)
+                        .buildFilter());
+    }
+
+    private ObjectFilter roleMembersFilter(String roleOid) {
+        return prismContext.queryFor(UserType.class)
+                .item(UserType.F_ROLE_MEMBERSHIP_REF).ref(roleOid)
+                .buildFilter();
+    }
+
+    private ObjectFilter preProcessUserFilter(ObjectFilter origFilter, Task task, OperationResult result)
+            throws Exception {
+        return securityEnforcer.preProcessObjectFilter(new String[] { READ_URL }, null,
+                UserType.class, null, origFilter, null, null, task, result);
+    }
+
+    private List<String> searchRoleOids(Task task, OperationResult result) throws Exception {
+        return modelService.searchObjects(RoleType.class, null, null, task, result).stream()
+                .map(PrismObject::getOid)
+                .collect(Collectors.toList());
+    }
+
+    private List<String> searchRoleOidsInRepo(String subtype, OperationResult result) throws Exception {
+        ObjectQuery query = prismContext.queryFor(RoleType.class)
+                .item(RoleType.F_SUBTYPE).eq(subtype)
+                .build();
+        return repositoryService.searchObjects(RoleType.class, query, null, result).stream()
+                .map(PrismObject::getOid)
+                .collect(Collectors.toList());
+    }
+
+    private int getCachedSecurityFilters() {
+        Integer secondarySize = compiledAuthorizationsCache.getStateInformation().iterator().next()
+                .getSecondarySize();
+        return secondarySize != null ? secondarySize : 0;
+    }
+
+    private long getCacheHits() {
+        return compiledAuthorizationsCache.getStateInformation().iterator().next()
+                .getComponent().stream()
+                .filter(c -> "hits".equals(c.getName()))
+                .mapToInt(c -> c.getSize() != null ? c.getSize() : 0)
+                .sum();
+    }
+}
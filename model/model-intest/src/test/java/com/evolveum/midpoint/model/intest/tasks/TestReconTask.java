@@ -6,9 +6,16 @@
  */
 package com.evolveum.midpoint.model.intest.tasks;
 
+import static com.evolveum.midpoint.model.api.ModelPublicConstants.RECONCILIATION_REMAINING_SHADOWS_PATH;
+import static com.evolveum.midpoint.model.api.ModelPublicConstants.RECONCILIATION_RESOURCE_OBJECTS_PATH;
+
 import java.io.File;
 
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationSituationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
@@ -31,15 +38,21 @@ public class TestReconTask extends AbstractInitializedModelIntegrationTest {
 
     static final File TEST_DIR = new File("src/test/resources/tasks/recon");
 
-    @SuppressWarnings("FieldCanBeLocal")
     private DummyInterruptedSyncResource interruptedSyncResource;
 
     private static final TestResource<TaskType> TASK_RECONCILIATION = new TestResource<>(TEST_DIR, "task-reconciliation.xml", "1cf4e4fd-7648-4f83-bed4-78bd5d30d2a3");
+    private static final TestResource<TaskType> TASK_RECONCILIATION_SKIP_UNCHANGED = new TestResource<>(TEST_DIR, "task-reconciliation-skip-unchanged.xml", "4e5e2d1c-9c5b-4b7e-8f0a-3d6c1a2b7f90");
+    private static final TestResource<TaskType> TASK_RECONCILIATION_BATCHED_EXISTENCE_CHECK = new TestResource<>(TEST_DIR, "task-reconciliation-batched-existence-check.xml", "c9f3b0e2-57a4-4b8e-9d0c-2e7a6f1d4b35");
 
     private static final String USER_FORMAT = "user-";
 
     private static final int USERS = 5;
 
+    /** Accounts not seen by the batched existence check reconciliation, so their shadows are the remaining ones. */
+    private static final String OTHER_FORMAT = "other-";
+    private static final int OTHERS = 8;
+    private static final int OTHERS_DELETED = 3;
+
     @Override
     public void initSystem(Task initTask, OperationResult initResult) throws Exception {
         super.initSystem(initTask, initResult);
@@ -47,6 +60,8 @@ public class TestReconTask extends AbstractInitializedModelIntegrationTest {
         interruptedSyncResource = DummyInterruptedSyncResource.create(dummyResourceCollection, initTask, initResult);
 
         addObject(getReconciliationTask().file, initTask, initResult, tailoringWorkerThreadsCustomizer(getWorkerThreads()));
+        addObject(TASK_RECONCILIATION_SKIP_UNCHANGED, initTask, initResult);
+        addObject(TASK_RECONCILIATION_BATCHED_EXISTENCE_CHECK, initTask, initResult);
 
         assertUsers(getNumberOfUsers());
         interruptedSyncResource.createAccounts(USERS, this::getUserName);
@@ -68,6 +83,10 @@ public class TestReconTask extends AbstractInitializedModelIntegrationTest {
         return String.format("%s%06d", USER_FORMAT, i);
     }
 
+    private String getOtherName(int i) {
+        return String.format("%s%06d", OTHER_FORMAT, i);
+    }
+
     @Test
     public void test100FullRun() throws Exception {
         given();
@@ -101,4 +120,198 @@ public class TestReconTask extends AbstractInitializedModelIntegrationTest {
                     .assertItemsProcessed(0)
                 .end();
     }
+
+    /**
+     * The first run with skipping of unchanged objects: there are no fingerprints yet, so all objects are synchronized.
+     */
+    @Test
+    public void test200FirstRunSkippingUnchanged() throws Exception {
+        when();
+
+        runTaskTreeAndWaitForFinish(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, 30000);
+
+        then();
+
+        // @formatter:off
+        assertTaskTree(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, "after")
+                .assertSuccess()
+                .assertClosed()
+                .activityState(RECONCILIATION_RESOURCE_OBJECTS_PATH)
+                    .itemProcessingStatistics()
+                        .display()
+                        .assertTotalCounts(USERS, 0, 0)
+                    .end()
+                .end();
+        // @formatter:on
+    }
+
+    /**
+     * The second run: nothing has changed on the resource, so all objects are skipped.
+     */
+    @Test
+    public void test210SecondRunSkippingUnchanged() throws Exception {
+        when();
+
+        runTaskTreeAndWaitForFinish(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, 30000);
+
+        then();
+
+        // @formatter:off
+        assertTaskTree(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, "after")
+                .assertSuccess()
+                .assertClosed()
+                .activityState(RECONCILIATION_RESOURCE_OBJECTS_PATH)
+                    .itemProcessingStatistics()
+                        .display()
+                        .assertTotalCounts(0, 0, USERS)
+                    .end()
+                .end();
+        // @formatter:on
+
+        and("skipped shadows are not treated as remaining ones");
+        // @formatter:off
+        assertTaskTree(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, "after")
+                .activityState(RECONCILIATION_REMAINING_SHADOWS_PATH)
+                    .itemProcessingStatistics()
+                        .assertTotalCounts(0, 0, 0)
+                    .end()
+                .end();
+        // @formatter:on
+    }
+
+    /**
+     * The third run: one of the shadows is not linked (its owner was unlinked), although its fingerprint
+     * is unchanged. It must not be skipped, so the reaction (linking) is carried out.
+     */
+    @Test
+    public void test220UnlinkedShadowNotSkipped() throws Exception {
+        given("user whose account is unlinked, leaving the shadow in 'unlinked' situation");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        String name = getUserName(0);
+        PrismObject<UserType> user = findUserByUsername(name);
+        PrismObject<ShadowType> shadow = findShadowByPrismName(
+                name, interruptedSyncResource.getController().getResource(), result);
+        repositoryService.modifyObject(UserType.class, user.getOid(),
+                deltaFor(UserType.class)
+                        .item(UserType.F_LINK_REF).replace()
+                        .asItemDeltas(),
+                result);
+        repositoryService.modifyObject(ShadowType.class, shadow.getOid(),
+                deltaFor(ShadowType.class)
+                        .item(ShadowType.F_SYNCHRONIZATION_SITUATION).replace(SynchronizationSituationType.UNLINKED)
+                        .asItemDeltas(),
+                result);
+
+        when();
+
+        runTaskTreeAndWaitForFinish(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, 30000);
+
+        then("the unlinked shadow is synchronized, the others are skipped");
+        // @formatter:off
+        assertTaskTree(TASK_RECONCILIATION_SKIP_UNCHANGED.oid, "after")
+                .assertSuccess()
+                .assertClosed()
+                .activityState(RECONCILIATION_RESOURCE_OBJECTS_PATH)
+                    .itemProcessingStatistics()
+                        .display()
+                        .assertTotalCounts(1, 0, USERS - 1)
+                    .end()
+                .end();
+        // @formatter:on
+
+        and("the account is linked again");
+        assertShadow(findShadowByPrismName(name, interruptedSyncResource.getController().getResource(), result), name)
+                .assertSynchronizationSituation(SynchronizationSituationType.LINKED);
+        assertUser(user.getOid(), "after")
+                .assertLiveLinks(1);
+    }
+
+    /**
+     * Remaining shadows are checked on the resource in batches (of 3, in OID buckets). Shadows of existing accounts
+     * are confirmed by the batch search. Shadows of deleted accounts are not found by it, so they are retrieved
+     * individually and the deletion is synchronized.
+     */
+    @Test
+    public void test300BatchedExistenceCheckOfRemainingShadows() throws Exception {
+        given("accounts with shadows that will not be seen by the reconciliation");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        interruptedSyncResource.createAccounts(OTHERS, this::getOtherName);
+        runTaskTreeAndWaitForFinish(getReconciliationTaskOid(), 30000);
+
+        and("some of them are deleted on the resource");
+        for (int i = 0; i < OTHERS_DELETED; i++) {
+            interruptedSyncResource.getDummyResource().deleteAccountByName(getOtherName(i));
+        }
+
+        when();
+
+        runTaskTreeAndWaitForFinish(TASK_RECONCILIATION_BATCHED_EXISTENCE_CHECK.oid, 30000);
+
+        then();
+
+        // @formatter:off
+        assertTaskTree(TASK_RECONCILIATION_BATCHED_EXISTENCE_CHECK.oid, "after")
+                .assertSuccess()
+                .assertClosed()
+                .activityState(RECONCILIATION_REMAINING_SHADOWS_PATH)
+                    .itemProcessingStatistics()
+                        .display()
+                        .assertTotalCounts(OTHERS, 0, 0)
+                    .end()
+                .end();
+        // @formatter:on
+
+        and("shadows of deleted accounts are dead, the others are live");
+        assertOtherShadows(result);
+    }
+
+    /**
+     * The second run: dead shadows are among the remaining ones now. They are not checked by the batch search,
+     * and their individual retrieval does not change them.
+     */
+    @Test
+    public void test310BatchedExistenceCheckWithDeadShadows() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        when();
+
+        runTaskTreeAndWaitForFinish(TASK_RECONCILIATION_BATCHED_EXISTENCE_CHECK.oid, 30000);
+
+        then();
+
+        // @formatter:off
+        assertTaskTree(TASK_RECONCILIATION_BATCHED_EXISTENCE_CHECK.oid, "after")
+                .assertSuccess()
+                .assertClosed()
+                .activityState(RECONCILIATION_REMAINING_SHADOWS_PATH)
+                    .itemProcessingStatistics()
+                        .display()
+                        .assertTotalCounts(OTHERS, 0, 0)
+                    .end()
+                .end();
+        // @formatter:on
+
+        assertOtherShadows(result);
+    }
+
+    private void assertOtherShadows(OperationResult result) throws Exception {
+        for (int i = 0; i < OTHERS; i++) {
+            String name = getOtherName(i);
+            PrismObject<ShadowType> shadow = findShadowByPrismName(
+                    name, interruptedSyncResource.getController().getResource(), result);
+            if (i < OTHERS_DELETED) {
+                assertShadow(shadow, name)
+                        .assertDead()
+                        .assertIsNotExists();
+            } else {
+                assertShadow(shadow, name)
+                        .assertLive();
+            }
+        }
+    }
 }
@@ -44,6 +44,22 @@ public class Message implements DebugDumpable {
         attachments.addAll(message.getAttachment());
     }
 
+    /**
+     * Inverse of {@link #Message(NotificationMessageType)}, e.g. for storing the message.
+     */
+    public NotificationMessageType toNotificationMessageType() {
+        NotificationMessageType bean = new NotificationMessageType();
+        bean.setFrom(from);
+        bean.getTo().addAll(to);
+        bean.getCc().addAll(cc);
+        bean.getBcc().addAll(bcc);
+        bean.setSubject(subject);
+        bean.setBody(body);
+        bean.setContentType(contentType);
+        bean.getAttachment().addAll(attachments);
+        return bean;
+    }
+
     public String getBody() {
         return body;
     }
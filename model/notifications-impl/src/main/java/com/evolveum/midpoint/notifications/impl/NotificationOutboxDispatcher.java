@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.notifications.impl;
+
+import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.datatype.Duration;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.VisibleForTesting;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.api.transports.Transport;
+import com.evolveum.midpoint.notifications.impl.api.transports.MailTransport;
+import com.evolveum.midpoint.repo.api.NotificationOutboxStore;
+import com.evolveum.midpoint.repo.api.NotificationOutboxStore.QueuedMessage;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailConfigurationType;
+
+/**
+ * Delivers messages from the notification outbox ({@link NotificationOutboxStore}) in the background.
+ *
+ * Messages are put into the outbox by transports configured to send asynchronously (currently the mail transport),
+ * after the recipients are checked. The dispatcher claims them in batches and delivers them using a small pool
+ * of threads. (The number of connections to individual mail servers is limited by the transport itself.)
+ * Failed deliveries are retried with exponentially growing delay, until the configured number of attempts
+ * is reached.
+ *
+ * The outbox is checked regularly, because messages may wait for a retry, or they could be left by other nodes.
+ * In addition to that, the check is done immediately after a message is added.
+ *
+ * Active only if the repository provides the outbox (i.e. the native repository).
+ */
+@Component
+public class NotificationOutboxDispatcher {
+
+    private static final Trace LOGGER = TraceManager.getTrace(NotificationOutboxDispatcher.class);
+
+    private static final String OP_ENQUEUE = NotificationOutboxDispatcher.class.getName() + ".enqueue";
+    private static final String OP_DISPATCH = NotificationOutboxDispatcher.class.getName() + ".dispatch";
+    private static final String OP_DELIVER = NotificationOutboxDispatcher.class.getName() + ".deliver";
+
+    /** How often the outbox is checked for messages. */
+    private static final long POLL_INTERVAL = 10_000;
+
+    /** Maximal number of messages claimed at once. */
+    private static final int BATCH_SIZE = 50;
+
+    /** Threads delivering the messages. */
+    private static final int DELIVERY_THREADS = 4;
+
+    /** How long a claimed message is reserved for this node. Must be safely longer than the delivery of the batch. */
+    private static final long LEASE_DURATION = 15 * 60_000;
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_INTERVAL = 60_000;
+
+    /** Maximal delay between attempts is the retry interval multiplied by this. */
+    private static final int MAX_RETRY_INTERVAL_MULTIPLIER = 64;
+
+    /** Available only for the native repository. */
+    @Autowired(required = false) private NotificationOutboxStore outboxStore;
+
+    @Autowired private TransportRegistry transportRegistry;
+
+    private ScheduledExecutorService dispatchExecutor;
+    private ExecutorService deliveryExecutor;
+
+    /** True if the immediate dispatch was requested but not started yet. Avoids piling up the requests. */
+    private final AtomicBoolean dispatchRequested = new AtomicBoolean();
+
+    @PostConstruct
+    public void init() {
+        if (outboxStore == null) {
+            LOGGER.debug("Notification outbox is not available in this repository, messages will be sent synchronously");
+            return;
+        }
+        dispatchExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> createThread(runnable, "notification-outbox-dispatcher"));
+        AtomicInteger threadNumber = new AtomicInteger();
+        deliveryExecutor = Executors.newFixedThreadPool(DELIVERY_THREADS,
+                runnable -> createThread(runnable, "notification-outbox-delivery-" + threadNumber.incrementAndGet()));
+        dispatchExecutor.scheduleWithFixedDelay(this::dispatch, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @VisibleForTesting
+    void setOutboxStore(NotificationOutboxStore outboxStore) {
+        this.outboxStore = outboxStore;
+    }
+
+    @VisibleForTesting
+    void setTransportRegistry(TransportRegistry transportRegistry) {
+        this.transportRegistry = transportRegistry;
+    }
+
+    private Thread createThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdownNow();
+            deliveryExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Puts the message into the outbox.
+     *
+     * @return false if the message could not be put there (e.g. the outbox is not available),
+     * so the caller has to send it by itself
+     */
+    public boolean enqueue(@NotNull String transportName, @NotNull Message message, @NotNull OperationResult parentResult) {
+        if (outboxStore == null) {
+            return false;
+        }
+        OperationResult result = parentResult.createMinorSubresult(OP_ENQUEUE);
+        try {
+            outboxStore.addMessage(transportName, message.toNotificationMessageType(), result);
+            result.recordSuccess();
+        } catch (SchemaException | RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't put message to {} into the outbox, sending it right now",
+                    e, message.getTo());
+            result.recordHandledError(e);
+            return false;
+        }
+        requestDispatch();
+        return true;
+    }
+
+    private void requestDispatch() {
+        if (dispatchRequested.compareAndSet(false, true)) {
+            try {
+                dispatchExecutor.execute(() -> {
+                    dispatchRequested.set(false);
+                    dispatch();
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("Dispatch request rejected, are we shutting down?", e);
+            }
+        }
+    }
+
+    /**
+     * Delivers the messages that are due, in batches, until there are none.
+     * Must not throw any exception, as the scheduled execution would stop.
+     */
+    @VisibleForTesting
+    void dispatch() {
+        OperationResult result = new OperationResult(OP_DISPATCH);
+        try {
+            List<QueuedMessage> messages;
+            do {
+                messages = outboxStore.claimMessages(BATCH_SIZE, LEASE_DURATION, result);
+                if (!messages.isEmpty()) {
+                    LOGGER.trace("Delivering {} message(s) from the outbox", messages.size());
+                    deliverAll(messages);
+                }
+            } while (messages.size() == BATCH_SIZE && !Thread.currentThread().isInterrupted());
+        } catch (InterruptedException e) {
+            LOGGER.debug("Notification outbox dispatcher was interrupted");
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't dispatch messages from the notification outbox", t);
+        }
+    }
+
+    private void deliverAll(List<QueuedMessage> messages) throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>(messages.size());
+        for (QueuedMessage message : messages) {
+            futures.add(deliveryExecutor.submit(() -> deliver(message)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // Should not occur, as deliver() catches all the exceptions. The message will be re-tried after the lease.
+                LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception while delivering a message", e.getCause());
+            }
+        }
+    }
+
+    private void deliver(QueuedMessage queuedMessage) {
+        // Each delivery thread has its own result, as operation results are not thread safe.
+        OperationResult result = new OperationResult(OP_DELIVER);
+        result.addParam("id", queuedMessage.getId());
+        try {
+            Transport transport = transportRegistry.getTransport(queuedMessage.getTransportName());
+            if (!(transport instanceof MailTransport)) {
+                LOGGER.error("Transport {} does not support sending messages from the outbox, discarding {}",
+                        queuedMessage.getTransportName(), queuedMessage);
+                outboxStore.deleteMessage(queuedMessage.getId(), result);
+                return;
+            }
+            MailTransport mailTransport = (MailTransport) transport;
+            MailConfigurationType configuration = mailTransport.getConfiguration();
+            if (configuration != null
+                    && mailTransport.deliver(new Message(queuedMessage.getMessage()), configuration, null, result)) {
+                outboxStore.deleteMessage(queuedMessage.getId(), result);
+            } else {
+                processFailure(queuedMessage, configuration,
+                        configuration != null ? result.getMessage() : "No mail configuration", result);
+            }
+        } catch (Throwable t) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't deliver {}", t, queuedMessage);
+            try {
+                processFailure(queuedMessage, null, t.getMessage(), result);
+            } catch (Throwable t2) {
+                // The message will be re-tried after the lease expires.
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't record failed delivery of {}", t2, queuedMessage);
+            }
+        }
+    }
+
+    private void processFailure(QueuedMessage queuedMessage, MailConfigurationType configuration, String error,
+            OperationResult result) {
+        int attempts = queuedMessage.getAttempts() + 1;
+        int maxAttempts = configuration != null
+                ? defaultIfNull(configuration.getMaxAttempts(), DEFAULT_MAX_ATTEMPTS)
+                : DEFAULT_MAX_ATTEMPTS;
+        if (attempts >= maxAttempts) {
+            LOGGER.error("Giving up on {} after {} failed attempt(s), last error: {}", queuedMessage, attempts, error);
+            outboxStore.deleteMessage(queuedMessage.getId(), result);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Duration retryInterval = configuration != null ? configuration.getRetryInterval() : null;
+        long delay = retryInterval != null ? retryInterval.getTimeInMillis(new Date(now)) : DEFAULT_RETRY_INTERVAL;
+        delay *= Math.min(1L << Math.min(attempts - 1, 30), MAX_RETRY_INTERVAL_MULTIPLIER);
+        LOGGER.debug("Delivery of {} failed (attempt {} of {}), next attempt in {} ms; error: {}",
+                queuedMessage, attempts, maxAttempts, delay, error);
+        outboxStore.rescheduleMessage(queuedMessage.getId(), now + delay, error, result);
+    }
+}
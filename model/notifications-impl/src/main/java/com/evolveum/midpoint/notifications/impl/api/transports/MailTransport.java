@@ -7,6 +7,8 @@
 
 package com.evolveum.midpoint.notifications.impl.api.transports;
 
+import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
+
 import static com.evolveum.midpoint.notifications.impl.api.transports.TransportUtil.formatToFileOld;
 
 import java.nio.charset.StandardCharsets;
@@ -15,11 +17,11 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Properties;
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
 import javax.activation.FileDataSource;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.mail.BodyPart;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
@@ -30,6 +32,8 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 
 import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
@@ -38,6 +42,7 @@ import com.evolveum.midpoint.notifications.api.events.Event;
 import com.evolveum.midpoint.notifications.api.transports.Message;
 import com.evolveum.midpoint.notifications.api.transports.Transport;
 import com.evolveum.midpoint.notifications.impl.NotificationFunctionsImpl;
+import com.evolveum.midpoint.notifications.impl.NotificationOutboxDispatcher;
 import com.evolveum.midpoint.notifications.impl.TransportRegistry;
 import com.evolveum.midpoint.notifications.impl.util.MimeTypeUtil;
 import com.evolveum.midpoint.prism.crypto.EncryptionException;
@@ -67,6 +72,8 @@ public class MailTransport implements Transport {
 
     private static final String DOT_CLASS = MailTransport.class.getName() + ".";
 
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_SERVER = 2;
+
     @Autowired
     @Qualifier("cacheRepositoryService")
     private RepositoryService cacheRepositoryService;
@@ -78,12 +85,20 @@ public class MailTransport implements Transport {
     protected ExpressionFactory expressionFactory;
 
     @Autowired private TransportRegistry transportRegistry;
+    @Autowired private NotificationOutboxDispatcher outboxDispatcher;
+
+    private final SmtpConnectionPool connectionPool = new SmtpConnectionPool();
 
     @PostConstruct
     public void init() {
         transportRegistry.registerTransport(NAME, this);
     }
 
+    @PreDestroy
+    public void destroy() {
+        connectionPool.closeAll();
+    }
+
     @Override
     public void send(Message mailMessage, String transportName, Event event, Task task, OperationResult parentResult) {
 
@@ -91,18 +106,14 @@ public class MailTransport implements Transport {
         result.addArbitraryObjectCollectionAsParam("mailMessage recipient(s)", mailMessage.getTo());
         result.addParam("mailMessage subject", mailMessage.getSubject());
 
-        SystemConfigurationType systemConfiguration = NotificationFunctionsImpl.getSystemConfiguration(cacheRepositoryService, new OperationResult("dummy"));
-
-        if (systemConfiguration == null || systemConfiguration.getNotificationConfiguration() == null
-                || systemConfiguration.getNotificationConfiguration().getMail() == null) {
+        MailConfigurationType mailConfigurationType = getConfiguration();
+        if (mailConfigurationType == null) {
             String msg = "No notifications are configured. Mail notification to " + mailMessage.getTo() + " will not be sent.";
             LOGGER.warn(msg);
             result.recordWarning(msg);
             return;
         }
 
-        MailConfigurationType mailConfigurationType = systemConfiguration.getNotificationConfiguration().getMail();
-
         String logToFile = mailConfigurationType.getLogToFile();
         if (logToFile != null) {
             TransportUtil.logToFile(logToFile, formatToFileOld(mailMessage), LOGGER);
@@ -156,9 +167,54 @@ public class MailTransport implements Transport {
             return;
         }
 
+        if (Boolean.TRUE.equals(mailConfigurationType.isSendAsynchronously())) {
+            if (createContent(mailMessage) == null) {
+                return; // Problems with attachments are reported right now, there's no point in queueing such a message.
+            }
+            if (outboxDispatcher.enqueue(transportName, mailMessage, result)) {
+                LOGGER.debug("Message to {} was queued for sending.", mailMessage.getTo());
+                task.recordStateMessage("Notification mail queued for sending");
+                result.recordSuccess();
+                return;
+            }
+            // The outbox is not available, so the message is sent right now.
+        }
+
+        deliver(mailMessage, mailConfigurationType, task, result);
+    }
+
+    /**
+     * Returns the current mail configuration (from the system configuration), or null if there is none.
+     */
+    public @Nullable MailConfigurationType getConfiguration() {
+        SystemConfigurationType systemConfiguration = NotificationFunctionsImpl.getSystemConfiguration(cacheRepositoryService, new OperationResult("dummy"));
+        if (systemConfiguration == null || systemConfiguration.getNotificationConfiguration() == null) {
+            return null;
+        } else {
+            return systemConfiguration.getNotificationConfiguration().getMail();
+        }
+    }
+
+    /**
+     * Sends the message via configured mail servers, trying them one after another. Recipients are not checked
+     * anymore, so this can be used also for messages taken from the notification outbox.
+     *
+     * @param task Task for recording the progress, if any.
+     * @return true if the message was sent
+     */
+    public boolean deliver(@NotNull Message mailMessage, @NotNull MailConfigurationType mailConfigurationType,
+            @Nullable Task task, @NotNull OperationResult result) {
+
         long start = System.currentTimeMillis();
 
+        Multipart content = createContent(mailMessage);
+        if (content == null) {
+            return false;
+        }
+
         String defaultFrom = mailConfigurationType.getDefaultFrom() != null ? mailConfigurationType.getDefaultFrom() : "nobody@nowhere.org";
+        int maxConnections = defaultIfNull(mailConfigurationType.getMaxConnectionsPerServer(), DEFAULT_MAX_CONNECTIONS_PER_SERVER);
+        boolean debug = Boolean.TRUE.equals(mailConfigurationType.isDebug());
 
         for (MailServerConfigurationType mailServerConfigurationType : mailConfigurationType.getServer()) {
 
@@ -167,166 +223,150 @@ public class MailTransport implements Transport {
             resultForServer.addContext("server", host);
             resultForServer.addContext("port", mailServerConfigurationType.getPort());
 
-            Properties properties = System.getProperties();
-            properties.setProperty("mail.smtp.host", host);
-            if (mailServerConfigurationType.getPort() != null) {
-                properties.setProperty("mail.smtp.port", String.valueOf(mailServerConfigurationType.getPort()));
-            }
-            MailTransportSecurityType mailTransportSecurityType = mailServerConfigurationType.getTransportSecurity();
-
-            boolean sslEnabled = false, starttlsEnable = false, starttlsRequired = false;
-            if (mailTransportSecurityType != null) {
-                switch (mailTransportSecurityType) {
-                    case STARTTLS_ENABLED:
-                        starttlsEnable = true;
-                        break;
-                    case STARTTLS_REQUIRED:
-                        starttlsEnable = true;
-                        starttlsRequired = true;
-                        break;
-                    case SSL:
-                        sslEnabled = true;
-                        break;
+            recordStateMessage(task, "Sending notification mail via " + host);
+
+            String password = null;
+            ProtectedStringType passwordProtected = mailServerConfigurationType.getPassword();
+            if (StringUtils.isNotEmpty(mailServerConfigurationType.getUsername()) && passwordProtected != null) {
+                try {
+                    password = protector.decryptString(passwordProtected);
+                } catch (EncryptionException e) {
+                    String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", because the plaintext password value couldn't be obtained. Trying another mail server, if there is any.";
+                    LoggingUtils.logException(LOGGER, msg, e);
+                    resultForServer.recordFatalError(msg, e);
+                    continue;
                 }
             }
-            properties.put("mail.smtp.ssl.enable", "" + sslEnabled);
-            properties.put("mail.smtp.starttls.enable", "" + starttlsEnable);
-            properties.put("mail.smtp.starttls.required", "" + starttlsRequired);
-            if (Boolean.TRUE.equals(mailConfigurationType.isDebug())) {
-                properties.put("mail.debug", "true");
-            }
 
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Using mail properties: ");
-                for (Object key : properties.keySet()) {
-                    if (key instanceof String && ((String) key).startsWith("mail.")) {
-                        LOGGER.debug(" - {} = {}", key, properties.get(key));
-                    }
+            try {
+                // All recipients of the message are sent in a single SMTP transaction.
+                connectionPool.send(mailServerConfigurationType, password, debug, maxConnections,
+                        session -> createMimeMessage(session, mailMessage, defaultFrom, content));
+                LOGGER.debug("Message sent successfully to " + mailMessage.getTo() + " via server " + host + ".");
+                resultForServer.recordSuccess();
+                result.recordSuccess();
+                long duration = System.currentTimeMillis() - start;
+                recordStateMessage(task, "Notification mail sent successfully via " + host + ", in " + duration + " ms overall.");
+                if (task != null) {
+                    task.recordNotificationOperation(NAME, true, duration);
                 }
+                return true;
+            } catch (MessagingException e) {
+                String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", trying another mail server, if there is any";
+                LoggingUtils.logException(LOGGER, msg, e);
+                resultForServer.recordFatalError(msg, e);
+                recordStateMessage(task, "Error sending notification mail via " + host);
             }
+        }
+        LOGGER.warn("No more mail servers to try, mail notification to " + mailMessage.getTo() + " will not be sent.");
+        result.recordWarning("Mail notification to " + mailMessage.getTo() + " could not be sent.");
+        if (task != null) {
+            task.recordNotificationOperation(NAME, false, System.currentTimeMillis() - start);
+        }
+        return false;
+    }
 
-            task.recordStateMessage("Sending notification mail via " + host);
+    private void recordStateMessage(Task task, String message) {
+        if (task != null) {
+            task.recordStateMessage(message);
+        }
+    }
 
-            Session session = Session.getInstance(properties);
+    private MimeMessage createMimeMessage(Session session, Message mailMessage, String defaultFrom, Multipart content)
+            throws MessagingException {
+        MimeMessage mimeMessage = new MimeMessage(session);
+        mimeMessage.setSentDate(new Date());
+        String from = mailMessage.getFrom() != null ? mailMessage.getFrom() : defaultFrom;
+        mimeMessage.setFrom(new InternetAddress(from));
 
-            try {
-                MimeMessage mimeMessage = new MimeMessage(session);
-                mimeMessage.setSentDate(new Date());
-                String from = mailMessage.getFrom() != null ? mailMessage.getFrom() : defaultFrom;
-                mimeMessage.setFrom(new InternetAddress(from));
+        for (String recipient : mailMessage.getTo()) {
+            mimeMessage.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(recipient));
+        }
+        for (String recipientCc : mailMessage.getCc()) {
+            mimeMessage.addRecipient(javax.mail.Message.RecipientType.CC, new InternetAddress(recipientCc));
+        }
+        for (String recipientBcc : mailMessage.getBcc()) {
+            mimeMessage.addRecipient(javax.mail.Message.RecipientType.BCC, new InternetAddress(recipientBcc));
+        }
+        mimeMessage.setSubject(mailMessage.getSubject(), StandardCharsets.UTF_8.name());
+        mimeMessage.setContent(content);
+        return mimeMessage;
+    }
 
-                for (String recipient : mailMessage.getTo()) {
-                    mimeMessage.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(recipient));
-                }
-                for (String recipientCc : mailMessage.getCc()) {
-                    mimeMessage.addRecipient(javax.mail.Message.RecipientType.CC, new InternetAddress(recipientCc));
-                }
-                for (String recipientBcc : mailMessage.getBcc()) {
-                    mimeMessage.addRecipient(javax.mail.Message.RecipientType.BCC, new InternetAddress(recipientBcc));
-                }
-                mimeMessage.setSubject(mailMessage.getSubject(), StandardCharsets.UTF_8.name());
-                String contentType = mailMessage.getContentType();
-                if (StringUtils.isEmpty(contentType)) {
-                    contentType = "text/plain; charset=UTF-8";
-                }
-                BodyPart messageBody = new MimeBodyPart();
-                messageBody.setContent(mailMessage.getBody(), contentType);
-                Multipart multipart = new MimeMultipart();
-                multipart.addBodyPart(messageBody);
-                for (NotificationMessageAttachmentType attachment : mailMessage.getAttachments()) {
-
-                    if (attachment.getContent() != null || attachment.getContentFromFile() != null) {
-                        String fileName;
-                        BodyPart attachmentBody = new MimeBodyPart();
-                        if (attachment.getContent() != null) {
-                            try {
-                                Object content = RawType.getValue(attachment.getContent());
-                                if (content == null) {
-                                    LOGGER.warn("RawType " + attachment.getContent() + " isn't possible to parse.");
-                                    return;
-                                }
-                                attachmentBody.setContent(content, attachment.getContentType());
-                            } catch (SchemaException e) {
+    /**
+     * Creates the body of the message with attachments. Returns null if some attachment can't be used
+     * (the message is not sent then).
+     */
+    private Multipart createContent(Message mailMessage) {
+        try {
+            String contentType = mailMessage.getContentType();
+            if (StringUtils.isEmpty(contentType)) {
+                contentType = "text/plain; charset=UTF-8";
+            }
+            BodyPart messageBody = new MimeBodyPart();
+            messageBody.setContent(mailMessage.getBody(), contentType);
+            Multipart multipart = new MimeMultipart();
+            multipart.addBodyPart(messageBody);
+            for (NotificationMessageAttachmentType attachment : mailMessage.getAttachments()) {
+
+                if (attachment.getContent() != null || attachment.getContentFromFile() != null) {
+                    String fileName;
+                    BodyPart attachmentBody = new MimeBodyPart();
+                    if (attachment.getContent() != null) {
+                        try {
+                            Object content = RawType.getValue(attachment.getContent());
+                            if (content == null) {
                                 LOGGER.warn("RawType " + attachment.getContent() + " isn't possible to parse.");
-                                return;
-                            }
-                            if (StringUtils.isBlank(attachment.getFileName())) {
-                                fileName = "attachment";
-                            } else {
-                                fileName = attachment.getFileName();
+                                return null;
                             }
-                        } else {
-                            if (!Files.isReadable(Paths.get(attachment.getContentFromFile()))) {
-                                LOGGER.warn("File " + attachment.getContentFromFile() + " non exist or isn't readable.");
-                                return;
-                            }
-
-                            DataSource source = new FileDataSource(attachment.getContentFromFile()) {
-                                @Override
-                                public String getContentType() {
-                                    return attachment.getContentType();
-                                }
-                            };
-                            attachmentBody.setDataHandler(new DataHandler(source));
-                            if (StringUtils.isBlank(attachment.getFileName())) {
-                                fileName = source.getName();
-                            } else {
-                                fileName = attachment.getFileName();
-                            }
-                        }
-
-                        if (!fileName.contains(".")) {
-                            fileName += MimeTypeUtil.getDefaultExt(attachment.getContentType());
+                            attachmentBody.setContent(content, attachment.getContentType());
+                        } catch (SchemaException e) {
+                            LOGGER.warn("RawType " + attachment.getContent() + " isn't possible to parse.");
+                            return null;
                         }
-                        attachmentBody.setFileName(fileName);
-                        if (!StringUtils.isBlank(attachment.getContentId())) {
-                            attachmentBody.setHeader("Content-ID", attachment.getContentId());
+                        if (StringUtils.isBlank(attachment.getFileName())) {
+                            fileName = "attachment";
+                        } else {
+                            fileName = attachment.getFileName();
                         }
-
-                        multipart.addBodyPart(attachmentBody);
                     } else {
-                        LOGGER.warn("NotificationMessageAttachmentType doesn't contain content.");
-                    }
-                }
+                        if (!Files.isReadable(Paths.get(attachment.getContentFromFile()))) {
+                            LOGGER.warn("File " + attachment.getContentFromFile() + " non exist or isn't readable.");
+                            return null;
+                        }
 
-                mimeMessage.setContent(multipart);
-                try (javax.mail.Transport t = session.getTransport("smtp")) {
-                    if (StringUtils.isNotEmpty(mailServerConfigurationType.getUsername())) {
-                        ProtectedStringType passwordProtected = mailServerConfigurationType.getPassword();
-                        String password = null;
-                        if (passwordProtected != null) {
-                            try {
-                                password = protector.decryptString(passwordProtected);
-                            } catch (EncryptionException e) {
-                                String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", because the plaintext password value couldn't be obtained. Trying another mail server, if there is any.";
-                                LoggingUtils.logException(LOGGER, msg, e);
-                                resultForServer.recordFatalError(msg, e);
-                                continue;
+                        DataSource source = new FileDataSource(attachment.getContentFromFile()) {
+                            @Override
+                            public String getContentType() {
+                                return attachment.getContentType();
                             }
+                        };
+                        attachmentBody.setDataHandler(new DataHandler(source));
+                        if (StringUtils.isBlank(attachment.getFileName())) {
+                            fileName = source.getName();
+                        } else {
+                            fileName = attachment.getFileName();
                         }
-                        t.connect(mailServerConfigurationType.getUsername(), password);
-                    } else {
-                        t.connect();
                     }
-                    t.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
-                    LOGGER.debug("Message sent successfully to " + mailMessage.getTo() + " via server " + host + ".");
-                    resultForServer.recordSuccess();
-                    result.recordSuccess();
-                    long duration = System.currentTimeMillis() - start;
-                    task.recordStateMessage("Notification mail sent successfully via " + host + ", in " + duration + " ms overall.");
-                    task.recordNotificationOperation(NAME, true, duration);
+
+                    if (!fileName.contains(".")) {
+                        fileName += MimeTypeUtil.getDefaultExt(attachment.getContentType());
+                    }
+                    attachmentBody.setFileName(fileName);
+                    if (!StringUtils.isBlank(attachment.getContentId())) {
+                        attachmentBody.setHeader("Content-ID", attachment.getContentId());
+                    }
+
+                    multipart.addBodyPart(attachmentBody);
+                } else {
+                    LOGGER.warn("NotificationMessageAttachmentType doesn't contain content.");
                 }
-                return;
-            } catch (MessagingException e) {
-                String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", trying another mail server, if there is any";
-                LoggingUtils.logException(LOGGER, msg, e);
-                resultForServer.recordFatalError(msg, e);
-                task.recordStateMessage("Error sending notification mail via " + host);
             }
+            return multipart;
+        } catch (MessagingException e) {
+            LoggingUtils.logException(LOGGER, "Couldn't create mail message to " + mailMessage.getTo(), e);
+            return null;
         }
-        LOGGER.warn("No more mail servers to try, mail notification to " + mailMessage.getTo() + " will not be sent.");
-        result.recordWarning("Mail notification to " + mailMessage.getTo() + " could not be sent.");
-        task.recordNotificationOperation(NAME, false, System.currentTimeMillis() - start);
     }
 
     @Override
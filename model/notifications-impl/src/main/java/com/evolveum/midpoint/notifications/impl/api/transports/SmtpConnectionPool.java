@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.lang.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailServerConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailTransportSecurityType;
+
+/**
+ * Keeps SMTP connections open for reuse, so that sending a message does not mean connecting (and possibly
+ * negotiating TLS and authenticating) to the mail server each time.
+ *
+ * There is one pool per mail server configuration. It limits the number of connections used at the same time:
+ * when all of them are busy, the sender waits for one to become free. Connections idle for too long are closed
+ * instead of being reused, as mail servers tend to drop them anyway. Connections closed by the server are detected
+ * (by `NOOP` command) and re-opened on the next use.
+ *
+ * Thread safe.
+ */
+public class SmtpConnectionPool {
+
+    private static final Trace LOGGER = TraceManager.getTrace(SmtpConnectionPool.class);
+
+    /** Connections idle for longer time are not reused. */
+    private static final long MAX_IDLE_TIME = 60_000;
+
+    /** How long to wait for a free connection when all of them are in use. */
+    private static final long BORROW_TIMEOUT = 60_000;
+
+    /** Pools keyed by everything that determines the session and the connection, see {@link #createKey}. */
+    private final Map<String, ServerPool> pools = new ConcurrentHashMap<>();
+
+    /** Creates the message to be sent using given session. */
+    @FunctionalInterface
+    public interface MessageFactory {
+        @NotNull MimeMessage create(@NotNull Session session) throws MessagingException;
+    }
+
+    /**
+     * Sends the message via given server, using a pooled connection (opening it if needed).
+     * If anything goes wrong, the connection is closed and the exception is thrown.
+     */
+    public void send(@NotNull MailServerConfigurationType server, @Nullable String password, boolean debug,
+            int maxConnections, @NotNull MessageFactory messageFactory) throws MessagingException {
+        ServerPool pool = pools.computeIfAbsent(
+                createKey(server, debug, maxConnections),
+                key -> new ServerPool(server, debug, maxConnections));
+        MimeMessage message = messageFactory.create(pool.session);
+        PooledConnection connection = pool.borrow();
+        boolean success = false;
+        try {
+            connection.ensureConnected(server.getUsername(), password);
+            connection.transport.sendMessage(message, message.getAllRecipients());
+            success = true;
+        } finally {
+            pool.giveBack(connection, success);
+        }
+    }
+
+    /** Closes all idle connections and forgets the pools. Connections in use are closed when given back. */
+    public void closeAll() {
+        pools.values().forEach(ServerPool::closeIdleConnections);
+        pools.clear();
+    }
+
+    private static String createKey(MailServerConfigurationType server, boolean debug, int maxConnections) {
+        return server.getHost() + ":" + server.getPort() + ":" + server.getTransportSecurity() + ":"
+                + server.getUsername() + ":" + debug + ":" + maxConnections;
+    }
+
+    private static class ServerPool {
+
+        @NotNull private final String host;
+        @NotNull private final Session session;
+        @NotNull private final Semaphore permits;
+
+        /** Idle connections, the most recently used first. Guarded by itself. */
+        @NotNull private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+
+        private ServerPool(MailServerConfigurationType server, boolean debug, int maxConnections) {
+            this.host = server.getHost();
+            this.session = Session.getInstance(createProperties(server, debug));
+            this.permits = new Semaphore(Math.max(maxConnections, 1), true);
+        }
+
+        private PooledConnection borrow() throws MessagingException {
+            try {
+                if (!permits.tryAcquire(BORROW_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    throw new MessagingException("Timed out waiting for a free connection to " + host);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MessagingException("Interrupted while waiting for a free connection to " + host, e);
+            }
+            try {
+                PooledConnection connection;
+                synchronized (idleConnections) {
+                    connection = idleConnections.pollFirst();
+                }
+                if (connection != null && System.currentTimeMillis() - connection.lastUsed > MAX_IDLE_TIME) {
+                    LOGGER.trace("Closing connection to {} that was idle for too long", host);
+                    connection.close();
+                    connection = null;
+                }
+                return connection != null ? connection : new PooledConnection(session.getTransport("smtp"));
+            } catch (MessagingException | RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void giveBack(PooledConnection connection, boolean reusable) {
+            try {
+                if (reusable) {
+                    connection.lastUsed = System.currentTimeMillis();
+                    synchronized (idleConnections) {
+                        idleConnections.addFirst(connection);
+                    }
+                } else {
+                    connection.close();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+
+        private void closeIdleConnections() {
+            synchronized (idleConnections) {
+                idleConnections.forEach(PooledConnection::close);
+                idleConnections.clear();
+            }
+        }
+
+        private static Properties createProperties(MailServerConfigurationType server, boolean debug) {
+            // System properties are used as defaults, so any mail.* properties set there are still in effect.
+            Properties properties = new Properties(System.getProperties());
+            properties.setProperty("mail.smtp.host", server.getHost());
+            if (server.getPort() != null) {
+                properties.setProperty("mail.smtp.port", String.valueOf(server.getPort()));
+            }
+            MailTransportSecurityType transportSecurity = server.getTransportSecurity();
+            boolean sslEnabled = false, starttlsEnable = false, starttlsRequired = false;
+            if (transportSecurity != null) {
+                switch (transportSecurity) {
+                    case STARTTLS_ENABLED:
+                        starttlsEnable = true;
+                        break;
+                    case STARTTLS_REQUIRED:
+                        starttlsEnable = true;
+                        starttlsRequired = true;
+                        break;
+                    case SSL:
+                        sslEnabled = true;
+                        break;
+                }
+            }
+            properties.setProperty("mail.smtp.ssl.enable", String.valueOf(sslEnabled));
+            properties.setProperty("mail.smtp.starttls.enable", String.valueOf(starttlsEnable));
+            properties.setProperty("mail.smtp.starttls.required", String.valueOf(starttlsRequired));
+            if (debug) {
+                properties.setProperty("mail.debug", "true");
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Using mail properties for {}: ", server.getHost());
+                for (String key : properties.stringPropertyNames()) {
+                    if (key.startsWith("mail.")) {
+                        LOGGER.debug(" - {} = {}", key, properties.getProperty(key));
+                    }
+                }
+            }
+            return properties;
+        }
+    }
+
+    private static class PooledConnection {
+
+        @NotNull private final Transport transport;
+        private long lastUsed;
+
+        private PooledConnection(@NotNull Transport transport) {
+            this.transport = transport;
+        }
+
+        /** Note that {@link Transport#isConnected()} checks the SMTP connection by sending `NOOP` command. */
+        private void ensureConnected(String username, String password) throws MessagingException {
+            if (transport.isConnected()) {
+                return;
+            }
+            if (StringUtils.isNotEmpty(username)) {
+                transport.connect(username, password);
+            } else {
+                transport.connect();
+            }
+        }
+
+        private void close() {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOGGER.debug("Couldn't close SMTP connection, ignoring: {}", e.getMessage(), e);
+            }
+        }
+    }
+}
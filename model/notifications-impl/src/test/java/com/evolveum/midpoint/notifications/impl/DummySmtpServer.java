@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.notifications.impl;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process SMTP server for tests. Accepts everything and remembers the messages received.
+ * Only the commands used by JavaMail for plain (unauthenticated, unencrypted) sending are supported.
+ */
+public class DummySmtpServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionsAccepted = new AtomicInteger();
+    private final AtomicInteger maxConcurrentConnections = new AtomicInteger();
+    private final List<ReceivedMessage> messages = new CopyOnWriteArrayList<>();
+
+    public DummySmtpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptConnections, "dummy-smtp-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionsAccepted() {
+        return connectionsAccepted.get();
+    }
+
+    public int getMaxConcurrentConnections() {
+        return maxConcurrentConnections.get();
+    }
+
+    public List<ReceivedMessage> getMessages() {
+        return messages;
+    }
+
+    /** Closes all client connections, like a server dropping idle connections does. */
+    public void dropConnections() throws IOException {
+        for (Socket socket : openSockets) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropConnections();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionsAccepted.incrementAndGet();
+                openSockets.add(socket);
+                maxConcurrentConnections.accumulateAndGet(openSockets.size(), Math::max);
+                Thread handler = new Thread(() -> handleConnection(socket), "dummy-smtp-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // server socket closed
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try (socket;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+            reply(out, "220 localhost Dummy SMTP");
+            List<String> recipients = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.toUpperCase();
+                if (command.startsWith("EHLO") || command.startsWith("HELO")) {
+                    reply(out, "250 localhost");
+                } else if (command.startsWith("MAIL FROM")) {
+                    recipients.clear();
+                    reply(out, "250 OK");
+                } else if (command.startsWith("RCPT TO")) {
+                    recipients.add(line.substring(line.indexOf('<') + 1, line.indexOf('>')));
+                    reply(out, "250 OK");
+                } else if (command.startsWith("DATA")) {
+                    reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                    StringBuilder data = new StringBuilder();
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        data.append(line).append('\n');
+                    }
+                    messages.add(new ReceivedMessage(new ArrayList<>(recipients), data.toString()));
+                    reply(out, "250 OK");
+                } else if (command.startsWith("RSET") || command.startsWith("NOOP")) {
+                    reply(out, "250 OK");
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 Bye");
+                    break;
+                } else {
+                    reply(out, "502 Command not implemented");
+                }
+            }
+        } catch (IOException e) {
+            // connection dropped
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    private void reply(Writer out, String reply) throws IOException {
+        out.write(reply + "\r\n");
+        out.flush();
+    }
+
+    public static class ReceivedMessage {
+
+        public final List<String> recipients;
+        public final String data;
+
+        ReceivedMessage(List<String> recipients, String data) {
+            this.recipients = recipients;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.notifications.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.impl.api.transports.MailTransport;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.NotificationOutboxStore;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationMessageType;
+
+/**
+ * Tests retries, backoff and giving up of {@link NotificationOutboxDispatcher}, using in-memory outbox
+ * and mail transport that fails on demand.
+ */
+public class TestNotificationOutboxDispatcher extends AbstractUnitTest {
+
+    private static final String TRANSPORT_NAME = "mail";
+    private static final long RETRY_INTERVAL = 1000;
+
+    private InMemoryOutboxStore outboxStore;
+    private TestMailTransport mailTransport;
+    private NotificationOutboxDispatcher dispatcher;
+
+    @BeforeMethod
+    public void createDispatcher() {
+        outboxStore = new InMemoryOutboxStore();
+        mailTransport = new TestMailTransport();
+        TransportRegistry transportRegistry = new TransportRegistry();
+        transportRegistry.registerTransport(TRANSPORT_NAME, mailTransport);
+        dispatcher = new NotificationOutboxDispatcher();
+        dispatcher.setOutboxStore(outboxStore);
+        dispatcher.setTransportRegistry(transportRegistry);
+        dispatcher.init();
+    }
+
+    @AfterMethod
+    public void shutdownDispatcher() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void test100DeliveredOnFirstAttempt() {
+        given("message in the outbox and working mail server");
+        long id = outboxStore.addMessage(TRANSPORT_NAME, message("user@example.com"), new OperationResult("add"));
+        mailTransport.failuresToDo = 0;
+
+        when("outbox is dispatched");
+        dispatcher.dispatch();
+
+        then("message is delivered and deleted, without any reschedule");
+        assertThat(mailTransport.delivered).containsExactly("user@example.com");
+        assertThat(outboxStore.deleted).containsExactly(id);
+        assertThat(outboxStore.reschedules).isEmpty();
+    }
+
+    @Test
+    public void test200RetriedWithBackoffUntilGivingUp() {
+        given("message in the outbox, failing mail server, and 9 attempts allowed");
+        long id = outboxStore.addMessage(TRANSPORT_NAME, message("user@example.com"), new OperationResult("add"));
+        mailTransport.failuresToDo = Integer.MAX_VALUE;
+        mailTransport.configuration.setMaxAttempts(9);
+
+        when("outbox is dispatched whenever the message is due");
+        for (int attempt = 1; attempt <= 9; attempt++) {
+            dispatcher.dispatch();
+            outboxStore.makeAllDue();
+        }
+
+        then("each failed attempt but the last one is rescheduled with doubled delay (up to 64 times the interval)");
+        assertThat(mailTransport.attempts).isEqualTo(9);
+        assertThat(outboxStore.reschedules).hasSize(8);
+        long[] expectedMultipliers = { 1, 2, 4, 8, 16, 32, 64, 64 };
+        for (int i = 0; i < expectedMultipliers.length; i++) {
+            Reschedule reschedule = outboxStore.reschedules.get(i);
+            long expectedDelay = expectedMultipliers[i] * RETRY_INTERVAL;
+            assertThat(reschedule.id).isEqualTo(id);
+            assertThat(reschedule.delay())
+                    .as("delay after attempt %d", i + 1)
+                    .isBetween(expectedDelay - 1000, expectedDelay);
+            assertThat(reschedule.error).isEqualTo("Mail server is not available");
+        }
+
+        and("after the last attempt the message is discarded");
+        assertThat(outboxStore.deleted).containsExactly(id);
+        assertThat(outboxStore.messages).isEmpty();
+        assertThat(mailTransport.delivered).isEmpty();
+    }
+
+    @Test
+    public void test210DeliveredAfterFailures() {
+        given("message in the outbox and mail server failing twice");
+        long id = outboxStore.addMessage(TRANSPORT_NAME, message("user@example.com"), new OperationResult("add"));
+        mailTransport.failuresToDo = 2;
+
+        when("outbox is dispatched without waiting for the retry");
+        dispatcher.dispatch();
+
+        then("message is not claimed again before its next attempt");
+        assertThat(mailTransport.attempts).isEqualTo(1);
+        assertThat(outboxStore.messages).containsKey(id);
+
+        when("outbox is dispatched whenever the message is due");
+        for (int i = 0; i < 2; i++) {
+            outboxStore.makeAllDue();
+            dispatcher.dispatch();
+        }
+
+        then("message is delivered on the third attempt and deleted");
+        assertThat(mailTransport.attempts).isEqualTo(3);
+        assertThat(outboxStore.reschedules).hasSize(2);
+        assertThat(mailTransport.delivered).containsExactly("user@example.com");
+        assertThat(outboxStore.deleted).containsExactly(id);
+    }
+
+    @Test
+    public void test300DefaultRetryIntervalWithoutMailConfiguration() {
+        given("message in the outbox and no mail configuration");
+        long id = outboxStore.addMessage(TRANSPORT_NAME, message("user@example.com"), new OperationResult("add"));
+        mailTransport.configuration = null;
+
+        when("outbox is dispatched");
+        dispatcher.dispatch();
+
+        then("message is rescheduled after the default interval of one minute");
+        assertThat(mailTransport.attempts).isZero();
+        assertThat(outboxStore.reschedules).hasSize(1);
+        assertThat(outboxStore.reschedules.get(0).delay()).isBetween(59_000L, 60_000L);
+        assertThat(outboxStore.reschedules.get(0).error).isEqualTo("No mail configuration");
+        assertThat(outboxStore.messages).containsKey(id);
+    }
+
+    private NotificationMessageType message(String to) {
+        return new NotificationMessageType()
+                .to(to)
+                .subject("Test")
+                .body("Hello");
+    }
+
+    private static class Reschedule {
+
+        private final long id;
+        private final long nextAttempt;
+        private final long rescheduledAt;
+        private final String error;
+
+        private Reschedule(long id, long nextAttempt, long rescheduledAt, String error) {
+            this.id = id;
+            this.nextAttempt = nextAttempt;
+            this.rescheduledAt = rescheduledAt;
+            this.error = error;
+        }
+
+        private long delay() {
+            return nextAttempt - rescheduledAt;
+        }
+    }
+
+    /** Outbox kept in memory, recording the operations. Claimed messages are not due until the end of the lease. */
+    private static class InMemoryOutboxStore implements NotificationOutboxStore {
+
+        private final Map<Long, QueuedMessage> messages = new TreeMap<>();
+        private final Map<Long, Long> nextAttempts = new TreeMap<>();
+        private final List<Reschedule> reschedules = new ArrayList<>();
+        private final List<Long> deleted = new ArrayList<>();
+        private long lastId;
+
+        @Override
+        public synchronized long addMessage(@NotNull String transportName, @NotNull NotificationMessageType message,
+                @NotNull OperationResult parentResult) {
+            long id = ++lastId;
+            messages.put(id, new QueuedMessage(id, transportName, message, 0));
+            nextAttempts.put(id, System.currentTimeMillis());
+            return id;
+        }
+
+        @Override
+        public synchronized @NotNull List<QueuedMessage> claimMessages(int limit, long leaseDuration,
+                @NotNull OperationResult parentResult) {
+            long now = System.currentTimeMillis();
+            List<QueuedMessage> claimed = new ArrayList<>();
+            for (QueuedMessage message : messages.values()) {
+                if (claimed.size() < limit && nextAttempts.get(message.getId()) <= now) {
+                    nextAttempts.put(message.getId(), now + leaseDuration);
+                    claimed.add(message);
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public synchronized void rescheduleMessage(long id, long nextAttempt, @Nullable String error,
+                @NotNull OperationResult parentResult) {
+            reschedules.add(new Reschedule(id, nextAttempt, System.currentTimeMillis(), error));
+            QueuedMessage message = messages.get(id);
+            messages.put(id, new QueuedMessage(id, message.getTransportName(), message.getMessage(),
+                    message.getAttempts() + 1));
+            nextAttempts.put(id, nextAttempt);
+        }
+
+        @Override
+        public synchronized void deleteMessage(long id, @NotNull OperationResult parentResult) {
+            deleted.add(id);
+            messages.remove(id);
+            nextAttempts.remove(id);
+        }
+
+        /** Simulates waiting for the next attempt (or lease expiration) of all messages. */
+        synchronized void makeAllDue() {
+            nextAttempts.replaceAll((id, nextAttempt) -> 0L);
+        }
+    }
+
+    /** Mail transport that fails given number of times and then records the delivered messages. */
+    private static class TestMailTransport extends MailTransport {
+
+        private MailConfigurationType configuration = new MailConfigurationType()
+                .retryInterval(XmlTypeConverter.createDuration(RETRY_INTERVAL));
+        private int failuresToDo;
+        private int attempts;
+        private final List<String> delivered = new ArrayList<>();
+
+        @Override
+        public @Nullable MailConfigurationType getConfiguration() {
+            return configuration;
+        }
+
+        @Override
+        public synchronized boolean deliver(@NotNull Message mailMessage,
+                @NotNull MailConfigurationType mailConfigurationType, @Nullable Task task,
+                @NotNull OperationResult result) {
+            attempts++;
+            if (failuresToDo > 0) {
+                failuresToDo--;
+                result.recordFatalError("Mail server is not available");
+                return false;
+            }
+            delivered.addAll(mailMessage.getTo());
+            result.recordSuccess();
+            return true;
+        }
+    }
+}
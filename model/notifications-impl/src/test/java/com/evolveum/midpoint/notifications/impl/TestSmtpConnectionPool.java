@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.notifications.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.notifications.impl.api.transports.SmtpConnectionPool;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.MailServerConfigurationType;
+
+/**
+ * Tests reuse of SMTP connections against {@link DummySmtpServer}.
+ */
+public class TestSmtpConnectionPool extends AbstractUnitTest {
+
+    private DummySmtpServer smtpServer;
+    private SmtpConnectionPool connectionPool;
+
+    @BeforeClass
+    public void startServer() throws Exception {
+        smtpServer = new DummySmtpServer();
+    }
+
+    @AfterClass
+    public void stopServer() throws Exception {
+        smtpServer.close();
+    }
+
+    @BeforeMethod
+    public void createPool() {
+        connectionPool = new SmtpConnectionPool();
+    }
+
+    @Test
+    public void test100SendMessagesOverSingleConnection() throws Exception {
+        given("no messages were sent yet");
+        int connectionsBefore = smtpServer.getConnectionsAccepted();
+        int messagesBefore = smtpServer.getMessages().size();
+
+        when("three messages are sent one after another");
+        for (int i = 1; i <= 3; i++) {
+            send("user" + i + "@example.com", 1);
+        }
+
+        then("they are all delivered using one connection");
+        assertThat(smtpServer.getConnectionsAccepted() - connectionsBefore).isEqualTo(1);
+        assertThat(smtpServer.getMessages().subList(messagesBefore, smtpServer.getMessages().size()))
+                .extracting(m -> m.recipients)
+                .containsExactly(
+                        List.of("user1@example.com"),
+                        List.of("user2@example.com"),
+                        List.of("user3@example.com"));
+        connectionPool.closeAll();
+    }
+
+    @Test
+    public void test200ReconnectAfterConnectionIsDropped() throws Exception {
+        given("a pooled connection that was dropped by the server");
+        send("before@example.com", 1);
+        int connectionsBefore = smtpServer.getConnectionsAccepted();
+        smtpServer.dropConnections();
+
+        when("another message is sent");
+        send("after@example.com", 1);
+
+        then("it is delivered using a new connection");
+        assertThat(smtpServer.getConnectionsAccepted() - connectionsBefore).isEqualTo(1);
+        assertThat(smtpServer.getMessages())
+                .extracting(m -> m.recipients)
+                .contains(List.of("after@example.com"));
+        connectionPool.closeAll();
+    }
+
+    @Test
+    public void test300ConcurrentSendersAreLimited() throws Exception {
+        given("server without any client connections");
+        smtpServer.dropConnections();
+        int connectionsBefore = smtpServer.getConnectionsAccepted();
+        int messagesBefore = smtpServer.getMessages().size();
+
+        when("twenty messages are sent by five threads, with at most two connections");
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String recipient = "concurrent" + i + "@example.com";
+            futures.add(executor.submit(() -> {
+                send(recipient, 2);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        then("all are delivered using no more than two connections");
+        assertThat(smtpServer.getMessages().size() - messagesBefore).isEqualTo(20);
+        assertThat(smtpServer.getConnectionsAccepted() - connectionsBefore).isBetween(1, 2);
+        assertThat(smtpServer.getMaxConcurrentConnections()).isLessThanOrEqualTo(2);
+        connectionPool.closeAll();
+    }
+
+    private void send(String recipient, int maxConnections) throws MessagingException {
+        MailServerConfigurationType server = new MailServerConfigurationType()
+                .host(smtpServer.getHost())
+                .port(smtpServer.getPort());
+        connectionPool.send(server, null, false, maxConnections, session -> {
+            MimeMessage message = new MimeMessage(session);
+            message.setFrom(new InternetAddress("midpoint@example.com"));
+            message.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(recipient));
+            message.setSubject("Test");
+            message.setText("Hello");
+            return message;
+        });
+    }
+}
@@ -54,12 +54,20 @@ public class ExportActivitySupport extends ReportActivitySupport {
     }
 
     /**
-     * Save exported report to a file.
+     * Open a file for exported report that is written piece by piece.
      */
-    public void saveReportFile(String aggregatedData,
+    SaveReportFileSupport.ReportFile openReportFile(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        return saveSupport.openReportFile(dataWriter);
+    }
+
+    /**
+     * Save exported report (written piece by piece) to a file.
+     */
+    void saveReportFile(SaveReportFileSupport.ReportFile reportFile,
             ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
             OperationResult result) throws CommonException {
-        saveSupport.saveReportFile(aggregatedData, dataWriter, result);
+        saveSupport.saveReportFile(reportFile, dataWriter, result);
     }
 
     public void saveReportFile(ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
@@ -7,6 +7,7 @@
 
 package com.evolveum.midpoint.report.impl.activity;
 
+import java.io.IOException;
 import java.util.List;
 
 import com.evolveum.midpoint.prism.PrismContext;
@@ -31,6 +32,7 @@ import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ReportDataType;
 
 final class ReportDataAggregationActivityRun
@@ -46,11 +48,14 @@ final class ReportDataAggregationActivityRun
     @NotNull private final DistributedReportExportActivitySupport support;
 
     /**
-     * Data from all the partial reports.
-     *
-     * TODO eliminate gathering in memory: write to a file immediately after getting the data.
+     * File into which data from all the partial reports are written, immediately after getting them.
      */
-    private final StringBuilder aggregatedData = new StringBuilder();
+    private SaveReportFileSupport.ReportFile reportFile;
+
+    /**
+     * True if the report file was finished and stored. Otherwise it is deleted when the run ends.
+     */
+    private boolean reportFileSaved;
 
     /**
      * Data writer which completes the content of the report.
@@ -70,6 +75,13 @@ final class ReportDataAggregationActivityRun
 
         dataWriter = ReportUtils.createDataWriter(
                 support.getReport(), FileFormatTypeType.CSV, getActivityHandler().reportService, support.getCompiledCollectionView(result));
+
+        reportFile = support.openReportFile(dataWriter);
+        try {
+            dataWriter.writeReportPrefix(reportFile.getWriter());
+        } catch (IOException e) {
+            throw new SystemException("Couldn't write aggregated report to " + reportFile.getPath(), e);
+        }
     }
 
     @Override
@@ -93,13 +105,38 @@ final class ReportDataAggregationActivityRun
             @NotNull ItemProcessingRequest<ReportDataType> request, RunningTask workerTask, OperationResult result)
             throws CommonException, ActivityRunException {
         LOGGER.info("Appending data from {} (and deleting the object)", reportData);
-        aggregatedData.append(reportData.getData());
+        String data = reportData.getData();
+        if (data != null) {
+            try {
+                dataWriter.writeAggregatedData(reportFile.getWriter(), data);
+            } catch (IOException e) {
+                throw new SystemException("Couldn't write aggregated report to " + reportFile.getPath(), e);
+            }
+        }
         getActivityHandler().commonTaskBeans.repositoryService.deleteObject(ReportDataType.class, reportData.getOid(), result);
         return true;
     }
 
     @Override
     public void afterRun(OperationResult result) throws CommonException, ActivityRunException {
-        support.saveReportFile(aggregatedData.toString(), dataWriter, result);
+        if (!getRunningTask().canRun()) {
+            LOGGER.info("Report data aggregation was stopped, not saving the incomplete report {}", reportFile.getPath());
+            return;
+        }
+        try {
+            dataWriter.writeReportSuffix(reportFile.getWriter());
+        } catch (IOException e) {
+            throw new SystemException("Couldn't write aggregated report to " + reportFile.getPath(), e);
+        }
+        support.saveReportFile(reportFile, dataWriter, result);
+        reportFileSaved = true;
+    }
+
+    @Override
+    public void cleanupRun(OperationResult result) {
+        if (reportFile != null && !reportFileSaved) {
+            LOGGER.debug("Deleting unfinished aggregated report file {}", reportFile.getPath());
+            reportFile.discard();
+        }
     }
 }
@@ -41,7 +41,10 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -79,11 +82,29 @@ class SaveReportFileSupport {
         this.storeType = storeType == null ? StoreExportedWidgetDataType.ONLY_FILE : storeType;
     }
 
-    public void saveReportFile(String aggregatedData,
+    /**
+     * Opens the destination file, so the (aggregated) report can be written into it piece by piece.
+     * The file is to be finished by {@link #saveReportFile(ReportFile, ReportDataWriter, OperationResult)}.
+     */
+    public ReportFile openReportFile(
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
+        String aggregatedFilePath = getDestinationFileName(report, dataWriter);
+        try {
+            return new ReportFile(aggregatedFilePath,
+                    Files.newBufferedWriter(Paths.get(aggregatedFilePath), Charset.defaultCharset()));
+        } catch (IOException e) {
+            throw new SystemException("Couldn't open aggregated report file " + aggregatedFilePath, e);
+        }
+    }
+
+    /**
+     * Closes the report file written piece by piece, and stores it just like other exported reports.
+     */
+    public void saveReportFile(@NotNull ReportFile reportFile,
             ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
             OperationResult result) throws CommonException {
-
-        storeExportedReport(dataWriter.completizeReport(aggregatedData), dataWriter, result);
+        reportFile.close();
+        storeReportFile(reportFile.getPath(), dataWriter, result);
     }
 
     public void saveReportFile(ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
@@ -94,15 +115,11 @@ class SaveReportFileSupport {
     private void storeExportedReport(String completizedReport,
             ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
             OperationResult result) throws CommonException {
-        String aggregatedFilePath = getDestinationFileName(report, dataWriter);
-
         if (StoreExportedWidgetDataType.ONLY_FILE.equals(storeType)
                 || StoreExportedWidgetDataType.WIDGET_AND_FILE.equals(storeType)) {
+            String aggregatedFilePath = getDestinationFileName(report, dataWriter);
             writeToReportFile(completizedReport, aggregatedFilePath);
-            saveReportDataObject(dataWriter, aggregatedFilePath, result);
-            if (report.getPostReportScript() != null) {
-                processPostReportScript(report, aggregatedFilePath, runningTask, result);
-            }
+            storeReportFile(aggregatedFilePath, dataWriter, result);
         }
         if ((StoreExportedWidgetDataType.ONLY_WIDGET.equals(storeType)
                 || StoreExportedWidgetDataType.WIDGET_AND_FILE.equals(storeType))
@@ -155,6 +172,15 @@ class SaveReportFileSupport {
         }
     }
 
+    private void storeReportFile(String aggregatedFilePath,
+            ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter,
+            OperationResult result) throws CommonException {
+        saveReportDataObject(dataWriter, aggregatedFilePath, result);
+        if (report.getPostReportScript() != null) {
+            processPostReportScript(report, aggregatedFilePath, runningTask, result);
+        }
+    }
+
     private String getDestinationFileName(ReportType reportType,
             ReportDataWriter<? extends ExportedReportDataRow, ? extends ExportedReportHeaderRow> dataWriter) {
         File exportDir = ReportSupportUtil.getOrCreateExportDir();
@@ -269,4 +295,52 @@ class SaveReportFileSupport {
             LOGGER.error("An exception has occurred during post report script execution {}", e.getLocalizedMessage(), e);
         }
     }
+
+    /**
+     * Report file that is being written piece by piece.
+     */
+    static class ReportFile implements AutoCloseable {
+
+        @NotNull private final String path;
+        @NotNull private final Writer writer;
+
+        private ReportFile(@NotNull String path, @NotNull Writer writer) {
+            this.path = path;
+            this.writer = writer;
+        }
+
+        @NotNull String getPath() {
+            return path;
+        }
+
+        @NotNull Writer getWriter() {
+            return writer;
+        }
+
+        @Override
+        public void close() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                throw new SystemException("Couldn't write aggregated report to " + path, e);
+            }
+        }
+
+        /**
+         * Closes and deletes the file that was not finished, e.g. because the run failed or was suspended.
+         * Problems are only logged, as this is done when the run is already ending.
+         */
+        void discard() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.warn("Couldn't close unfinished report file {}", path, e);
+            }
+            try {
+                Files.deleteIfExists(Paths.get(path));
+            } catch (IOException e) {
+                LOGGER.warn("Couldn't delete unfinished report file {}", path, e);
+            }
+        }
+    }
 }
@@ -16,6 +16,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.*;
 import java.util.function.Function;
 
@@ -37,6 +39,12 @@ public class HtmlDashboardReportDataWriter
      */
     @NotNull private final Map<String, String> widgetsData = new HashMap<>();
 
+    /**
+     * Aggregated data. Tables of individual widgets are interleaved in partial data, so they cannot be written
+     * to the output until all the data are known. (Dashboard reports are not distributed anyway.)
+     */
+    @NotNull private final StringBuilder aggregatedData = new StringBuilder();
+
     public HtmlDashboardReportDataWriter(ReportServiceImpl reportService, Map<String,
             CompiledObjectCollectionView> mapOfCompiledView,
             @Nullable FileFormatConfigurationType configuration) {
@@ -173,6 +181,21 @@ public class HtmlDashboardReportDataWriter
         return body.toString();
     }
 
+    @Override
+    public void writeReportPrefix(@NotNull Writer output) {
+        aggregatedData.setLength(0);
+    }
+
+    @Override
+    public void writeAggregatedData(@NotNull Writer output, @NotNull String partialData) {
+        aggregatedData.append(partialData);
+    }
+
+    @Override
+    public void writeReportSuffix(@NotNull Writer output) throws IOException {
+        output.write(completizeReport(aggregatedData.toString()));
+    }
+
     private CommonHtmlSupport getDefaultSupport() {
         return data.get(BASIC_WIDGET_ROW_KEY).support;
     }
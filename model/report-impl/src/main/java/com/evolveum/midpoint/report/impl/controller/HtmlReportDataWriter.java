@@ -19,6 +19,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
 /**
@@ -32,6 +34,9 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
 
     @Nullable private final FileFormatConfigurationType configuration;
 
+    /** Whether the `tbody` element was already opened when writing aggregated data. */
+    private boolean tableBodyOpened;
+
     public HtmlReportDataWriter(ReportServiceImpl reportService, CompiledObjectCollectionView compiledView,
             @Nullable FileFormatConfigurationType configuration) {
         this.support = new CommonHtmlSupport(reportService.getClock(), compiledView);
@@ -106,6 +111,44 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
         return completizeReportInternal(getStringData(), false);
     }
 
+    @Override
+    public void writeReportPrefix(@NotNull Writer output) throws IOException {
+        tableBodyOpened = false;
+        output.write(createReportPrefix());
+        output.write(createTableBoxPrefix(support));
+    }
+
+    /**
+     * Streaming version of {@link #parseAgregatedData(String)}: the header goes first, all the rows are put
+     * into a single `tbody` element.
+     */
+    @Override
+    public void writeAggregatedData(@NotNull Writer output, @NotNull String partialData) throws IOException {
+        if (partialData.isEmpty()) {
+            return;
+        }
+        String rows = partialData;
+        if (!tableBodyOpened && partialData.contains("</thead>")) {
+            String tHeader = partialData.substring(0, partialData.indexOf("</thead>") + 8);
+            output.write(tHeader);
+            rows = partialData.replace(tHeader, "");
+        }
+        if (!tableBodyOpened) {
+            output.write("<tbody>");
+            tableBodyOpened = true;
+        }
+        output.write(rows.replaceAll("<tbody>", "").replaceAll("</tbody>", ""));
+    }
+
+    @Override
+    public void writeReportSuffix(@NotNull Writer output) throws IOException {
+        if (tableBodyOpened) {
+            output.write("</tbody>");
+        }
+        output.write(createTableBoxSuffix());
+        output.write("</div>");
+    }
+
     @Override
     public String getTypeSuffix() {
         return ".html";
@@ -122,10 +165,8 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
     }
 
     private String completizeReportInternal(String aggregatedData, boolean parseData) {
-        String cssStyle = support.getCssStyle();
-
         StringBuilder body = new StringBuilder();
-        body.append("<div> <style> ").append(cssStyle).append(" </style>");
+        body.append(createReportPrefix());
 
         String table = createTableBox(aggregatedData, support, parseData);
         body.append(table).append("</div>");
@@ -133,8 +174,22 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
         return body.toString();
     }
 
+    private String createReportPrefix() {
+        return "<div> <style> " + support.getCssStyle() + " </style>";
+    }
+
     protected String createTableBox(String aggregatedData, CommonHtmlSupport support, boolean parseData) {
-        StringBuilder table = new StringBuilder();
+        String parsedData;
+        if (parseData) {
+            parsedData = parseAgregatedData(aggregatedData);
+        } else {
+            parsedData = aggregatedData;
+        }
+
+        return createTableBoxPrefix(support) + parsedData + createTableBoxSuffix();
+    }
+
+    private String createTableBoxPrefix(CommonHtmlSupport support) {
         String style = support.getCssStyleOfTable();
         String classes = support.getCssClassOfTable();
 
@@ -144,19 +199,11 @@ public class HtmlReportDataWriter<ED extends ExportedReportDataRow, EH extends E
         String tableBox = TagCreator.div().withClasses("box", "boxed-table", classes).withStyle(style).with(div).render();
         tableBox = tableBox.substring(0, tableBox.length() - 6);
 
-        String parsedData;
-        if (parseData) {
-            parsedData = parseAgregatedData(aggregatedData);
-        } else {
-            parsedData = aggregatedData;
-        }
+        return tableBox + "<table class=\"table table-striped table-hover table-bordered\">";
+    }
 
-        table.append(tableBox)
-                .append("<table class=\"table table-striped table-hover table-bordered\">")
-                .append(parsedData)
-                .append("</table>")
-                .append("</div>");
-        return table.toString();
+    private String createTableBoxSuffix() {
+        return "</table></div>";
     }
 
     private String parseAgregatedData(String aggregatedData) {
@@ -9,8 +9,11 @@ package com.evolveum.midpoint.report.impl.controller;
 
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FileFormatConfigurationType;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.function.Function;
 
 /**
@@ -23,7 +26,10 @@ import java.util.function.Function;
  *
  * 2. Produces final string form when asked to do so.
  *
- * 2. Holds the file-format-specific configuration.
+ * 3. Writes the final form of aggregated (distributed) report to the output piece by piece, see
+ * {@link #writeReportPrefix(Writer)}, {@link #writeAggregatedData(Writer, String)} and {@link #writeReportSuffix(Writer)}.
+ *
+ * 4. Holds the file-format-specific configuration.
  */
 public interface ReportDataWriter<ED extends ExportedReportDataRow, EH extends ExportedReportHeaderRow> {
 
@@ -69,6 +75,29 @@ public interface ReportDataWriter<ED extends ExportedReportDataRow, EH extends E
      */
     String completizeReport();
 
+    /**
+     * Writes the part of the aggregated report that precedes any data.
+     *
+     * Together with {@link #writeAggregatedData(Writer, String)} and {@link #writeReportSuffix(Writer)} this is the streaming
+     * counterpart of {@link #completizeReport(String)}: the output is the same, but partial data need not be kept in memory.
+     */
+    default void writeReportPrefix(@NotNull Writer output) throws IOException {
+    }
+
+    /**
+     * Writes data of one partial report (as produced by {@link #getStringData()}) to the aggregated report.
+     * Partial data are expected to come in their natural order.
+     */
+    default void writeAggregatedData(@NotNull Writer output, @NotNull String partialData) throws IOException {
+        output.write(partialData);
+    }
+
+    /**
+     * Writes the part of the aggregated report that follows all the data.
+     */
+    default void writeReportSuffix(@NotNull Writer output) throws IOException {
+    }
+
     @Nullable
     default Function<String, String> getFunctionForWidgetStatus(){
         return null;
@@ -6,24 +6,24 @@
  */
 package com.evolveum.midpoint.report;
 
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.util.List;
 
+import org.apache.commons.lang3.StringUtils;
 import org.testng.annotations.Test;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.path.ItemName;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.TestResource;
 import com.evolveum.midpoint.xml.ns._public.common.audit_3.AuditEventRecordType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectCollectionType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.ReportType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkDefinitionsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
 
 public class TestCsvReportMultiNode extends TestCsvReport {
@@ -138,6 +138,48 @@ public class TestCsvReportMultiNode extends TestCsvReport {
                 "Unexpected number of rows in report. Expected:1200-1250, Actual:" + rows.size());
     }
 
+    /**
+     * Partial HTML data are written to the output file one by one, so the aggregation has to merge them
+     * into a single table with a single header.
+     */
+    @Test
+    public void test110ExportUsersAsHtml() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        FileFormatConfigurationType htmlFormat = new FileFormatConfigurationType();
+        htmlFormat.setType(FileFormatTypeType.HTML);
+        modifyObjectReplaceContainer(ReportType.class,
+                REPORT_OBJECT_COLLECTION_USERS.oid, ReportType.F_FILE_FORMAT, task, result, htmlFormat);
+        changeTaskReport(REPORT_OBJECT_COLLECTION_USERS,
+                ItemPath.create(TaskType.F_ACTIVITY, ActivityDefinitionType.F_WORK, getWorkDefinitionType(),
+                        DistributedReportExportWorkDefinitionType.F_REPORT_REF),
+                TASK_DISTRIBUTED_EXPORT_USERS);
+
+        when();
+
+        rerunTask(TASK_DISTRIBUTED_EXPORT_USERS.oid, result);
+        waitForTaskCloseOrSuspend(TASK_DISTRIBUTED_EXPORT_USERS.oid);
+
+        then();
+
+        assertTask(TASK_DISTRIBUTED_EXPORT_USERS.oid, "after")
+                .assertSuccess()
+                .display();
+
+        PrismObject<ReportType> report = getObject(ReportType.class, REPORT_OBJECT_COLLECTION_USERS.oid);
+        String content = String.join("\n", getLinesOfOutputFile(report));
+        assertEquals(StringUtils.countMatches(content, "<thead>"), 1, "Wrong number of table headers");
+        assertEquals(StringUtils.countMatches(content, "<tbody>"), 1, "Wrong number of table bodies");
+        assertEquals(StringUtils.countMatches(content, "</tbody>"), 1, "Wrong number of table body ends");
+        int rows = StringUtils.countMatches(content, "<tr");
+        assertTrue(rows > USERS, "Unexpected number of rows in report. Expected: more than " + USERS + ", Actual: " + rows);
+        assertTrue(content.indexOf("</thead>") < content.indexOf("<tbody>"), "Table header is not at the beginning");
+        assertTrue(content.endsWith("</tbody></table></div></div>"), "Report is not properly finished");
+    }
+
     private void auditTest() throws Exception {
         given();
 
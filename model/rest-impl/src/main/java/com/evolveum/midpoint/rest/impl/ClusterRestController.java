@@ -29,6 +29,7 @@ import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.model.api.ModelPublicConstants;
 import com.evolveum.midpoint.model.api.authentication.GuiProfiledPrincipalManager;
 import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.model.impl.ClusterInvalidationBatch;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.schema.DefinitionProcessingOption;
@@ -119,6 +120,35 @@ public class ClusterRestController extends AbstractRestController {
         return response;
     }
 
+    /**
+     * Batch of invalidation events coalesced by the sending node, see {@link ClusterServiceConsts#EVENT_INVALIDATION_BATCH}.
+     */
+    @PostMapping(value = ClusterServiceConsts.EVENT_INVALIDATION_BATCH, consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> executeClusterCacheInvalidationBatch(@RequestBody(required = false) String batch) {
+        Task task = initRequest();
+        OperationResult result = createSubresult(task, OPERATION_EXECUTE_CLUSTER_CACHE_INVALIDATION_EVENT);
+
+        ResponseEntity<?> response;
+        try {
+            checkNodeAuthentication();
+
+            List<ClusterInvalidationBatch.Entry> entries = ClusterInvalidationBatch.parse(batch);
+            for (ClusterInvalidationBatch.Entry entry : entries) {
+                // clusterwide is false: we got this from another node so we don't need to redistribute it
+                cacheDispatcher.dispatchInvalidation(entry.getType(), entry.getOid(), false,
+                        new CacheInvalidationContext(true, null));
+            }
+            result.addReturn("events", entries.size());
+
+            result.recordSuccess();
+            response = createResponse(HttpStatus.OK, result);
+        } catch (Throwable t) {
+            response = handleException(result, t);
+        }
+        finishRequest(task, result);
+        return response;
+    }
+
     @PostMapping(ClusterServiceConsts.EVENT_TERMINATE_SESSION)
     public ResponseEntity<?> executeClusterTerminateSessionEvent(
             @RequestBody TerminateSessionEventType event) {
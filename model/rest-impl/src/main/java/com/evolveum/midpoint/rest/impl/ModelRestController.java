@@ -8,15 +8,20 @@ package com.evolveum.midpoint.rest.impl;
 
 import static org.springframework.http.ResponseEntity.status;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
 import java.util.List;
+import java.util.UUID;
+import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -27,11 +32,13 @@ import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import com.evolveum.midpoint.model.api.*;
 import com.evolveum.midpoint.model.impl.ModelCrudService;
 import com.evolveum.midpoint.model.impl.scripting.PipelineData;
+import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.path.ItemPathCollectionsUtil;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.DefinitionProcessingOption;
 import com.evolveum.midpoint.schema.DeltaConvertor;
 import com.evolveum.midpoint.schema.GetOperationOptions;
@@ -40,6 +47,7 @@ import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.constants.ObjectTypes;
 import com.evolveum.midpoint.schema.expression.VariablesMap;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 import com.evolveum.midpoint.security.api.SecurityUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.exception.*;
@@ -65,6 +73,7 @@ public class ModelRestController extends AbstractRestController {
     @Autowired private ModelService modelService;
     @Autowired private ScriptingService scriptingService;
     @Autowired private TaskService taskService;
+    @Autowired @Qualifier("cacheRepositoryService") private RepositoryService repositoryService;
 
     @PostMapping("/{type}/{oid}/generate")
     public ResponseEntity<?> generateValue(
@@ -616,6 +625,142 @@ public class ModelRestController extends AbstractRestController {
         return response;
     }
 
+    /**
+     * Like {@link #searchObjects}, but the objects are written to the response as they are found,
+     * instead of being collected first. See {@link SearchResultStreamWriter} for the formats.
+     *
+     * Objects are returned in the order of their OIDs. The number of objects can be limited by `pageSize`;
+     * the next page is requested by sending the cursor from the end record as `after` (with the same query).
+     * Paging in the query itself is not supported. Cursors rely on the iteration order of the native repository,
+     * so `pageSize` and `after` are refused for other repositories and for shadows fetched from the resource.
+     */
+    @PostMapping("/{type}/search/stream")
+    public <T extends ObjectType> ResponseEntity<?> searchObjectsStream(
+            @PathVariable("type") String type,
+            @RequestParam(value = "options", required = false) List<String> options,
+            @RequestParam(value = "include", required = false) List<String> include,
+            @RequestParam(value = "exclude", required = false) List<String> exclude,
+            @RequestParam(value = "resolveNames", required = false) List<String> resolveNames,
+            @RequestParam(value = "pageSize", required = false) Integer pageSize,
+            @RequestParam(value = "after", required = false) String after,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestBody(required = false) QueryType queryType,
+            HttpServletResponse httpResponse) {
+
+        Task task = initRequest();
+        OperationResult result = task.getResult().createSubresult("searchObjectsStream");
+
+        //noinspection unchecked
+        Class<T> clazz = (Class<T>) ObjectTypes.getClassFromRestType(type);
+        // Null means that the response was written directly.
+        ResponseEntity<?> response = null;
+        SearchResultStreamWriter writer = null;
+        try {
+            SearchResultStreamWriter.Format format = SearchResultStreamWriter.Format.forAcceptHeader(accept);
+            if (format == null) {
+                result.recordFatalError("None of the accepted media types is supported: " + accept);
+                response = createErrorResponseBuilder(HttpStatus.NOT_ACCEPTABLE, result);
+            } else {
+                Collection<SelectorOptions<GetOperationOptions>> searchOptions = GetOperationOptions.fromRestOptions(options, include,
+                        exclude, resolveNames, DefinitionProcessingOption.ONLY_IF_EXISTS, prismContext);
+                if (pageSize != null || after != null) {
+                    checkStreamedSearchPagingSupported(clazz, searchOptions);
+                }
+                ObjectQuery query = createStreamedSearchQuery(clazz, queryType, pageSize, after);
+
+                writer = new SearchResultStreamWriter(format, httpResponse, prismContext);
+                writer.begin();
+                SearchResultStreamWriter finalWriter = writer;
+                modelService.searchObjectsIterative(clazz, query, (object, lResult) -> {
+                    try {
+                        removeExcludes(object, exclude);        // temporary measure until fixed in repo
+                    } catch (SchemaException e) {
+                        throw new SystemException(e.getMessage(), e);
+                    }
+                    return finalWriter.write(object);
+                }, searchOptions, task, result);
+
+                Exception failure = writer.getFailure();
+                if (failure instanceof IOException) {
+                    // Most probably the client has closed the connection; nobody will read anything more.
+                    logger.debug("Couldn't write streamed search results after {} object(s): {}",
+                            writer.getCount(), failure.getMessage(), failure);
+                    result.recordFatalError("Couldn't write search results: " + failure.getMessage(), failure);
+                } else {
+                    if (failure != null) {
+                        LoggingUtils.logUnexpectedException(logger, "Couldn't write streamed search results", failure);
+                        result.recordFatalError("Couldn't write search results: " + failure.getMessage(), failure);
+                    }
+                    writer.end(result, pageSize);
+                }
+            }
+        } catch (Exception ex) {
+            if (writer == null || writer.resetIfNotCommitted()) {
+                response = handleException(result, ex);
+            } else {
+                // Too late for an error response, the client will see the error in the end record.
+                LoggingUtils.logUnexpectedException(logger, "Streamed search failed after {} object(s)", ex, writer.getCount());
+                result.recordFatalError(ex);
+                try {
+                    writer.end(result, pageSize);
+                } catch (Exception e) {
+                    logger.debug("Couldn't write the end of streamed search results: {}", e.getMessage(), e);
+                }
+            }
+        }
+
+        result.computeStatus();
+        finishRequest(task, result);
+        return response;
+    }
+
+    /**
+     * Paging by the cursor requires the objects to be iterated in the order of their OIDs.
+     * This is the case only for objects iterated by the native repository, not for the generic repository,
+     * and not for shadows read from the resource, which come in the order given by the connector.
+     */
+    private void checkStreamedSearchPagingSupported(Class<? extends ObjectType> clazz,
+            Collection<SelectorOptions<GetOperationOptions>> searchOptions) {
+        if (!repositoryService.isNative()) {
+            throw new IllegalArgumentException(
+                    "Parameters 'pageSize' and 'after' of streamed search are supported only with the native repository");
+        }
+        if (ShadowType.class.isAssignableFrom(clazz)
+                && !GetOperationOptions.isNoFetch(SelectorOptions.findRootOptions(searchOptions))) {
+            throw new IllegalArgumentException(
+                    "Parameters 'pageSize' and 'after' of streamed search of shadows are supported only with 'noFetch' option");
+        }
+    }
+
+    private ObjectQuery createStreamedSearchQuery(Class<? extends ObjectType> clazz, QueryType queryType,
+            Integer pageSize, String after) throws SchemaException {
+        ObjectQuery query = queryType != null
+                ? prismContext.getQueryConverter().createObjectQuery(clazz, queryType)
+                : prismContext.queryFactory().createQuery();
+        if (query.getPaging() != null) {
+            throw new IllegalArgumentException(
+                    "Paging in the query is not supported for streamed search, use 'pageSize' and 'after' parameters");
+        }
+        if (after != null) {
+            try {
+                UUID.fromString(after);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Wrong cursor value: " + after, e);
+            }
+            query = ObjectQueryUtil.addConjunctions(query, prismContext,
+                    prismContext.queryFor(clazz)
+                            .item(PrismConstants.T_ID).gt(after)
+                            .buildFilter());
+        }
+        if (pageSize != null) {
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+            }
+            query.setPaging(prismContext.queryFactory().createPaging(0, pageSize));
+        }
+        return query;
+    }
+
     private void removeExcludes(PrismObject<? extends ObjectType> object, List<String> exclude)
             throws SchemaException {
         object.getValue().removePaths(
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.rest.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.http.MediaType;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismSerializer;
+import com.evolveum.midpoint.prism.SerializationOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.api_types_3.SearchResultStreamEndType;
+
+/**
+ * Writes search results directly to the HTTP response, one object at a time, as they come from the iterative search.
+ * Nothing is collected in memory, and the client gets the first objects without waiting for the whole search.
+ *
+ * Writing is done by the thread executing the search. So when the client does not keep up, the writes block
+ * and the search waits as well.
+ *
+ * Supported formats:
+ *
+ * - `application/x-ndjson` (the default): each object on a separate line, serialized in the same way as
+ * a single JSON object is; the last line is the end record,
+ * - `application/json`: JSON array of the objects followed by the end record,
+ * - `application/xml` (or `text/xml`): `searchResultStream` element containing the objects followed by the end record.
+ *
+ * The end record ({@link SearchResultStreamEndType}) tells the client whether it got everything, and if not,
+ * the cursor to continue with. It is missing if the connection was broken, or the writing has failed in the middle
+ * of an object.
+ */
+class SearchResultStreamWriter {
+
+    static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    private static final String NS_API_TYPES = "http://midpoint.evolveum.com/xml/ns/public/common/api-types-3";
+    private static final QName END_ELEMENT_NAME = new QName(NS_API_TYPES, "searchResultStreamEnd");
+
+    /** Line breaks with the following indentation. JSON strings cannot contain unescaped line breaks. */
+    private static final Pattern JSON_LINE_BREAKS = Pattern.compile("[\\r\\n]\\s*");
+
+    /** Client should see something soon, but flushing after each object would be too expensive. */
+    private static final int FLUSH_INTERVAL = 100;
+
+    enum Format {
+
+        NDJSON(APPLICATION_NDJSON),
+        JSON(MediaType.APPLICATION_JSON),
+        XML(MediaType.APPLICATION_XML);
+
+        @NotNull private final MediaType mediaType;
+
+        Format(@NotNull MediaType mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        /**
+         * Returns the format most preferred by the client (as told by the `Accept` header value),
+         * or null if none of the accepted media types is supported.
+         */
+        static @Nullable Format forAcceptHeader(@Nullable String accept) {
+            if (accept == null || accept.isBlank()) {
+                return NDJSON;
+            }
+            List<MediaType> acceptedTypes = MediaType.parseMediaTypes(accept);
+            MediaType.sortBySpecificityAndQuality(acceptedTypes);
+            for (MediaType accepted : acceptedTypes) {
+                if (accepted.isWildcardType() || accepted.includes(APPLICATION_NDJSON)) {
+                    return NDJSON;
+                } else if (accepted.includes(MediaType.APPLICATION_JSON)) {
+                    return JSON;
+                } else if (accepted.includes(MediaType.APPLICATION_XML) || accepted.includes(MediaType.TEXT_XML)) {
+                    return XML;
+                }
+            }
+            return null;
+        }
+    }
+
+    @NotNull private final Format format;
+    @NotNull private final HttpServletResponse response;
+    @NotNull private final PrismContext prismContext;
+
+    private OutputStream out;
+    private int count;
+    private String lastOid;
+
+    /** Exception that stopped the writing, if any. */
+    private Exception failure;
+
+    SearchResultStreamWriter(@NotNull Format format, @NotNull HttpServletResponse response,
+            @NotNull PrismContext prismContext) {
+        this.format = format;
+        this.response = response;
+        this.prismContext = prismContext;
+    }
+
+    /**
+     * Starts the response. Until the first flush, the response can still be replaced by an error response,
+     * see {@link #resetIfNotCommitted()}.
+     */
+    void begin() throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(format.mediaType.toString());
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        out = response.getOutputStream();
+        if (format == Format.JSON) {
+            write("[");
+        } else if (format == Format.XML) {
+            write("<apti:searchResultStream xmlns:apti=\"" + NS_API_TYPES + "\">\n");
+        }
+    }
+
+    /**
+     * Writes the object. Intended to be called from the search result handler.
+     *
+     * @return false if the object could not be written, so the search should be stopped
+     * (the exception is available via {@link #getFailure()})
+     */
+    boolean write(@NotNull PrismObject<?> object) {
+        if (failure != null) {
+            return false;
+        }
+        try {
+            String serialized = serializer().serialize(object);
+            if (format == Format.NDJSON) {
+                write(JSON_LINE_BREAKS.matcher(serialized).replaceAll("") + "\n");
+            } else if (format == Format.JSON) {
+                write((count > 0 ? ",\n" : "\n") + serialized);
+            } else {
+                write(stripXmlDeclaration(serialized) + "\n");
+            }
+            count++;
+            lastOid = object.getOid();
+            if (count % FLUSH_INTERVAL == 0 || count == 1) {
+                out.flush();
+            }
+            return true;
+        } catch (IOException | SchemaException | RuntimeException e) {
+            failure = e;
+            return false;
+        }
+    }
+
+    /**
+     * Writes the end record and finishes the response.
+     *
+     * @param pageSize Maximal number of objects requested; if reached, the results are not considered complete.
+     */
+    void end(@NotNull OperationResult result, @Nullable Integer pageSize) throws IOException, SchemaException {
+        result.computeStatusIfUnknown();
+        boolean complete = failure == null
+                && !result.isError()
+                && (pageSize == null || count < pageSize);
+        SearchResultStreamEndType end = new SearchResultStreamEndType();
+        end.setCount(count);
+        end.setComplete(complete);
+        if (!complete) {
+            end.setNextCursor(lastOid);
+        }
+        if (!result.isSuccess()) {
+            end.setResult(result.createOperationResultType());
+        }
+
+        String serialized = serializer().serializeAnyData(end, END_ELEMENT_NAME);
+        if (format == Format.NDJSON) {
+            write(JSON_LINE_BREAKS.matcher(serialized).replaceAll("") + "\n");
+        } else if (format == Format.JSON) {
+            write((count > 0 ? ",\n" : "\n") + serialized + "\n]\n");
+        } else {
+            write(stripXmlDeclaration(serialized) + "\n</apti:searchResultStream>\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * If nothing was sent to the client yet, discards the response, so that an error response can be sent instead.
+     *
+     * @return true if the response was reset
+     */
+    boolean resetIfNotCommitted() {
+        if (response.isCommitted()) {
+            return false;
+        }
+        response.reset();
+        return true;
+    }
+
+    @Nullable Exception getFailure() {
+        return failure;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    private PrismSerializer<String> serializer() {
+        PrismSerializer<String> serializer = format == Format.XML
+                ? prismContext.xmlSerializer()
+                : prismContext.jsonSerializer();
+        return serializer.options(SerializationOptions.createSerializeReferenceNames());
+    }
+
+    private void write(String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String stripXmlDeclaration(String serialized) {
+        if (serialized.startsWith("<?xml")) {
+            int end = serialized.indexOf("?>");
+            return end >= 0 ? serialized.substring(end + 2).stripLeading() : serialized;
+        } else {
+            return serialized;
+        }
+    }
+}
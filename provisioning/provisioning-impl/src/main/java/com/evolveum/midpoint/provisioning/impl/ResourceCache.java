@@ -7,6 +7,7 @@
 package com.evolveum.midpoint.provisioning.impl;
 
 import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.api.Cache;
@@ -21,6 +22,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
+import org.apache.commons.configuration2.Configuration;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -32,6 +34,9 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLevel.PER_CACHE;
 
@@ -42,6 +47,13 @@ import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLe
  * It relies on versions and on invalidation events instead. So we have to use resource object versions when querying it.
  * (This could be perhaps changed in the future. But not now.)
  *
+ * Reads are lock-free. When getting the resource without knowing the current version ({@link #getIfLatest(String,
+ * boolean, OperationResult)}) the version is checked in the repository at most once per configured interval
+ * (`midpoint.provisioning.resourceCacheVersionCheckInterval`, in milliseconds) and only by a single thread at a time;
+ * between the checks we rely on invalidation events. Resources that were not verified yet (since being put into
+ * the cache) are checked by each caller until the first check succeeds. The default interval of zero means the version
+ * is checked on each call.
+ *
  * @author Radovan Semancik
  */
 @Component
@@ -50,14 +62,34 @@ public class ResourceCache implements Cache {
     private static final Trace LOGGER = TraceManager.getTrace(ResourceCache.class);
     private static final Trace LOGGER_CONTENT = TraceManager.getTrace(ResourceCache.class.getName() + ".content");
 
+    private static final String KEY_VERSION_CHECK_INTERVAL = "resourceCacheVersionCheckInterval";
+
     @Autowired private PrismContext prismContext;
     @Autowired private CacheRegistry cacheRegistry;
+    @Autowired private MidpointConfiguration midpointConfiguration;
     @Autowired @Qualifier("cacheRepositoryService")
     private RepositoryService repositoryService;
 
+    /** Minimal time between two version checks in the repository (for the same resource), in nanoseconds. */
+    private volatile long versionCheckIntervalNanos;
+
+    /**
+     * Note that prism objects in this map are always not null and immutable.
+     * And they must remain immutable after getting them from the cache.
+     */
+    private final Map<String, CachedResource> cache = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+    private final AtomicLong versionChecks = new AtomicLong();
+    private final AtomicLong versionChecksSkipped = new AtomicLong();
+
     @PostConstruct
     public void register() {
         cacheRegistry.registerCache(this);
+        Configuration c = midpointConfiguration.getConfiguration(MidpointConfiguration.PROVISIONING_CONFIGURATION);
+        setVersionCheckInterval(c.getLong(KEY_VERSION_CHECK_INTERVAL, 0L));
     }
 
     @PreDestroy
@@ -65,15 +97,12 @@ public class ResourceCache implements Cache {
         cacheRegistry.unregisterCache(this);
     }
 
-    /**
-     * Note that prism objects in this map are always not null and immutable.
-     * And they must remain immutable after getting them from the cache.
-     *
-     * As for ConcurrentHashMap: Although we use synchronization whenever possible, let's be extra cautious here.
-     */
-    private final Map<String, PrismObject<ResourceType>> cache = new ConcurrentHashMap<>();
+    /** Sets minimal time between two version checks of a resource in the repository, in milliseconds. */
+    public void setVersionCheckInterval(long millis) {
+        versionCheckIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0));
+    }
 
-    synchronized void put(PrismObject<ResourceType> resource) throws SchemaException {
+    void put(PrismObject<ResourceType> resource) throws SchemaException {
         String oid = resource.getOid();
         if (oid == null) {
             throw new SchemaException("Attempt to cache "+resource+" without an OID");
@@ -84,18 +113,20 @@ public class ResourceCache implements Cache {
             throw new SchemaException("Attempt to cache "+resource+" without version");
         }
 
-        PrismObject<ResourceType> cachedResource = cache.get(oid);
+        CachedResource cachedResource = cache.get(oid);
         if (cachedResource == null) {
             LOGGER.debug("Caching(new): {}", resource);
-            cache.put(oid, resource.createImmutableClone());
-        } else if (compareVersion(resource.getVersion(), cachedResource.getVersion())) {
+        } else if (compareVersion(resource.getVersion(), cachedResource.resource.getVersion())) {
             LOGGER.debug("Caching fizzle, resource already cached: {}", resource);
             // We already have equivalent resource, nothing to do
             //  TODO is this correct? What if the resource being put here is newer than the existing one (although having the same version)?
+            return;
         } else {
             LOGGER.debug("Caching(replace): {}", resource);
-            cache.put(oid, resource.createImmutableClone());
         }
+        // The new entry is not marked as verified: the resource could have been read before an invalidation event
+        // that came in the meantime. So the first getIfLatest call checks the version in the repository.
+        cache.put(oid, new CachedResource(resource.createImmutableClone()));
     }
 
     private boolean compareVersion(String version1, String version2) {
@@ -105,83 +136,130 @@ public class ResourceCache implements Cache {
     /**
      * Gets a resource if it has specified version. If it has not, purges it from the cache (even if it exists there).
      */
-    synchronized PrismObject<ResourceType> get(@NotNull String oid, String requestedVersion, boolean readOnly) {
+    PrismObject<ResourceType> get(@NotNull String oid, String requestedVersion, boolean readOnly) {
         InternalMonitor.getResourceCacheStats().recordRequest();
 
         PrismObject<ResourceType> resourceToReturn;
-        PrismObject<ResourceType> cachedResource = cache.get(oid);
+        CachedResource cachedResource = cache.get(oid);
         if (cachedResource == null) {
             LOGGER.debug("MISS(not cached) for {} (get)", oid);
             resourceToReturn = null;
-        } else if (!compareVersion(requestedVersion, cachedResource.getVersion())) {
-            LOGGER.debug("MISS(wrong version) for {} (req={}, actual={})", oid, requestedVersion, cachedResource.getVersion());
+        } else if (!compareVersion(requestedVersion, cachedResource.resource.getVersion())) {
+            LOGGER.debug("MISS(wrong version) for {} (req={}, actual={})",
+                    oid, requestedVersion, cachedResource.resource.getVersion());
             LOGGER.trace("Cached resource version {} does not match requested resource version {}, purging from cache",
-                    cachedResource.getVersion(), requestedVersion);
-            cache.remove(oid);
+                    cachedResource.resource.getVersion(), requestedVersion);
+            stale.incrementAndGet();
+            cache.remove(oid, cachedResource);
             resourceToReturn = null;
-        } else if (readOnly) {
-            cachedResource.checkImmutable();
-            LOGGER.trace("HIT(read only) for {} (v{})", cachedResource, cachedResource.getVersion());
-            resourceToReturn = cachedResource;
         } else {
-            LOGGER.debug("HIT(returning clone) for {} (v{})", cachedResource, cachedResource.getVersion());
-            resourceToReturn = cachedResource.clone();
+            // The requested version comes from the repository, so the cached resource is current.
+            cachedResource.markVerified();
+            resourceToReturn = toReturn(cachedResource, readOnly);
         }
 
-        if (resourceToReturn != null) {
-            CachePerformanceCollector.INSTANCE.registerHit(ResourceCache.class, ResourceType.class, PER_CACHE);
-            InternalMonitor.getResourceCacheStats().recordHit();
-        } else {
-            CachePerformanceCollector.INSTANCE.registerMiss(ResourceCache.class, ResourceType.class, PER_CACHE);
-            InternalMonitor.getResourceCacheStats().recordMiss();
-        }
+        recordResult(resourceToReturn != null);
         return resourceToReturn;
     }
 
     /**
-     * Gets a resource without specifying requested version: returns one only if it has the same version as in the repo.
+     * Gets a resource without specifying requested version: returns one only if it has the same version as in the repo
+     * (checked at most once per version check interval).
      *
-     * This requires a cooperation with the repository cache. Therefore this method is NOT synchronized
-     * and has operation result as its parameter.
+     * This requires a cooperation with the repository cache. Therefore this method has operation result as its parameter.
      */
     PrismObject<ResourceType> getIfLatest(@NotNull String oid, boolean readonly, OperationResult parentResult)
             throws SchemaException, ObjectNotFoundException {
         // First let's check if the cache contains given resource. If not, we can avoid getting version from the repo.
-        if (contains(oid)) {
+        CachedResource cachedResource = cache.get(oid);
+        if (cachedResource == null) {
+            LOGGER.debug("MISS(not cached) for {} (getIfLatest)", oid);
+            recordResult(false);
+            return null;
+        }
+
+        long intervalNanos = versionCheckIntervalNanos;
+        if (intervalNanos == 0) {
+            versionChecks.incrementAndGet();
+            String version = repositoryService.getVersion(ResourceType.class, oid, parentResult);
+            return get(oid, version, readonly);
+        }
+
+        if (cachedResource.isVerifiedWithin(intervalNanos)) {
+            // Recently verified, so we rely on invalidation events.
+            return skipVersionCheck(cachedResource, readonly);
+        }
+
+        boolean verificationStarted = cachedResource.startVerification();
+        if (!verificationStarted && cachedResource.isVerified()) {
+            // Some other thread is checking the version right now. The resource was verified in the past,
+            // so we rely on invalidation events. A resource that was never verified must be checked even here,
+            // because it might have been read before an invalidation event that came in the meantime.
+            return skipVersionCheck(cachedResource, readonly);
+        }
+
+        try {
+            versionChecks.incrementAndGet();
             String version = repositoryService.getVersion(ResourceType.class, oid, parentResult);
             return get(oid, version, readonly);
+        } finally {
+            if (verificationStarted) {
+                cachedResource.finishVerification();
+            }
+        }
+    }
+
+    private PrismObject<ResourceType> skipVersionCheck(CachedResource cachedResource, boolean readonly) {
+        versionChecksSkipped.incrementAndGet();
+        InternalMonitor.getResourceCacheStats().recordRequest();
+        recordResult(true);
+        return toReturn(cachedResource, readonly);
+    }
+
+    private PrismObject<ResourceType> toReturn(CachedResource cachedResource, boolean readOnly) {
+        PrismObject<ResourceType> resource = cachedResource.resource;
+        if (readOnly) {
+            resource.checkImmutable();
+            LOGGER.trace("HIT(read only) for {} (v{})", resource, resource.getVersion());
+            return resource;
         } else {
-            LOGGER.debug("MISS(not cached) for {} (getIfLatest)", oid);
-            CachePerformanceCollector.INSTANCE.registerMiss(ResourceCache.class, ResourceType.class, PER_CACHE);
-            InternalMonitor.getResourceCacheStats().recordMiss();
-            return null;
+            LOGGER.debug("HIT(returning clone) for {} (v{})", resource, resource.getVersion());
+            return resource.clone();
         }
     }
 
-    private synchronized boolean contains(@NotNull String oid) {
-        return cache.containsKey(oid);
+    private void recordResult(boolean hit) {
+        if (hit) {
+            hits.incrementAndGet();
+            CachePerformanceCollector.INSTANCE.registerHit(ResourceCache.class, ResourceType.class, PER_CACHE);
+            InternalMonitor.getResourceCacheStats().recordHit();
+        } else {
+            misses.incrementAndGet();
+            CachePerformanceCollector.INSTANCE.registerMiss(ResourceCache.class, ResourceType.class, PER_CACHE);
+            InternalMonitor.getResourceCacheStats().recordMiss();
+        }
     }
 
     /**
      * Returns currently cached version. FOR DIAGNOSTICS ONLY.
      */
-    synchronized String getVersion(String oid) {
+    String getVersion(String oid) {
         if (oid == null) {
             return null;
         }
-        PrismObject<ResourceType> cachedResource = cache.get(oid);
+        CachedResource cachedResource = cache.get(oid);
         if (cachedResource == null) {
             return null;
         }
-        return cachedResource.getVersion();
+        return cachedResource.resource.getVersion();
     }
 
-    synchronized void remove(String oid) {
+    void remove(String oid) {
         cache.remove(oid);
     }
 
     @Override
-    public synchronized void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
         if (type == null || type.isAssignableFrom(ResourceType.class)) {
             if (oid != null) {
                 remove(oid);
@@ -191,21 +269,94 @@ public class ResourceCache implements Cache {
         }
     }
 
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getVersionChecks() {
+        return versionChecks.get();
+    }
+
+    /** Number of version checks skipped, because of recent check or a check in progress in another thread. */
+    public long getVersionChecksSkipped() {
+        return versionChecksSkipped.get();
+    }
+
+    /** Number of cached resources found to have a different version than the one in the repository. */
+    public long getStale() {
+        return stale.get();
+    }
+
+    /**
+     * Size is the number of cached resources. Components contain hits, misses, stale entries found,
+     * and the number of version checks done in the repository and skipped (coalesced).
+     */
     @NotNull
     @Override
-    public synchronized Collection<SingleCacheStateInformationType> getStateInformation() {
-        return Collections.singleton(
-                new SingleCacheStateInformationType(prismContext)
-                        .name(ResourceCache.class.getName())
-                        .size(cache.size())
-        );
+    public Collection<SingleCacheStateInformationType> getStateInformation() {
+        SingleCacheStateInformationType info = new SingleCacheStateInformationType(prismContext)
+                .name(ResourceCache.class.getName())
+                .size(cache.size());
+        addComponent(info, "hits", hits);
+        addComponent(info, "misses", misses);
+        addComponent(info, "stale", stale);
+        addComponent(info, "versionChecks", versionChecks);
+        addComponent(info, "versionChecksSkipped", versionChecksSkipped);
+        return Collections.singleton(info);
+    }
+
+    private void addComponent(SingleCacheStateInformationType info, String name, AtomicLong counter) {
+        info.beginComponent()
+                .name(name)
+                .size((int) Math.min(counter.get(), Integer.MAX_VALUE));
     }
 
     @Override
     public void dumpContent() {
         if (LOGGER_CONTENT.isInfoEnabled()) {
-            cache.forEach((oid, resource) -> LOGGER_CONTENT.info("Cached resource: {}: {} (version: {})",
-                    oid, resource, resource.getVersion()));
+            cache.forEach((oid, cachedResource) -> LOGGER_CONTENT.info("Cached resource: {}: {} (version: {})",
+                    oid, cachedResource.resource, cachedResource.resource.getVersion()));
+        }
+    }
+
+    private static class CachedResource {
+
+        @NotNull private final PrismObject<ResourceType> resource;
+
+        /** Value of {@link System#nanoTime()} when the version was last confirmed by the repository. */
+        private volatile long verifiedAt;
+        private volatile boolean verified;
+
+        /** Is there a version check in progress? Used to let only one thread go to the repository. */
+        private final AtomicBoolean verifying = new AtomicBoolean();
+
+        private CachedResource(@NotNull PrismObject<ResourceType> resource) {
+            this.resource = resource;
+        }
+
+        private void markVerified() {
+            verifiedAt = System.nanoTime();
+            verified = true;
+        }
+
+        private boolean isVerified() {
+            return verified;
+        }
+
+        private boolean isVerifiedWithin(long intervalNanos) {
+            return verified && System.nanoTime() - verifiedAt < intervalNanos;
+        }
+
+        private boolean startVerification() {
+            return verifying.compareAndSet(false, true);
+        }
+
+        private void finishVerification() {
+            verifying.set(false);
         }
     }
 }
@@ -38,6 +38,7 @@ import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.api.Tracer;
 import com.evolveum.midpoint.util.*;
 import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
@@ -55,7 +56,9 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static com.evolveum.midpoint.prism.PrismPropertyValue.getRealValue;
 
@@ -1376,55 +1379,48 @@ public class ResourceObjectConverter {
             ucfErrorReportingMethod = UcfFetchErrorReportingMethod.EXCEPTION;
         }
 
+        // Objects are passed to the handler in windows, so it can prepare for processing of more of them at once.
+        int batchSize = Math.max(1, resultHandler.getBatchSize());
+        List<PendingObjectFound> pendingObjects = new ArrayList<>(batchSize);
+        // Some connectors go on passing objects even if the handler returned false. The rest of the window
+        // is not processed after the stop, so neither should be the objects that come later.
+        AtomicBoolean stopped = new AtomicBoolean();
+
         SearchResultMetadata metadata;
         try {
 
-            metadata = connector.search(objectDefinition, query,
-                    (ucfObject, result) -> {
-                        ResourceObjectFound objectFound =
-                                new ResourceObjectFound(ucfObject, ResourceObjectConverter.this, ctx, fetchAssociations);
-
-                        // in order to utilize the cache right from the beginning...
-                        RepositoryCache.enterLocalCaches(cacheConfigurationManager);
-                        try {
-
+            try {
+                metadata = connector.search(objectDefinition, query,
+                        (ucfObject, result) -> {
+                            ResourceObjectFound objectFound =
+                                    new ResourceObjectFound(ucfObject, ResourceObjectConverter.this, ctx, fetchAssociations);
                             int objectNumber = objectCounter.getAndIncrement();
-
-                            Task task = ctx.getTask();
-                            try {
-                                OperationResult objResult = result
-                                        .subresult(OperationConstants.OPERATION_SEARCH_RESULT)
-                                        .setMinor()
-                                        .addParam("number", objectNumber)
-                                        .addArbitraryObjectAsParam("primaryIdentifierValue", ucfObject.getPrimaryIdentifierValue())
-                                        .addArbitraryObjectAsParam("errorState", ucfObject.getErrorState()).build();
-                                try {
-                                    objectFound.initialize(task, objResult);
-                                    return resultHandler.handle(objectFound, objResult);
-                                } catch (Throwable t) {
-                                    objResult.recordFatalError(t);
-                                    throw t;
-                                } finally {
-                                    objResult.computeStatusIfUnknown();
-                                    // FIXME: hack. Hardcoded ugly summarization of successes. something like
-                                    //  AbstractSummarizingResultHandler [lazyman]
-                                    if (objResult.isSuccess() && objResult.canBeCleanedUp()) {
-                                        objResult.getSubresults().clear();
-                                    }
-                                    // TODO Reconsider this. It is quite dubious to touch the global result from the inside.
-                                    result.summarize();
-                                }
-                            } finally {
-                                RepositoryCache.exitLocalCaches();
+                            if (batchSize == 1) {
+                                return processObjectFound(ctx, resultHandler, ucfObject, objectFound, objectNumber, result);
                             }
-                        } catch (RuntimeException e) {
-                            throw e;
-                        } catch (Throwable t) {
-                            throw new TunnelException(t);
-                        }
-                    },
-                    attributesToReturn, objectDefinition.getPagedSearches(ctx.getResource()), searchHierarchyConstraints,
-                    ucfErrorReportingMethod, ctx.getUcfExecutionContext(), parentResult);
+                            if (stopped.get()) {
+                                return false;
+                            }
+                            pendingObjects.add(new PendingObjectFound(ucfObject, objectFound, objectNumber, result));
+                            if (pendingObjects.size() < batchSize
+                                    || processPendingObjects(ctx, resultHandler, pendingObjects, parentResult)) {
+                                return true;
+                            }
+                            stopped.set(true);
+                            return false;
+                        },
+                        attributesToReturn, objectDefinition.getPagedSearches(ctx.getResource()), searchHierarchyConstraints,
+                        ucfErrorReportingMethod, ctx.getUcfExecutionContext(), parentResult);
+            } catch (Throwable t) {
+                // Objects fetched before the failure are processed, as they would be without the windowing.
+                try {
+                    processPendingObjects(ctx, resultHandler, pendingObjects, parentResult);
+                } catch (Throwable t2) {
+                    t.addSuppressed(t2);
+                }
+                throw t;
+            }
+            processPendingObjects(ctx, resultHandler, pendingObjects, parentResult);
 
         } catch (GenericFrameworkException e) {
             parentResult.recordFatalError("Generic error in the connector: " + e.getMessage(), e);
@@ -1469,6 +1465,103 @@ public class ResourceObjectConverter {
         return metadata;
     }
 
+    /**
+     * Lets the handler prepare for the pending objects and then passes them to it, in the original order.
+     * The window is always emptied.
+     *
+     * @return false if the handler requested the search to be stopped
+     */
+    private boolean processPendingObjects(ProvisioningContext ctx, ResourceObjectHandler resultHandler,
+            List<PendingObjectFound> pendingObjects, OperationResult parentResult) {
+        if (pendingObjects.isEmpty()) {
+            return true;
+        }
+        try {
+            RepositoryCache.enterLocalCaches(cacheConfigurationManager);
+            try {
+                resultHandler.prepareBatch(
+                        pendingObjects.stream()
+                                .map(pending -> pending.objectFound)
+                                .collect(Collectors.toList()),
+                        parentResult);
+            } catch (RuntimeException e) {
+                // This is only an optimization. The objects will be processed without the preparation.
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't prepare processing of {} objects found", e,
+                        pendingObjects.size());
+            } finally {
+                RepositoryCache.exitLocalCaches();
+            }
+            for (PendingObjectFound pending : pendingObjects) {
+                if (!processObjectFound(ctx, resultHandler, pending.ucfObject, pending.objectFound, pending.objectNumber,
+                        pending.result)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            pendingObjects.clear();
+        }
+    }
+
+    private boolean processObjectFound(ProvisioningContext ctx, ResourceObjectHandler resultHandler,
+            UcfObjectFound ucfObject, ResourceObjectFound objectFound, int objectNumber, OperationResult result) {
+        // in order to utilize the cache right from the beginning...
+        RepositoryCache.enterLocalCaches(cacheConfigurationManager);
+        try {
+
+            Task task = ctx.getTask();
+            try {
+                OperationResult objResult = result
+                        .subresult(OperationConstants.OPERATION_SEARCH_RESULT)
+                        .setMinor()
+                        .addParam("number", objectNumber)
+                        .addArbitraryObjectAsParam("primaryIdentifierValue", ucfObject.getPrimaryIdentifierValue())
+                        .addArbitraryObjectAsParam("errorState", ucfObject.getErrorState()).build();
+                try {
+                    objectFound.initialize(task, objResult);
+                    return resultHandler.handle(objectFound, objResult);
+                } catch (Throwable t) {
+                    objResult.recordFatalError(t);
+                    throw t;
+                } finally {
+                    objResult.computeStatusIfUnknown();
+                    // FIXME: hack. Hardcoded ugly summarization of successes. something like
+                    //  AbstractSummarizingResultHandler [lazyman]
+                    if (objResult.isSuccess() && objResult.canBeCleanedUp()) {
+                        objResult.getSubresults().clear();
+                    }
+                    // TODO Reconsider this. It is quite dubious to touch the global result from the inside.
+                    result.summarize();
+                }
+            } finally {
+                RepositoryCache.exitLocalCaches();
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new TunnelException(t);
+        }
+    }
+
+    /** Object found by the connector, waiting in the window to be processed. */
+    private static class PendingObjectFound {
+
+        @NotNull private final UcfObjectFound ucfObject;
+        @NotNull private final ResourceObjectFound objectFound;
+        private final int objectNumber;
+
+        /** The result of the connector search operation, under which the object is processed. */
+        @NotNull private final OperationResult result;
+
+        private PendingObjectFound(@NotNull UcfObjectFound ucfObject, @NotNull ResourceObjectFound objectFound,
+                int objectNumber, @NotNull OperationResult result) {
+            this.ucfObject = ucfObject;
+            this.objectFound = objectFound;
+            this.objectNumber = objectNumber;
+            this.result = result;
+        }
+    }
+
     public LiveSyncToken fetchCurrentToken(ProvisioningContext ctx, OperationResult parentResult)
             throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException, ExpressionEvaluationException {
         Validate.notNull(parentResult, "Operation result must not be null.");
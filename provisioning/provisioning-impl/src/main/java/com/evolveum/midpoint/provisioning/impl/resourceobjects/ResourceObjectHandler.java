@@ -7,6 +7,8 @@
 
 package com.evolveum.midpoint.provisioning.impl.resourceobjects;
 
+import java.util.List;
+
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.annotation.Experimental;
 
@@ -18,4 +20,19 @@ public interface ResourceObjectHandler {
 
     boolean handle(ResourceObjectFound resourceObject, OperationResult result);
 
+    /**
+     * How many objects found should be collected before they are passed to the handler.
+     * The value of 1 means that each object is handled as soon as it is received from the connector.
+     */
+    default int getBatchSize() {
+        return 1;
+    }
+
+    /**
+     * Called before objects of a batch are passed to {@link #handle(ResourceObjectFound, OperationResult)}.
+     * The objects are not initialized yet. It should be used only for optimizations (like prefetching data
+     * needed to process the objects), because any exception thrown from here is only logged.
+     */
+    default void prepareBatch(List<ResourceObjectFound> objectsFound, OperationResult result) {
+    }
 }
@@ -24,6 +24,7 @@ import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.query.*;
@@ -33,6 +34,7 @@ import com.evolveum.midpoint.provisioning.impl.resourceobjects.ResourceObjectCon
 import com.evolveum.midpoint.provisioning.impl.ShadowCaretaker;
 import com.evolveum.midpoint.provisioning.impl.resourceobjects.ResourceObjectFound;
 import com.evolveum.midpoint.provisioning.impl.resourceobjects.ResourceObjectHandler;
+import com.evolveum.midpoint.provisioning.impl.shadows.manager.PrefetchedShadows;
 import com.evolveum.midpoint.provisioning.impl.shadows.manager.ShadowManager;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
@@ -44,6 +46,7 @@ import com.evolveum.midpoint.schema.internals.InternalMonitor;
 import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.annotation.Experimental;
@@ -64,6 +67,11 @@ class SearchHelper {
 
     private static final Trace LOGGER = TraceManager.getTrace(SearchHelper.class);
 
+    private static final String OP_PREFETCH_SHADOWS = SearchHelper.class.getName() + ".prefetchShadows";
+
+    /** How many objects found on the resource are processed after a single repository shadow lookup. */
+    private static final int SHADOW_PREFETCH_BATCH_SIZE = 100;
+
     @Autowired private PrismContext prismContext;
     @Autowired private SchemaService schemaService;
     @Autowired private ResourceObjectConverter resourceObjectConverter;
@@ -133,19 +141,36 @@ class SearchHelper {
         // (we do not have raw/noFetch option)
         InternalMonitor.recordCount(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
 
-        ResourceObjectHandler resultHandler = (ResourceObjectFound objectFound, OperationResult objResult) -> {
+        ResourceObjectHandler resultHandler = new ResourceObjectHandler() {
 
-            ShadowedObjectFound shadowedObjectFound = new ShadowedObjectFound(objectFound, localBeans, ctx);
-            shadowedObjectFound.initialize(ctx.getTask(), objResult);
-            PrismObject<ShadowType> shadowedObject = shadowedObjectFound.getResultingObject(ucfErrorReportingMethod);
+            /** Repository shadows for the current batch of objects found. */
+            private PrefetchedShadows prefetchedShadows;
 
-            try {
-                return handler.handle(shadowedObject, objResult);
-            } catch (Throwable t) {
-                objResult.recordFatalError(t);
-                throw t;
-            } finally {
-                objResult.computeStatusIfUnknown();
+            @Override
+            public int getBatchSize() {
+                return SHADOW_PREFETCH_BATCH_SIZE;
+            }
+
+            @Override
+            public void prepareBatch(List<ResourceObjectFound> objectsFound, OperationResult result) {
+                prefetchedShadows = prefetchShadows(ctx, objectsFound, result);
+            }
+
+            @Override
+            public boolean handle(ResourceObjectFound objectFound, OperationResult objResult) {
+                ShadowedObjectFound shadowedObjectFound =
+                        new ShadowedObjectFound(objectFound, localBeans, ctx, prefetchedShadows);
+                shadowedObjectFound.initialize(ctx.getTask(), objResult);
+                PrismObject<ShadowType> shadowedObject = shadowedObjectFound.getResultingObject(ucfErrorReportingMethod);
+
+                try {
+                    return handler.handle(shadowedObject, objResult);
+                } catch (Throwable t) {
+                    objResult.recordFatalError(t);
+                    throw t;
+                } finally {
+                    objResult.computeStatusIfUnknown();
+                }
             }
         };
 
@@ -160,6 +185,45 @@ class SearchHelper {
         }
     }
 
+    /**
+     * Looks up repository shadows for a batch of objects found by a single query, instead of one query per object.
+     * Objects without a usable primary identifier (e.g. the ones in error state) are left to the individual lookup.
+     * Any failure here means only that the shadows will be looked up individually.
+     */
+    private PrefetchedShadows prefetchShadows(ProvisioningContext ctx, List<ResourceObjectFound> objectsFound,
+            OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(OP_PREFETCH_SHADOWS)
+                .setMinor()
+                .addParam("objects", objectsFound.size())
+                .build();
+        try {
+            QName objectClass = ctx.getObjectClassNameRequired();
+            List<PrismProperty<?>> primaryIdentifiers = new ArrayList<>();
+            for (ResourceObjectFound objectFound : objectsFound) {
+                PrismObject<ShadowType> resourceObject = objectFound.getResourceObject();
+                if (ShadowUtil.getAttributesContainer(resourceObject) == null
+                        || !QNameUtil.match(objectClass, resourceObject.asObjectable().getObjectClass())) {
+                    continue;
+                }
+                PrismProperty<?> primaryIdentifier = ProvisioningUtil.getSingleValuedPrimaryIdentifier(resourceObject);
+                if (primaryIdentifier != null) {
+                    primaryIdentifiers.add(primaryIdentifier);
+                }
+            }
+            PrefetchedShadows prefetchedShadows =
+                    shadowManager.prefetchShadowsByPrimaryIds(ctx, primaryIdentifiers, objectClass, result);
+            result.addReturn("prefetched", prefetchedShadows != null);
+            return prefetchedShadows;
+        } catch (CommonException | RuntimeException e) {
+            LOGGER.debug("Couldn't prefetch shadows for {} objects found, they will be looked up individually: {}",
+                    objectsFound.size(), e.getMessage(), e);
+            result.recordHandledError(e);
+            return null;
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
     private ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
         QueryFactory queryFactory = prismContext.queryFactory();
 
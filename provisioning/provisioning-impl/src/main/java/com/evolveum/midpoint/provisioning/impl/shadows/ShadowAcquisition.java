@@ -13,6 +13,7 @@ import com.evolveum.midpoint.prism.crypto.EncryptionException;
 import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
 import com.evolveum.midpoint.provisioning.impl.CommonBeans;
 import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
+import com.evolveum.midpoint.provisioning.impl.shadows.manager.PrefetchedShadows;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -24,6 +25,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.xml.namespace.QName;
 
@@ -72,17 +74,30 @@ class ShadowAcquisition {
     /** Whether we want to skip the classification. It is used e.g. in emergency shadow creation. */
     private final boolean skipClassification;
 
+    /**
+     * Shadows looked up in advance for a batch of objects found by a resource search (if present).
+     * Used only for the initial lookup; the re-check after a conflict always goes to the repository.
+     */
+    @Nullable private final PrefetchedShadows prefetchedShadows;
+
     private final CommonBeans beans;
     private final ShadowsLocalBeans localBeans;
 
     ShadowAcquisition(@NotNull ProvisioningContext ctx, @NotNull PrismProperty<?> primaryIdentifier,
             @NotNull QName objectClass, @NotNull ResourceObjectSupplier resourceObjectSupplier,
             boolean skipClassification, CommonBeans commonBeans) {
+        this(ctx, primaryIdentifier, objectClass, resourceObjectSupplier, skipClassification, null, commonBeans);
+    }
+
+    ShadowAcquisition(@NotNull ProvisioningContext ctx, @NotNull PrismProperty<?> primaryIdentifier,
+            @NotNull QName objectClass, @NotNull ResourceObjectSupplier resourceObjectSupplier,
+            boolean skipClassification, @Nullable PrefetchedShadows prefetchedShadows, CommonBeans commonBeans) {
         this.ctx = ctx;
         this.primaryIdentifier = primaryIdentifier;
         this.objectClass = objectClass;
         this.resourceObjectSupplier = resourceObjectSupplier;
         this.skipClassification = skipClassification;
+        this.prefetchedShadows = prefetchedShadows;
         this.beans = commonBeans;
         this.localBeans = commonBeans.shadowsFacade.getLocalBeans();
     }
@@ -136,7 +151,7 @@ class ShadowAcquisition {
             CommunicationException, ConfigurationException, ExpressionEvaluationException, EncryptionException {
 
         PrismObject<ShadowType> existingRepoShadow = beans.shadowManager.lookupLiveShadowByPrimaryId(ctx, primaryIdentifier,
-                objectClass, result);
+                objectClass, prefetchedShadows, result);
 
         if (existingRepoShadow != null) {
             LOGGER.trace("Found shadow object in the repository {}", ShadowUtil.shortDumpShadowLazily(existingRepoShadow));
@@ -12,6 +12,7 @@ import static java.util.Objects.requireNonNull;
 import javax.xml.namespace.QName;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -22,6 +23,7 @@ import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
 import com.evolveum.midpoint.provisioning.impl.CommonBeans;
 import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
 import com.evolveum.midpoint.provisioning.impl.shadows.ShadowAcquisition.ResourceObjectSupplier;
+import com.evolveum.midpoint.provisioning.impl.shadows.manager.PrefetchedShadows;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
@@ -55,6 +57,18 @@ class ShadowAcquisitionHelper {
             PrismObject<ShadowType> resourceObject, boolean skipClassification, OperationResult result)
             throws SchemaException, ConfigurationException, ObjectNotFoundException, SecurityViolationException,
             CommunicationException, GenericConnectorException, ExpressionEvaluationException, EncryptionException {
+        return acquireRepoShadow(ctx, resourceObject, skipClassification, null, result);
+    }
+
+    /**
+     * As {@link #acquireRepoShadow(ProvisioningContext, PrismObject, boolean, OperationResult)} but the repository
+     * shadow is looked for among prefetched shadows first (if provided).
+     */
+    @NotNull PrismObject<ShadowType> acquireRepoShadow(ProvisioningContext ctx,
+            PrismObject<ShadowType> resourceObject, boolean skipClassification,
+            @Nullable PrefetchedShadows prefetchedShadows, OperationResult result)
+            throws SchemaException, ConfigurationException, ObjectNotFoundException, SecurityViolationException,
+            CommunicationException, GenericConnectorException, ExpressionEvaluationException, EncryptionException {
 
         PrismProperty<?> primaryIdentifier = requireNonNull(
                 ProvisioningUtil.getSingleValuedPrimaryIdentifier(resourceObject),
@@ -63,7 +77,8 @@ class ShadowAcquisitionHelper {
                 resourceObject.asObjectable().getObjectClass(),
                 () -> "No object class in " + ShadowUtil.shortDumpShadow(resourceObject));
 
-        return new ShadowAcquisition(ctx, primaryIdentifier, objectClass, () -> resourceObject, skipClassification, commonBeans)
+        return new ShadowAcquisition(ctx, primaryIdentifier, objectClass, () -> resourceObject, skipClassification,
+                prefetchedShadows, commonBeans)
                 .execute(result);
     }
 
@@ -15,6 +15,7 @@ import java.util.Objects;
 import com.google.common.base.MoreObjects;
 import org.apache.commons.collections4.CollectionUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.crypto.EncryptionException;
@@ -22,6 +23,7 @@ import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.provisioning.impl.InitializableMixin;
 import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
 import com.evolveum.midpoint.provisioning.impl.resourceobjects.ResourceObjectFound;
+import com.evolveum.midpoint.provisioning.impl.shadows.manager.PrefetchedShadows;
 import com.evolveum.midpoint.provisioning.impl.shadows.sync.NotApplicableException;
 import com.evolveum.midpoint.provisioning.util.InitializationState;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
@@ -84,10 +86,18 @@ public class ShadowedObjectFound implements InitializableMixin {
     @NotNull private final InitializationContext ictx;
 
     public ShadowedObjectFound(ResourceObjectFound resourceObjectFound, ShadowsLocalBeans localBeans, ProvisioningContext ctx) {
+        this(resourceObjectFound, localBeans, ctx, null);
+    }
+
+    /**
+     * @param prefetchedShadows Repository shadows looked up in advance for the batch of objects this one belongs to.
+     */
+    public ShadowedObjectFound(ResourceObjectFound resourceObjectFound, ShadowsLocalBeans localBeans, ProvisioningContext ctx,
+            @Nullable PrefetchedShadows prefetchedShadows) {
         this.resourceObject = resourceObjectFound.getResourceObject();
         this.primaryIdentifierValue = resourceObjectFound.getPrimaryIdentifierValue();
         this.initializationState = InitializationState.fromPreviousState(resourceObjectFound.getInitializationState());
-        this.ictx = new InitializationContext(localBeans, ctx);
+        this.ictx = new InitializationContext(localBeans, ctx, prefetchedShadows);
     }
 
     @Override
@@ -163,7 +173,7 @@ public class ShadowedObjectFound implements InitializableMixin {
         PrismObject<ShadowType> repoShadow;
         try {
             repoShadow = ictx.localBeans.shadowAcquisitionHelper
-                    .acquireRepoShadow(estimatedCtx, resourceObject, false, result);
+                    .acquireRepoShadow(estimatedCtx, resourceObject, false, ictx.prefetchedShadows, result);
         } catch (Exception e) {
             // No need to log stack trace now. It will be logged at the place where the exception is processed.
             LOGGER.error("Couldn't acquire shadow for {}. Creating shadow in emergency mode. Error: {}", resourceObject, getClassWithMessage(e));
@@ -311,10 +321,13 @@ public class ShadowedObjectFound implements InitializableMixin {
 
         private final ShadowsLocalBeans localBeans;
         private final ProvisioningContext ctx;
+        @Nullable private final PrefetchedShadows prefetchedShadows;
 
-        private InitializationContext(ShadowsLocalBeans localBeans, ProvisioningContext ctx) {
+        private InitializationContext(ShadowsLocalBeans localBeans, ProvisioningContext ctx,
+                @Nullable PrefetchedShadows prefetchedShadows) {
             this.localBeans = localBeans;
             this.ctx = ctx;
+            this.prefetchedShadows = prefetchedShadows;
         }
     }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.impl.shadows.manager;
+
+import java.util.List;
+import java.util.Map;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Repository shadows (live and dead) found for a batch of resource objects by a single query on their
+ * primary identifier values. It allows the shadow acquisition to avoid one repository query per object
+ * when processing objects found by a resource search.
+ *
+ * Each value can be used only once. Any further lookup for the same value goes to the repository,
+ * because the shadow could have been created or changed by the processing of the previous object.
+ *
+ * Thread safety: used by a single thread only (the one executing the search).
+ */
+public class PrefetchedShadows {
+
+    @NotNull private final QName objectClass;
+
+    @NotNull private final QName primaryIdentifierName;
+
+    /** Shadows keyed by normalized primary identifier value. Values that were not asked for are not present. */
+    @NotNull private final Map<Object, List<PrismObject<ShadowType>>> shadowsByIdentifierValue;
+
+    PrefetchedShadows(@NotNull QName objectClass, @NotNull QName primaryIdentifierName,
+            @NotNull Map<Object, List<PrismObject<ShadowType>>> shadowsByIdentifierValue) {
+        this.objectClass = objectClass;
+        this.primaryIdentifierName = primaryIdentifierName;
+        this.shadowsByIdentifierValue = shadowsByIdentifierValue;
+    }
+
+    /**
+     * Returns shadows found for given normalized primary identifier value, or null if the value is not covered
+     * (so the repository has to be asked).
+     */
+    @Nullable List<PrismObject<ShadowType>> take(@NotNull QName objectClass, @NotNull QName identifierName,
+            @NotNull Object normalizedValue) {
+        if (!QNameUtil.match(this.objectClass, objectClass) || !QNameUtil.match(primaryIdentifierName, identifierName)) {
+            return null;
+        }
+        return shadowsByIdentifierValue.remove(normalizedValue);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" +
+                "objectClass=" + objectClass +
+                ", primaryIdentifierName=" + primaryIdentifierName +
+                ", values=" + shadowsByIdentifierValue.size() +
+                '}';
+    }
+}
@@ -27,13 +27,16 @@ import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
@@ -41,7 +44,9 @@ import org.springframework.stereotype.Component;
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static com.evolveum.midpoint.provisioning.util.ProvisioningUtil.selectLiveShadow;
@@ -61,7 +66,8 @@ import static java.util.Objects.requireNonNull;
  * - lookup: returns a single shadow
  * - search: returns a collection of shadows
  *
- * Usually does not modify anything. An exception: `markShadowExists` call in {@link #lookupLiveShadowByPrimaryId(ProvisioningContext, PrismProperty, QName, OperationResult)}.
+ * Usually does not modify anything. An exception: `markShadowExists` call in
+ * {@link #lookupLiveShadowByPrimaryId(ProvisioningContext, PrismProperty, QName, PrefetchedShadows, OperationResult)}.
  * (Maybe there will be later similar actions also in other cases where we look for live shadows.)
  */
 @Component
@@ -83,20 +89,21 @@ class ShadowFinder {
      * Object class name is intentionally not taken from ctx - yet.
      */
     PrismObject<ShadowType> lookupLiveShadowByPrimaryId(ProvisioningContext ctx, PrismProperty<?> primaryIdentifier,
-            QName objectClass, OperationResult result)
+            QName objectClass, @Nullable PrefetchedShadows prefetchedShadows, OperationResult result)
             throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException,
             ExpressionEvaluationException {
 
-        ObjectQuery query = createQueryByPrimaryId(ctx, primaryIdentifier, objectClass);
-        LOGGER.trace("Searching for shadow by primary identifier (attributes) using filter:\n{}", DebugUtil.debugDumpLazily(query, 1));
+        List<PrismObject<ShadowType>> shadowsFound =
+                takePrefetchedShadows(ctx, primaryIdentifier, objectClass, prefetchedShadows);
+        if (shadowsFound != null) {
+            LOGGER.trace("Using {} prefetched shadows (live or dead)", shadowsFound.size());
+        } else {
+            ObjectQuery query = createQueryByPrimaryId(ctx, primaryIdentifier, objectClass);
+            LOGGER.trace("Searching for shadow by primary identifier (attributes) using filter:\n{}", DebugUtil.debugDumpLazily(query, 1));
 
-        // Explicitly avoid all caches. We want to avoid shadow duplication.
-        Collection<SelectorOptions<GetOperationOptions>> options = schemaService.getOperationOptionsBuilder()
-                .staleness(0L)
-                .build();
-
-        List<PrismObject<ShadowType>> shadowsFound = searchRepoShadows(query, options, result);
-        LOGGER.trace("Found {} shadows (live or dead)", shadowsFound.size());
+            shadowsFound = searchRepoShadows(query, createNoCacheOptions(), result);
+            LOGGER.trace("Found {} shadows (live or dead)", shadowsFound.size());
+        }
 
         PrismObject<ShadowType> liveShadow = selectLiveShadow(shadowsFound);
         if (liveShadow == null) {
@@ -111,6 +118,83 @@ class ShadowFinder {
         return liveShadow;
     }
 
+    private List<PrismObject<ShadowType>> takePrefetchedShadows(ProvisioningContext ctx, PrismProperty<?> primaryIdentifier,
+            QName objectClass, PrefetchedShadows prefetchedShadows) throws SchemaException, ConfigurationException {
+        if (prefetchedShadows == null) {
+            return null;
+        }
+        List<? extends PrismPropertyValue<?>> normalizedValues =
+                getNormalizedValue(primaryIdentifier, ctx.getObjectDefinitionRequired());
+        if (normalizedValues.size() != 1) {
+            return null;
+        }
+        return prefetchedShadows.take(objectClass, primaryIdentifier.getElementName(), normalizedValues.get(0).getRealValue());
+    }
+
+    /**
+     * Searches for shadows (live or dead) for more primary identifier values by a single repository query.
+     * The identifiers must be of the same attribute. Only string identifiers are supported, in order to be sure
+     * that the values found in the repository can be reliably matched to the requested ones.
+     *
+     * @return null if the identifiers are not suitable for such a search
+     */
+    @Nullable PrefetchedShadows prefetchShadowsByPrimaryIds(ProvisioningContext ctx,
+            Collection<PrismProperty<?>> primaryIdentifiers, QName objectClass, OperationResult result)
+            throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException,
+            ExpressionEvaluationException {
+
+        if (primaryIdentifiers.isEmpty()) {
+            return null;
+        }
+        PrismPropertyDefinition<?> def = primaryIdentifiers.iterator().next().getDefinition();
+        if (def == null || !QNameUtil.match(DOMUtil.XSD_STRING, def.getTypeName())) {
+            return null;
+        }
+
+        Map<Object, List<PrismObject<ShadowType>>> shadowsByValue = new HashMap<>();
+        List<PrismPropertyValue<?>> normalizedValues = new ArrayList<>();
+        for (PrismProperty<?> primaryIdentifier : primaryIdentifiers) {
+            if (!QNameUtil.match(def.getItemName(), primaryIdentifier.getElementName())) {
+                return null;
+            }
+            List<? extends PrismPropertyValue<?>> values =
+                    getNormalizedValue(primaryIdentifier, ctx.getObjectDefinitionRequired());
+            if (values.size() != 1) {
+                return null;
+            }
+            if (shadowsByValue.put(values.get(0).getRealValue(), new ArrayList<>()) == null) {
+                normalizedValues.add(values.get(0));
+            }
+        }
+
+        ObjectQuery query = prismContext.queryFor(ShadowType.class)
+                .itemWithDef(def, ShadowType.F_ATTRIBUTES, def.getItemName()).eq(normalizedValues)
+                .and().item(ShadowType.F_OBJECT_CLASS).eq(objectClass)
+                .and().item(ShadowType.F_RESOURCE_REF).ref(ctx.getResourceOid())
+                .build();
+        LOGGER.trace("Searching for shadows by {} primary identifier values", normalizedValues.size());
+
+        for (PrismObject<ShadowType> shadow : searchRepoShadows(query, createNoCacheOptions(), result)) {
+            List<Object> values = ShadowUtil.getAttributeValues(shadow, def.getItemName());
+            List<PrismObject<ShadowType>> shadowsForValue =
+                    values != null && values.size() == 1 ? shadowsByValue.get(values.get(0)) : null;
+            if (shadowsForValue == null) {
+                LOGGER.debug("Shadow {} cannot be matched to any of the primary identifier values, "
+                        + "shadows will be looked up individually", shadow);
+                return null;
+            }
+            shadowsForValue.add(shadow);
+        }
+        return new PrefetchedShadows(objectClass, def.getItemName(), shadowsByValue);
+    }
+
+    private Collection<SelectorOptions<GetOperationOptions>> createNoCacheOptions() {
+        // Explicitly avoid all caches. We want to avoid shadow duplication.
+        return schemaService.getOperationOptionsBuilder()
+                .staleness(0L)
+                .build();
+    }
+
     /** @return true if the shadow is OK; false if it does not exist any more */
     private boolean checkExistsFlagForLiveShadow(PrismObject<ShadowType> liveShadow, OperationResult result)
             throws SchemaException {
@@ -143,7 +227,7 @@ class ShadowFinder {
     }
 
     /**
-     * Unlike {@link #lookupLiveShadowByPrimaryId(ProvisioningContext, PrismProperty, QName, OperationResult)} this method
+     * Unlike {@link #lookupLiveShadowByPrimaryId(ProvisioningContext, PrismProperty, QName, PrefetchedShadows, OperationResult)} this method
      * queries directly the shadow.primaryIdentifierValue property. (And does not ask for shadow liveness.)
      */
     PrismObject<ShadowType> lookupShadowByIndexedPrimaryIdValue(ProvisioningContext ctx, String primaryIdentifierValue,
@@ -152,13 +236,8 @@ class ShadowFinder {
         ObjectQuery query = createQueryByPrimaryIdValue(ctx, primaryIdentifierValue);
         LOGGER.trace("Searching for shadow by primaryIdentifierValue using filter:\n{}", DebugUtil.debugDumpLazily(query, 1));
 
-        // Explicitly avoid all caches. We want to avoid shadow duplication.
-        Collection<SelectorOptions<GetOperationOptions>> options = schemaService.getOperationOptionsBuilder()
-                .staleness(0L)
-                .build();
-
         return ProvisioningUtil.selectSingleShadow(
-                searchRepoShadows(query, options, result),
+                searchRepoShadows(query, createNoCacheOptions(), result),
                 lazy(() -> "primary identifier value " + primaryIdentifierValue + " (impossible because of DB constraint)"));
     }
 
@@ -17,6 +17,7 @@ import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowLifecycleStateType;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
@@ -140,7 +141,33 @@ public class ShadowManager {
             @NotNull PrismProperty<?> primaryIdentifier, @NotNull QName objectClass, OperationResult result)
             throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException,
             ExpressionEvaluationException {
-        return shadowFinder.lookupLiveShadowByPrimaryId(ctx, primaryIdentifier, objectClass, result);
+        return shadowFinder.lookupLiveShadowByPrimaryId(ctx, primaryIdentifier, objectClass, null, result);
+    }
+
+    /**
+     * As {@link #lookupLiveShadowByPrimaryId(ProvisioningContext, PrismProperty, QName, OperationResult)} but uses
+     * prefetched shadows, if they cover the identifier.
+     */
+    public PrismObject<ShadowType> lookupLiveShadowByPrimaryId(ProvisioningContext ctx,
+            @NotNull PrismProperty<?> primaryIdentifier, @NotNull QName objectClass,
+            @Nullable PrefetchedShadows prefetchedShadows, OperationResult result)
+            throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException,
+            ExpressionEvaluationException {
+        return shadowFinder.lookupLiveShadowByPrimaryId(ctx, primaryIdentifier, objectClass, prefetchedShadows, result);
+    }
+
+    /**
+     * Searches for shadows for more primary identifier values (of the same attribute) by a single repository query.
+     * The result is to be used in subsequent {@link #lookupLiveShadowByPrimaryId(ProvisioningContext, PrismProperty,
+     * QName, PrefetchedShadows, OperationResult)} calls.
+     *
+     * @return null if the identifiers are not suitable for such a search
+     */
+    public @Nullable PrefetchedShadows prefetchShadowsByPrimaryIds(ProvisioningContext ctx,
+            @NotNull Collection<PrismProperty<?>> primaryIdentifiers, @NotNull QName objectClass, OperationResult result)
+            throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException,
+            ExpressionEvaluationException {
+        return shadowFinder.prefetchShadowsByPrimaryIds(ctx, primaryIdentifiers, objectClass, result);
     }
 
     /**
@@ -10,9 +10,13 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.evolveum.midpoint.schema.processor.ResourceSchemaFactory;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
@@ -24,6 +28,9 @@ import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.delta.PropertyDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.provisioning.impl.ResourceCache;
+import com.evolveum.midpoint.repo.api.Cache;
+import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
@@ -33,6 +40,7 @@ import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.util.ParallelTestThread;
 import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.exception.*;
@@ -51,6 +59,12 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 @DirtiesContext
 public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
 
+    @Autowired private ResourceCache resourceCache;
+
+    @Autowired
+    @Qualifier("repositoryService") // we want repo implementation, not cache
+    private RepositoryService plainRepositoryService;
+
     @Test
     public void test010GetResource() throws Exception {
         // GIVEN
@@ -522,6 +536,88 @@ public class TestDummyResourceAndSchemaCaching extends AbstractDummyTest {
         assertConnectorConfigChanged();
     }
 
+    /**
+     * With version check interval set, the resource version is not checked in the repository on each get.
+     * Between the checks we rely on invalidation events.
+     */
+    @Test
+    public void test040GetResourceWithVersionCheckInterval() throws Exception {
+        // GIVEN
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        resourceCache.setVersionCheckInterval(3_600_000);
+        try {
+            // The first get checks the version of the cached resource.
+            resourceManager.getResource(RESOURCE_DUMMY_OID, GetOperationOptions.createReadOnly(), task, result);
+            long versionChecksBefore = resourceCache.getVersionChecks();
+            long versionChecksSkippedBefore = resourceCache.getVersionChecksSkipped();
+            long staleBefore = resourceCache.getStale();
+
+            // WHEN
+            when();
+            for (int i = 0; i < 10; i++) {
+                resourceManager.getResource(RESOURCE_DUMMY_OID, GetOperationOptions.createReadOnly(), task, result);
+            }
+
+            // THEN
+            then();
+            assertSuccess(result);
+            AssertJUnit.assertEquals("Unexpected version checks", versionChecksBefore, resourceCache.getVersionChecks());
+            AssertJUnit.assertEquals("Wrong number of skipped version checks",
+                    versionChecksSkippedBefore + 10, resourceCache.getVersionChecksSkipped());
+            AssertJUnit.assertEquals("Unexpected stale resources", staleBefore, resourceCache.getStale());
+        } finally {
+            resourceCache.setVersionCheckInterval(0);
+        }
+    }
+
+    /**
+     * A resource that was not verified since being put into the cache must not be returned without a version check,
+     * even if other thread is checking the version at the same time. Here the cached resource is stale, as the change
+     * in the repository was not accompanied by an invalidation event.
+     */
+    @Test
+    public void test041GetUnverifiedResourceConcurrently() throws Exception {
+        // GIVEN
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        resourceCache.setVersionCheckInterval(3_600_000);
+        try {
+            resourceCache.invalidate(ResourceType.class, RESOURCE_DUMMY_OID, null);
+            resourceManager.getResource(RESOURCE_DUMMY_OID, GetOperationOptions.createReadOnly(), task, result);
+
+            plainRepositoryService.modifyObject(ResourceType.class, RESOURCE_DUMMY_OID,
+                    prismContext.deltaFor(ResourceType.class)
+                            .item(ResourceType.F_DESCRIPTION).replace("changed without invalidation")
+                            .asItemDeltas(),
+                    result);
+            // Only the repository caches are invalidated here, not the resource cache.
+            ((Cache) repositoryService).invalidate(ResourceType.class, RESOURCE_DUMMY_OID, null);
+            String repoVersion = repositoryService.getVersion(ResourceType.class, RESOURCE_DUMMY_OID, result);
+            Set<String> versionsReturned = ConcurrentHashMap.newKeySet();
+
+            // WHEN
+            when();
+            ParallelTestThread[] threads = multithread(
+                    (i) -> {
+                        Task localTask = createPlainTask("thread-" + i);
+                        versionsReturned.add(
+                                resourceManager.getResource(RESOURCE_DUMMY_OID, GetOperationOptions.createReadOnly(),
+                                        localTask, localTask.getResult()).getVersion());
+                    }, 10, null);
+            waitForThreads(threads, 60000L);
+
+            // THEN
+            then();
+            assertSuccess(result);
+            AssertJUnit.assertEquals("Stale resource returned", Set.of(repoVersion), versionsReturned);
+        } finally {
+            resourceCache.setVersionCheckInterval(0);
+        }
+    }
+
     @Test
     public void test900DeleteResource() throws Exception {
         // GIVEN
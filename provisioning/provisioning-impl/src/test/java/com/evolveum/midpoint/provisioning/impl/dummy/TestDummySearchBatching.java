@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.identityconnectors.framework.common.objects.OperationalAttributes.ENABLE_DATE_NAME;
+
+import java.io.FileNotFoundException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.xml.namespace.QName;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.ConflictException;
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.SchemaViolationException;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
+import com.evolveum.midpoint.provisioning.impl.shadows.manager.PrefetchedShadows;
+import com.evolveum.midpoint.provisioning.impl.shadows.manager.ShadowManager;
+import com.evolveum.midpoint.schema.ResourceShadowCoordinates;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.DummyTestResource;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests processing of resource search results in windows, with repository shadows looked up
+ * for the whole window at once (see `SearchHelper` and `PrefetchedShadows`).
+ *
+ * The window size is 100, so the counts used here make the search cross window boundaries
+ * and end with a partial window.
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummySearchBatching extends AbstractDummyTest {
+
+    private static final String ATTR_NUMBER = "number";
+
+    private static final DummyTestResource RESOURCE_DUMMY_SEARCH_BATCHING = new DummyTestResource(
+            TEST_DIR, "resource-dummy-search-batching.xml", "0b6a4b54-7bd4-4c4f-8e3a-1ed8c2e5a6b1", "search-batching",
+            TestDummySearchBatching::addAttributes
+    );
+
+    private static final int ACCOUNTS = 250;
+    private static final String INCONVERTIBLE_ACCOUNT = "inconvertible";
+
+    private static void addAttributes(DummyResourceContoller controller) throws ConnectException, FileNotFoundException,
+            SchemaViolationException, ConflictException, InterruptedException {
+        // This gives us a potential to induce exceptions during ConnId->object conversion, i.e. in the middle of the search.
+        controller.addAttrDef(controller.getDummyResource().getAccountObjectClass(),
+                ENABLE_DATE_NAME, Long.class, false, false);
+
+        // Non-string attribute, used to check that such identifiers are not prefetched.
+        controller.addAttrDef(controller.getDummyResource().getAccountObjectClass(),
+                ATTR_NUMBER, Integer.class, false, false);
+    }
+
+    @Autowired private ShadowManager shadowManager;
+
+    private PrismObject<ResourceType> resourceWithSchema;
+
+    @Override
+    public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+        super.initSystem(initTask, initResult);
+
+        initDummyResource(RESOURCE_DUMMY_SEARCH_BATCHING, initResult);
+        testResourceAssertSuccess(RESOURCE_DUMMY_SEARCH_BATCHING, initTask);
+        resourceWithSchema = provisioningService.getObject(
+                ResourceType.class, RESOURCE_DUMMY_SEARCH_BATCHING.oid, null, initTask, initResult);
+    }
+
+    /** Objects are handed over in the order the connector returned them, also across window boundaries. */
+    @Test
+    public void test100SearchCreatesShadowsInOrder() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        List<String> names = createAccounts(ACCOUNTS);
+
+        when();
+        List<PrismObject<ShadowType>> objects = searchAllAccounts(task, result);
+
+        then();
+        assertSuccess(result);
+        assertThat(getNames(objects)).as("names of objects found").containsExactlyElementsOf(names);
+        assertThat(objects).allSatisfy(o -> assertThat(o.getOid()).as("shadow OID").isNotNull());
+        assertThat(getRepoShadowsCount(result)).as("repo shadows").isEqualTo(ACCOUNTS);
+    }
+
+    /** Existing shadows are found by the window lookup; no new ones are created. */
+    @Test
+    public void test110SearchFindsExistingShadows() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        List<String> oidsBefore = getRepoShadowOids(result);
+
+        when();
+        List<PrismObject<ShadowType>> objects = searchAllAccounts(task, result);
+
+        then();
+        assertSuccess(result);
+        assertThat(objects).hasSize(ACCOUNTS);
+        assertThat(objects.stream().map(PrismObject::getOid).collect(Collectors.toList()))
+                .as("OIDs of objects found")
+                .containsExactlyInAnyOrderElementsOf(oidsBefore);
+        assertThat(getRepoShadowsCount(result)).as("repo shadows").isEqualTo(ACCOUNTS);
+    }
+
+    /** Handler returning false in the middle of the second window stops the processing right there. */
+    @Test
+    public void test120HandlerStopsInTheMiddleOfWindow() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        int stopAfter = 150;
+
+        when();
+        List<PrismObject<ShadowType>> objects = new ArrayList<>();
+        ResultHandler<ShadowType> handler = (object, parentResult) -> {
+            objects.add(object);
+            return objects.size() < stopAfter;
+        };
+        provisioningService.searchObjectsIterative(ShadowType.class, getAllAccountsQuery(RESOURCE_DUMMY_SEARCH_BATCHING),
+                null, handler, task, result);
+
+        then();
+        assertThat(objects).as("objects handled").hasSize(stopAfter);
+        assertThat(getNames(objects)).as("names of objects handled")
+                .containsExactlyElementsOf(getAccountNames().subList(0, stopAfter));
+    }
+
+    /**
+     * Conversion of an object after the last full window fails, stopping the connector search.
+     * Objects fetched before the failure (the partial window) must be processed anyway.
+     */
+    @Test
+    public void test130ConnectorFailureAfterPartialWindow() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        DummyAccount inconvertible = RESOURCE_DUMMY_SEARCH_BATCHING.controller.addAccount(INCONVERTIBLE_ACCOUNT);
+        inconvertible.addAttributeValue(ENABLE_DATE_NAME, "WRONG");
+
+        when();
+        List<PrismObject<ShadowType>> objects = new ArrayList<>();
+        ResultHandler<ShadowType> handler = (object, parentResult) -> {
+            objects.add(object);
+            return true;
+        };
+        try {
+            provisioningService.searchObjectsIterative(ShadowType.class,
+                    getAllAccountsQuery(RESOURCE_DUMMY_SEARCH_BATCHING), null, handler, task, result);
+            assertNotReached();
+        } catch (Exception e) {
+            then();
+            displayExpectedException(e);
+        }
+
+        and("all objects before the broken one were processed");
+        assertThat(getNames(objects)).as("names of objects handled")
+                .containsExactlyElementsOf(getAccountNames().subList(0, ACCOUNTS));
+
+        RESOURCE_DUMMY_SEARCH_BATCHING.controller.getDummyResource().deleteAccountById(inconvertible.getId());
+    }
+
+    /**
+     * Processing of an object creates a shadow for another object of the same window (here by a nested search).
+     * The shadow is not among the prefetched ones, so the shadow creation for the latter object conflicts with it.
+     * The conflict has to be resolved by looking into the repository, not by creating a duplicate.
+     */
+    @Test
+    public void test140ShadowCreatedByEarlierObjectInSameWindow() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        cleanupAccounts(RESOURCE_DUMMY_SEARCH_BATCHING, result);
+        List<String> names = createAccounts(ACCOUNTS);
+        String earlierName = names.get(110);
+        String laterName = names.get(111);
+
+        when();
+        List<PrismObject<ShadowType>> objects = new ArrayList<>();
+        List<PrismObject<ShadowType>> nestedObjects = new ArrayList<>();
+        ResultHandler<ShadowType> handler = (object, parentResult) -> {
+            objects.add(object);
+            if (earlierName.equals(getName(object))) {
+                try {
+                    nestedObjects.addAll(provisioningService.searchObjects(ShadowType.class,
+                            createAccountShadowQuery(laterName, resourceWithSchema), null, task, parentResult));
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+            return true;
+        };
+        provisioningService.searchObjectsIterative(ShadowType.class, getAllAccountsQuery(RESOURCE_DUMMY_SEARCH_BATCHING),
+                null, handler, task, result);
+
+        then();
+        assertThat(getNames(objects)).as("names of objects found").containsExactlyElementsOf(names);
+        assertThat(nestedObjects).as("objects found by nested search").hasSize(1);
+        String laterOid = nestedObjects.get(0).getOid();
+        assertThat(laterOid).as("OID of shadow created by nested search").isNotNull();
+        assertThat(selectAccountByName(objects, laterName).getOid())
+                .as("OID of shadow for the later object")
+                .isEqualTo(laterOid);
+        assertThat(repositoryService.searchObjects(ShadowType.class,
+                createAccountShadowQuery(laterName, resourceWithSchema), null, result))
+                .as("repo shadows for the later object")
+                .hasSize(1);
+        assertThat(getRepoShadowsCount(result)).as("repo shadows").isEqualTo(ACCOUNTS);
+    }
+
+    /**
+     * Only string identifiers are prefetched (the values found in the repository could not be matched
+     * reliably to the requested ones otherwise). For the others, the individual lookup is used.
+     */
+    @Test
+    public void test200NonStringIdentifiersAreNotPrefetched() throws Exception {
+        given();
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        QName objectClass = RESOURCE_DUMMY_SEARCH_BATCHING.controller.getAccountObjectClass();
+        ProvisioningContext ctx = provisioningContextFactory.createForCoordinates(
+                new ResourceShadowCoordinates(RESOURCE_DUMMY_SEARCH_BATCHING.oid, ShadowKindType.ACCOUNT, null, objectClass),
+                task, result);
+        String existingName = getAccountNames().get(0);
+
+        ResourceAttribute<Integer> number = createAttribute(ctx, new QName(MidPointConstants.NS_RI, ATTR_NUMBER));
+        number.setRealValue(1);
+        ResourceAttribute<String> uid = createAttribute(ctx, SchemaConstants.ICFS_UID);
+        uid.setRealValue(existingName);
+
+        when("non-string identifier is prefetched");
+        PrefetchedShadows numberPrefetched =
+                shadowManager.prefetchShadowsByPrimaryIds(ctx, List.of(number), objectClass, result);
+
+        then("nothing is prefetched");
+        assertThat(numberPrefetched).as("prefetched shadows for non-string identifier").isNull();
+
+        when("identifiers of different attributes are prefetched together");
+        PrefetchedShadows mixedPrefetched =
+                shadowManager.prefetchShadowsByPrimaryIds(ctx, List.of(uid, number), objectClass, result);
+
+        then("nothing is prefetched");
+        assertThat(mixedPrefetched).as("prefetched shadows for mixed identifiers").isNull();
+
+        when("string identifier is prefetched and then looked up");
+        PrefetchedShadows uidPrefetched =
+                shadowManager.prefetchShadowsByPrimaryIds(ctx, List.of(uid), objectClass, result);
+        PrismObject<ShadowType> found =
+                shadowManager.lookupLiveShadowByPrimaryId(ctx, uid, objectClass, uidPrefetched, result);
+        PrismObject<ShadowType> foundIndividually =
+                shadowManager.lookupLiveShadowByPrimaryId(ctx, uid, objectClass, null, result);
+
+        then("the same shadow is found as by the individual lookup");
+        assertThat(uidPrefetched).as("prefetched shadows for string identifier").isNotNull();
+        assertThat(found).as("shadow found using prefetched shadows").isNotNull();
+        assertThat(found.getOid()).isEqualTo(foundIndividually.getOid());
+    }
+
+    private List<String> createAccounts(int count) throws Exception {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String name = String.format("account-%03d", i);
+            DummyAccount account = RESOURCE_DUMMY_SEARCH_BATCHING.controller.addAccount(name);
+            account.addAttributeValue(ATTR_NUMBER, i);
+            names.add(name);
+        }
+        return names;
+    }
+
+    /** Names of accounts on the resource, in the order the connector returns them. */
+    private List<String> getAccountNames() throws Exception {
+        return RESOURCE_DUMMY_SEARCH_BATCHING.controller.getDummyResource().listAccounts().stream()
+                .map(DummyAccount::getName)
+                .collect(Collectors.toList());
+    }
+
+    private List<PrismObject<ShadowType>> searchAllAccounts(Task task, OperationResult result) throws Exception {
+        List<PrismObject<ShadowType>> objects = new ArrayList<>();
+        ResultHandler<ShadowType> handler = (object, parentResult) -> {
+            objects.add(object);
+            return true;
+        };
+        provisioningService.searchObjectsIterative(ShadowType.class, getAllAccountsQuery(RESOURCE_DUMMY_SEARCH_BATCHING),
+                null, handler, task, result);
+        return objects;
+    }
+
+    private List<String> getRepoShadowOids(OperationResult result) throws Exception {
+        SearchResultList<PrismObject<ShadowType>> shadows = repositoryService.searchObjects(
+                ShadowType.class, getAllAccountsQuery(RESOURCE_DUMMY_SEARCH_BATCHING), null, result);
+        return shadows.stream().map(PrismObject::getOid).collect(Collectors.toList());
+    }
+
+    private int getRepoShadowsCount(OperationResult result) throws Exception {
+        return repositoryService.countObjects(
+                ShadowType.class, getAllAccountsQuery(RESOURCE_DUMMY_SEARCH_BATCHING), null, result);
+    }
+
+    private List<String> getNames(List<PrismObject<ShadowType>> objects) {
+        return objects.stream()
+                .map(this::getName)
+                .collect(Collectors.toList());
+    }
+
+    private String getName(PrismObject<ShadowType> object) {
+        return object.asObjectable().getName().getOrig();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ResourceAttribute<T> createAttribute(ProvisioningContext ctx, QName name) throws Exception {
+        return (ResourceAttribute<T>) ctx.getObjectDefinitionRequired()
+                .findAttributeDefinitionRequired(name)
+                .instantiate();
+    }
+}
@@ -53,6 +53,9 @@ public class ValueOperation extends Operation {
                     if (convertedValues == null || convertedValues.isEmpty()) {
                         Attribute attr = AttributeBuilder.build(icfName);
                         return FilterBuilder.equalTo(attr);
+                    } else if (valueFilter.getDefinition().isSingleValue() && convertedValues.size() > 1) {
+                        // "Any IN" semantics, used e.g. to look up more objects by their identifiers at once.
+                        return createEqualToAnyFilter(icfName, convertedValues);
                     } else {
                         Attribute attr = AttributeBuilder.build(icfName, convertedValues);
                         if (valueFilter.getDefinition().isSingleValue()) {
@@ -156,6 +159,15 @@ public class ValueOperation extends Operation {
         }
     }
 
+    private Filter createEqualToAnyFilter(String icfName, Collection<Object> values) {
+        Filter filter = null;
+        for (Object value : values) {
+            Filter equalTo = FilterBuilder.equalTo(AttributeBuilder.build(icfName, value));
+            filter = filter != null ? FilterBuilder.or(filter, equalTo) : equalTo;
+        }
+        return filter;
+    }
+
     private <T> Collection<Object> convertValues(QName propName, List<PrismPropertyValue<T>> values) throws SchemaException {
         if (values == null) {
             return null;
@@ -33,6 +33,7 @@ import com.evolveum.icf.dummy.resource.DummyAccount;
 import com.evolveum.icf.dummy.resource.DummySyncStyle;
 import com.evolveum.midpoint.prism.*;
 import com.evolveum.midpoint.prism.impl.schema.PrismSchemaImpl;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.schema.PrismSchema;
 import com.evolveum.midpoint.prism.schema.SchemaRegistry;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
@@ -334,6 +335,42 @@ public class TestUcfDummy extends AbstractUcfDummyTest {
         assertEquals("Unexpected number of search results", 1, searchResults.size());
     }
 
+    /**
+     * Equality filter with more values on a single-valued attribute means "any of the values".
+     * It is sent to the connector as a disjunction.
+     */
+    @Test
+    public void test060SearchByMoreNames() throws Exception {
+        // GIVEN
+        UcfExecutionContext ctx = createExecutionContext();
+        dummyResource.addAccount(new DummyAccount("will"));
+        dummyResource.addAccount(new DummyAccount("elaine"));
+
+        ResourceObjectClassDefinition accountDefinition =
+                resourceSchema.findObjectClassDefinitionRequired(ACCOUNT_OBJECT_CLASS_NAME);
+        ResourceAttributeDefinition<?> nameDefinition =
+                accountDefinition.findAttributeDefinitionRequired(SchemaConstants.ICFS_NAME);
+        ObjectQuery query = prismContext.queryFor(ShadowType.class)
+                .itemWithDef(nameDefinition, ShadowType.F_ATTRIBUTES, nameDefinition.getItemName())
+                .eq(ACCOUNT_JACK_USERNAME, "will", "nobody")
+                .build();
+
+        List<String> names = new ArrayList<>();
+        ObjectHandler handler = (ucfObject, result) -> {
+            names.addAll(ShadowUtil.getAttributeValues(ucfObject.getResourceObject(), SchemaConstants.ICFS_NAME));
+            return true;
+        };
+
+        OperationResult result = createOperationResult();
+
+        // WHEN
+        cc.search(accountDefinition, query, handler, null, null, null, null, ctx, result);
+
+        // THEN
+        assertEquals("Unexpected search results", Set.of(ACCOUNT_JACK_USERNAME, "will"), Set.copyOf(names));
+        assertEquals("Unexpected number of search results", 2, names.size());
+    }
+
     private void checkUcfShadow(PrismObject<ShadowType> shadow, ResourceObjectClassDefinition objectClassDefinition) {
         assertNotNull("No objectClass in shadow " + shadow, shadow.asObjectable().getObjectClass());
         assertEquals("Wrong objectClass in shadow " + shadow, objectClassDefinition.getTypeName(), shadow.asObjectable().getObjectClass());
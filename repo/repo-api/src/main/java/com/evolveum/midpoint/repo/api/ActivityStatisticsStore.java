@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.annotation.Experimental;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityStatisticsType;
+
+/**
+ * Keeps activity statistics outside of the task, as an append-only sequence of increments.
+ *
+ * Increments are identified by the OID of the task that collected them (e.g. a worker task)
+ * and the activity path (as a string). Each increment covers one time interval, typically the interval
+ * between two statistics updates of the running task. So updating the statistics does not require rewriting
+ * the task object, which can be large for long-running activities.
+ *
+ * The statistics are summed up on read. To keep the reading cheap, the increments should be merged
+ * by {@link #compactStatistics(String, String, OperationResult)} from time to time.
+ *
+ * Only the native repository implements this interface.
+ */
+@Experimental
+public interface ActivityStatisticsStore {
+
+    String CLASS_NAME_WITH_DOT = ActivityStatisticsStore.class.getName() + ".";
+
+    String OP_ADD_STATISTICS = "addStatistics";
+    String OP_GET_STATISTICS = "getStatistics";
+    String OP_COMPACT_STATISTICS = "compactStatistics";
+    String OP_DELETE_STATISTICS = "deleteStatistics";
+
+    /**
+     * Appends statistics increment collected by given task in given activity during the interval
+     * between `intervalStart` and `intervalEnd` (both in milliseconds).
+     */
+    void addStatistics(@NotNull String taskOid, @NotNull String activityPath, long intervalStart, long intervalEnd,
+            @NotNull ActivityStatisticsType increment, @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Returns the sum of all statistics increments for given task, keyed by activity path.
+     * Activities without any increments are not present in the map.
+     */
+    @NotNull Map<String, ActivityStatisticsType> getStatistics(@NotNull String taskOid,
+            @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Replaces all increments for given task and activity by a single one, equal to their sum.
+     * Returns the number of increments replaced.
+     */
+    int compactStatistics(@NotNull String taskOid, @NotNull String activityPath, @NotNull OperationResult parentResult)
+            throws SchemaException;
+
+    /**
+     * Deletes all increments for given task and activity, e.g. when the activity state is purged.
+     * Returns the number of increments deleted.
+     */
+    int deleteStatistics(@NotNull String taskOid, @NotNull String activityPath, @NotNull OperationResult parentResult);
+}
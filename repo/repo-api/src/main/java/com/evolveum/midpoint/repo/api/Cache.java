@@ -24,4 +24,13 @@ public interface Cache {
     Collection<SingleCacheStateInformationType> getStateInformation();
 
     void dumpContent();
+
+    /**
+     * Returns true if this cache needs changes of objects of given type to be invalidated on all cluster nodes,
+     * not only on the node where the change occurred. Used by caches holding data derived from these objects
+     * that cannot be checked for being up to date (e.g. by comparing object versions).
+     */
+    default boolean isClusterwideInvalidationNeeded(@NotNull Class<?> type) {
+        return false;
+    }
 }
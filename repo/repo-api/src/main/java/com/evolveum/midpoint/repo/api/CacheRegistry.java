@@ -7,6 +7,8 @@
 
 package com.evolveum.midpoint.repo.api;
 
+import org.jetbrains.annotations.NotNull;
+
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CachesStateInformationType;
 
 /**
@@ -21,4 +23,10 @@ public interface CacheRegistry {
     CachesStateInformationType getStateInformation();
 
     void dumpContent();
+
+    /**
+     * Returns true if any of the registered caches needs changes of objects of given type
+     * to be invalidated clusterwide. See {@link Cache#isClusterwideInvalidationNeeded(Class)}.
+     */
+    boolean isClusterwideInvalidationNeeded(@NotNull Class<?> type);
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.annotation.Experimental;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationMessageType;
+
+/**
+ * Durable queue of notification messages waiting for delivery (the "outbox").
+ *
+ * Messages are added by the threads that create them and delivered by a background dispatcher, possibly
+ * on any node of the cluster. The dispatcher claims messages under a lease: a claimed message is not claimed again
+ * until the lease expires. So if the node dies during the delivery, the message is delivered by another node
+ * (or later by the same one). After the delivery the message is deleted; after a failed attempt it is rescheduled.
+ *
+ * Only the native repository implements this interface.
+ */
+@Experimental
+public interface NotificationOutboxStore {
+
+    String CLASS_NAME_WITH_DOT = NotificationOutboxStore.class.getName() + ".";
+
+    String OP_ADD_MESSAGE = "addMessage";
+    String OP_CLAIM_MESSAGES = "claimMessages";
+    String OP_RESCHEDULE_MESSAGE = "rescheduleMessage";
+    String OP_DELETE_MESSAGE = "deleteMessage";
+
+    /**
+     * Adds a message to be delivered by given transport as soon as possible.
+     *
+     * @return Identifier of the queued message.
+     */
+    long addMessage(@NotNull String transportName, @NotNull NotificationMessageType message,
+            @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Claims up to `limit` messages whose next attempt is due, oldest first. The next attempt of claimed messages
+     * is moved to the end of the lease. Messages being claimed by other dispatchers concurrently are skipped,
+     * so this operation does not wait for them.
+     */
+    @NotNull List<QueuedMessage> claimMessages(int limit, long leaseDuration, @NotNull OperationResult parentResult)
+            throws SchemaException;
+
+    /**
+     * Records a failed delivery attempt. The message will be claimable again at `nextAttempt` (epoch millis).
+     */
+    void rescheduleMessage(long id, long nextAttempt, @Nullable String error, @NotNull OperationResult parentResult);
+
+    /**
+     * Deletes the message, either after it was delivered or when giving up on it.
+     */
+    void deleteMessage(long id, @NotNull OperationResult parentResult);
+
+    /**
+     * Message claimed for the delivery.
+     */
+    class QueuedMessage {
+
+        private final long id;
+        @NotNull private final String transportName;
+        @NotNull private final NotificationMessageType message;
+        private final int attempts;
+
+        public QueuedMessage(long id, @NotNull String transportName, @NotNull NotificationMessageType message,
+                int attempts) {
+            this.id = id;
+            this.transportName = transportName;
+            this.message = message;
+            this.attempts = attempts;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public @NotNull String getTransportName() {
+            return transportName;
+        }
+
+        public @NotNull NotificationMessageType getMessage() {
+            return message;
+        }
+
+        /** Number of failed delivery attempts so far. */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public String toString() {
+            return "QueuedMessage{" +
+                    "id=" + id +
+                    ", transportName='" + transportName + '\'' +
+                    ", to=" + message.getTo() +
+                    ", attempts=" + attempts +
+                    '}';
+        }
+    }
+}
@@ -7,6 +7,9 @@
 package com.evolveum.midpoint.repo.api;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -123,6 +126,7 @@ public interface RepositoryService {
     String OP_RETURN_UNUSED_VALUES_TO_SEQUENCE = "returnUnusedValuesToSequence";
     String OP_EXECUTE_QUERY_DIAGNOSTICS = "executeQueryDiagnostics";
     String OP_GET_OBJECT = "getObject";
+    String OP_GET_OBJECTS = "getObjects";
     String OP_SEARCH_SHADOW_OWNER = "searchShadowOwner";
     String OP_SEARCH_OBJECTS = "searchObjects";
     String OP_SEARCH_OBJECTS_ITERATIVE = "searchObjectsIterative";
@@ -137,6 +141,7 @@ public interface RepositoryService {
 
     // Not used by new repo, instead class specific prefix + OP_* constants are used
     String GET_OBJECT = CLASS_NAME_WITH_DOT + OP_GET_OBJECT;
+    String GET_OBJECTS = CLASS_NAME_WITH_DOT + OP_GET_OBJECTS;
     String ADD_OBJECT = CLASS_NAME_WITH_DOT + OP_ADD_OBJECT;
     String DELETE_OBJECT = CLASS_NAME_WITH_DOT + OP_DELETE_OBJECT;
     String SEARCH_OBJECTS = CLASS_NAME_WITH_DOT + OP_SEARCH_OBJECTS;
@@ -173,6 +178,35 @@ public interface RepositoryService {
             Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult)
             throws ObjectNotFoundException, SchemaException;
 
+    /**
+     * Returns objects for provided OIDs.
+     *
+     * Unlike {@link #getObject(Class, String, Collection, OperationResult)} this method does not fail
+     * if some of the objects do not exist; they are simply missing in the returned map.
+     * Implementations should fetch all the objects in a single round trip to the storage.
+     * The default implementation falls back to one {@link #getObject(Class, String, Collection, OperationResult)}
+     * call per OID.
+     *
+     * @param oids OIDs of the objects to get (duplicates are ignored)
+     * @param parentResult parent OperationResult (in/out)
+     * @return Objects found, keyed by OID, in the order of provided OIDs
+     * @throws SchemaException error dealing with storage schema
+     * @throws IllegalArgumentException wrong OID format, etc.
+     */
+    default @NotNull <O extends ObjectType> Map<String, PrismObject<O>> getObjects(@NotNull Class<O> type,
+            @NotNull Collection<String> oids, Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        Map<String, PrismObject<O>> objects = new LinkedHashMap<>();
+        for (String oid : new LinkedHashSet<>(oids)) {
+            try {
+                objects.put(oid, getObject(type, oid, options, parentResult));
+            } catch (ObjectNotFoundException e) {
+                parentResult.muteLastSubresultError();
+            }
+        }
+        return objects;
+    }
+
     /**
      * Returns object version for provided OID.
      * <p>
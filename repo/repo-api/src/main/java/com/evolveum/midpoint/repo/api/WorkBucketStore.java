@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.annotation.Experimental;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Keeps work buckets of distributed activities outside of the coordinator task.
+ *
+ * Buckets are identified by the coordinator task OID, activity path (as a string) and the bucket sequential number.
+ * Each bucket is stored separately, so workers do not contend for the coordinator task when getting,
+ * completing or releasing buckets.
+ *
+ * Delegated buckets are held by workers under a lease. The worker should renew the lease
+ * (see {@link #renewLeases(String, String, String, long, OperationResult)}) while it works on the bucket.
+ * A bucket with an expired lease can be claimed by any other worker.
+ *
+ * Returned buckets contain state and worker reference corresponding to the stored state.
+ *
+ * Only the native repository implements this interface.
+ */
+@Experimental
+public interface WorkBucketStore {
+
+    String CLASS_NAME_WITH_DOT = WorkBucketStore.class.getName() + ".";
+
+    String OP_GET_DELEGATED_BUCKETS = "getDelegatedBuckets";
+    String OP_GET_BUCKET = "getBucket";
+    String OP_GET_LAST_BUCKET = "getLastBucket";
+    String OP_COUNT_BUCKETS = "countBuckets";
+    String OP_CLAIM_BUCKETS = "claimBuckets";
+    String OP_ADD_BUCKETS = "addBuckets";
+    String OP_COMPLETE_BUCKET = "completeBucket";
+    String OP_RELEASE_BUCKETS = "releaseBuckets";
+    String OP_RENEW_LEASES = "renewLeases";
+    String OP_DELETE_BUCKETS = "deleteBuckets";
+
+    /**
+     * Returns buckets delegated to given worker, ordered by sequential number.
+     * Buckets with expired leases are returned as well, as they were not claimed by anyone else yet.
+     */
+    @NotNull List<WorkBucketType> getDelegatedBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull String workerOid, @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Returns the bucket with given sequential number (in any state), or null if there is no such bucket.
+     */
+    @Nullable WorkBucketType getBucket(@NotNull String coordinatorOid, @NotNull String activityPath, int sequentialNumber,
+            @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Returns the bucket with the highest sequential number (in any state), or null if there are no buckets.
+     * New buckets are created after this one.
+     */
+    @Nullable WorkBucketType getLastBucket(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Counts buckets in given state (or all buckets, if the state is null).
+     */
+    int countBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @Nullable WorkBucketStateType state, @NotNull OperationResult parentResult);
+
+    /**
+     * Claims up to `limit` buckets for the worker: ready buckets and delegated buckets whose lease has expired.
+     * Buckets are taken in the order of their sequential numbers. Buckets being claimed by other workers concurrently
+     * are skipped, so this operation does not wait for them.
+     *
+     * @return Claimed buckets (now delegated to the worker), ordered by sequential number. Empty if there are none.
+     */
+    @NotNull List<WorkBucketType> claimBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull String workerOid, int limit, long leaseDuration, @NotNull OperationResult parentResult)
+            throws SchemaException;
+
+    /**
+     * Adds new buckets. Buckets must have sequential number and state set. Delegated buckets must have worker
+     * reference set; they get a lease of given duration.
+     *
+     * @return false if any of the buckets already exists (i.e. some other worker has created it in the meanwhile).
+     * Nothing is added in such case.
+     */
+    boolean addBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull List<WorkBucketType> buckets, long leaseDuration, @NotNull OperationResult parentResult)
+            throws SchemaException;
+
+    /**
+     * Marks the bucket as complete.
+     *
+     * @param workerOid If not null, the bucket must be delegated to this worker.
+     * @return false if there is no such (matching) bucket. Use {@link #getBucket(String, String, int, OperationResult)}
+     * to find out whether the bucket does not exist or whether it is delegated to someone else
+     * (i.e. the worker has lost its lease).
+     */
+    boolean completeBucket(@NotNull String coordinatorOid, @NotNull String activityPath, int sequentialNumber,
+            @Nullable String workerOid, @NotNull OperationResult parentResult);
+
+    /**
+     * Returns buckets delegated to the worker back to the ready state.
+     *
+     * @param sequentialNumber Bucket to be released; null means all buckets delegated to the worker.
+     * @return Number of buckets released.
+     */
+    int releaseBuckets(@NotNull String coordinatorOid, @NotNull String activityPath, @NotNull String workerOid,
+            @Nullable Integer sequentialNumber, @NotNull OperationResult parentResult);
+
+    /**
+     * Prolongs leases of all buckets delegated to the worker.
+     *
+     * @return Number of buckets whose lease was renewed.
+     */
+    int renewLeases(@NotNull String coordinatorOid, @NotNull String activityPath, @NotNull String workerOid,
+            long leaseDuration, @NotNull OperationResult parentResult);
+
+    /**
+     * Deletes all buckets of the activity, e.g. when the distributed activity is started again.
+     *
+     * @return Number of buckets deleted.
+     */
+    int deleteBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull OperationResult parentResult);
+}
@@ -12,6 +12,7 @@ import static com.evolveum.midpoint.repo.cache.other.MonitoringUtil.repoOpStart;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.PreDestroy;
 
 import org.jetbrains.annotations.NotNull;
@@ -100,6 +101,14 @@ public class RepositoryCache implements RepositoryService, Cache {
         return getObjectOpHandler.getObject(type, oid, options, parentResult);
     }
 
+    @NotNull
+    @Override
+    public <T extends ObjectType> Map<String, PrismObject<T>> getObjects(@NotNull Class<T> type,
+            @NotNull Collection<String> oids, Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        return getObjectOpHandler.getObjects(type, oids, options, parentResult);
+    }
+
     @Override
     public <T extends ObjectType> String getVersion(Class<T> type, String oid, OperationResult parentResult)
             throws ObjectNotFoundException, SchemaException {
@@ -392,6 +401,7 @@ public class RepositoryCache implements RepositoryService, Cache {
         rv.addAll(globalObjectCache.getStateInformation());
         rv.addAll(globalVersionCache.getStateInformation());
         rv.addAll(globalQueryCache.getStateInformation());
+        rv.addAll(invalidator.getQueryInvalidationStateInformation());
         return rv;
     }
 
@@ -9,6 +9,7 @@ package com.evolveum.midpoint.repo.cache.global;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.cache.local.QueryKey;
+import com.evolveum.midpoint.repo.cache.local.QueryKeyIndex;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.cache.CacheType;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -18,8 +19,12 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInfo
 
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.cache2k.Cache2kBuilder;
+import org.cache2k.event.CacheEntryEvictedListener;
+import org.cache2k.event.CacheEntryExpiredListener;
+import org.cache2k.event.CacheEntryRemovedListener;
 import org.cache2k.expiry.ExpiryPolicy;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PreDestroy;
@@ -27,8 +32,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Predicate;
 
 import static com.evolveum.midpoint.repo.cache.handlers.SearchOpHandler.QUERY_RESULT_SIZE_LIMIT;
 
@@ -45,6 +50,12 @@ public class GlobalQueryCache extends AbstractGlobalCache {
 
     private org.cache2k.Cache<QueryKey, GlobalCacheQueryValue> cache;
 
+    /**
+     * Index used to find queries affected by object changes, see {@link QueryKeyIndex}.
+     * Keys are added before they are put into the cache and removed by cache listeners.
+     */
+    private final QueryKeyIndex index = new QueryKeyIndex();
+
     public void initialize() {
         if (cache != null) {
             LOGGER.warn("Global query cache was already initialized -- ignoring this request.");
@@ -59,6 +70,12 @@ public class GlobalQueryCache extends AbstractGlobalCache {
                     .name(CACHE_NAME)
                     .entryCapacity(capacity)
                     .expiryPolicy(getExpirePolicy())
+                    .addListener((CacheEntryRemovedListener<QueryKey, GlobalCacheQueryValue>)
+                            (c, entry) -> index.removeIfSameResult(entry.getKey(), entry.getValue().getResult()))
+                    .addListener((CacheEntryExpiredListener<QueryKey, GlobalCacheQueryValue>)
+                            (c, entry) -> index.removeIfSameResult(entry.getKey(), entry.getValue().getResult()))
+                    .addListener((CacheEntryEvictedListener<QueryKey, GlobalCacheQueryValue>)
+                            (c, entry) -> index.removeIfSameResult(entry.getKey(), entry.getValue().getResult()))
                     .build();
             LOGGER.info("Created global repository query cache with a capacity of {} queries", capacity);
         }
@@ -74,6 +91,7 @@ public class GlobalQueryCache extends AbstractGlobalCache {
             cache.close();
             cache = null;
         }
+        index.clear();
     }
 
     public boolean isAvailable() {
@@ -102,14 +120,22 @@ public class GlobalQueryCache extends AbstractGlobalCache {
             if (cacheObject.size() > QUERY_RESULT_SIZE_LIMIT) {
                 throw new IllegalStateException("Trying to cache result list greater than " + QUERY_RESULT_SIZE_LIMIT + ": " + cacheObject.size());
             }
+            index.add(key, cacheObject);
             //noinspection unchecked
             cache.put(key, new GlobalCacheQueryValue(cacheObject));
         }
     }
 
-    public void deleteMatching(Predicate<Map.Entry<QueryKey, GlobalCacheQueryValue>> predicate) {
+    /**
+     * Returns keys of cached queries that may be affected by the change of specified object.
+     * See {@link QueryKeyIndex#getCandidates(Class, String, boolean, PrismObject)}.
+     */
+    public @NotNull Set<QueryKey<?>> getInvalidationCandidates(@NotNull Class<?> type, String oid,
+            boolean objectAfterChangeKnown, @Nullable PrismObject<?> objectAfterChange) {
         if (cache != null) {
-            cache.asMap().entrySet().removeIf(predicate);
+            return index.getCandidates(type, oid, objectAfterChangeKnown, objectAfterChange);
+        } else {
+            return Set.of();
         }
     }
 
@@ -119,13 +145,14 @@ public class GlobalQueryCache extends AbstractGlobalCache {
     }
 
     public int size() {
-        return cache.asMap().size();
+        return cache != null ? cache.asMap().size() : 0;
     }
 
     @Override
     public void clear() {
         if (cache != null) {
-            cache.clear();
+            // Not clear(), because we need the listeners to keep the index consistent.
+            cache.removeAll();
         }
     }
 
@@ -14,8 +14,7 @@ import static com.evolveum.midpoint.schema.GetOperationOptions.isAllowNotFound;
 import static com.evolveum.midpoint.schema.SelectorOptions.findRootOptions;
 import static com.evolveum.midpoint.schema.util.TraceUtil.isAtLeastMinimal;
 
-import java.util.Collection;
-import java.util.Objects;
+import java.util.*;
 
 import org.jetbrains.annotations.NotNull;
 import org.springframework.stereotype.Component;
@@ -38,6 +37,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.TracingLevelType;
 public class GetObjectOpHandler extends CachedOpHandler {
 
     private static final String GET_OBJECT = CLASS_NAME_WITH_DOT + "getObject";
+    private static final String GET_OBJECTS = CLASS_NAME_WITH_DOT + "getObjects";
 
     @NotNull
     public <T extends ObjectType> PrismObject<T> getObject(Class<T> type, String oid,
@@ -121,6 +121,129 @@ public class GetObjectOpHandler extends CachedOpHandler {
         }
     }
 
+    /**
+     * Serves objects found in local or global cache and fetches all the remaining ones by a single
+     * repository call. Global cache entries that need version check are fetched as well, as this is
+     * cheaper than checking their versions one by one.
+     */
+    @NotNull
+    public <T extends ObjectType> Map<String, PrismObject<T>> getObjects(Class<T> type, Collection<String> oids,
+            Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult)
+            throws SchemaException {
+
+        OperationResult result = parentResult.subresult(GET_OBJECTS)
+                .addQualifier(type.getSimpleName())
+                .addParam("type", type)
+                .addParam("count", oids.size())
+                .addArbitraryObjectCollectionAsParam("options", options)
+                .build();
+        try {
+            CacheSetAccessInfo<T> caches = cacheSetAccessInfoFactory.determine(type);
+            PassReason passReason = PassReason.determine(options, type);
+
+            Map<String, PrismObject<T>> objectsToReturn = new HashMap<>();
+            Map<String, GetObjectOpExecution<T>> missedExecutions = new LinkedHashMap<>();
+            for (String oid : new LinkedHashSet<>(oids)) {
+                // Individual executions are used only for the statistics and logging; tracing is not supported here.
+                GetObjectOpExecution<T> exec =
+                        new GetObjectOpExecution<>(type, oid, options, result, null, null, prismContext, caches);
+                if (passReason != null) {
+                    exec.reportLocalAndGlobalPass(passReason);
+                    missedExecutions.put(oid, exec);
+                    continue;
+                }
+                PrismObject<T> cachedObject = getFromCaches(exec);
+                if (cachedObject != null) {
+                    objectsToReturn.put(oid, exec.readOnly ? cachedObject : cachedObject.clone());
+                } else {
+                    missedExecutions.put(oid, exec);
+                }
+            }
+            int cached = objectsToReturn.size();
+
+            Map<String, PrismObject<T>> loadedObjects = missedExecutions.isEmpty()
+                    ? Map.of()
+                    : getObjectsInternal(type, missedExecutions.keySet(), options, result);
+            for (GetObjectOpExecution<T> exec : missedExecutions.values()) {
+                PrismObject<T> object = loadedObjects.get(exec.oid);
+                if (object == null) {
+                    // Not found (or not of given type), so any cached version is obsolete.
+                    globalObjectCache.remove(exec.oid);
+                    globalVersionCache.remove(exec.oid);
+                } else if (passReason != null) {
+                    objectsToReturn.put(exec.oid, object);
+                } else {
+                    PrismObject<T> immutable = cacheLoadedObject(exec, object);
+                    objectsToReturn.put(exec.oid, exec.readOnly ? immutable : object.cloneIfImmutable());
+                }
+            }
+
+            Map<String, PrismObject<T>> objects = new LinkedHashMap<>();
+            for (String oid : oids) {
+                PrismObject<T> object = objectsToReturn.get(oid);
+                if (object != null) {
+                    objects.put(oid, object);
+                }
+            }
+            result.addReturn("cached", cached);
+            result.addReturn("found", objects.size());
+            return objects;
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    /** Returns immutable object from local or global cache, or null if it has to be fetched from the repository. */
+    private <T extends ObjectType> PrismObject<T> getFromCaches(GetObjectOpExecution<T> exec) {
+        if (!exec.local.available) {
+            exec.reportLocalNotAvailable();
+        } else if (!exec.local.supports) {
+            exec.reportLocalPass();
+        } else {
+            PrismObject<T> cachedObject = exec.local.cache.get(exec.oid);
+            if (cachedObject != null) {
+                exec.reportLocalHit();
+                return cachedObject;
+            } else {
+                exec.reportLocalMiss();
+            }
+        }
+
+        if (!exec.global.available) {
+            exec.reportGlobalNotAvailable();
+            return null;
+        } else if (!exec.global.supports) {
+            exec.reportGlobalPass();
+            return null;
+        }
+
+        GlobalCacheObjectValue<T> cachedValue = globalObjectCache.get(exec.oid);
+        if (cachedValue == null || cachedValue.shouldCheckVersion()) {
+            exec.reportGlobalMiss();
+            return null;
+        } else {
+            exec.reportGlobalHit();
+            PrismObject<T> cachedObject = cachedValue.getObject();
+            cacheUpdater.storeImmutableObjectToAllLocal(cachedObject, exec.caches);
+            return cachedObject;
+        }
+    }
+
+    @NotNull
+    private <T extends ObjectType> Map<String, PrismObject<T>> getObjectsInternal(Class<T> type, Collection<String> oids,
+            Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult)
+            throws SchemaException {
+        Long startTime = repoOpStart();
+        try {
+            return repositoryService.getObjects(type, oids, options, parentResult);
+        } finally {
+            repoOpEnd(startTime);
+        }
+    }
+
     private <T extends ObjectType> GetObjectOpExecution<T> initializeExecution(Class<T> type, String oid,
             Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) {
         OperationResult result = parentResult.subresult(GET_OBJECT)
@@ -163,11 +286,7 @@ public class GetObjectOpHandler extends CachedOpHandler {
             throws SchemaException, ObjectNotFoundException {
         try {
             PrismObject<T> object = getObjectInternal(exec.type, exec.oid, exec.options, exec.result);
-            PrismObject<T> immutable = toImmutable(object);
-            cacheUpdater.storeImmutableObjectToObjectLocal(immutable, exec.caches);
-            cacheUpdater.storeImmutableObjectToObjectGlobal(immutable);
-            cacheUpdater.storeObjectToVersionGlobal(immutable, exec.caches.globalVersion);
-            cacheUpdater.storeObjectToVersionLocal(immutable, exec.caches.localVersion);
+            PrismObject<T> immutable = cacheLoadedObject(exec, object);
             if (exec.readOnly) {
                 return immutable;
             } else {
@@ -180,6 +299,16 @@ public class GetObjectOpHandler extends CachedOpHandler {
         }
     }
 
+    /** Stores the object into the caches. Returns its immutable version. */
+    private <T extends ObjectType> PrismObject<T> cacheLoadedObject(GetObjectOpExecution<T> exec, PrismObject<T> object) {
+        PrismObject<T> immutable = toImmutable(object);
+        cacheUpdater.storeImmutableObjectToObjectLocal(immutable, exec.caches);
+        cacheUpdater.storeImmutableObjectToObjectGlobal(immutable);
+        cacheUpdater.storeObjectToVersionGlobal(immutable, exec.caches.globalVersion);
+        cacheUpdater.storeObjectToVersionLocal(immutable, exec.caches.localVersion);
+        return immutable;
+    }
+
     private <T extends ObjectType> PrismObject<T> toImmutable(PrismObject<T> object) {
         if (object.isImmutable()) {
             return object;
@@ -11,6 +11,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.prism.PrismContainer;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
@@ -69,6 +70,16 @@ public abstract class ChangeDescription {
             return filter.match(addInfo.getObject().getValue(), matchingRuleRegistry);
         }
 
+        @Override
+        boolean isObjectAfterChangeKnown() {
+            return true;
+        }
+
+        @Override
+        PrismObject<?> getObjectAfterChange() {
+            return addInfo.getObject();
+        }
+
         @Override
         public String toString() {
             return "Add{" + addInfo + '}';
@@ -98,6 +109,16 @@ public abstract class ChangeDescription {
             }
         }
 
+        @Override
+        boolean isObjectAfterChangeKnown() {
+            return modifyInfo.getObjectAfter() != null;
+        }
+
+        @Override
+        PrismObject<?> getObjectAfterChange() {
+            return modifyInfo.getObjectAfter();
+        }
+
         @Override
         public String toString() {
             return "Modify{" +
@@ -122,6 +143,16 @@ public abstract class ChangeDescription {
             return false;
         }
 
+        @Override
+        boolean isObjectAfterChangeKnown() {
+            return true;
+        }
+
+        @Override
+        PrismObject<?> getObjectAfterChange() {
+            return null;
+        }
+
         @Override
         public String toString() {
             return "Delete{" +
@@ -145,6 +176,16 @@ public abstract class ChangeDescription {
             return safeInvalidation;
         }
 
+        @Override
+        boolean isObjectAfterChangeKnown() {
+            return false;
+        }
+
+        @Override
+        PrismObject<?> getObjectAfterChange() {
+            return null;
+        }
+
         @Override
         public String toString() {
             return "Any{" +
@@ -194,7 +235,13 @@ public abstract class ChangeDescription {
         } else if (additionalInfo instanceof AddObjectResult<?>) {
             return new Add(type, oid, (AddObjectResult<?>) additionalInfo);
         } else if (additionalInfo instanceof ModifyObjectResult<?>) {
-            return new Modify(type, oid, ((ModifyObjectResult<?>) additionalInfo));
+            ModifyObjectResult<?> modifyInfo = (ModifyObjectResult<?>) additionalInfo;
+            if (isIncomplete(modifyInfo.getObjectAfter())) {
+                // Repository may not load the data not needed for the modification (e.g. separately stored
+                // containers in the new repo), so we can't evaluate queries against such an object.
+                return new Unknown(type, oid, safeInvalidation);
+            }
+            return new Modify(type, oid, modifyInfo);
         } else if (additionalInfo instanceof DeleteObjectResult) {
             return new Delete(type, oid);
         } else {
@@ -202,6 +249,16 @@ public abstract class ChangeDescription {
         }
     }
 
+    /**
+     * Incomplete properties (like focus.jpegPhoto) are ignored, as they are not used to query;
+     * see the note on tricky objects in {@link #getFrom(Class, String, Object, boolean)}.
+     */
+    private static boolean isIncomplete(PrismObject<?> object) {
+        return object != null
+                && object.getValue().getItems().stream()
+                .anyMatch(item -> item instanceof PrismContainer && item.isIncomplete());
+    }
+
     private boolean queryTypeMatches(QueryKey<?> queryKey) {
         return queryKey.getType().isAssignableFrom(type);
     }
@@ -241,6 +298,19 @@ public abstract class ChangeDescription {
     public abstract boolean mayMatchAfterChange(@NotNull ObjectFilter filter, SearchResultList list, MatchingRuleRegistry matchingRuleRegistry)
             throws SchemaException;
 
+    /**
+     * Returns false if we know nothing about the object state after the change,
+     * so any query of matching type may be affected.
+     */
+    abstract boolean isObjectAfterChangeKnown();
+
+    /**
+     * Object state after the change (if known), used to select queries to be checked by {@link #mayAffect}.
+     * Null for deleted objects.
+     */
+    @Nullable
+    abstract PrismObject<?> getObjectAfterChange();
+
     @Nullable
     private ObjectFilter getFilter(QueryKey queryKey) {
         ObjectQuery query = queryKey.getQuery();
@@ -28,7 +28,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FunctionLibraryType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
-
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 
 import org.jetbrains.annotations.NotNull;
@@ -37,7 +37,6 @@ import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.evolveum.midpoint.repo.cache.RepositoryCache.*;
 import static com.evolveum.midpoint.repo.cache.local.LocalRepoCacheCollection.*;
@@ -69,6 +68,11 @@ public class Invalidator {
 
     @NotNull private final Set<InvalidationEventListener> listeners = ConcurrentHashMap.newKeySet();
 
+    private final QueryInvalidationStatistics localQueryInvalidationStatistics =
+            new QueryInvalidationStatistics(LocalQueryCache.class.getName() + ".invalidation");
+    private final QueryInvalidationStatistics globalQueryInvalidationStatistics =
+            new QueryInvalidationStatistics(GlobalQueryCache.class.getName() + ".invalidation");
+
     // This is what is called from cache dispatcher (on local node with the full context; on remote nodes with reduced context)
     public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
         if (type == null) {
@@ -112,7 +116,8 @@ public class Invalidator {
             boolean clusterwide = TYPES_ALWAYS_INVALIDATED_CLUSTERWIDE.contains(type) ||
                     globalObjectCache.hasClusterwideInvalidationFor(type) ||
                     globalVersionCache.hasClusterwideInvalidationFor(type) ||
-                    globalQueryCache.hasClusterwideInvalidationFor(type);
+                    globalQueryCache.hasClusterwideInvalidationFor(type) ||
+                    cacheRegistry.isClusterwideInvalidationNeeded(type);
             cacheDispatcher.dispatchInvalidation(type, oid, clusterwide,
                     new CacheInvalidationContext(false, new RepositoryCacheInvalidationDetails(additionalInfo)));
         } catch (Throwable t) {
@@ -125,50 +130,64 @@ public class Invalidator {
 
     private <T extends ObjectType> void clearQueryResultsLocally(LocalQueryCache cache, Class<T> type, String oid,
             Object additionalInfo, MatchingRuleRegistry matchingRuleRegistry) {
-        // TODO implement more efficiently
-
         ChangeDescription change = ChangeDescription.getFrom(type, oid, additionalInfo, true);
 
-        long start = System.currentTimeMillis();
-        int all = 0;
+        long start = System.nanoTime();
+        int all = cache.size();
         int removed = 0;
-        Iterator<Map.Entry<QueryKey, SearchResultList>> iterator = cache.getEntryIterator();
-        while (iterator.hasNext()) {
-            Map.Entry<QueryKey, SearchResultList> entry = iterator.next();
-            QueryKey<?> queryKey = entry.getKey();
-            all++;
-            if (change.mayAffect(queryKey, entry.getValue(), matchingRuleRegistry)) {
+        Set<QueryKey<?>> candidates = cache.getInvalidationCandidates(
+                type, oid, change.isObjectAfterChangeKnown(), change.getObjectAfterChange());
+        for (QueryKey<?> queryKey : candidates) {
+            SearchResultList<?> list = cache.get(queryKey);
+            if (list != null && change.mayAffect(queryKey, list, matchingRuleRegistry)) {
                 LOGGER.trace("Removing (from local cache) query for type={}, change={}: {}", type, change, queryKey.getQuery());
-                iterator.remove();
+                cache.remove(queryKey);
                 removed++;
             }
         }
-        LOGGER.trace("Removed (from local cache) {} (of {}) query result entries of type {} in {} ms", removed, all, type, System.currentTimeMillis() - start);
+        long duration = System.nanoTime() - start;
+        localQueryInvalidationStatistics.record(all, candidates.size(), removed, duration);
+        LOGGER.trace("Removed (from local cache) {} (of {} evaluated, {} cached) query result entries of type {} in {} ms",
+                removed, candidates.size(), all, type, duration / 1e6);
     }
 
     private <T extends ObjectType> void clearQueryResultsGlobally(Class<T> type, String oid, CacheInvalidationContext context) {
-        // TODO implement more efficiently
-
         // Safe invalidation means we evict queries without looking at details of the change.
         boolean safeIfUnknown = !context.isFromRemoteNode() || globalQueryCache.shouldDoSafeRemoteInvalidationFor(type);
         ChangeDescription change = ChangeDescription.getFrom(type, oid, context, safeIfUnknown);
 
-        long start = System.currentTimeMillis();
-        AtomicInteger all = new AtomicInteger(0);
-        AtomicInteger removed = new AtomicInteger(0);
-
-        globalQueryCache.deleteMatching(entry -> {
-            QueryKey queryKey = entry.getKey();
-            all.incrementAndGet();
-            if (change.mayAffect(queryKey, entry.getValue().getResult(), matchingRuleRegistry)) {
+        long start = System.nanoTime();
+        int all = globalQueryCache.size();
+        int removed = 0;
+        Set<QueryKey<?>> candidates = globalQueryCache.getInvalidationCandidates(
+                type, oid, change.isObjectAfterChangeKnown(), change.getObjectAfterChange());
+        for (QueryKey<?> queryKey : candidates) {
+            SearchResultList<?> list = globalQueryCache.get(queryKey);
+            if (list != null && change.mayAffect(queryKey, list, matchingRuleRegistry)) {
                 LOGGER.trace("Removing (from global cache) query for type={}, change={}: {}", type, change, queryKey.getQuery());
-                removed.incrementAndGet();
-                return true;
-            } else {
-                return false;
+                globalQueryCache.remove(queryKey);
+                removed++;
             }
-        });
-        LOGGER.trace("Removed (from global cache) {} (of {}) query result entries of type {} in {} ms", removed, all, type, System.currentTimeMillis() - start);
+        }
+        long duration = System.nanoTime() - start;
+        globalQueryInvalidationStatistics.record(all, candidates.size(), removed, duration);
+        LOGGER.trace("Removed (from global cache) {} (of {} evaluated, {} cached) query result entries of type {} in {} ms",
+                removed, candidates.size(), all, type, duration / 1e6);
+    }
+
+    /**
+     * Returns statistics of query results invalidation: for local and global query cache,
+     * the number of evaluated queries is compared to the number of queries a full scan would evaluate.
+     */
+    public Collection<SingleCacheStateInformationType> getQueryInvalidationStateInformation() {
+        return List.of(
+                localQueryInvalidationStatistics.toStateInformation(prismContext),
+                globalQueryInvalidationStatistics.toStateInformation(prismContext));
+    }
+
+    public void clearQueryInvalidationStatistics() {
+        localQueryInvalidationStatistics.clear();
+        globalQueryInvalidationStatistics.clear();
     }
 
     public void registerInvalidationEventsListener(InvalidationEventListener listener) {
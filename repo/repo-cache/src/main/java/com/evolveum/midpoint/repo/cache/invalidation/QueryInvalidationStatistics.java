@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.cache.invalidation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
+
+/**
+ * Cost of invalidating query results in a query cache (local or global).
+ *
+ * Compares the number of cached queries that were evaluated (index candidates) with the number of
+ * queries that would be evaluated by scanning the whole cache, which was the original approach.
+ */
+public class QueryInvalidationStatistics {
+
+    public static final String COMPONENT_INVALIDATIONS = "invalidations";
+    public static final String COMPONENT_EVALUATED = "evaluated";
+    public static final String COMPONENT_SCANNED_EQUIVALENT = "scannedEquivalent";
+    public static final String COMPONENT_REMOVED = "removed";
+    public static final String COMPONENT_TIME_MS = "timeMs";
+
+    private final String name;
+
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong scannedEquivalent = new AtomicLong();
+    private final AtomicLong evaluated = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong timeNanos = new AtomicLong();
+
+    QueryInvalidationStatistics(String name) {
+        this.name = name;
+    }
+
+    void record(int cacheSize, int evaluatedCount, int removedCount, long durationNanos) {
+        invalidations.incrementAndGet();
+        scannedEquivalent.addAndGet(cacheSize);
+        evaluated.addAndGet(evaluatedCount);
+        removed.addAndGet(removedCount);
+        timeNanos.addAndGet(durationNanos);
+    }
+
+    /**
+     * The statistics are not cache sizes, so they are provided only as named components (with the value in size):
+     * invalidation count, evaluated queries, queries a full scan would evaluate, removed queries and total time in ms.
+     */
+    SingleCacheStateInformationType toStateInformation(PrismContext prismContext) {
+        SingleCacheStateInformationType info = new SingleCacheStateInformationType(prismContext)
+                .name(name);
+        addComponent(info, COMPONENT_INVALIDATIONS, invalidations.get());
+        addComponent(info, COMPONENT_EVALUATED, evaluated.get());
+        addComponent(info, COMPONENT_SCANNED_EQUIVALENT, scannedEquivalent.get());
+        addComponent(info, COMPONENT_REMOVED, removed.get());
+        addComponent(info, COMPONENT_TIME_MS, timeNanos.get() / 1_000_000);
+        return info;
+    }
+
+    private void addComponent(SingleCacheStateInformationType info, String componentName, long value) {
+        info.beginComponent()
+                .name(componentName)
+                .size(toInt(value));
+    }
+
+    private static int toInt(long value) {
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+
+    void clear() {
+        invalidations.set(0);
+        scannedEquivalent.set(0);
+        evaluated.set(0);
+        removed.set(0);
+        timeNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return name + "{" +
+                "invalidations=" + invalidations +
+                ", evaluated=" + evaluated +
+                ", scannedEquivalent=" + scannedEquivalent +
+                ", removed=" + removed +
+                ", timeMs=" + timeNanos.get() / 1_000_000 +
+                '}';
+    }
+}
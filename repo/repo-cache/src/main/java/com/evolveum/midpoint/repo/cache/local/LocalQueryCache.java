@@ -9,11 +9,12 @@ package com.evolveum.midpoint.repo.cache.local;
 
 import static com.evolveum.midpoint.repo.cache.handlers.SearchOpHandler.QUERY_RESULT_SIZE_LIMIT;
 
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.schema.SearchResultList;
@@ -31,6 +32,9 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
 
     private final Map<QueryKey, SearchResultList> data = new ConcurrentHashMap<>();
 
+    /** Index used to find queries affected by object changes, see {@link QueryKeyIndex}. */
+    private final QueryKeyIndex index = new QueryKeyIndex();
+
     public <T extends ObjectType> SearchResultList<PrismObject<T>> get(QueryKey key) {
         //noinspection unchecked
         return data.get(key);
@@ -41,11 +45,13 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
         if (list.size() > QUERY_RESULT_SIZE_LIMIT) {
             throw new IllegalStateException("Trying to cache result list greater than " + QUERY_RESULT_SIZE_LIMIT + ": " + list.size());
         }
+        index.add(key, list);
         data.put(key, list);
     }
 
     public void remove(QueryKey key) {
         data.remove(key);
+        index.remove(key);
     }
 
     @Override
@@ -82,7 +88,16 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
         return rv;
     }
 
-    public Iterator<Map.Entry<QueryKey, SearchResultList>> getEntryIterator() {
-        return data.entrySet().iterator();
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * Returns keys of cached queries that may be affected by the change of specified object.
+     * See {@link QueryKeyIndex#getCandidates(Class, String, boolean, PrismObject)}.
+     */
+    public @NotNull Set<QueryKey<?>> getInvalidationCandidates(@NotNull Class<?> type, String oid,
+            boolean objectAfterChangeKnown, @Nullable PrismObject<?> objectAfterChange) {
+        return index.getCandidates(type, oid, objectAfterChangeKnown, objectAfterChange);
     }
 }
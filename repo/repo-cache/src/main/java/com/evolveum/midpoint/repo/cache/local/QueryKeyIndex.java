@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2020 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.cache.local;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.*;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.*;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Index over cached query keys used to find queries that can be affected by an object change
+ * without evaluating all cached queries.
+ *
+ * Queries are indexed by:
+ *
+ * 1. their object type,
+ * 2. OIDs of objects in their (cached) result,
+ * 3. values of equality filters, if the filter is "indexable": equality filter (or AND containing one,
+ * or OR consisting solely of such filters) on a path consisting of item names only, with simple values
+ * (text, integer, boolean, enum) compared by default, case-ignoring or poly-string matching rule.
+ *
+ * Query with indexable filter can match the object after change only if the object has a value
+ * with the same index key on the indexed path; other queries of the type are always returned as candidates.
+ * Keys for text values are normalized - this maps more values to one key, which is safe;
+ * the candidates are evaluated by {@link com.evolveum.midpoint.repo.cache.invalidation.ChangeDescription} anyway.
+ *
+ * The index is thread-safe. All changes related to a single query key are done atomically.
+ */
+public class QueryKeyIndex {
+
+    private static final Trace LOGGER = TraceManager.getTrace(QueryKeyIndex.class);
+
+    /** Matching rules (local names) for which the index keys are safe. */
+    private static final Set<String> SUPPORTED_MATCHING_RULES = Set.of(
+            "default", "stringIgnoreCase",
+            "polyStringStrict", "polyStringOrig", "polyStringNorm",
+            "strictPolyString", "origPolyString", "normPolyString");
+
+    private final Map<QueryKey<?>, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Class<?>, TypeIndex> typeIndexes = new ConcurrentHashMap<>();
+    private final Map<String, Set<QueryKey<?>>> keysByOid = new ConcurrentHashMap<>();
+
+    /**
+     * Adds (or updates) the query key with its result.
+     * Must be called *before* the result is stored in the cache, so that an invalidation running
+     * after the cache is updated always finds the key.
+     */
+    public void add(@NotNull QueryKey<?> key, @NotNull SearchResultList<?> result) {
+        entries.compute(key, (k, existing) -> {
+            Entry entry = existing != null ? existing : createEntry(key);
+            entry.result = result;
+            for (Object object : result) {
+                if (object instanceof PrismObject<?>) {
+                    String oid = ((PrismObject<?>) object).getOid();
+                    // OIDs of the previous result are kept: concurrent updates of the same key may reach
+                    // the cache in a different order than the index, so we rather keep more candidates.
+                    if (oid != null && entry.oids.add(oid)) {
+                        addToSet(keysByOid, oid, key);
+                    }
+                }
+            }
+            return entry;
+        });
+    }
+
+    private Entry createEntry(QueryKey<?> key) {
+        Entry entry = new Entry(key, indexedValues(key.getQuery()));
+        TypeIndex typeIndex = typeIndexes.computeIfAbsent(key.getType(), t -> new TypeIndex());
+        typeIndex.all.add(key);
+        if (entry.indexedValues == null) {
+            typeIndex.unindexed.add(key);
+        } else {
+            entry.indexedValues.forEach((path, valueKeys) -> {
+                Map<Object, Set<QueryKey<?>>> pathIndex =
+                        typeIndex.byValue.computeIfAbsent(path, p -> new ConcurrentHashMap<>());
+                valueKeys.forEach(valueKey -> addToSet(pathIndex, valueKey, key));
+            });
+        }
+        return entry;
+    }
+
+    /** Removes the query key from the index. */
+    public void remove(@NotNull QueryKey<?> key) {
+        entries.computeIfPresent(key, (k, entry) -> {
+            unregister(entry);
+            return null;
+        });
+    }
+
+    /**
+     * Removes the query key from the index, but only if it is indexed with the specified result.
+     * Used for entries evicted from the cache asynchronously to a possible update of the same key.
+     */
+    public void removeIfSameResult(@NotNull QueryKey<?> key, Object result) {
+        entries.computeIfPresent(key, (k, entry) -> {
+            if (entry.result != result) {
+                return entry;
+            }
+            unregister(entry);
+            return null;
+        });
+    }
+
+    private void unregister(Entry entry) {
+        QueryKey<?> key = entry.key;
+        TypeIndex typeIndex = typeIndexes.get(key.getType());
+        if (typeIndex != null) {
+            typeIndex.all.remove(key);
+            if (entry.indexedValues == null) {
+                typeIndex.unindexed.remove(key);
+            } else {
+                entry.indexedValues.forEach((path, valueKeys) -> {
+                    Map<Object, Set<QueryKey<?>>> pathIndex = typeIndex.byValue.get(path);
+                    if (pathIndex != null) {
+                        valueKeys.forEach(valueKey -> removeFromSet(pathIndex, valueKey, key));
+                    }
+                });
+            }
+        }
+        entry.oids.forEach(oid -> removeFromSet(keysByOid, oid, key));
+    }
+
+    public void clear() {
+        entries.clear();
+        typeIndexes.clear();
+        keysByOid.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns query keys that may be affected by a change of given object.
+     *
+     * @param objectAfterChangeKnown False if we know nothing about the state of the object after the change,
+     * in that case all queries of matching types are returned.
+     * @param objectAfterChange Object after the change (null for deleted object).
+     */
+    public @NotNull Set<QueryKey<?>> getCandidates(@NotNull Class<?> changedType, String oid,
+            boolean objectAfterChangeKnown, @Nullable PrismObject<?> objectAfterChange) {
+        Set<QueryKey<?>> candidates = new HashSet<>();
+        typeIndexes.forEach((queryType, typeIndex) -> {
+            if (!queryType.isAssignableFrom(changedType)) {
+                return;
+            }
+            if (!objectAfterChangeKnown) {
+                candidates.addAll(typeIndex.all);
+                return;
+            }
+            candidates.addAll(typeIndex.unindexed);
+            if (objectAfterChange != null) {
+                typeIndex.byValue.forEach((path, pathIndex) ->
+                        addValueCandidates(candidates, objectAfterChange, path, pathIndex));
+            }
+        });
+        if (oid != null) {
+            Set<QueryKey<?>> keysWithOid = keysByOid.get(oid);
+            if (keysWithOid != null) {
+                candidates.addAll(keysWithOid);
+            }
+        }
+        return candidates;
+    }
+
+    private void addValueCandidates(Set<QueryKey<?>> candidates, PrismObject<?> object,
+            List<String> path, Map<Object, Set<QueryKey<?>>> pathIndex) {
+        Set<Object> valueKeys = objectValueKeys(object, path);
+        if (valueKeys == null) {
+            // We can't tell, so all queries on this path are candidates.
+            pathIndex.values().forEach(candidates::addAll);
+        } else {
+            for (Object valueKey : valueKeys) {
+                Set<QueryKey<?>> keys = pathIndex.get(valueKey);
+                if (keys != null) {
+                    candidates.addAll(keys);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns index keys of all values of the object on the path, or null if it can't be determined.
+     * Items are matched by local names only - this can only find more values, which is safe.
+     */
+    private @Nullable Set<Object> objectValueKeys(PrismObject<?> object, List<String> path) {
+        Collection<PrismContainerValue<?>> containerValues = List.of(object.getValue());
+        for (String segment : path.subList(0, path.size() - 1)) {
+            List<PrismContainerValue<?>> nextValues = new ArrayList<>();
+            for (PrismContainerValue<?> containerValue : containerValues) {
+                for (Item<?, ?> item : containerValue.getItems()) {
+                    if (!segment.equals(item.getElementName().getLocalPart())) {
+                        continue;
+                    }
+                    if (!(item instanceof PrismContainer<?>)) {
+                        return null;
+                    }
+                    nextValues.addAll(((PrismContainer<?>) item).getValues());
+                }
+            }
+            containerValues = nextValues;
+        }
+
+        String lastSegment = path.get(path.size() - 1);
+        Set<Object> valueKeys = new HashSet<>();
+        for (PrismContainerValue<?> containerValue : containerValues) {
+            for (Item<?, ?> item : containerValue.getItems()) {
+                if (!lastSegment.equals(item.getElementName().getLocalPart())) {
+                    continue;
+                }
+                if (!(item instanceof PrismProperty<?>)) {
+                    return null;
+                }
+                for (Object realValue : item.getRealValues()) {
+                    Object valueKey = valueKey(realValue);
+                    if (valueKey == null) {
+                        return null;
+                    }
+                    valueKeys.add(valueKey);
+                }
+            }
+        }
+        return valueKeys;
+    }
+
+    /**
+     * Returns index keys for the query (path -> value keys), or null if the query can't be indexed.
+     * Object matching the query filter must have a value with one of the keys on one of the paths.
+     */
+    private @Nullable Map<List<String>, Set<Object>> indexedValues(ObjectQuery query) {
+        ObjectFilter filter = query != null ? query.getFilter() : null;
+        if (filter == null) {
+            return null;
+        }
+        try {
+            return indexedValues(filter);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Couldn't index query, it will be always evaluated on invalidation: {}", query, e);
+            return null;
+        }
+    }
+
+    private @Nullable Map<List<String>, Set<Object>> indexedValues(ObjectFilter filter) {
+        if (filter instanceof EqualFilter<?>) {
+            return indexedValues((EqualFilter<?>) filter);
+        } else if (filter instanceof AndFilter) {
+            // Any condition of the conjunction must match, so the first indexable one is sufficient.
+            for (ObjectFilter condition : ((AndFilter) filter).getConditions()) {
+                Map<List<String>, Set<Object>> conditionValues = indexedValues(condition);
+                if (conditionValues != null) {
+                    return conditionValues;
+                }
+            }
+            return null;
+        } else if (filter instanceof OrFilter) {
+            // Any condition may match, so all of them must be indexable.
+            Map<List<String>, Set<Object>> values = new HashMap<>();
+            for (ObjectFilter condition : ((OrFilter) filter).getConditions()) {
+                Map<List<String>, Set<Object>> conditionValues = indexedValues(condition);
+                if (conditionValues == null) {
+                    return null;
+                }
+                conditionValues.forEach((path, valueKeys) ->
+                        values.computeIfAbsent(path, p -> new HashSet<>()).addAll(valueKeys));
+            }
+            return values.isEmpty() ? null : values;
+        } else {
+            return null;
+        }
+    }
+
+    private @Nullable Map<List<String>, Set<Object>> indexedValues(EqualFilter<?> filter) {
+        if (filter.getRightHandSidePath() != null || filter.getExpression() != null) {
+            return null;
+        }
+        QName matchingRule = filter.getMatchingRule();
+        if (matchingRule != null && !SUPPORTED_MATCHING_RULES.contains(matchingRule.getLocalPart())) {
+            return null;
+        }
+        List<String> path = namesOnly(filter.getPath());
+        List<? extends PrismPropertyValue<?>> values = filter.getValues();
+        if (path == null || values == null || values.isEmpty()) {
+            return null;
+        }
+        Set<Object> valueKeys = new HashSet<>();
+        for (PrismPropertyValue<?> value : values) {
+            Object valueKey = value != null ? valueKey(value.getRealValue()) : null;
+            if (valueKey == null) {
+                return null;
+            }
+            valueKeys.add(valueKey);
+        }
+        return Map.of(path, valueKeys);
+    }
+
+    private @Nullable List<String> namesOnly(ItemPath path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        List<String> names = new ArrayList<>();
+        for (Object segment : path.getSegments()) {
+            if (!ItemPath.isName(segment)) {
+                return null;
+            }
+            names.add(ItemPath.toName(segment).getLocalPart());
+        }
+        return names;
+    }
+
+    /**
+     * Returns index key for the value, or null if the value is not supported.
+     * Equal values (according to any supported matching rule) must have the same key.
+     */
+    private static @Nullable Object valueKey(Object realValue) {
+        if (realValue instanceof PolyStringType) {
+            realValue = ((PolyStringType) realValue).toPolyString();
+        }
+        if (realValue instanceof PolyString) {
+            PolyString polyString = (PolyString) realValue;
+            String norm = polyString.getNorm() != null
+                    ? polyString.getNorm()
+                    : normalize(polyString.getOrig());
+            return norm != null ? ignoreCase(norm) : null;
+        } else if (realValue instanceof String) {
+            // Normalized to match poly-string norms and case-ignoring matching of plain strings.
+            String norm = normalize((String) realValue);
+            return norm != null ? ignoreCase(norm) : null;
+        } else if (realValue instanceof Integer || realValue instanceof Long || realValue instanceof Short) {
+            return ((Number) realValue).longValue();
+        } else if (realValue instanceof Boolean || realValue instanceof Enum<?>) {
+            return realValue;
+        } else {
+            return null;
+        }
+    }
+
+    private static String normalize(String value) {
+        return value != null ? PrismContext.get().getDefaultPolyStringNormalizer().normalize(value) : null;
+    }
+
+    /** Mirrors {@link String#equalsIgnoreCase(String)}, which works char by char. */
+    private static String ignoreCase(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            sb.append(Character.toLowerCase(Character.toUpperCase(value.charAt(i))));
+        }
+        return sb.toString();
+    }
+
+    private static <K> void addToSet(Map<K, Set<QueryKey<?>>> map, K mapKey, QueryKey<?> key) {
+        map.compute(mapKey, (k, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(key);
+            return set;
+        });
+    }
+
+    private static <K> void removeFromSet(Map<K, Set<QueryKey<?>>> map, K mapKey, QueryKey<?> key) {
+        map.computeIfPresent(mapKey, (k, set) -> {
+            set.remove(key);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static class Entry {
+        @NotNull private final QueryKey<?> key;
+        @Nullable private final Map<List<String>, Set<Object>> indexedValues;
+        @NotNull private final Set<String> oids = new HashSet<>();
+        private Object result;
+
+        private Entry(@NotNull QueryKey<?> key, @Nullable Map<List<String>, Set<Object>> indexedValues) {
+            this.key = key;
+            this.indexedValues = indexedValues;
+        }
+    }
+
+    private static class TypeIndex {
+        /** All keys of the type, used when nothing is known about the change. */
+        private final Set<QueryKey<?>> all = ConcurrentHashMap.newKeySet();
+        /** Keys without indexable filter (including no filter at all), always candidates. */
+        private final Set<QueryKey<?>> unindexed = ConcurrentHashMap.newKeySet();
+        /** Item path (local names) -> value key -> query keys. */
+        private final Map<List<String>, Map<Object, Set<QueryKey<?>>>> byValue = new ConcurrentHashMap<>();
+    }
+}
@@ -11,6 +11,7 @@ import java.util.List;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
+import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -80,4 +81,14 @@ public class CacheRegistryImpl implements CacheListener, CacheRegistry {
     public void dumpContent() {
         caches.forEach(Cache::dumpContent);
     }
+
+    @Override
+    public boolean isClusterwideInvalidationNeeded(@NotNull Class<?> type) {
+        for (Cache cache : caches) {
+            if (cache.isClusterwideInvalidationNeeded(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -39,6 +39,8 @@ import com.evolveum.midpoint.repo.cache.global.GlobalCacheObjectValue;
 import com.evolveum.midpoint.repo.cache.global.GlobalObjectCache;
 import com.evolveum.midpoint.repo.cache.global.GlobalQueryCache;
 import com.evolveum.midpoint.repo.cache.global.GlobalVersionCache;
+import com.evolveum.midpoint.repo.cache.invalidation.Invalidator;
+import com.evolveum.midpoint.repo.cache.invalidation.QueryInvalidationStatistics;
 import com.evolveum.midpoint.repo.cache.local.QueryKey;
 import com.evolveum.midpoint.repo.sqale.SqaleRepositoryService;
 import com.evolveum.midpoint.schema.*;
@@ -55,6 +57,7 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ArchetypeType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
@@ -69,6 +72,7 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
     @Autowired GlobalObjectCache globalObjectCache;
     @Autowired GlobalVersionCache globalVersionCache;
     @Autowired GlobalQueryCache globalQueryCache;
+    @Autowired Invalidator invalidator;
     @Autowired PrismContext prismContext;
 
     @SuppressWarnings("unused") // used when heap dumps are uncommented
@@ -109,6 +113,51 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
         testGetCachedObject(SystemConfigurationType.class);
     }
 
+    /**
+     * Objects missing in the cache are fetched by single repository call, the others are served from the cache.
+     */
+    @Test
+    public void test120GetArchetypesInBatch() throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        clearStatistics();
+        clearCaches();
+
+        OperationResult result = createOperationResult();
+        List<String> oids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            PrismObject<ArchetypeType> archetype = new ArchetypeType(getPrismContext())
+                    .name("archetype-batch-" + i)
+                    .asPrismObject();
+            oids.add(repositoryCache.addObject(archetype, null, result));
+        }
+        String nonExistingOid = UUID.randomUUID().toString();
+
+        // first archetype gets into the cache
+        repositoryCache.getObject(ArchetypeType.class, oids.get(0), null, result);
+
+        List<String> requestedOids = List.of(oids.get(2), nonExistingOid, oids.get(0), oids.get(1));
+        Map<String, PrismObject<ArchetypeType>> objects1 =
+                repositoryCache.getObjects(ArchetypeType.class, requestedOids, null, result);
+        displayCollection("1st objects retrieved", objects1.values());
+        assertThat(objects1.keySet()).containsExactly(oids.get(2), oids.get(0), oids.get(1));
+        objects1.get(oids.get(1)).asObjectable().setDescription("garbage");
+
+        Map<String, PrismObject<ArchetypeType>> objects2 =
+                repositoryCache.getObjects(ArchetypeType.class, requestedOids, null, result);
+        assertThat(objects2.keySet()).containsExactly(oids.get(2), oids.get(0), oids.get(1));
+        assertThat(objects2.get(oids.get(1)).asObjectable().getDescription()).as("description").isNull();
+
+        dumpStatistics();
+        assertAddOperations(3);
+        if (isNewRepoUsed) {
+            assertGetOperations(1);
+            // only the non-existing object is fetched the second time
+            assertOperations(RepositoryService.OP_GET_OBJECTS, 2);
+        }
+        for (String oid : oids) {
+            assertObjectAndVersionCached(oid, true);
+        }
+    }
+
     @Test
     public void test200SearchUsers() throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
         testSearchUncachedObjects(UserType.class);
@@ -304,6 +353,94 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
         assertThat(data.overSizedQueries.get()).as("over-sized counter").isEqualTo(2); // search + searchIterative
     }
 
+    /**
+     * Object change must invalidate only affected queries; and only candidate queries
+     * from the index should be evaluated.
+     */
+    @Test
+    public void test340IndexedQueryInvalidation() throws ObjectAlreadyExistsException, SchemaException, ObjectNotFoundException {
+        given();
+        PrismContext prismContext = getPrismContext();
+        OperationResult result = createOperationResult();
+
+        deleteExistingObjects(ArchetypeType.class, result);
+        clearStatistics();
+        clearCaches();
+
+        Map<String, String> oidByName = new HashMap<>();
+        for (PrismObject<ArchetypeType> archetype : generateObjects(ArchetypeType.class, 3, result)) {
+            oidByName.put(archetype.getName().getOrig(), archetype.getOid());
+        }
+        ObjectQuery query0 = queryByName(prismContext, "T:0");
+        ObjectQuery query1 = queryByName(prismContext, "T:1");
+        ObjectQuery queryNew = queryByName(prismContext, "T:new");
+        repositoryCache.searchObjects(ArchetypeType.class, query0, null, result);
+        repositoryCache.searchObjects(ArchetypeType.class, query1, null, result);
+        repositoryCache.searchObjects(ArchetypeType.class, queryNew, null, result);
+        assertQueryIsCached(ArchetypeType.class, query0);
+        assertQueryIsCached(ArchetypeType.class, query1);
+        assertQueryIsCached(ArchetypeType.class, queryNew);
+        invalidator.clearQueryInvalidationStatistics();
+
+        when("archetype not related to any cached query is modified");
+        modifyDescription(prismContext, oidByName.get("T:2"), result);
+
+        then("all queries are still cached");
+        assertQueryIsCached(ArchetypeType.class, query0);
+        assertQueryIsCached(ArchetypeType.class, query1);
+        assertQueryIsCached(ArchetypeType.class, queryNew);
+
+        when("archetype in a cached result is modified");
+        modifyDescription(prismContext, oidByName.get("T:0"), result);
+
+        then("only the query with that archetype is invalidated");
+        assertQueryIsNotCached(ArchetypeType.class, query0);
+        assertQueryIsCached(ArchetypeType.class, query1);
+        assertQueryIsCached(ArchetypeType.class, queryNew);
+
+        when("archetype matching a cached query is added");
+        repositoryCache.addObject(new ArchetypeType(prismContext).name("T:new").asPrismObject(), null, result);
+
+        then("only the matching query is invalidated");
+        assertQueryIsCached(ArchetypeType.class, query1);
+        assertQueryIsNotCached(ArchetypeType.class, queryNew);
+
+        and("fewer queries were evaluated than full scans would evaluate");
+        SingleCacheStateInformationType globalInvalidation = repositoryCache.getStateInformation().stream()
+                .filter(i -> i.getName().equals(GlobalQueryCache.class.getName() + ".invalidation"))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No global query invalidation statistics"));
+        displayValue("global query invalidation", globalInvalidation.asPrismContainerValue().debugDump());
+        assertThat(globalInvalidation.getSize()).as("size").isNull();
+        assertThat(globalInvalidation.getSecondarySize()).as("secondary size").isNull();
+        assertThat(getComponentSize(globalInvalidation, QueryInvalidationStatistics.COMPONENT_EVALUATED))
+                .as("evaluated queries")
+                .isLessThan(getComponentSize(globalInvalidation, QueryInvalidationStatistics.COMPONENT_SCANNED_EQUIVALENT));
+    }
+
+    private int getComponentSize(SingleCacheStateInformationType information, String componentName) {
+        return information.getComponent().stream()
+                .filter(c -> componentName.equals(c.getName()))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No component " + componentName + " in " + information.getName()))
+                .getSize();
+    }
+
+    private ObjectQuery queryByName(PrismContext prismContext, String name) {
+        return prismContext.queryFor(ArchetypeType.class)
+                .item(ArchetypeType.F_NAME).eqPoly(name).matchingOrig()
+                .build();
+    }
+
+    private void modifyDescription(PrismContext prismContext, String oid, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        repositoryCache.modifyObject(ArchetypeType.class, oid,
+                prismContext.deltaFor(ArchetypeType.class)
+                        .item(ArchetypeType.F_DESCRIPTION).replace("changed " + System.nanoTime())
+                        .asItemDeltas(),
+                result);
+    }
+
     // Must be executed last, because naive deletion such large number of archetypes fails on OOM
     @Test
     public void test900HeapUsage() throws Exception {
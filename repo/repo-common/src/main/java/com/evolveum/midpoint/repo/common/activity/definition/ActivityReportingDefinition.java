@@ -273,6 +273,11 @@ public class ActivityReportingDefinition implements DebugDumpable, Cloneable {
         }
     }
 
+    /** Where should be the statistics kept? The repository store is used only if the repository supports it. */
+    public @NotNull ActivityStatisticsStoreType getStatisticsStore() {
+        return MoreObjects.firstNonNull(bean.getStatisticsStore(), ActivityStatisticsStoreType.TASK);
+    }
+
     /** Whether we should use the "expected total" (overall size) information if already present. */
     public boolean isCacheOverallSize() {
         ActivityItemCountingDefinitionType itemCounting = bean.getItemCounting();
@@ -287,7 +287,7 @@ public abstract class AbstractActivityRun<
     private void updateAndCloseActivityState(ActivityRunResult runResult, OperationResult result)
             throws ActivityRunException {
 
-        activityState.updateProgressAndStatisticsNoCommit();
+        activityState.updateProgressAndStatisticsNoCommit(result);
 
         completeRunResult(runResult);
 
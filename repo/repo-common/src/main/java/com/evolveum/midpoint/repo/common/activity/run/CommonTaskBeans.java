@@ -10,7 +10,9 @@ package com.evolveum.midpoint.repo.common.activity.run;
 import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.repo.api.ActivityStatisticsStore;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.TaskActivityManager;
 import com.evolveum.midpoint.repo.common.activity.definition.WorkDefinitionFactory;
 import com.evolveum.midpoint.repo.common.activity.run.sources.RepositoryItemSourceFactory;
@@ -56,6 +58,12 @@ public class CommonTaskBeans {
 
     @Autowired(required = false) private AdvancedActivityRunSupport advancedActivityRunSupport;
 
+    /** Available only for the native repository. */
+    @Autowired(required = false) public WorkBucketStore workBucketStore;
+
+    /** Available only for the native repository. */
+    @Autowired(required = false) public ActivityStatisticsStore activityStatisticsStore;
+
     AdvancedActivityRunSupport getAdvancedActivityRunSupport() {
         return MoreObjects.firstNonNull(
                 advancedActivityRunSupport,
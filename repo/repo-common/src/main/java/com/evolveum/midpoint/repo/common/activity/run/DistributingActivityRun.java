@@ -142,6 +142,10 @@ public final class DistributingActivityRun<
             // so we assume there are no workers left at this point.
             helper.checkNoRelevantSubtasksDoExist(result);
 
+            // Buckets in the repository store may be left from the previous realization of the activity.
+            getBeans().bucketingManager.deleteBucketsFromStore(getRunningTask().getOid(), getActivityPath(),
+                    getActivity().getDefinition().getDistributionDefinition(), result);
+
             List<Task> children = createSuspendedChildren(result);
             helper.switchExecutionToChildren(children, result);
 
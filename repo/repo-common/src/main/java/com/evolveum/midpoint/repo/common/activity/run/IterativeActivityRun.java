@@ -13,6 +13,7 @@ import static com.evolveum.midpoint.schema.util.task.ActivityItemProcessingStati
 import static com.evolveum.midpoint.task.api.TaskRunResult.TaskRunResultStatus.PERMANENT_ERROR;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
@@ -36,11 +37,13 @@ import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import com.evolveum.midpoint.repo.common.activity.definition.ActivityDistributionDefinition;
 import com.evolveum.midpoint.repo.common.activity.definition.WorkDefinition;
 import com.evolveum.midpoint.repo.common.activity.handlers.ActivityHandler;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityItemProcessingStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityState;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.BucketingManager;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.GetBucketOperationOptions;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.GetBucketOperationOptions.GetBucketOperationOptionsBuilder;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -157,6 +160,12 @@ public abstract class IterativeActivityRun<
      */
     private Integer numberOfBucketsAnnounced;
 
+    /**
+     * When were the leases of buckets delegated to this worker last renewed. Relevant only if the buckets are kept
+     * in the repository store. Updated from multiple worker threads.
+     */
+    private final AtomicLong bucketLeasesRenewed = new AtomicLong();
+
     public IterativeActivityRun(@NotNull ActivityRunInstantiationContext<WD, AH> context, @NotNull String shortName) {
         super(context);
         this.transientRunStatistics = new TransientActivityRunStatistics();
@@ -195,6 +204,7 @@ public abstract class IterativeActivityRun<
             return runResult;
 
         } finally {
+            cleanupRun(result);
             disableGlobalConnIdOperationsListener();
             getActivityState().getConnIdOperationsReport().flush(getRunningTask(), result);
         }
@@ -288,6 +298,7 @@ public abstract class IterativeActivityRun<
             bucket = beans.bucketingManager.getWorkBucket(bucketingSituation.coordinatorTaskOid,
                     bucketingSituation.workerTaskOid, activity.getPath(), options, getLiveBucketManagementStatistics(), result);
             task.refresh(result); // We want to have the most current state of the running task.
+            bucketLeasesRenewed.set(System.currentTimeMillis()); // getting a bucket renews its lease
         } catch (InterruptedException e) {
             LOGGER.trace("InterruptedExecution in getWorkBucket for {}", task);
             if (!task.canRun()) {
@@ -296,6 +307,9 @@ public abstract class IterativeActivityRun<
                 LoggingUtils.logUnexpectedException(LOGGER, "Unexpected InterruptedException in {}", e, task);
                 throw new SystemException("Unexpected InterruptedException: " + e.getMessage(), e);
             }
+        } catch (ConfigurationException e) {
+            throw new ActivityRunException("Couldn't allocate a work bucket for task: " + e.getMessage(),
+                    FATAL_ERROR, PERMANENT_ERROR, e);
         } catch (Throwable t) {
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't allocate a work bucket for task {}", t, task);
             throw new SystemException("Couldn't allocate a work bucket for task: " + t.getMessage(), t);
@@ -333,7 +347,7 @@ public abstract class IterativeActivityRun<
                     bucketProgressHolder, result);
 
             activityState.getLiveProgress().onCommitPoint();
-            activityState.updateProgressAndStatisticsNoCommit();
+            activityState.updateProgressAndStatisticsNoCommit(result);
 
             // Note that we do not need to call the following method when bucket is not complete:
             // in such cases the activity finishes, so the task stats are updated on activity run end.
@@ -683,13 +697,41 @@ public abstract class IterativeActivityRun<
         RunningTask coordinatorTask = getRunningTask();
 
         coordinatorTask.updateOperationStatsInTaskPrism(updateThreadLocalStatistics);
-        coordinatorTask.storeStatisticsIntoRepositoryIfTimePassed(getActivityStatUpdater(), result);
+        coordinatorTask.storeStatisticsIntoRepositoryIfTimePassed(getActivityStatUpdater(result), result);
+        renewBucketLeasesIfTimePassed(result);
+    }
+
+    /**
+     * Renews the leases of buckets being processed by this worker (if buckets are in the repository store),
+     * so they are not claimed by other workers. Done after one third of the lease duration.
+     */
+    private void renewBucketLeasesIfTimePassed(OperationResult result) {
+        if (bucketingSituation == null || bucketingSituation.workerTaskOid == null) {
+            return;
+        }
+        ActivityDistributionDefinition distributionDefinition = activity.getDefinition().getDistributionDefinition();
+        if (!beans.bucketingManager.isRepositoryStoreUsed(distributionDefinition)) {
+            return;
+        }
+        long lastRenewed = bucketLeasesRenewed.get();
+        long now = System.currentTimeMillis();
+        if (now - lastRenewed < BucketingManager.getBucketLeaseDuration(distributionDefinition) / 3
+                || !bucketLeasesRenewed.compareAndSet(lastRenewed, now)) {
+            return; // not yet, or another thread is renewing the leases right now
+        }
+        try {
+            beans.bucketingManager.renewBucketLeases(bucketingSituation.coordinatorTaskOid,
+                    bucketingSituation.workerTaskOid, getActivityPath(), distributionDefinition, result);
+        } catch (RuntimeException e) {
+            // The lease will be renewed next time (if not expired meanwhile); the processing can go on.
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't renew bucket leases in {}", e, getRunningTask());
+        }
     }
 
-    private Runnable getActivityStatUpdater() {
+    private Runnable getActivityStatUpdater(OperationResult result) {
         return () -> {
             try {
-                activityState.updateProgressAndStatisticsNoCommit();
+                activityState.updateProgressAndStatisticsNoCommit(result);
             } catch (ActivityRunException e) {
                 LoggingUtils.logUnexpectedException(LOGGER, "Couldn't update activity statistics in the task {}", e,
                         getRunningTask());
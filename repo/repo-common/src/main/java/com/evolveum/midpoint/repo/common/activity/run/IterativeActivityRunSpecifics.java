@@ -56,6 +56,15 @@ public interface IterativeActivityRunSpecifics extends ImplicitSegmentationResol
     default void afterRun(OperationResult opResult) throws CommonException, ActivityRunException {
     }
 
+    /**
+     * Called when the run ends in any way: completed, stopped (e.g. suspended) or failed, even in
+     * {@link #beforeRun(OperationResult)}. Releases resources acquired for the run, like open files.
+     *
+     * Must not throw exceptions, so it does not hide the original failure.
+     */
+    default void cleanupRun(OperationResult opResult) {
+    }
+
     /**
      * Called before bucket is processed.
      *
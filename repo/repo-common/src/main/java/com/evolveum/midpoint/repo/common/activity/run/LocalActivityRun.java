@@ -116,7 +116,7 @@ public abstract class LocalActivityRun<
         activityState.setResultStatus(IN_PROGRESS);
         activityState.recordRunStart(startTimestamp);
 
-        activityState.updateProgressAndStatisticsNoCommit();
+        activityState.updateProgressAndStatisticsNoCommit(result);
         activityState.flushPendingTaskModificationsChecked(result);
     }
 
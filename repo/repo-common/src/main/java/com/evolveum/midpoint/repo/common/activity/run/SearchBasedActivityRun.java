@@ -14,6 +14,8 @@ import com.evolveum.midpoint.repo.common.activity.definition.ObjectSetSpecificat
 import com.evolveum.midpoint.repo.common.activity.definition.RepositoryObjectSetSpecificationImpl;
 import com.evolveum.midpoint.repo.common.activity.definition.ResourceObjectSetSpecificationImpl;
 import com.evolveum.midpoint.repo.common.activity.definition.WorkDefinition;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BalancedSegmentationSampler;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.RepositorySegmentationSampler;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ContainerableProcessingRequest;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemPreprocessor;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemProcessingRequest;
@@ -84,6 +86,8 @@ public abstract class SearchBasedActivityRun<
     private static final Trace LOGGER = TraceManager.getTrace(SearchBasedActivityRun.class);
 
     private static final String OP_PREPROCESS_OBJECT = SearchBasedActivityRun.class.getName() + ".preprocessObject";
+    private static final String OP_CREATE_BALANCED_SEGMENTATION_SAMPLER =
+            SearchBasedActivityRun.class.getName() + ".createBalancedSegmentationSampler";
 
     /**
      * Specification of the search that is to be executed: container type, query, options, and "use repository" flag.
@@ -123,6 +127,12 @@ public abstract class SearchBasedActivityRun<
      */
     @NotNull private final AtomicInteger sequentialNumberCounter = new AtomicInteger(0);
 
+    /**
+     * Provides the distribution of objects for balanced work segmentation. Created on first use, and kept
+     * for the whole activity run, so the objects are not sampled each time a bucket is created.
+     */
+    private BalancedSegmentationSampler balancedSegmentationSampler;
+
     public SearchBasedActivityRun(@NotNull ActivityRunInstantiationContext<WD, AH> context,
             @NotNull String shortNameCapitalized) {
         super(context, shortNameCapitalized);
@@ -139,8 +149,8 @@ public abstract class SearchBasedActivityRun<
         searchSpecification = createCustomizedSearchSpecification(result);
 
         narrowQueryForBucketingAndErrorHandling();
-        resolveExpressionsInQuery(result);
-        applyDefinitionsToQuery(result);
+        resolveExpressionsInQuery(searchSpecification, result);
+        applyDefinitionsToQuery(searchSpecification, result);
 
         LOGGER.trace("{}: will do the following search (in bucket: {}):\n{}",
                 shortName, bucket, DebugUtil.debugDumpLazily(searchSpecification));
@@ -371,7 +381,8 @@ public abstract class SearchBasedActivityRun<
                 !ShadowType.class.equals(simpleSearchSpecification.getType());
     }
 
-    private void resolveExpressionsInQuery(OperationResult result) throws CommonException {
+    private void resolveExpressionsInQuery(SearchSpecification<C> searchSpecification, OperationResult result)
+            throws CommonException {
         if (ExpressionUtil.hasExpressions(searchSpecification.getQuery().getFilter())) {
             searchSpecification.setQuery(
                     beans.getAdvancedActivityRunSupport().evaluateQueryExpressions(
@@ -379,11 +390,47 @@ public abstract class SearchBasedActivityRun<
         }
     }
 
-    private void applyDefinitionsToQuery(OperationResult result) throws CommonException {
+    private void applyDefinitionsToQuery(SearchSpecification<C> searchSpecification, OperationResult result)
+            throws CommonException {
         beans.getAdvancedActivityRunSupport()
                 .applyDefinitionsToQuery(searchSpecification, getRunningTask(), result);
     }
 
+    @Override
+    public @NotNull BalancedSegmentationSampler getBalancedSegmentationSampler() throws ConfigurationException {
+        if (balancedSegmentationSampler == null) {
+            balancedSegmentationSampler = createBalancedSegmentationSampler();
+        }
+        return balancedSegmentationSampler;
+    }
+
+    /**
+     * The sampler works with the query as defined by the activity, i.e. without bucket narrowing.
+     * Objects are sampled directly in the repository, as we need only the distribution of their OIDs.
+     */
+    private @NotNull BalancedSegmentationSampler createBalancedSegmentationSampler() throws ConfigurationException {
+        OperationResult result = new OperationResult(OP_CREATE_BALANCED_SEGMENTATION_SAMPLER);
+        try {
+            SearchSpecification<C> samplingSpecification = createCustomizedSearchSpecification(result);
+            configCheck(ObjectType.class.isAssignableFrom(samplingSpecification.getType()),
+                    "Balanced work segmentation is supported only for objects, not for %s",
+                    samplingSpecification.getType());
+            configCheck(isInRepository(result),
+                    "Balanced work segmentation is supported only for objects in the repository");
+            resolveExpressionsInQuery(samplingSpecification, result);
+            applyDefinitionsToQuery(samplingSpecification, result);
+            //noinspection unchecked
+            return new RepositorySegmentationSampler(
+                    beans.plainRepositoryService,
+                    (Class<? extends ObjectType>) (Class<?>) samplingSpecification.getType(),
+                    samplingSpecification.getQuery());
+        } catch (ConfigurationException e) {
+            throw e;
+        } catch (CommonException | ActivityRunException e) {
+            throw new SystemException("Couldn't prepare balanced work segmentation: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public final @Nullable Integer determineOverallSize(OperationResult result)
             throws CommonException, ActivityRunException {
@@ -31,6 +31,7 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.schema.util.task.ActivityPath;
@@ -86,6 +87,9 @@ class BucketOperation implements DebugDumpable {
     final RepositoryService plainRepositoryService;
     final PrismContext prismContext;
 
+    /** Repository store of work buckets. Null if not supported by the repository. */
+    @Nullable final WorkBucketStore workBucketStore;
+
     BucketOperation(@NotNull String coordinatorTaskOid, @Nullable String workerTaskOid, @NotNull ActivityPath activityPath,
             ActivityBucketManagementStatistics statistics, @Nullable Consumer<BucketProgressOverviewType> bucketProgressConsumer,
             @NotNull CommonTaskBeans beans) {
@@ -98,6 +102,7 @@ class BucketOperation implements DebugDumpable {
         this.taskManager = beans.taskManager;
         this.plainRepositoryService = beans.plainRepositoryService;
         this.prismContext = beans.prismContext;
+        this.workBucketStore = beans.workBucketStore;
     }
 
     public boolean isStandalone() {
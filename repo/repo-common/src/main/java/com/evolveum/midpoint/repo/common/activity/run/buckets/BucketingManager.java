@@ -12,7 +12,6 @@ import java.util.List;
 import java.util.function.Consumer;
 
 import com.evolveum.midpoint.prism.Containerable;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.BucketProgressOverviewType;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -31,11 +30,13 @@ import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 import com.evolveum.midpoint.schema.util.task.ActivityPath;
 import com.evolveum.midpoint.schema.util.task.BucketingUtil;
 import com.evolveum.midpoint.util.annotation.Experimental;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkSegmentationType;
-import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
 /**
  * Responsible for managing task work state:
@@ -50,6 +51,10 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
 @Component
 public class BucketingManager {
 
+    private static final Trace LOGGER = TraceManager.getTrace(BucketingManager.class);
+
+    private static final long DEFAULT_BUCKET_LEASE_DURATION = 5 * 60 * 1000L;
+
     @Autowired private CommonTaskBeans beans;
     @Autowired private WorkBucketContentHandlerRegistry handlerRegistry;
 
@@ -60,7 +65,8 @@ public class BucketingManager {
     public WorkBucketType getWorkBucket(@NotNull String coordinatorTaskOid, @Nullable String workerTaskOid,
             @NotNull ActivityPath activityPath, @Nullable GetBucketOperationOptions options,
             ActivityBucketManagementStatistics statistics, @NotNull OperationResult result)
-            throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException, InterruptedException {
+            throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException, InterruptedException,
+            ConfigurationException {
         return new GetBucketOperation(coordinatorTaskOid, workerTaskOid, activityPath, statistics, options, beans)
                 .execute(result);
     }
@@ -103,6 +109,55 @@ public class BucketingManager {
                 .execute(result);
     }
 
+    /**
+     * Are buckets of given (distributed) activity kept in the repository bucket store?
+     * This is so if it is configured and if the repository supports it.
+     */
+    public boolean isRepositoryStoreUsed(@Nullable ActivityDistributionDefinition distributionDefinition) {
+        if (beans.workBucketStore == null) {
+            return false;
+        }
+        WorkAllocationDefinitionType allocation = getAllocationDefinition(distributionDefinition);
+        return allocation != null && allocation.getStore() == WorkBucketStoreType.REPOSITORY;
+    }
+
+    public static long getBucketLeaseDuration(@Nullable ActivityDistributionDefinition distributionDefinition) {
+        WorkAllocationDefinitionType allocation = getAllocationDefinition(distributionDefinition);
+        return allocation != null && allocation.getBucketLeaseDuration() != null ?
+                allocation.getBucketLeaseDuration() : DEFAULT_BUCKET_LEASE_DURATION;
+    }
+
+    private static WorkAllocationDefinitionType getAllocationDefinition(
+            @Nullable ActivityDistributionDefinition distributionDefinition) {
+        BucketsDefinitionType buckets = distributionDefinition != null ? distributionDefinition.getBuckets() : null;
+        return buckets != null ? buckets.getAllocation() : null;
+    }
+
+    /**
+     * Renews leases of buckets delegated to the worker. Relevant only if the buckets are kept in the repository store.
+     */
+    public void renewBucketLeases(@NotNull String coordinatorTaskOid, @NotNull String workerTaskOid,
+            @NotNull ActivityPath activityPath, @Nullable ActivityDistributionDefinition distributionDefinition,
+            @NotNull OperationResult result) {
+        if (isRepositoryStoreUsed(distributionDefinition)) {
+            int renewed = beans.workBucketStore.renewLeases(coordinatorTaskOid, activityPath.toString(), workerTaskOid,
+                    getBucketLeaseDuration(distributionDefinition), result);
+            LOGGER.trace("Renewed leases of {} bucket(s) delegated to {}", renewed, workerTaskOid);
+        }
+    }
+
+    /**
+     * Deletes buckets left in the repository store, e.g. from previous run of the activity.
+     */
+    public void deleteBucketsFromStore(@NotNull String coordinatorTaskOid, @NotNull ActivityPath activityPath,
+            @Nullable ActivityDistributionDefinition distributionDefinition, @NotNull OperationResult result) {
+        if (isRepositoryStoreUsed(distributionDefinition)) {
+            int deleted = beans.workBucketStore.deleteBuckets(coordinatorTaskOid, activityPath.toString(), result);
+            LOGGER.debug("Deleted {} bucket(s) of {} in {} from the repository store",
+                    deleted, activityPath, coordinatorTaskOid);
+        }
+    }
+
     /**
      * Narrows a query by taking specified bucket into account.
      */
@@ -56,6 +56,10 @@ public class CompleteBucketOperation extends BucketOperation {
             throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException {
 
         LOGGER.trace("Completing work bucket #{} in {} (worker {})", sequentialNumber, coordinatorTaskOid, workerTaskOid);
+        if (completeInStore(result)) {
+            statisticsKeeper.register(BucketingConstants.COMPLETE_WORK_BUCKET);
+            return;
+        }
         ModifyObjectResult<TaskType> modifyObjectResult =
                 plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
                         this::computeCompletionModifications, null, result);
@@ -64,6 +68,44 @@ public class CompleteBucketOperation extends BucketOperation {
         statisticsKeeper.register(BucketingConstants.COMPLETE_WORK_BUCKET);
     }
 
+    /**
+     * Completes the bucket in the repository store, if it is there. Buckets in the store are not compressed:
+     * their number is used to report the progress, and the last one is needed to create new buckets.
+     *
+     * @return false if the bucket is not in the store, so it has to be completed in the coordinator task
+     * @throws IllegalStateException if the bucket is in the store but it is no longer delegated to this worker,
+     * i.e. the worker has lost its lease (and the bucket was released or claimed by another worker)
+     */
+    private boolean completeInStore(OperationResult result) throws SchemaException, ObjectNotFoundException {
+        if (workBucketStore == null || workerTaskOid == null) {
+            return false;
+        }
+        String path = activityPath.toString();
+        if (!workBucketStore.completeBucket(coordinatorTaskOid, path, sequentialNumber, workerTaskOid, result)) {
+            WorkBucketType storedBucket = workBucketStore.getBucket(coordinatorTaskOid, path, sequentialNumber, result);
+            if (storedBucket == null) {
+                LOGGER.trace("Bucket #{} is not in the repository store, completing it in the coordinator task {}",
+                        sequentialNumber, coordinatorTaskOid);
+                return false;
+            }
+            throw new IllegalStateException(String.format(
+                    "Couldn't complete bucket #%d of %s in %s: worker %s has lost its lease on it; "
+                            + "the bucket is now in state %s (worker: %s)",
+                    sequentialNumber, activityPath, coordinatorTaskOid, workerTaskOid, storedBucket.getState(),
+                    storedBucket.getWorkerRef() != null ? storedBucket.getWorkerRef().getOid() : "none"));
+        }
+        TaskType coordinatorTask =
+                plainRepositoryService.getObject(TaskType.class, coordinatorTaskOid, null, result).asObjectable();
+        bucketProgressHolder.accept(
+                new BucketProgressOverviewType()
+                        .totalBuckets(BucketingUtil.getNumberOfBuckets(
+                                ActivityStateUtil.getActivityStateRequired(coordinatorTask.getActivityState(), activityPath)))
+                        .completeBuckets(
+                                workBucketStore.countBuckets(coordinatorTaskOid, path, WorkBucketStateType.COMPLETE, result)));
+        bucketProgressHolder.passValue();
+        return true;
+    }
+
     private @NotNull Collection<ItemDelta<?, ?>> computeCompletionModifications(@NotNull TaskType task) {
 
         ActivityStateType activityState = ActivityStateUtil.getActivityStateRequired(task.getActivityState(), activityPath);
@@ -14,9 +14,12 @@ import static java.util.Objects.requireNonNullElseGet;
 import static com.evolveum.midpoint.schema.util.task.BucketingUtil.getBuckets;
 import static com.evolveum.midpoint.schema.util.task.BucketingUtil.getWorkerOid;
 import static com.evolveum.midpoint.schema.util.task.work.BucketingConstants.*;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_NUMBER_OF_BUCKETS;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_SCAVENGING;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType.F_WORK_COMPLETE;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityStateType.F_BUCKETING;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.COMPLETE;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.DELEGATED;
 
 import java.util.Objects;
 import java.util.*;
@@ -42,6 +45,7 @@ import com.evolveum.midpoint.schema.util.task.BucketingUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.Holder;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -82,7 +86,7 @@ public class GetBucketOperation extends BucketOperation {
      * is not relevant; it may be READY or DELEGATED.
      */
     public WorkBucketType execute(OperationResult result) throws SchemaException, ObjectNotFoundException,
-            ObjectAlreadyExistsException, InterruptedException {
+            ObjectAlreadyExistsException, InterruptedException, ConfigurationException {
 
         bucketFactory = BucketFactory.create(
                 options.getDistributionDefinition(),
@@ -137,6 +141,10 @@ public class GetBucketOperation extends BucketOperation {
     private WorkBucketType getBucketMultiNode(OperationResult result)
             throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException, InterruptedException {
 
+        if (beans.bucketingManager.isRepositoryStoreUsed(options.getDistributionDefinition())) {
+            return getBucketMultiNodeFromStore(result);
+        }
+
         for (;;) {
 
             Holder<GetBucketOperationAttempt> lastAttemptHolder = new Holder<>();
@@ -193,6 +201,169 @@ public class GetBucketOperation extends BucketOperation {
         }
     }
 
+    /**
+     * Gets a bucket from the repository store. Unlike {@link #getBucketMultiNode(OperationResult)}, the coordinator task
+     * is not modified when buckets are obtained: it is touched only to set the number of buckets
+     * and the scavenging/work complete flags.
+     */
+    private WorkBucketType getBucketMultiNodeFromStore(OperationResult result)
+            throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException, InterruptedException {
+
+        assert workBucketStore != null && workerTaskOid != null;
+        String path = activityPath.toString();
+        long leaseDuration = BucketingManager.getBucketLeaseDuration(options.getDistributionDefinition());
+
+        for (;;) {
+
+            WorkBucketType bucket = getBucketFromStore(path, leaseDuration, result);
+
+            bucketProgressHolder.accept(
+                    new BucketProgressOverviewType()
+                            .totalBuckets(bucketFactory.estimateNumberOfBuckets())
+                            .completeBuckets(workBucketStore.countBuckets(coordinatorTaskOid, path, COMPLETE, result)));
+            bucketProgressHolder.passValue();
+
+            if (bucket != null) {
+                return bucket;
+            }
+
+            // Nothing found!
+
+            if (!options.isScavenger()) {
+                markScavengingIfNotYet(result);
+                recordNothingFoundForNonScavenger();
+                return null;
+            }
+
+            boolean definite = workBucketStore.countBuckets(coordinatorTaskOid, path, DELEGATED, result) == 0;
+            if (definite || options.getFreeBucketWaitTime() == 0L) {
+                markWorkComplete(result);
+                recordNothingFoundDefinite();
+                return null;
+            }
+
+            long toWait = getRemainingTimeToWait();
+            if (toWait <= 0) {
+                // Some buckets are still delegated to other workers, so the work is not complete: marking it so
+                // would let the coordinator close the workers that are still processing them. This worker simply
+                // stops. Buckets of dead workers are claimed after their leases expire by any worker asking later.
+                recordNothingFoundWithWaitTimeElapsed();
+                return null;
+            }
+
+            sleep(toWait);
+            // No explicit reclamation here: buckets of dead workers are claimed after their leases expire.
+        }
+    }
+
+    /**
+     * Returns a bucket delegated to this worker, claims an existing ready (or abandoned) one, or creates new buckets.
+     * Returns null if there are no more buckets to get.
+     */
+    private WorkBucketType getBucketFromStore(String path, long leaseDuration, OperationResult result)
+            throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
+
+        assert workBucketStore != null && workerTaskOid != null;
+
+        for (;;) {
+
+            List<WorkBucketType> delegated =
+                    workBucketStore.getDelegatedBuckets(coordinatorTaskOid, path, workerTaskOid, result);
+            if (!delegated.isEmpty()) {
+                workBucketStore.renewLeases(coordinatorTaskOid, path, workerTaskOid, leaseDuration, result);
+                WorkBucketType bucket = delegated.get(0);
+                LOGGER.trace("Returning already delegated bucket for {}: {}", workerTaskOid, bucket);
+                statisticsKeeper.register(GET_WORK_BUCKET_FOUND_DELEGATED);
+                return bucket;
+            }
+
+            List<WorkBucketType> claimed =
+                    workBucketStore.claimBuckets(coordinatorTaskOid, path, workerTaskOid, bucketsToGet, leaseDuration, result);
+            if (!claimed.isEmpty()) {
+                // When sampling, all buckets except for the last one are skipped.
+                for (WorkBucketType skipped : claimed.subList(0, claimed.size() - 1)) {
+                    LOGGER.debug("Marking existing bucket as COMPLETE because of sampling: {}", skipped);
+                    workBucketStore.completeBucket(
+                            coordinatorTaskOid, path, skipped.getSequentialNumber(), workerTaskOid, result);
+                }
+                WorkBucketType bucket = claimed.get(claimed.size() - 1);
+                CONTENTION_LOGGER.trace("Existing bucket acquired after {} ms (conflicts: {}) in {}: {}",
+                        System.currentTimeMillis() - statisticsKeeper.start, statisticsKeeper.conflictCount,
+                        workerTaskOid, bucket);
+                statisticsKeeper.register(GET_WORK_BUCKET_FOUND_READY);
+                return bucket;
+            }
+
+            WorkBucketType lastBucket = workBucketStore.getLastBucket(coordinatorTaskOid, path, result);
+            if (lastBucket == null) {
+                setNumberOfBuckets(result);
+            }
+            List<WorkBucketType> newBuckets = bucketFactory.createNewBuckets(
+                    lastBucket != null ? List.of(lastBucket) : List.of(), bucketsToGet);
+            if (newBuckets.isEmpty()) {
+                return null;
+            }
+
+            WorkBucketType bucket = markNewBucketsForStore(newBuckets);
+            if (workBucketStore.addBuckets(coordinatorTaskOid, path, newBuckets, leaseDuration, result)) {
+                CONTENTION_LOGGER.trace("New bucket(s) acquired after {} ms (retries: {}) in {}: {}",
+                        System.currentTimeMillis() - statisticsKeeper.start, statisticsKeeper.conflictCount,
+                        workerTaskOid, bucket);
+                statisticsKeeper.register(GET_WORK_BUCKET_CREATED_NEW);
+                return bucket;
+            }
+
+            // Another worker has created the buckets in the meanwhile. Let us look at them.
+            statisticsKeeper.conflictCount++;
+        }
+    }
+
+    /**
+     * Sets the state of new buckets: first N-1 are skipped (sampling), the N-th is delegated to this worker,
+     * and the rest is left ready for anyone. (Unlike the coordinator-based variant, pre-created buckets are not
+     * delegated to this worker, because in the store they can be claimed cheaply by other workers.)
+     *
+     * @return The bucket to use.
+     */
+    private WorkBucketType markNewBucketsForStore(List<WorkBucketType> newBuckets) {
+        assert workerTaskOid != null;
+        int toUse = Math.min(bucketsToGet, newBuckets.size()) - 1;
+        for (int i = 0; i < newBuckets.size(); i++) {
+            WorkBucketType bucket = newBuckets.get(i);
+            if (i < toUse) {
+                LOGGER.debug("Marking new bucket as COMPLETE because of sampling: {}", bucket);
+                bucket.state(WorkBucketStateType.COMPLETE);
+            } else if (i == toUse) {
+                bucket.state(WorkBucketStateType.DELEGATED)
+                        .workerRef(workerTaskOid, TaskType.COMPLEX_TYPE);
+            } else {
+                bucket.state(WorkBucketStateType.READY);
+            }
+        }
+        return newBuckets.get(toUse).clone();
+    }
+
+    /** Stores the estimated number of buckets into the coordinator task (if known and not stored yet). */
+    private void setNumberOfBuckets(OperationResult result)
+            throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
+        Integer number = bucketFactory.estimateNumberOfBuckets();
+        if (number == null) {
+            return;
+        }
+        plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
+                task -> {
+                    ActivityStateType state = ActivityStateUtil.getActivityStateRequired(task.getActivityState(), activityPath);
+                    if (number.equals(BucketingUtil.getNumberOfBuckets(state))) {
+                        return List.of();
+                    } else {
+                        ItemPath stateItemPath = ActivityStateUtil.getStateItemPath(task.getActivityState(), activityPath);
+                        return prismContext.deltaFor(TaskType.class)
+                                .item(stateItemPath.append(F_BUCKETING, F_NUMBER_OF_BUCKETS)).replace(number)
+                                .asItemDeltas();
+                    }
+                }, null, result);
+    }
+
     /**
      * Recording situation when there is a bucket to be returned.
      * (The cases where there is no bucket are treated separately for standalone/workers cases.
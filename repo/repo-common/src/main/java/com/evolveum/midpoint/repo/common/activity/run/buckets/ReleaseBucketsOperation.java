@@ -51,6 +51,18 @@ public class ReleaseBucketsOperation extends BucketOperation {
     public void execute(OperationResult result)
             throws ObjectNotFoundException, SchemaException {
 
+        if (workBucketStore != null) {
+            assert workerTaskOid != null;
+            int released = workBucketStore.releaseBuckets(
+                    coordinatorTaskOid, activityPath.toString(), workerTaskOid, sequentialNumber, result);
+            LOGGER.trace("Released {} bucket(s) in the repository store (delegated to {})", released, workerTaskOid);
+            if (sequentialNumber != null && released > 0) {
+                // The bucket was in the store, so it is not in the coordinator task.
+                statisticsKeeper.register(BucketingConstants.RELEASE_WORK_BUCKET);
+                return;
+            }
+        }
+
         ModifyObjectResult<TaskType> modifyObjectResult;
         try {
             modifyObjectResult = plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
+
+import static com.evolveum.midpoint.util.MiscUtil.configCheck;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.repo.common.activity.run.buckets.BaseBucketContentFactory;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkBucketContentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.BalancedWorkSegmentationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.StringIntervalWorkBucketContentType;
+
+/**
+ * Creates OID interval buckets containing (approximately) the same number of objects.
+ * (See {@link BalancedWorkSegmentationType}.)
+ *
+ * The boundaries are provided by {@link BalancedSegmentationSampler}. Each new bucket starts at the end of the last one
+ * and ends at the first boundary after its start. So, the buckets are contiguous even if the boundaries were
+ * determined by different workers, at different times.
+ *
+ * Limitations:
+ *
+ * . Only OIDs are supported as the discriminator. Names or other string items are not: the boundaries are compared
+ * in Java, which is correct only for OIDs whose ordering does not depend on the DB collation.
+ * . Oversized buckets are split only when they are created (see {@link #splitIfOversized(String, String)}).
+ * A bucket that is already delegated to a worker is not split, even if it turns out to be much larger than expected.
+ */
+public class BalancedBucketContentFactory extends BaseBucketContentFactory<BalancedWorkSegmentationType> {
+
+    private static final Trace LOGGER = TraceManager.getTrace(BalancedBucketContentFactory.class);
+
+    @NotNull private final BalancedSegmentationSampler sampler;
+
+    BalancedBucketContentFactory(@NotNull BalancedWorkSegmentationType segmentationConfig,
+            @NotNull BalancedSegmentationSampler sampler) throws ConfigurationException {
+        super(segmentationConfig);
+        configCheck(segmentationConfig.getNumberOfBuckets() != null,
+                "Number of buckets must be specified for balanced work segmentation");
+        configCheck(segmentationConfig.getDiscriminator() == null,
+                "Balanced work segmentation always uses OIDs, discriminator can't be specified");
+        this.sampler = sampler;
+    }
+
+    @Override
+    public StringIntervalWorkBucketContentType createNextBucketContent(AbstractWorkBucketContentType lastBucketContent,
+            Integer lastBucketSequentialNumber) throws SchemaException {
+        String from;
+        if (lastBucketSequentialNumber != null) {
+            if (!(lastBucketContent instanceof StringIntervalWorkBucketContentType)) {
+                throw new IllegalStateException("Null or unsupported bucket content: " + lastBucketContent);
+            }
+            from = ((StringIntervalWorkBucketContentType) lastBucketContent).getTo();
+            if (from == null) {
+                return null; // no more buckets
+            }
+        } else {
+            from = null;
+        }
+
+        String to = getFirstBoundaryAfter(from,
+                sampler.getSegmentBoundaries(null, null, segmentationConfig.getNumberOfBuckets()));
+        if (segmentationConfig.getOversizeFactor() != null) {
+            to = splitIfOversized(from, to);
+        }
+        return new StringIntervalWorkBucketContentType()
+                .from(from)
+                .to(to);
+    }
+
+    /**
+     * If the interval contains much more objects than expected, returns the boundary that shrinks it
+     * to the expected size. Otherwise returns the original end of the interval.
+     */
+    private String splitIfOversized(String from, String to) throws SchemaException {
+        int numberOfBuckets = segmentationConfig.getNumberOfBuckets();
+        int expected = Math.max(1, sampler.countObjects(null, null) / numberOfBuckets);
+        int actual = sampler.countObjects(from, to);
+        if (actual <= segmentationConfig.getOversizeFactor() * expected) {
+            return to;
+        }
+        int parts = (actual + expected - 1) / expected;
+        String newTo = getFirstBoundaryAfter(from, sampler.getSegmentBoundaries(from, to, parts));
+        LOGGER.debug("Bucket [{}, {}) contains {} objects, expected {}; splitting it into {} parts, the first ends at {}",
+                from, to, actual, expected, parts, newTo);
+        return newTo != null ? newTo : to;
+    }
+
+    private @Nullable String getFirstBoundaryAfter(@Nullable String from, @NotNull List<String> boundaries) {
+        for (String boundary : boundaries) {
+            if (from == null || boundary.compareTo(from) > 0) {
+                return boundary;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Integer estimateNumberOfBuckets() {
+        return segmentationConfig.getNumberOfBuckets();
+    }
+}
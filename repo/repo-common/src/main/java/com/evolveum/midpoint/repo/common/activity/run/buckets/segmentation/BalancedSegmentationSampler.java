@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Provides information on the actual distribution of OIDs of objects processed by an activity.
+ * Used by {@link BalancedBucketContentFactory}.
+ *
+ * OID ranges are half-open: `from` is inclusive, `to` is exclusive. Null means unbounded.
+ */
+public interface BalancedSegmentationSampler {
+
+    /**
+     * Counts objects with OIDs in given range.
+     */
+    int countObjects(@Nullable String from, @Nullable String to) throws SchemaException;
+
+    /**
+     * Returns OIDs that divide objects in given range into segments of (approximately) the same size.
+     * The i-th OID is the first OID of the (i+1)-th segment.
+     *
+     * @return Ascending list of at most `numberOfSegments - 1` OIDs. It is shorter if there are not enough objects.
+     */
+    @NotNull List<String> getSegmentBoundaries(@Nullable String from, @Nullable String to, int numberOfSegments)
+            throws SchemaException;
+}
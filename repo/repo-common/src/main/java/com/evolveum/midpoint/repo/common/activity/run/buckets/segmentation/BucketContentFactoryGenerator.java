@@ -8,6 +8,7 @@
 package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
 
 import com.evolveum.midpoint.schema.util.task.BucketingUtil;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -17,6 +18,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static com.evolveum.midpoint.util.MiscUtil.argCheck;
+import static com.evolveum.midpoint.util.MiscUtil.configCheck;
 
 /**
  * Creates configured bucket content factories.
@@ -37,14 +39,17 @@ public class BucketContentFactoryGenerator {
         registerSupplier(OidWorkSegmentationType.class, (cfg, ctx) -> new StringBucketContentFactory(cfg));
         registerSupplier(ExplicitWorkSegmentationType.class, (cfg, ctx) -> new ExplicitBucketContentFactory(cfg));
         registerSupplier(ImplicitWorkSegmentationType.class, this::createContentFactoryInImplicitCase);
+        registerSupplier(BalancedWorkSegmentationType.class, this::createContentFactoryInBalancedCase);
     }
 
     /**
      * Creates work state management strategy based on provided configuration.
+     *
+     * @throws ConfigurationException if the segmentation can't be used in the context given by the resolver
      */
     @NotNull
     public BucketContentFactory createContentFactory(@Nullable BucketsDefinitionType bucketing,
-            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver) {
+            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver) throws ConfigurationException {
         return createContentFactory(
                 BucketingUtil.getWorkSegmentationConfiguration(bucketing),
                 implicitSegmentationResolver);
@@ -52,7 +57,7 @@ public class BucketContentFactoryGenerator {
 
     @NotNull
     private BucketContentFactory createContentFactory(@Nullable AbstractWorkSegmentationType segmentationConfig,
-            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver) {
+            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver) throws ConfigurationException {
         if (segmentationConfig == null) {
             return new NullBucketContentFactory();
         }
@@ -76,11 +81,20 @@ public class BucketContentFactoryGenerator {
 
     private @NotNull BucketContentFactory createContentFactoryInImplicitCase(
             @NotNull ImplicitWorkSegmentationType configuration,
-            ImplicitSegmentationResolver resolver) {
+            ImplicitSegmentationResolver resolver) throws ConfigurationException {
         argCheck(resolver != null, "No bucketing context for implicit work segmentation");
         return createContentFactory(
                 resolver.resolveImplicitSegmentation(configuration),
                 null // We no longer need the resolver (this also avoids endless loops)
         );
     }
+
+    private @NotNull BucketContentFactory createContentFactoryInBalancedCase(
+            @NotNull BalancedWorkSegmentationType configuration,
+            ImplicitSegmentationResolver resolver) throws ConfigurationException {
+        configCheck(resolver != null, "No bucketing context for balanced work segmentation");
+        BalancedSegmentationSampler sampler = resolver.getBalancedSegmentationSampler();
+        configCheck(sampler != null, "Balanced work segmentation is not supported by this activity");
+        return new BalancedBucketContentFactory(configuration, sampler);
+    }
 }
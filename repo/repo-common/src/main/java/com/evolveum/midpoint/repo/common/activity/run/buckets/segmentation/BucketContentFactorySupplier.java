@@ -10,6 +10,7 @@ package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkSegmentationType;
 
 @FunctionalInterface
@@ -19,5 +20,6 @@ public interface BucketContentFactorySupplier<ST extends AbstractWorkSegmentatio
      * Creates bucket content factory with a given segmentation config in given context.
      * The context is currently taken into account only for implicit segmentation configuration.
      */
-    @NotNull CF supply(ST segmentationConfig, @Nullable ImplicitSegmentationResolver implicitSegmentationResolver);
+    @NotNull CF supply(ST segmentationConfig, @Nullable ImplicitSegmentationResolver implicitSegmentationResolver)
+            throws ConfigurationException;
 }
@@ -11,6 +11,7 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.repo.common.activity.definition.ActivityDistributionDefinition;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.schema.util.task.BucketingUtil;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
@@ -34,7 +35,8 @@ public class BucketFactory {
     }
 
     public static BucketFactory create(@Nullable ActivityDistributionDefinition distributionDefinition,
-            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver, @NotNull CommonTaskBeans beans) {
+            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver, @NotNull CommonTaskBeans beans)
+            throws ConfigurationException {
 
         @Nullable BucketsDefinitionType bucketingConfig =
                 distributionDefinition != null ? distributionDefinition.getBuckets() : null;
@@ -7,13 +7,17 @@
 
 package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
 
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkSegmentationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ImplicitWorkSegmentationType;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Resolves `ImplicitWorkSegmentationType` in a specific context.
+ *
+ * Also provides the context for `BalancedWorkSegmentationType`, as it depends on the objects processed by the activity.
  */
 public interface ImplicitSegmentationResolver {
 
@@ -21,4 +25,14 @@ public interface ImplicitSegmentationResolver {
      * Converts `ImplicitWorkSegmentationType` into "real" segmentation configuration.
      */
     AbstractWorkSegmentationType resolveImplicitSegmentation(@NotNull ImplicitWorkSegmentationType segmentation);
+
+    /**
+     * Provides information on the distribution of objects processed by the activity. Used for balanced segmentation.
+     *
+     * @return null if the activity does not support balanced segmentation
+     * @throws ConfigurationException if the activity supports it in general, but not in its current configuration
+     */
+    default @Nullable BalancedSegmentationSampler getBalancedSegmentationSampler() throws ConfigurationException {
+        return null;
+    }
 }
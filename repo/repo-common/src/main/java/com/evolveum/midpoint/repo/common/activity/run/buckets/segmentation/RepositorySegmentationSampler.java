@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Determines the distribution of OIDs of objects in the repository, for balanced work segmentation.
+ *
+ * Boundaries are found by walking through the objects ordered by OID: each boundary is looked up by skipping
+ * the required number of objects after the previous boundary. So all the objects in the range are visited
+ * (via the OID index) only once, and only the boundary objects are fetched.
+ *
+ * The overall count and the boundaries for the whole OID space are cached, because they are needed each time
+ * a new bucket is created.
+ */
+public class RepositorySegmentationSampler implements BalancedSegmentationSampler {
+
+    private static final Trace LOGGER = TraceManager.getTrace(RepositorySegmentationSampler.class);
+
+    private static final String OP_COUNT_OBJECTS = RepositorySegmentationSampler.class.getName() + ".countObjects";
+    private static final String OP_GET_SEGMENT_BOUNDARIES =
+            RepositorySegmentationSampler.class.getName() + ".getSegmentBoundaries";
+
+    private static final ItemPath OID_PATH = ItemPath.create(PrismConstants.T_ID);
+
+    @NotNull private final RepositoryService repositoryService;
+    @NotNull private final Class<? extends ObjectType> type;
+    @Nullable private final ObjectQuery query;
+
+    /** Count of all the objects (matching the query), if known. */
+    private Integer overallCount;
+
+    /** Boundaries for the whole OID space, keyed by number of segments. */
+    @NotNull private final Map<Integer, List<String>> overallBoundaries = new HashMap<>();
+
+    public RepositorySegmentationSampler(@NotNull RepositoryService repositoryService,
+            @NotNull Class<? extends ObjectType> type, @Nullable ObjectQuery query) {
+        this.repositoryService = repositoryService;
+        this.type = type;
+        this.query = query;
+    }
+
+    @Override
+    public synchronized int countObjects(@Nullable String from, @Nullable String to) throws SchemaException {
+        if (from == null && to == null) {
+            if (overallCount == null) {
+                overallCount = countObjectsInRepository(null, null);
+            }
+            return overallCount;
+        } else {
+            return countObjectsInRepository(from, to);
+        }
+    }
+
+    @Override
+    public synchronized @NotNull List<String> getSegmentBoundaries(@Nullable String from, @Nullable String to,
+            int numberOfSegments) throws SchemaException {
+        if (from == null && to == null) {
+            List<String> cached = overallBoundaries.get(numberOfSegments);
+            if (cached != null) {
+                return cached;
+            }
+            List<String> boundaries = getSegmentBoundariesFromRepository(null, null, numberOfSegments);
+            overallBoundaries.put(numberOfSegments, boundaries);
+            return boundaries;
+        } else {
+            return getSegmentBoundariesFromRepository(from, to, numberOfSegments);
+        }
+    }
+
+    private int countObjectsInRepository(String from, String to) throws SchemaException {
+        OperationResult result = new OperationResult(OP_COUNT_OBJECTS);
+        return repositoryService.countObjects(type, createRangeQuery(from, false, to), null, result);
+    }
+
+    private @NotNull List<String> getSegmentBoundariesFromRepository(String from, String to, int numberOfSegments)
+            throws SchemaException {
+        OperationResult result = new OperationResult(OP_GET_SEGMENT_BOUNDARIES);
+        int count = countObjects(from, to);
+        List<String> boundaries = new ArrayList<>();
+        String previous = null;
+        int previousPosition = 0;
+        for (int i = 1; i < numberOfSegments; i++) {
+            int position = (int) ((long) count * i / numberOfSegments);
+            if (position <= previousPosition) {
+                continue; // less objects than segments
+            }
+            ObjectQuery pageQuery = previous != null
+                    ? createRangeQuery(previous, true, to)
+                    : createRangeQuery(from, false, to);
+            int offset = previous != null ? position - previousPosition - 1 : position;
+            pageQuery.setPaging(
+                    PrismContext.get().queryFactory().createPaging(offset, 1, OID_PATH, OrderDirection.ASCENDING));
+            List<? extends PrismObject<? extends ObjectType>> objects = repositoryService.searchObjects(
+                    type, pageQuery, SelectorOptions.createCollection(GetOperationOptions.createRaw()), result);
+            if (objects.isEmpty()) {
+                break; // objects were deleted in the meanwhile
+            }
+            previous = objects.get(0).getOid();
+            previousPosition = position;
+            boundaries.add(previous);
+        }
+        LOGGER.debug("Segment boundaries for [{}, {}) with {} objects in {} segments: {}",
+                from, to, count, numberOfSegments, boundaries);
+        return boundaries;
+    }
+
+    private @NotNull ObjectQuery createRangeQuery(String from, boolean fromExclusive, String to) {
+        List<ObjectFilter> filters = new ArrayList<>();
+        PrismContext prismContext = PrismContext.get();
+        if (from != null) {
+            filters.add(fromExclusive
+                    ? prismContext.queryFor(type).item(OID_PATH).gt(from).buildFilter()
+                    : prismContext.queryFor(type).item(OID_PATH).ge(from).buildFilter());
+        }
+        if (to != null) {
+            filters.add(prismContext.queryFor(type).item(OID_PATH).lt(to).buildFilter());
+        }
+        ObjectQuery rangeQuery = ObjectQueryUtil.addConjunctions(query, prismContext, filters);
+        return rangeQuery != null ? rangeQuery.clone() : prismContext.queryFactory().createQuery();
+    }
+}
@@ -39,6 +39,17 @@ public class ActivityBucketManagementStatistics extends Initializable {
         return value.clone(); // TODO use clone without id when migrating this to container
     }
 
+    /** Returns a current value of this statistics and starts collecting from zero. Used to get increments. */
+    public synchronized ActivityBucketManagementStatisticsType getValueCopyAndClear() {
+        ActivityBucketManagementStatisticsType copy = getValueCopy();
+        value.getOperation().clear();
+        return copy;
+    }
+
+    public synchronized void add(ActivityBucketManagementStatisticsType increment) {
+        addTo(value, increment);
+    }
+
     public synchronized void register(String situation, long totalTime, int conflictCount, long conflictWastedTime,
             int bucketWaitCount, long bucketWaitTime, int bucketsReclaimed) {
         assertInitialized();
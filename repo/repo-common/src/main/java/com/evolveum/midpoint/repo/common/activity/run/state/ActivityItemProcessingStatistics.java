@@ -330,10 +330,13 @@ public class ActivityItemProcessingStatistics extends Initializable {
     @Experimental
     private void updateStatisticsForSimpleClients() {
         try {
-            activityState.updateProgressAndStatisticsNoCommit();
+            activityState.updateProgressNoCommit();
             if (System.currentTimeMillis() > lastStatisticsUpdatedForSimpleClients + STATISTICS_UPDATE_INTERVAL) {
                 lastStatisticsUpdatedForSimpleClients = System.currentTimeMillis();
-                activityState.flushPendingTaskModificationsChecked(new OperationResult(OP_UPDATE_STATISTICS_FOR_SIMPLE_CLIENT));
+                // Statistics are updated only here, as they may go to the statistics store (not to the task).
+                OperationResult result = new OperationResult(OP_UPDATE_STATISTICS_FOR_SIMPLE_CLIENT);
+                activityState.updateProgressAndStatisticsNoCommit(result);
+                activityState.flushPendingTaskModificationsChecked(result);
             }
         } catch (ActivityRunException e) {
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't update statistics for a simple client in {}", e, this);
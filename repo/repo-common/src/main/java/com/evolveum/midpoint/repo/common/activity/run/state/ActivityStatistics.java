@@ -7,21 +7,42 @@
 
 package com.evolveum.midpoint.repo.common.activity.run.state;
 
+import com.evolveum.midpoint.repo.api.ActivityStatisticsStore;
+import com.evolveum.midpoint.repo.common.activity.run.AbstractActivityRun;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
 import com.evolveum.midpoint.repo.common.activity.run.state.actions.ActionsExecutedCollectorImpl;
 import com.evolveum.midpoint.repo.common.activity.run.state.actions.ActivityActionsExecuted;
 import com.evolveum.midpoint.repo.common.activity.run.state.sync.ActivitySynchronizationStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.state.sync.SynchronizationStatisticsCollectorImpl;
+import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
 
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.path.ItemPath;
 
+/**
+ * Live statistics of an activity: item processing, synchronization, actions executed, and bucket management.
+ *
+ * Normally, all of them are written to the activity state in the task. If the activity is configured to keep
+ * the statistics in the repository store (and the repository supports it), only the item processing statistics
+ * are written to the task. The others are written to the {@link ActivityStatisticsStore} as increments,
+ * i.e. after each write the live values start from zero. See {@link ActivityStatisticsStoreType#REPOSITORY}.
+ */
 public class ActivityStatistics {
 
+    private static final Trace LOGGER = TraceManager.getTrace(ActivityStatistics.class);
+
+    /** After how many increments written to the store they are merged into one. */
+    private static final int INCREMENTS_TO_COMPACT = 100;
+
     @NotNull private static final ItemPath ITEM_PROCESSING_STATISTICS_PATH = ItemPath.create(ActivityStateType.F_STATISTICS, ActivityStatisticsType.F_ITEM_PROCESSING);
     @NotNull private static final ItemPath SYNCHRONIZATION_STATISTICS_PATH = ItemPath.create(ActivityStateType.F_STATISTICS, ActivityStatisticsType.F_SYNCHRONIZATION);
     @NotNull private static final ItemPath ACTIONS_EXECUTED_PATH = ItemPath.create(ActivityStateType.F_STATISTICS, ActivityStatisticsType.F_ACTIONS_EXECUTED);
@@ -34,6 +55,15 @@ public class ActivityStatistics {
     @NotNull private final ActivityActionsExecuted actionsExecuted;
     @NotNull private final ActivityBucketManagementStatistics bucketManagement;
 
+    /** The store, if the statistics (other than item processing ones) are kept there. Determined on initialization. */
+    @Nullable private ActivityStatisticsStore store;
+
+    /** Start of the interval covered by the increment that was not written to the store yet. Guarded by this. */
+    private long incrementStart;
+
+    /** Number of increments written to the store since the last compaction. Guarded by this. */
+    private int incrementsSinceCompaction;
+
     ActivityStatistics(@NotNull CurrentActivityState<?> activityState) {
         this.activityState = activityState;
         this.itemProcessing = new ActivityItemProcessingStatistics(activityState);
@@ -43,10 +73,32 @@ public class ActivityStatistics {
     }
 
     public void initialize() {
+        store = determineStore();
         itemProcessing.initialize(getStoredItemProcessing());
-        synchronizationStatistics.initialize(getStoredSynchronizationStatistics());
-        actionsExecuted.initialize(getStoredActionsExecuted());
-        bucketManagement.initialize(getStoredBucketManagement());
+        if (store == null) {
+            synchronizationStatistics.initialize(getStoredSynchronizationStatistics());
+            actionsExecuted.initialize(getStoredActionsExecuted());
+            bucketManagement.initialize(getStoredBucketManagement());
+        } else {
+            // Only the increments are collected. Values stored in the task (if any, e.g. from the time the store
+            // was not used) are not touched, so they are summed with the increments when read.
+            synchronizationStatistics.initialize(null);
+            actionsExecuted.initialize(null);
+            bucketManagement.initialize(null);
+            incrementStart = System.currentTimeMillis();
+        }
+    }
+
+    private @Nullable ActivityStatisticsStore determineStore() {
+        ActivityStatisticsStore configuredStore = activityState.getBeans().activityStatisticsStore;
+        if (configuredStore != null
+                && activityState.getActivity().getReportingDefinition().getStatisticsStore()
+                        == ActivityStatisticsStoreType.REPOSITORY
+                && activityState.getTask().isPersistent()) {
+            return configuredStore;
+        } else {
+            return null;
+        }
     }
 
     public @NotNull ActivityItemProcessingStatistics getLiveItemProcessing() {
@@ -79,10 +131,15 @@ public class ActivityStatistics {
 
     /**
      * Writes current values to the running task: into the memory and to repository.
+     * If the store is used, the increments are written to it directly.
      */
-    void writeToTaskAsPendingModifications() throws ActivityRunException {
+    void writeToTaskAsPendingModifications(OperationResult result) throws ActivityRunException {
         if (activityState.getActivityRun().areStatisticsSupported()) {
             activityState.setItemRealValues(ITEM_PROCESSING_STATISTICS_PATH, itemProcessing.getValueCopy());
+            if (store != null) {
+                writeIncrementToStore(result);
+                return;
+            }
             if (activityState.getActivityRun().areSynchronizationStatisticsSupported()) {
                 activityState.setItemRealValues(SYNCHRONIZATION_STATISTICS_PATH, synchronizationStatistics.getValueCopy());
             }
@@ -95,6 +152,61 @@ public class ActivityStatistics {
         }
     }
 
+    /**
+     * Takes the values collected since the last write and appends them to the store.
+     * If that fails, they are put back, so they are written next time.
+     */
+    private synchronized void writeIncrementToStore(OperationResult result) {
+        assert store != null;
+        AbstractActivityRun<?, ?, ?> activityRun = activityState.getActivityRun();
+        ActivityStatisticsType increment = new ActivityStatisticsType();
+        if (activityRun.areSynchronizationStatisticsSupported()) {
+            increment.setSynchronization(synchronizationStatistics.getValueCopyAndClear());
+        }
+        if (activityRun.areActionsExecutedStatisticsSupported()) {
+            increment.setActionsExecuted(actionsExecuted.getValueCopyAndClear());
+        }
+        if (activityState.getActivity().getDistributionDefinition().hasBuckets()) {
+            increment.setBucketManagement(bucketManagement.getValueCopyAndClear());
+        }
+        if (isEmpty(increment)) {
+            return;
+        }
+
+        String taskOid = activityState.getTask().getOid();
+        String activityPath = activityState.getActivityPath().toString();
+        long now = System.currentTimeMillis();
+        try {
+            store.addStatistics(taskOid, activityPath, incrementStart, now, increment, result);
+        } catch (SchemaException | RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write statistics of {} to the repository, "
+                    + "will try next time", e, activityState.getActivity());
+            synchronizationStatistics.add(increment.getSynchronization());
+            actionsExecuted.add(increment.getActionsExecuted());
+            bucketManagement.add(increment.getBucketManagement());
+            return;
+        }
+        incrementStart = now;
+        if (++incrementsSinceCompaction >= INCREMENTS_TO_COMPACT) {
+            try {
+                store.compactStatistics(taskOid, activityPath, result);
+                incrementsSinceCompaction = 0;
+            } catch (SchemaException | RuntimeException e) {
+                // Not critical, reading the statistics is just slower.
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't compact statistics of {} in the repository",
+                        e, activityState.getActivity());
+            }
+        }
+    }
+
+    private boolean isEmpty(ActivityStatisticsType increment) {
+        return (increment.getSynchronization() == null || increment.getSynchronization().getTransition().isEmpty())
+                && (increment.getActionsExecuted() == null
+                        || increment.getActionsExecuted().getObjectActionsEntry().isEmpty()
+                                && increment.getActionsExecuted().getResultingObjectActionsEntry().isEmpty())
+                && (increment.getBucketManagement() == null || increment.getBucketManagement().getOperation().isEmpty());
+    }
+
     public @NotNull CurrentActivityState<?> getActivityState() {
         return activityState;
     }
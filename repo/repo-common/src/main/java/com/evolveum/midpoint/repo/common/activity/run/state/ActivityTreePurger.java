@@ -143,6 +143,9 @@ public class ActivityTreePurger {
         final TaskActivityStateType taskActivityState;
         @NotNull private final List<ItemDelta<?, ?>> deltas = new ArrayList<>();
 
+        /** Activities whose statistics should be deleted from the statistics store (if there are any). */
+        @NotNull private final List<ActivityPath> statisticsToDelete = new ArrayList<>();
+
         /** True if nothing of relevance remains in the task, so it can be deleted (if needed). */
         private boolean canDelete;
 
@@ -170,9 +173,19 @@ public class ActivityTreePurger {
                     task.refresh(result);
                 }
             }
+            deleteStatisticsFromStore(result);
             return canDelete;
         }
 
+        /** The store is cleaned up regardless of the configuration, as the configuration could have been changed. */
+        private void deleteStatisticsFromStore(OperationResult result) {
+            if (beans.activityStatisticsStore != null) {
+                for (ActivityPath activityPath : statisticsToDelete) {
+                    beans.activityStatisticsStore.deleteStatistics(task.getOid(), activityPath.toString(), result);
+                }
+            }
+        }
+
         private void doPurge(Context ctx) throws CommonException {
             LOGGER.trace("doPurge called for {}, processing children", ctx);
             for (ActivityStateType child : ctx.currentState.getActivity()) {
@@ -194,6 +207,7 @@ public class ActivityTreePurger {
         }
 
         private void removeCurrentState(Context ctx) throws CommonException {
+            statisticsToDelete.add(ctx.currentActivityPath);
             if (ctx.isLocalRoot()) {
                 deleteFromSingleValuedState(ctx);
             } else {
@@ -241,6 +255,7 @@ public class ActivityTreePurger {
                             .asItemDeltas());
 
             if (ctx.currentState.getPersistence() != ActivityStatePersistenceType.PERPETUAL) {
+                statisticsToDelete.add(ctx.currentActivityPath);
                 swallow(
                         beans.prismContext.deltaFor(TaskType.class)
                                 .item(ctx.currentStateItemPath.append(ActivityStateType.F_PROGRESS)).replace()
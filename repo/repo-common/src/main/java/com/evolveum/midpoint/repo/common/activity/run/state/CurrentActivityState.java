@@ -370,9 +370,13 @@ public class CurrentActivityState<WS extends AbstractActivityWorkStateType>
         return liveStatistics.getStoredBucketManagement();
     }
 
-    public void updateProgressAndStatisticsNoCommit() throws ActivityRunException {
+    /**
+     * Writes live progress and statistics into the task as pending modifications.
+     * (Except for statistics increments that are written directly if the statistics store is used.)
+     */
+    public void updateProgressAndStatisticsNoCommit(OperationResult result) throws ActivityRunException {
         updateProgressNoCommit();
-        updateStatisticsNoCommit();
+        updateStatisticsNoCommit(result);
     }
 
     public void updateProgressNoCommit() throws ActivityRunException {
@@ -382,9 +386,9 @@ public class CurrentActivityState<WS extends AbstractActivityWorkStateType>
         }
     }
 
-    private void updateStatisticsNoCommit() throws ActivityRunException {
+    private void updateStatisticsNoCommit(OperationResult result) throws ActivityRunException {
         if (activityRun.areStatisticsSupported()) {
-            liveStatistics.writeToTaskAsPendingModifications();
+            liveStatistics.writeToTaskAsPendingModifications(result);
         }
     }
     //endregion
@@ -38,4 +38,12 @@ public class ActivityActionsExecuted extends Initializable {
         assertInitialized();
         return value.clone();
     }
+
+    /** Returns a current value of this statistics and starts collecting from zero. Used to get increments. */
+    public synchronized @NotNull ActivityActionsExecutedType getValueCopyAndClear() {
+        ActivityActionsExecutedType copy = getValueCopy();
+        value.getObjectActionsEntry().clear();
+        value.getResultingObjectActionsEntry().clear();
+        return copy;
+    }
 }
@@ -39,4 +39,11 @@ public class ActivitySynchronizationStatistics extends Initializable {
         assertInitialized();
         return value.cloneWithoutId();
     }
+
+    /** Returns a current value of this statistics and starts collecting from zero. Used to get increments. */
+    public synchronized @NotNull ActivitySynchronizationStatisticsType getValueCopyAndClear() {
+        ActivitySynchronizationStatisticsType copy = getValueCopy();
+        value.getTransition().clear();
+        return copy;
+    }
 }
@@ -183,8 +183,10 @@ public class OperationExecutionWriter implements SystemConfigurationChangeListen
 
     private <O extends ObjectType> Collection<OperationExecutionType> loadExistingRecords(Class<O> objectType, String oid,
             OperationResult result) throws SchemaException, ObjectNotFoundException {
+        // The records may be stored outside the object, so we ask for them explicitly.
         Collection<SelectorOptions<GetOperationOptions>> options = schemaService.getOperationOptionsBuilder()
                 .readOnly()
+                .item(ObjectType.F_OPERATION_EXECUTION).retrieve()
                 .build();
         return repositoryService.getObject(objectType, oid, options, result)
                 .asObjectable()
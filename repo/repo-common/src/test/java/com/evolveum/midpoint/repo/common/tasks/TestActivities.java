@@ -13,6 +13,7 @@ import static com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityTaskE
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationSituationType.*;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import java.io.File;
 import java.util.*;
@@ -69,7 +70,8 @@ import com.evolveum.midpoint.util.DebugUtil;
  * 6. running tree of bucketed activities ({@link #test180RunBucketedTree()}),
  * 7. delegation of processing to separate task(s) - for simple activity ({@link #test200Subtask()}) or children
  * of a semi-composite one ({@link #test220MockCompositeWithSubtasks()}),
- * 8. distribution of a processing to worker tasks ({@link #test300WorkersSimple()}, {@link #test310WorkersScavengerFrozen()}).
+ * 8. distribution of a processing to worker tasks ({@link #test300WorkersSimple()}, {@link #test310WorkersScavengerFrozen()}),
+ * also with buckets kept in the repository store ({@link #test320WorkersRepositoryStore()}).
  *
  * Specifically, the following is checked as well:
  *
@@ -108,6 +110,7 @@ public class TestActivities extends AbstractRepoCommonTest {
     private static final TestResource<TaskType> TASK_220_MOCK_COMPOSITE_WITH_SUBTASKS = new TestResource<>(TEST_DIR, "task-220-mock-composite-with-subtasks.xml", "");
     private static final TestResource<TaskType> TASK_300_WORKERS_SIMPLE = new TestResource<>(TEST_DIR, "task-300-workers-simple.xml", "5cfa521a-a174-4254-a5cb-199189fe42d5");
     private static final TestResource<TaskType> TASK_310_WORKERS_SCAVENGING = new TestResource<>(TEST_DIR, "task-310-workers-scavenging.xml", "1e956013-5997-47bd-8885-4da2340dddfc");
+    private static final TestResource<TaskType> TASK_320_WORKERS_REPOSITORY_STORE = new TestResource<>(TEST_DIR, "task-320-workers-repository-store.xml", "7d0e9b7c-2a7c-4a0b-8f45-0e3f1c6b8320");
     private static final TestResource<TaskType> TASK_400_LONG_RUNNING = new TestResource<>(TEST_DIR, "task-400-long-running.xml", "f179b67d-a4b2-4bd0-af8a-7f814d9f069c");
 
     @Autowired private MockRecorder recorder;
@@ -2675,6 +2678,77 @@ public class TestActivities extends AbstractRepoCommonTest {
     }
 
 
+    /**
+     * Distributes the processing to 4 workers, with buckets kept in the repository store.
+     *
+     * On the native repository the buckets are kept in the store, not in the coordinator task.
+     * Then we check that an attempt to complete a bucket by a worker that does not hold it
+     * (i.e. that has lost its lease) is reported as such.
+     *
+     * Other repositories do not support the store, so the buckets are kept in the coordinator task as usual.
+     */
+    @Test
+    public void test320WorkersRepositoryStore() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        recorder.reset();
+
+        Task root = taskAdd(TASK_320_WORKERS_REPOSITORY_STORE, result);
+
+        when();
+
+        waitForTaskClose(root.getOid(), result, 10000, 200);
+
+        then();
+
+        root.refresh(result);
+
+        assertTaskTree(root.getOid(), "after")
+                .display("root")
+                .assertSuccess()
+                .subtask(0)
+                    .display("child");
+
+        assertPerformance(root.getOid(), "after")
+                .display()
+                .assertItemsProcessed(100)
+                .assertErrors(0)
+                .assertProgress(100);
+
+        if (!repositoryService.isNative()) {
+            assertProgress(root.getOid(), "after")
+                    .display()
+                    .assertComplete()
+                    .assertBuckets(11, 11)
+                    .assertItems(100, null);
+            return;
+        }
+
+        and("buckets are in the repository store, not in the coordinator task");
+        String activityPath = ActivityPath.empty().toString();
+        assertThat(beans.workBucketStore.countBuckets(root.getOid(), activityPath, WorkBucketStateType.COMPLETE, result))
+                .as("complete buckets in the store")
+                .isEqualTo(11);
+        ActivityBucketingStateType bucketing = ActivityStateUtil.getActivityStateRequired(
+                        root.getActivitiesStateOrClone(), ActivityPath.empty())
+                .getBucketing();
+        assertThat(bucketing.getNumberOfBuckets()).as("number of buckets").isEqualTo(11);
+        assertThat(bucketing.getBucket()).as("buckets in the coordinator task").isEmpty();
+
+        when("a worker that does not hold the bucket tries to complete it");
+        String otherWorkerOid = UUID.randomUUID().toString();
+
+        then("the lost lease is reported");
+        assertThatThrownBy(() ->
+                beans.bucketingManager.completeWorkBucket(root.getOid(), otherWorkerOid, ActivityPath.empty(), 1,
+                        null, null, result))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("lost its lease");
+    }
+
     /**
      * The performance information of running tasks should be measured in a reasonable way.
      */
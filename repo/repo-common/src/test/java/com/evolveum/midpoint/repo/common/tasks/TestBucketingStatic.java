@@ -11,6 +11,7 @@ import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketSta
 
 import static java.util.Collections.singletonList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.testng.AssertJUnit.*;
 
 import static com.evolveum.midpoint.schema.util.task.BucketingUtil.sortBucketsBySequentialNumber;
@@ -18,8 +19,10 @@ import static com.evolveum.midpoint.schema.util.task.BucketingUtil.sortBucketsBy
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
@@ -30,6 +33,7 @@ import com.evolveum.midpoint.schema.util.task.ActivityPath;
 import com.evolveum.midpoint.repo.common.activity.definition.ActivityDistributionDefinition;
 
 import com.evolveum.midpoint.schema.util.task.BucketingUtil;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 
 import org.jetbrains.annotations.NotNull;
@@ -43,9 +47,11 @@ import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.BucketingManager;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BalancedSegmentationSampler;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketFactory;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketContentFactory;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketContentFactoryGenerator;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ImplicitSegmentationResolver;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.StringBucketContentFactory;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
@@ -54,6 +60,7 @@ import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
 
 /**
  * Low level tests of working with buckets: creating, getting, completing, releasing, and using buckets.
@@ -306,6 +313,114 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
         assertBoundaries(contentFactory, Arrays.asList("0123456789abcdef", "0123456789abcdef"));
     }
 
+    /**
+     * Tests the balanced segmentation. Buckets should follow the distribution of objects, not of OID values.
+     * Then objects are added after the boundaries were determined; the oversized bucket should be split.
+     */
+    @Test
+    public void test060BalancedBuckets() throws Exception {
+        given();
+
+        List<String> oids = new ArrayList<>();
+        for (int i = 0; i < 80; i++) {
+            oids.add(String.format("%08d", i)); // 80% of objects have OIDs starting with "0000"
+        }
+        for (int i = 0; i < 20; i++) {
+            oids.add(String.format("f%07d", i));
+        }
+        ListSegmentationSampler sampler = new ListSegmentationSampler(oids);
+        BucketsDefinitionType bucketing = new BucketsDefinitionType()
+                .balancedSegmentation(new BalancedWorkSegmentationType()
+                        .numberOfBuckets(4)
+                        .oversizeFactor(1.5));
+
+        when("buckets are created");
+
+        BucketContentFactory contentFactory = contentFactoryCreator.createContentFactory(bucketing,
+                new ImplicitSegmentationResolver() {
+                    @Override
+                    public AbstractWorkSegmentationType resolveImplicitSegmentation(
+                            @NotNull ImplicitWorkSegmentationType segmentation) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public @NotNull BalancedSegmentationSampler getBalancedSegmentationSampler() {
+                        return sampler;
+                    }
+                });
+        List<StringIntervalWorkBucketContentType> contents = createAllBucketContents(contentFactory, List.of());
+
+        then("buckets have the same size");
+
+        assertThat(contents).extracting(StringIntervalWorkBucketContentType::getFrom)
+                .containsExactly(null, "00000025", "00000050", "00000075");
+        assertThat(contents).extracting(StringIntervalWorkBucketContentType::getTo)
+                .containsExactly("00000025", "00000050", "00000075", null);
+        assertThat(contentFactory.estimateNumberOfBuckets()).isEqualTo(4);
+
+        when("objects are added after the first two buckets were created");
+
+        List<StringIntervalWorkBucketContentType> firstTwo = contents.subList(0, 2);
+        for (int i = 0; i < 100; i++) {
+            sampler.add(String.format("00000060%03d", i));
+        }
+        List<StringIntervalWorkBucketContentType> afterAdding = createAllBucketContents(contentFactory, firstTwo);
+
+        then("oversized bucket is split and the buckets still cover all the objects");
+
+        assertThat(afterAdding.get(2).getFrom()).isEqualTo("00000050");
+        assertThat(afterAdding.get(2).getTo()).isEqualTo("00000060014");
+        for (int i = 1; i < afterAdding.size(); i++) {
+            assertThat(afterAdding.get(i).getFrom()).isEqualTo(afterAdding.get(i - 1).getTo());
+        }
+        assertThat(afterAdding.get(afterAdding.size() - 1).getTo()).isNull();
+        for (StringIntervalWorkBucketContentType content : afterAdding) {
+            assertThat(sampler.countObjects(content.getFrom(), content.getTo()))
+                    .as("objects in " + content)
+                    .isLessThanOrEqualTo(37);
+        }
+    }
+
+    /**
+     * Balanced segmentation in an activity that can't provide the distribution of its objects
+     * is a configuration error.
+     */
+    @Test
+    public void test070BalancedBucketsNotSupported() {
+        given("balanced segmentation and a context without the sampler");
+        BucketsDefinitionType bucketing = new BucketsDefinitionType()
+                .balancedSegmentation(new BalancedWorkSegmentationType()
+                        .numberOfBuckets(4));
+        ImplicitSegmentationResolver resolver = segmentation -> {
+            throw new UnsupportedOperationException();
+        };
+
+        expect("configuration exception when the content factory is created");
+        assertThatThrownBy(() -> contentFactoryCreator.createContentFactory(bucketing, resolver))
+                .isInstanceOf(ConfigurationException.class)
+                .hasMessageContaining("not supported by this activity");
+
+        and("the same for a discriminator, even if the sampler is available");
+        bucketing.getBalancedSegmentation().discriminator(new ItemPathType(ObjectType.F_NAME));
+        ListSegmentationSampler sampler = new ListSegmentationSampler(List.of());
+        assertThatThrownBy(() -> contentFactoryCreator.createContentFactory(bucketing,
+                new ImplicitSegmentationResolver() {
+                    @Override
+                    public AbstractWorkSegmentationType resolveImplicitSegmentation(
+                            @NotNull ImplicitWorkSegmentationType segmentation) {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public @NotNull BalancedSegmentationSampler getBalancedSegmentationSampler() {
+                        return sampler;
+                    }
+                }))
+                .isInstanceOf(ConfigurationException.class)
+                .hasMessageContaining("discriminator");
+    }
+
     /**
      * Tests the get-complete cycle (4x) with explicit, numeric interval segmentation providing 3 buckets.
      */
@@ -382,18 +497,21 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
     }
 
     private WorkBucketType getWorkBucket(Task task, OperationResult result)
-            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException, InterruptedException {
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException, InterruptedException,
+            ConfigurationException {
         return getWorkBucket(task, null, result);
     }
 
     private WorkBucketType getWorkBucket(Task coordinator, String workerOid, OperationResult result)
-            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException, InterruptedException {
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException, InterruptedException,
+            ConfigurationException {
         return getWorkBucket(coordinator, workerOid, null, result);
     }
 
     private WorkBucketType getWorkBucket(Task coordinator, String workerOid,
             Consumer<GetBucketOperationOptionsBuilder> customizer, OperationResult result)
-            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException, InterruptedException {
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException, InterruptedException,
+            ConfigurationException {
 
         GetBucketOperationOptionsBuilder optionsBuilder = GetBucketOperationOptionsBuilder.anOptions()
                 .withDistributionDefinition(
@@ -960,7 +1078,72 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
     }
 
     @NotNull
-    private BucketContentFactory createContentFactory(@NotNull ActivityDistributionDefinition distributionDefinition) {
+    private BucketContentFactory createContentFactory(@NotNull ActivityDistributionDefinition distributionDefinition)
+            throws ConfigurationException {
         return contentFactoryCreator.createContentFactory(distributionDefinition.getBuckets(), null);
     }
+
+    /** Creates contents of all the buckets following the existing ones. */
+    private List<StringIntervalWorkBucketContentType> createAllBucketContents(BucketContentFactory contentFactory,
+            List<StringIntervalWorkBucketContentType> existing) throws SchemaException {
+        List<StringIntervalWorkBucketContentType> contents = new ArrayList<>(existing);
+        for (;;) {
+            StringIntervalWorkBucketContentType last = contents.isEmpty() ? null : contents.get(contents.size() - 1);
+            Integer lastNumber = contents.isEmpty() ? null : contents.size();
+            StringIntervalWorkBucketContentType next =
+                    (StringIntervalWorkBucketContentType) contentFactory.createNextBucketContent(last, lastNumber);
+            if (next == null) {
+                return contents;
+            }
+            assertThat(contents.size()).as("number of buckets").isLessThan(100);
+            contents.add(next);
+        }
+    }
+
+    /**
+     * Sampler working on a list of OIDs. The overall count and boundaries are taken from the initial list,
+     * like the real sampler that caches them.
+     */
+    private static class ListSegmentationSampler implements BalancedSegmentationSampler {
+
+        private final List<String> initialOids;
+        private final List<String> oids;
+
+        private ListSegmentationSampler(List<String> oids) {
+            this.initialOids = new ArrayList<>(oids);
+            this.oids = new ArrayList<>(oids);
+            Collections.sort(this.initialOids);
+            Collections.sort(this.oids);
+        }
+
+        private void add(String oid) {
+            oids.add(oid);
+            Collections.sort(oids);
+        }
+
+        @Override
+        public int countObjects(String from, String to) {
+            return getRange(from, to).size();
+        }
+
+        @Override
+        public @NotNull List<String> getSegmentBoundaries(String from, String to, int numberOfSegments) {
+            List<String> range = getRange(from, to);
+            List<String> boundaries = new ArrayList<>();
+            for (int i = 1; i < numberOfSegments; i++) {
+                int position = range.size() * i / numberOfSegments;
+                if (position > 0 && !boundaries.contains(range.get(position))) {
+                    boundaries.add(range.get(position));
+                }
+            }
+            return boundaries;
+        }
+
+        private List<String> getRange(String from, String to) {
+            List<String> source = from == null && to == null ? initialOids : oids;
+            return source.stream()
+                    .filter(oid -> (from == null || oid.compareTo(from) >= 0) && (to == null || oid.compareTo(to) < 0))
+                    .collect(Collectors.toList());
+        }
+    }
 }
@@ -8,6 +8,7 @@ package com.evolveum.midpoint.repo.sqale;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
@@ -22,6 +23,11 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 
 /**
  * Cache for {@link MExtItem} catalog.
+ *
+ * Reads from the cache (hits) don't use any locking, only concurrent maps.
+ * Missing items are inserted with "single-flight" approach - if multiple threads miss the same
+ * key at the same time, only the first one goes to the DB and the others wait for its result.
+ * Threads missing different keys do not block each other.
  */
 public class ExtItemCache {
 
@@ -31,8 +37,12 @@ public class ExtItemCache {
     private final Map<MExtItem.Key, MExtItem> keyToExtItem = new ConcurrentHashMap<>();
     private final Map<MExtItem.ItemNameKey, MExtItem> itemNameToExtItem = new ConcurrentHashMap<>();
 
+    /** Inserts in progress, used to wait for the insert of the same key by another thread. */
+    private final Map<MExtItem.Key, CompletableFuture<MExtItem>> pendingInserts =
+            new ConcurrentHashMap<>();
+
     // WARNING: Each .get() creates new connection, always use in try-with-resource block!
-    private Supplier<JdbcSession> jdbcSessionSupplier;
+    private volatile Supplier<JdbcSession> jdbcSessionSupplier;
 
     /**
      * Initializes the ext-item cache.
@@ -68,7 +78,7 @@ public class ExtItemCache {
         itemNameToExtItem.put(row.itemNameKey(), row);
     }
 
-    public synchronized @NotNull MExtItem resolveExtensionItem(@NotNull MExtItem.Key extItemKey) {
+    public @NotNull MExtItem resolveExtensionItem(@NotNull MExtItem.Key extItemKey) {
         if (jdbcSessionSupplier == null) {
             throw new IllegalStateException("Ext item cache was not initialized yet!");
         }
@@ -78,6 +88,32 @@ public class ExtItemCache {
             return extItem;
         }
 
+        CompletableFuture<MExtItem> insertFuture = new CompletableFuture<>();
+        CompletableFuture<MExtItem> otherInsertFuture =
+                pendingInserts.putIfAbsent(extItemKey, insertFuture);
+        if (otherInsertFuture != null) {
+            return SqaleUtils.awaitSingleFlight(otherInsertFuture);
+        }
+
+        try {
+            // Other thread could have finished the insert between our get and putIfAbsent.
+            extItem = keyToExtItem.get(extItemKey);
+            if (extItem == null) {
+                extItem = insertExtItem(extItemKey);
+            }
+            insertFuture.complete(extItem);
+            return extItem;
+        } catch (RuntimeException e) {
+            insertFuture.completeExceptionally(e);
+            throw e;
+        } finally {
+            // maps are updated already, so new threads will not need the future anymore
+            pendingInserts.remove(extItemKey, insertFuture);
+        }
+    }
+
+    private @NotNull MExtItem insertExtItem(@NotNull MExtItem.Key extItemKey) {
+        MExtItem extItem;
         QExtItem ei = QExtItem.DEFAULT;
         try (JdbcSession jdbcSession = jdbcSessionSupplier.get().startTransaction()) {
             Integer id = jdbcSession.newInsert(ei)
@@ -92,7 +128,12 @@ public class ExtItemCache {
             updateMaps(extItem);
         } catch (RuntimeException e) {
             if (SqaleUtils.isUniqueConstraintViolation(e)) {
+                // other node inserted the same item
                 extItem = retrieveFromDb(extItemKey);
+                if (extItem == null) {
+                    throw new IllegalStateException(
+                            "Couldn't insert ext item and it was not found either: " + extItemKey, e);
+                }
             } else {
                 throw e;
             }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import com.querydsl.core.QueryFlag.Position;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.prism.SerializationOptions;
+import com.evolveum.midpoint.repo.api.ActivityStatisticsStore;
+import com.evolveum.midpoint.repo.api.SqlPerformanceMonitorsCollection;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.MActivityStatistics;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.QActivityStatistics;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.statistics.ActivityStatisticsUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityStatisticsType;
+
+/**
+ * Activity statistics store using {@value QActivityStatistics#TABLE_NAME} table, one row per increment.
+ *
+ * Increments are only inserted (and deleted); summing them up is done in Java, using the same code
+ * that aggregates the statistics of worker tasks.
+ */
+public class SqaleActivityStatisticsStore extends SqaleServiceBase implements ActivityStatisticsStore {
+
+    public SqaleActivityStatisticsStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        super(sqlRepoContext, sqlPerformanceMonitorsCollection);
+    }
+
+    @Override
+    public void addStatistics(@NotNull String taskOid, @NotNull String activityPath, long intervalStart,
+            long intervalEnd, @NotNull ActivityStatisticsType increment, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_ADD_STATISTICS)
+                .setMinor()
+                .addParam("taskOid", taskOid)
+                .addParam("activityPath", activityPath)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_ADD_STATISTICS, ActivityStatisticsType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                jdbcSession.newInsert(QActivityStatistics.DEFAULT)
+                        .populate(toRow(taskOid, activityPath,
+                                Instant.ofEpochMilli(intervalStart), Instant.ofEpochMilli(intervalEnd), increment))
+                        .execute();
+                jdbcSession.commit();
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public @NotNull Map<String, ActivityStatisticsType> getStatistics(@NotNull String taskOid,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_GET_STATISTICS)
+                .setMinor()
+                .addParam("taskOid", taskOid)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_GET_STATISTICS, ActivityStatisticsType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+                QActivityStatistics ast = QActivityStatistics.DEFAULT;
+                List<MActivityStatistics> rows = jdbcSession.newQuery()
+                        .select(ast)
+                        .from(ast)
+                        .where(ast.taskOid.eq(UUID.fromString(taskOid)))
+                        .orderBy(ast.id.asc())
+                        .fetch();
+                Map<String, ActivityStatisticsType> statistics = new HashMap<>();
+                for (MActivityStatistics row : rows) {
+                    ActivityStatisticsUtil.addTo(
+                            statistics.computeIfAbsent(row.activityPath, p -> new ActivityStatisticsType()),
+                            toSchemaObject(row));
+                }
+                operationResult.addReturn("increments", rows.size());
+                return statistics;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int compactStatistics(@NotNull String taskOid, @NotNull String activityPath,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_COMPACT_STATISTICS)
+                .setMinor()
+                .addParam("taskOid", taskOid)
+                .addParam("activityPath", activityPath)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_COMPACT_STATISTICS, ActivityStatisticsType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QActivityStatistics ast = QActivityStatistics.DEFAULT;
+                List<MActivityStatistics> rows = jdbcSession.newQuery()
+                        .select(ast)
+                        .from(ast)
+                        .where(activityStatistics(ast, taskOid, activityPath))
+                        .orderBy(ast.id.asc())
+                        .addFlag(Position.END, " FOR UPDATE")
+                        .fetch();
+                if (rows.size() <= 1) {
+                    jdbcSession.commit();
+                    return 0;
+                }
+
+                ActivityStatisticsType sum = new ActivityStatisticsType();
+                Instant intervalStart = rows.get(0).intervalStart;
+                Instant intervalEnd = rows.get(0).intervalEnd;
+                for (MActivityStatistics row : rows) {
+                    ActivityStatisticsUtil.addTo(sum, toSchemaObject(row));
+                    intervalStart = intervalStart.isAfter(row.intervalStart) ? row.intervalStart : intervalStart;
+                    intervalEnd = intervalEnd.isBefore(row.intervalEnd) ? row.intervalEnd : intervalEnd;
+                }
+                jdbcSession.newDelete(ast)
+                        .where(ast.id.in(rows.stream()
+                                .map(r -> r.id)
+                                .collect(Collectors.toList())))
+                        .execute();
+                jdbcSession.newInsert(ast)
+                        .populate(toRow(taskOid, activityPath, intervalStart, intervalEnd, sum))
+                        .execute();
+                jdbcSession.commit();
+
+                logger.trace("Compacted {} statistics increment(s) in {}/{}", rows.size(), taskOid, activityPath);
+                return rows.size();
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int deleteStatistics(@NotNull String taskOid, @NotNull String activityPath,
+            @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_DELETE_STATISTICS)
+                .addParam("taskOid", taskOid)
+                .addParam("activityPath", activityPath)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_DELETE_STATISTICS, ActivityStatisticsType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QActivityStatistics ast = QActivityStatistics.DEFAULT;
+                long deleted = jdbcSession.newDelete(ast)
+                        .where(activityStatistics(ast, taskOid, activityPath))
+                        .execute();
+                jdbcSession.commit();
+                return (int) deleted;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    private BooleanExpression activityStatistics(QActivityStatistics ast, String taskOid, String activityPath) {
+        return ast.taskOid.eq(UUID.fromString(taskOid))
+                .and(ast.activityPath.eq(activityPath));
+    }
+
+    private MActivityStatistics toRow(String taskOid, String activityPath, Instant intervalStart,
+            Instant intervalEnd, ActivityStatisticsType statistics) throws SchemaException {
+        MActivityStatistics row = new MActivityStatistics();
+        row.taskOid = UUID.fromString(taskOid);
+        row.activityPath = activityPath;
+        row.intervalStart = intervalStart;
+        row.intervalEnd = intervalEnd;
+        row.statistics = sqlRepoContext.createStringSerializer()
+                .options(SerializationOptions.createSerializeReferenceNamesForNullOids()
+                        .skipWhitespaces(true))
+                .serializeRealValue(statistics, ActivityStateType.F_STATISTICS)
+                .getBytes(StandardCharsets.UTF_8);
+        return row;
+    }
+
+    private ActivityStatisticsType toSchemaObject(MActivityStatistics row) throws SchemaException {
+        return sqlRepoContext.parsePrismObject(
+                new String(row.statistics, StandardCharsets.UTF_8), ActivityStatisticsType.class).prismValue;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.querydsl.core.QueryFlag.Position;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.SerializationOptions;
+import com.evolveum.midpoint.repo.api.NotificationOutboxStore;
+import com.evolveum.midpoint.repo.api.SqlPerformanceMonitorsCollection;
+import com.evolveum.midpoint.repo.sqale.qmodel.system.MNotificationOutbox;
+import com.evolveum.midpoint.repo.sqale.qmodel.system.QNotificationOutbox;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.SchemaConstantsGenerated;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationMessageType;
+
+/**
+ * Notification outbox using {@value QNotificationOutbox#TABLE_NAME} table, one row per message.
+ *
+ * Claiming uses `FOR UPDATE SKIP LOCKED` (just like claiming work buckets), so dispatchers on different nodes
+ * do not wait for each other and never claim the same message. The lease is represented by the next attempt
+ * time, so there is no separate state column.
+ */
+public class SqaleNotificationOutboxStore extends SqaleServiceBase implements NotificationOutboxStore {
+
+    /** Maximal length of the error message stored; full errors are in the log. */
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    public SqaleNotificationOutboxStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        super(sqlRepoContext, sqlPerformanceMonitorsCollection);
+    }
+
+    @Override
+    public long addMessage(@NotNull String transportName, @NotNull NotificationMessageType message,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_ADD_MESSAGE)
+                .setMinor()
+                .addParam("transportName", transportName)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_ADD_MESSAGE, NotificationMessageType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QNotificationOutbox nob = QNotificationOutbox.DEFAULT;
+                MNotificationOutbox row = new MNotificationOutbox();
+                row.transportName = transportName;
+                row.message = serialize(message);
+                row.attempts = 0;
+                row.nextAttempt = Instant.now();
+                Long id = jdbcSession.newInsert(nob)
+                        .populate(row)
+                        .executeWithKey(nob.id);
+                jdbcSession.commit();
+                operationResult.addReturn("id", id);
+                return id;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public @NotNull List<QueuedMessage> claimMessages(int limit, long leaseDuration,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_CLAIM_MESSAGES)
+                .setMinor()
+                .addParam("limit", limit)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_CLAIM_MESSAGES, NotificationMessageType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QNotificationOutbox nob = QNotificationOutbox.DEFAULT;
+                Instant now = Instant.now();
+                List<MNotificationOutbox> rows = jdbcSession.newQuery()
+                        .select(nob)
+                        .from(nob)
+                        .where(nob.nextAttempt.loe(now))
+                        .orderBy(nob.id.asc())
+                        .limit(limit)
+                        // Rows locked by other dispatchers are simply skipped, no waiting.
+                        .addFlag(Position.END, " FOR UPDATE SKIP LOCKED")
+                        .fetch();
+                if (rows.isEmpty()) {
+                    jdbcSession.commit();
+                    return List.of();
+                }
+
+                jdbcSession.newUpdate(nob)
+                        .set(nob.nextAttempt, now.plusMillis(leaseDuration))
+                        .where(nob.id.in(rows.stream()
+                                .map(r -> r.id)
+                                .collect(Collectors.toList())))
+                        .execute();
+                jdbcSession.commit();
+
+                List<QueuedMessage> messages = new ArrayList<>(rows.size());
+                for (MNotificationOutbox row : rows) {
+                    messages.add(new QueuedMessage(row.id, row.transportName, parse(row), row.attempts));
+                }
+                logger.trace("Claimed {} notification message(s)", messages.size());
+                operationResult.addReturn("claimed", messages.size());
+                return messages;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public void rescheduleMessage(long id, long nextAttempt, @Nullable String error,
+            @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_RESCHEDULE_MESSAGE)
+                .addParam("id", id)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_RESCHEDULE_MESSAGE, NotificationMessageType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QNotificationOutbox nob = QNotificationOutbox.DEFAULT;
+                jdbcSession.newUpdate(nob)
+                        .set(nob.attempts, nob.attempts.add(1))
+                        .set(nob.nextAttempt, Instant.ofEpochMilli(nextAttempt))
+                        .set(nob.lastError, StringUtils.abbreviate(error, MAX_ERROR_LENGTH))
+                        .where(nob.id.eq(id))
+                        .execute();
+                jdbcSession.commit();
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public void deleteMessage(long id, @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_DELETE_MESSAGE)
+                .setMinor()
+                .addParam("id", id)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_DELETE_MESSAGE, NotificationMessageType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QNotificationOutbox nob = QNotificationOutbox.DEFAULT;
+                jdbcSession.newDelete(nob)
+                        .where(nob.id.eq(id))
+                        .execute();
+                jdbcSession.commit();
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    private byte[] serialize(NotificationMessageType message) throws SchemaException {
+        return sqlRepoContext.createStringSerializer()
+                .options(SerializationOptions.createSerializeReferenceNamesForNullOids()
+                        .skipWhitespaces(true))
+                .serializeRealValue(message, SchemaConstantsGenerated.C_NOTIFICATION_MESSAGE)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private NotificationMessageType parse(MNotificationOutbox row) throws SchemaException {
+        return sqlRepoContext.parsePrismObject(
+                new String(row.message, StandardCharsets.UTF_8), NotificationMessageType.class).prismValue;
+    }
+}
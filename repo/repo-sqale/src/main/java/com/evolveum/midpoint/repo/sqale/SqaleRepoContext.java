@@ -91,6 +91,7 @@ public class SqaleRepoContext extends SqlRepoContext {
         querydslConfig.register(new EnumAsObjectType<>(TaskWaitingReasonType.class));
         querydslConfig.register(new EnumAsObjectType<>(ThreadStopActionType.class));
         querydslConfig.register(new EnumAsObjectType<>(TimeIntervalStatusType.class));
+        querydslConfig.register(new EnumAsObjectType<>(WorkBucketStateType.class));
 
         // JSONB type support
         querydslConfig.register(new QuerydslJsonbType());
@@ -167,6 +168,16 @@ public class SqaleRepoContext extends SqlRepoContext {
         return extItemCache.getExtensionItem(id);
     }
 
+    /**
+     * Returns true if large multi-value containers are stored outside the full object of their owner,
+     * see {@link SqaleRepositoryConfiguration#PROPERTY_STORE_CONTAINERS_SEPARATELY}.
+     */
+    public boolean isStoreContainersSeparately() {
+        JdbcRepositoryConfiguration configuration = getJdbcRepositoryConfiguration();
+        return configuration instanceof SqaleRepositoryConfiguration
+                && ((SqaleRepositoryConfiguration) configuration).isStoreContainersSeparately();
+    }
+
     public void setFullTextSearchConfiguration(FullTextSearchConfigurationType fullTextSearchConfig) {
         this.fullTextSearchConfig = fullTextSearchConfig;
     }
@@ -14,7 +14,6 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 
-import com.evolveum.midpoint.audit.api.AuditServiceFactory;
 import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.repo.api.SqlPerformanceMonitorsCollection;
@@ -201,7 +200,34 @@ public class SqaleRepositoryBeanConfig {
     }
 
     @Bean
-    public AuditServiceFactory sqlAuditServiceFactory(
+    public SqaleWorkBucketStore workBucketStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        return new SqaleWorkBucketStore(
+                sqlRepoContext,
+                sqlPerformanceMonitorsCollection);
+    }
+
+    @Bean
+    public SqaleActivityStatisticsStore activityStatisticsStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        return new SqaleActivityStatisticsStore(
+                sqlRepoContext,
+                sqlPerformanceMonitorsCollection);
+    }
+
+    @Bean
+    public SqaleNotificationOutboxStore notificationOutboxStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        return new SqaleNotificationOutboxStore(
+                sqlRepoContext,
+                sqlPerformanceMonitorsCollection);
+    }
+
+    @Bean
+    public SqaleAuditServiceFactory sqlAuditServiceFactory(
             SqaleRepositoryConfiguration sqaleRepositoryConfiguration,
             SchemaService schemaService,
             DataSource dataSource,
@@ -17,6 +17,7 @@ import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
+import com.evolveum.midpoint.repo.sqale.audit.AuditWriteMode;
 import com.evolveum.midpoint.repo.sqlbase.JdbcRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sqlbase.SupportedDatabase;
 import com.evolveum.midpoint.repo.sqlbase.TransactionIsolation;
@@ -57,6 +58,46 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
     private static final int DEFAULT_ITERATIVE_SEARCH_PAGE_SIZE = 100;
 
+    /**
+     * If true, iterative search fetches the next page on a separate connection while the current
+     * page is being handled.
+     * This uses one more connection per running iterative search and holds up to two pages
+     * in memory, but the handlers don't wait for the database between the pages.
+     * At most a quarter of {@link #getMaxPoolSize()} connections is used for prefetching;
+     * when all of them are taken, other searches fetch their pages without prefetching.
+     * Objects of the prefetched page are read before the previous page is handled, so they don't
+     * reflect any changes made to them by the handler of the previous page.
+     */
+    public static final String PROPERTY_ITERATIVE_SEARCH_PREFETCH = "iterativeSearchPrefetch";
+
+    /**
+     * If true, assignments, inducements and operation executions are not stored in the full object
+     * of their owner, but only in their container tables, each value serialized separately.
+     * Modification of the object then does not rewrite these containers and modification of one
+     * container value rewrites only that value.
+     * The containers are read unless excluded by retrieve options, for all objects of a search result page at once.
+     * Objects stored before switching this on are migrated when they are modified (or reindexed).
+     * Switching it off again is not supported, containers of objects stored in the meantime would be lost;
+     * the repository refuses to start in that case.
+     */
+    public static final String PROPERTY_STORE_CONTAINERS_SEPARATELY = "storeContainersSeparately";
+
+    /**
+     * Audit only, see {@link AuditWriteMode} for the values (using their config values).
+     * Other `auditWrite*` properties are relevant only if the mode is not `direct`.
+     */
+    public static final String PROPERTY_AUDIT_WRITE_MODE = "auditWriteMode";
+    /** Max number of queued audit records, callers block when the queue is full. */
+    public static final String PROPERTY_AUDIT_WRITE_QUEUE_SIZE = "auditWriteQueueSize";
+    /** Max number of audit records inserted in a single transaction. */
+    public static final String PROPERTY_AUDIT_WRITE_BATCH_SIZE = "auditWriteBatchSize";
+    /** Number of background audit writer threads, each uses its own connection when writing. */
+    public static final String PROPERTY_AUDIT_WRITE_THREADS = "auditWriteThreads";
+
+    private static final int DEFAULT_AUDIT_WRITE_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_AUDIT_WRITE_BATCH_SIZE = 100;
+    private static final int DEFAULT_AUDIT_WRITE_THREADS = 1;
+
     @NotNull private final Configuration configuration;
 
     // either dataSource or JDBC URL must be set
@@ -81,8 +122,15 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
     private int performanceStatisticsLevel;
 
     private int iterativeSearchByPagingBatchSize;
+    private boolean iterativeSearchPrefetch;
+    private boolean storeContainersSeparately;
     private boolean createMissingCustomColumns;
 
+    private AuditWriteMode auditWriteMode;
+    private int auditWriteQueueSize;
+    private int auditWriteBatchSize;
+    private int auditWriteThreads;
+
     // Provided with configuration node "midpoint.repository".
     public SqaleRepositoryConfiguration(@NotNull Configuration configuration) {
         this.configuration = configuration;
@@ -131,12 +179,30 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
         iterativeSearchByPagingBatchSize = configuration.getInt(
                 PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, DEFAULT_ITERATIVE_SEARCH_PAGE_SIZE);
+        iterativeSearchPrefetch = configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_PREFETCH, false);
+        storeContainersSeparately = configuration.getBoolean(PROPERTY_STORE_CONTAINERS_SEPARATELY, false);
         createMissingCustomColumns =
                 configuration.getBoolean(PROPERTY_CREATE_MISSING_CUSTOM_COLUMNS, false);
 
+        initAuditWriteConfiguration(configuration, AuditWriteMode.DIRECT,
+                DEFAULT_AUDIT_WRITE_QUEUE_SIZE, DEFAULT_AUDIT_WRITE_BATCH_SIZE, DEFAULT_AUDIT_WRITE_THREADS);
+
         validateConfiguration();
     }
 
+    private void initAuditWriteConfiguration(Configuration configuration,
+            AuditWriteMode defaultMode, int defaultQueueSize, int defaultBatchSize, int defaultThreads) {
+        String mode = configuration.getString(PROPERTY_AUDIT_WRITE_MODE);
+        auditWriteMode = mode != null ? AuditWriteMode.fromConfigValue(mode) : defaultMode;
+        // floors are used to avoid silly or dead-locking configurations
+        auditWriteQueueSize = Math.max(
+                configuration.getInt(PROPERTY_AUDIT_WRITE_QUEUE_SIZE, defaultQueueSize), 1);
+        auditWriteBatchSize = Math.max(
+                configuration.getInt(PROPERTY_AUDIT_WRITE_BATCH_SIZE, defaultBatchSize), 1);
+        auditWriteThreads = Math.max(
+                configuration.getInt(PROPERTY_AUDIT_WRITE_THREADS, defaultThreads), 1);
+    }
+
     private void validateConfiguration() throws RepositoryServiceFactoryException {
         if (dataSource == null) {
             notEmpty(jdbcUrl, "JDBC URL is empty or not defined.");
@@ -287,11 +353,62 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    /** Also see {@link #PROPERTY_ITERATIVE_SEARCH_PREFETCH}. */
+    public boolean isIterativeSearchPrefetch() {
+        return iterativeSearchPrefetch;
+    }
+
+    // exists because of testing
+    public void setIterativeSearchPrefetch(boolean iterativeSearchPrefetch) {
+        this.iterativeSearchPrefetch = iterativeSearchPrefetch;
+    }
+
+    /** Also see {@link #PROPERTY_STORE_CONTAINERS_SEPARATELY}. */
+    public boolean isStoreContainersSeparately() {
+        return storeContainersSeparately;
+    }
+
+    // exists because of testing
+    public void setStoreContainersSeparately(boolean storeContainersSeparately) {
+        this.storeContainersSeparately = storeContainersSeparately;
+    }
+
     @Override
     public boolean isCreateMissingCustomColumns() {
         return createMissingCustomColumns;
     }
 
+    public AuditWriteMode getAuditWriteMode() {
+        return auditWriteMode;
+    }
+
+    // exists because of testing, see also SqaleAuditService.reinitializeAuditWriter()
+    public void setAuditWriteMode(AuditWriteMode auditWriteMode) {
+        this.auditWriteMode = auditWriteMode;
+    }
+
+    public int getAuditWriteQueueSize() {
+        return auditWriteQueueSize;
+    }
+
+    public int getAuditWriteBatchSize() {
+        return auditWriteBatchSize;
+    }
+
+    // exists because of testing
+    public void setAuditWriteBatchSize(int auditWriteBatchSize) {
+        this.auditWriteBatchSize = auditWriteBatchSize;
+    }
+
+    public int getAuditWriteThreads() {
+        return auditWriteThreads;
+    }
+
+    // exists because of testing
+    public void setAuditWriteThreads(int auditWriteThreads) {
+        this.auditWriteThreads = auditWriteThreads;
+    }
+
     /**
      * Creates a copy of provided configuration for audit and applies override from config.xml.
      * This is used when the same data source is used by audit and repository.
@@ -306,6 +423,9 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
                 PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, mainRepoConfig.iterativeSearchByPagingBatchSize);
         config.createMissingCustomColumns = auditConfig.getBoolean(
                 PROPERTY_CREATE_MISSING_CUSTOM_COLUMNS, mainRepoConfig.createMissingCustomColumns);
+        config.initAuditWriteConfiguration(auditConfig, mainRepoConfig.auditWriteMode,
+                mainRepoConfig.auditWriteQueueSize, mainRepoConfig.auditWriteBatchSize,
+                mainRepoConfig.auditWriteThreads);
 
         // perf stats settings must be copied to allow proper perf monitoring of audit
         config.performanceStatisticsFile = mainRepoConfig.performanceStatisticsFile;
@@ -12,19 +12,30 @@ import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Objects;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
 import javax.xml.namespace.QName;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ObjectArrays;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.Expressions;
-import com.querydsl.sql.SQLQuery;
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -41,19 +52,17 @@ import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.*;
 import com.evolveum.midpoint.prism.query.builder.S_ConditionEntry;
-import com.evolveum.midpoint.prism.query.builder.S_MatchingRuleEntry;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
+import com.evolveum.midpoint.repo.sqale.audit.SqaleAuditService;
+import com.evolveum.midpoint.repo.sqale.audit.SqaleAuditServiceFactory;
 import com.evolveum.midpoint.repo.sqale.mapping.SqaleTableMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.MObject;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.MObjectType;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.QObject;
-import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrg;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QObjectMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgClosure;
-import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgMapping;
-import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReference;
-import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReferenceMapping;
 import com.evolveum.midpoint.repo.sqale.update.AddObjectContext;
 import com.evolveum.midpoint.repo.sqale.update.RootUpdateContext;
 import com.evolveum.midpoint.repo.sqlbase.*;
@@ -101,11 +110,23 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
      */
     public static final String REPOSITORY_IMPL_NAME = "Native";
 
+    /** Name prefix of the threads prefetching iterative search pages. */
+    public static final String ITERATIVE_SEARCH_PREFETCH_THREAD_PREFIX = "sqale-iterative-search-prefetch-";
+
     public static final int INITIAL_VERSION_NUMBER = 0;
     public static final String INITIAL_VERSION_STRING = String.valueOf(INITIAL_VERSION_NUMBER);
 
     private static final int MAX_CONFLICT_WATCHERS = 10;
 
+    /**
+     * Part of the connection pool that can be used for prefetching the iterative search pages.
+     * The rest is left for the searches themselves and all the other operations.
+     */
+    private static final int PREFETCH_CONNECTION_POOL_DIVISOR = 4;
+
+    /** Entry in `m_global_metadata` set when containers were stored outside the full objects. */
+    private static final String METADATA_CONTAINERS_STORED_SEPARATELY = "containersStoredSeparately";
+
     private static final Collection<SelectorOptions<GetOperationOptions>> GET_FOR_UPDATE_OPTIONS =
             SchemaService.get().getOperationOptionsBuilder().build();
 
@@ -113,11 +134,23 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
     @Autowired private SystemConfigurationChangeDispatcher systemConfigurationChangeDispatcher;
 
+    /** Used only for diagnostics, audit service exists only if the factory is configured for auditing. */
+    @Autowired(required = false) private SqaleAuditServiceFactory auditServiceFactory;
+
     private final ThreadLocal<List<ConflictWatcherImpl>> conflictWatchersThreadLocal =
             ThreadLocal.withInitial(ArrayList::new);
 
     private FullTextSearchConfigurationType fullTextSearchConfiguration;
 
+    /** Created lazily, only when iterative search prefetching is used. */
+    private ExecutorService iterativeSearchPrefetchExecutor;
+
+    /**
+     * Values reserved by this node for sequences with `allocationBlockSize` greater than one, not handed out yet.
+     * Each deque is also used as a lock, so only one thread of this node reserves a new block for the sequence.
+     */
+    private final Map<UUID, Deque<Long>> reservedSequenceValues = new ConcurrentHashMap<>();
+
     public SqaleRepositoryService(
             SqaleRepoContext repositoryContext,
             SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
@@ -131,6 +164,39 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         sqlPerformanceMonitorsCollection.register(performanceMonitor);
     }
 
+    /**
+     * Remembers in the database that containers are stored outside the full objects, and refuses to start
+     * without {@link SqaleRepositoryConfiguration#PROPERTY_STORE_CONTAINERS_SEPARATELY} after that,
+     * because such containers would not be read anymore and they would be lost with the next modification.
+     */
+    @PostConstruct
+    public void checkContainerStorage() {
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            if (sqlRepoContext.isStoreContainersSeparately()) {
+                jdbcSession.executeStatement("INSERT INTO m_global_metadata VALUES ('"
+                        + METADATA_CONTAINERS_STORED_SEPARATELY + "', 'true') ON CONFLICT (name) DO NOTHING");
+            } else if (isGlobalMetadataFlagSet(jdbcSession, METADATA_CONTAINERS_STORED_SEPARATELY)) {
+                throw new SystemException("Repository contains objects with assignments, inducements"
+                        + " or operation executions stored outside their full objects, repository property '"
+                        + SqaleRepositoryConfiguration.PROPERTY_STORE_CONTAINERS_SEPARATELY
+                        + "' must stay enabled.");
+            }
+            jdbcSession.commit();
+        }
+    }
+
+    private boolean isGlobalMetadataFlagSet(JdbcSession jdbcSession, String name) {
+        try (PreparedStatement statement = jdbcSession.connection().prepareStatement(
+                "SELECT value FROM m_global_metadata WHERE name = ?")) {
+            statement.setString(1, name);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && "true".equals(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new SystemException("Couldn't read global metadata " + name, e);
+        }
+    }
+
     @Override
     public @NotNull <T extends ObjectType> PrismObject<T> getObject(Class<T> type, String oid,
             Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult)
@@ -190,6 +256,91 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         return object;
     }
 
+    @Override
+    public @NotNull <T extends ObjectType> Map<String, PrismObject<T>> getObjects(@NotNull Class<T> type,
+            @NotNull Collection<String> oids, Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        Objects.requireNonNull(type, "Object type must not be null.");
+        Objects.requireNonNull(parentResult, "Operation result must not be null.");
+        Set<UUID> oidUuids = new LinkedHashSet<>();
+        for (String oid : oids) {
+            oidUuids.add(checkOid(oid));
+        }
+
+        logger.debug("Getting {} objects of type '{}': {}",
+                oidUuids.size(), type.getSimpleName(), parentResult.getOperation());
+
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_GET_OBJECTS)
+                .addQualifier(type.getSimpleName())
+                .setMinor()
+                .addParam("type", type.getName())
+                .addParam("count", oidUuids.size())
+                .build();
+
+        try {
+            if (oidUuids.isEmpty()) {
+                return new LinkedHashMap<>();
+            }
+            for (UUID oidUuid : oidUuids) {
+                InternalMonitor.recordRepositoryRead(type, oidUuid.toString());
+            }
+            Map<String, PrismObject<T>> objects = executeGetObjects(type, oidUuids, options);
+            operationResult.addReturn("found", objects.size());
+            return objects;
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    private <T extends ObjectType> Map<String, PrismObject<T>> executeGetObjects(
+            Class<T> type,
+            Set<UUID> oidUuids,
+            Collection<SelectorOptions<GetOperationOptions>> options)
+            throws SchemaException {
+        Map<UUID, PrismObject<T>> objectsFound = new HashMap<>();
+        long opHandle = registerOperationStart(OP_GET_OBJECTS, type);
+        try (JdbcSession jdbcSession =
+                sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+            QObjectMapping<T, QObject<MObject>, MObject> rootMapping =
+                    sqlRepoContext.getMappingBySchemaType(type);
+            QObject<MObject> root = rootMapping.defaultAlias();
+
+            // Single array parameter, so the statement is the same regardless of the number of OIDs.
+            List<Tuple> rows = jdbcSession.newQuery()
+                    .from(root)
+                    .select(rootMapping.selectExpressions(root, options))
+                    .where(Expressions.booleanTemplate("{0} = any ({1})",
+                            root.oid, oidUuids.toArray(new UUID[0])))
+                    .fetch();
+            List<Tuple> existingRows = rows.stream()
+                    .filter(row -> row.get(root.fullObject) != null)
+                    .collect(Collectors.toList());
+            for (T object : rootMapping.toSchemaObjects(existingRows, root, options, jdbcSession)) {
+                //noinspection unchecked
+                objectsFound.put(UUID.fromString(object.getOid()), (PrismObject<T>) object.asPrismObject());
+            }
+            jdbcSession.commit();
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+
+        // Returned in the order of requested OIDs.
+        Map<String, PrismObject<T>> objects = new LinkedHashMap<>();
+        for (UUID oidUuid : oidUuids) {
+            PrismObject<T> object = objectsFound.get(oidUuid);
+            if (object != null) {
+                invokeConflictWatchers((w) -> w.afterGetObject(object));
+                objects.put(oidUuid.toString(), object);
+            }
+        }
+        return objects;
+    }
+
     private UUID checkOid(String oid) {
         Objects.requireNonNull(oid, "OID must not be null");
         try {
@@ -367,9 +518,10 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         long opHandle = registerOperationStart(OP_ADD_OBJECT_OVERWRITE, newObject);
         try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
             try {
+                // The whole object is needed for the diff, including all separately stored containers.
                 //noinspection ConstantConditions
-                RootUpdateContext<T, QObject<MObject>, MObject> updateContext =
-                        prepareUpdateContext(jdbcSession, newObject.getCompileTimeClass(), oidUuid);
+                RootUpdateContext<T, QObject<MObject>, MObject> updateContext = prepareUpdateContext(
+                        jdbcSession, newObject.getCompileTimeClass(), oidUuid, GET_FOR_UPDATE_OPTIONS, null);
                 PrismObject<T> prismObject = updateContext.getPrismObject();
                 // no precondition check for overwrite
 
@@ -660,6 +812,9 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
     /**
      * Read object for update and returns update context that contains it.
+     * Only the data needed for the modifications are read, see {@link QueryTableMapping#updateGetOptions};
+     * e.g. separately stored containers not touched by the modifications are not loaded and are marked
+     * as incomplete (this also applies to the object checked by the modification precondition).
      **/
     private <S extends ObjectType, Q extends QObject<R>, R extends MObject>
     RootUpdateContext<S, Q, R> prepareUpdateContext(
@@ -786,6 +941,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             invokeConflictWatchers((w) -> w.afterDeleteObject(oid));
 
             jdbcSession.commit();
+            reservedSequenceValues.remove(oidUuid);
             return result;
         } finally {
             registerOperationFinish(opHandle);
@@ -964,6 +1120,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             Collection<SelectorOptions<GetOperationOptions>> options,
             OperationResult operationResult) throws SchemaException, RepositoryException {
 
+        Future<List<PrismObject<T>>> prefetchedPage = null;
         try {
             ObjectPaging originalPaging = originalQuery != null ? originalQuery.getPaging() : null;
             // this is total requested size of the search
@@ -972,44 +1129,47 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             List<? extends ObjectOrdering> providedOrdering = originalPaging != null
                     ? originalPaging.getOrderingInstructions()
                     : null;
-            if (providedOrdering != null && providedOrdering.size() > 1) {
-                throw new RepositoryException("searchObjectsIterative() does not support ordering"
-                        + " by multiple paths (yet): " + providedOrdering);
-            }
 
-            ObjectQuery pagedQuery = prismContext().queryFactory().createQuery();
             ObjectPaging paging = prismContext().queryFactory().createPaging();
             if (originalPaging != null && originalPaging.getOrderingInstructions() != null) {
                 originalPaging.getOrderingInstructions().forEach(o ->
                         paging.addOrderingInstruction(o.getOrderBy(), o.getDirection()));
             }
             paging.addOrderingInstruction(OID_PATH, OrderDirection.ASCENDING);
-            pagedQuery.setPaging(paging);
 
             int pageSize = Math.min(
                     repositoryConfiguration().getIterativeSearchByPagingBatchSize(),
                     defaultIfNull(maxSize, Integer.MAX_VALUE));
-            pagedQuery.getPaging().setMaxSize(pageSize);
+            boolean prefetch = repositoryConfiguration().isIterativeSearchPrefetch();
 
             PrismObject<T> lastProcessedObject = null;
             int handledObjectsTotal = 0;
+            int fetchedObjectsTotal = 0;
+
+            // first page is always fetched synchronously
+            ObjectQuery pagedQuery = createIterativeSearchPageQuery(
+                    type, originalQuery, paging, pageSize, null, providedOrdering);
+            List<PrismObject<T>> objects = executeSearchObjects(
+                    type, pagedQuery, options, OP_SEARCH_OBJECTS_ITERATIVE_PAGE);
 
             while (true) {
-                if (maxSize != null && maxSize - handledObjectsTotal < pageSize) {
-                    // relevant only for the last page
-                    pagedQuery.getPaging().setMaxSize(maxSize - handledObjectsTotal);
+                int requestedPageSize = pagedQuery.getPaging().getMaxSize();
+                fetchedObjectsTotal += objects.size();
+                boolean lastPage = objects.size() < requestedPageSize
+                        || maxSize != null && fetchedObjectsTotal >= maxSize;
+
+                if (!lastPage) {
+                    // Next page only depends on the last fetched object, not on the handling.
+                    // The remaining size is relevant only for the last page.
+                    pagedQuery = createIterativeSearchPageQuery(type, originalQuery, paging,
+                            maxSize != null ? Math.min(pageSize, maxSize - fetchedObjectsTotal) : pageSize,
+                            objects.get(objects.size() - 1), providedOrdering);
+                    if (prefetch) {
+                        // null if all prefetch threads are busy, the page is then fetched synchronously
+                        prefetchedPage = prefetchIterativeSearchPage(type, pagedQuery, options);
+                    }
                 }
 
-                // null safe, even for both nulls - don't use filterAnd which mutates original AND filter
-                pagedQuery.setFilter(ObjectQueryUtil.filterAndImmutable(
-                        originalQuery != null ? originalQuery.getFilter() : null,
-                        lastOidCondition(lastProcessedObject, providedOrdering)));
-
-                // we don't call public searchObject to avoid subresults and query simplification
-                logSearchInputParameters(type, pagedQuery, "Search object iterative page");
-                List<PrismObject<T>> objects = executeSearchObjects(
-                        type, pagedQuery, options, OP_SEARCH_OBJECTS_ITERATIVE_PAGE);
-
                 // process page results
                 for (PrismObject<T> object : objects) {
                     lastProcessedObject = object;
@@ -1028,14 +1188,28 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                     }
                 }
 
-                if (objects.isEmpty() || objects.size() < pageSize) {
+                if (lastPage) {
                     return new SearchResultMetadata()
                             .approxNumberOfAllResults(handledObjectsTotal)
                             .pagingCookie(lastProcessedObject != null
                                     ? lastProcessedObject.getOid() : null);
                 }
+
+                if (prefetchedPage != null) {
+                    objects = awaitPrefetchedPage(type, prefetchedPage);
+                    prefetchedPage = null;
+                } else {
+                    objects = executeSearchObjects(
+                            type, pagedQuery, options, OP_SEARCH_OBJECTS_ITERATIVE_PAGE);
+                }
             }
         } finally {
+            if (prefetchedPage != null) {
+                // Handler stopped the iteration or failed, the prefetched page is not needed.
+                // We don't interrupt the running query, the result is simply thrown away.
+                prefetchedPage.cancel(false);
+            }
+
             // This just counts the operation and adds zero/minimal time not to confuse user
             // with what could be possibly very long duration.
             long opHandle = registerOperationStart(OP_SEARCH_OBJECTS_ITERATIVE, type);
@@ -1043,6 +1217,116 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    /**
+     * Creates a new query for a single page of the iterative search.
+     * New query is created for each page, because with prefetching the previous page query
+     * may still be used by the other thread.
+     */
+    private <T extends ObjectType> ObjectQuery createIterativeSearchPageQuery(
+            Class<T> type,
+            ObjectQuery originalQuery,
+            ObjectPaging paging,
+            int pageSize,
+            PrismObject<T> lastFetchedObject,
+            List<? extends ObjectOrdering> providedOrdering) {
+        ObjectQuery pagedQuery = prismContext().queryFactory().createQuery();
+        ObjectPaging pagedQueryPaging = paging.clone();
+        pagedQueryPaging.setMaxSize(pageSize);
+        pagedQuery.setPaging(pagedQueryPaging);
+
+        // null safe, even for both nulls - don't use filterAnd which mutates original AND filter
+        pagedQuery.setFilter(ObjectQueryUtil.filterAndImmutable(
+                originalQuery != null ? originalQuery.getFilter() : null,
+                lastOidCondition(lastFetchedObject, providedOrdering)));
+
+        // we don't call public searchObject to avoid subresults and query simplification
+        logSearchInputParameters(type, pagedQuery, "Search object iterative page");
+        return pagedQuery;
+    }
+
+    /**
+     * Starts fetching the next page of the iterative search on the prefetch executor.
+     * Page is read using a separate JDBC session (and connection) while the calling thread
+     * handles the current page.
+     * Only a single page is prefetched ahead, so there are never more than two pages
+     * (each at most {@link SqaleRepositoryConfiguration#getIterativeSearchByPagingBatchSize()}
+     * objects) held in memory for one iterative search.
+     *
+     * Returns null if all the prefetch threads are busy (or the executor is shut down),
+     * so the connections taken by prefetching never exceed the part of the pool reserved for it.
+     * The caller then fetches the page synchronously.
+     */
+    private @Nullable <T extends ObjectType> Future<List<PrismObject<T>>> prefetchIterativeSearchPage(
+            Class<T> type,
+            ObjectQuery pagedQuery,
+            Collection<SelectorOptions<GetOperationOptions>> options) {
+        try {
+            return iterativeSearchPrefetchExecutor().submit(() -> {
+                SearchResultList<T> result = sqlQueryExecutor.list(
+                        SqaleQueryContext.from(type, sqlRepoContext),
+                        pagedQuery,
+                        options);
+                //noinspection unchecked
+                return result.map(o -> (PrismObject<T>) o.asPrismObject());
+            });
+        } catch (RejectedExecutionException e) {
+            logger.trace("No free thread for prefetching the next page of {}, it will be fetched synchronously", type);
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the prefetched page and unwraps the exception thrown by the prefetch, if any.
+     * Page operation is registered in the calling thread (where the iterative search runs),
+     * so thread-local performance information are consistent with non-prefetching search.
+     * Recorded duration is the time the caller waited for the page, not the actual query time.
+     */
+    private <T extends ObjectType> List<PrismObject<T>> awaitPrefetchedPage(
+            Class<T> type, Future<List<PrismObject<T>>> prefetchedPage)
+            throws RepositoryException, SchemaException {
+        long opHandle = registerOperationStart(OP_SEARCH_OBJECTS_ITERATIVE_PAGE, type);
+        try {
+            return prefetchedPage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for prefetched page", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            } else if (cause instanceof SchemaException) {
+                throw (SchemaException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new SystemException(cause.getMessage(), cause);
+            }
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+    }
+
+    /**
+     * Returns the executor for prefetching, creating it if needed.
+     * Each prefetch uses its own connection, so the number of threads is bounded by a part of the connection pool.
+     * There is no queue: waiting in a queue would be slower than fetching the page synchronously.
+     */
+    private synchronized ExecutorService iterativeSearchPrefetchExecutor() {
+        if (iterativeSearchPrefetchExecutor == null) {
+            int maxThreads = Math.max(1, repositoryConfiguration().getMaxPoolSize() / PREFETCH_CONNECTION_POOL_DIVISOR);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+                    60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat(ITERATIVE_SEARCH_PREFETCH_THREAD_PREFIX + "%d")
+                            .setDaemon(true)
+                            .build());
+            executor.allowCoreThreadTimeOut(true);
+            iterativeSearchPrefetchExecutor = executor;
+        }
+        return iterativeSearchPrefetchExecutor;
+    }
+
     /**
      * Without requested ordering, this is easy: `WHERE oid > lastOid`
      *
@@ -1060,8 +1344,13 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
      * This is suddenly much more fun, isn't it?
      * Of course the condition `>` or `<` depends on `ASC` vs `DESC`.
      *
-     * TODO: Currently, single path ordering is supported. Finish multi-path too.
-     * TODO: What about nullable columns?
+     * Nullable columns must be considered too, see {@link #orderingItemAfterCondition} for "after"
+     * and {@link #orderingItemEqualCondition} for "equal" components of the condition.
+     *
+     * Row-value comparison like `(X, Y, oid) > (last.X, last.Y, last.oid)` would be nicer for
+     * the composite indexes, but it can't be used with mixed directions or nulls and it can't be
+     * expressed with the query API either.
+     * PG can still use the index on X for the first component of each OR branch.
      */
     @Nullable
     private <T extends ObjectType> ObjectFilter lastOidCondition(
@@ -1070,69 +1359,98 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             return null;
         }
 
+        Class<T> type = lastProcessedObject.getCompileTimeClass();
         String lastProcessedOid = lastProcessedObject.getOid();
         if (providedOrdering == null || providedOrdering.isEmpty()) {
             return prismContext()
-                    .queryFor(lastProcessedObject.getCompileTimeClass())
+                    .queryFor(type)
                     .item(OID_PATH).gt(lastProcessedOid).buildFilter();
         }
 
-        if (providedOrdering.size() == 1) {
-            ObjectOrdering objectOrdering = providedOrdering.get(0);
-            ItemPath orderByPath = objectOrdering.getOrderBy();
-            boolean asc = objectOrdering.getDirection() == OrderDirection.ASCENDING;
-            S_ConditionEntry filter = prismContext()
-                    .queryFor(lastProcessedObject.getCompileTimeClass())
-                    .item(orderByPath);
-            //noinspection rawtypes
-            Item<PrismValue, ItemDefinition<Item>> item = lastProcessedObject.findItem(orderByPath);
-            if (item.size() > 1) {
-                throw new IllegalArgumentException(
-                        "Multi-value property for ordering is forbidden - item: " + item);
-            } else if (item.isEmpty()) {
-                // TODO what if it's nullable? is it null-first or last?
-                // See: https://www.postgresql.org/docs/13/queries-order.html
-                // "By default, null values sort as if larger than any non-null value; that is,
-                // NULLS FIRST is the default for DESC order, and NULLS LAST otherwise."
-            } else {
-                S_MatchingRuleEntry matchingRuleEntry =
-                        asc ? filter.gt(item.getRealValue()) : filter.lt(item.getRealValue());
-                filter = matchingRuleEntry.or()
-                        .block()
-                        .item(orderByPath).eq(item.getRealValue())
-                        .and()
-                        .item(OID_PATH);
-                return (asc ? filter.gt(lastProcessedOid) : filter.lt(lastProcessedOid))
-                        .endBlock()
-                        .buildFilter();
+        QueryFactory queryFactory = prismContext().queryFactory();
+        List<ObjectFilter> orConditions = new ArrayList<>();
+        // equality conditions for all the previous ordering items, these are AND-ed
+        List<ObjectFilter> equalConditions = new ArrayList<>();
+        for (ObjectOrdering ordering : providedOrdering) {
+            ItemPath orderByPath = ordering.getOrderBy();
+            boolean asc = ordering.getDirection() != OrderDirection.DESCENDING;
+            Object lastValue = orderingItemRealValue(lastProcessedObject, orderByPath);
+
+            ObjectFilter afterCondition = orderingItemAfterCondition(type, orderByPath, asc, lastValue);
+            if (afterCondition != null) {
+                orConditions.add(andConditions(equalConditions, afterCondition));
             }
+            equalConditions.add(orderingItemEqualCondition(type, orderByPath, lastValue));
         }
+        // final component - all ordering items are equal, OID (always ascending) decides
+        orConditions.add(andConditions(equalConditions,
+                prismContext().queryFor(type).item(OID_PATH).gt(lastProcessedOid).buildFilter()));
 
-        throw new IllegalArgumentException(
-                "Shouldn't get here with check in executeSearchObjectsIterative()");
-        /*
-        TODO: Unfinished - this is painful with fluent API. Should I call
-         prismContext().queryFor(lastProcessedObject.getCompileTimeClass()) for each component
-         and then use ObjectQueryUtil.filterAnd/Or?
-        // we need to handle the complicated case with externally provided ordering
-        S_FilterEntryOrEmpty orBlock = prismContext()
-                .queryFor(lastProcessedObject.getCompileTimeClass()).block();
-        orLoop:
-        for (ObjectOrdering orMasterOrdering : providedOrdering) {
-            Iterator<? extends ObjectOrdering> iterator = providedOrdering.iterator();
-            while (iterator.hasNext()) {
-                S_FilterEntryOrEmpty andBlock = orBlock.block();
-                ObjectOrdering ordering = iterator.next();
-                if (ordering.equals(orMasterOrdering)) {
-                    // ...
-                    continue orLoop;
-                }
-                orBlock = andBlock.endBlock();
-            }
+        return orConditions.size() == 1
+                ? orConditions.get(0)
+                : queryFactory.createOr(orConditions);
+    }
 
+    private ObjectFilter andConditions(List<ObjectFilter> equalConditions, ObjectFilter lastCondition) {
+        if (equalConditions.isEmpty()) {
+            return lastCondition;
         }
-        return orBlock.endBlock().buildFilter();
-        */
+
+        List<ObjectFilter> conditions = new ArrayList<>(equalConditions);
+        conditions.add(lastCondition);
+        return prismContext().queryFactory().createAnd(conditions);
+    }
+
+    /** Returns real value of the ordering item or null if the item is missing or empty. */
+    @Nullable
+    private Object orderingItemRealValue(PrismObject<?> object, ItemPath orderByPath) {
+        //noinspection rawtypes
+        Item<PrismValue, ItemDefinition<Item>> item = object.findItem(orderByPath);
+        if (item == null || item.isEmpty()) {
+            return null;
+        }
+        if (item.size() > 1) {
+            throw new IllegalArgumentException(
+                    "Multi-value property for ordering is forbidden - item: " + item);
+        }
+        return item.getRealValue();
+    }
+
+    /**
+     * Returns condition for items "after" the last value for the single ordering item, or null
+     * if nothing can follow.
+     * PG by default sorts nulls as if larger than any non-null value, see
+     * https://www.postgresql.org/docs/13/queries-order.html[this]:
+     * "NULLS FIRST is the default for DESC order, and NULLS LAST otherwise."
+     * Hence:
+     *
+     * * ASC, non-null last value: `X > last.X OR X IS NULL`
+     * * DESC, non-null last value: `X < last.X` (nulls were already before)
+     * * ASC, null last value: nothing - only other nulls can follow and these are equal
+     * * DESC, null last value: `X IS NOT NULL`
+     */
+    @Nullable
+    private ObjectFilter orderingItemAfterCondition(
+            Class<? extends ObjectType> type, ItemPath orderByPath, boolean asc, Object lastValue) {
+        if (lastValue == null) {
+            return asc
+                    ? null
+                    : prismContext().queryFor(type).not().item(orderByPath).isNull().buildFilter();
+        }
+
+        S_ConditionEntry condition = prismContext().queryFor(type).item(orderByPath);
+        return asc
+                ? condition.gt(lastValue).or().item(orderByPath).isNull().buildFilter()
+                : condition.lt(lastValue).buildFilter();
+    }
+
+    /** Returns condition matching the last value of the ordering item, including null. */
+    private ObjectFilter orderingItemEqualCondition(
+            Class<? extends ObjectType> type, ItemPath orderByPath, Object lastValue) {
+        S_ConditionEntry condition = prismContext().queryFor(type).item(orderByPath);
+        return lastValue != null
+                ? condition.eq(lastValue).buildFilter()
+                : condition.isNull().buildFilter();
     }
 
     @Override
@@ -1249,8 +1567,6 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
         long opHandle = registerOperationStart(OP_IS_DESCENDANT, OrgType.class);
         try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
-            jdbcSession.executeStatement("CALL m_refresh_org_closure()");
-
             QOrgClosure oc = new QOrgClosure();
             long count = jdbcSession.newQuery()
                     .from(oc)
@@ -1277,8 +1593,6 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
         long opHandle = registerOperationStart(OP_IS_ANCESTOR, OrgType.class);
         try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
-            jdbcSession.executeStatement("CALL m_refresh_org_closure()");
-
             QOrgClosure oc = new QOrgClosure();
             long count = jdbcSession.newQuery()
                     .from(oc)
@@ -1342,7 +1656,16 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                 .build();
 
         try {
-            return executeAdvanceSequence(oidUuid);
+            Deque<Long> reservedValues =
+                    reservedSequenceValues.computeIfAbsent(oidUuid, k -> new ArrayDeque<>());
+            synchronized (reservedValues) {
+                Long reservedValue = reservedValues.poll();
+                if (reservedValue != null) {
+                    logger.trace("Returning value {} reserved for sequence {}", reservedValue, oid);
+                    return reservedValue;
+                }
+                return executeAdvanceSequence(oidUuid, reservedValues);
+            }
         } catch (RepositoryException | RuntimeException | SchemaException e) {
             throw handledGeneralException(e, operationResult);
         } catch (Throwable t) {
@@ -1353,7 +1676,11 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
-    private long executeAdvanceSequence(UUID oid)
+    /**
+     * Advances the sequence in the repository. If the sequence is configured to allocate values in blocks,
+     * the whole block is reserved; the first value is returned, the others are put into `reservedValues`.
+     */
+    private long executeAdvanceSequence(UUID oid, Deque<Long> reservedValues)
             throws ObjectNotFoundException, SchemaException, RepositoryException {
         long opHandle = registerOperationStart(OP_ADVANCE_SEQUENCE, SequenceType.class);
 
@@ -1364,19 +1691,31 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
             logger.trace("OBJECT before:\n{}", sequence.debugDumpLazily());
 
-            long returnValue;
-            if (!sequence.getUnusedValues().isEmpty()) {
-                returnValue = sequence.getUnusedValues().remove(0);
-            } else {
-                returnValue = advanceSequence(sequence, oid);
+            int blockSize = sequence.getAllocationBlockSize() != null ? sequence.getAllocationBlockSize() : 1;
+            List<Long> values = new ArrayList<>(blockSize);
+            while (values.size() < blockSize && !sequence.getUnusedValues().isEmpty()) {
+                values.add(sequence.getUnusedValues().remove(0));
+            }
+            while (values.size() < blockSize) {
+                long counter = sequence.getCounter() != null ? sequence.getCounter() : 0L;
+                long maxCounter = sequence.getMaxCounter() != null ? sequence.getMaxCounter() : Long.MAX_VALUE;
+                if (!values.isEmpty() && counter > maxCounter) {
+                    break; // no more values, the next advance will report it (or rewind)
+                }
+                values.add(advanceSequence(sequence, oid));
+                if (counter >= maxCounter) {
+                    break; // we don't want to rewind within a block, as the values would not be unique
+                }
             }
 
-            logger.trace("Return value = {}, OBJECT after:\n{}",
-                    returnValue, sequence.debugDumpLazily());
+            logger.trace("Return values = {}, OBJECT after:\n{}",
+                    values, sequence.debugDumpLazily());
 
             updateContext.finishExecutionOwn();
             jdbcSession.commit();
-            return returnValue;
+
+            reservedValues.addAll(values.subList(1, values.size()));
+            return values.get(0);
         } finally {
             registerOperationFinish(opHandle);
         }
@@ -1531,6 +1870,12 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                     String.valueOf(System.currentTimeMillis() - startMs)));
         }
 
+        SqaleAuditService auditService = auditServiceFactory != null
+                ? auditServiceFactory.createAuditService() : null;
+        if (auditService != null) {
+            details.addAll(auditService.getDiagnosticDetails());
+        }
+
         details.sort((o1, o2) -> String.CASE_INSENSITIVE_ORDER.compare(o1.getLabel(), o2.getLabel()));
 
         return diag;
@@ -1597,39 +1942,26 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                         .build();
 
         try {
-            long closureCount, expectedCount;
+            long closureCount, expectedCount, inconsistentCount;
             try (JdbcSession jdbcSession =
                     sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
-                QOrgClosure oc = new QOrgClosure();
-                closureCount = jdbcSession.newQuery().from(oc).fetchCount();
-                // this is CTE used also for m_org_closure materialized view (here with count)
-                QOrg o = QOrgMapping.getOrgMapping().defaultAlias();
-                QObjectReference<?> ref = QObjectReferenceMapping.getForParentOrg().newAlias("ref");
-                QObjectReference<?> par = QObjectReferenceMapping.getForParentOrg().newAlias("par");
-                //noinspection unchecked
-                expectedCount = jdbcSession.newQuery()
-                        .withRecursive(oc, oc.ancestorOid, oc.descendantOid)
-                        .as(new SQLQuery<>().union(
-                                // non-recursive term: initial select
-                                new SQLQuery<>().select(o.oid, o.oid)
-                                        .from(o)
-                                        .where(new SQLQuery<>().select(Expressions.ONE)
-                                                .from(ref)
-                                                .where(ref.targetOid.eq(o.oid)
-                                                        .or(ref.ownerOid.eq(o.oid)))
-                                                .exists()),
-                                new SQLQuery<>().select(par.targetOid, oc.descendantOid)
-                                        .from(par, oc)
-                                        .where(par.ownerOid.eq(oc.ancestorOid))))
-                        .from(oc)
-                        .fetchCount();
-                logger.info("Org closure consistency checked - closure count {}, expected count {}",
-                        closureCount, expectedCount);
+                closureCount = jdbcSession.newQuery().from(new QOrgClosure()).fetchCount();
+                // m_org_closure_compute() computes the closure from scratch, as the rebuild does
+                expectedCount = fetchLong(jdbcSession,
+                        "SELECT count(*) FROM m_org_closure_compute()");
+                // missing rows, superfluous rows and rows with wrong number of paths
+                inconsistentCount = fetchLong(jdbcSession, "SELECT count(*)"
+                        + " FROM m_org_closure oc FULL JOIN m_org_closure_compute() c"
+                        + " ON c.ancestor_oid = oc.ancestor_oid AND c.descendant_oid = oc.descendant_oid"
+                        + " WHERE c.paths IS DISTINCT FROM oc.paths");
+                logger.info("Org closure consistency checked - closure count {}, expected count {},"
+                        + " inconsistent rows {}", closureCount, expectedCount, inconsistentCount);
             }
             operationResult.addReturn("closure-count", closureCount);
             operationResult.addReturn("expected-count", expectedCount);
+            operationResult.addReturn("inconsistent-count", inconsistentCount);
 
-            if (repairIfNecessary && closureCount != expectedCount) {
+            if (repairIfNecessary && inconsistentCount != 0) {
                 try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
                     jdbcSession.executeStatement("CALL m_refresh_org_closure(true)");
                     jdbcSession.commit();
@@ -1648,6 +1980,13 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    private long fetchLong(JdbcSession jdbcSession, String sql) {
+        Long value = jdbcSession.newQuery()
+                .select(Expressions.numberTemplate(Long.class, "(" + sql + ")"))
+                .fetchOne();
+        return value != null ? value : 0;
+    }
+
     @Override
     public RepositoryQueryDiagResponse executeQueryDiagnostics(
             RepositoryQueryDiagRequest request, OperationResult parentResult) {
@@ -1983,4 +2322,38 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             return true;
         }
     }
+
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (iterativeSearchPrefetchExecutor != null) {
+                iterativeSearchPrefetchExecutor.shutdownNow();
+                iterativeSearchPrefetchExecutor = null;
+            }
+        }
+        returnReservedSequenceValues();
+        super.destroy();
+    }
+
+    /**
+     * Returns values reserved by this node (and not handed out) back to their sequences.
+     * Values exceeding `maxUnusedValues` of the sequence are lost, just like for any other returned values.
+     */
+    private void returnReservedSequenceValues() {
+        OperationResult result = new OperationResult(opNamePrefix + "returnReservedSequenceValues");
+        reservedSequenceValues.forEach((oid, reservedValues) -> {
+            List<Long> values;
+            synchronized (reservedValues) {
+                values = new ArrayList<>(reservedValues);
+                reservedValues.clear();
+            }
+            if (!values.isEmpty()) {
+                try {
+                    returnUnusedValuesToSequence(oid.toString(), values, result);
+                } catch (ObjectNotFoundException | RuntimeException e) {
+                    logger.warn("Couldn't return reserved values {} to sequence {}: {}", values, oid, e.getMessage());
+                }
+            }
+        });
+    }
 }
@@ -8,6 +8,8 @@ package com.evolveum.midpoint.repo.sqale;
 
 import java.lang.reflect.Field;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import javax.xml.namespace.QName;
 
 import org.apache.commons.lang3.StringUtils;
@@ -22,6 +24,7 @@ import com.evolveum.midpoint.prism.PrismReferenceDefinition;
 import com.evolveum.midpoint.prism.Referencable;
 import com.evolveum.midpoint.schema.util.ExceptionUtil;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
@@ -124,6 +127,25 @@ public class SqaleUtils {
         return PSQLState.UNIQUE_VIOLATION.getState().equals(psqlException.getSQLState());
     }
 
+    /**
+     * Waits for the result of the operation performed by another thread ("single-flight").
+     * Runtime exception from the other thread is rethrown as is, so the caller sees the same
+     * failure as if it performed the operation itself.
+     */
+    public static <T> T awaitSingleFlight(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for other thread's result", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException
+                    ? (RuntimeException) cause
+                    : new SystemException(cause.getMessage(), cause);
+        }
+    }
+
     public static String toString(Object object) {
         return new ToStringUtil(object).toString();
     }
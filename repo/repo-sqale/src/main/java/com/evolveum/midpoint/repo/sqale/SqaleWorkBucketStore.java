@@ -0,0 +1,512 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.COMPLETE;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.DELEGATED;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.READY;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.querydsl.core.QueryFlag.Position;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.DateTimeExpression;
+import com.querydsl.core.types.dsl.Expressions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.SerializationOptions;
+import com.evolveum.midpoint.repo.api.SqlPerformanceMonitorsCollection;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.MWorkBucket;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.QWorkBucket;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivityBucketingStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Work bucket store using {@value QWorkBucket#TABLE_NAME} table, one row per bucket.
+ *
+ * Bucket state, worker and lease are kept in columns, the rest of the bucket (sequential number
+ * and content) is serialized in the `content` column.
+ * Claiming uses `FOR UPDATE SKIP LOCKED`, so concurrent workers do not wait for each other
+ * and never claim the same bucket.
+ * Leases are computed and checked using the database clock, so they do not depend on the clocks
+ * of the nodes the workers run on.
+ */
+public class SqaleWorkBucketStore extends SqaleServiceBase implements WorkBucketStore {
+
+    private static final DateTimeExpression<Instant> DB_NOW = Expressions.dateTimeTemplate(Instant.class, "now()");
+
+    public SqaleWorkBucketStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        super(sqlRepoContext, sqlPerformanceMonitorsCollection);
+    }
+
+    @Override
+    public @NotNull List<WorkBucketType> getDelegatedBuckets(@NotNull String coordinatorOid,
+            @NotNull String activityPath, @NotNull String workerOid, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_GET_DELEGATED_BUCKETS)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("workerOid", workerOid)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_GET_DELEGATED_BUCKETS, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                List<MWorkBucket> rows = jdbcSession.newQuery()
+                        .select(wb)
+                        .from(wb)
+                        .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                .and(wb.state.eq(DELEGATED))
+                                .and(wb.workerOid.eq(UUID.fromString(workerOid))))
+                        .orderBy(wb.sequentialNumber.asc())
+                        .fetch();
+                return toSchemaObjects(rows);
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public @Nullable WorkBucketType getBucket(@NotNull String coordinatorOid, @NotNull String activityPath,
+            int sequentialNumber, @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_GET_BUCKET)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("sequentialNumber", sequentialNumber)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_GET_BUCKET, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                MWorkBucket row = jdbcSession.newQuery()
+                        .select(wb)
+                        .from(wb)
+                        .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                .and(wb.sequentialNumber.eq(sequentialNumber)))
+                        .fetchOne();
+                return row != null ? toSchemaObject(row) : null;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public @Nullable WorkBucketType getLastBucket(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_GET_LAST_BUCKET)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_GET_LAST_BUCKET, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                MWorkBucket row = jdbcSession.newQuery()
+                        .select(wb)
+                        .from(wb)
+                        .where(activityBuckets(wb, coordinatorOid, activityPath))
+                        .orderBy(wb.sequentialNumber.desc())
+                        .limit(1)
+                        .fetchOne();
+                return row != null ? toSchemaObject(row) : null;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int countBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @Nullable WorkBucketStateType state, @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_COUNT_BUCKETS)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("state", state)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_COUNT_BUCKETS, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                return (int) jdbcSession.newQuery()
+                        .from(wb)
+                        .where(state != null
+                                ? activityBuckets(wb, coordinatorOid, activityPath).and(wb.state.eq(state))
+                                : activityBuckets(wb, coordinatorOid, activityPath))
+                        .fetchCount();
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public @NotNull List<WorkBucketType> claimBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull String workerOid, int limit, long leaseDuration, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_CLAIM_BUCKETS)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("workerOid", workerOid)
+                .addParam("limit", limit)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_CLAIM_BUCKETS, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                List<MWorkBucket> rows = jdbcSession.newQuery()
+                        .select(wb)
+                        .from(wb)
+                        .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                .and(wb.state.eq(READY)
+                                        .or(wb.state.eq(DELEGATED).and(wb.leaseExpiration.lt(DB_NOW)))))
+                        .orderBy(wb.sequentialNumber.asc())
+                        .limit(limit)
+                        // Rows locked by other claiming workers are simply skipped, no waiting.
+                        .addFlag(Position.END, " FOR UPDATE SKIP LOCKED")
+                        .fetch();
+                if (rows.isEmpty()) {
+                    jdbcSession.commit();
+                    return List.of();
+                }
+
+                UUID workerUuid = UUID.fromString(workerOid);
+                jdbcSession.newUpdate(wb)
+                        .set(wb.state, DELEGATED)
+                        .set(wb.workerOid, workerUuid)
+                        .set(wb.leaseExpiration, leaseExpiration(leaseDuration))
+                        .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                .and(wb.sequentialNumber.in(rows.stream()
+                                        .map(r -> r.sequentialNumber)
+                                        .collect(Collectors.toList()))))
+                        .execute();
+                jdbcSession.commit();
+
+                for (MWorkBucket row : rows) {
+                    row.state = DELEGATED;
+                    row.workerOid = workerUuid;
+                }
+                logger.trace("Claimed {} bucket(s) in {}/{} for {}", rows.size(), coordinatorOid, activityPath, workerOid);
+                return toSchemaObjects(rows);
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public boolean addBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull List<WorkBucketType> buckets, long leaseDuration, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_ADD_BUCKETS)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("buckets", buckets.size())
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_ADD_BUCKETS, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                List<Integer> delegated = new ArrayList<>();
+                for (WorkBucketType bucket : buckets) {
+                    MWorkBucket row = toRow(coordinatorOid, activityPath, bucket);
+                    long inserted = jdbcSession.newInsert(wb)
+                            .populate(row)
+                            // Conflict means that another worker has created the buckets concurrently.
+                            .addFlag(Position.END, " ON CONFLICT DO NOTHING")
+                            .execute();
+                    if (inserted == 0) {
+                        logger.debug("Bucket #{} in {}/{} already exists, not adding any buckets",
+                                bucket.getSequentialNumber(), coordinatorOid, activityPath);
+                        jdbcSession.rollback();
+                        return false;
+                    }
+                    if (row.state == DELEGATED) {
+                        delegated.add(row.sequentialNumber);
+                    }
+                }
+                if (!delegated.isEmpty()) {
+                    jdbcSession.newUpdate(wb)
+                            .set(wb.leaseExpiration, leaseExpiration(leaseDuration))
+                            .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                    .and(wb.sequentialNumber.in(delegated)))
+                            .execute();
+                }
+                jdbcSession.commit();
+                return true;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public boolean completeBucket(@NotNull String coordinatorOid, @NotNull String activityPath, int sequentialNumber,
+            @Nullable String workerOid, @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_COMPLETE_BUCKET)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("sequentialNumber", sequentialNumber)
+                .addParam("workerOid", workerOid)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_COMPLETE_BUCKET, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                Predicate condition = activityBuckets(wb, coordinatorOid, activityPath)
+                        .and(wb.sequentialNumber.eq(sequentialNumber));
+                if (workerOid != null) {
+                    condition = wb.workerOid.eq(UUID.fromString(workerOid)).and(condition);
+                }
+                long updated = jdbcSession.newUpdate(wb)
+                        .set(wb.state, COMPLETE)
+                        .setNull(wb.leaseExpiration)
+                        .where(condition)
+                        .execute();
+                jdbcSession.commit();
+                return updated > 0;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int releaseBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull String workerOid, @Nullable Integer sequentialNumber, @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_RELEASE_BUCKETS)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("workerOid", workerOid)
+                .addParam("sequentialNumber", sequentialNumber)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_RELEASE_BUCKETS, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                Predicate condition = delegatedTo(wb, coordinatorOid, activityPath, workerOid);
+                if (sequentialNumber != null) {
+                    condition = wb.sequentialNumber.eq(sequentialNumber).and(condition);
+                }
+                long updated = jdbcSession.newUpdate(wb)
+                        .set(wb.state, READY)
+                        .setNull(wb.workerOid)
+                        .setNull(wb.leaseExpiration)
+                        .where(condition)
+                        .execute();
+                jdbcSession.commit();
+                return (int) updated;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int renewLeases(@NotNull String coordinatorOid, @NotNull String activityPath, @NotNull String workerOid,
+            long leaseDuration, @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_RENEW_LEASES)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .addParam("workerOid", workerOid)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_RENEW_LEASES, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                long updated = jdbcSession.newUpdate(wb)
+                        .set(wb.leaseExpiration, leaseExpiration(leaseDuration))
+                        .where(delegatedTo(wb, coordinatorOid, activityPath, workerOid))
+                        .execute();
+                jdbcSession.commit();
+                return (int) updated;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    @Override
+    public int deleteBuckets(@NotNull String coordinatorOid, @NotNull String activityPath,
+            @NotNull OperationResult parentResult) {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_DELETE_BUCKETS)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", activityPath)
+                .build();
+        try {
+            long opHandle = registerOperationStart(OP_DELETE_BUCKETS, WorkBucketType.class);
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                QWorkBucket wb = QWorkBucket.DEFAULT;
+                long deleted = jdbcSession.newDelete(wb)
+                        .where(activityBuckets(wb, coordinatorOid, activityPath))
+                        .execute();
+                jdbcSession.commit();
+                return (int) deleted;
+            } finally {
+                registerOperationFinish(opHandle);
+            }
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.computeStatusIfUnknown();
+        }
+    }
+
+    /**
+     * Lease expiration computed by the database, `now()` is the start of the current transaction.
+     * Negative duration creates an already expired lease.
+     */
+    private DateTimeExpression<Instant> leaseExpiration(long leaseDuration) {
+        return Expressions.dateTimeTemplate(Instant.class,
+                "now() + make_interval(secs => {0})", leaseDuration / 1000.0);
+    }
+
+    private BooleanExpression activityBuckets(
+            QWorkBucket wb, String coordinatorOid, String activityPath) {
+        return wb.coordinatorOid.eq(UUID.fromString(coordinatorOid))
+                .and(wb.activityPath.eq(activityPath));
+    }
+
+    private Predicate delegatedTo(QWorkBucket wb, String coordinatorOid, String activityPath, String workerOid) {
+        return activityBuckets(wb, coordinatorOid, activityPath)
+                .and(wb.state.eq(DELEGATED))
+                .and(wb.workerOid.eq(UUID.fromString(workerOid)));
+    }
+
+    /** Lease expiration of delegated bucket is not set, it is set by the database afterwards. */
+    private MWorkBucket toRow(String coordinatorOid, String activityPath, WorkBucketType bucket)
+            throws SchemaException {
+        MWorkBucket row = new MWorkBucket();
+        row.coordinatorOid = UUID.fromString(coordinatorOid);
+        row.activityPath = activityPath;
+        row.sequentialNumber = bucket.getSequentialNumber();
+        row.state = bucket.getState() != null ? bucket.getState() : READY;
+        if (row.state == DELEGATED) {
+            ObjectReferenceType workerRef = bucket.getWorkerRef();
+            if (workerRef == null || workerRef.getOid() == null) {
+                throw new IllegalArgumentException("Delegated bucket without worker: " + bucket);
+            }
+            row.workerOid = UUID.fromString(workerRef.getOid());
+        }
+        // State and worker are kept in columns, they would be obsolete in the serialized form soon.
+        WorkBucketType stored = new WorkBucketType()
+                .sequentialNumber(bucket.getSequentialNumber())
+                .content(bucket.getContent() != null ? bucket.getContent().clone() : null);
+        row.content = sqlRepoContext.createStringSerializer()
+                .options(SerializationOptions.createSerializeReferenceNamesForNullOids()
+                        .skipWhitespaces(true))
+                .serializeRealValue(stored, ActivityBucketingStateType.F_BUCKET)
+                .getBytes(StandardCharsets.UTF_8);
+        return row;
+    }
+
+    private List<WorkBucketType> toSchemaObjects(List<MWorkBucket> rows) throws SchemaException {
+        List<WorkBucketType> buckets = new ArrayList<>(rows.size());
+        for (MWorkBucket row : rows) {
+            buckets.add(toSchemaObject(row));
+        }
+        return buckets;
+    }
+
+    private WorkBucketType toSchemaObject(MWorkBucket row) throws SchemaException {
+        WorkBucketType bucket = row.content != null
+                ? sqlRepoContext.parsePrismObject(
+                        new String(row.content, StandardCharsets.UTF_8), WorkBucketType.class).prismValue
+                : new WorkBucketType();
+        bucket.setSequentialNumber(row.sequentialNumber);
+        bucket.setState(row.state);
+        if (row.workerOid != null) {
+            bucket.setWorkerRef(new ObjectReferenceType()
+                    .oid(row.workerOid.toString())
+                    .type(TaskType.COMPLEX_TYPE));
+        }
+        return bucket;
+    }
+}
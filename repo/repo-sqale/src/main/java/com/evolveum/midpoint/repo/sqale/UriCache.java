@@ -9,6 +9,7 @@ package com.evolveum.midpoint.repo.sqale;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 import javax.xml.namespace.QName;
@@ -47,6 +48,10 @@ import com.evolveum.midpoint.util.logging.TraceManager;
  * This could be avoided if the runtime maps were updated *only* after the row was successfully
  * read from the DB in other operations - which beats the purposes of those fast operations.
  * Instead, we risk adding the row that is not used, it is no harm; it will likely be used later.
+ *
+ * Cache hits don't use any locking, only concurrent maps.
+ * Missing URIs are added with "single-flight" approach - if multiple threads miss the same URI
+ * at the same time, only the first one goes to the DB and the others wait for its result.
  */
 public class UriCache {
 
@@ -64,8 +69,11 @@ public class UriCache {
     private final Map<Integer, String> idToUri = new ConcurrentHashMap<>();
     private final Map<String, Integer> uriToId = new ConcurrentHashMap<>();
 
+    /** Inserts in progress, used to wait for the insert of the same URI by another thread. */
+    private final Map<String, CompletableFuture<Integer>> pendingInserts = new ConcurrentHashMap<>();
+
     // WARNING: Each .get() creates new connection, always use in try-with-resource block!
-    private Supplier<JdbcSession> jdbcSessionSupplier;
+    private volatile Supplier<JdbcSession> jdbcSessionSupplier;
 
     /**
      * Initializes the URI cache.
@@ -180,7 +188,7 @@ public class UriCache {
      * Returns ID for URI creating new cache row in DB as needed.
      * Returns null for null URI parameter.
      */
-    public synchronized @Nullable Integer processCacheableUri(@Nullable Object uri) {
+    public @Nullable Integer processCacheableUri(@Nullable Object uri) {
         if (uri == null) {
             return null;
         }
@@ -192,11 +200,37 @@ public class UriCache {
                 ? QNameUtil.qNameToUri((QName) uri)
                 : uri.toString();
 
-        Integer id = getId(uriString);
+        Integer id = uriToId.get(uriString);
         if (id != null) {
             return id;
         }
 
+        CompletableFuture<Integer> insertFuture = new CompletableFuture<>();
+        CompletableFuture<Integer> otherInsertFuture =
+                pendingInserts.putIfAbsent(uriString, insertFuture);
+        if (otherInsertFuture != null) {
+            return SqaleUtils.awaitSingleFlight(otherInsertFuture);
+        }
+
+        try {
+            // This checks the DB too, the URI may be added by other node (or thread just before).
+            id = getId(uriString);
+            if (id == null) {
+                id = insertUri(uriString);
+            }
+            insertFuture.complete(id);
+            return id;
+        } catch (RuntimeException e) {
+            insertFuture.completeExceptionally(e);
+            throw e;
+        } finally {
+            // maps are updated already, so new threads will not need the future anymore
+            pendingInserts.remove(uriString, insertFuture);
+        }
+    }
+
+    private @NotNull Integer insertUri(String uriString) {
+        Integer id;
         QUri qu = QUri.DEFAULT;
         try (JdbcSession jdbcSession = jdbcSessionSupplier.get().startTransaction()) {
             id = jdbcSession.newInsert(qu)
@@ -217,7 +251,7 @@ public class UriCache {
             }
             throw e;
         }
-        LOGGER.debug("URI cache inserted URI={} under ID={}", uri, id);
+        LOGGER.debug("URI cache inserted URI={} under ID={}", uriString, id);
         return id;
     }
 
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.repo.sqale.SqaleRepoContext;
+import com.evolveum.midpoint.repo.sqale.audit.qmodel.MAuditEventRecord;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Queue of prepared audit event records with background threads inserting them in batches.
+ * Used by {@link SqaleAuditService} for {@link AuditWriteMode#GROUP_COMMIT}
+ * and {@link AuditWriteMode#ASYNC}.
+ *
+ * Queue is bounded, when it's full the callers block until writers free some space.
+ * This provides back-pressure - it's better to slow down the callers than to lose audit records
+ * or to run out of memory.
+ *
+ * Each writer thread takes as many records as available (up to the batch size) and inserts
+ * them in a single transaction.
+ * If the batch fails, records are retried one by one, so that one bad record doesn't take
+ * the others with it.
+ * Each flushed batch is recorded by the performance monitor of the audit service as {@link #OP_FLUSH}.
+ * Current and maximal queue depth is available for diagnostics, see {@link SqaleAuditService#getDiagnosticDetails()}.
+ *
+ * Callers never wait for records that can't be written anymore: when the writers finish (after the shutdown
+ * or when interrupted), the records still in the queue are failed.
+ */
+public class AuditBatchWriter {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AuditBatchWriter.class);
+
+    /** Operation kind for the performance monitor of the audit service, one for each flushed batch. */
+    static final String OP_FLUSH = "auditFlush";
+
+    /**
+     * How long the writer waits for the next record before checking for shutdown.
+     * Callers waiting for a queue slot or for the commit check that the writers still run in the same interval.
+     */
+    private static final long POLL_TIMEOUT_MS = 500;
+
+    private final SqaleAuditService auditService;
+    private final SqaleRepoContext sqlRepoContext;
+    private final AuditWriteMode mode;
+    private final int batchSize;
+    private final int queueSize;
+    private final BlockingQueue<PendingRecord> queue;
+    private final List<Thread> writerThreads = new ArrayList<>();
+
+    /** Writer threads that did not finish yet; when the last one finishes, records left in the queue are failed. */
+    private final AtomicInteger activeWriters = new AtomicInteger();
+
+    /** Maximal queue depth observed after queueing a record, shows how close the callers got to blocking. */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    public AuditBatchWriter(@NotNull SqaleAuditService auditService,
+            @NotNull AuditWriteMode mode, int queueSize, int batchSize, int threads) {
+        if (mode == AuditWriteMode.DIRECT) {
+            throw new IllegalArgumentException("Batch writer is not used for direct audit write mode");
+        }
+
+        this.auditService = auditService;
+        this.sqlRepoContext = auditService.sqlRepoContext();
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+
+        activeWriters.set(threads);
+        for (int i = 1; i <= threads; i++) {
+            Thread thread = new Thread(this::writerLoop, "sqale-audit-writer-" + i);
+            thread.setDaemon(true);
+            writerThreads.add(thread);
+            thread.start();
+        }
+        LOGGER.info("Audit batch writer started, mode {}, queue size {}, batch size {}, threads {}",
+                mode, queueSize, batchSize, threads);
+    }
+
+    /**
+     * Queues the prepared record (blocking if the queue is full) and, for group commit mode,
+     * waits until it is committed.
+     * ID consumer is called with the ID assigned by the DB, for async mode later from the writer
+     * thread.
+     */
+    public void write(@NotNull MAuditEventRecord row, @NotNull LongConsumer idConsumer) {
+        checkRunning();
+
+        PendingRecord pendingRecord = new PendingRecord(row, idConsumer);
+        try {
+            while (!queue.offer(pendingRecord, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                checkRunning();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for audit queue", e);
+        }
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        if (!running && queue.remove(pendingRecord)) {
+            // Shutdown started after the check above, nobody may take the record from the queue anymore.
+            // If it was not in the queue, a writer took it, or it was failed by the shutdown.
+            throw shutDownException();
+        }
+
+        if (mode == AuditWriteMode.GROUP_COMMIT) {
+            waitForCommit(pendingRecord);
+        }
+    }
+
+    private void checkRunning() {
+        if (!running) {
+            throw shutDownException();
+        }
+    }
+
+    private SystemException shutDownException() {
+        return new SystemException("Audit batch writer is shut down, audit record can't be written");
+    }
+
+    private void waitForCommit(PendingRecord pendingRecord) {
+        while (true) {
+            try {
+                pendingRecord.done.get(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                // Remaining records are failed when the last writer finishes, this is just a safety net.
+                if (activeWriters.get() == 0 && !pendingRecord.done.isDone()) {
+                    throw new SystemException("Audit writers are not running, audit record was not written");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SystemException("Interrupted while waiting for audit record commit", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof RuntimeException
+                        ? (RuntimeException) cause
+                        : new SystemException(cause.getMessage(), cause);
+            }
+        }
+    }
+
+    private void writerLoop() {
+        List<PendingRecord> batch = new ArrayList<>(batchSize);
+        try {
+            // we finish the queue even after the shutdown is requested
+            while (running || !queue.isEmpty()) {
+                try {
+                    PendingRecord first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    flush(batch);
+                } catch (InterruptedException e) {
+                    LOGGER.debug("Audit writer interrupted, remaining queue size: {}", queue.size());
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (RuntimeException e) {
+                    // this should not happen, flush handles its exceptions
+                    LOGGER.error("Unexpected exception in audit writer", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            if (activeWriters.decrementAndGet() == 0) {
+                failRemainingRecords("Audit writers finished before the record was written");
+            }
+        }
+    }
+
+    private void flush(List<PendingRecord> batch) {
+        long opHandle = auditService.registerOperationStart(OP_FLUSH);
+        try {
+            insert(batch);
+            batch.forEach(PendingRecord::complete);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).fail(e);
+            } else {
+                LOGGER.warn("Audit batch insert of {} records failed, retrying one by one: {}",
+                        batch.size(), e.toString());
+                for (PendingRecord pendingRecord : batch) {
+                    try {
+                        insert(List.of(pendingRecord));
+                        pendingRecord.complete();
+                    } catch (RuntimeException e2) {
+                        pendingRecord.fail(e2);
+                    }
+                }
+            }
+        } finally {
+            auditService.registerOperationFinish(opHandle);
+        }
+    }
+
+    private void insert(List<PendingRecord> batch) {
+        List<MAuditEventRecord> rows = new ArrayList<>(batch.size());
+        for (PendingRecord pendingRecord : batch) {
+            // clearing IDs from possible previously failed attempt (it was rolled back)
+            pendingRecord.row.id = null;
+            rows.add(pendingRecord.row);
+        }
+
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            auditService.insertAuditEventRecords(jdbcSession, rows);
+            jdbcSession.commit();
+        }
+    }
+
+    /** Fails records that will not be taken by any writer, so that nobody waits for them. */
+    private void failRemainingRecords(String reason) {
+        List<PendingRecord> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            LOGGER.warn("{}, {} audit records were not written", reason, remaining.size());
+            SystemException exception = new SystemException(reason);
+            remaining.forEach(pendingRecord -> pendingRecord.fail(exception));
+        }
+    }
+
+    /**
+     * Stops accepting new records, writes the queued ones and waits for the writers
+     * to finish (up to the specified timeout).
+     * Records still queued after the timeout are not written.
+     */
+    public void shutdown(long timeoutMs) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Thread thread : writerThreads) {
+            try {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        failRemainingRecords("Audit batch writer was shut down before the record was written");
+        LOGGER.info("Audit batch writer stopped: {}", this);
+    }
+
+    public AuditWriteMode getMode() {
+        return mode;
+    }
+
+    /** Number of records currently waiting in the queue. */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /** Maximal number of records waiting in the queue since the writer was started. */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @Override
+    public String toString() {
+        return "AuditBatchWriter{" +
+                "mode=" + mode +
+                ", batchSize=" + batchSize +
+                ", queueSize=" + queueSize +
+                ", queueDepth=" + queue.size() +
+                ", maxQueueDepth=" + maxQueueDepth.get() +
+                ", activeWriters=" + activeWriters.get() +
+                '}';
+    }
+
+    private class PendingRecord {
+
+        private final MAuditEventRecord row;
+        private final LongConsumer idConsumer;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingRecord(MAuditEventRecord row, LongConsumer idConsumer) {
+            this.row = row;
+            this.idConsumer = idConsumer;
+        }
+
+        void complete() {
+            idConsumer.accept(row.id);
+            done.complete(null);
+        }
+
+        void fail(RuntimeException e) {
+            if (mode == AuditWriteMode.ASYNC) {
+                // nobody is waiting for the result, this is the only place to report it
+                LOGGER.error("Couldn't write audit record {}: {}", row, e.toString(), e);
+            }
+            done.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.audit;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * How {@link SqaleAuditService} writes audit event records to the database.
+ * Configured by {@link com.evolveum.midpoint.repo.sqale.SqaleRepositoryConfiguration#PROPERTY_AUDIT_WRITE_MODE}.
+ */
+public enum AuditWriteMode {
+
+    /**
+     * Each record is inserted in its own transaction in the calling thread.
+     * This is the default and the traditional behavior.
+     */
+    DIRECT("direct"),
+
+    /**
+     * Records are queued and inserted in batches by background writer threads.
+     * Caller waits until the batch with its record is committed, so the record is durable
+     * and its repo ID is set when the audit method returns.
+     * Concurrent callers share one transaction (group commit).
+     */
+    GROUP_COMMIT("groupCommit"),
+
+    /**
+     * Records are queued and inserted in batches by background writer threads.
+     * Caller only waits for a free slot in the queue, not for the commit.
+     * Queued records can be lost if the node crashes and the repo ID is set later.
+     */
+    ASYNC("async");
+
+    private final String configValue;
+
+    AuditWriteMode(String configValue) {
+        this.configValue = configValue;
+    }
+
+    public String getConfigValue() {
+        return configValue;
+    }
+
+    public static @NotNull AuditWriteMode fromConfigValue(String configValue) {
+        for (AuditWriteMode mode : values()) {
+            if (mode.configValue.equalsIgnoreCase(configValue)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown audit write mode: " + configValue);
+    }
+}
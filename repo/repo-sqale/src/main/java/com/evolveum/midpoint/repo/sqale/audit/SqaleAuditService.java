@@ -22,8 +22,10 @@ import java.util.*;
 import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
 
+import com.querydsl.core.types.Path;
 import com.querydsl.sql.ColumnMetadata;
 import com.querydsl.sql.dml.DefaultMapper;
+import com.querydsl.sql.dml.Mapper;
 import com.querydsl.sql.dml.SQLInsertClause;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.Validate;
@@ -46,6 +48,7 @@ import com.evolveum.midpoint.prism.query.*;
 import com.evolveum.midpoint.prism.query.builder.S_ConditionEntry;
 import com.evolveum.midpoint.prism.query.builder.S_MatchingRuleEntry;
 import com.evolveum.midpoint.repo.api.SqlPerformanceMonitorsCollection;
+import com.evolveum.midpoint.repo.api.perf.OperationPerformanceInformation;
 import com.evolveum.midpoint.repo.sqale.*;
 import com.evolveum.midpoint.repo.sqale.audit.qmodel.*;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.MObjectType;
@@ -54,6 +57,7 @@ import com.evolveum.midpoint.repo.sqlbase.RepositoryException;
 import com.evolveum.midpoint.repo.sqlbase.RepositoryObjectParseResult;
 import com.evolveum.midpoint.repo.sqlbase.SqlQueryExecutor;
 import com.evolveum.midpoint.repo.sqlbase.perfmon.SqlPerformanceMonitorImpl;
+import com.evolveum.midpoint.schema.LabeledString;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -71,12 +75,17 @@ import com.evolveum.prism.xml.ns._public.types_3.ObjectDeltaType;
  */
 public class SqaleAuditService extends SqaleServiceBase implements AuditService {
 
+    private static final long AUDIT_WRITER_SHUTDOWN_TIMEOUT_MS = 30_000;
+
     private final SqlQueryExecutor sqlQueryExecutor;
 
     // set from SystemConfigurationAuditType
     private boolean escapeIllegalCharacters = false;
     @NotNull private OperationResultDetailLevel deltaSuccessExecutionResult = OperationResultDetailLevel.CLEANED_UP;
 
+    /** Writer for queued audit writes, null for {@link AuditWriteMode#DIRECT}. */
+    @Nullable private volatile AuditBatchWriter auditWriter;
+
     public SqaleAuditService(
             SqaleRepoContext sqlRepoContext,
             SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
@@ -91,6 +100,29 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
                 repoConfig.getPerformanceStatisticsLevel(),
                 repoConfig.getPerformanceStatisticsFile());
         sqlPerformanceMonitorsCollection.register(performanceMonitor);
+
+        auditWriter = createAuditWriter(repoConfig);
+    }
+
+    private @Nullable AuditBatchWriter createAuditWriter(SqaleRepositoryConfiguration repoConfig) {
+        return repoConfig.getAuditWriteMode() != AuditWriteMode.DIRECT
+                ? new AuditBatchWriter(this, repoConfig.getAuditWriteMode(),
+                repoConfig.getAuditWriteQueueSize(), repoConfig.getAuditWriteBatchSize(),
+                repoConfig.getAuditWriteThreads())
+                : null;
+    }
+
+    /**
+     * Shuts down the current audit writer (writing the queued records) and creates a new one
+     * for the current `auditWrite*` configuration.
+     */
+    // exists because of testing
+    public synchronized void reinitializeAuditWriter() {
+        AuditBatchWriter oldWriter = auditWriter;
+        auditWriter = createAuditWriter(repositoryConfiguration());
+        if (oldWriter != null) {
+            oldWriter.shutdown(AUDIT_WRITER_SHUTDOWN_TIMEOUT_MS);
+        }
     }
 
     @Override
@@ -113,33 +145,40 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
 
     private void executeAudit(AuditEventRecord record) {
         long opHandle = registerOperationStart(OP_AUDIT);
-        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+        try {
             record.setRepoId(null); // we want DB to assign the ID
-            MAuditEventRecord auditRow = insertAuditEventRecord(jdbcSession, record);
-            record.setRepoId(auditRow.id);
+            MAuditEventRecord auditRow = prepareAuditEventRecord(record);
 
-            insertAuditDeltas(jdbcSession, auditRow);
-            insertReferences(jdbcSession, auditRow, record.getReferences());
+            AuditBatchWriter writer = auditWriter;
+            if (writer != null) {
+                // ID is set by the writer when the record is inserted, see AuditWriteMode
+                writer.write(auditRow, record::setRepoId);
+                return;
+            }
 
-            jdbcSession.commit();
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                insertAuditEventRecords(jdbcSession, List.of(auditRow));
+                record.setRepoId(auditRow.id);
+
+                jdbcSession.commit();
+            }
         } finally {
             registerOperationFinish(opHandle);
         }
     }
 
     /**
-     * Inserts audit event record aggregate root without any subentities.
+     * Prepares audit event record aggregate root with subentities without touching the DB.
      * Traditional Sqale "insert root first, then insert children" is not optimal here,
      * because to insert root we need to collect some information from children anyway.
      * So we prepare the subentities in collections, gather the needed information
-     * (e.g. changed item paths) and then insert root entity.
-     * Subentities are inserted later out of this method.
+     * (e.g. changed item paths) and the whole aggregate is inserted later, possibly
+     * in a batch with other records, see {@link #insertAuditEventRecords}.
      *
-     * @return inserted row with transient deltas prepared for insertion
+     * @return row with transient deltas, reference values and custom column values
      */
-    private MAuditEventRecord insertAuditEventRecord(JdbcSession jdbcSession, AuditEventRecord record) {
+    private MAuditEventRecord prepareAuditEventRecord(AuditEventRecord record) {
         QAuditEventRecordMapping aerMapping = QAuditEventRecordMapping.get();
-        QAuditEventRecord aer = aerMapping.defaultAlias();
         MAuditEventRecord row = aerMapping.toRowObject(record);
 
         Collection<MAuditDelta> deltaRows = prepareDeltas(record.getDeltas());
@@ -148,7 +187,6 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
         Set<String> changedItemPaths = collectChangedItemPaths(deltaRows);
         row.changedItemPaths = changedItemPaths.isEmpty() ? null : changedItemPaths.toArray(String[]::new);
 
-        SQLInsertClause insert = jdbcSession.newInsert(aer).populate(row);
         Map<String, ColumnMetadata> customColumns = aerMapping.getExtensionColumns();
         for (Map.Entry<String, String> property : record.getCustomColumnProperty().entrySet()) {
             String propertyName = property.getKey();
@@ -156,14 +194,98 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
                 throw new IllegalArgumentException("Audit event record table doesn't"
                         + " contains column for property " + propertyName);
             }
-            // Like insert.set, but that one is too parameter-type-safe for our generic usage here.
-            insert.columns(aer.getPath(propertyName)).values(property.getValue());
+        }
+        row.customColumnValues = record.getCustomColumnProperty().isEmpty()
+                ? null : new HashMap<>(record.getCustomColumnProperty());
+
+        Map<String, Set<AuditReferenceValue>> references = record.getReferences();
+        for (String refName : references.keySet()) {
+            for (AuditReferenceValue refValue : references.get(refName)) {
+                PolyString targetName = refValue.getTargetName();
+                MAuditRefValue refRow = new MAuditRefValue();
+                refRow.name = refName;
+                refRow.targetOid = SqaleUtils.oidToUUid(refValue.getOid());
+                refRow.targetType = refValue.getType() != null
+                        ? MObjectType.fromTypeQName(refValue.getType()) : null;
+                refRow.targetNameOrig = PolyString.getOrig(targetName);
+                refRow.targetNameNorm = PolyString.getNorm(targetName);
+                row.addRefValue(refRow);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Inserts prepared audit event records including their subentities.
+     * Records without provided ID and custom columns are inserted with a single multi-row
+     * insert, others are inserted one by one.
+     * Deltas and references for all the records are inserted with a single insert as well.
+     * IDs of the inserted rows are set to {@link MAuditEventRecord#id}.
+     */
+    void insertAuditEventRecords(JdbcSession jdbcSession, List<MAuditEventRecord> rows) {
+        QAuditEventRecordMapping aerMapping = QAuditEventRecordMapping.get();
+        QAuditEventRecord aer = aerMapping.defaultAlias();
+
+        List<MAuditEventRecord> bulkRows = new ArrayList<>();
+        for (MAuditEventRecord row : rows) {
+            if (row.id == null && row.customColumnValues == null) {
+                bulkRows.add(row);
+            } else {
+                insertSingleAuditEventRecord(jdbcSession, aer, row);
+            }
+        }
+
+        if (bulkRows.size() == 1) {
+            insertSingleAuditEventRecord(jdbcSession, aer, bulkRows.get(0));
+        } else if (!bulkRows.isEmpty()) {
+            SQLInsertClause insertBatch = jdbcSession.newInsert(aer);
+            for (MAuditEventRecord row : bulkRows) {
+                // NULLs are important to keep the value count consistent during the batch,
+                // but ID must be left out to be generated by the DB.
+                insertBatch.populate(row, AUDIT_ROW_BULK_MAPPER).addBatch();
+            }
+            insertBatch.setBatchToBulk(true);
+            List<Long> ids = insertBatch.executeWithKeys(aer.id);
+            if (ids.size() != bulkRows.size()) {
+                throw new SystemException("Audit bulk insert returned " + ids.size()
+                        + " IDs for " + bulkRows.size() + " records");
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                bulkRows.get(i).id = ids.get(i);
+            }
+        }
+
+        insertAuditDeltas(jdbcSession, rows);
+        insertReferences(jdbcSession, rows);
+    }
+
+    /**
+     * Mapper for multi-row insert which binds nulls (to keep the same columns for all rows)
+     * except for the ID which must not be present at all to be generated.
+     */
+    private static final Mapper<MAuditEventRecord> AUDIT_ROW_BULK_MAPPER =
+            (relationalPath, row) -> {
+                Map<Path<?>, Object> values =
+                        DefaultMapper.WITH_NULL_BINDINGS.createMap(relationalPath, row);
+                values.remove(((QAuditEventRecord) relationalPath).id);
+                return values;
+            };
+
+    private void insertSingleAuditEventRecord(
+            JdbcSession jdbcSession, QAuditEventRecord aer, MAuditEventRecord row) {
+        SQLInsertClause insert = jdbcSession.newInsert(aer).populate(row);
+        if (row.customColumnValues != null) {
+            for (Map.Entry<String, String> property : row.customColumnValues.entrySet()) {
+                // Like insert.set, but that one is too parameter-type-safe for our generic usage here.
+                insert.columns(aer.getPath(property.getKey())).values(property.getValue());
+            }
         }
 
         Long returnedId = insert.executeWithKey(aer.id);
         // If returned ID is null, it was likely provided, so we use that one.
-        row.id = returnedId != null ? returnedId : record.getRepoId();
-        return row;
+        if (returnedId != null) {
+            row.id = returnedId;
+        }
     }
 
     private Collection<MAuditDelta> prepareDeltas(Collection<ObjectDeltaOperation<?>> deltas) {
@@ -313,11 +435,11 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
     }
 
     private void insertAuditDeltas(
-            JdbcSession jdbcSession, MAuditEventRecord auditRow) {
+            JdbcSession jdbcSession, List<MAuditEventRecord> auditRows) {
 
-        if (!auditRow.deltas.isEmpty()) {
-            SQLInsertClause insertBatch = jdbcSession.newInsert(
-                    QAuditDeltaMapping.get().defaultAlias());
+        SQLInsertClause insertBatch = jdbcSession.newInsert(
+                QAuditDeltaMapping.get().defaultAlias());
+        for (MAuditEventRecord auditRow : auditRows) {
             for (MAuditDelta deltaRow : auditRow.deltas) {
                 deltaRow.recordId = auditRow.id;
                 deltaRow.timestamp = auditRow.timestamp;
@@ -325,36 +447,39 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
                 // NULLs are important to keep the value count consistent during the batch
                 insertBatch.populate(deltaRow, DefaultMapper.WITH_NULL_BINDINGS).addBatch();
             }
-            insertBatch.setBatchToBulk(true);
-            insertBatch.execute();
         }
-    }
-
-    private void insertReferences(JdbcSession jdbcSession,
-            MAuditEventRecord auditRow, Map<String, Set<AuditReferenceValue>> references) {
-        if (references.isEmpty()) {
+        if (insertBatch.getBatchCount() == 0) {
             return;
         }
 
+        insertBatch.setBatchToBulk(true);
+        insertBatch.execute();
+    }
+
+    private void insertReferences(JdbcSession jdbcSession, List<MAuditEventRecord> auditRows) {
         QAuditRefValue qr = QAuditRefValueMapping.get().defaultAlias();
         SQLInsertClause insertBatch = jdbcSession.newInsert(qr);
-        for (String refName : references.keySet()) {
-            for (AuditReferenceValue refValue : references.get(refName)) {
-                // id will be generated, but we're not interested in those here
-                PolyString targetName = refValue.getTargetName();
-                insertBatch.set(qr.recordId, auditRow.id)
-                        .set(qr.timestamp, auditRow.timestamp)
-                        .set(qr.name, refName)
-                        .set(qr.targetOid, SqaleUtils.oidToUUid(refValue.getOid()))
-                        .set(qr.targetType, refValue.getType() != null
-                                ? MObjectType.fromTypeQName(refValue.getType()) : null)
-                        .set(qr.targetNameOrig, PolyString.getOrig(targetName))
-                        .set(qr.targetNameNorm, PolyString.getNorm(targetName))
-                        .addBatch();
+        for (MAuditEventRecord auditRow : auditRows) {
+            if (auditRow.refValues == null) {
+                continue;
+            }
+
+            for (List<MAuditRefValue> refValues : auditRow.refValues.values()) {
+                for (MAuditRefValue refValue : refValues) {
+                    // id will be generated, but we're not interested in those here
+                    insertBatch.set(qr.recordId, auditRow.id)
+                            .set(qr.timestamp, auditRow.timestamp)
+                            .set(qr.name, refValue.name)
+                            .set(qr.targetOid, refValue.targetOid)
+                            .set(qr.targetType, refValue.targetType)
+                            .set(qr.targetNameOrig, refValue.targetNameOrig)
+                            .set(qr.targetNameNorm, refValue.targetNameNorm)
+                            .addBatch();
+                }
             }
         }
         if (insertBatch.getBatchCount() == 0) {
-            return; // strange, no values anywhere?
+            return; // no values anywhere
         }
 
         insertBatch.setBatchToBulk(true);
@@ -819,4 +944,58 @@ public class SqaleAuditService extends SqaleServiceBase implements AuditService
     protected long registerOperationStart(String kind) {
         return registerOperationStart(kind, AuditEventRecordType.class);
     }
+
+    // overridden to make it available for AuditBatchWriter
+    @Override
+    protected void registerOperationFinish(long opHandle) {
+        super.registerOperationFinish(opHandle);
+    }
+
+    /**
+     * Returns details about audit writing for repository diagnostics: write mode, queue depth
+     * of the batch writer (if used) and flush statistics from the performance monitor
+     * (if global statistics are collected).
+     */
+    public List<LabeledString> getDiagnosticDetails() {
+        List<LabeledString> details = new ArrayList<>();
+        AuditBatchWriter writer = auditWriter;
+        if (writer == null) {
+            details.add(new LabeledString("audit.writeMode", AuditWriteMode.DIRECT.toString()));
+            return details;
+        }
+
+        details.add(new LabeledString("audit.writeMode", writer.getMode().toString()));
+        details.add(new LabeledString("audit.queueSize", String.valueOf(writer.getQueueSize())));
+        details.add(new LabeledString("audit.queueDepth", String.valueOf(writer.getQueueDepth())));
+        details.add(new LabeledString("audit.maxQueueDepth", String.valueOf(writer.getMaxQueueDepth())));
+
+        SqlPerformanceMonitorImpl monitor = performanceMonitor;
+        if (monitor != null) {
+            // key may be suffixed with the object type, if statistics are collected per object type
+            String flushKey = opNamePrefix + AuditBatchWriter.OP_FLUSH;
+            int flushCount = 0;
+            long flushTotalTime = 0;
+            for (Map.Entry<String, OperationPerformanceInformation> entry
+                    : monitor.getGlobalPerformanceInformation().getAllData().entrySet()) {
+                if (entry.getKey().startsWith(flushKey)) {
+                    flushCount += entry.getValue().getInvocationCount();
+                    flushTotalTime += entry.getValue().getTotalTime();
+                }
+            }
+            if (flushCount > 0) {
+                details.add(new LabeledString("audit.flushCount", String.valueOf(flushCount)));
+                details.add(new LabeledString("audit.flushTotalTimeMs", String.valueOf(flushTotalTime)));
+            }
+        }
+        return details;
+    }
+
+    @Override
+    public void destroy() {
+        AuditBatchWriter writer = auditWriter;
+        if (writer != null) {
+            writer.shutdown(AUDIT_WRITER_SHUTDOWN_TIMEOUT_MS);
+        }
+        super.destroy();
+    }
 }
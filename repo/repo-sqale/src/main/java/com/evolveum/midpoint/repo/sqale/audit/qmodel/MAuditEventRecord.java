@@ -57,6 +57,8 @@ public class MAuditEventRecord {
     // "transient" fields not used by Querydsl
     public Collection<MAuditDelta> deltas;
     public Map<String, List<MAuditRefValue>> refValues;
+    // values for custom (extension) columns, null if there are none
+    public Map<String, String> customColumnValues;
 
     public void addDelta(MAuditDelta mAuditDelta) {
         if (deltas == null) {
@@ -88,7 +88,7 @@ public class QAccessCertificationCampaignMapping
 
     @Override
     protected Collection<? extends QName> fullObjectItemsToSkip() {
-        return Collections.singletonList(F_CASE);
+        return withItemToSkip(super.fullObjectItemsToSkip(), F_CASE);
     }
 
     @Override
@@ -143,10 +143,12 @@ public class QAccessCertificationCampaignMapping
     }
 
     @Override
-    public AccessCertificationCampaignType toSchemaObject(Tuple rowTuple, QAccessCertificationCampaign entityPath,
+    protected AccessCertificationCampaignType completeSchemaObject(AccessCertificationCampaignType object,
+            Tuple rowTuple, QAccessCertificationCampaign entityPath,
             Collection<SelectorOptions<GetOperationOptions>> options, @NotNull JdbcSession jdbcSession,
             boolean forceFull) throws SchemaException {
-        AccessCertificationCampaignType base = super.toSchemaObject(rowTuple, entityPath, options, jdbcSession, forceFull);
+        AccessCertificationCampaignType base =
+                super.completeSchemaObject(object, rowTuple, entityPath, options, jdbcSession, forceFull);
         if (forceFull || shouldLoadCases(options)) {
             loadCases(base, options, jdbcSession, forceFull);
         }
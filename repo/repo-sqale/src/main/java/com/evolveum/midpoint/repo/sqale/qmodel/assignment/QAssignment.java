@@ -116,6 +116,8 @@ public class QAssignment<OR extends MObject> extends QContainer<MAssignment, OR>
             ColumnMetadata.named("modifyChannelId").ofType(Types.INTEGER);
     public static final ColumnMetadata MODIFY_TIMESTAMP =
             ColumnMetadata.named("modifyTimestamp").ofType(Types.TIMESTAMP_WITH_TIMEZONE);
+    public static final ColumnMetadata FULL_OBJECT =
+            ColumnMetadata.named("fullObject").ofType(Types.BINARY);
 
     // attributes
 
@@ -192,6 +194,7 @@ public class QAssignment<OR extends MObject> extends QContainer<MAssignment, OR>
             createInteger("modifyChannelId", MODIFY_CHANNEL_ID);
     public final DateTimePath<Instant> modifyTimestamp =
             createInstant("modifyTimestamp", MODIFY_TIMESTAMP);
+    public final ArrayPath<byte[], Byte> fullObject = createByteArray("fullObject", FULL_OBJECT);
 
     public QAssignment(String variable) {
         this(variable, DEFAULT_SCHEMA_NAME, TABLE_NAME);
@@ -11,9 +11,14 @@ import static com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentTyp
 
 import java.util.Objects;
 
+import com.querydsl.core.types.dsl.ArrayPath;
+import com.querydsl.core.types.dsl.BooleanExpression;
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoContext;
 import com.evolveum.midpoint.repo.sqale.qmodel.common.MContainerType;
 import com.evolveum.midpoint.repo.sqale.qmodel.common.QContainerMapping;
@@ -23,10 +28,14 @@ import com.evolveum.midpoint.repo.sqale.qmodel.object.MObject;
 import com.evolveum.midpoint.repo.sqale.qmodel.object.QAssignmentHolderMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.resource.QResourceMapping;
+import com.evolveum.midpoint.repo.sqale.update.SqaleUpdateContext;
 import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
 import com.evolveum.midpoint.repo.sqlbase.mapping.TableRelationResolver;
 import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractRoleType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentHolderType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ConstructionType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.MetadataType;
@@ -179,7 +188,12 @@ public class QAssignmentMapping<OR extends MObject>
     }
 
     @Override
-    public AssignmentType toSchemaObject(MAssignment row) {
+    public AssignmentType toSchemaObject(MAssignment row) throws SchemaException {
+        if (row.fullObject != null) {
+            // stored outside the owner's full object, the serialized form is complete
+            return parseSchemaObject(row.fullObject, row.ownerOid + "," + row.cid);
+        }
+
         // TODO is there any place we can put row.ownerOid reasonably?
         //  repositoryContext().prismContext().itemFactory().createObject(... definition?)
         //  assignment.asPrismContainerValue().setParent(new ObjectType().oid(own)); abstract not possible
@@ -270,7 +284,8 @@ public class QAssignmentMapping<OR extends MObject>
     // about duplication see the comment in QObjectMapping.toRowObjectWithoutFullObject
     @SuppressWarnings("DuplicatedCode")
     @Override
-    public MAssignment insert(AssignmentType assignment, OR ownerRow, JdbcSession jdbcSession) {
+    public MAssignment insert(AssignmentType assignment, OR ownerRow, JdbcSession jdbcSession)
+            throws SchemaException {
         MAssignment row = initRowObject(assignment, ownerRow);
 
         row.lifecycleState = assignment.getLifecycleState();
@@ -331,6 +346,10 @@ public class QAssignmentMapping<OR extends MObject>
             row.modifyTimestamp = MiscUtil.asInstant(metadata.getModifyTimestamp());
         }
 
+        if (repositoryContext().isStoreContainersSeparately()) {
+            row.fullObject = createFullObject(assignment);
+        }
+
         // insert before treating sub-entities
         insert(row, jdbcSession);
 
@@ -343,4 +362,40 @@ public class QAssignmentMapping<OR extends MObject>
 
         return row;
     }
+
+    @Override
+    public void afterModify(
+            SqaleUpdateContext<AssignmentType, QAssignment<OR>, MAssignment> updateContext)
+            throws SchemaException {
+        if (!repositoryContext().isStoreContainersSeparately()) {
+            return;
+        }
+
+        PrismContainer<AssignmentType> container = updateContext.findValueOrItem(itemName());
+        // row in context already knows its CID
+        PrismContainerValue<AssignmentType> value =
+                container != null ? container.findValue(updateContext.row().cid) : null;
+        if (value != null) {
+            updateContext.set(updateContext.entityPath().fullObject,
+                    createFullObject(value.asContainerable()));
+        }
+    }
+
+    @Override
+    public ArrayPath<byte[], Byte> fullObjectPath(QAssignment<OR> entityPath) {
+        return entityPath.fullObject;
+    }
+
+    @Override
+    protected BooleanExpression ownedByPredicate(
+            QAssignment<OR> entityPath, BooleanExpression ownerOidPredicate) {
+        return super.ownedByPredicate(entityPath, ownerOidPredicate)
+                .and(entityPath.containerType.eq(containerType));
+    }
+
+    private ItemName itemName() {
+        return containerType == MContainerType.INDUCEMENT
+                ? AbstractRoleType.F_INDUCEMENT
+                : AssignmentHolderType.F_ASSIGNMENT;
+    }
 }
@@ -6,14 +6,22 @@
  */
 package com.evolveum.midpoint.repo.sqale.qmodel.common;
 
+import java.util.*;
+
+import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.ArrayPath;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.Expressions;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoContext;
 import com.evolveum.midpoint.repo.sqale.mapping.QOwnedByMapping;
 import com.evolveum.midpoint.repo.sqale.mapping.SqaleTableMapping;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QObjectMapping;
 import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
 import com.evolveum.midpoint.util.exception.SchemaException;
 
@@ -95,4 +103,67 @@ public class QContainerMapping<S extends Containerable, Q extends QContainer<R,
     public Predicate containerIdentityPredicate(Q entityPath, S container) {
         return entityPath.cid.eq(container.asPrismContainerValue().getId());
     }
+
+    /**
+     * Returns the column with serialized container value for containers that can be stored
+     * outside the full object of the owner, see {@link QObjectMapping#addSeparatelyStoredContainer}.
+     * Returns null by default, such containers are always stored in the full object of the owner.
+     */
+    public @Nullable ArrayPath<byte[], Byte> fullObjectPath(Q entityPath) {
+        return null;
+    }
+
+    /**
+     * Predicate for the rows owned by the owners matching the provided owner OID condition.
+     * Override it if the table contains more containers of the same owner.
+     */
+    protected BooleanExpression ownedByPredicate(Q entityPath, BooleanExpression ownerOidPredicate) {
+        return ownerOidPredicate;
+    }
+
+    /**
+     * Loads container values of the owners from their serialized form, ordered by CID.
+     * All the owners are covered by a single query, so this can be used for the whole page of search results.
+     * Rows without the serialized form (stored while the value was part of the owner's
+     * full object) are ignored; owners without any values are not in the returned map.
+     */
+    public Map<UUID, List<S>> loadSerializedValues(
+            @NotNull Collection<UUID> ownerOids, @NotNull JdbcSession jdbcSession)
+            throws SchemaException {
+        Map<UUID, List<S>> values = new HashMap<>();
+        if (ownerOids.isEmpty()) {
+            return values;
+        }
+
+        Q q = defaultAlias();
+        ArrayPath<byte[], Byte> fullObjectPath = Objects.requireNonNull(fullObjectPath(q));
+        // Single array parameter, so the statement is the same regardless of the number of owners.
+        List<Tuple> rows = jdbcSession.newQuery()
+                .select(q.ownerOid, q.cid, fullObjectPath)
+                .from(q)
+                .where(ownedByPredicate(q,
+                        Expressions.booleanTemplate("{0} = any ({1})",
+                                q.ownerOid, ownerOids.toArray(new UUID[0])))
+                        .and(fullObjectPath.isNotNull()))
+                .orderBy(q.ownerOid.asc(), q.cid.asc())
+                .fetch();
+        for (Tuple row : rows) {
+            UUID ownerOid = Objects.requireNonNull(row.get(q.ownerOid));
+            values.computeIfAbsent(ownerOid, k -> new ArrayList<>())
+                    .add(parseSchemaObject(row.get(fullObjectPath), ownerOid + "," + row.get(q.cid)));
+        }
+        return values;
+    }
+
+    /** Updates the serialized form of existing container value in its row. */
+    public void updateSerializedValue(
+            @NotNull UUID ownerOid, @NotNull S container, @NotNull JdbcSession jdbcSession)
+            throws SchemaException {
+        Q q = defaultAlias();
+        jdbcSession.newUpdate(q)
+                .set(Objects.requireNonNull(fullObjectPath(q)), createFullObject(container))
+                .where(ownedByPredicate(q, q.ownerOid.eq(ownerOid))
+                        .and(containerIdentityPredicate(q, container)))
+                .execute();
+    }
 }
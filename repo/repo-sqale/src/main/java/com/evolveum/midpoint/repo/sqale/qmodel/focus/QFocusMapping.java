@@ -9,7 +9,6 @@ package com.evolveum.midpoint.repo.sqale.qmodel.focus;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType.*;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Objects;
 import javax.xml.namespace.QName;
 
@@ -134,7 +133,7 @@ public class QFocusMapping<S extends FocusType, Q extends QFocus<R>, R extends M
 
     @Override
     protected Collection<? extends QName> fullObjectItemsToSkip() {
-        return Collections.singletonList(F_JPEG_PHOTO);
+        return withItemToSkip(super.fullObjectItemsToSkip(), F_JPEG_PHOTO);
     }
 
     @SuppressWarnings("DuplicatedCode") // activation code duplicated with assignment
@@ -95,14 +95,14 @@ public class QLookupTableMapping
 
     @Override
     protected Collection<? extends QName> fullObjectItemsToSkip() {
-        return Collections.singleton(F_ROW);
+        return withItemToSkip(super.fullObjectItemsToSkip(), F_ROW);
     }
 
     @Override
-    public LookupTableType toSchemaObject(
+    protected LookupTableType completeSchemaObject(LookupTableType object,
             Tuple rowTuple, QLookupTable entityPath, Collection<SelectorOptions<GetOperationOptions>> options,
             @NotNull JdbcSession session, boolean forceFull) throws SchemaException {
-        LookupTableType base = super.toSchemaObject(rowTuple, entityPath, options, session, forceFull);
+        LookupTableType base = super.completeSchemaObject(object, rowTuple, entityPath, options, session, forceFull);
 
         if (forceFull || SelectorOptions.hasToLoadPath(F_ROW, options)) {
             @Nullable GetOperationOptions rowOptions = findLookupTableGetOption(options);
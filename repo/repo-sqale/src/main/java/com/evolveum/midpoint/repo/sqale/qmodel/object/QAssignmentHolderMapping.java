@@ -62,6 +62,8 @@ public class QAssignmentHolderMapping<
                 QAssignmentMapping.initAssignmentMapping(repositoryContext),
                 joinOn((o, a) -> o.oid.eq(a.ownerOid)
                         .and(a.containerType.eq(MContainerType.ASSIGNMENT))));
+        addSeparatelyStoredContainer(AssignmentHolderType.F_ASSIGNMENT,
+                QAssignmentMapping.getAssignmentMapping(), true);
 
         addRefMapping(F_ARCHETYPE_REF, QObjectReferenceMapping.initForArchetype(repositoryContext));
         addRefMapping(F_DELEGATED_REF, QObjectReferenceMapping.initForDelegated(repositoryContext));
@@ -81,9 +83,8 @@ public class QAssignmentHolderMapping<
         super.storeRelatedEntities(row, schemaObject, jdbcSession);
 
         List<AssignmentType> assignments = schemaObject.getAssignment();
-        if (!assignments.isEmpty()) {
-            assignments.forEach(assignment ->
-                    QAssignmentMapping.getAssignmentMapping().insert(assignment, row, jdbcSession));
+        for (AssignmentType assignment : assignments) {
+            QAssignmentMapping.getAssignmentMapping().insert(assignment, row, jdbcSession);
         }
 
         storeRefs(row, schemaObject.getArchetypeRef(),
@@ -8,30 +8,38 @@ package com.evolveum.midpoint.repo.sqale.qmodel.object;
 
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentHolderType.*;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
+import java.util.*;
+import javax.xml.namespace.QName;
 
 import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Path;
 import org.jetbrains.annotations.NotNull;
 
+import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismContainerValue;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.repo.api.RepositoryObjectDiagnosticData;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoContext;
 import com.evolveum.midpoint.repo.sqale.SqaleUtils;
 import com.evolveum.midpoint.repo.sqale.mapping.SqaleTableMapping;
+import com.evolveum.midpoint.repo.sqale.qmodel.common.QContainerMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.common.QUri;
 import com.evolveum.midpoint.repo.sqale.qmodel.ext.MExtItemHolderType;
 import com.evolveum.midpoint.repo.sqale.qmodel.focus.QUserMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReferenceMapping;
 import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.repo.sqlbase.SqlQueryContext;
 import com.evolveum.midpoint.repo.sqlbase.mapping.RepositoryMappingException;
+import com.evolveum.midpoint.repo.sqlbase.mapping.ResultListRowTransformer;
 import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.GetOperationOptionsBuilder;
+import com.evolveum.midpoint.schema.SchemaService;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.util.MiscUtil;
 import com.evolveum.midpoint.util.exception.SchemaException;
@@ -53,8 +61,15 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
 
     public static final String DEFAULT_ALIAS_NAME = "o";
 
+    /** User data key for containers that were read from the full object, see {@link #migrateContainersFromFullObject}. */
+    private static final String KEY_CONTAINERS_IN_FULL_OBJECT =
+            QObjectMapping.class.getName() + ".containersInFullObject";
+
     private static QObjectMapping<?, ?, ?> instance;
 
+    /** Containers that can be stored outside the full object, see {@link #addSeparatelyStoredContainer}. */
+    private final Map<ItemName, SeparatelyStoredContainer> separatelyStoredContainers = new LinkedHashMap<>();
+
     // Explanation in class Javadoc for SqaleTableMapping
     public static QObjectMapping<?, ?, ?> initObjectMapping(@NotNull SqaleRepoContext repositoryContext) {
         instance = new QObjectMapping<>(
@@ -126,6 +141,22 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
         addContainerTableMapping(F_TRIGGER,
                 QTriggerMapping.init(repositoryContext),
                 joinOn((o, trg) -> o.oid.eq(trg.ownerOid)));
+
+        addSeparatelyStoredContainer(F_OPERATION_EXECUTION, QOperationExecutionMapping.get(), true);
+    }
+
+    /**
+     * Registers multi-value container which is stored only in its container table (each value
+     * serialized in its own row) instead of the full object, if enabled by
+     * {@link SqaleRepoContext#isStoreContainersSeparately()}.
+     * Container mapping must provide {@link QContainerMapping#fullObjectPath}.
+     *
+     * @param retrievedByDefault whether the values are read when not mentioned in the retrieve options
+     */
+    protected void addSeparatelyStoredContainer(@NotNull ItemName itemName,
+            @NotNull QContainerMapping<?, ?, ?, ?> containerMapping, boolean retrievedByDefault) {
+        separatelyStoredContainers.put(itemName,
+                new SeparatelyStoredContainer(containerMapping, retrievedByDefault));
     }
 
     @Override
@@ -146,6 +177,43 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
         return (R) new MObject();
     }
 
+    @Override
+    protected Collection<? extends QName> fullObjectItemsToSkip() {
+        return repositoryContext().isStoreContainersSeparately()
+                ? separatelyStoredContainers.keySet()
+                : Collections.emptyList();
+    }
+
+    /** Helper for subclasses adding their own item to {@link #fullObjectItemsToSkip()} of the superclass. */
+    protected Collection<QName> withItemToSkip(Collection<? extends QName> itemsToSkip, QName item) {
+        List<QName> result = new ArrayList<>(itemsToSkip);
+        result.add(item);
+        return result;
+    }
+
+    @Override
+    public Collection<SelectorOptions<GetOperationOptions>> updateGetOptions(
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull Collection<? extends ItemDelta<?, ?>> modifications) {
+        Collection<SelectorOptions<GetOperationOptions>> ret = super.updateGetOptions(options, modifications);
+        if (!repositoryContext().isStoreContainersSeparately()) {
+            return ret;
+        }
+
+        // Modified containers must be loaded for narrowing of the modifications and deletion by value.
+        // Other containers are not needed for the update, they are not loaded at all and are marked
+        // as incomplete in the object (also in the object after the modification).
+        ret = new ArrayList<>(ret);
+        for (ItemName itemName : separatelyStoredContainers.keySet()) {
+            boolean modified = modifications.stream()
+                    .anyMatch(modification -> itemName.isSubPathOrEquivalent(modification.getPath()));
+            GetOperationOptionsBuilder optionsBuilder =
+                    SchemaService.get().getOperationOptionsBuilder().item(itemName);
+            ret.addAll((modified ? optionsBuilder.retrieve() : optionsBuilder.dontRetrieve()).build());
+        }
+        return ret;
+    }
+
     // region transformation
     @Override
     public S toSchemaObject(Tuple row, Q entityPath,
@@ -161,6 +229,202 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
         return ret;
     }
 
+    /**
+     * Adds separately stored containers to the object read from the full object
+     * and completes it, see {@link #completeSchemaObject}.
+     */
+    @Override
+    public S toSchemaObject(
+            Tuple rowTuple,
+            Q entityPath,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull JdbcSession jdbcSession,
+            boolean forceFull) throws SchemaException {
+        S ret = toSchemaObject(rowTuple, entityPath, options);
+        if (repositoryContext().isStoreContainersSeparately()) {
+            loadSeparatelyStoredContainers(List.of(ret), options, jdbcSession, forceFull);
+        }
+        return completeSchemaObject(ret, rowTuple, entityPath, options, jdbcSession, forceFull);
+    }
+
+    /**
+     * Finishes the object read from the full object, after separately stored containers were added
+     * (names may be requested for references inside the containers).
+     * Override this to add other data stored outside the full object; call this super version first.
+     */
+    protected S completeSchemaObject(
+            S object,
+            Tuple rowTuple,
+            Q entityPath,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull JdbcSession jdbcSession,
+            boolean forceFull) throws SchemaException {
+        return resolveNames(object, jdbcSession, options);
+    }
+
+    /**
+     * Transforms rows of more objects, loading their separately stored containers for all of them at once.
+     * Fails if any of the objects can't be read, like {@link #toSchemaObject} does.
+     */
+    public List<S> toSchemaObjects(
+            List<Tuple> rowTuples,
+            Q entityPath,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull JdbcSession jdbcSession) throws SchemaException {
+        List<S> objects = new ArrayList<>(rowTuples.size());
+        for (Tuple rowTuple : rowTuples) {
+            objects.add(toSchemaObject(rowTuple, entityPath, options));
+        }
+        if (repositoryContext().isStoreContainersSeparately()) {
+            loadSeparatelyStoredContainers(objects, options, jdbcSession, false);
+        }
+        for (int i = 0; i < objects.size(); i++) {
+            objects.set(i, completeSchemaObject(
+                    objects.get(i), rowTuples.get(i), entityPath, options, jdbcSession, false));
+        }
+        return objects;
+    }
+
+    /**
+     * With separately stored containers, all objects of the result page are read before the transformation,
+     * so that the containers are loaded with one query per container instead of one query per object.
+     * Objects that can't be read are left for {@link #toSchemaObjectSafe} which replaces them.
+     */
+    @Override
+    public ResultListRowTransformer<S, Q, R> createRowTransformer(
+            SqlQueryContext<S, Q, R> sqlQueryContext, JdbcSession jdbcSession) {
+        if (!repositoryContext().isStoreContainersSeparately()) {
+            return super.createRowTransformer(sqlQueryContext, jdbcSession);
+        }
+
+        Map<Tuple, S> objects = new IdentityHashMap<>();
+        return new ResultListRowTransformer<>() {
+            @Override
+            public void beforeTransformation(List<Tuple> rowTuples, Q entityPath) throws SchemaException {
+                Collection<SelectorOptions<GetOperationOptions>> options = sqlQueryContext.options();
+                for (Tuple rowTuple : rowTuples) {
+                    try {
+                        objects.put(rowTuple, toSchemaObject(rowTuple, entityPath, options));
+                    } catch (SchemaException e) {
+                        // will be reported when transformed
+                    }
+                }
+                loadSeparatelyStoredContainers(objects.values(), options, jdbcSession, false);
+                for (Map.Entry<Tuple, S> entry : objects.entrySet()) {
+                    try {
+                        entry.setValue(completeSchemaObject(
+                                entry.getValue(), entry.getKey(), entityPath, options, jdbcSession, false));
+                    } catch (SchemaException e) {
+                        entry.setValue(null);
+                    }
+                }
+            }
+
+            @Override
+            public S transform(Tuple rowTuple, Q entityPath,
+                    Collection<SelectorOptions<GetOperationOptions>> options) {
+                S object = objects.get(rowTuple);
+                return object != null
+                        ? object
+                        : toSchemaObjectSafe(rowTuple, entityPath, options, jdbcSession, false);
+            }
+        };
+    }
+
+    /**
+     * Loads separately stored containers of the objects, with a single query for each container.
+     * Objects may be of various subtypes when searching for a supertype, the containers are those
+     * of the actual object type.
+     */
+    private void loadSeparatelyStoredContainers(Collection<? extends ObjectType> objects,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull JdbcSession jdbcSession, boolean forceFull) throws SchemaException {
+        Map<UUID, PrismObject<?>> objectsToLoad = new HashMap<>();
+        Map<ItemName, QContainerMapping<?, ?, ?, ?>> containersToLoad = new LinkedHashMap<>();
+        Map<ItemName, Set<UUID>> ownersToLoad = new HashMap<>();
+        for (ObjectType object : objects) {
+            PrismObject<?> prismObject = object.asPrismObject();
+            Set<ItemName> containersInFullObject = new HashSet<>();
+            for (Map.Entry<ItemName, SeparatelyStoredContainer> entry
+                    : mappingFor(object).separatelyStoredContainers.entrySet()) {
+                ItemName itemName = entry.getKey();
+                PrismContainer<Containerable> container = prismObject.findContainer(itemName);
+                if (container != null && !container.isEmpty()) {
+                    // Stored before the separate storage was enabled, rows don't have the serialized values.
+                    containersInFullObject.add(itemName);
+                } else if (forceFull
+                        || SelectorOptions.hasToLoadPath(itemName, options, entry.getValue().retrievedByDefault)) {
+                    UUID oid = SqaleUtils.oidToUUid(object.getOid());
+                    objectsToLoad.put(oid, prismObject);
+                    containersToLoad.put(itemName, entry.getValue().mapping);
+                    ownersToLoad.computeIfAbsent(itemName, k -> new HashSet<>()).add(oid);
+                } else {
+                    // We don't know whether there are any values, the container is incomplete.
+                    prismObject.findOrCreateContainer(itemName).setIncomplete(true);
+                }
+            }
+            if (!containersInFullObject.isEmpty()) {
+                prismObject.setUserData(KEY_CONTAINERS_IN_FULL_OBJECT, containersInFullObject);
+            }
+        }
+
+        for (Map.Entry<ItemName, QContainerMapping<?, ?, ?, ?>> entry : containersToLoad.entrySet()) {
+            ItemName itemName = entry.getKey();
+            Map<UUID, ? extends List<? extends Containerable>> values =
+                    entry.getValue().loadSerializedValues(ownersToLoad.get(itemName), jdbcSession);
+            for (Map.Entry<UUID, ? extends List<? extends Containerable>> ownerValues : values.entrySet()) {
+                PrismContainer<Containerable> container =
+                        objectsToLoad.get(ownerValues.getKey()).findOrCreateContainer(itemName);
+                for (Containerable value : ownerValues.getValue()) {
+                    //noinspection unchecked
+                    container.add(value.asPrismContainerValue());
+                }
+            }
+        }
+    }
+
+    private QObjectMapping<?, ?, ?> mappingFor(ObjectType object) {
+        Class<? extends ObjectType> type = object.getClass();
+        if (type == schemaType()) {
+            return this;
+        }
+        Object mapping = repositoryContext().getMappingBySchemaType(type);
+        return mapping instanceof QObjectMapping ? (QObjectMapping<?, ?, ?>) mapping : this;
+    }
+
+    /**
+     * Stores serialized values of the containers that were read from the full object, because
+     * the object was stored before {@link SqaleRepoContext#isStoreContainersSeparately()} was enabled.
+     * This must be called before the full object is updated, as the new one does not contain them.
+     */
+    public void migrateContainersFromFullObject(
+            @NotNull PrismObject<S> object, @NotNull JdbcSession jdbcSession) throws SchemaException {
+        //noinspection unchecked
+        Set<ItemName> containersInFullObject = (Set<ItemName>) object.getUserData(KEY_CONTAINERS_IN_FULL_OBJECT);
+        if (containersInFullObject == null || !repositoryContext().isStoreContainersSeparately()) {
+            return;
+        }
+
+        UUID oid = SqaleUtils.oidToUUid(object.getOid());
+        for (ItemName itemName : containersInFullObject) {
+            PrismContainer<Containerable> container = object.findContainer(itemName);
+            if (container != null) {
+                updateSerializedValues(separatelyStoredContainers.get(itemName).mapping,
+                        oid, container, jdbcSession);
+            }
+        }
+        object.setUserData(KEY_CONTAINERS_IN_FULL_OBJECT, null);
+    }
+
+    private <C extends Containerable> void updateSerializedValues(
+            QContainerMapping<C, ?, ?, ?> mapping, UUID ownerOid,
+            PrismContainer<Containerable> container, JdbcSession jdbcSession) throws SchemaException {
+        for (PrismContainerValue<Containerable> value : container.getValues()) {
+            //noinspection unchecked
+            mapping.updateSerializedValue(ownerOid, (C) value.asContainerable(), jdbcSession);
+        }
+    }
+
     /**
      * The same function as in overridden method, but softer exception handling.
      * This targets cases like {@link RepositoryService#searchObjects} where single wrong object
@@ -278,9 +542,8 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
         }
 
         List<OperationExecutionType> operationExecutions = schemaObject.getOperationExecution();
-        if (!operationExecutions.isEmpty()) {
-            operationExecutions.forEach(oe ->
-                    QOperationExecutionMapping.get().insert(oe, row, jdbcSession));
+        for (OperationExecutionType operationExecution : operationExecutions) {
+            QOperationExecutionMapping.get().insert(operationExecution, row, jdbcSession);
         }
 
         storeRefs(row, schemaObject.getParentOrgRef(),
@@ -299,4 +562,15 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
         row.fullObject = createFullObject(schemaObject);
     }
     // endregion
+
+    private static class SeparatelyStoredContainer {
+        private final QContainerMapping<?, ?, ?, ?> mapping;
+        private final boolean retrievedByDefault;
+
+        private SeparatelyStoredContainer(
+                QContainerMapping<?, ?, ?, ?> mapping, boolean retrievedByDefault) {
+            this.mapping = mapping;
+            this.retrievedByDefault = retrievedByDefault;
+        }
+    }
 }
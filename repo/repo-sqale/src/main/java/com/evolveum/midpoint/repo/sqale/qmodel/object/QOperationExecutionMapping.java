@@ -12,6 +12,7 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.ArrayPath;
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.PrismConstants;
@@ -21,6 +22,7 @@ import com.evolveum.midpoint.repo.sqale.SqaleRepoContext;
 import com.evolveum.midpoint.repo.sqale.qmodel.common.QContainerMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.focus.QFocusMapping;
 import com.evolveum.midpoint.repo.sqale.qmodel.task.QTaskMapping;
+import com.evolveum.midpoint.repo.sqale.update.SqaleUpdateContext;
 import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
 import com.evolveum.midpoint.repo.sqlbase.SqlQueryContext;
 import com.evolveum.midpoint.repo.sqlbase.mapping.ResultListRowTransformer;
@@ -105,7 +107,8 @@ public class QOperationExecutionMapping<OR extends MObject>
 
     @Override
     public MOperationExecution insert(
-            OperationExecutionType schemaObject, OR ownerRow, JdbcSession jdbcSession) {
+            OperationExecutionType schemaObject, OR ownerRow, JdbcSession jdbcSession)
+            throws SchemaException {
         MOperationExecution row = initRowObject(schemaObject, ownerRow);
 
         row.status = schemaObject.getStatus();
@@ -119,11 +122,38 @@ public class QOperationExecutionMapping<OR extends MObject>
                 t -> row.taskRefTargetType = t,
                 r -> row.taskRefRelationId = r);
         row.timestamp = MiscUtil.asInstant(schemaObject.getTimestamp());
+        if (repositoryContext().isStoreContainersSeparately()) {
+            row.fullObject = createFullObject(schemaObject);
+        }
 
         insert(row, jdbcSession);
         return row;
     }
 
+    @Override
+    public void afterModify(
+            SqaleUpdateContext<OperationExecutionType, QOperationExecution<OR>, MOperationExecution> updateContext)
+            throws SchemaException {
+        if (!repositoryContext().isStoreContainersSeparately()) {
+            return;
+        }
+
+        PrismContainer<OperationExecutionType> container =
+                updateContext.findValueOrItem(ObjectType.F_OPERATION_EXECUTION);
+        // row in context already knows its CID
+        PrismContainerValue<OperationExecutionType> value =
+                container != null ? container.findValue(updateContext.row().cid) : null;
+        if (value != null) {
+            updateContext.set(updateContext.entityPath().fullObject,
+                    createFullObject(value.asContainerable()));
+        }
+    }
+
+    @Override
+    public ArrayPath<byte[], Byte> fullObjectPath(QOperationExecution<OR> entityPath) {
+        return entityPath.fullObject;
+    }
+
     @Override
     public OperationExecutionType toSchemaObject(MOperationExecution row) {
         return new OperationExecutionType(prismContext())
@@ -173,6 +203,15 @@ public class QOperationExecutionMapping<OR extends MObject>
 
                 PrismContainer<OperationExecutionType> opexContainer =
                         object.asPrismObject().findContainer(ObjectType.F_OPERATION_EXECUTION);
+                if (row.fullObject != null
+                        && (opexContainer == null || opexContainer.findValue(row.cid) == null)) {
+                    // stored outside the owner's full object
+                    try {
+                        return parseSchemaObject(row.fullObject, row.ownerOid + "," + row.cid);
+                    } catch (SchemaException e) {
+                        throw new SystemException(e);
+                    }
+                }
                 if (opexContainer == null) {
                     throw new SystemException("Object " + object + " has no operation execution as expected from " + row);
                 }
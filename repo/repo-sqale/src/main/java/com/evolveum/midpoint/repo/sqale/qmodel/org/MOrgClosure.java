@@ -15,9 +15,10 @@ public class MOrgClosure {
 
     public UUID ancestorOid;
     public UUID descendantOid;
+    public Integer paths;
 
     @Override
     public String toString() {
-        return "MOrgClosure{" + ancestorOid + " -> " + descendantOid + '}';
+        return "MOrgClosure{" + ancestorOid + " -> " + descendantOid + " (" + paths + ")}";
     }
 }
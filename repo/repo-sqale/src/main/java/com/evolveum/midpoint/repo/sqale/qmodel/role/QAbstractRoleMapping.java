@@ -70,6 +70,7 @@ public class QAbstractRoleMapping<
                 QAssignmentMapping.initInducementMapping(repositoryContext),
                 joinOn((o, a) -> o.oid.eq(a.ownerOid)
                         .and(a.containerType.eq(MContainerType.INDUCEMENT))));
+        addSeparatelyStoredContainer(F_INDUCEMENT, QAssignmentMapping.getInducementMapping(), true);
     }
 
     @Override
@@ -100,9 +101,8 @@ public class QAbstractRoleMapping<
         super.storeRelatedEntities(row, schemaObject, jdbcSession);
 
         List<AssignmentType> inducement = schemaObject.getInducement();
-        if (!inducement.isEmpty()) {
-            inducement.forEach(assignment ->
-                    QAssignmentMapping.getInducementMapping().insert(assignment, row, jdbcSession));
+        for (AssignmentType assignment : inducement) {
+            QAssignmentMapping.getInducementMapping().insert(assignment, row, jdbcSession);
         }
     }
 }
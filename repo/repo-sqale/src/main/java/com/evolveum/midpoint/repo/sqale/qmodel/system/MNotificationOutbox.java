@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.qmodel.system;
+
+import java.time.Instant;
+
+/**
+ * Querydsl "row bean" type related to {@link QNotificationOutbox}.
+ */
+public class MNotificationOutbox {
+
+    public Long id;
+    public String transportName;
+    public byte[] message;
+    public Integer attempts;
+    public Instant nextAttempt;
+    public String lastError;
+    public Instant createTimestamp;
+
+    @Override
+    public String toString() {
+        return "MNotificationOutbox{" +
+                "id=" + id +
+                ", transportName='" + transportName + '\'' +
+                ", attempts=" + attempts +
+                ", nextAttempt=" + nextAttempt +
+                ", lastError='" + lastError + '\'' +
+                ", createTimestamp=" + createTimestamp +
+                '}';
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.qmodel.system;
+
+import java.sql.Types;
+import java.time.Instant;
+
+import com.querydsl.core.types.dsl.*;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+
+import com.evolveum.midpoint.repo.sqlbase.querydsl.FlexibleRelationalPathBase;
+
+/**
+ * Querydsl query type for {@value #TABLE_NAME} table with notification messages waiting for delivery.
+ * This entity is not registered to any schema type so it doesn't have related mapping class.
+ * Use {@link #DEFAULT} for default alias directly.
+ */
+public class QNotificationOutbox extends FlexibleRelationalPathBase<MNotificationOutbox> {
+
+    private static final long serialVersionUID = -3641954071528126549L;
+
+    public static final String TABLE_NAME = "m_notification_outbox";
+
+    public static final QNotificationOutbox DEFAULT = new QNotificationOutbox("nob");
+
+    public static final ColumnMetadata ID =
+            ColumnMetadata.named("id").ofType(Types.BIGINT).notNull();
+    public static final ColumnMetadata TRANSPORT_NAME =
+            ColumnMetadata.named("transportName").ofType(Types.VARCHAR).notNull();
+    public static final ColumnMetadata MESSAGE =
+            ColumnMetadata.named("message").ofType(Types.BINARY).notNull();
+    public static final ColumnMetadata ATTEMPTS =
+            ColumnMetadata.named("attempts").ofType(Types.INTEGER).notNull();
+    public static final ColumnMetadata NEXT_ATTEMPT =
+            ColumnMetadata.named("nextAttempt").ofType(Types.TIMESTAMP_WITH_TIMEZONE).notNull();
+    public static final ColumnMetadata LAST_ERROR =
+            ColumnMetadata.named("lastError").ofType(Types.VARCHAR);
+    public static final ColumnMetadata CREATE_TIMESTAMP =
+            ColumnMetadata.named("createTimestamp").ofType(Types.TIMESTAMP_WITH_TIMEZONE).notNull();
+
+    public final NumberPath<Long> id = createLong("id", ID);
+    public final StringPath transportName = createString("transportName", TRANSPORT_NAME);
+    public final ArrayPath<byte[], Byte> message = createByteArray("message", MESSAGE);
+    public final NumberPath<Integer> attempts = createInteger("attempts", ATTEMPTS);
+    public final DateTimePath<Instant> nextAttempt = createInstant("nextAttempt", NEXT_ATTEMPT);
+    public final StringPath lastError = createString("lastError", LAST_ERROR);
+    public final DateTimePath<Instant> createTimestamp = createInstant("createTimestamp", CREATE_TIMESTAMP);
+
+    public final PrimaryKey<MNotificationOutbox> pk = createPrimaryKey(id);
+
+    public QNotificationOutbox(String variable) {
+        this(variable, DEFAULT_SCHEMA_NAME, TABLE_NAME);
+    }
+
+    public QNotificationOutbox(String variable, String schema, String table) {
+        super(MNotificationOutbox.class, variable, schema, table);
+    }
+}
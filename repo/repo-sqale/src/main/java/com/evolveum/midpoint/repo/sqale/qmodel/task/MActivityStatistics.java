@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.qmodel.task;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Querydsl "row bean" type related to {@link QActivityStatistics}.
+ */
+public class MActivityStatistics {
+
+    public Long id;
+    public UUID taskOid;
+    public String activityPath;
+    public Instant intervalStart;
+    public Instant intervalEnd;
+    public byte[] statistics;
+
+    @Override
+    public String toString() {
+        return "MActivityStatistics{" +
+                "id=" + id +
+                ", taskOid=" + taskOid +
+                ", activityPath='" + activityPath + '\'' +
+                ", intervalStart=" + intervalStart +
+                ", intervalEnd=" + intervalEnd +
+                '}';
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.qmodel.task;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+
+/**
+ * Querydsl "row bean" type related to {@link QWorkBucket}.
+ */
+public class MWorkBucket {
+
+    public UUID coordinatorOid;
+    public String activityPath;
+    public Integer sequentialNumber;
+    public WorkBucketStateType state;
+    public UUID workerOid;
+    public Instant leaseExpiration;
+    public byte[] content;
+
+    @Override
+    public String toString() {
+        return "MWorkBucket{" +
+                "coordinatorOid=" + coordinatorOid +
+                ", activityPath='" + activityPath + '\'' +
+                ", sequentialNumber=" + sequentialNumber +
+                ", state=" + state +
+                ", workerOid=" + workerOid +
+                ", leaseExpiration=" + leaseExpiration +
+                '}';
+    }
+}
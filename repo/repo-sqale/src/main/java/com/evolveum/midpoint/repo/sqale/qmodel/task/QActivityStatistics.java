@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.qmodel.task;
+
+import java.sql.Types;
+import java.time.Instant;
+
+import com.querydsl.core.types.dsl.*;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+
+import com.evolveum.midpoint.repo.sqlbase.querydsl.FlexibleRelationalPathBase;
+import com.evolveum.midpoint.repo.sqlbase.querydsl.UuidPath;
+
+/**
+ * Querydsl query type for {@value #TABLE_NAME} table that contains increments of activity statistics.
+ * This entity is not registered to any schema type so it doesn't have related mapping class.
+ * Use {@link #DEFAULT} for default alias directly.
+ */
+public class QActivityStatistics extends FlexibleRelationalPathBase<MActivityStatistics> {
+
+    private static final long serialVersionUID = 5177462470239830386L;
+
+    public static final String TABLE_NAME = "m_activity_statistics";
+
+    public static final QActivityStatistics DEFAULT = new QActivityStatistics("ast");
+
+    public static final ColumnMetadata ID =
+            ColumnMetadata.named("id").ofType(Types.BIGINT).notNull();
+    public static final ColumnMetadata TASK_OID =
+            ColumnMetadata.named("taskOid").ofType(UuidPath.UUID_TYPE).notNull();
+    public static final ColumnMetadata ACTIVITY_PATH =
+            ColumnMetadata.named("activityPath").ofType(Types.VARCHAR).notNull();
+    public static final ColumnMetadata INTERVAL_START =
+            ColumnMetadata.named("intervalStart").ofType(Types.TIMESTAMP_WITH_TIMEZONE).notNull();
+    public static final ColumnMetadata INTERVAL_END =
+            ColumnMetadata.named("intervalEnd").ofType(Types.TIMESTAMP_WITH_TIMEZONE).notNull();
+    public static final ColumnMetadata STATISTICS =
+            ColumnMetadata.named("statistics").ofType(Types.BINARY).notNull();
+
+    public final NumberPath<Long> id = createLong("id", ID);
+    public final UuidPath taskOid = createUuid("taskOid", TASK_OID);
+    public final StringPath activityPath = createString("activityPath", ACTIVITY_PATH);
+    public final DateTimePath<Instant> intervalStart = createInstant("intervalStart", INTERVAL_START);
+    public final DateTimePath<Instant> intervalEnd = createInstant("intervalEnd", INTERVAL_END);
+    public final ArrayPath<byte[], Byte> statistics = createByteArray("statistics", STATISTICS);
+
+    public final PrimaryKey<MActivityStatistics> pk = createPrimaryKey(id);
+
+    public QActivityStatistics(String variable) {
+        this(variable, DEFAULT_SCHEMA_NAME, TABLE_NAME);
+    }
+
+    public QActivityStatistics(String variable, String schema, String table) {
+        super(MActivityStatistics.class, variable, schema, table);
+    }
+}
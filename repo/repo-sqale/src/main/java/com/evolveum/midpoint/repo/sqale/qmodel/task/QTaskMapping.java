@@ -9,7 +9,6 @@ package com.evolveum.midpoint.repo.sqale.qmodel.task;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType.*;
 
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Objects;
 import java.util.function.Function;
 import javax.xml.namespace.QName;
@@ -124,7 +123,7 @@ public class QTaskMapping
 
     @Override
     protected Collection<? extends QName> fullObjectItemsToSkip() {
-        return Collections.singletonList(F_RESULT);
+        return withItemToSkip(super.fullObjectItemsToSkip(), F_RESULT);
     }
 
     @Override
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.qmodel.task;
+
+import java.sql.Types;
+import java.time.Instant;
+
+import com.querydsl.core.types.dsl.*;
+import com.querydsl.sql.ColumnMetadata;
+import com.querydsl.sql.PrimaryKey;
+
+import com.evolveum.midpoint.repo.sqlbase.querydsl.FlexibleRelationalPathBase;
+import com.evolveum.midpoint.repo.sqlbase.querydsl.UuidPath;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+
+/**
+ * Querydsl query type for {@value #TABLE_NAME} table that contains work buckets of distributed activities.
+ * This entity is not registered to any schema type so it doesn't have related mapping class.
+ * Use {@link #DEFAULT} for default alias directly.
+ */
+public class QWorkBucket extends FlexibleRelationalPathBase<MWorkBucket> {
+
+    private static final long serialVersionUID = -2906340571093618042L;
+
+    public static final String TABLE_NAME = "m_work_bucket";
+
+    public static final QWorkBucket DEFAULT = new QWorkBucket("wb");
+
+    public static final ColumnMetadata COORDINATOR_OID =
+            ColumnMetadata.named("coordinatorOid").ofType(UuidPath.UUID_TYPE).notNull();
+    public static final ColumnMetadata ACTIVITY_PATH =
+            ColumnMetadata.named("activityPath").ofType(Types.VARCHAR).notNull();
+    public static final ColumnMetadata SEQUENTIAL_NUMBER =
+            ColumnMetadata.named("sequentialNumber").ofType(Types.INTEGER).notNull();
+    public static final ColumnMetadata STATE =
+            ColumnMetadata.named("state").ofType(Types.OTHER).notNull();
+    public static final ColumnMetadata WORKER_OID =
+            ColumnMetadata.named("workerOid").ofType(UuidPath.UUID_TYPE);
+    public static final ColumnMetadata LEASE_EXPIRATION =
+            ColumnMetadata.named("leaseExpiration").ofType(Types.TIMESTAMP_WITH_TIMEZONE);
+    public static final ColumnMetadata CONTENT =
+            ColumnMetadata.named("content").ofType(Types.BINARY);
+
+    public final UuidPath coordinatorOid = createUuid("coordinatorOid", COORDINATOR_OID);
+    public final StringPath activityPath = createString("activityPath", ACTIVITY_PATH);
+    public final NumberPath<Integer> sequentialNumber = createInteger("sequentialNumber", SEQUENTIAL_NUMBER);
+    public final EnumPath<WorkBucketStateType> state =
+            createEnum("state", WorkBucketStateType.class, STATE);
+    public final UuidPath workerOid = createUuid("workerOid", WORKER_OID);
+    public final DateTimePath<Instant> leaseExpiration = createInstant("leaseExpiration", LEASE_EXPIRATION);
+    public final ArrayPath<byte[], Byte> content = createByteArray("content", CONTENT);
+
+    public final PrimaryKey<MWorkBucket> pk = createPrimaryKey(coordinatorOid, activityPath, sequentialNumber);
+
+    public QWorkBucket(String variable) {
+        this(variable, DEFAULT_SCHEMA_NAME, TABLE_NAME);
+    }
+
+    public QWorkBucket(String variable, String schema, String table) {
+        super(MWorkBucket.class, variable, schema, table);
+    }
+}
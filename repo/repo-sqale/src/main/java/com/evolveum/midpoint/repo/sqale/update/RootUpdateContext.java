@@ -180,6 +180,7 @@ public class RootUpdateContext<S extends ObjectType, Q extends QObject<R>, R ext
         if (cidGenerator != null) {
             update.set(rootPath.containerIdSeq, cidGenerator.lastUsedId() + 1);
         }
+        mapping.migrateContainersFromFullObject(getPrismObject(), jdbcSession);
         update.set(rootPath.fullObject, mapping.createFullObject(object));
 
         long rows = update.execute();
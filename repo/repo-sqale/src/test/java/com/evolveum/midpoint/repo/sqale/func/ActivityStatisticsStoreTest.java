@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.sqale.SqaleActivityStatisticsStore;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.QActivityStatistics;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+public class ActivityStatisticsStoreTest extends SqaleRepoBaseTest {
+
+    private static final String PATH = "reconciliation/resourceObjects";
+
+    @Autowired private SqaleActivityStatisticsStore activityStatisticsStore;
+
+    private String taskOid;
+
+    @BeforeClass
+    public void initObjects() throws Exception {
+        OperationResult result = createOperationResult();
+        taskOid = repositoryService.addObject(
+                new TaskType(prismContext).name("worker").asPrismObject(), null, result);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test100AddAndGetStatistics() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("two increments are added");
+        activityStatisticsStore.addStatistics(taskOid, PATH, 1000, 2000, increment(2, 10), result);
+        activityStatisticsStore.addStatistics(taskOid, PATH, 2000, 3000, increment(3, 20), result);
+
+        then("they are stored as separate rows");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(rowCount()).isEqualTo(2);
+
+        and("they are summed up on read");
+        assertSum(activityStatisticsStore.getStatistics(taskOid, result), 5, 30);
+    }
+
+    @Test
+    public void test200CompactStatistics() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("increments are compacted");
+        int compacted = activityStatisticsStore.compactStatistics(taskOid, PATH, result);
+
+        then("a single row with the same sum remains");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(compacted).isEqualTo(2);
+        assertThat(rowCount()).isEqualTo(1);
+        assertSum(activityStatisticsStore.getStatistics(taskOid, result), 5, 30);
+
+        and("compacting single row does nothing");
+        assertThat(activityStatisticsStore.compactStatistics(taskOid, PATH, result)).isZero();
+    }
+
+    @Test
+    public void test300DeleteStatistics() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("statistics are deleted");
+        int deleted = activityStatisticsStore.deleteStatistics(taskOid, PATH, result);
+
+        then("nothing is left for the task");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(deleted).isEqualTo(1);
+        assertThat(activityStatisticsStore.getStatistics(taskOid, result)).isEmpty();
+    }
+
+    private ActivityStatisticsType increment(int count, long totalTime) {
+        return new ActivityStatisticsType(prismContext)
+                .bucketManagement(new ActivityBucketManagementStatisticsType(prismContext)
+                        .operation(new BucketManagementOperationStatisticsType(prismContext)
+                                .name("getWorkBucket")
+                                .count(count)
+                                .totalTime(totalTime)));
+    }
+
+    private void assertSum(Map<String, ActivityStatisticsType> statistics, int count, long totalTime) {
+        assertThat(statistics).containsOnlyKeys(PATH);
+        assertThat(statistics.get(PATH).getBucketManagement().getOperation())
+                .singleElement()
+                .satisfies(op -> {
+                    assertThat(op.getCount()).isEqualTo(count);
+                    assertThat(op.getTotalTime()).isEqualTo(totalTime);
+                });
+    }
+
+    private long rowCount() {
+        QActivityStatistics ast = QActivityStatistics.DEFAULT;
+        return count(ast, ast.taskOid.eq(UUID.fromString(taskOid)));
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import com.querydsl.core.types.dsl.Expressions;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.init.AuditServiceProxy;
+import com.evolveum.midpoint.repo.api.perf.OperationPerformanceInformation;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.SqaleRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sqale.audit.AuditBatchWriter;
+import com.evolveum.midpoint.repo.sqale.audit.AuditWriteMode;
+import com.evolveum.midpoint.repo.sqale.audit.SqaleAuditService;
+import com.evolveum.midpoint.repo.sqale.audit.qmodel.*;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.repo.sqlbase.perfmon.SqlPerformanceMonitorImpl;
+import com.evolveum.midpoint.schema.LabeledString;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.test.NullTaskImpl;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests queued audit write modes (see {@link AuditWriteMode}) using {@link AuditBatchWriter}.
+ * To get more records into a single batch, the audit table is locked by another transaction
+ * while the records are queued.
+ */
+public class AuditBatchWriteTest extends SqaleRepoBaseTest {
+
+    private static final String FAILING_MESSAGE = "fail-me";
+    private static final String FAILING_CONSTRAINT = "ma_audit_event_test_fail_check";
+
+    private SqaleAuditService sqaleAuditService;
+    private SqaleRepositoryConfiguration auditConfig;
+    private AuditWriteMode originalMode;
+    private int originalBatchSize;
+    private int originalThreads;
+
+    // alias for queries, can't be static/final, the mapping it's not yet initialized
+    private QAuditEventRecord aer;
+
+    @BeforeClass
+    public void initAuditWriter() {
+        sqaleAuditService = ((AuditServiceProxy) auditService).getImplementation(SqaleAuditService.class);
+        auditConfig = sqaleAuditService.repositoryConfiguration();
+        originalMode = auditConfig.getAuditWriteMode();
+        originalBatchSize = auditConfig.getAuditWriteBatchSize();
+        originalThreads = auditConfig.getAuditWriteThreads();
+
+        aer = QAuditEventRecordMapping.get().defaultAlias();
+    }
+
+    @AfterMethod
+    public void dropFailingConstraint() {
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.executeStatement("ALTER TABLE ma_audit_event DROP CONSTRAINT IF EXISTS "
+                    + FAILING_CONSTRAINT);
+            jdbcSession.commit();
+        }
+    }
+
+    @AfterClass
+    public void resetAuditWriter() {
+        auditConfig.setAuditWriteMode(originalMode);
+        auditConfig.setAuditWriteBatchSize(originalBatchSize);
+        auditConfig.setAuditWriteThreads(originalThreads);
+        sqaleAuditService.reinitializeAuditWriter();
+    }
+
+    @Override
+    protected SqlPerformanceMonitorImpl getPerformanceMonitor() {
+        return sqaleAuditService.getPerformanceMonitor();
+    }
+
+    @Test
+    public void test100AsyncRecordsQueuedDuringLockAreInsertedInBatch() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("clear audit and async write mode with a single writer");
+        clearAudit();
+        clearPerformanceMonitor();
+        useWriteMode(AuditWriteMode.ASYNC);
+        List<AuditEventRecord> records = new ArrayList<>();
+        int queueDepthDuringLock;
+
+        when("records with deltas and references are audited while the table is locked");
+        queryRecorder.clearBufferAndStartRecording();
+        try (JdbcSession lockSession = lockAuditTable()) {
+            for (int i = 1; i <= 5; i++) {
+                AuditEventRecord record = createRecord("msg-" + i);
+                sqaleAuditService.audit(record, NullTaskImpl.INSTANCE, result);
+                records.add(record);
+            }
+
+            and("audit returns before the records are written");
+            assertThat(count(aer)).isZero();
+
+            and("records wait in the queue, except for those taken by the blocked writer");
+            queueDepthDuringLock = Integer.parseInt(diagnosticDetail("audit.queueDepth"));
+            assertThat(queueDepthDuringLock).isBetween(1, 5);
+            lockSession.commit();
+        }
+        waitForQueuedRecords();
+        queryRecorder.stopRecording();
+
+        then("all records are inserted with their IDs set to the audit event records");
+        List<MAuditEventRecord> rows = select(aer);
+        assertThat(rows).hasSize(5)
+                .extracting(r -> r.message)
+                .containsExactlyInAnyOrder("msg-1", "msg-2", "msg-3", "msg-4", "msg-5");
+        for (AuditEventRecord record : records) {
+            assertThat(rows)
+                    .filteredOn(r -> r.id.equals(record.getRepoId()))
+                    .singleElement()
+                    .matches(r -> r.message.equals(record.getMessage()));
+        }
+
+        and("deltas and references belong to the right records");
+        assertSubentitiesMatchRecords(records);
+
+        and("at least one multi-row insert is used");
+        assertThat(queryRecorder.getQueryBuffer())
+                .extracting(e -> e.sql)
+                .anyMatch(sql -> sql.startsWith("insert into ma_audit_event ") && sql.contains("), ("));
+
+        and("flushes are reported by the performance monitor, fewer than records");
+        OperationPerformanceInformation flushInfo = getPerformanceMonitor()
+                .getGlobalPerformanceInformation().getAllData()
+                .get(AUDIT_OP_PREFIX + "auditFlush");
+        assertThat(flushInfo).isNotNull();
+        assertThat(flushInfo.getInvocationCount()).isBetween(1, 4);
+
+        and("queue depth and flushes are available in repository diagnostics");
+        assertThat(diagnosticDetail("audit.writeMode")).isEqualTo(AuditWriteMode.ASYNC.toString());
+        assertThat(diagnosticDetail("audit.queueDepth")).isEqualTo("0");
+        assertThat(Integer.parseInt(diagnosticDetail("audit.maxQueueDepth")))
+                .isBetween(queueDepthDuringLock, 5);
+        assertThat(diagnosticDetail("audit.flushCount"))
+                .isEqualTo(String.valueOf(flushInfo.getInvocationCount()));
+        assertThat(repositoryService.getRepositoryDiag().getAdditionalDetails())
+                .extracting(LabeledString::getLabel)
+                .contains("audit.queueDepth", "audit.maxQueueDepth", "audit.flushCount");
+    }
+
+    @Test
+    public void test200GroupCommitReturnsAfterCommit() throws Exception {
+        given("clear audit and group commit write mode with a single writer");
+        clearAudit();
+        useWriteMode(AuditWriteMode.GROUP_COMMIT);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<AuditEventRecord> records = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            when("records are audited concurrently while the table is locked");
+            try (JdbcSession lockSession = lockAuditTable()) {
+                for (int i = 1; i <= 5; i++) {
+                    AuditEventRecord record = createRecord("gc-" + i);
+                    records.add(record);
+                    futures.add(executor.submit(() -> sqaleAuditService.audit(
+                            record, NullTaskImpl.INSTANCE, createOperationResult())));
+                }
+                waitForBlockedAuditInsert();
+
+                then("no audit call returns before the commit");
+                assertThat(futures).noneMatch(Future::isDone);
+                lockSession.commit();
+            }
+
+            and("after the lock is released all calls return with IDs set");
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertThat(records).allMatch(r -> r.getRepoId() != null);
+            assertThat(select(aer)).hasSize(5)
+                    .extracting(r -> r.id)
+                    .containsExactlyInAnyOrderElementsOf(records.stream()
+                            .map(AuditEventRecord::getRepoId)
+                            .collect(Collectors.toList()));
+            assertSubentitiesMatchRecords(records);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test300FailedBatchIsRetriedOneByOne() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("clear audit, async write mode and a constraint failing one record");
+        clearAudit();
+        addFailingConstraint();
+        useWriteMode(AuditWriteMode.ASYNC);
+
+        when("records including the failing one are queued into a single batch");
+        try (JdbcSession lockSession = lockAuditTable()) {
+            sqaleAuditService.audit(createRecord("blocker"), NullTaskImpl.INSTANCE, result);
+            // the writer takes the first record and waits, the rest is taken as one batch
+            waitForBlockedAuditInsert();
+            sqaleAuditService.audit(createRecord("ok-1"), NullTaskImpl.INSTANCE, result);
+            sqaleAuditService.audit(createRecord(FAILING_MESSAGE), NullTaskImpl.INSTANCE, result);
+            sqaleAuditService.audit(createRecord("ok-2"), NullTaskImpl.INSTANCE, result);
+            lockSession.commit();
+        }
+        waitForQueuedRecords();
+
+        then("all the other records from the failed batch are written");
+        assertThat(select(aer))
+                .extracting(r -> r.message)
+                .containsExactlyInAnyOrder("blocker", "ok-1", "ok-2");
+    }
+
+    @Test
+    public void test310GroupCommitCallerGetsTheFailure() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("clear audit, group commit write mode and a constraint failing one record");
+        clearAudit();
+        addFailingConstraint();
+        useWriteMode(AuditWriteMode.GROUP_COMMIT);
+
+        expect("failing record is reported to its caller");
+        assertThatThrownBy(() -> sqaleAuditService.audit(
+                createRecord(FAILING_MESSAGE), NullTaskImpl.INSTANCE, result))
+                .isInstanceOf(SystemException.class);
+
+        and("writer continues with other records");
+        AuditEventRecord record = createRecord("ok");
+        sqaleAuditService.audit(record, NullTaskImpl.INSTANCE, result);
+        assertThat(record.getRepoId()).isNotNull();
+        assertThat(select(aer)).extracting(r -> r.message).containsExactly("ok");
+    }
+
+    @Test
+    public void test400ShutdownFailsQueuedRecordsAndRejectsNewOnes() throws Exception {
+        given("clear audit and separate group commit writer with a single thread");
+        clearAudit();
+        AuditBatchWriter writer = new AuditBatchWriter(
+                sqaleAuditService, AuditWriteMode.GROUP_COMMIT, 10, 10, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        try (JdbcSession lockSession = lockAuditTable()) {
+            when("one record is being inserted, another one is waiting in the queue");
+            Future<?> first = executor.submit(() -> writer.write(createRow("first"), id -> {}));
+            waitForBlockedAuditInsert();
+            Future<?> second = executor.submit(() -> writer.write(createRow("second"), id -> {}));
+
+            and("writer is shut down without waiting for the blocked insert");
+            writer.shutdown(1000);
+
+            then("caller of the queued record gets an exception instead of waiting");
+            assertThatThrownBy(() -> second.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(SystemException.class);
+
+            and("new records are rejected");
+            assertThatThrownBy(() -> writer.write(createRow("late"), id -> {}))
+                    .isInstanceOf(SystemException.class);
+
+            lockSession.commit();
+            and("record taken by the writer before the shutdown is finished");
+            first.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(select(aer)).extracting(r -> r.message).containsExactly("first");
+    }
+
+    private void useWriteMode(AuditWriteMode mode) {
+        auditConfig.setAuditWriteMode(mode);
+        auditConfig.setAuditWriteBatchSize(10);
+        auditConfig.setAuditWriteThreads(1);
+        sqaleAuditService.reinitializeAuditWriter();
+    }
+
+    /** Switching to direct mode shuts down the writer which writes all the queued records. */
+    private void waitForQueuedRecords() {
+        auditConfig.setAuditWriteMode(AuditWriteMode.DIRECT);
+        sqaleAuditService.reinitializeAuditWriter();
+    }
+
+    /** Returns open transaction holding a lock that blocks any insert into the audit table. */
+    private JdbcSession lockAuditTable() {
+        JdbcSession jdbcSession = startTransaction();
+        jdbcSession.executeStatement("LOCK TABLE ma_audit_event IN EXCLUSIVE MODE");
+        return jdbcSession;
+    }
+
+    /** Waits until some transaction (the audit writer) waits for the lock on the audit table. */
+    private void waitForBlockedAuditInsert() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+                Long waiting = jdbcSession.newQuery()
+                        .select(Expressions.numberTemplate(Long.class,
+                                "(select count(*) from pg_locks"
+                                        + " where not granted and relation = 'ma_audit_event'::regclass)"))
+                        .fetchOne();
+                if (waiting != null && waiting > 0) {
+                    return;
+                }
+            }
+            //noinspection BusyWait
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Audit writer didn't start the insert in time");
+    }
+
+    private void addFailingConstraint() {
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.executeStatement("ALTER TABLE ma_audit_event ADD CONSTRAINT " + FAILING_CONSTRAINT
+                    + " CHECK (message IS DISTINCT FROM '" + FAILING_MESSAGE + "')");
+            jdbcSession.commit();
+        }
+    }
+
+    private AuditEventRecord createRecord(String message) throws SchemaException {
+        AuditEventRecord record = new AuditEventRecord();
+        record.setMessage(message);
+        record.setParameter(message);
+        ObjectDeltaOperation<UserType> delta = new ObjectDeltaOperation<>();
+        delta.setObjectDelta(prismContext.deltaFor(UserType.class)
+                .item(UserType.F_FULL_NAME).replace(message)
+                .asObjectDelta(UUID.randomUUID().toString()));
+        record.addDelta(delta);
+        record.addReferenceValue(message, ref(UUID.randomUUID().toString(), UserType.COMPLEX_TYPE));
+        return record;
+    }
+
+    private MAuditEventRecord createRow(String message) {
+        MAuditEventRecord row = new MAuditEventRecord();
+        row.timestamp = Instant.now();
+        row.message = message;
+        row.deltas = new ArrayList<>();
+        return row;
+    }
+
+    /** Every record has one delta and one reference named after its message. */
+    private void assertSubentitiesMatchRecords(List<AuditEventRecord> records) {
+        List<MAuditDelta> deltaRows = select(QAuditDeltaMapping.get().defaultAlias());
+        List<MAuditRefValue> refRows = select(QAuditRefValueMapping.get().defaultAlias());
+        assertThat(deltaRows).hasSize(records.size());
+        assertThat(refRows).hasSize(records.size());
+        for (AuditEventRecord record : records) {
+            assertThat(deltaRows).filteredOn(d -> d.recordId.equals(record.getRepoId()))
+                    .singleElement()
+                    .matches(d -> d.deltaOid.toString().equals(
+                            record.getDeltas().iterator().next().getObjectDelta().getOid()));
+            assertThat(refRows).filteredOn(r -> r.recordId.equals(record.getRepoId()))
+                    .singleElement()
+                    .matches(r -> r.name.equals(record.getMessage()));
+        }
+    }
+
+    private String diagnosticDetail(String label) {
+        return sqaleAuditService.getDiagnosticDetails().stream()
+                .filter(d -> d.getLabel().equals(label))
+                .map(LabeledString::getData)
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No diagnostic detail " + label));
+    }
+}
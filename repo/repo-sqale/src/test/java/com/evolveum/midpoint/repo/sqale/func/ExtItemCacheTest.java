@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.sqale.ExtItemCache;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.qmodel.ext.MExtItem;
+import com.evolveum.midpoint.repo.sqale.qmodel.ext.MExtItemCardinality;
+import com.evolveum.midpoint.repo.sqale.qmodel.ext.MExtItemHolderType;
+import com.evolveum.midpoint.repo.sqale.qmodel.ext.QExtItem;
+
+/**
+ * This tests {@link ExtItemCache} including multi-node simulation using two separate cache instances,
+ * just like {@link UriCacheTest} does it for URI cache.
+ */
+public class ExtItemCacheTest extends SqaleRepoBaseTest {
+
+    private static final String VALUE_TYPE = "http://www.w3.org/2001/XMLSchema#string";
+
+    private ExtItemCache extItemCache1;
+    private ExtItemCache extItemCache2;
+
+    @BeforeClass
+    public void init() {
+        extItemCache1 = new ExtItemCache();
+        extItemCache1.initialize(sqlRepoContext::newJdbcSession);
+        extItemCache2 = new ExtItemCache();
+        extItemCache2.initialize(sqlRepoContext::newJdbcSession);
+    }
+
+    // basic test for a single instance
+    @Test
+    public void test100ExtItemCacheOperations() {
+        when("ext item is resolved for the first time");
+        MExtItem.Key key = key("test-item-" + getTestNameShort());
+        MExtItem extItem = extItemCache1.resolveExtensionItem(key);
+
+        then("it is stored and can be obtained by key, item name or ID");
+        assertThat(extItem.id).isNotNull();
+        assertThat(extItem.key()).isEqualTo(key);
+        assertThat(extItemCache1.resolveExtensionItem(key)).isSameAs(extItem);
+        assertThat(extItemCache1.getExtensionItem(extItem.itemNameKey())).isSameAs(extItem);
+        assertThat(extItemCache1.getExtensionItem(extItem.id)).isSameAs(extItem);
+        assertThat(count(QExtItem.DEFAULT, QExtItem.DEFAULT.itemName.eq(key.itemName))).isEqualTo(1);
+
+        and("nonexistent ID returns null");
+        assertThat(extItemCache1.getExtensionItem(Integer.MIN_VALUE)).isNull();
+    }
+
+    @Test
+    public void test200WriteInOneCacheIsVisibleInOtherCache() {
+        when("ext item is stored in cache 1");
+        MExtItem.Key key = key("test-item-" + getTestNameShort());
+        MExtItem extItem = extItemCache1.resolveExtensionItem(key);
+
+        then("it can be obtained by cache 2");
+        assertThat(extItemCache2.getExtensionItem(extItem.id).key()).isEqualTo(key);
+        assertThat(extItemCache2.getExtensionItem(extItem.itemNameKey()).id).isEqualTo(extItem.id);
+    }
+
+    @Test
+    public void test300ConflictInCache() {
+        when("ext item is stored in cache 1");
+        MExtItem.Key key = key("test-item-" + getTestNameShort());
+        MExtItem extItem = extItemCache1.resolveExtensionItem(key);
+
+        then("when resolved by cache 2, ID from cache 1 is obtained");
+        assertThat(extItemCache2.resolveExtensionItem(key).id).isEqualTo(extItem.id);
+        assertThat(count(QExtItem.DEFAULT, QExtItem.DEFAULT.itemName.eq(key.itemName))).isEqualTo(1);
+    }
+
+    @Test
+    public void test400ConcurrentMissesForTheSameKey() throws Exception {
+        given("new ext item key and many threads ready to resolve it at once");
+        MExtItem.Key key = key("test-item-" + getTestNameShort());
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<MExtItem>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                startLatch.await();
+                return extItemCache1.resolveExtensionItem(key);
+            }));
+        }
+
+        when("all threads resolve the key at the same time");
+        startLatch.countDown();
+
+        then("all threads get the same ext item and only one row is in the DB");
+        Integer extItemId = results.get(0).get().id;
+        for (Future<MExtItem> result : results) {
+            assertThat(result.get().id).isEqualTo(extItemId);
+        }
+        executor.shutdown();
+
+        assertThat(count(QExtItem.DEFAULT, QExtItem.DEFAULT.itemName.eq(key.itemName))).isEqualTo(1);
+    }
+
+    @Test
+    public void test410ConcurrentMissesForDifferentKeys() throws Exception {
+        given("many threads, each ready to resolve its own new ext item key, in both caches");
+        String itemNamePrefix = "test-item-" + getTestNameShort() + "-";
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<MExtItem>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            MExtItem.Key key = key(itemNamePrefix + i / 2);
+            ExtItemCache cache = i % 2 == 0 ? extItemCache1 : extItemCache2;
+            results.add(executor.submit(() -> {
+                startLatch.await();
+                return cache.resolveExtensionItem(key);
+            }));
+        }
+
+        when("all threads resolve the keys at the same time");
+        startLatch.countDown();
+
+        then("both caches get the same ext item for the same key, and different ones for different keys");
+        Set<Integer> extItemIds = new HashSet<>();
+        for (int i = 0; i < threads; i += 2) {
+            MExtItem extItem = results.get(i).get();
+            assertThat(extItem.itemName).isEqualTo(itemNamePrefix + i / 2);
+            assertThat(results.get(i + 1).get().id).isEqualTo(extItem.id);
+            extItemIds.add(extItem.id);
+        }
+        executor.shutdown();
+
+        assertThat(extItemIds).hasSize(threads / 2);
+        assertThat(count(QExtItem.DEFAULT, QExtItem.DEFAULT.itemName.startsWith(itemNamePrefix)))
+                .isEqualTo(threads / 2);
+    }
+
+    private MExtItem.Key key(String itemName) {
+        MExtItem.Key key = new MExtItem.Key();
+        key.itemName = itemName;
+        key.valueType = VALUE_TYPE;
+        key.holderType = MExtItemHolderType.EXTENSION;
+        key.cardinality = MExtItemCardinality.SCALAR;
+        return key;
+    }
+}
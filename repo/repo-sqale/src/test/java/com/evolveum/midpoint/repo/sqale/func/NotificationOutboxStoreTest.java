@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.api.NotificationOutboxStore.QueuedMessage;
+import com.evolveum.midpoint.repo.sqale.SqaleNotificationOutboxStore;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.qmodel.system.MNotificationOutbox;
+import com.evolveum.midpoint.repo.sqale.qmodel.system.QNotificationOutbox;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NotificationMessageType;
+
+public class NotificationOutboxStoreTest extends SqaleRepoBaseTest {
+
+    private static final String TRANSPORT = "mail";
+    private static final long LEASE = 60_000L;
+
+    @Autowired private SqaleNotificationOutboxStore outboxStore;
+
+    private long id1;
+    private long id2;
+
+    @BeforeClass
+    public void clearOutbox() {
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.executeStatement("TRUNCATE m_notification_outbox;");
+            jdbcSession.commit();
+        }
+    }
+
+    @Test
+    public void test100AddAndClaimMessages() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("two messages are added");
+        id1 = outboxStore.addMessage(TRANSPORT, message("alice@example.com", "first"), result);
+        id2 = outboxStore.addMessage(TRANSPORT, message("bob@example.com", "second"), result);
+
+        then("they are stored");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(count(QNotificationOutbox.DEFAULT)).isEqualTo(2);
+
+        when("one message is claimed");
+        List<QueuedMessage> claimed = outboxStore.claimMessages(1, LEASE, result);
+
+        then("the older one is returned with its content");
+        assertThat(claimed).singleElement().satisfies(m -> {
+            assertThat(m.getId()).isEqualTo(id1);
+            assertThat(m.getTransportName()).isEqualTo(TRANSPORT);
+            assertThat(m.getAttempts()).isZero();
+            assertThat(m.getMessage().getTo()).containsExactly("alice@example.com");
+            assertThat(m.getMessage().getSubject()).isEqualTo("first");
+        });
+
+        and("leased message is not claimed again");
+        assertThat(outboxStore.claimMessages(10, LEASE, result))
+                .extracting(QueuedMessage::getId)
+                .containsExactly(id2);
+        assertThat(outboxStore.claimMessages(10, LEASE, result)).isEmpty();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test200RescheduleAndDeleteMessages() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("delivery of the first message fails and the second one is delivered");
+        outboxStore.rescheduleMessage(id1, System.currentTimeMillis() - 1, "Connection refused", result);
+        outboxStore.deleteMessage(id2, result);
+
+        then("the first message is claimable again, with the attempt recorded");
+        assertThatOperationResult(result).isSuccess();
+        MNotificationOutbox row = selectOne(QNotificationOutbox.DEFAULT);
+        assertThat(row.id).isEqualTo(id1);
+        assertThat(row.lastError).isEqualTo("Connection refused");
+        assertThat(outboxStore.claimMessages(10, LEASE, result))
+                .singleElement()
+                .extracting(QueuedMessage::getAttempts)
+                .isEqualTo(1);
+
+        when("the first message is deleted");
+        outboxStore.deleteMessage(id1, result);
+
+        then("the outbox is empty");
+        assertThat(count(QNotificationOutbox.DEFAULT)).isZero();
+    }
+
+    private NotificationMessageType message(String to, String subject) {
+        return new NotificationMessageType()
+                .to(to)
+                .subject(subject)
+                .body("Hello");
+    }
+}
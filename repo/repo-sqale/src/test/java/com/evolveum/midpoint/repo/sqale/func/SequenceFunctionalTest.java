@@ -88,4 +88,35 @@ public class SequenceFunctionalTest extends SqaleRepoBaseTest {
         Assertions.assertThatThrownBy(() -> repositoryService.advanceSequence(oid, result))
                 .isInstanceOf(SystemException.class);
     }
+
+    @Test
+    public void test030AllocatingBlocks() throws Exception {
+        OperationResult result = createOperationResult();
+        String oid = repositoryService.addObject(
+                new SequenceType(prismContext)
+                        .name("Sequence 0-9, blocks of 4")
+                        .counter(0L)
+                        .maxCounter(9L)
+                        .allocationBlockSize(4)
+                        .asPrismObject(),
+                null, result);
+
+        assertEquals(repositoryService.advanceSequence(oid, result), 0L);
+        Assertions.assertThat(repositoryService.getObject(SequenceType.class, oid, null, result)
+                .asObjectable().getCounter())
+                .as("counter after the first block is reserved")
+                .isEqualTo(4L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 1L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 2L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 3L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 4L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 5L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 6L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 7L);
+        // the last block is shorter, the sequence ends at 9
+        assertEquals(repositoryService.advanceSequence(oid, result), 8L);
+        assertEquals(repositoryService.advanceSequence(oid, result), 9L);
+        Assertions.assertThatThrownBy(() -> repositoryService.advanceSequence(oid, result))
+                .isInstanceOf(SystemException.class);
+    }
 }
@@ -8,12 +8,20 @@ package com.evolveum.midpoint.repo.sqale.func;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import com.querydsl.core.types.OrderSpecifier;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
@@ -59,7 +67,9 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
         for (int i = 1; i <= ITERATION_PAGE_SIZE * 2; i++) {
             UserType user = new UserType(prismContext)
                     .name(String.format("user-%05d", i))
-                    .costCenter(String.valueOf(i / 10)); // 10 per cost center
+                    .costCenter(String.valueOf(i / 10)) // 10 per cost center
+                    // every third without email, so we have nulls and duplicates for ordering
+                    .emailAddress(i % 3 == 0 ? null : "user" + i % 7 + "@example.com");
             repositoryService.addObject(user.asPrismObject(), null, result);
         }
     }
@@ -68,6 +78,7 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
     public void resetTestHandler() {
         testHandler.reset();
         repositoryConfiguration.setIterativeSearchByPagingBatchSize(ITERATION_PAGE_SIZE);
+        repositoryConfiguration.setIterativeSearchPrefetch(false);
     }
 
     @AfterMethod
@@ -321,6 +332,214 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
         }
     }
 
+    @Test
+    public void test126SearchIterativeWithMultiPathOrderingNullsFirst() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("query with multiple ordering paths, first one DESC with nulls (first)");
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(7);
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .desc(UserType.F_EMAIL_ADDRESS)
+                .asc(UserType.F_COST_CENTER)
+                .build();
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("all objects were processed in proper order");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.isPartialResults()).isFalse();
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+
+        QUser u = aliasFor(QUser.class);
+        assertProcessedInOrder(u, u.emailAddress.desc(), u.costCenter.asc(), u.oid.asc());
+    }
+
+    @Test
+    public void test127SearchIterativeWithMultiPathOrderingNullsLast() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("query with multiple ordering paths, first one ASC with nulls (last)");
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(7);
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .asc(UserType.F_EMAIL_ADDRESS)
+                .desc(UserType.F_COST_CENTER)
+                .build();
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("all objects were processed in proper order");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.isPartialResults()).isFalse();
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+
+        QUser u = aliasFor(QUser.class);
+        assertProcessedInOrder(u, u.emailAddress.asc(), u.costCenter.desc(), u.oid.asc());
+    }
+
+    /**
+     * Checks that employee numbers set by the handler follow the order specified for SQL.
+     * Default PG null ordering is used for both SQL and iterative search.
+     */
+    private void assertProcessedInOrder(QUser u, OrderSpecifier<?>... orderSpecifiers) {
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            List<String> result = jdbcSession.newQuery()
+                    .from(u)
+                    .orderBy(orderSpecifiers)
+                    .select(u.employeeNumber)
+                    .fetch();
+
+            for (int i = 0; i < result.size(); i++) {
+                assertThat(result.get(i)).isEqualTo(getTestNumber() + "-" + i);
+            }
+        }
+    }
+
+    @Test
+    public void test130SearchIterativeWithPrefetch() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        SqlPerformanceMonitorImpl pm = getPerformanceMonitor();
+        pm.clearGlobalPerformanceInformation();
+
+        given("prefetching enabled and page size not dividing the result count");
+        repositoryConfiguration.setIterativeSearchPrefetch(true);
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(47);
+
+        when("calling search iterative with null query");
+        SearchResultMetadata metadata = searchObjectsIterative(null, operationResult);
+
+        then("result metadata is not null and reports the handled objects");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(testHandler.getCounter());
+        assertThat(metadata.isPartialResults()).isFalse();
+
+        and("search operations were called, each page exactly once");
+        assertOperationRecordedCount(
+                REPO_OP_PREFIX + RepositoryService.OP_SEARCH_OBJECTS_ITERATIVE, 1);
+        assertTypicalPageOperationCount(metadata);
+
+        and("all objects were processed in OID order and the cookie is the last OID");
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+        QUser u = aliasFor(QUser.class);
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            List<String> result = jdbcSession.newQuery()
+                    .from(u)
+                    .orderBy(u.oid.asc())
+                    .select(u.employeeNumber)
+                    .fetch();
+
+            for (int i = 0; i < result.size(); i++) {
+                assertThat(result.get(i)).isEqualTo(getTestNumber() + "-" + i);
+            }
+
+            UUID lastOid = jdbcSession.newQuery()
+                    .from(u)
+                    .select(u.oid)
+                    .orderBy(u.oid.desc())
+                    .fetchFirst();
+            assertThat(metadata.getPagingCookie()).isEqualTo(lastOid.toString());
+        }
+    }
+
+    @Test
+    public void test131SearchIterativeWithPrefetchAndBreakingCondition() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        String midOid = "80000000-0000-0000-0000-000000000000";
+        given("prefetching enabled and condition that breaks iterative search based on UUID");
+        repositoryConfiguration.setIterativeSearchPrefetch(true);
+        testHandler.setStoppingPredicate(u -> u.getOid().compareTo(midOid) >= 0);
+
+        when("calling search iterative with null query");
+        SearchResultMetadata metadata = searchObjectsIterative(null, operationResult);
+
+        then("result metadata reports partial result and cookie of the last handled object");
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(testHandler.getCounter());
+        assertThat(metadata.isPartialResults()).isTrue(); // extremely likely with enough items
+        assertThat(metadata.getPagingCookie().compareTo(midOid)).isNotNegative();
+
+        and("prefetched but unhandled objects were not processed");
+        QUser u = aliasFor(QUser.class);
+        assertThat(testHandler.getCounter())
+                // first >= midOid was processed too
+                .isEqualTo(count(u, u.oid.lt(UUID.fromString(midOid))) + 1);
+    }
+
+    @Test
+    public void test132SearchIterativeWithPrefetchAndMaxSize() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        given("prefetching enabled and query with maxSize specified");
+        repositoryConfiguration.setIterativeSearchPrefetch(true);
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .maxSize(101)
+                .build();
+
+        when("calling search iterative");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult);
+
+        then("specified amount of objects was processed");
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(101);
+        assertThat(metadata.isPartialResults()).isFalse();
+        assertThat(testHandler.getCounter()).isEqualTo(101);
+    }
+
+    @Test
+    public void test133ConcurrentSearchesWithPrefetchUseBoundedThreads() throws Exception {
+        given("prefetching enabled, small pages and more concurrent searches than prefetch threads");
+        repositoryConfiguration.setIterativeSearchPrefetch(true);
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(10);
+        int maxPrefetchThreads = Math.max(1, repositoryConfiguration.getMaxPoolSize() / 4);
+        int searches = maxPrefetchThreads + 4;
+        ExecutorService executor = Executors.newFixedThreadPool(searches);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        Set<String> prefetchThreads = ConcurrentHashMap.newKeySet();
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < searches; i++) {
+            results.add(executor.submit(() -> {
+                startLatch.await();
+                AtomicInteger handled = new AtomicInteger();
+                repositoryService.searchObjectsIterative(UserType.class, null,
+                        (object, result) -> {
+                            handled.incrementAndGet();
+                            recordPrefetchThreads(prefetchThreads);
+                            return true;
+                        },
+                        null, true, createOperationResult());
+                return handled.get();
+            }));
+        }
+
+        when("all searches run at the same time");
+        startLatch.countDown();
+
+        then("each search handles all the objects");
+        long users = count(QUser.class);
+        for (Future<Integer> result : results) {
+            assertThat(result.get()).isEqualTo(users);
+        }
+        executor.shutdown();
+
+        and("no more prefetch threads than the part of the connection pool reserved for them were used");
+        display("Prefetch threads: " + prefetchThreads);
+        assertThat(prefetchThreads).isNotEmpty();
+        assertThat(prefetchThreads.size()).isLessThanOrEqualTo(maxPrefetchThreads);
+    }
+
+    private void recordPrefetchThreads(Set<String> prefetchThreads) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(SqaleRepositoryService.ITERATIVE_SEARCH_PREFETCH_THREAD_PREFIX)) {
+                prefetchThreads.add(thread.getName());
+            }
+        }
+    }
+
     @SafeVarargs
     private SearchResultMetadata searchObjectsIterative(
             ObjectQuery query,
@@ -0,0 +1,356 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.CloneUtil;
+import com.evolveum.midpoint.repo.api.ModifyObjectResult;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.SqaleRepositoryConfiguration;
+import com.evolveum.midpoint.repo.sqale.qmodel.assignment.MAssignment;
+import com.evolveum.midpoint.repo.sqale.qmodel.assignment.QAssignment;
+import com.evolveum.midpoint.repo.sqale.qmodel.assignment.QAssignmentMapping;
+import com.evolveum.midpoint.repo.sqale.qmodel.focus.QUser;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QOperationExecution;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.QOperationExecutionMapping;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SchemaService;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Tests storage of assignments and operation executions outside the full object,
+ * see `storeContainersSeparately` repository configuration property.
+ */
+public class SqaleRepoSeparateContainersTest extends SqaleRepoBaseTest {
+
+    private String userOid;
+
+    @BeforeClass
+    public void enableSeparateStorage() {
+        repositoryConfiguration.setStoreContainersSeparately(true);
+    }
+
+    @AfterClass
+    public void disableSeparateStorage() {
+        repositoryConfiguration.setStoreContainersSeparately(false);
+    }
+
+    @Test
+    public void test100AddUserWithContainers() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user with assignments and operation execution");
+        UserType user = new UserType(prismContext)
+                .name("user-separate")
+                .assignment(new AssignmentType()
+                        .description("assignment-1")
+                        .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE))
+                .assignment(new AssignmentType()
+                        .description("assignment-2")
+                        .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE))
+                .operationExecution(new OperationExecutionType()
+                        .status(OperationResultStatusType.SUCCESS)
+                        .message("opex-1"));
+
+        when("user is added");
+        userOid = repositoryService.addObject(user.asPrismObject(), null, result);
+
+        then("containers are not in the full object of the user");
+        assertThatOperationResult(result).isSuccess();
+        String fullObject = new String(
+                selectObjectByOid(QUser.class, userOid).fullObject, StandardCharsets.UTF_8);
+        assertThat(fullObject).doesNotContain("assignment-1", "assignment-2", "opex-1");
+
+        and("each container row has its serialized value");
+        assertThat(assignmentRows())
+                .hasSize(2)
+                .allMatch(row -> row.fullObject != null);
+        QOperationExecution<?> opex = QOperationExecutionMapping.get().defaultAlias();
+        assertThat(select(opex, opex.ownerOid.eq(UUID.fromString(userOid))))
+                .extracting(row -> row.fullObject)
+                .singleElement()
+                .isNotNull();
+
+        and("containers are read by default");
+        UserType userRead = getUser(null, result);
+        assertThat(userRead.getAssignment())
+                .extracting(AssignmentType::getDescription)
+                .containsExactly("assignment-1", "assignment-2");
+        assertThat(userRead.getOperationExecution())
+                .extracting(OperationExecutionType::getMessage)
+                .containsExactly("opex-1");
+
+        and("they are not read when excluded");
+        UserType userWithoutContainers = getUser(SchemaService.get().getOperationOptionsBuilder()
+                .item(FocusType.F_ASSIGNMENT).dontRetrieve()
+                .item(ObjectType.F_OPERATION_EXECUTION).dontRetrieve()
+                .build(), result);
+        assertThat(userWithoutContainers.getAssignment()).isEmpty();
+        assertThat(userWithoutContainers.getOperationExecution()).isEmpty();
+    }
+
+    @Test
+    public void test200ModifyAndDeleteAssignment() throws Exception {
+        OperationResult result = createOperationResult();
+        UserType user = getUser(null, result);
+        AssignmentType assignment1 = user.getAssignment().get(0);
+        AssignmentType assignment2 = user.getAssignment().get(1);
+        byte[] assignment2FullObject = assignmentRow(assignment2.getId()).fullObject;
+
+        when("description of the first assignment is changed");
+        repositoryService.modifyObject(UserType.class, userOid,
+                prismContext.deltaFor(UserType.class)
+                        .item(FocusType.F_ASSIGNMENT, assignment1.getId(), AssignmentType.F_DESCRIPTION)
+                        .replace("assignment-1-changed")
+                        .asItemDeltas(),
+                result);
+
+        then("only the row of the changed assignment is updated");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(new String(assignmentRow(assignment1.getId()).fullObject, StandardCharsets.UTF_8))
+                .contains("assignment-1-changed");
+        assertThat(assignmentRow(assignment2.getId()).fullObject).isEqualTo(assignment2FullObject);
+        assertThat(getUser(null, result).getAssignment())
+                .extracting(AssignmentType::getDescription)
+                .containsExactly("assignment-1-changed", "assignment-2");
+
+        when("the second assignment is deleted by value without ID");
+        repositoryService.modifyObject(UserType.class, userOid,
+                prismContext.deltaFor(UserType.class)
+                        .item(FocusType.F_ASSIGNMENT)
+                        .delete(assignment2.clone().id(null))
+                        .asItemDeltas(),
+                result);
+
+        then("its row is deleted");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(assignmentRows()).hasSize(1);
+        assertThat(getUser(null, result).getAssignment())
+                .extracting(AssignmentType::getDescription)
+                .containsExactly("assignment-1-changed");
+    }
+
+    @Test
+    public void test250ModifyNotTouchingContainersDoesNotLoadThem() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("user is modified without touching the containers");
+        queryRecorder.clearBufferAndStartRecording();
+        ModifyObjectResult<UserType> modifyResult = repositoryService.modifyObject(UserType.class, userOid,
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_EMPLOYEE_NUMBER).replace("250")
+                        .asItemDeltas(),
+                result);
+        queryRecorder.stopRecording();
+
+        then("containers are not loaded and are incomplete in the object after the modification");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(queryRecorder.getQueryBuffer())
+                .noneMatch(entry -> entry.sql.contains("m_assignment")
+                        || entry.sql.contains("m_operation_execution"));
+        PrismObject<UserType> objectAfter = modifyResult.getObjectAfter();
+        assertThat(objectAfter.asObjectable().getEmployeeNumber()).isEqualTo("250");
+        assertThat(objectAfter.findContainer(FocusType.F_ASSIGNMENT).isIncomplete()).isTrue();
+        assertThat(objectAfter.findContainer(ObjectType.F_OPERATION_EXECUTION).isIncomplete()).isTrue();
+
+        and("containers are intact");
+        UserType userRead = getUser(null, result);
+        assertThat(userRead.getAssignment())
+                .extracting(AssignmentType::getDescription)
+                .containsExactly("assignment-1-changed");
+        assertThat(userRead.getOperationExecution()).hasSize(1);
+        assertThat(userRead.asPrismObject().findContainer(FocusType.F_ASSIGNMENT).isIncomplete()).isFalse();
+    }
+
+    @Test
+    public void test300ObjectStoredBeforeSeparateStorageIsMigrated() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user stored with separate storage disabled");
+        repositoryConfiguration.setStoreContainersSeparately(false);
+        UserType user = new UserType(prismContext)
+                .name("user-legacy")
+                .assignment(new AssignmentType()
+                        .description("legacy-assignment")
+                        .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE));
+        String legacyOid = repositoryService.addObject(user.asPrismObject(), null, result);
+        repositoryConfiguration.setStoreContainersSeparately(true);
+
+        expect("assignment is read from the full object");
+        assertThat(repositoryService.getObject(UserType.class, legacyOid, null, result)
+                .asObjectable().getAssignment())
+                .extracting(AssignmentType::getDescription)
+                .containsExactly("legacy-assignment");
+
+        when("user is modified without touching the assignment");
+        repositoryService.modifyObject(UserType.class, legacyOid,
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_EMPLOYEE_NUMBER).replace("42")
+                        .asItemDeltas(),
+                result);
+
+        then("assignment is moved from the full object to its row");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(new String(selectObjectByOid(QUser.class, legacyOid).fullObject, StandardCharsets.UTF_8))
+                .doesNotContain("legacy-assignment");
+        QAssignment<?> a = QAssignmentMapping.getAssignmentMapping().defaultAlias();
+        assertThat(selectOne(a, a.ownerOid.eq(UUID.fromString(legacyOid))).fullObject).isNotNull();
+        assertThat(repositoryService.getObject(UserType.class, legacyOid, null, result)
+                .asObjectable().getAssignment())
+                .extracting(AssignmentType::getDescription)
+                .containsExactly("legacy-assignment");
+    }
+
+    @Test
+    public void test400OperationExecutionCleanupKeepsNumberOfRecords() throws Exception {
+        OperationResult result = createOperationResult();
+        int limit = 3;
+
+        given("user without operation executions");
+        String oid = repositoryService.addObject(
+                new UserType(prismContext).name("user-opex-cleanup").asPrismObject(), null, result);
+        Collection<SelectorOptions<GetOperationOptions>> readOnly =
+                SchemaService.get().getOperationOptionsBuilder().readOnly().build();
+
+        when("more records than the limit are written, deleting the oldest ones like the execution writer does");
+        for (int i = 1; i <= limit * 3; i++) {
+            List<OperationExecutionType> existing = repositoryService
+                    .getObject(UserType.class, oid, readOnly, result)
+                    .asObjectable().getOperationExecution();
+            List<OperationExecutionType> toDelete = existing.size() >= limit
+                    ? existing.subList(0, existing.size() - limit + 1)
+                    : List.of();
+            repositoryService.modifyObject(UserType.class, oid,
+                    prismContext.deltaFor(UserType.class)
+                            .item(ObjectType.F_OPERATION_EXECUTION)
+                            .delete(PrismContainerValue.toPcvList(CloneUtil.cloneCollectionMembers(toDelete)))
+                            .add(PrismContainerValue.toPcvList(List.of(new OperationExecutionType()
+                                    .status(OperationResultStatusType.SUCCESS)
+                                    .message("opex-" + i))))
+                            .asItemDeltas(),
+                    result);
+        }
+
+        then("existing records are seen by the readers and only the newest ones are kept");
+        assertThatOperationResult(result).isSuccess();
+        QOperationExecution<?> opex = QOperationExecutionMapping.get().defaultAlias();
+        assertThat(select(opex, opex.ownerOid.eq(UUID.fromString(oid)))).hasSize(limit);
+        assertThat(repositoryService.getObject(UserType.class, oid, readOnly, result)
+                .asObjectable().getOperationExecution())
+                .extracting(OperationExecutionType::getMessage)
+                .containsExactly("opex-7", "opex-8", "opex-9");
+    }
+
+    @Test
+    public void test500SearchLoadsContainersForWholePage() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("users and roles with containers");
+        for (int i = 1; i <= 3; i++) {
+            repositoryService.addObject(new UserType(prismContext)
+                    .name("user-page-" + i)
+                    .assignment(new AssignmentType().description("user-assignment-" + i))
+                    .asPrismObject(), null, result);
+            repositoryService.addObject(new RoleType(prismContext)
+                    .name("role-page-" + i)
+                    .assignment(new AssignmentType().description("role-assignment-" + i))
+                    .inducement(new AssignmentType().description("role-inducement-" + i))
+                    .asPrismObject(), null, result);
+        }
+
+        when("roles are searched");
+        queryRecorder.clearBufferAndStartRecording();
+        SearchResultList<RoleType> roles = searchObjects(RoleType.class,
+                prismContext.queryFor(RoleType.class)
+                        .item(RoleType.F_NAME).startsWith("role-page-")
+                        .build(),
+                result);
+        queryRecorder.stopRecording();
+
+        then("all containers are loaded with one query per container");
+        assertThat(roles).hasSize(3);
+        assertThat(roles).allSatisfy(role -> {
+            assertThat(role.getAssignment()).hasSize(1);
+            assertThat(role.getInducement()).hasSize(1);
+        });
+        assertThat(queryRecorder.getQueryBuffer())
+                .filteredOn(entry -> entry.sql.contains("m_assignment"))
+                .hasSize(2);
+
+        when("objects of various types are searched as assignment holders");
+        SearchResultList<AssignmentHolderType> holders = searchObjects(AssignmentHolderType.class,
+                prismContext.queryFor(AssignmentHolderType.class)
+                        .item(ObjectType.F_NAME).startsWith("user-page-")
+                        .or().item(ObjectType.F_NAME).startsWith("role-page-")
+                        .build(),
+                result);
+
+        then("containers of the actual types are loaded");
+        assertThat(holders).hasSize(6);
+        assertThat(holders)
+                .filteredOn(holder -> holder instanceof RoleType)
+                .allSatisfy(role -> assertThat(((RoleType) role).getInducement()).hasSize(1));
+        assertThat(holders).allSatisfy(holder -> assertThat(holder.getAssignment()).hasSize(1));
+    }
+
+    @Test
+    public void test600SwitchingSeparateStorageOffIsRefused() {
+        given("repository that stored containers separately");
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.executeStatement("INSERT INTO m_global_metadata VALUES ('containersStoredSeparately', 'true')"
+                    + " ON CONFLICT (name) DO NOTHING");
+            jdbcSession.commit();
+        }
+        repositoryConfiguration.setStoreContainersSeparately(false);
+
+        try {
+            expect("startup check fails when separate storage is disabled");
+            assertThatThrownBy(() -> repositoryService.checkContainerStorage())
+                    .isInstanceOf(SystemException.class)
+                    .hasMessageContaining(SqaleRepositoryConfiguration.PROPERTY_STORE_CONTAINERS_SEPARATELY);
+        } finally {
+            repositoryConfiguration.setStoreContainersSeparately(true);
+            try (JdbcSession jdbcSession = startTransaction()) {
+                jdbcSession.executeStatement("DELETE FROM m_global_metadata WHERE name = 'containersStoredSeparately'");
+                jdbcSession.commit();
+            }
+        }
+    }
+
+    private UserType getUser(Collection<SelectorOptions<GetOperationOptions>> options,
+            OperationResult result) throws Exception {
+        return repositoryService.getObject(UserType.class, userOid, options, result).asObjectable();
+    }
+
+    private List<MAssignment> assignmentRows() {
+        QAssignment<?> a = QAssignmentMapping.getAssignmentMapping().defaultAlias();
+        return select(a, a.ownerOid.eq(UUID.fromString(userOid)));
+    }
+
+    private MAssignment assignmentRow(Long cid) {
+        QAssignment<?> a = QAssignmentMapping.getAssignmentMapping().defaultAlias();
+        return selectOne(a, a.ownerOid.eq(UUID.fromString(userOid)), a.cid.eq(cid));
+    }
+}
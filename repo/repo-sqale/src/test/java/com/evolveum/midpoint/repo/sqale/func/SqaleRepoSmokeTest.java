@@ -14,6 +14,8 @@ import static com.evolveum.midpoint.repo.sqlbase.querydsl.FlexibleRelationalPath
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.UUID;
 
@@ -118,31 +120,50 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
                 .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE);
         repositoryService.addObject(user.asPrismObject(), null, result);
 
+        and("closure damaged by direct modification");
+        QOrgClosure oc = new QOrgClosure();
+        try (JdbcSession jdbcSession = startTransaction()) {
+            jdbcSession.newDelete(oc)
+                    .where(oc.ancestorOid.eq(UUID.fromString(rootOid))
+                            .and(oc.descendantOid.eq(UUID.fromString(orgOid))))
+                    .execute();
+            jdbcSession.commit();
+        }
+
         when("testOrgClosureConsistency() is called with rebuild flag");
         repositoryService.testOrgClosureConsistency(true, result);
 
         expect("operation is successful and contains info about closure");
         assertThatOperationResult(result).isSuccess();
         OperationResult subresult = result.getLastSubresult();
-        assertThat(subresult.getReturnSingle("closure-count")).isEqualTo(String.valueOf(baseCount));
-        assertThat(subresult.getReturnSingle("expected-count"))
-                // two equality rows for each org + 1 for parent reference
-                .isEqualTo(String.valueOf(baseCount + 3));
+        // two equality rows for each org + 1 for parent reference, but one was deleted
+        assertThat(subresult.getReturnSingle("closure-count")).isEqualTo(String.valueOf(baseCount + 2));
+        assertThat(subresult.getReturnSingle("expected-count")).isEqualTo(String.valueOf(baseCount + 3));
+        assertThat(subresult.getReturnSingle("inconsistent-count")).isEqualTo("1");
         assertThat(subresult.getReturnSingle("rebuild-done")).isEqualTo("true");
 
         and("closure is rebuilt");
-        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // as explained above
+        assertThat(count(oc)).isEqualTo(baseCount + 3); // as explained above
+
+        when("testOrgClosureConsistency() is called again");
+        repositoryService.testOrgClosureConsistency(true, result);
+
+        then("closure is consistent and no rebuild is done");
+        assertThatOperationResult(result).isSuccess();
+        subresult = result.getLastSubresult();
+        assertThat(subresult.getReturnSingle("inconsistent-count")).isEqualTo("0");
+        assertThat(subresult.getReturnSingle("rebuild-done")).isEqualTo("false");
     }
 
     @Test
-    public void test021OrgClosureIsRefreshedBeforeOrgFilterQuery() throws Exception {
+    public void test021OrgClosureIsMaintainedIncrementally() throws Exception {
         OperationResult result = createOperationResult();
 
         given("reset closure");
         refreshOrgClosureForce();
         long baseCount = count(new QOrgClosure());
 
-        given("user belonging to org hierarchy");
+        when("user belonging to org hierarchy is added");
         OrgType orgRoot = new OrgType(prismContext).name("orgRoot" + getTestNumber());
         String rootOid = repositoryService.addObject(orgRoot.asPrismObject(), null, result);
         OrgType org = new OrgType(prismContext).name("org" + getTestNumber())
@@ -151,21 +172,89 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
         UserType user = new UserType(prismContext).name("user" + getTestNumber())
                 .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE);
         String userOid = repositoryService.addObject(user.asPrismObject(), null, result);
-        assertThat(count(new QOrgClosure())).isEqualTo(baseCount); // not refreshed yet
+
+        then("closure is updated immediately");
+        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // see previous test
 
         when("query with org filter is used");
         SearchResultList<PrismObject<UserType>> users = repositoryService.searchObjects(
                 UserType.class, prismContext.queryFor(UserType.class).isChildOf(rootOid).build(),
                 null, result);
 
-        expect("operation is successful and returns proper results");
+        then("operation is successful and returns proper results");
         assertThatOperationResult(result).isSuccess();
         assertThat(users).hasSize(1)
                 .extracting(p -> p.asObjectable().getOid())
                 .containsExactlyInAnyOrder(userOid);
 
-        and("closure is rebuilt");
-        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // see previous test
+        when("the org is moved out of the hierarchy");
+        repositoryService.modifyObject(OrgType.class, orgOid,
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .delete(new ObjectReferenceType().oid(rootOid).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                result);
+
+        then("closure contains only identity rows for both orgs");
+        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 2);
+        assertThat(repositoryService.searchObjects(
+                UserType.class, prismContext.queryFor(UserType.class).isChildOf(rootOid).build(),
+                null, result)).isEmpty();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test022OrgClosureWithMultipleParents() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("org hierarchy where the bottom org is reachable by two paths");
+        // root => left, right => bottom
+        String rootOid = repositoryService.addObject(
+                new OrgType(prismContext).name("root" + getTestNumber()).asPrismObject(), null, result);
+        String leftOid = repositoryService.addObject(
+                new OrgType(prismContext).name("left" + getTestNumber())
+                        .parentOrgRef(rootOid, OrgType.COMPLEX_TYPE)
+                        .asPrismObject(), null, result);
+        String rightOid = repositoryService.addObject(
+                new OrgType(prismContext).name("right" + getTestNumber())
+                        .parentOrgRef(rootOid, OrgType.COMPLEX_TYPE)
+                        .asPrismObject(), null, result);
+        String bottomOid = repositoryService.addObject(
+                new OrgType(prismContext).name("bottom" + getTestNumber())
+                        .parentOrgRef(leftOid, OrgType.COMPLEX_TYPE)
+                        .parentOrgRef(rightOid, OrgType.COMPLEX_TYPE)
+                        .asPrismObject(), null, result);
+
+        QOrgClosure oc = new QOrgClosure();
+        UUID rootUuid = UUID.fromString(rootOid);
+        UUID bottomUuid = UUID.fromString(bottomOid);
+        assertThat(selectOne(oc, oc.ancestorOid.eq(rootUuid).and(oc.descendantOid.eq(bottomUuid))).paths)
+                .isEqualTo(2);
+
+        when("one of the paths is removed");
+        repositoryService.modifyObject(OrgType.class, bottomOid,
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .delete(new ObjectReferenceType().oid(leftOid).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                result);
+
+        then("bottom org is still descendant of the root");
+        assertThat(selectOne(oc, oc.ancestorOid.eq(rootUuid).and(oc.descendantOid.eq(bottomUuid))).paths)
+                .isEqualTo(1);
+        assertThat(repositoryService.isDescendant(
+                repositoryService.getObject(OrgType.class, bottomOid, null, result), rootOid))
+                .isTrue();
+
+        when("the other path is removed by deleting the middle org");
+        repositoryService.deleteObject(OrgType.class, rightOid, result);
+
+        then("bottom org is no longer descendant of the root and closure is consistent");
+        assertThat(selectOneNullable(oc, oc.ancestorOid.eq(rootUuid).and(oc.descendantOid.eq(bottomUuid))))
+                .isNull();
+        repositoryService.testOrgClosureConsistency(false, result);
+        assertThat(result.getLastSubresult().getReturnSingle("inconsistent-count")).isEqualTo("0");
+        assertThatOperationResult(result).isSuccess();
     }
 
     @Test
@@ -278,6 +367,35 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
         assertThatOperationResult(result).isFatalError();
     }
 
+    @Test
+    public void test204GetObjects() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("existing users and cleared performance information");
+        String user1Oid = repositoryService.addObject(
+                new UserType(prismContext).name("user" + getTestNumber() + "a").asPrismObject(), null, result);
+        String user2Oid = repositoryService.addObject(
+                new UserType(prismContext).name("user" + getTestNumber() + "b").asPrismObject(), null, result);
+        String dashboardOid = repositoryService.addObject(
+                new DashboardType(prismContext).name("dashboard" + getTestNumber()).asPrismObject(), null, result);
+        String nonExistingOid = UUID.randomUUID().toString();
+        SqlPerformanceMonitorImpl pm = repositoryService.getPerformanceMonitor();
+        pm.clearGlobalPerformanceInformation();
+
+        when("getObjects is called for existing, non-existent and wrong type OIDs");
+        Map<String, PrismObject<UserType>> objects = repositoryService.getObjects(UserType.class,
+                List.of(user2Oid, nonExistingOid, dashboardOid, user1Oid, user2Oid), null, result);
+
+        then("existing users are returned in the order of OIDs, others are ignored");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(objects).containsOnlyKeys(user2Oid, user1Oid);
+        assertThat(objects.keySet()).containsExactly(user2Oid, user1Oid);
+        assertThat(objects.get(user1Oid).getName().getOrig()).isEqualTo("user" + getTestNumber() + "a");
+
+        and("single query is executed");
+        assertSingleOperationRecorded(REPO_OP_PREFIX + RepositoryService.OP_GET_OBJECTS);
+    }
+
     @Test
     public void test210GetVersion() throws Exception {
         OperationResult result = createOperationResult();
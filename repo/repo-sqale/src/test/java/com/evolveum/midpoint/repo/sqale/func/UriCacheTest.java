@@ -11,11 +11,19 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import static com.evolveum.midpoint.repo.sqale.UriCache.UNKNOWN_ID;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
 import com.evolveum.midpoint.repo.sqale.UriCache;
+import com.evolveum.midpoint.repo.sqale.qmodel.common.QUri;
 
 /**
  * This tests {@link UriCache} including multi-node simulation using two separate cache instances.
@@ -79,4 +87,32 @@ public class UriCacheTest extends SqaleRepoBaseTest {
         then("it when stored to cache, id from cache 1 will be obtained");
         assertThat(uriCache2.processCacheableUri(uriValue)).isEqualTo(uriId);
     }
+
+    @Test
+    public void test400ConcurrentMissesForTheSameUri() throws Exception {
+        given("new URI and many threads ready to store it at once");
+        String uriValue = "test-uri-" + getTestNameShort();
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                startLatch.await();
+                return uriCache1.processCacheableUri(uriValue);
+            }));
+        }
+
+        when("all threads store the URI at the same time");
+        startLatch.countDown();
+
+        then("all threads get the same ID and only one row is in the DB");
+        Integer uriId = results.get(0).get();
+        for (Future<Integer> result : results) {
+            assertThat(result.get()).isEqualTo(uriId);
+        }
+        executor.shutdown();
+
+        assertThat(count(QUri.DEFAULT, QUri.DEFAULT.uri.eq(uriValue))).isEqualTo(1);
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.*;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import com.querydsl.core.types.dsl.Expressions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.SqaleWorkBucketStore;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.QWorkBucket;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NumericIntervalWorkBucketContentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+public class WorkBucketStoreTest extends SqaleRepoBaseTest {
+
+    private static final String PATH = "reconciliation/resourceObjects";
+    private static final long LEASE = 60_000L;
+
+    @Autowired private SqaleWorkBucketStore workBucketStore;
+
+    private String coordinatorOid;
+    private final String worker1Oid = UUID.randomUUID().toString();
+    private final String worker2Oid = UUID.randomUUID().toString();
+
+    @BeforeClass
+    public void initObjects() throws Exception {
+        OperationResult result = createOperationResult();
+        coordinatorOid = repositoryService.addObject(
+                new TaskType(prismContext).name("coordinator").asPrismObject(), null, result);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test100AddAndClaimBuckets() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("three ready buckets are added");
+        boolean added = workBucketStore.addBuckets(
+                coordinatorOid, PATH, List.of(bucket(1, READY), bucket(2, READY), bucket(3, READY)), LEASE, result);
+
+        then("they are stored");
+        assertThat(added).isTrue();
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, null, result)).isEqualTo(3);
+        assertThat(workBucketStore.getLastBucket(coordinatorOid, PATH, result))
+                .extracting(WorkBucketType::getSequentialNumber)
+                .isEqualTo(3);
+
+        and("buckets with the same numbers can't be added again");
+        assertThat(workBucketStore.addBuckets(
+                coordinatorOid, PATH, List.of(bucket(3, READY), bucket(4, READY)), LEASE, result))
+                .isFalse();
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, null, result)).isEqualTo(3);
+
+        when("workers claim the buckets");
+        List<WorkBucketType> claimed1 = workBucketStore.claimBuckets(coordinatorOid, PATH, worker1Oid, 1, LEASE, result);
+        List<WorkBucketType> claimed2 = workBucketStore.claimBuckets(coordinatorOid, PATH, worker2Oid, 1, LEASE, result);
+
+        then("each gets a different bucket in the order of sequential numbers, with the content");
+        assertThat(claimed1).hasSize(1);
+        WorkBucketType bucket1 = claimed1.get(0);
+        assertThat(bucket1.getSequentialNumber()).isEqualTo(1);
+        assertThat(bucket1.getState()).isEqualTo(DELEGATED);
+        assertThat(bucket1.getWorkerRef().getOid()).isEqualTo(worker1Oid);
+        assertThat(bucket1.getContent()).isEqualTo(bucket(1, READY).getContent());
+        assertThat(claimed2).extracting(WorkBucketType::getSequentialNumber).containsExactly(2);
+        assertThat(workBucketStore.getDelegatedBuckets(coordinatorOid, PATH, worker1Oid, result))
+                .extracting(WorkBucketType::getSequentialNumber)
+                .containsExactly(1);
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, DELEGATED, result)).isEqualTo(2);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test200CompleteAndReleaseBuckets() {
+        OperationResult result = createOperationResult();
+
+        when("worker 1 completes its bucket and worker 2 releases its bucket");
+        boolean completed = workBucketStore.completeBucket(coordinatorOid, PATH, 1, worker1Oid, result);
+        int released = workBucketStore.releaseBuckets(coordinatorOid, PATH, worker2Oid, null, result);
+
+        then("bucket states are updated");
+        assertThat(completed).isTrue();
+        assertThat(released).isEqualTo(1);
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, COMPLETE, result)).isEqualTo(1);
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, READY, result)).isEqualTo(2);
+
+        and("bucket not delegated to the worker can't be completed by it");
+        assertThat(workBucketStore.completeBucket(coordinatorOid, PATH, 2, worker1Oid, result)).isFalse();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test300ClaimBucketWithExpiredLease() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("worker 1 holds bucket 2 with the lease already expired");
+        assertThat(workBucketStore.claimBuckets(coordinatorOid, PATH, worker1Oid, 1, -1, result))
+                .extracting(WorkBucketType::getSequentialNumber)
+                .containsExactly(2);
+
+        when("worker 2 claims buckets");
+        List<WorkBucketType> claimed = workBucketStore.claimBuckets(coordinatorOid, PATH, worker2Oid, 5, LEASE, result);
+
+        then("it gets also the abandoned bucket");
+        assertThat(claimed).extracting(WorkBucketType::getSequentialNumber).containsExactly(2, 3);
+        assertThat(workBucketStore.renewLeases(coordinatorOid, PATH, worker1Oid, LEASE, result)).isZero();
+        assertThat(workBucketStore.renewLeases(coordinatorOid, PATH, worker2Oid, LEASE, result)).isEqualTo(2);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test310CompleteBucketWithLostLease() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("worker 1 tries to complete the bucket it has lost to worker 2");
+        boolean completed = workBucketStore.completeBucket(coordinatorOid, PATH, 2, worker1Oid, result);
+
+        then("it is refused, and the stored bucket tells that it belongs to worker 2 now");
+        assertThat(completed).isFalse();
+        WorkBucketType bucket = workBucketStore.getBucket(coordinatorOid, PATH, 2, result);
+        assertThat(bucket).isNotNull();
+        assertThat(bucket.getState()).isEqualTo(DELEGATED);
+        assertThat(bucket.getWorkerRef().getOid()).isEqualTo(worker2Oid);
+
+        and("non-existing bucket is not returned");
+        assertThat(workBucketStore.getBucket(coordinatorOid, PATH, 100, result)).isNull();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test320LeaseIsComputedByDatabase() {
+        OperationResult result = createOperationResult();
+
+        when("worker 2 renews its leases");
+        assertThat(workBucketStore.renewLeases(coordinatorOid, PATH, worker2Oid, LEASE, result)).isEqualTo(2);
+
+        then("lease expiration is based on the database time");
+        QWorkBucket wb = QWorkBucket.DEFAULT;
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            Instant dbNow = jdbcSession.newQuery()
+                    .select(Expressions.dateTimeTemplate(Instant.class, "now()"))
+                    .fetchOne();
+            assertThat(select(wb, wb.workerOid.eq(UUID.fromString(worker2Oid))))
+                    .extracting(row -> row.leaseExpiration)
+                    .hasSize(2)
+                    .allSatisfy(leaseExpiration -> assertThat(leaseExpiration)
+                            .isAfter(dbNow)
+                            .isBeforeOrEqualTo(dbNow.plusMillis(LEASE)));
+        }
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test400DeleteBuckets() {
+        OperationResult result = createOperationResult();
+
+        when("buckets are deleted");
+        int deleted = workBucketStore.deleteBuckets(coordinatorOid, PATH, result);
+
+        then("no buckets are left");
+        assertThat(deleted).isEqualTo(3);
+        assertThat(count(QWorkBucket.DEFAULT)).isZero();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    private WorkBucketType bucket(int sequentialNumber, WorkBucketStateType state) {
+        return new WorkBucketType()
+                .sequentialNumber(sequentialNumber)
+                .state(state)
+                .content(new NumericIntervalWorkBucketContentType()
+                        .from(BigInteger.valueOf(sequentialNumber * 100L))
+                        .to(BigInteger.valueOf(sequentialNumber * 100L + 100)));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.perf;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.javasimon.Split;
+import org.javasimon.Stopwatch;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.sqale.ExtItemCache;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.qmodel.ext.MExtItem;
+import com.evolveum.midpoint.repo.sqale.qmodel.ext.MExtItemCardinality;
+import com.evolveum.midpoint.repo.sqale.qmodel.ext.MExtItemHolderType;
+import com.evolveum.midpoint.tools.testng.PerformanceTestClassMixin;
+
+/**
+ * Measures contended cache hit path of {@link ExtItemCache} (and URI cache), which is used for
+ * every extension item of every stored or searched object.
+ * The test is not part of automatically run tests (it is not mentioned in suite XMLs).
+ * Use `-Dthreads=...` and `-Dlookups=...` (per thread) to change the defaults.
+ */
+public class ExtItemCachePerfTest extends SqaleRepoBaseTest
+        implements PerformanceTestClassMixin {
+
+    public static final int THREADS = Integer.parseInt(System.getProperty("threads", "32"));
+    public static final int LOOKUPS = Integer.parseInt(System.getProperty("lookups", "1000000"));
+    public static final int EXT_ITEM_COUNT = 40;
+
+    private final List<MExtItem.Key> keys = new ArrayList<>();
+
+    @BeforeClass
+    public void initKeys() {
+        for (int i = 0; i < EXT_ITEM_COUNT; i++) {
+            MExtItem.Key key = new MExtItem.Key();
+            key.itemName = "{https://example.com/perf}item" + i;
+            key.valueType = "{http://www.w3.org/2001/XMLSchema}string";
+            key.holderType = MExtItemHolderType.EXTENSION;
+            key.cardinality = MExtItemCardinality.SCALAR;
+            keys.add(key);
+            // first resolution inserts the items, the rest of the test uses cache hits only
+            sqlRepoContext.resolveExtensionItem(key);
+        }
+    }
+
+    @Test
+    public void test100ContendedExtItemCacheHits() throws Exception {
+        runContended("extItem.hit", "Ext item cache hits", i ->
+                assertThat(sqlRepoContext.resolveExtensionItem(keys.get(i % EXT_ITEM_COUNT)))
+                        .isNotNull());
+    }
+
+    @Test
+    public void test110ContendedUriCacheHits() throws Exception {
+        String uri = "https://example.com/perf/uri";
+        sqlRepoContext.processCacheableUri(uri);
+
+        runContended("uri.hit", "URI cache hits", i ->
+                assertThat(sqlRepoContext.processCacheableUri(uri)).isNotNull());
+    }
+
+    private void runContended(String monitorName, String description, IndexConsumer lookup)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                startLatch.await();
+                for (int i = 0; i < LOOKUPS; i++) {
+                    lookup.accept(i);
+                }
+                return null;
+            }));
+        }
+
+        Stopwatch stopwatch = stopwatch(monitorName, description);
+        long durationNs;
+        try (Split split = stopwatch.start()) {
+            startLatch.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            durationNs = split.runningFor();
+        } finally {
+            executor.shutdown();
+        }
+
+        long totalLookups = (long) THREADS * LOOKUPS;
+        display(String.format("%s: %d threads, %,d lookups in %,d ms, %.1f ns/lookup, %,.0f lookups/s",
+                description, THREADS, totalLookups, durationNs / 1_000_000,
+                (double) durationNs / totalLookups, totalLookups * 1e9 / durationNs));
+    }
+
+    @FunctionalInterface
+    private interface IndexConsumer {
+        void accept(int index);
+    }
+}
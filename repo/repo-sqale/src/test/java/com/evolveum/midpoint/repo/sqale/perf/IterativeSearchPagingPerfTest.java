@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.perf;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.javasimon.Split;
+import org.javasimon.Stopwatch;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.S_QueryExit;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.qmodel.focus.QUser;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.tools.testng.PerformanceTestClassMixin;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Compares keyset paging used by iterative search (with multi-path ordering)
+ * with the naive offset paging over the same ordering.
+ * The test is not part of automatically run tests (it is not mentioned in suite XMLs).
+ * Database is not cleared, users are only added up to the specified count, so the data
+ * can be reused for repeated runs; use `-DuserCount=...` to change the default 1M users.
+ * Offset paging is quadratic, use `-DoffsetPagingLimit=...` to stop it sooner.
+ */
+public class IterativeSearchPagingPerfTest extends SqaleRepoBaseTest
+        implements PerformanceTestClassMixin {
+
+    public static final int USER_COUNT = Integer.parseInt(System.getProperty("userCount", "1000000"));
+    public static final int OFFSET_PAGING_LIMIT =
+            Integer.parseInt(System.getProperty("offsetPagingLimit", String.valueOf(USER_COUNT)));
+    public static final int PAGE_SIZE = 100;
+
+    @BeforeClass
+    @Override
+    public void initDatabase() throws Exception {
+        // Commented to avoid DB clearing, filling the DB takes a lot of time.
+//        super.initDatabase();
+    }
+
+    @Test
+    public void test010FillDatabase() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        long existingCount = count(QUser.class);
+        for (long userIndex = existingCount + 1; userIndex <= USER_COUNT; userIndex++) {
+            String name = String.format("user-%07d", userIndex);
+            UserType user = new UserType(prismContext)
+                    .name(PolyStringType.fromOrig(name))
+                    // few hundreds of cost centers, so the ordering has many duplicates
+                    .costCenter(String.format("cc-%03d", userIndex % 317))
+                    // some nulls too
+                    .emailAddress(userIndex % 5 == 0 ? null : name + "@example.com");
+            try {
+                repositoryService.addObject(user.asPrismObject(), null, operationResult);
+            } catch (ObjectAlreadyExistsException e) {
+                // never mind, we have it already
+            }
+            if (userIndex % 10000 == 0) {
+                display("Created users: " + userIndex);
+            }
+        }
+    }
+
+    @Test
+    public void test100KeysetPaging() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        repositoryConfiguration.setIterativeSearchByPagingBatchSize(PAGE_SIZE);
+        ObjectQuery query = orderedQuery().build();
+
+        Stopwatch stopwatch = stopwatch("search.keyset", "Iterative search with keyset paging");
+        AtomicInteger counter = new AtomicInteger();
+        try (Split ignored = stopwatch.start()) {
+            repositoryService.searchObjectsIterative(UserType.class, query,
+                    (object, result) -> counter.incrementAndGet() > 0,
+                    null, true, operationResult);
+        }
+        display("Keyset paging processed " + counter.get() + " users");
+        assertThat(counter.get()).isEqualTo(count(QUser.class));
+    }
+
+    @Test
+    public void test110OffsetPaging() throws Exception {
+        OperationResult operationResult = createOperationResult();
+
+        Stopwatch stopwatch = stopwatch("search.offset", "Search with offset paging");
+        int offset = 0;
+        try (Split ignored = stopwatch.start()) {
+            while (offset < OFFSET_PAGING_LIMIT) {
+                List<PrismObject<UserType>> page = repositoryService.searchObjects(UserType.class,
+                        orderedQuery().offset(offset).maxSize(PAGE_SIZE).build(),
+                        null, operationResult);
+                offset += page.size();
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+            }
+        }
+        display("Offset paging processed " + offset + " users");
+    }
+
+    private S_QueryExit orderedQuery() {
+        return prismContext.queryFor(UserType.class)
+                .asc(UserType.F_COST_CENTER)
+                .desc(UserType.F_EMAIL_ADDRESS)
+                .asc(UserType.F_NAME);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.perf;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.javasimon.Split;
+import org.javasimon.Stopwatch;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgClosure;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.tools.testng.PerformanceTestClassMixin;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+
+/**
+ * Compares the cost of incremental org closure maintenance with the full closure rebuild
+ * for growing org tree.
+ * For each tree size a few org subtrees are moved to another parent (and back), which is
+ * handled by the closure triggers, and then the full rebuild of the closure is executed.
+ * The test is not part of automatically run tests (it is not mentioned in suite XMLs).
+ * Use `-DorgTreeSizes=...` with ascending comma-separated sizes to change the default sizes.
+ */
+public class OrgClosurePerfTest extends SqaleRepoBaseTest
+        implements PerformanceTestClassMixin {
+
+    public static final int[] TREE_SIZES = Arrays.stream(
+                    System.getProperty("orgTreeSizes", "1000,10000,100000").split(","))
+            .mapToInt(s -> Integer.parseInt(s.trim()))
+            .toArray();
+    public static final int BRANCHING = 10;
+    public static final int MOVES_PER_SIZE = 20;
+
+    private final Random random = new Random(47);
+
+    /**
+     * Org with index `i` has parent `(i - 1) / BRANCHING`, so all descendants of an org
+     * have higher index than the org itself.
+     */
+    private final List<String> orgOids = new ArrayList<>();
+
+    @Test
+    public void test100ClosureMaintenanceCost() throws Exception {
+        OperationResult result = createOperationResult();
+
+        for (int size : TREE_SIZES) {
+            growTree(size, result);
+            display("Orgs: " + size + ", org closure: " + count(new QOrgClosure()));
+
+            Stopwatch moveStopwatch = stopwatch("move." + size, "Subtree move, tree size " + size);
+            for (int i = 0; i < MOVES_PER_SIZE; i++) {
+                // orgs on the upper levels, so the moved subtree is not trivial
+                int index = BRANCHING + random.nextInt(size / BRANCHING - BRANCHING);
+                int parentIndex = (index - 1) / BRANCHING;
+                // org with lower index can't be a descendant, so there is no cycle
+                int newParentIndex;
+                do {
+                    newParentIndex = random.nextInt(index);
+                } while (newParentIndex == parentIndex);
+
+                try (Split ignored = moveStopwatch.start()) {
+                    moveOrg(index, parentIndex, newParentIndex, result);
+                }
+                // moved back, so the tree shape is kept for the next size
+                moveOrg(index, newParentIndex, parentIndex, result);
+            }
+
+            Stopwatch rebuildStopwatch = stopwatch("rebuild." + size, "Full rebuild, tree size " + size);
+            try (Split ignored = rebuildStopwatch.start()) {
+                refreshOrgClosureForce();
+            }
+
+            repositoryService.testOrgClosureConsistency(false, result);
+            assertThat(result.getLastSubresult().getReturnSingle("inconsistent-count")).isEqualTo("0");
+        }
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    private void growTree(int size, OperationResult result) throws Exception {
+        for (int index = orgOids.size(); index < size; index++) {
+            OrgType org = new OrgType(prismContext).name(String.format("org-%07d", index));
+            if (index > 0) {
+                org.parentOrgRef(orgOids.get((index - 1) / BRANCHING), OrgType.COMPLEX_TYPE);
+            }
+            orgOids.add(repositoryService.addObject(org.asPrismObject(), null, result));
+            if ((index + 1) % 10000 == 0) {
+                display("Created orgs: " + (index + 1));
+            }
+        }
+    }
+
+    private void moveOrg(int index, int fromIndex, int toIndex, OperationResult result)
+            throws Exception {
+        repositoryService.modifyObject(OrgType.class, orgOids.get(index),
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .delete(orgRef(fromIndex))
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .add(orgRef(toIndex))
+                        .asItemDeltas(),
+                result);
+    }
+
+    private ObjectReferenceType orgRef(int index) {
+        return new ObjectReferenceType().oid(orgOids.get(index)).type(OrgType.COMPLEX_TYPE);
+    }
+}
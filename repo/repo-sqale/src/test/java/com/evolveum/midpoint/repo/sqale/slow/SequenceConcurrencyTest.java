@@ -6,6 +6,7 @@
  */
 package com.evolveum.midpoint.repo.sqale.slow;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.testng.AssertJUnit.fail;
 
 import java.util.ArrayList;
@@ -25,6 +26,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.SequenceType;
 public class SequenceConcurrencyTest extends SqaleRepoBaseTest {
 
     private static final int STOP_TIMEOUT = 10_000;
+    private static final int THROUGHPUT_DURATION = 5_000;
+    private static final int BLOCK_SIZE = 100;
 
     @Test
     public void test101OneThread() throws Exception {
@@ -100,6 +103,100 @@ public class SequenceConcurrencyTest extends SqaleRepoBaseTest {
         concurrencyUniversal(10_000L, mts, true);
     }
 
+    @Test
+    public void test301ThroughputOneThread() throws Exception {
+        throughput(1, 1);
+    }
+
+    @Test
+    public void test302ThroughputEightThreads() throws Exception {
+        throughput(8, 1);
+    }
+
+    @Test
+    public void test303ThroughputThirtyTwoThreads() throws Exception {
+        throughput(32, 1);
+    }
+
+    @Test
+    public void test311ThroughputOneThreadBlocks() throws Exception {
+        throughput(1, BLOCK_SIZE);
+    }
+
+    @Test
+    public void test312ThroughputEightThreadsBlocks() throws Exception {
+        throughput(8, BLOCK_SIZE);
+    }
+
+    @Test
+    public void test313ThroughputThirtyTwoThreadsBlocks() throws Exception {
+        throughput(32, BLOCK_SIZE);
+    }
+
+    /**
+     * Measures the number of values obtained per second and checks that the values are unique.
+     * Values are handed out in the order of allocation (blocks are reserved one at a time for the sequence
+     * and the values of the block are handed out in order), so all the values obtained must form
+     * a continuous range starting with zero, also in the block mode.
+     * The counter in the repository can be ahead only by values reserved and not handed out yet.
+     */
+    private void throughput(int threads, int allocationBlockSize) throws Exception {
+        OperationResult result = createOperationResult();
+        String oid = repositoryService.addObject(
+                new SequenceType(prismContext)
+                        .name(getTestNameShort())
+                        .counter(0L)
+                        .allocationBlockSize(allocationBlockSize)
+                        .asPrismObject(),
+                null, result);
+
+        WorkerThread[] workerThreads = new WorkerThread[threads];
+        for (int i = 0; i < threads; i++) {
+            workerThreads[i] = new WorkerThread(i + 1);
+            workerThreads[i].setOid(oid);
+        }
+        long start = System.currentTimeMillis();
+        for (WorkerThread t : workerThreads) {
+            t.start();
+        }
+        Thread.sleep(THROUGHPUT_DURATION);
+        for (WorkerThread t : workerThreads) {
+            t.stop = true;
+        }
+        for (WorkerThread t : workerThreads) {
+            t.join(STOP_TIMEOUT);
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        List<Long> allValues = new ArrayList<>();
+        for (WorkerThread t : workerThreads) {
+            assertThat(t.isAlive()).as("worker thread %d is still running", t.id).isFalse();
+            if (t.threadResult != null) {
+                throw new AssertionError(
+                        "Worker thread " + t.id + " finished with an exception: " + t.threadResult,
+                        t.threadResult);
+            }
+            allValues.addAll(t.values);
+        }
+        int count = allValues.size();
+        display(String.format("%d thread(s), allocation block size %d: %d values in %d ms, %.1f values/s",
+                threads, allocationBlockSize, count, duration, count * 1000.0 / duration));
+
+        assertThat(count).as("number of values obtained").isPositive();
+        assertThat(allValues).as("values obtained by all threads").doesNotHaveDuplicates();
+        Collections.sort(allValues);
+        assertThat(allValues.get(0)).as("the lowest value").isZero();
+        assertThat(allValues.get(count - 1))
+                .as("the highest value (values must form a continuous range from zero)")
+                .isEqualTo(count - 1L);
+
+        long counter = repositoryService.getObject(SequenceType.class, oid, null, result)
+                .asObjectable().getCounter();
+        assertThat(counter)
+                .as("sequence counter, ahead only by the values reserved by the last block")
+                .isBetween((long) count, (long) count + allocationBlockSize - 1);
+    }
+
     private void concurrencyUniversal(
             long duration, WorkerThread[] workerThreads, boolean alwaysOrder) throws Exception {
 
@@ -493,6 +493,11 @@ public abstract class SqlQueryContext<S, Q extends FlexibleRelationalPathBase<R>
         return parent;
     }
 
+    /** Returns options provided by {@link #processOptions}, also available to the row transformer. */
+    public Collection<SelectorOptions<GetOperationOptions>> options() {
+        return options;
+    }
+
     /**
      * Returns entity path of this context.
      */
@@ -195,7 +195,10 @@ public class MidPointPrincipal implements UserDetails,  DebugDumpable, ShortDump
     protected void copyValues(MidPointPrincipal clone) {
         clone.applicableSecurityPolicy = this.applicableSecurityPolicy;
         clone.authorizations = cloneAuthorities();
-        clone.effectiveActivationStatus = this.effectiveActivationStatus;
+        if (clone.focus == this.focus) {
+            // Otherwise the status is determined from the clone's own focus object.
+            clone.effectiveActivationStatus = this.effectiveActivationStatus;
+        }
         clone.delegatorWithOtherPrivilegesLimitationsCollection.addAll(this.delegatorWithOtherPrivilegesLimitationsCollection);
     }
 
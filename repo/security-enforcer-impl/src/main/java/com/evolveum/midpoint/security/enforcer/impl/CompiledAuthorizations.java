@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.query.InOidFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ValueFilter;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.util.Holder;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationPhaseType;
+import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
+
+/**
+ * Authorizations of a principal, compiled for repeated evaluation.
+ *
+ * 1. Authorizations are indexed by action URL and phase, so only the relevant ones are evaluated.
+ * The original order of authorizations is kept.
+ *
+ * 2. Parsed selector filters are kept, so they are not parsed again for each evaluation.
+ *
+ * 3. Security filters derived from authorization selectors are kept, if they depend only on the principal
+ * and the object type (i.e. not on the search filter, expressions or the subject tenant).
+ *
+ * Compiled authorizations are valid as long as the collection of principal authorizations is not changed,
+ * see {@link #isUpToDate(Collection)}. Cached content must not be modified by the clients.
+ */
+class CompiledAuthorizations {
+
+    /** Snapshot of authorizations this object was compiled from. */
+    @NotNull private final Authorization[] authorizations;
+
+    /** Authorizations applicable to given action (including #all), as positions in {@link #authorizations}. */
+    @NotNull private final Map<String, BitSet> actionIndex = new HashMap<>();
+
+    /** Authorizations applicable to #all action. Used for actions not mentioned explicitly. */
+    @NotNull private final BitSet allActionIndex = new BitSet();
+
+    /** Authorizations without phase. */
+    @NotNull private final BitSet nullPhaseIndex = new BitSet();
+
+    /** Authorizations with specific phase. */
+    @NotNull private final Map<AuthorizationPhaseType, BitSet> phaseIndex = new EnumMap<>(AuthorizationPhaseType.class);
+
+    /** Selector filters parsed for given object type. */
+    @NotNull private final Map<ParsedFilterKey, ParsedFilter> parsedFilters = new ConcurrentHashMap<>();
+
+    /** Security filters computed from authorization selectors. */
+    @NotNull private final Map<SecurityFilterKey, AutzSecurityFilter> securityFilters = new ConcurrentHashMap<>();
+
+    private CompiledAuthorizations(@NotNull Collection<Authorization> authorizations) {
+        this.authorizations = authorizations.toArray(new Authorization[0]);
+        for (AuthorizationPhaseType phase : AuthorizationPhaseType.values()) {
+            phaseIndex.put(phase, new BitSet());
+        }
+        for (int i = 0; i < this.authorizations.length; i++) {
+            Authorization autz = this.authorizations[i];
+            if (autz.getPhase() == null) {
+                nullPhaseIndex.set(i);
+            } else {
+                phaseIndex.get(autz.getPhase()).set(i);
+            }
+            if (autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
+                allActionIndex.set(i);
+            }
+        }
+        for (int i = 0; i < this.authorizations.length; i++) {
+            for (String action : this.authorizations[i].getAction()) {
+                actionIndex.computeIfAbsent(action, a -> (BitSet) allActionIndex.clone())
+                        .set(i);
+            }
+        }
+    }
+
+    static @NotNull CompiledAuthorizations compile(@NotNull Collection<Authorization> authorizations) {
+        return new CompiledAuthorizations(authorizations);
+    }
+
+    /**
+     * Checks that the authorizations were not changed since the compilation.
+     * (Principal authorizations are mutable, although they are normally not changed after the principal is created.)
+     */
+    boolean isUpToDate(@NotNull Collection<Authorization> currentAuthorizations) {
+        if (currentAuthorizations.size() != authorizations.length) {
+            return false;
+        }
+        int i = 0;
+        for (Authorization autz : currentAuthorizations) {
+            if (autz != authorizations[i++]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return authorizations.length;
+    }
+
+    int getCachedSecurityFiltersCount() {
+        return securityFilters.size();
+    }
+
+    /**
+     * Returns all authorizations, in the original order.
+     */
+    @NotNull List<Authorization> getAll() {
+        return Arrays.asList(authorizations);
+    }
+
+    /**
+     * Returns authorizations applicable to any of the actions and to given phase, in the original order.
+     *
+     * @param phase If null, only authorizations without phase are returned.
+     * @param includeNullPhase If true, authorizations without phase are returned along with the ones for specified phase.
+     */
+    @NotNull List<Authorization> select(@NotNull String[] actions, @Nullable AuthorizationPhaseType phase,
+            boolean includeNullPhase) {
+        BitSet selected;
+        if (actions.length == 1) {
+            selected = (BitSet) getActionIndex(actions[0]).clone();
+        } else {
+            selected = new BitSet();
+            for (String action : actions) {
+                selected.or(getActionIndex(action));
+            }
+        }
+        if (phase == null) {
+            selected.and(nullPhaseIndex);
+        } else if (includeNullPhase) {
+            BitSet phases = (BitSet) phaseIndex.get(phase).clone();
+            phases.or(nullPhaseIndex);
+            selected.and(phases);
+        } else {
+            selected.and(phaseIndex.get(phase));
+        }
+        List<Authorization> rv = new ArrayList<>(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            rv.add(authorizations[i]);
+        }
+        return rv;
+    }
+
+    private @NotNull BitSet getActionIndex(String action) {
+        return actionIndex.getOrDefault(action, allActionIndex);
+    }
+
+    @Nullable ParsedFilter getParsedFilter(@NotNull SearchFilterType filterBean, @NotNull QName objectTypeName) {
+        return parsedFilters.get(new ParsedFilterKey(filterBean, objectTypeName));
+    }
+
+    @NotNull ParsedFilter putParsedFilter(@NotNull SearchFilterType filterBean, @NotNull QName objectTypeName,
+            @Nullable ObjectFilter filter) {
+        ParsedFilter parsedFilter = new ParsedFilter(filter);
+        parsedFilters.put(new ParsedFilterKey(filterBean, objectTypeName), parsedFilter);
+        return parsedFilter;
+    }
+
+    @Nullable AutzSecurityFilter getSecurityFilter(@NotNull Authorization autz, @NotNull Class<?> objectType,
+            boolean target, boolean includeSpecial) {
+        return securityFilters.get(new SecurityFilterKey(autz, objectType, target, includeSpecial));
+    }
+
+    void putSecurityFilter(@NotNull Authorization autz, @NotNull Class<?> objectType, boolean target, boolean includeSpecial,
+            @NotNull AutzSecurityFilter securityFilter) {
+        securityFilters.put(new SecurityFilterKey(autz, objectType, target, includeSpecial), securityFilter);
+    }
+
+    /**
+     * Selector filter parsed for given object type. Expressions (if any) are not evaluated.
+     */
+    static class ParsedFilter {
+
+        @Nullable private final ObjectFilter filter;
+        private final boolean hasExpressions;
+
+        private ParsedFilter(@Nullable ObjectFilter filter) {
+            this.filter = filter;
+            this.hasExpressions = hasExpressions(filter);
+        }
+
+        /** Returns a copy of the filter that can be freely modified (e.g. by expression evaluation). */
+        @Nullable ObjectFilter getFilterCopy() {
+            return filter != null ? filter.clone() : null;
+        }
+
+        boolean hasExpressions() {
+            return hasExpressions;
+        }
+
+        private static boolean hasExpressions(ObjectFilter filter) {
+            if (filter == null) {
+                return false;
+            }
+            Holder<Boolean> result = new Holder<>(false);
+            filter.accept(f -> {
+                if (f instanceof ValueFilter && ((ValueFilter<?, ?>) f).getExpression() != null
+                        || f instanceof InOidFilter && ((InOidFilter) f).getExpression() != null) {
+                    result.setValue(true);
+                }
+            });
+            return result.getValue();
+        }
+    }
+
+    /**
+     * Security filter derived from object (or target) selectors of an authorization.
+     */
+    static class AutzSecurityFilter {
+
+        @Nullable private final ObjectFilter filter;
+        private final boolean applicable;
+
+        /**
+         * False if the filter depends on something else than the principal and the object type,
+         * e.g. on the search filter or on expressions.
+         */
+        private final boolean cacheable;
+
+        AutzSecurityFilter(@Nullable ObjectFilter filter, boolean applicable, boolean cacheable) {
+            this.filter = filter;
+            this.applicable = applicable;
+            this.cacheable = cacheable;
+        }
+
+        /** Returns a copy of the filter that can be freely modified. */
+        @Nullable ObjectFilter getFilterCopy() {
+            return filter != null ? filter.clone() : null;
+        }
+
+        boolean isApplicable() {
+            return applicable;
+        }
+
+        boolean isCacheable() {
+            return cacheable;
+        }
+    }
+
+    /** Filter beans are compared by identity: they are parts of (immutable) authorizations. */
+    private static class ParsedFilterKey {
+
+        @NotNull private final SearchFilterType filterBean;
+        @NotNull private final QName objectTypeName;
+
+        private ParsedFilterKey(@NotNull SearchFilterType filterBean, @NotNull QName objectTypeName) {
+            this.filterBean = filterBean;
+            this.objectTypeName = objectTypeName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ParsedFilterKey)) {
+                return false;
+            }
+            ParsedFilterKey that = (ParsedFilterKey) o;
+            return filterBean == that.filterBean && objectTypeName.equals(that.objectTypeName);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(filterBean) * 31 + objectTypeName.hashCode();
+        }
+    }
+
+    /** Authorizations are compared by identity, as they are in {@link #isUpToDate(Collection)}. */
+    private static class SecurityFilterKey {
+
+        @NotNull private final Authorization autz;
+        @NotNull private final Class<?> objectType;
+        private final boolean target;
+        private final boolean includeSpecial;
+
+        private SecurityFilterKey(@NotNull Authorization autz, @NotNull Class<?> objectType, boolean target,
+                boolean includeSpecial) {
+            this.autz = autz;
+            this.objectType = objectType;
+            this.target = target;
+            this.includeSpecial = includeSpecial;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SecurityFilterKey)) {
+                return false;
+            }
+            SecurityFilterKey that = (SecurityFilterKey) o;
+            return autz == that.autz
+                    && objectType.equals(that.objectType)
+                    && target == that.target
+                    && includeSpecial == that.includeSpecial;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(autz), objectType, target, includeSpecial);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import static com.evolveum.midpoint.util.caching.CacheConfiguration.StatisticsLevel.PER_CACHE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.google.common.cache.CacheBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.repo.api.Cache;
+import com.evolveum.midpoint.repo.api.CacheRegistry;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.util.caching.CachePerformanceCollector;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
+
+/**
+ * Keeps {@link CompiledAuthorizations} for principals.
+ *
+ * Principals are held weakly and compared by identity: when the principal is discarded (e.g. after logout),
+ * its compiled authorizations are discarded as well. When authorizations of a principal are changed,
+ * they are compiled again on the next use.
+ */
+@Component
+public class CompiledAuthorizationsCache implements Cache {
+
+    private static final Trace LOGGER_CONTENT = TraceManager.getTrace(CompiledAuthorizationsCache.class.getName() + ".content");
+
+    @Autowired private PrismContext prismContext;
+    @Autowired private CacheRegistry cacheRegistry;
+
+    private final com.google.common.cache.Cache<MidPointPrincipal, CompiledAuthorizations> cache =
+            CacheBuilder.newBuilder()
+                    .weakKeys()
+                    .build();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @PostConstruct
+    public void register() {
+        cacheRegistry.registerCache(this);
+    }
+
+    @PreDestroy
+    public void unregister() {
+        cacheRegistry.unregisterCache(this);
+    }
+
+    /**
+     * Returns compiled authorizations of the principal, compiling them if needed.
+     */
+    @NotNull CompiledAuthorizations get(@NotNull MidPointPrincipal principal) {
+        Collection<Authorization> authorizations = principal.getAuthorities();
+        CompiledAuthorizations compiled = cache.getIfPresent(principal);
+        if (compiled != null && compiled.isUpToDate(authorizations)) {
+            hits.incrementAndGet();
+            CachePerformanceCollector.INSTANCE.registerHit(CompiledAuthorizationsCache.class, AuthorizationType.class, PER_CACHE);
+            return compiled;
+        }
+        misses.incrementAndGet();
+        CachePerformanceCollector.INSTANCE.registerMiss(CompiledAuthorizationsCache.class, AuthorizationType.class, PER_CACHE);
+        compiled = CompiledAuthorizations.compile(authorizations);
+        cache.put(principal, compiled);
+        return compiled;
+    }
+
+    /**
+     * Compiled authorizations depend only on the principal, so only global invalidation is relevant here.
+     * Changes of roles, users, etc. are reflected by creating new principal objects.
+     */
+    @Override
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+        if (type == null) {
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Size is the number of principals, secondary size is the number of cached authorization security filters.
+     */
+    @NotNull
+    @Override
+    public Collection<SingleCacheStateInformationType> getStateInformation() {
+        Collection<CompiledAuthorizations> values = new ArrayList<>(cache.asMap().values());
+        SingleCacheStateInformationType info = new SingleCacheStateInformationType(prismContext)
+                .name(CompiledAuthorizationsCache.class.getName())
+                .size(values.size())
+                .secondarySize(values.stream().mapToInt(CompiledAuthorizations::getCachedSecurityFiltersCount).sum());
+        info.beginComponent()
+                .name("hits")
+                .size((int) Math.min(hits.get(), Integer.MAX_VALUE));
+        info.beginComponent()
+                .name("misses")
+                .size((int) Math.min(misses.get(), Integer.MAX_VALUE));
+        return Collections.singleton(info);
+    }
+
+    @Override
+    public void dumpContent() {
+        if (LOGGER_CONTENT.isInfoEnabled()) {
+            cache.asMap().forEach((principal, compiled) ->
+                    LOGGER_CONTENT.info("Compiled authorizations: {}: {} authorizations, {} security filters",
+                            principal.getUsername(), compiled.size(), compiled.getCachedSecurityFiltersCount()));
+        }
+    }
+}
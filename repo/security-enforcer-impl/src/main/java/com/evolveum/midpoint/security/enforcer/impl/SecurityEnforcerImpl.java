@@ -91,6 +91,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
     @Autowired private ExpressionFactory expressionFactory;
     @Autowired private PrismContext prismContext;
     @Autowired private RelationRegistry relationRegistry;
+    @Autowired private CompiledAuthorizationsCache compiledAuthorizationsCache;
 
     @Autowired
     @Qualifier("securityContextManager")
@@ -137,94 +138,70 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
                 getUsername(midPointPrincipal), operationUrl, phase, params.shortDump());
         }
         final AutzItemPaths allowedItems = new AutzItemPaths();
-        Collection<Authorization> authorities = getAuthorities(midPointPrincipal);
-        if (authorities != null) {
-            for (GrantedAuthority authority: authorities) {
-                if (authority instanceof Authorization) {
-                    Authorization autz = (Authorization)authority;
-                    String autzHumanReadableDesc = autz.getHumanReadableDesc();
-                    LOGGER.trace("  Evaluating {}", autzHumanReadableDesc);
-
-                    // First check if the authorization is applicable.
-
-                    // action
-                    if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-                        LOGGER.trace("    {} not applicable for operation {}", autzHumanReadableDesc, operationUrl);
-                        continue;
-                    }
-
-                    // phase
-                    if (autz.getPhase() == null) {
-                        LOGGER.trace("    {} is applicable for all phases (continuing evaluation)", autzHumanReadableDesc);
-                    } else {
-                        if (autz.getPhase() != phase) {
-                            LOGGER.trace("    {} is not applicable for phases {} (breaking evaluation)", autzHumanReadableDesc, phase);
-                            continue;
-                        } else {
-                            LOGGER.trace("    {} is applicable for phases {} (continuing evaluation)", autzHumanReadableDesc, phase);
-                        }
-                    }
+        // Only authorizations applicable for the operation and phase are selected.
+        List<Authorization> authorizations = getCompiledAuthorizations(midPointPrincipal)
+                .select(new String[] { operationUrl }, phase, true);
+        for (Authorization autz : authorizations) {
+            String autzHumanReadableDesc = autz.getHumanReadableDesc();
+            LOGGER.trace("  Evaluating {}", autzHumanReadableDesc);
 
-                    // relation
-                    if (!isApplicableRelation(autz, params.getRelation())) {
-                        LOGGER.trace("    {} not applicable for relation {}", autzHumanReadableDesc, params.getRelation());
-                        continue;
-                    }
+            // First check if the authorization is applicable.
 
-                    // orderConstraints
-                    if (!isApplicableOrderConstraints(autz, params.getOrderConstraints())) {
-                        if (LOGGER.isTraceEnabled()) {
-                            LOGGER.trace("    {} not applicable for orderConstraints {}", autzHumanReadableDesc, SchemaDebugUtil.shortDumpOrderConstraintsList(params.getOrderConstraints()));
-                        }
-                        continue;
-                    }
+            // relation
+            if (!isApplicableRelation(autz, params.getRelation())) {
+                LOGGER.trace("    {} not applicable for relation {}", autzHumanReadableDesc, params.getRelation());
+                continue;
+            }
 
-                    // object
-                    if (isApplicableObject(autz, params.getOdo(), midPointPrincipal, ownerResolver, autzHumanReadableDesc, task, result)) {
-                        LOGGER.trace("    {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, params.getAnyObject());
-                    } else {
-                        LOGGER.trace("    {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
-                                autzHumanReadableDesc, params.getAnyObject());
-                        continue;
-                    }
+            // orderConstraints
+            if (!isApplicableOrderConstraints(autz, params.getOrderConstraints())) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("    {} not applicable for orderConstraints {}", autzHumanReadableDesc, SchemaDebugUtil.shortDumpOrderConstraintsList(params.getOrderConstraints()));
+                }
+                continue;
+            }
 
-                    // target
-                    if (isApplicable(autz.getTarget(), params.getTarget(), midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, task, result)) {
-                        LOGGER.trace("    {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, params.getAnyObject());
-                    } else {
-                        LOGGER.trace("    {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
-                                autzHumanReadableDesc, params.getAnyObject());
-                        continue;
-                    }
+            // object
+            if (isApplicableObject(autz, params.getOdo(), midPointPrincipal, ownerResolver, autzHumanReadableDesc, task, result)) {
+                LOGGER.trace("    {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, params.getAnyObject());
+            } else {
+                LOGGER.trace("    {} not applicable for object {}, none of the object specifications match (breaking evaluation)",
+                        autzHumanReadableDesc, params.getAnyObject());
+                continue;
+            }
 
-                    if (applicableAutzConsumer != null) {
-                        applicableAutzConsumer.accept(autz);
-                    }
+            // target
+            if (isApplicable(autz.getTarget(), params.getTarget(), midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, task, result)) {
+                LOGGER.trace("    {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, params.getAnyObject());
+            } else {
+                LOGGER.trace("    {} not applicable for target {}, none of the target specifications match (breaking evaluation)",
+                        autzHumanReadableDesc, params.getAnyObject());
+                continue;
+            }
 
-                    // authority is applicable to this situation. now we can process the decision.
-                    AuthorizationDecisionType autzDecision = autz.getDecision();
-                    if (autzDecision == null || autzDecision.equals(AuthorizationDecisionType.ALLOW)) {
-                        allowedItems.collectItems(autz);
-                        LOGGER.trace("    {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
-                        decision = AccessDecision.ALLOW;
-                        // Do NOT break here. Other authorization statements may still deny the operation
-                    } else {
-                        // item
-                        if (isApplicableItem(autz, params.getOldObject(), params.getDelta())) {
-                            LOGGER.trace("    {}: Deny authorization applicable for items (continuing evaluation)", autzHumanReadableDesc);
-                        } else {
-                            LOGGER.trace("    {} not applicable for items (breaking evaluation)", autzHumanReadableDesc);
-                            continue;
-                        }
-                        LOGGER.trace("    {}: DENY operation {}", autzHumanReadableDesc, operationUrl);
-                        decision = AccessDecision.DENY;
-                        // Break right here. Deny cannot be overridden by allow. This decision cannot be changed.
-                        break;
-                    }
+            if (applicableAutzConsumer != null) {
+                applicableAutzConsumer.accept(autz);
+            }
 
+            // authority is applicable to this situation. now we can process the decision.
+            AuthorizationDecisionType autzDecision = autz.getDecision();
+            if (autzDecision == null || autzDecision.equals(AuthorizationDecisionType.ALLOW)) {
+                allowedItems.collectItems(autz);
+                LOGGER.trace("    {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
+                decision = AccessDecision.ALLOW;
+                // Do NOT break here. Other authorization statements may still deny the operation
+            } else {
+                // item
+                if (isApplicableItem(autz, params.getOldObject(), params.getDelta())) {
+                    LOGGER.trace("    {}: Deny authorization applicable for items (continuing evaluation)", autzHumanReadableDesc);
                 } else {
-                    LOGGER.warn("Unknown authority type {} in user {}", authority.getClass(), getUsername(midPointPrincipal));
+                    LOGGER.trace("    {} not applicable for items (breaking evaluation)", autzHumanReadableDesc);
+                    continue;
                 }
+                LOGGER.trace("    {}: DENY operation {}", autzHumanReadableDesc, operationUrl);
+                decision = AccessDecision.DENY;
+                // Break right here. Deny cannot be overridden by allow. This decision cannot be changed.
+                break;
             }
         }
 
@@ -939,9 +916,24 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         };
     }
 
-    private <O extends ObjectType> ObjectFilter parseAndEvaluateFilter(MidPointPrincipal principal, PrismObjectDefinition<O> objectDefinition,
-            SearchFilterType specFilterType, String objectTargetDesc, String autzHumanReadableDesc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
-        ObjectFilter specFilter = prismContext.getQueryConverter().createObjectFilter(objectDefinition, specFilterType);
+    /**
+     * Parses the selector filter for given object definition. Parsed filters are kept in compiled authorizations,
+     * so each filter is parsed only once for given principal and object type.
+     */
+    private <O extends ObjectType> CompiledAuthorizations.ParsedFilter getParsedFilter(
+            CompiledAuthorizations compiledAuthorizations, PrismObjectDefinition<O> objectDefinition,
+            SearchFilterType specFilterType) throws SchemaException {
+        QName typeName = objectDefinition.getTypeName();
+        CompiledAuthorizations.ParsedFilter parsedFilter = compiledAuthorizations.getParsedFilter(specFilterType, typeName);
+        if (parsedFilter == null) {
+            ObjectFilter specFilter = prismContext.getQueryConverter().createObjectFilter(objectDefinition, specFilterType);
+            parsedFilter = compiledAuthorizations.putParsedFilter(specFilterType, typeName, specFilter);
+        }
+        return parsedFilter;
+    }
+
+    private ObjectFilter evaluateFilter(MidPointPrincipal principal, ObjectFilter specFilter, String objectTargetDesc,
+            String autzHumanReadableDesc, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
         if (specFilter == null) {
             return null;
         }
@@ -949,7 +941,6 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         return filterEvaluator.evaluate(specFilter);
     }
 
-
     private boolean isSelf(SubjectedObjectSelectorType spec) throws SchemaException {
         List<SpecialObjectSpecificationType> specSpecial = spec.getSpecial();
         if (specSpecial != null && !specSpecial.isEmpty()) {
@@ -1176,6 +1167,18 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         }
     }
 
+    /**
+     * Authorizations of a principal compiled for evaluation. They are cached for regular principals;
+     * for anonymous access they are compiled each time (there are usually only a few of them).
+     */
+    private CompiledAuthorizations getCompiledAuthorizations(MidPointPrincipal principal) {
+        if (principal == null) {
+            return CompiledAuthorizations.compile(getAuthorities(null));
+        } else {
+            return compiledAuthorizationsCache.get(principal);
+        }
+    }
+
     @Override
     public <O extends ObjectType> ObjectSecurityConstraints compileSecurityConstraints(PrismObject<O> object, OwnerResolver ownerResolver, Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException, ConfigurationException, SecurityViolationException {
         MidPointPrincipal principal = getMidPointPrincipal();
@@ -1336,7 +1339,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
             throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException,
             ConfigurationException, SecurityViolationException {
 
-        Collection<Authorization> authorities = getAuthorities(principal);
+        CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(principal);
 
         F securityFilterAllow = null;
         F securityFilterDeny = null;
@@ -1345,364 +1348,79 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         queryItemsSpec.addRequiredItems(origFilter); // MID-3916
         LOGGER.trace("  phase={}, initial query items spec {}", phase, queryItemsSpec.shortDumpLazily());
 
-        if (authorities != null) {
-            for (GrantedAuthority authority: authorities) {
-                if (authority instanceof Authorization) {
-                    Authorization autz = (Authorization)authority;
-                    String autzHumanReadableDesc = autz.getHumanReadableDesc();
-                    LOGGER.trace("    Evaluating {}", autzHumanReadableDesc);
-
-                    // action
-                    if (!isApplicableForActions(autz, operationUrls)) {
-                        if (LOGGER.isTraceEnabled()) {
-                            LOGGER.trace("      Authorization not applicable for operation {}", prettyActionUrl(operationUrls));
-                        }
-                        continue;
-                    }
+        // Only authorizations applicable for the operations and phase are selected.
+        for (Authorization autz : compiledAuthorizations.select(operationUrls, phase, includeNullPhase)) {
+            String autzHumanReadableDesc = autz.getHumanReadableDesc();
+            LOGGER.trace("    Evaluating {}", autzHumanReadableDesc);
 
-                    // phase
-                    if (autz.getPhase() == phase || (includeNullPhase && autz.getPhase() == null)) {
-                        LOGGER.trace("      Authorization is applicable for phases {} (continuing evaluation)", phase);
-                    } else {
-                        LOGGER.trace("      Authorization is not applicable for phase {} (includeNullPhase={})", phase, includeNullPhase);
-                        continue;
-                    }
+            if (!isApplicableLimitations(autz, limitAuthorizationAction)) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("      Authorization is limited to other action, not applicable for operation {}", prettyActionUrl(operationUrls));
+                }
+                continue;
+            }
 
-                    if (!isApplicableLimitations(autz, limitAuthorizationAction)) {
-                        if (LOGGER.isTraceEnabled()) {
-                            LOGGER.trace("      Authorization is limited to other action, not applicable for operation {}", prettyActionUrl(operationUrls));
-                        }
-                        continue;
-                    }
+            // orderConstraints
+            if (!isApplicableOrderConstraints(autz, paramOrderConstraints)) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("      Authorization not applicable for orderConstraints {}", SchemaDebugUtil.shortDumpOrderConstraintsList(paramOrderConstraints));
+                }
+                continue;
+            }
 
-                    // orderConstraints
-                    if (!isApplicableOrderConstraints(autz, paramOrderConstraints)) {
-                        if (LOGGER.isTraceEnabled()) {
-                            LOGGER.trace("      Authorization not applicable for orderConstraints {}", SchemaDebugUtil.shortDumpOrderConstraintsList(paramOrderConstraints));
-                        }
-                        continue;
-                    }
+            // object or target
+            if (object != null) {
+                // object present. Therefore we are looking for target
+                // .. but we need to decide whether this authorization is applicable to the object
+                if (isApplicable(autz.getObject(), object, principal, null, "object", autzHumanReadableDesc, task, result)) {
+                    LOGGER.trace("      Authorization is applicable for object {}", object);
+                } else {
+                    LOGGER.trace("      Authorization is not applicable for object {}", object);
+                    continue;
+                }
+            }
 
-                    // object or target
-                    String objectTargetSpec;
-                    ObjectFilter autzObjSecurityFilter = null;
-                    List<OwnedObjectSelectorType> objectSpecTypes;
-                    if (object == null) {
-                        // object not present. Therefore we are looking for object here
-                        objectSpecTypes = autz.getObject();
-                        objectTargetSpec = "object";
-                    } else {
-                        // object present. Therefore we are looking for target
-                        objectSpecTypes = autz.getTarget();
-                        objectTargetSpec = "target";
+            CompiledAuthorizations.AutzSecurityFilter autzSecurityFilter = getAutzSecurityFilter(compiledAuthorizations,
+                    autz, principal, objectType, object != null, includeSpecial, queryItemsSpec, origFilter, task, result);
+            ObjectFilter autzObjSecurityFilter = autzSecurityFilter.getFilterCopy();
+            traceFilter("autzObjSecurityFilter", autz, autzObjSecurityFilter);
 
-                        // .. but we need to decide whether this authorization is applicable to the object
-                        if (isApplicable(autz.getObject(), object, principal, null, "object", autzHumanReadableDesc, task, result)) {
-                            LOGGER.trace("      Authorization is applicable for object {}", object);
-                        } else {
-                            LOGGER.trace("      Authorization is not applicable for object {}", object);
-                            continue;
-                        }
+            if (autzSecurityFilter.isApplicable()) {
+                F autzObjSecurityF = gizmo.adopt(autzObjSecurityFilter, autz);
+                // authority is applicable to this situation. now we can process the decision.
+                AuthorizationDecisionType decision = autz.getDecision();
+                if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
+                    // allow
+                    securityFilterAllow = gizmo.or(securityFilterAllow, autzObjSecurityF);
+                    traceFilter("securityFilterAllow", autz, securityFilterAllow, gizmo);
+                    if (!gizmo.isNone(autzObjSecurityF)) {
+                        queryItemsSpec.collectItems(autz);
                     }
-
-                    boolean applicable = true;
-                    if (objectSpecTypes == null || objectSpecTypes.isEmpty()) {
-
-                        LOGGER.trace("      No {} specification in authorization (authorization is universally applicable)", objectTargetSpec);
-                        autzObjSecurityFilter = FilterCreationUtil.createAll(prismContext);
-
+                } else {
+                    // deny
+                    if (autz.hasItemSpecification()) {
+                        // This is a tricky situation. We have deny authorization, but it only denies access to
+                        // some items. Therefore we need to find the objects and then filter out the items.
+                        // Therefore do not add this authorization into the filter.
                     } else {
-
-                        applicable = false;
-                        for (OwnedObjectSelectorType objectSpecType: objectSpecTypes) {
-                            ObjectFilter objSpecSecurityFilter = null;
-                            TypeFilter objSpecTypeFilter = null;
-                            SearchFilterType specFilterType = objectSpecType.getFilter();
-                            ObjectReferenceType specOrgRef = objectSpecType.getOrgRef();
-                            List<ObjectReferenceType> archetypeRefs = objectSpecType.getArchetypeRef();
-                            OrgRelationObjectSpecificationType specOrgRelation = objectSpecType.getOrgRelation();
-                            RoleRelationObjectSpecificationType specRoleRelation = objectSpecType.getRoleRelation();
-                            TenantSelectorType specTenant = objectSpecType.getTenant();
-                            QName specTypeQName = objectSpecType.getType();
-                            PrismObjectDefinition<T> objectDefinition = null;
-
-                            // Type
-                            if (specTypeQName != null) {
-                                specTypeQName = prismContext.getSchemaRegistry().qualifyTypeName(specTypeQName);
-                                PrismObjectDefinition<?> specObjectDef = prismContext.getSchemaRegistry().findObjectDefinitionByType(specTypeQName);
-                                if (specObjectDef == null) {
-                                    throw new SchemaException("Unknown object type "+specTypeQName+" in "+autzHumanReadableDesc);
-                                }
-                                Class<?> specObjectClass = specObjectDef.getCompileTimeClass();
-                                if (objectType.equals(specObjectClass)) {
-                                    traceClassMatch("Authorization is applicable for object because of type exact match", specObjectClass, objectType);
-                                } else if (!objectType.isAssignableFrom(specObjectClass)) {
-                                    traceClassMatch("Authorization not applicable for object because of type mismatch", specObjectClass, objectType);
-                                    continue;
-                                } else {
-                                    traceClassMatch("Authorization is applicable for object because of type match, adding more specific type filter", specObjectClass, objectType);
-                                    // The spec type is a subclass of requested type. So it might be returned from the search.
-                                    // We need to use type filter.
-                                    objSpecTypeFilter = prismContext.queryFactory().createType(specTypeQName, null);
-                                    // and now we have a more specific object definition to use later in filter processing
-                                    objectDefinition = (PrismObjectDefinition<T>) specObjectDef;
-                                }
-                            }
-
-                            // Owner
-                            if (objectSpecType.getOwner() != null) {
-                                if (objectDefinition == null) {
-                                    objectDefinition = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(objectType);
-                                }
-                                // TODO: MID-3899
-                                // TODO what if owner is specified not as "self" ?
-                                if (TaskType.class.isAssignableFrom(objectType)) {
-                                    objSpecSecurityFilter = applyOwnerFilterOwnerRef(TaskType.F_OWNER_REF, objSpecSecurityFilter,  principal, objectDefinition);
-                                } else {
-                                    LOGGER.trace("      Authorization not applicable for object because it has owner specification (this is not applicable for search)");
-                                    continue;
-                                }
+                        if (gizmo.isAll(autzObjSecurityF)) {
+                            // This is "deny all". We cannot have anything stronger than that.
+                            // There is no point in continuing the evaluation.
+                            if (LOGGER.isTraceEnabled()) {
+                                LOGGER.trace("  phase={} done: principal={}, operation={}, {}: deny all",
+                                        phase, getUsername(principal), prettyActionUrl(operationUrls), desc);
                             }
-
-                            // Requestor
-                            if (objectSpecType.getRequester() != null) {
-                                if (CaseType.class.isAssignableFrom(objectType)) {
-                                    objSpecSecurityFilter = applyRequestorFilter(objSpecSecurityFilter, principal);
-                                } else {
-                                    LOGGER.trace("      Authorization not applicable for object because it has requester specification (this is not applicable for search for objects other than CaseType)");
-                                    continue;
-                                }
-                            }
-
-                            // Related object
-                            if (objectSpecType.getRelatedObject() != null) {
-                                if (CaseType.class.isAssignableFrom(objectType) || TaskType.class.isAssignableFrom(objectType)) {
-                                    objSpecSecurityFilter = applyRelatedObjectFilter(objectType, objSpecSecurityFilter, principal);
-                                } else {
-                                    LOGGER.trace("      Authorization not applicable for object because it has related object specification (this is not applicable for search for objects other than CaseType and TaskType)");
-                                    continue;
-                                }
-                            }
-
-                            // Assignee
-                            if (objectSpecType.getAssignee() != null) {
-                                if (CaseType.class.isAssignableFrom(objectType)) {
-                                    objSpecSecurityFilter = applyAssigneeFilter(objSpecSecurityFilter, principal);
-                                } else {
-                                    LOGGER.trace("      Authorization not applicable for object because it has assignee specification (this is not applicable for search for objects other than CaseType)");
-                                    continue;
-                                }
-                            }
-
-                            // Delegator
-                            if (objectSpecType.getDelegator() != null) {
-                                // TODO: MID-3899
-                                LOGGER.trace("      Authorization not applicable for object because it has delegator specification (this is not applicable for search)");
-                                continue;
-                            }
-
-                            applicable = true;
-
-                            // Special
-                            List<SpecialObjectSpecificationType> specSpecial = objectSpecType.getSpecial();
-                            if (specSpecial != null && !specSpecial.isEmpty()) {
-                                if (!includeSpecial) {
-                                    LOGGER.trace("      Skipping authorization, because specials are present: {}", specSpecial);
-                                    applicable = false;
-                                }
-                                if (specFilterType != null || specOrgRef != null || specOrgRelation != null || specRoleRelation != null || specTenant != null || !archetypeRefs.isEmpty()) {
-                                    throw new SchemaException("Both filter/org/role/archetype/tenant and special object specification specified in authorization");
-                                }
-                                ObjectFilter specialFilter = null;
-                                for (SpecialObjectSpecificationType special: specSpecial) {
-                                    if (special == SpecialObjectSpecificationType.SELF) {
-                                        String principalOid = principal.getOid();
-                                        specialFilter = ObjectQueryUtil.filterOr(specialFilter, prismContext.queryFactory().createInOid(principalOid),
-                                                prismContext);
-                                    } else {
-                                        throw new SchemaException("Unsupported special object specification specified in authorization: "+special);
-                                    }
-                                }
-                                objSpecSecurityFilter = specTypeQName != null ?
-                                        prismContext.queryFactory().createType(specTypeQName, specialFilter) : specialFilter;
-                            } else {
-                                LOGGER.trace("      specials empty: {}", specSpecial);
-                            }
-
-                            // Filter
-                            if (specFilterType != null) {
-                                if (objectDefinition == null) {
-                                    objectDefinition = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(objectType);
-                                }
-                                ObjectFilter specFilter = parseAndEvaluateFilter(principal, objectDefinition, specFilterType, objectTargetSpec, autzHumanReadableDesc, task, result);
-                                if (specFilter != null) {
-                                    ObjectQueryUtil.assertNotRaw(specFilter, "Filter in authorization object has undefined items. Maybe a 'type' specification is missing in the authorization?");
-                                    ObjectQueryUtil.assertPropertyOnly(specFilter, "Filter in authorization object is not property-only filter");
-                                }
-                                LOGGER.trace("      applying property filter {}", specFilter);
-                                objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, specFilter, prismContext);
-                            } else {
-                                LOGGER.trace("      filter empty (assuming \"all\")");
-                                if (objSpecSecurityFilter == null) {
-                                    objSpecSecurityFilter = prismContext.queryFactory().createAll();
-                                }
-                            }
-
-                            // Archetypes
-                            if (!archetypeRefs.isEmpty()) {
-                                ObjectFilter archsFilter = null;
-                                for (ObjectReferenceType archetypeRef : archetypeRefs) {
-                                    ObjectFilter archFilter = prismContext.queryFor(AssignmentHolderType.class)
-                                            .item(AssignmentHolderType.F_ARCHETYPE_REF).ref(archetypeRef.getOid())
-                                            .buildFilter();
-                                    archsFilter = ObjectQueryUtil.filterOr(archsFilter, archFilter, prismContext);
-                                }
-                                objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, archsFilter, prismContext);
-                                LOGGER.trace("      applying archetype filter {}", archsFilter);
-                            } else {
-                                LOGGER.trace("      archetype empty");
-                            }
-
-                            // Org
-                            if (specOrgRef != null) {
-                                ObjectFilter orgFilter = prismContext.queryFor(ObjectType.class)
-                                        .isChildOf(specOrgRef.getOid()).buildFilter();
-                                objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, orgFilter, prismContext);
-                                LOGGER.trace("      applying org filter {}", orgFilter);
-                            } else {
-                                LOGGER.trace("      org empty");
-                            }
-
-                            // orgRelation
-                            if (specOrgRelation != null) {
-                                ObjectFilter objSpecOrgRelationFilter = null;
-                                QName subjectRelation = specOrgRelation.getSubjectRelation();
-                                for (ObjectReferenceType subjectParentOrgRef: principal.getFocus().getParentOrgRef()) {
-                                    if (prismContext.relationMatches(subjectRelation, subjectParentOrgRef.getRelation())) {
-                                        S_FilterEntryOrEmpty q = prismContext.queryFor(ObjectType.class);
-                                        S_AtomicFilterExit q2;
-                                        if (specOrgRelation.getScope() == null || specOrgRelation.getScope() == OrgScopeType.ALL_DESCENDANTS) {
-                                            q2 = q.isChildOf(subjectParentOrgRef.getOid());
-                                        } else if (specOrgRelation.getScope() == OrgScopeType.DIRECT_DESCENDANTS) {
-                                            q2 = q.isDirectChildOf(subjectParentOrgRef.getOid());
-                                        } else if (specOrgRelation.getScope() == OrgScopeType.ALL_ANCESTORS) {
-                                            q2 = q.isParentOf(subjectParentOrgRef.getOid());
-                                        } else {
-                                            throw new UnsupportedOperationException("Unknown orgRelation scope "+specOrgRelation.getScope());
-                                        }
-                                        if (BooleanUtils.isTrue(specOrgRelation.isIncludeReferenceOrg())) {
-                                            q2 = q2.or().id(subjectParentOrgRef.getOid());
-                                        }
-                                        objSpecOrgRelationFilter = ObjectQueryUtil.filterOr(objSpecOrgRelationFilter, q2.buildFilter(),
-                                                prismContext);
-                                    }
-                                }
-                                if (objSpecOrgRelationFilter == null) {
-                                    objSpecOrgRelationFilter = FilterCreationUtil.createNone(prismContext);
-                                }
-                                objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, objSpecOrgRelationFilter,
-                                        prismContext);
-                                LOGGER.trace("      applying orgRelation filter {}", objSpecOrgRelationFilter);
-                            } else {
-                                LOGGER.trace("      orgRelation empty");
-                            }
-
-                            // roleRelation
-                            if (specRoleRelation != null) {
-                                ObjectFilter objSpecRoleRelationFilter = processRoleRelationFilter(principal, autz, specRoleRelation, queryItemsSpec, origFilter);
-                                if (objSpecRoleRelationFilter == null) {
-                                    if (autz.maySkipOnSearch()) {
-                                        LOGGER.trace("      not applying roleRelation filter {} because it is not efficient and maySkipOnSearch is set", objSpecRoleRelationFilter);
-                                        applicable = false;
-                                    } else {
-                                        objSpecRoleRelationFilter = FilterCreationUtil.createNone(prismContext);
-                                    }
-                                }
-                                if (objSpecRoleRelationFilter != null) {
-                                    objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, objSpecRoleRelationFilter,
-                                            prismContext);
-                                    LOGGER.trace("      applying roleRelation filter {}", objSpecRoleRelationFilter);
-                                }
-                            } else {
-                                LOGGER.trace("      roleRelation empty");
-                            }
-
-                            // tenant
-                            if (specTenant != null) {
-                                ObjectFilter objSpecTenantFilter = processTenantFilter(principal, autz, specTenant, queryItemsSpec, origFilter);
-                                if (objSpecTenantFilter == null) {
-                                    if (autz.maySkipOnSearch()) {
-                                        LOGGER.trace("      not applying tenant filter {} because it is not efficient and maySkipOnSearch is set", objSpecTenantFilter);
-                                        applicable = false;
-                                    } else {
-                                        objSpecTenantFilter = FilterCreationUtil.createNone(prismContext);
-                                    }
-                                }
-                                if (objSpecTenantFilter != null) {
-                                    objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, objSpecTenantFilter,
-                                            prismContext);
-                                    LOGGER.trace("      applying tenant filter {}", objSpecTenantFilter);
-                                }
-                            } else {
-                                LOGGER.trace("      tenant empty");
-                            }
-
-                            if (objSpecTypeFilter != null) {
-                                objSpecTypeFilter.setFilter(objSpecSecurityFilter);
-                                objSpecSecurityFilter = objSpecTypeFilter;
-                            }
-
-                            traceFilter("objSpecSecurityFilter", objectSpecType, objSpecSecurityFilter);
-                            autzObjSecurityFilter = ObjectQueryUtil.filterOr(autzObjSecurityFilter, objSpecSecurityFilter,
-                                    prismContext);
+                            F secFilter = gizmo.createDenyAll();
+                            traceFilter("secFilter", null, secFilter, gizmo);
+                            return secFilter;
                         }
-
+                        securityFilterDeny = gizmo.or(securityFilterDeny, autzObjSecurityF);
                     }
-
-                    traceFilter("autzObjSecurityFilter", autz, autzObjSecurityFilter);
-
-                    if (applicable) {
-                        autzObjSecurityFilter = ObjectQueryUtil.simplify(autzObjSecurityFilter, prismContext);
-                        F autzObjSecurityF = gizmo.adopt(autzObjSecurityFilter, autz);
-                        // authority is applicable to this situation. now we can process the decision.
-                        AuthorizationDecisionType decision = autz.getDecision();
-                        if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
-                            // allow
-                            securityFilterAllow = gizmo.or(securityFilterAllow, autzObjSecurityF);
-                            traceFilter("securityFilterAllow", autz, securityFilterAllow, gizmo);
-                            if (!gizmo.isNone(autzObjSecurityF)) {
-                                queryItemsSpec.collectItems(autz);
-                            }
-                        } else {
-                            // deny
-                            if (autz.hasItemSpecification()) {
-                                // This is a tricky situation. We have deny authorization, but it only denies access to
-                                // some items. Therefore we need to find the objects and then filter out the items.
-                                // Therefore do not add this authorization into the filter.
-                            } else {
-                                if (gizmo.isAll(autzObjSecurityF)) {
-                                    // This is "deny all". We cannot have anything stronger than that.
-                                    // There is no point in continuing the evaluation.
-                                    if (LOGGER.isTraceEnabled()) {
-                                        LOGGER.trace("  phase={} done: principal={}, operation={}, {}: deny all",
-                                                phase, getUsername(principal), prettyActionUrl(operationUrls), desc);
-                                    }
-                                    F secFilter = gizmo.createDenyAll();
-                                    traceFilter("secFilter", null, secFilter, gizmo);
-                                    return secFilter;
-                                }
-                                securityFilterDeny = gizmo.or(securityFilterDeny, autzObjSecurityF);
-                            }
-                        }
-                    }
-
-                    traceFilter("securityFilterAllow", autz, securityFilterAllow, gizmo);
-                    traceFilter("securityFilterDeny", autz, securityFilterDeny, gizmo);
-
-                } else {
-                    LOGGER.warn("  Unknown authority type {} in user {}", authority.getClass(), getUsername(principal));
                 }
             }
+
+            traceFilter("securityFilterAllow", autz, securityFilterAllow, gizmo);
+            traceFilter("securityFilterDeny", autz, securityFilterDeny, gizmo);
         }
 
         traceFilter("securityFilterAllow", null, securityFilterAllow, gizmo);
@@ -1755,20 +1473,324 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         }
     }
 
-    private boolean isApplicableForActions(Authorization autz, String[] requiredActions) {
-        List<String> autzActions = autz.getAction();
-        if (autzActions.contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-            return true;
+    /**
+     * Returns security filter derived from object (or target) selectors of the authorization.
+     * It is taken from the compiled authorizations, if it was computed before and it does not depend on anything
+     * except for the principal and the object type.
+     */
+    private <T extends ObjectType> CompiledAuthorizations.AutzSecurityFilter getAutzSecurityFilter(
+            CompiledAuthorizations compiledAuthorizations, Authorization autz, MidPointPrincipal principal,
+            Class<T> objectType, boolean target, boolean includeSpecial, QueryAutzItemPaths queryItemsSpec,
+            ObjectFilter origFilter, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException,
+            ConfigurationException, SecurityViolationException {
+        CompiledAuthorizations.AutzSecurityFilter cached =
+                compiledAuthorizations.getSecurityFilter(autz, objectType, target, includeSpecial);
+        if (cached != null) {
+            LOGGER.trace("      Using cached security filter of the authorization");
+            return cached;
         }
-        for (String requiredAction : requiredActions) {
-            if (autzActions.contains(requiredAction)) {
-                return true;
+        CompiledAuthorizations.AutzSecurityFilter computed = computeAutzSecurityFilter(compiledAuthorizations, autz,
+                principal, objectType, target, includeSpecial, queryItemsSpec, origFilter, task, result);
+        if (computed.isCacheable()) {
+            compiledAuthorizations.putSecurityFilter(autz, objectType, target, includeSpecial, computed);
+        }
+        return computed;
+    }
+
+    private <T extends ObjectType> CompiledAuthorizations.AutzSecurityFilter computeAutzSecurityFilter(
+            CompiledAuthorizations compiledAuthorizations, Authorization autz, MidPointPrincipal principal,
+            Class<T> objectType, boolean target, boolean includeSpecial, QueryAutzItemPaths queryItemsSpec,
+            ObjectFilter origFilter, Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ExpressionEvaluationException, CommunicationException,
+            ConfigurationException, SecurityViolationException {
+
+        String autzHumanReadableDesc = autz.getHumanReadableDesc();
+        String objectTargetSpec;
+        List<OwnedObjectSelectorType> objectSpecTypes;
+        if (!target) {
+            // object not present. Therefore we are looking for object here
+            objectSpecTypes = autz.getObject();
+            objectTargetSpec = "object";
+        } else {
+            // object present. Therefore we are looking for target
+            objectSpecTypes = autz.getTarget();
+            objectTargetSpec = "target";
+        }
+
+        ObjectFilter autzObjSecurityFilter = null;
+        boolean applicable = true;
+        boolean cacheable = true;
+        if (objectSpecTypes == null || objectSpecTypes.isEmpty()) {
+
+            LOGGER.trace("      No {} specification in authorization (authorization is universally applicable)", objectTargetSpec);
+            autzObjSecurityFilter = FilterCreationUtil.createAll(prismContext);
+
+        } else {
+
+            applicable = false;
+            for (OwnedObjectSelectorType objectSpecType: objectSpecTypes) {
+                ObjectFilter objSpecSecurityFilter = null;
+                TypeFilter objSpecTypeFilter = null;
+                SearchFilterType specFilterType = objectSpecType.getFilter();
+                ObjectReferenceType specOrgRef = objectSpecType.getOrgRef();
+                List<ObjectReferenceType> archetypeRefs = objectSpecType.getArchetypeRef();
+                OrgRelationObjectSpecificationType specOrgRelation = objectSpecType.getOrgRelation();
+                RoleRelationObjectSpecificationType specRoleRelation = objectSpecType.getRoleRelation();
+                TenantSelectorType specTenant = objectSpecType.getTenant();
+                QName specTypeQName = objectSpecType.getType();
+                PrismObjectDefinition<T> objectDefinition = null;
+
+                // Type
+                if (specTypeQName != null) {
+                    specTypeQName = prismContext.getSchemaRegistry().qualifyTypeName(specTypeQName);
+                    PrismObjectDefinition<?> specObjectDef = prismContext.getSchemaRegistry().findObjectDefinitionByType(specTypeQName);
+                    if (specObjectDef == null) {
+                        throw new SchemaException("Unknown object type "+specTypeQName+" in "+autzHumanReadableDesc);
+                    }
+                    Class<?> specObjectClass = specObjectDef.getCompileTimeClass();
+                    if (objectType.equals(specObjectClass)) {
+                        traceClassMatch("Authorization is applicable for object because of type exact match", specObjectClass, objectType);
+                    } else if (!objectType.isAssignableFrom(specObjectClass)) {
+                        traceClassMatch("Authorization not applicable for object because of type mismatch", specObjectClass, objectType);
+                        continue;
+                    } else {
+                        traceClassMatch("Authorization is applicable for object because of type match, adding more specific type filter", specObjectClass, objectType);
+                        // The spec type is a subclass of requested type. So it might be returned from the search.
+                        // We need to use type filter.
+                        objSpecTypeFilter = prismContext.queryFactory().createType(specTypeQName, null);
+                        // and now we have a more specific object definition to use later in filter processing
+                        objectDefinition = (PrismObjectDefinition<T>) specObjectDef;
+                    }
+                }
+
+                // Owner
+                if (objectSpecType.getOwner() != null) {
+                    if (objectDefinition == null) {
+                        objectDefinition = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(objectType);
+                    }
+                    // TODO: MID-3899
+                    // TODO what if owner is specified not as "self" ?
+                    if (TaskType.class.isAssignableFrom(objectType)) {
+                        objSpecSecurityFilter = applyOwnerFilterOwnerRef(TaskType.F_OWNER_REF, objSpecSecurityFilter,  principal, objectDefinition);
+                    } else {
+                        LOGGER.trace("      Authorization not applicable for object because it has owner specification (this is not applicable for search)");
+                        continue;
+                    }
+                }
+
+                // Requestor
+                if (objectSpecType.getRequester() != null) {
+                    if (CaseType.class.isAssignableFrom(objectType)) {
+                        objSpecSecurityFilter = applyRequestorFilter(objSpecSecurityFilter, principal);
+                    } else {
+                        LOGGER.trace("      Authorization not applicable for object because it has requester specification (this is not applicable for search for objects other than CaseType)");
+                        continue;
+                    }
+                }
+
+                // Related object
+                if (objectSpecType.getRelatedObject() != null) {
+                    if (CaseType.class.isAssignableFrom(objectType) || TaskType.class.isAssignableFrom(objectType)) {
+                        objSpecSecurityFilter = applyRelatedObjectFilter(objectType, objSpecSecurityFilter, principal);
+                    } else {
+                        LOGGER.trace("      Authorization not applicable for object because it has related object specification (this is not applicable for search for objects other than CaseType and TaskType)");
+                        continue;
+                    }
+                }
+
+                // Assignee
+                if (objectSpecType.getAssignee() != null) {
+                    if (CaseType.class.isAssignableFrom(objectType)) {
+                        objSpecSecurityFilter = applyAssigneeFilter(objSpecSecurityFilter, principal);
+                    } else {
+                        LOGGER.trace("      Authorization not applicable for object because it has assignee specification (this is not applicable for search for objects other than CaseType)");
+                        continue;
+                    }
+                }
+
+                // Delegator
+                if (objectSpecType.getDelegator() != null) {
+                    // TODO: MID-3899
+                    LOGGER.trace("      Authorization not applicable for object because it has delegator specification (this is not applicable for search)");
+                    continue;
+                }
+
+                applicable = true;
+
+                // Special
+                List<SpecialObjectSpecificationType> specSpecial = objectSpecType.getSpecial();
+                if (specSpecial != null && !specSpecial.isEmpty()) {
+                    if (!includeSpecial) {
+                        LOGGER.trace("      Skipping authorization, because specials are present: {}", specSpecial);
+                        applicable = false;
+                    }
+                    if (specFilterType != null || specOrgRef != null || specOrgRelation != null || specRoleRelation != null || specTenant != null || !archetypeRefs.isEmpty()) {
+                        throw new SchemaException("Both filter/org/role/archetype/tenant and special object specification specified in authorization");
+                    }
+                    ObjectFilter specialFilter = null;
+                    for (SpecialObjectSpecificationType special: specSpecial) {
+                        if (special == SpecialObjectSpecificationType.SELF) {
+                            String principalOid = principal.getOid();
+                            specialFilter = ObjectQueryUtil.filterOr(specialFilter, prismContext.queryFactory().createInOid(principalOid),
+                                    prismContext);
+                        } else {
+                            throw new SchemaException("Unsupported special object specification specified in authorization: "+special);
+                        }
+                    }
+                    objSpecSecurityFilter = specTypeQName != null ?
+                            prismContext.queryFactory().createType(specTypeQName, specialFilter) : specialFilter;
+                } else {
+                    LOGGER.trace("      specials empty: {}", specSpecial);
+                }
+
+                // Filter
+                if (specFilterType != null) {
+                    if (objectDefinition == null) {
+                        objectDefinition = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(objectType);
+                    }
+                    CompiledAuthorizations.ParsedFilter parsedFilter = getParsedFilter(compiledAuthorizations, objectDefinition, specFilterType);
+                    if (parsedFilter.hasExpressions()) {
+                        cacheable = false;
+                    }
+                    ObjectFilter specFilter = evaluateFilter(principal, parsedFilter.getFilterCopy(), objectTargetSpec, autzHumanReadableDesc, task, result);
+                    if (specFilter != null) {
+                        ObjectQueryUtil.assertNotRaw(specFilter, "Filter in authorization object has undefined items. Maybe a 'type' specification is missing in the authorization?");
+                        ObjectQueryUtil.assertPropertyOnly(specFilter, "Filter in authorization object is not property-only filter");
+                    }
+                    LOGGER.trace("      applying property filter {}", specFilter);
+                    objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, specFilter, prismContext);
+                } else {
+                    LOGGER.trace("      filter empty (assuming \"all\")");
+                    if (objSpecSecurityFilter == null) {
+                        objSpecSecurityFilter = prismContext.queryFactory().createAll();
+                    }
+                }
+
+                // Archetypes
+                if (!archetypeRefs.isEmpty()) {
+                    ObjectFilter archsFilter = null;
+                    for (ObjectReferenceType archetypeRef : archetypeRefs) {
+                        ObjectFilter archFilter = prismContext.queryFor(AssignmentHolderType.class)
+                                .item(AssignmentHolderType.F_ARCHETYPE_REF).ref(archetypeRef.getOid())
+                                .buildFilter();
+                        archsFilter = ObjectQueryUtil.filterOr(archsFilter, archFilter, prismContext);
+                    }
+                    objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, archsFilter, prismContext);
+                    LOGGER.trace("      applying archetype filter {}", archsFilter);
+                } else {
+                    LOGGER.trace("      archetype empty");
+                }
+
+                // Org
+                if (specOrgRef != null) {
+                    ObjectFilter orgFilter = prismContext.queryFor(ObjectType.class)
+                            .isChildOf(specOrgRef.getOid()).buildFilter();
+                    objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, orgFilter, prismContext);
+                    LOGGER.trace("      applying org filter {}", orgFilter);
+                } else {
+                    LOGGER.trace("      org empty");
+                }
+
+                // orgRelation
+                if (specOrgRelation != null) {
+                    // depends on the parent orgs of the subject focus, which can be changed without changing authorizations
+                    cacheable = false;
+                    ObjectFilter objSpecOrgRelationFilter = null;
+                    QName subjectRelation = specOrgRelation.getSubjectRelation();
+                    for (ObjectReferenceType subjectParentOrgRef: principal.getFocus().getParentOrgRef()) {
+                        if (prismContext.relationMatches(subjectRelation, subjectParentOrgRef.getRelation())) {
+                            S_FilterEntryOrEmpty q = prismContext.queryFor(ObjectType.class);
+                            S_AtomicFilterExit q2;
+                            if (specOrgRelation.getScope() == null || specOrgRelation.getScope() == OrgScopeType.ALL_DESCENDANTS) {
+                                q2 = q.isChildOf(subjectParentOrgRef.getOid());
+                            } else if (specOrgRelation.getScope() == OrgScopeType.DIRECT_DESCENDANTS) {
+                                q2 = q.isDirectChildOf(subjectParentOrgRef.getOid());
+                            } else if (specOrgRelation.getScope() == OrgScopeType.ALL_ANCESTORS) {
+                                q2 = q.isParentOf(subjectParentOrgRef.getOid());
+                            } else {
+                                throw new UnsupportedOperationException("Unknown orgRelation scope "+specOrgRelation.getScope());
+                            }
+                            if (BooleanUtils.isTrue(specOrgRelation.isIncludeReferenceOrg())) {
+                                q2 = q2.or().id(subjectParentOrgRef.getOid());
+                            }
+                            objSpecOrgRelationFilter = ObjectQueryUtil.filterOr(objSpecOrgRelationFilter, q2.buildFilter(),
+                                    prismContext);
+                        }
+                    }
+                    if (objSpecOrgRelationFilter == null) {
+                        objSpecOrgRelationFilter = FilterCreationUtil.createNone(prismContext);
+                    }
+                    objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, objSpecOrgRelationFilter,
+                            prismContext);
+                    LOGGER.trace("      applying orgRelation filter {}", objSpecOrgRelationFilter);
+                } else {
+                    LOGGER.trace("      orgRelation empty");
+                }
+
+                // roleRelation
+                if (specRoleRelation != null) {
+                    // depends on the original filter
+                    cacheable = false;
+                    ObjectFilter objSpecRoleRelationFilter = processRoleRelationFilter(principal, autz, specRoleRelation, queryItemsSpec, origFilter);
+                    if (objSpecRoleRelationFilter == null) {
+                        if (autz.maySkipOnSearch()) {
+                            LOGGER.trace("      not applying roleRelation filter {} because it is not efficient and maySkipOnSearch is set", objSpecRoleRelationFilter);
+                            applicable = false;
+                        } else {
+                            objSpecRoleRelationFilter = FilterCreationUtil.createNone(prismContext);
+                        }
+                    }
+                    if (objSpecRoleRelationFilter != null) {
+                        objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, objSpecRoleRelationFilter,
+                                prismContext);
+                        LOGGER.trace("      applying roleRelation filter {}", objSpecRoleRelationFilter);
+                    }
+                } else {
+                    LOGGER.trace("      roleRelation empty");
+                }
+
+                // tenant
+                if (specTenant != null) {
+                    // depends on the tenant of the subject focus, which can be changed without changing authorizations
+                    cacheable = false;
+                    ObjectFilter objSpecTenantFilter = processTenantFilter(principal, autz, specTenant, queryItemsSpec, origFilter);
+                    if (objSpecTenantFilter == null) {
+                        if (autz.maySkipOnSearch()) {
+                            LOGGER.trace("      not applying tenant filter {} because it is not efficient and maySkipOnSearch is set", objSpecTenantFilter);
+                            applicable = false;
+                        } else {
+                            objSpecTenantFilter = FilterCreationUtil.createNone(prismContext);
+                        }
+                    }
+                    if (objSpecTenantFilter != null) {
+                        objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, objSpecTenantFilter,
+                                prismContext);
+                        LOGGER.trace("      applying tenant filter {}", objSpecTenantFilter);
+                    }
+                } else {
+                    LOGGER.trace("      tenant empty");
+                }
+
+                if (objSpecTypeFilter != null) {
+                    objSpecTypeFilter.setFilter(objSpecSecurityFilter);
+                    objSpecSecurityFilter = objSpecTypeFilter;
+                }
+
+                traceFilter("objSpecSecurityFilter", objectSpecType, objSpecSecurityFilter);
+                autzObjSecurityFilter = ObjectQueryUtil.filterOr(autzObjSecurityFilter, objSpecSecurityFilter,
+                        prismContext);
             }
+
         }
-        return false;
+
+        if (applicable) {
+            autzObjSecurityFilter = ObjectQueryUtil.simplify(autzObjSecurityFilter, prismContext);
+        }
+        return new CompiledAuthorizations.AutzSecurityFilter(autzObjSecurityFilter, applicable, cacheable);
     }
 
-    private boolean isApplicableLimitations(Authorization autz, String limitAuthorizationAction) {
+    static boolean isApplicableLimitations(Authorization autz, String limitAuthorizationAction) {
         if (limitAuthorizationAction == null) {
             return true;
         }
@@ -1791,7 +1813,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         return QNameUtil.contains(autzRelation, requestRelation);
     }
 
-    private boolean isApplicableOrderConstraints(Authorization autz, List<OrderConstraintsType> paramOrderConstraints) {
+    static boolean isApplicableOrderConstraints(Authorization autz, List<OrderConstraintsType> paramOrderConstraints) {
         if (autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
             // #all is always applicable
             // Compatibility note: in fact, this not really correct. We should not make
@@ -1817,7 +1839,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
         return true;
     }
 
-    private boolean isSubset(OrderConstraintsType paramOrderConstraint, OrderConstraintsType autzOrderConstraints) {
+    private static boolean isSubset(OrderConstraintsType paramOrderConstraint, OrderConstraintsType autzOrderConstraints) {
         Integer autzOrderMin;
         Integer autzOrderMax;
 
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2010-2021 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.security.enforcer.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.security.api.MidPointPrincipal;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Compares authorization selection of {@link CompiledAuthorizations} with the linear evaluation
+ * used before the authorizations were indexed, and tests recompilation by {@link CompiledAuthorizationsCache}.
+ */
+public class TestCompiledAuthorizations extends AbstractUnitTest {
+
+    private static final String[] ACTIONS = {
+            "http://example.com/autz#read", "http://example.com/autz#modify", "http://example.com/autz#add",
+            "http://example.com/autz#delete", "http://example.com/autz#assign", "http://example.com/autz#unused"
+    };
+
+    private static final AuthorizationPhaseType[] PHASES = { null, AuthorizationPhaseType.REQUEST,
+            AuthorizationPhaseType.EXECUTION };
+
+    @Test
+    public void test100SelectionMatchesLinearEvaluation() {
+        given("many authorizations with random actions (including #all) and phases");
+        List<Authorization> authorizations = randomAuthorizations(new Random(42), 300);
+        CompiledAuthorizations compiled = CompiledAuthorizations.compile(authorizations);
+
+        expect("selection for any action combination and phase is the same as linear evaluation, in the same order");
+        for (String[] actions : actionCombinations()) {
+            for (AuthorizationPhaseType phase : PHASES) {
+                for (boolean includeNullPhase : new boolean[] { true, false }) {
+                    assertThat(compiled.select(actions, phase, includeNullPhase))
+                            .as("actions %s, phase %s, includeNullPhase %s",
+                                    Arrays.toString(actions), phase, includeNullPhase)
+                            .containsExactlyElementsOf(
+                                    selectLinear(authorizations, actions, phase, includeNullPhase));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test110LimitationsAndOrderConstraintsAfterSelection() {
+        given("authorizations with random limitations and order constraints");
+        List<Authorization> authorizations = randomAuthorizations(new Random(4242), 300);
+        CompiledAuthorizations compiled = CompiledAuthorizations.compile(authorizations);
+        List<List<OrderConstraintsType>> orderConstraintsParams = Arrays.asList(
+                null,
+                List.of(new OrderConstraintsType().order(0)),
+                List.of(new OrderConstraintsType().order(1)),
+                List.of(new OrderConstraintsType().orderMin("1").orderMax("unbounded")));
+
+        expect("applicable authorizations are the same as for the linear evaluation (search pre-processing)");
+        for (String[] actions : actionCombinations()) {
+            for (AuthorizationPhaseType phase : PHASES) {
+                for (String limitAction : new String[] { null, ACTIONS[0], ACTIONS[4] }) {
+                    for (List<OrderConstraintsType> orderConstraints : orderConstraintsParams) {
+                        List<Authorization> expected = selectLinear(authorizations, actions, phase, true).stream()
+                                .filter(a -> SecurityEnforcerImpl.isApplicableLimitations(a, limitAction))
+                                .filter(a -> SecurityEnforcerImpl.isApplicableOrderConstraints(a, orderConstraints))
+                                .collect(Collectors.toList());
+                        assertThat(compiled.select(actions, phase, true).stream()
+                                .filter(a -> SecurityEnforcerImpl.isApplicableLimitations(a, limitAction))
+                                .filter(a -> SecurityEnforcerImpl.isApplicableOrderConstraints(a, orderConstraints))
+                                .collect(Collectors.toList()))
+                                .as("actions %s, phase %s, limitation %s, order constraints %s",
+                                        Arrays.toString(actions), phase, limitAction, orderConstraints)
+                                .containsExactlyElementsOf(expected);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test120AllActionAppliesToUnknownAction() {
+        given("authorizations for a specific action and for #all");
+        Authorization read = authorization(null, ACTIONS[0]);
+        Authorization all = authorization(null, AuthorizationConstants.AUTZ_ALL_URL);
+        Authorization readExecution = authorization(AuthorizationPhaseType.EXECUTION, ACTIONS[0]);
+        CompiledAuthorizations compiled = CompiledAuthorizations.compile(List.of(read, all, readExecution));
+
+        expect("action not mentioned in any authorization selects only #all");
+        assertThat(compiled.select(new String[] { "http://example.com/autz#other" }, AuthorizationPhaseType.REQUEST, true))
+                .containsExactly(all);
+        and("specific action selects both, phase-specific authorization only for its phase");
+        assertThat(compiled.select(new String[] { ACTIONS[0] }, AuthorizationPhaseType.REQUEST, true))
+                .containsExactly(read, all);
+        assertThat(compiled.select(new String[] { ACTIONS[0] }, AuthorizationPhaseType.EXECUTION, true))
+                .containsExactly(read, all, readExecution);
+        assertThat(compiled.select(new String[] { ACTIONS[0] }, AuthorizationPhaseType.EXECUTION, false))
+                .containsExactly(readExecution);
+    }
+
+    @Test
+    public void test200CacheRecompilesWhenAuthoritiesChange() {
+        given("principal with single authorization and compiled authorizations cache");
+        CompiledAuthorizationsCache cache = new CompiledAuthorizationsCache();
+        MidPointPrincipal principal = new MidPointPrincipal(new UserType());
+        Authorization read = authorization(null, ACTIONS[0]);
+        principal.getAuthorities().add(read);
+
+        when("compiled authorizations are obtained twice");
+        CompiledAuthorizations compiled1 = cache.get(principal);
+        CompiledAuthorizations compiled2 = cache.get(principal);
+
+        then("the same compiled authorizations are reused");
+        assertThat(compiled2).isSameAs(compiled1);
+        assertThat(compiled1.select(new String[] { ACTIONS[1] }, AuthorizationPhaseType.REQUEST, true)).isEmpty();
+
+        when("authorization is added to the principal");
+        Authorization all = authorization(null, AuthorizationConstants.AUTZ_ALL_URL);
+        principal.getAuthorities().add(all);
+        CompiledAuthorizations compiled3 = cache.get(principal);
+
+        then("authorizations are compiled again and the new one is used");
+        assertThat(compiled3).isNotSameAs(compiled1);
+        assertThat(compiled3.select(new String[] { ACTIONS[1] }, AuthorizationPhaseType.REQUEST, true))
+                .containsExactly(all);
+
+        when("authorization is replaced by an equal one (same size, different instance)");
+        principal.getAuthorities().remove(all);
+        principal.getAuthorities().add(authorization(null, AuthorizationConstants.AUTZ_ALL_URL));
+
+        then("authorizations are compiled again, cached security filters are not shared");
+        assertThat(cache.get(principal)).isNotSameAs(compiled3);
+    }
+
+    @Test
+    public void test210SecurityFiltersAreKeptPerAuthorizationAndType() {
+        given("compiled authorizations with cached security filter for one authorization");
+        Authorization read = authorization(null, ACTIONS[0]);
+        Authorization readCopy = authorization(null, ACTIONS[0]);
+        CompiledAuthorizations compiled = CompiledAuthorizations.compile(List.of(read, readCopy));
+        CompiledAuthorizations.AutzSecurityFilter filter =
+                new CompiledAuthorizations.AutzSecurityFilter(null, true, true);
+        compiled.putSecurityFilter(read, UserType.class, false, true, filter);
+
+        expect("filter is found only for the same authorization instance, type and mode");
+        assertThat(compiled.getSecurityFilter(read, UserType.class, false, true)).isSameAs(filter);
+        assertThat(compiled.getSecurityFilter(readCopy, UserType.class, false, true)).isNull();
+        assertThat(compiled.getSecurityFilter(read, RoleType.class, false, true)).isNull();
+        assertThat(compiled.getSecurityFilter(read, UserType.class, true, true)).isNull();
+        assertThat(compiled.getSecurityFilter(read, UserType.class, false, false)).isNull();
+        assertThat(compiled.getCachedSecurityFiltersCount()).isEqualTo(1);
+    }
+
+    /** Linear evaluation of action and phase, as it was done before authorizations were compiled. */
+    private List<Authorization> selectLinear(List<Authorization> authorizations, String[] actions,
+            AuthorizationPhaseType phase, boolean includeNullPhase) {
+        List<Authorization> selected = new ArrayList<>();
+        for (Authorization autz : authorizations) {
+            boolean actionApplicable = autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)
+                    || Arrays.stream(actions).anyMatch(a -> autz.getAction().contains(a));
+            if (actionApplicable
+                    && (autz.getPhase() == phase || includeNullPhase && autz.getPhase() == null)) {
+                selected.add(autz);
+            }
+        }
+        return selected;
+    }
+
+    private List<String[]> actionCombinations() {
+        List<String[]> combinations = new ArrayList<>();
+        for (String action : ACTIONS) {
+            combinations.add(new String[] { action });
+        }
+        combinations.add(new String[] { "http://example.com/autz#not-in-any-authorization" });
+        combinations.add(new String[] { ACTIONS[0], ACTIONS[1] });
+        combinations.add(new String[] { ACTIONS[2], ACTIONS[5], AuthorizationConstants.AUTZ_ALL_URL });
+        return combinations;
+    }
+
+    private List<Authorization> randomAuthorizations(Random random, int count) {
+        List<Authorization> authorizations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            AuthorizationType bean = new AuthorizationType()
+                    .phase(PHASES[random.nextInt(PHASES.length)]);
+            if (random.nextInt(20) == 0) {
+                bean.getAction().add(AuthorizationConstants.AUTZ_ALL_URL);
+            }
+            // the last action is never used, so there are actions only in the #all index
+            int actionCount = 1 + random.nextInt(3);
+            for (int a = 0; a < actionCount; a++) {
+                String action = ACTIONS[random.nextInt(ACTIONS.length - 1)];
+                if (!bean.getAction().contains(action)) {
+                    bean.getAction().add(action);
+                }
+            }
+            if (random.nextInt(4) == 0) {
+                bean.limitations(new AuthorizationLimitationsType()
+                        .action(ACTIONS[random.nextInt(ACTIONS.length)]));
+            }
+            int orderChoice = random.nextInt(4);
+            if (orderChoice == 1) {
+                bean.orderConstraints(new OrderConstraintsType().order(1));
+            } else if (orderChoice == 2) {
+                bean.orderConstraints(new OrderConstraintsType().orderMin("0").orderMax("unbounded"));
+            }
+            authorizations.add(new Authorization(bean));
+        }
+        return authorizations;
+    }
+
+    private Authorization authorization(AuthorizationPhaseType phase, String action) {
+        return new Authorization(new AuthorizationType()
+                .phase(phase)
+                .action(action));
+    }
+}
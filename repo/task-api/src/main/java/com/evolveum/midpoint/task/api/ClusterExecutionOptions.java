@@ -31,6 +31,13 @@ public class ClusterExecutionOptions {
      */
     private boolean skipDefaultAccept;
 
+    /**
+     * If true, the client for the node is cached and reused by subsequent executions with this option,
+     * so the connection to the node can be kept alive. The client is reset before each use;
+     * the code must not keep it after the execution.
+     */
+    private boolean reuseClient;
+
     public boolean isTryNodesInTransition() {
         return tryNodesInTransition;
     }
@@ -81,4 +88,21 @@ public class ClusterExecutionOptions {
     public static boolean isSkipDefaultAccept(ClusterExecutionOptions options) {
         return options != null && options.isSkipDefaultAccept();
     }
+
+    public boolean isReuseClient() {
+        return reuseClient;
+    }
+
+    public void setReuseClient(boolean reuseClient) {
+        this.reuseClient = reuseClient;
+    }
+
+    public ClusterExecutionOptions reuseClient() {
+        setReuseClient(true);
+        return this;
+    }
+
+    public static boolean isReuseClient(ClusterExecutionOptions options) {
+        return options != null && options.isReuseClient();
+    }
 }
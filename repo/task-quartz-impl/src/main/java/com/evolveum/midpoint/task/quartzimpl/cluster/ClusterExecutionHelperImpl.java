@@ -42,6 +42,7 @@ import org.springframework.stereotype.Component;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *  Helps with the intra-cluster remote code execution.
@@ -62,6 +63,9 @@ public class ClusterExecutionHelperImpl implements ClusterExecutionHelper {
 
     private static final String DOT_CLASS = ClusterExecutionHelperImpl.class.getName() + ".";
 
+    /** Clients kept for {@link ClusterExecutionOptions#isReuseClient()}, keyed by node identifier. */
+    private final Map<String, WebClient> reusableClients = new ConcurrentHashMap<>();
+
     @Override
     public void execute(@NotNull ClientCode code, ClusterExecutionOptions options, String context, OperationResult parentResult) {
         OperationResult result = parentResult.createSubresult(DOT_CLASS + "execute");
@@ -173,8 +177,20 @@ public class ClusterExecutionHelperImpl implements ClusterExecutionHelper {
             if (isUpAndAlive || ClusterExecutionOptions.isTryAllNodes(options) ||
                     !isDead && ClusterExecutionOptions.isTryNodesInTransition(options)) {
                 try {
-                    WebClient client = createClient(node, options, context);
-                    if (client != null) {
+                    boolean reuseClient = ClusterExecutionOptions.isReuseClient(options);
+                    WebClient client = reuseClient
+                            ? getReusableClient(node, options, context)
+                            : createClient(node, options, context);
+                    if (client != null && reuseClient) {
+                        // Reused clients are not thread-safe, and they are reset on each use.
+                        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                        synchronized (client) {
+                            client.reset();
+                            client.back(true);
+                            configureClient(client, options);
+                            code.execute(client, node, result);
+                        }
+                    } else if (client != null) {
                         code.execute(client, node, result);
                     } else {
                         result.recordStatus(OperationResultStatus.NOT_APPLICABLE, "Node " + nodeIdentifier +
@@ -200,17 +216,42 @@ public class ClusterExecutionHelperImpl implements ClusterExecutionHelper {
     }
 
     private WebClient createClient(NodeType node, ClusterExecutionOptions options, String context) throws SchemaException {
-        String baseUrl;
+        String url = getClusterUrl(node, context);
+        if (url == null) {
+            return null;
+        }
+        LOGGER.debug("Going to execute '{}' on '{}'", context, url);
+        WebClient client = WebClient.create(url, Arrays.asList(xmlProvider, jsonProvider, yamlProvider));
+        configureClient(client, options);
+        return client;
+    }
+
+    /**
+     * Returns cached client for the node, creating a new one if there's none or the node URL has changed.
+     * The client must be reset and configured before use.
+     */
+    private WebClient getReusableClient(NodeType node, ClusterExecutionOptions options, String context) {
+        String url = getClusterUrl(node, context);
+        if (url == null) {
+            return null;
+        }
+        LOGGER.debug("Going to execute '{}' on '{}' (reusing the client)", context, url);
+        return reusableClients.compute(node.getNodeIdentifier(), (nodeId, existing) ->
+                existing != null && url.equals(existing.getBaseURI().toString())
+                        ? existing
+                        : WebClient.create(url, Arrays.asList(xmlProvider, jsonProvider, yamlProvider)));
+    }
+
+    private String getClusterUrl(NodeType node, String context) {
         if (node.getUrl() != null) {
-            baseUrl = node.getUrl();
+            return node.getUrl() + "/ws/cluster";
         } else {
             LOGGER.warn("Node URL is not known, skipping remote execution ({}) for node {}", context, node.getNodeIdentifier());
             return null;
         }
+    }
 
-        String url = baseUrl + "/ws/cluster";
-        LOGGER.debug("Going to execute '{}' on '{}'", context, url);
-        WebClient client = WebClient.create(url, Arrays.asList(xmlProvider, jsonProvider, yamlProvider));
+    private void configureClient(WebClient client, ClusterExecutionOptions options) throws SchemaException {
         if (!ClusterExecutionOptions.isSkipDefaultAccept(options)) {
             client.accept(MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON, "application/yaml");
         }
@@ -227,7 +268,6 @@ public class ClusterExecutionHelperImpl implements ClusterExecutionHelper {
             throw new SystemException("Couldn't decrypt local node secret: " + e.getMessage(), e);
         }
         client.header("Authorization", RestAuthenticationMethod.CLUSTER.getMethod() + " " + Base64Utility.encode(secret.getBytes()));
-        return client;
     }
 
     @Override
@@ -12,6 +12,7 @@ import static java.util.Collections.emptyList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.lang3.StringUtils;
@@ -24,12 +25,15 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.builder.S_AtomicFilterEntry;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.ActivityStatisticsStore;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SchemaService;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.statistics.ActivityStatisticsUtil;
+import com.evolveum.midpoint.schema.util.task.ActivityTreeUtil;
 import com.evolveum.midpoint.schema.util.task.TaskTreeUtil;
 import com.evolveum.midpoint.task.api.*;
 import com.evolveum.midpoint.task.quartzimpl.LightweightTaskManager;
@@ -69,6 +73,9 @@ public class TaskRetriever {
     @Autowired private StalledTasksWatcher stalledTasksWatcher;
     @Autowired private LightweightTaskManager lightweightTaskManager;
 
+    /** Available only for the native repository. */
+    @Autowired(required = false) private ActivityStatisticsStore activityStatisticsStore;
+
     @NotNull
     public TaskQuartzImpl getTaskPlain(String taskOid, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
         return getTaskPlain(taskOid, null, parentResult);
@@ -127,6 +134,7 @@ public class TaskRetriever {
                     SelectorOptions.hasToLoadPath(TaskType.F_NEXT_RUN_START_TIMESTAMP, options),
                     SelectorOptions.hasToLoadPath(TaskType.F_NEXT_RETRY_TIMESTAMP, options),
                     SelectorOptions.hasToLoadPath(TaskType.F_NODE_AS_OBSERVED, options),
+                    true,
                     result);
 
             if (SelectorOptions.hasToLoadPath(TaskType.F_SUBTASK_REF, options)) {
@@ -258,7 +266,7 @@ public class TaskRetriever {
         for (Object subtask : getSubtasks(task, result)) {
             if (isPersistent(subtask)) {
                 addTransientTaskInformation(subtask, csi, retrieveNextRunStartTime, retrieveRetryTime,
-                        retrieveNodeAsObserved, result);
+                        retrieveNodeAsObserved, true, result);
                 fillInSubtasks(subtask, csi, options, result);
             }
             addSubtask(task, subtask);
@@ -308,8 +316,9 @@ public class TaskRetriever {
 
         List<PrismObject<TaskType>> tasks = new ArrayList<>();
         for (PrismObject<TaskType> taskInRepository : tasksInRepository) {
+            // Stored activity statistics are not added here, as it would mean one more query for each task found.
             addTransientTaskInformation(taskInRepository, csi,
-                    retrieveNextRunStartTime, retrieveRetryTime, retrieveNodeAsObserved, result);
+                    retrieveNextRunStartTime, retrieveRetryTime, retrieveNodeAsObserved, false, result);
             if (loadSubtasks) {
                 fillInSubtasks(taskInRepository, csi, options, result);
             }
@@ -320,7 +329,8 @@ public class TaskRetriever {
 
     // task is Task or PrismObject<TaskType>
     private void addTransientTaskInformation(Object task, ClusterStatusInformation csi,
-            boolean retrieveNextRunStartTime, boolean retrieveRetryTime, boolean retrieveNodeAsObserved, OperationResult result) {
+            boolean retrieveNextRunStartTime, boolean retrieveRetryTime, boolean retrieveNodeAsObserved,
+            boolean retrieveStoredStatistics, OperationResult result) {
 
         if (!isPersistent(task)) {
             throw new IllegalStateException("Task " + task + " is not persistent");
@@ -358,6 +368,38 @@ public class TaskRetriever {
         if (stalledSince != null) {
             taskBean.setStalledSince(XmlTypeConverter.createXMLGregorianCalendar(stalledSince));
         }
+        if (retrieveStoredStatistics) {
+            addStoredActivityStatistics(taskBean, result);
+        }
+    }
+
+    /**
+     * Adds statistics increments kept in the activity statistics store to the activity states in the task.
+     * (This is how statistics of activities with `statisticsStore` set to `repository` are retrieved.)
+     */
+    private void addStoredActivityStatistics(TaskType taskBean, OperationResult result) {
+        if (activityStatisticsStore == null || taskBean.getActivityState() == null) {
+            return;
+        }
+        try {
+            Map<String, ActivityStatisticsType> storedStatistics =
+                    activityStatisticsStore.getStatistics(taskBean.getOid(), result);
+            if (storedStatistics.isEmpty()) {
+                return;
+            }
+            ActivityTreeUtil.processLocalStates(taskBean, (path, state) -> {
+                ActivityStatisticsType increments = storedStatistics.get(path.toString());
+                if (increments != null) {
+                    if (state.getStatistics() == null) {
+                        state.setStatistics(new ActivityStatisticsType(prismContext));
+                    }
+                    ActivityStatisticsUtil.addTo(state.getStatistics(), increments);
+                }
+            });
+        } catch (SchemaException | RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't get activity statistics for {} from the repository",
+                    e, taskBean);
+        }
     }
 
     @NotNull
@@ -12,6 +12,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import javax.ws.rs.core.Response;
 import javax.xml.bind.JAXBElement;
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -630,6 +633,147 @@ public abstract class TestAbstractRestService extends RestServiceInitializer {
         getDummyAuditService().assertLoginLogout(SchemaConstants.CHANNEL_REST_URI);
     }
 
+    @Test
+    public void test210searchAllUsersStreamed() {
+        WebClient client = prepareClient();
+        client.path("/users/search/stream");
+        client.replaceHeader("Accept", "application/x-ndjson");
+
+        when();
+        Response response = client.post(new QueryType());
+
+        then();
+        assertStatus(response, 200);
+        String[] lines = response.readEntity(String.class).split("\n");
+        display("Streamed lines", List.of(lines));
+        assertTrue("Expected at least one user and the end record", lines.length >= 2);
+        String endRecord = lines[lines.length - 1];
+        assertTrue("No end record: " + endRecord, endRecord.contains("searchResultStreamEnd"));
+        assertTrue("Results not complete: " + endRecord, endRecord.matches(".*\"complete\"\\s*:\\s*true.*"));
+
+        displayDumpable("Audit", getDummyAuditService());
+        getDummyAuditService().assertRecords(2);
+        getDummyAuditService().assertLoginLogout(SchemaConstants.CHANNEL_REST_URI);
+    }
+
+    @Test
+    public void test215searchUsersStreamedWithPageSize() {
+        WebClient client = prepareClient();
+        client.path("/users/search/stream");
+        client.query("pageSize", 1);
+        client.replaceHeader("Accept", "application/x-ndjson");
+
+        when();
+        Response response = client.post(new QueryType());
+
+        then();
+        if (!getRepositoryService().isNative()) {
+            // cursors rely on the iteration order of the native repository
+            assertStatus(response, 400);
+            return;
+        }
+        assertStatus(response, 200);
+        String[] lines = response.readEntity(String.class).split("\n");
+        display("Streamed lines", List.of(lines));
+        assertEquals("Expected one user and the end record", 2, lines.length);
+        String endRecord = lines[1];
+        assertTrue("Results should not be complete: " + endRecord,
+                endRecord.matches(".*\"complete\"\\s*:\\s*false.*"));
+        assertTrue("No cursor: " + endRecord, endRecord.contains("nextCursor"));
+    }
+
+    @Test
+    public void test216searchUsersStreamedFollowingCursorNdjson() throws Exception {
+        searchUsersStreamedFollowingCursor("application/x-ndjson");
+    }
+
+    @Test
+    public void test217searchUsersStreamedFollowingCursorJsonArray() throws Exception {
+        searchUsersStreamedFollowingCursor("application/json");
+    }
+
+    @Test
+    public void test218searchUsersStreamedFollowingCursorXml() throws Exception {
+        searchUsersStreamedFollowingCursor("application/xml");
+    }
+
+    @Test
+    public void test219searchShadowsStreamedWithPageSizeWithoutNoFetch() {
+        WebClient client = prepareClient();
+        client.path("/shadows/search/stream");
+        client.query("pageSize", 1);
+        client.replaceHeader("Accept", "application/x-ndjson");
+
+        when();
+        Response response = client.post(new QueryType());
+
+        then("shadows from the resource come in connector order, so cursors are refused");
+        assertStatus(response, 400);
+    }
+
+    /**
+     * Follows the cursors with page size of 2 until the results are complete.
+     * As each full page ends with the cursor of its last object, the cursors must be every second OID
+     * of all users in the OID order, and the page sizes must add up to the number of users:
+     * this means no user was skipped or returned twice.
+     */
+    private void searchUsersStreamedFollowingCursor(String accept) throws Exception {
+        int pageSize = 2;
+        List<String> allOids = getRepositoryService()
+                .searchObjects(UserType.class, null, null, new OperationResult("searchUsers")).stream()
+                .map(PrismObject::getOid)
+                .sorted()
+                .collect(Collectors.toList());
+        assertTrue("Expected more users than fit into a single page", allOids.size() > pageSize);
+
+        int returned = 0;
+        String cursor = null;
+        for (int page = 0; ; page++) {
+            assertTrue("Too many pages", page <= allOids.size());
+            WebClient client = prepareClient();
+            client.path("/users/search/stream");
+            client.query("pageSize", pageSize);
+            if (cursor != null) {
+                client.query("after", cursor);
+            }
+            client.replaceHeader("Accept", accept);
+
+            when("page " + page + " is requested");
+            Response response = client.post(new QueryType());
+
+            then();
+            if (!getRepositoryService().isNative()) {
+                assertStatus(response, 400);
+                return;
+            }
+            assertStatus(response, 200);
+            String body = response.readEntity(String.class);
+            String endRecord = body.substring(body.indexOf("searchResultStreamEnd"));
+            display("End record of page " + page, endRecord);
+
+            int count = Integer.parseInt(extractEndRecordValue(endRecord, "count"));
+            returned += count;
+            if (Boolean.parseBoolean(extractEndRecordValue(endRecord, "complete"))) {
+                assertFalse("Unexpected cursor in the last page: " + endRecord, endRecord.contains("nextCursor"));
+                break;
+            }
+            assertEquals("Wrong # of objects in a full page", pageSize, count);
+            cursor = extractEndRecordValue(endRecord, "nextCursor");
+            assertEquals("Wrong cursor (gap or duplicate) after page " + page,
+                    allOids.get(returned - 1), cursor);
+        }
+        assertEquals("Wrong total # of returned users", allOids.size(), returned);
+    }
+
+    /** Gets the value of end record item, be it in JSON or XML. */
+    private String extractEndRecordValue(String endRecord, String itemName) {
+        Matcher matcher = Pattern
+                .compile("\"?" + itemName + "\"?\\s*[:>]\\s*\"?([^\",<\\s}]+)")
+                .matcher(endRecord);
+        assertTrue("No " + itemName + " in the end record: " + endRecord, matcher.find());
+        return matcher.group(1);
+    }
+
     @Test
     public void test401AddUserTemplateOverwrite() {
         WebClient client = prepareClient();